@@ -0,0 +1,92 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.benchmarks;
+
+import java.util.Random;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.utils.RegionMap;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.hmachine.utils.HMTestMaps;
+
+/**
+ * The digital elevation models used by the benchmarks.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class BenchmarkDems {
+
+    /**
+     * The name of the {@link HMTestMaps} elevation map.
+     */
+    public static final String TESTMAPS = "testmaps";
+
+    private static final double RES = 30.0;
+    private static final long SEED = 42;
+
+    /**
+     * Get a dem by name.
+     *
+     * @param name either {@link #TESTMAPS} or the size of the side of a square synthetic dem.
+     * @return the dem coverage.
+     */
+    public static GridCoverage2D getDem( String name ) {
+        if (TESTMAPS.equals(name)) {
+            return CoverageUtilities.buildCoverage("elevation", HMTestMaps.mapData, HMTestMaps.getEnvelopeparams(),
+                    HMTestMaps.getCrs(), true);
+        }
+        int size = Integer.parseInt(name);
+        return createSyntheticDem(size, size, SEED);
+    }
+
+    /**
+     * Creates a synthetic dem.
+     *
+     * <p>The surface is a valley sloping to the south, with some hills and a small
+     * random noise that creates many pits and flat areas, as in real dems. The same
+     * seed always gives the same dem.
+     *
+     * @param cols the cols of the dem.
+     * @param rows the rows of the dem.
+     * @param seed the seed of the noise.
+     * @return the dem coverage, placed at the {@link HMTestMaps} position.
+     */
+    public static GridCoverage2D createSyntheticDem( int cols, int rows, long seed ) {
+        Random random = new Random(seed);
+        double[][] data = new double[rows][cols];
+        double center = cols / 2.0;
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                double slope = (rows - r) * RES * 0.05;
+                double valley = Math.abs(c - center) * RES * 0.1;
+                double hills = 15.0 * Math.sin(c / 11.0) * Math.cos(r / 7.0);
+                double noise = random.nextDouble() * 2.0;
+                // round to the cm to have also flat areas
+                data[r][c] = Math.round((1000.0 + slope + valley + hills + noise) * 100.0) / 100.0;
+            }
+        }
+
+        RegionMap testMapsRegion = HMTestMaps.getEnvelopeparams();
+        double west = testMapsRegion.getWest();
+        double south = testMapsRegion.getSouth();
+        RegionMap region = CoverageUtilities.makeRegionParamsMap(south + rows * RES, south, west, west + cols * RES, RES, RES,
+                cols, rows);
+        return CoverageUtilities.buildCoverage("elevation", data, region, HMTestMaps.getCrs(), true);
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.benchmarks;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.libs.modules.multiprocessing.BlockingExecutorService;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
+import org.hortonmachine.gears.libs.modules.multiprocessing.FixedChunkSizePlanner;
+import org.hortonmachine.gears.libs.modules.multiprocessing.InThreadExecutionPlanner;
+import org.hortonmachine.gears.libs.monitor.DummyProgressMonitor;
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+import org.hortonmachine.gears.utils.RegionMap;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.hmachine.modules.demmanipulation.pitfiller.OmsPitfiller;
+import org.hortonmachine.hmachine.modules.geomorphology.flow.OmsFlowDirections;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The dem and its derived maps shared by the benchmarks, plus the planner
+ * configuration for the requested number of threads.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@State(Scope.Benchmark)
+public class DemState {
+
+    /**
+     * The dem, see {@link BenchmarkDems#getDem(String)}.
+     */
+    @Param({BenchmarkDems.TESTMAPS, "500", "1000", "2000"})
+    public String dem;
+
+    /**
+     * The number of threads used by the {@link ExecutionPlanner planners}. With 1 the
+     * {@link InThreadExecutionPlanner} is used, else a {@link FixedChunkSizePlanner} on
+     * a pool of the given size.
+     */
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    public IHMProgressMonitor pm = new DummyProgressMonitor();
+
+    public GridCoverage2D elev;
+    public GridCoverage2D pit;
+    public GridCoverage2D flow;
+    public int cols;
+    public int rows;
+    public double xRes;
+    public double yRes;
+
+    private ExecutorService threadPool;
+    private BlockingExecutorService executor;
+    private Supplier<ExecutionPlanner> previousPlannerFactory;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        elev = BenchmarkDems.getDem(dem);
+        RegionMap region = CoverageUtilities.getRegionParamsFromGridCoverage(elev);
+        cols = region.getCols();
+        rows = region.getRows();
+        xRes = region.getXres();
+        yRes = region.getYres();
+
+        OmsPitfiller pitfiller = new OmsPitfiller();
+        pitfiller.inElev = elev;
+        pitfiller.doPriorityFlood = true;
+        pitfiller.pm = pm;
+        pitfiller.process();
+        pit = pitfiller.outPit;
+
+        OmsFlowDirections flowDirections = new OmsFlowDirections();
+        flowDirections.inPit = pit;
+        flowDirections.pm = pm;
+        flowDirections.process();
+        flow = flowDirections.outFlow;
+
+        previousPlannerFactory = ExecutionPlanner.defaultPlannerFactory;
+        if (threads > 1) {
+            threadPool = Executors.newFixedThreadPool(threads);
+            executor = new BlockingExecutorService(threadPool, threads);
+            ExecutionPlanner.defaultPlannerFactory = () -> new FixedChunkSizePlanner(executor);
+        } else {
+            ExecutionPlanner.defaultPlannerFactory = () -> new InThreadExecutionPlanner();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ExecutionPlanner.defaultPlannerFactory = previousPlannerFactory;
+        if (threadPool != null) {
+            threadPool.shutdown();
+            threadPool = null;
+        }
+    }
+
+    /**
+     * @return a new planner for the configured number of threads, or <code>null</code>
+     *          for the sequential mode of the engines that support it.
+     */
+    public ExecutionPlanner createPlannerOrNull() {
+        if (threads > 1) {
+            return ExecutionPlanner.createDefaultPlanner();
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of cells of the dem.
+     */
+    public long getCellsCount() {
+        return (long) cols * rows;
+    }
+
+}
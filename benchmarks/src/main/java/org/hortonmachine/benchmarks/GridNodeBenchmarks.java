@@ -0,0 +1,60 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hortonmachine.gears.libs.modules.GridNode;
+import org.hortonmachine.gears.libs.modules.GridNodeCursor;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the grid traversal with {@link GridNode} and {@link GridNodeCursor}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GridNodeBenchmarks {
+
+    @Benchmark
+    public int[] gridNode( DemState state, CellsCounter counter ) throws Exception {
+        int[] flows = new GridTraversal().gridNodeFlows(state);
+        counter.cells += state.getCellsCount();
+        return flows;
+    }
+
+    @Benchmark
+    public int[] gridNodeCursor( DemState state, CellsCounter counter ) throws Exception {
+        double[] elevData = CoverageUtilities.renderedImage2RowMajorDoubleArray(state.pit.getRenderedImage());
+        int[] flows = new GridTraversal().cursorFlows(state, elevData);
+        counter.cells += state.getCellsCount();
+        return flows;
+    }
+
+}
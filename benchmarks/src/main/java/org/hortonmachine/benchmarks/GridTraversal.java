@@ -0,0 +1,82 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.benchmarks;
+
+import javax.media.jai.iterator.RandomIter;
+
+import org.hortonmachine.gears.libs.modules.GridNode;
+import org.hortonmachine.gears.libs.modules.GridNodeCursor;
+import org.hortonmachine.gears.libs.modules.multiprocessing.GridMultiProcessing;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+
+/**
+ * Grid loops through the {@link GridMultiProcessing} planners, calculating the
+ * steepest descent flow of every cell.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class GridTraversal extends GridMultiProcessing {
+
+    /**
+     * Visits the cells creating a {@link GridNode} per cell.
+     *
+     * @param state the dem state.
+     * @return the flow values in row-major order.
+     * @throws Exception
+     */
+    public int[] gridNodeFlows( DemState state ) throws Exception {
+        pm = state.pm;
+        int cols = state.cols;
+        int rows = state.rows;
+        double xRes = state.xRes;
+        double yRes = state.yRes;
+        int[] flows = new int[cols * rows];
+        RandomIter elevIter = CoverageUtilities.getRandomIterator(state.pit);
+        try {
+            processGrid(cols, rows, ( c, r ) -> {
+                GridNode node = new GridNode(elevIter, cols, rows, xRes, yRes, c, r);
+                flows[r * cols + c] = node.getFlow();
+            });
+        } finally {
+            elevIter.done();
+        }
+        return flows;
+    }
+
+    /**
+     * Visits the cells with a {@link GridNodeCursor} per thread.
+     *
+     * @param state the dem state.
+     * @param elevData the elevation values in row-major order.
+     * @return the flow values in row-major order.
+     * @throws Exception
+     */
+    public int[] cursorFlows( DemState state, double[] elevData ) throws Exception {
+        pm = state.pm;
+        int cols = state.cols;
+        int rows = state.rows;
+        int[] flows = new int[cols * rows];
+        ThreadLocal<GridNodeCursor> cursors = ThreadLocal
+                .withInitial(() -> new GridNodeCursor(elevData, cols, rows, state.xRes, state.yRes));
+        processGrid(cols, rows, ( c, r ) -> {
+            flows[r * cols + c] = cursors.get().moveTo(c, r).getFlow();
+        });
+        return flows;
+    }
+
+}
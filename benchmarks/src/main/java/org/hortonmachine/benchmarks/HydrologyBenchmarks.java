@@ -0,0 +1,162 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.libs.modules.FlowAccumulationEngine;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.hmachine.modules.demmanipulation.pitfiller.OmsDePitter;
+import org.hortonmachine.hmachine.modules.demmanipulation.pitfiller.OmsPitfiller;
+import org.hortonmachine.hmachine.modules.geomorphology.draindir.OmsDrainDir;
+import org.hortonmachine.hmachine.modules.geomorphology.flow.OmsFlowDirections;
+import org.hortonmachine.hmachine.modules.geomorphology.geomorphon.OmsGeomorphon;
+import org.hortonmachine.hmachine.modules.geomorphology.slope.OmsSlope;
+import org.hortonmachine.hmachine.modules.geomorphology.tca.OmsTca;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the hydrology modules on the {@link DemState} dems.
+ *
+ * <p>Every benchmark is a complete run of a module on the whole dem, the processed
+ * cells are reported through the {@link CellsCounter}.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HydrologyBenchmarks {
+
+    @Benchmark
+    public GridCoverage2D flowDirections( DemState state, CellsCounter counter ) throws Exception {
+        OmsFlowDirections flowDirections = new OmsFlowDirections();
+        flowDirections.inPit = state.pit;
+        flowDirections.pThreads = state.threads;
+        flowDirections.pm = state.pm;
+        flowDirections.process();
+        counter.cells += state.getCellsCount();
+        return flowDirections.outFlow;
+    }
+
+    @Benchmark
+    public GridCoverage2D drainDir( DemState state, CellsCounter counter ) throws Exception {
+        OmsDrainDir drainDir = new OmsDrainDir();
+        drainDir.inPit = state.pit;
+        drainDir.inFlow = state.flow;
+        drainDir.pThreads = state.threads;
+        drainDir.pm = state.pm;
+        drainDir.process();
+        counter.cells += state.getCellsCount();
+        return drainDir.outFlow;
+    }
+
+    @Benchmark
+    public GridCoverage2D tca( DemState state, CellsCounter counter ) throws Exception {
+        OmsTca tca = new OmsTca();
+        tca.inFlow = state.flow;
+        tca.pThreads = state.threads;
+        tca.pm = state.pm;
+        tca.process();
+        counter.cells += state.getCellsCount();
+        return tca.outTca;
+    }
+
+    @Benchmark
+    public double[] tcaEngine( DemState state, CellsCounter counter ) throws Exception {
+        int[] flowData = CoverageUtilities.renderedImage2RowMajorIntArray(state.flow.getRenderedImage());
+        FlowAccumulationEngine engine = new FlowAccumulationEngine(flowData, state.cols, state.rows);
+        double[] tca = engine.tca(state.createPlannerOrNull());
+        counter.cells += state.getCellsCount();
+        return tca;
+    }
+
+    @Benchmark
+    public GridCoverage2D pitfiller( DemState state, CellsCounter counter ) throws Exception {
+        OmsPitfiller pitfiller = new OmsPitfiller();
+        pitfiller.inElev = state.elev;
+        pitfiller.pm = state.pm;
+        pitfiller.process();
+        counter.cells += state.getCellsCount();
+        return pitfiller.outPit;
+    }
+
+    @Benchmark
+    public GridCoverage2D pitfillerPriorityFlood( DemState state, CellsCounter counter ) throws Exception {
+        OmsPitfiller pitfiller = new OmsPitfiller();
+        pitfiller.inElev = state.elev;
+        pitfiller.doPriorityFlood = true;
+        pitfiller.pm = state.pm;
+        pitfiller.process();
+        counter.cells += state.getCellsCount();
+        return pitfiller.outPit;
+    }
+
+    @Benchmark
+    public GridCoverage2D dePitter( DemState state, CellsCounter counter ) throws Exception {
+        OmsDePitter dePitter = new OmsDePitter();
+        dePitter.inElev = state.elev;
+        dePitter.pm = state.pm;
+        dePitter.process();
+        counter.cells += state.getCellsCount();
+        return dePitter.outFlow;
+    }
+
+    @Benchmark
+    public GridCoverage2D dePitterPriorityFlood( DemState state, CellsCounter counter ) throws Exception {
+        OmsDePitter dePitter = new OmsDePitter();
+        dePitter.inElev = state.elev;
+        dePitter.doPriorityFlood = true;
+        dePitter.pm = state.pm;
+        dePitter.process();
+        counter.cells += state.getCellsCount();
+        return dePitter.outFlow;
+    }
+
+    @Benchmark
+    public GridCoverage2D slope( DemState state, CellsCounter counter ) throws Exception {
+        OmsSlope slope = new OmsSlope();
+        slope.inPit = state.pit;
+        slope.inFlow = state.flow;
+        slope.pm = state.pm;
+        slope.process();
+        counter.cells += state.getCellsCount();
+        return slope.outSlope;
+    }
+
+    @Benchmark
+    public GridCoverage2D geomorphon( DemState state, CellsCounter counter ) throws Exception {
+        OmsGeomorphon geomorphon = new OmsGeomorphon();
+        geomorphon.inElev = state.pit;
+        geomorphon.pRadius = 6 * state.xRes;
+        geomorphon.pm = state.pm;
+        geomorphon.process();
+        counter.cells += state.getCellsCount();
+        return geomorphon.outRaster;
+    }
+
+}
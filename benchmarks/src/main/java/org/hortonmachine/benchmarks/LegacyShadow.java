@@ -0,0 +1,110 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.benchmarks;
+
+import static org.hortonmachine.gears.libs.modules.ModelsEngine.calcInverseSunVector;
+import static org.hortonmachine.gears.libs.modules.ModelsEngine.calcNormalSunVector;
+import static org.hortonmachine.gears.libs.modules.ModelsEngine.scalarProduct;
+
+import java.awt.image.WritableRaster;
+
+import org.hortonmachine.gears.libs.modules.ShadowEngine;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+
+/**
+ * The shadow map calculation as it was done before the {@link ShadowEngine}, one ray
+ * at a time through the raster api. Kept as the reference of the {@link ShadowBenchmarks}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class LegacyShadow {
+
+    /**
+     * Evaluate the shadow map calling the shadow method.
+     *
+     * @param h the height of the raster.
+     * @param w the width of the raster.
+     * @param sunVector the sun vector.
+     * @param demWR the elevation map.
+     * @param dx the resolution of the elevation map.
+     * @return the shadow map.
+     */
+    public static WritableRaster calculateFactor( int h, int w, double[] sunVector, WritableRaster demWR, double dx ) {
+        double[] inverseSunVector = calcInverseSunVector(sunVector);
+        double[] normalSunVector = calcNormalSunVector(sunVector);
+
+        double casx = 1e6 * sunVector[0];
+        double casy = 1e6 * sunVector[1];
+        int f_i = 0;
+        int f_j = 0;
+
+        if (casx <= 0) {
+            f_i = 0;
+        } else {
+            f_i = w - 1;
+        }
+
+        if (casy <= 0) {
+            f_j = 0;
+        } else {
+            f_j = h - 1;
+        }
+
+        WritableRaster sOmbraWR = CoverageUtilities.createWritableRaster(w, h, null, null, 1.0);
+        int j = f_j;
+        for( int i = 0; i < sOmbraWR.getWidth(); i++ ) {
+            shadow(i, j, sOmbraWR, demWR, dx, normalSunVector, inverseSunVector);
+        }
+        int i = f_i;
+        for( int k = 0; k < sOmbraWR.getHeight(); k++ ) {
+            shadow(i, k, sOmbraWR, demWR, dx, normalSunVector, inverseSunVector);
+        }
+        return sOmbraWR;
+    }
+
+    private static WritableRaster shadow( int i, int j, WritableRaster tmpWR, WritableRaster demWR, double res,
+            double[] normalSunVector, double[] inverseSunVector ) {
+        int n = 0;
+        double zcompare = -Double.MAX_VALUE;
+        double dx = (inverseSunVector[0] * n);
+        double dy = (inverseSunVector[1] * n);
+        int nCols = tmpWR.getWidth();
+        int nRows = tmpWR.getHeight();
+        int idx = (int) Math.round(i + dx);
+        int jdy = (int) Math.round(j + dy);
+        double vectorToOrigin[] = new double[3];
+        while( idx >= 0 && idx <= nCols - 1 && jdy >= 0 && jdy <= nRows - 1 ) {
+            vectorToOrigin[0] = dx * res;
+            vectorToOrigin[1] = dy * res;
+            vectorToOrigin[2] = demWR.getSampleDouble(idx, jdy, 0);
+            double zprojection = scalarProduct(vectorToOrigin, normalSunVector);
+            if ((zprojection < zcompare)) {
+                tmpWR.setSample(idx, jdy, 0, 0);
+            } else {
+                zcompare = zprojection;
+            }
+            n = n + 1;
+            dy = (inverseSunVector[1] * n);
+            dx = (inverseSunVector[0] * n);
+            idx = (int) Math.round(i + dx);
+            jdy = (int) Math.round(j + dy);
+        }
+        return tmpWR;
+    }
+
+}
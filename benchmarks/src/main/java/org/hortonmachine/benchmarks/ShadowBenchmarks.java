@@ -0,0 +1,81 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.benchmarks;
+
+import java.awt.image.WritableRaster;
+import java.util.concurrent.TimeUnit;
+
+import org.hortonmachine.gears.libs.modules.ShadowEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the shadow map calculation of the {@link ShadowEngine} against the
+ * {@link LegacyShadow} ray tracing, on the {@link DemState} dems.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ShadowBenchmarks {
+
+    /**
+     * The rows of a band of the banded engine.
+     */
+    private static final int BAND_ROWS = 256;
+
+    @Benchmark
+    public WritableRaster legacy( DemState state, ShadowState shadowState, CellsCounter counter ) throws Exception {
+        WritableRaster shadow = LegacyShadow.calculateFactor(state.rows, state.cols, shadowState.sunVector,
+                shadowState.elevWR, state.xRes);
+        counter.cells += state.getCellsCount();
+        return shadow;
+    }
+
+    @Benchmark
+    public byte[] engine( DemState state, ShadowState shadowState, CellsCounter counter ) throws Exception {
+        ShadowEngine engine = new ShadowEngine(shadowState.elevData, state.cols, state.rows, state.xRes);
+        byte[] shadow = engine.shadow(shadowState.sunVector, state.createPlannerOrNull());
+        counter.cells += state.getCellsCount();
+        return shadow;
+    }
+
+    @Benchmark
+    public byte[] engineBands( DemState state, ShadowState shadowState, CellsCounter counter ) throws Exception {
+        int cols = state.cols;
+        double[] elevData = shadowState.elevData;
+        byte[] shadow = new byte[elevData.length];
+        ShadowEngine engine = new ShadowEngine(cols, state.rows, state.xRes);
+        engine.shadow(shadowState.sunVector, BAND_ROWS, ( fromRow, toRow, elev ) -> {
+            System.arraycopy(elevData, fromRow * cols, elev, 0, (toRow - fromRow) * cols);
+        }, ( fromRow, toRow, bandShadow ) -> {
+            System.arraycopy(bandShadow, 0, shadow, fromRow * cols, (toRow - fromRow) * cols);
+        }, state.createPlannerOrNull());
+        counter.cells += state.getCellsCount();
+        return shadow;
+    }
+
+}
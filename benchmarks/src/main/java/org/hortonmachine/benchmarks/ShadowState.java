@@ -0,0 +1,64 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.benchmarks;
+
+import java.awt.image.WritableRaster;
+
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The elevation data and the sun vector used by the {@link ShadowBenchmarks}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@State(Scope.Benchmark)
+public class ShadowState {
+
+    /**
+     * The sun azimuth in degrees, clockwise from north.
+     */
+    @Param({"135", "300"})
+    public double azimuth;
+
+    /**
+     * The sun elevation in degrees.
+     */
+    @Param({"20"})
+    public double elevation;
+
+    public WritableRaster elevWR;
+    public double[] elevData;
+    public double[] sunVector;
+
+    @Setup(Level.Trial)
+    public void setup( DemState state ) throws Exception {
+        elevWR = CoverageUtilities.renderedImage2DoubleWritableRaster(state.pit.getRenderedImage(), false);
+        elevData = elevWR.getSamples(0, 0, state.cols, state.rows, 0, (double[]) null);
+
+        double azimuthRad = Math.toRadians(azimuth);
+        double elevationRad = Math.toRadians(elevation);
+        sunVector = new double[]{Math.sin(azimuthRad) * Math.cos(elevationRad), -Math.cos(azimuthRad) * Math.cos(elevationRad),
+                Math.sin(elevationRad)};
+    }
+
+}
@@ -93,7 +93,7 @@ public class GearsMessages {
     public static final String OMSTIMESERIESITERATORWRITER_LICENSE = "General Public License Version 3 (GPLv3)";
     public static final String OMSTIMESERIESITERATORWRITER_AUTHORNAMES = "Andrea Antonello";
     public static final String OMSTIMESERIESITERATORWRITER_AUTHORCONTACTS = "http://www.hydrologis.com";
-    public static final String OMSTIMESERIESITERATORWRITER_FILE_DESCRIPTION = "The csv file to write to.";
+    public static final String OMSTIMESERIESITERATORWRITER_FILE_DESCRIPTION = "The csv file to write to. Files with the hts extension are written as binary time series.";
     public static final String OMSTIMESERIESITERATORWRITER_IN_TABLENAME_DESCRIPTION = "The table name.";
     public static final String OMSTIMESERIESITERATORWRITER_IN_DATA_DESCRIPTION = "The hashmap of ids and values to write.";
     public static final String OMSTIMESERIESITERATORWRITER_T_START_DESCRIPTION = "The start date. If available time is added as first column.";
@@ -325,6 +325,8 @@ public class GearsMessages {
     public static final String OMSRASTERREADER_P_ROWS_DESCRIPTION = "The optional requested numer of rows.";
     public static final String OMSRASTERREADER_P_COLS_DESCRIPTION = "The optional requested numer of cols.";
     public static final String OMSRASTERREADER_DO_LEGACY_GRASS_DESCRIPTION = "Optional flag to force a legacy GRASS driver usage.";
+    public static final String OMSRASTERREADER_DO_LAZY_DESCRIPTION = "Optional flag to read the tiles of the raster only when they are used (supported are: asc, tiff, grass).";
+    public static final String OMSRASTERREADER_P_TILE_CACHE_SIZE_DESCRIPTION = "The maximum number of tiles kept in memory when reading lazily.";
     public static final String OMSRASTERREADER_OUT_RASTER_DESCRIPTION = "The read output raster map.";
 
     public static final String OMSGRASSLEGACYWRITER_DESCRIPTION = "Legacy class for writing grass rasters.";
@@ -930,6 +932,7 @@ public class GearsMessages {
     public static final String OMSRASTERSUMMARY_IN_RASTER_DESCRIPTION = "The map to analize.";
     public static final String OMSRASTERSUMMARY_P_BINS_DESCRIPTION = "The number of bins for the histogram (default = 100).";
     public static final String OMSRASTERSUMMARY_DO_HISTOGRAM_DESCRIPTION = "Flag that defines if the histogram should be done also (default = false).";
+    public static final String OMSRASTERSUMMARY_DO_STREAMING_DESCRIPTION = "Flag that defines if the statistics should be calculated reading the raster tile by tile, for rasters larger than memory (default = false). The histogram is not streamed.";
     public static final String OMSRASTERSUMMARY_OUT_MIN_DESCRIPTION = "The min value.";
     public static final String OMSRASTERSUMMARY_OUT_MAX_DESCRIPTION = "The max value.";
     public static final String OMSRASTERSUMMARY_OUT_MEAN_DESCRIPTION = "The mean value.";
@@ -1372,7 +1375,7 @@ public class GearsMessages {
     public static final String OMSTIMESERIESITERATORREADER_LICENSE = "General Public License Version 3 (GPLv3)";
     public static final String OMSTIMESERIESITERATORREADER_AUTHORNAMES = "Andrea Antonello";
     public static final String OMSTIMESERIESITERATORREADER_AUTHORCONTACTS = "http://www.hydrologis.com";
-    public static final String OMSTIMESERIESITERATORREADER_FILE_DESCRIPTION = "The csv file to read from.";
+    public static final String OMSTIMESERIESITERATORREADER_FILE_DESCRIPTION = "The csv file to read from. Files with the hts extension are read as binary time series.";
     public static final String OMSTIMESERIESITERATORREADER_ID_FIELD_DESCRIPTION = "The id metadata field.";
     public static final String OMSTIMESERIESITERATORREADER_FILE_NOVALUE_DESCRIPTION = "The file novalue to be translated into the internal novalue. Can be a string also";
     public static final String OMSTIMESERIESITERATORREADER_NOVALUE_DESCRIPTION = "The internal novalue to use (usually not changed).";
@@ -1380,6 +1383,7 @@ public class GearsMessages {
     public static final String OMSTIMESERIESITERATORREADER_P_AGGREGATION_DESCRIPTION = "The aggregation type to use (0 = sum, 1 = avg).";
     public static final String OMSTIMESERIESITERATORREADER_T_CURRENT_DESCRIPTION = "The current time read (format: yyyy-MM-dd HH:mm ).";
     public static final String OMSTIMESERIESITERATORREADER_T_PREVIOUS_DESCRIPTION = "The previous time read (format: yyyy-MM-dd HH:mm ).";
+    public static final String OMSTIMESERIESITERATORREADER_DO_REUSE_DATA_DESCRIPTION = "If true, the same map and arrays are filled at every timestep, instead of creating new ones.";
     public static final String OMSTIMESERIESITERATORREADER_OUT_DATA_DESCRIPTION = "The read map of ids and values.";
     public static final String OMSTIMESERIESITERATORREADER_T_START_DESCRIPTION = "The optional time at which start to read (format: yyyy-MM-dd HH:mm ).";
     public static final String OMSTIMESERIESITERATORREADER_T_END_DESCRIPTION = "The optional time at which end to read (format: yyyy-MM-dd HH:mm ).";
@@ -22,62 +22,149 @@ import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hortonmachine.gears.io.las.index.PackedRTree;
+import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
 
 import com.vividsolutions.jts.JTSVersion;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.index.strtree.STRtree;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
 
 /**
- * Reader for the Sort-Tile-Recursive disk index.
+ * Reader for the disk index.
+ * 
+ * <p>The file is opened by the constructor. Files of version 2 are memory mapped, so that 
+ * {@link #readIntersectingGeometries(Envelope)} and {@link #pickGeometry(long, long)} can be 
+ * called from several threads at the same time. Files of version 1 are read through the 
+ * serialized {@link STRtree}.</p>
  * 
  * @author Andrea Antonello (www.hydrologis.com)
  * @see IDiskTree
  */
-public class DiskTreeReader implements IDiskTree {
+public class DiskTreeReader implements IDiskTree, AutoCloseable {
 
     private final String path;
 
-    private STRtree indexObj;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+
+    private final int version;
+    private final long indexAddress;
+    private final long indexSize;
+
+    /**
+     * The mapped index of version 2, <code>null</code> for version 1.
+     */
+    private final PackedRTree packedTree;
+    /**
+     * The mapped geometries of version 2, <code>null</code> for version 1 or if the file 
+     * is too large to be mapped at once.
+     */
+    private final MappedByteBuffer geometriesBuffer;
+    private final long geometriesStart = INDEX_ADDRESS_POSITION + INDEX_ADDRESS_SIZE + INDEX_LENGTH_SIZE;
 
-    private RandomAccessFile raf = null;
+    /**
+     * The tree of {@link #readIndex()}, created on first use.
+     */
+    private volatile STRtree indexObj;
 
     /**
-     * Constructor.
+     * Constructor, which opens the file and reads its header.
+     * 
+     * <p>For files of version 2 the index and the geometries are mapped into memory.</p>
      * 
      * @param path the path from which to read.
+     * @throws IOException if the file can't be read or is not a supported disktree.
      */
-    public DiskTreeReader( String path ) {
+    public DiskTreeReader( String path ) throws IOException {
         this.path = path;
+        raf = new RandomAccessFile(new File(path), "r");
+        try {
+            channel = raf.getChannel();
+            version = readVersion();
+
+            raf.seek(INDEX_ADDRESS_POSITION);
+            indexAddress = raf.readLong();
+            indexSize = raf.readLong();
+
+            if (version == VERSION) {
+                packedTree = PackedRTree.wrap(channel.map(MapMode.READ_ONLY, indexAddress, indexSize));
+                long geometriesSize = indexAddress - geometriesStart;
+                if (geometriesSize <= Integer.MAX_VALUE) {
+                    geometriesBuffer = channel.map(MapMode.READ_ONLY, geometriesStart, geometriesSize);
+                } else {
+                    geometriesBuffer = null;
+                }
+            } else {
+                packedTree = null;
+                geometriesBuffer = null;
+            }
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    private int readVersion() throws IOException {
+        StringBuilder signature = new StringBuilder();
+        for( int i = 0; i < 3; i++ ) {
+            signature.append(raf.readChar());
+        }
+        if (signature.toString().equals(V2_SIGNATURE)) {
+            int fileVersion = raf.readInt();
+            int encoding = raf.readInt();
+            if (fileVersion != VERSION || encoding != ENCODING_WKB) {
+                throw new IOException(
+                        "Unsupported disktree version " + fileVersion + " with encoding " + encoding + ": " + path);
+            }
+            return fileVersion;
+        } else if (signature.toString().equals(V1_SIGNATURE)) {
+            checkVersions();
+            return 1;
+        }
+        throw new IOException("The file is not a disktree: " + path);
+    }
+
+    /**
+     * @return the version of the opened file.
+     */
+    public int getVersion() {
+        return version;
     }
 
     /**
      * Reads the {@link STRtree} object from the file.
      * 
-     * @return the quadtree, holding envelops and geometry positions in the file.
+     * <p>For files of version 2 the tree is created from the stored index.</p>
+     * 
+     * @return the tree, holding envelops and geometry positions in the file.
      * @throws Exception
      */
-    public STRtree readIndex() throws Exception {
-
-        File file = new File(path);
-        raf = new RandomAccessFile(file, "r");
-
-        raf.seek(6L);
-        checkVersions();
-
-        long position = INDEX_ADDRESS_POSITION;
-        raf.seek(position);
-        long indexAddress = raf.readLong();
-        position = INDEX_ADDRESS_POSITION + INDEX_ADDRESS_SIZE;
-        raf.seek(position);
-        long indexSize = raf.readLong();
-
-        raf.seek(indexAddress);
-        byte[] indexBytes = new byte[(int) indexSize];
-        int read = raf.read(indexBytes);
-        if (read != indexSize) {
-            throw new IOException();
+    public synchronized STRtree readIndex() throws Exception {
+        if (indexObj != null) {
+            return indexObj;
         }
 
+        if (version == VERSION) {
+            STRtree tree = new STRtree();
+            for( int i = 0; i < packedTree.size(); i++ ) {
+                long[] positionAndSize = {(long) packedTree.getValue(i, 0), (long) packedTree.getValue(i, 1)};
+                tree.insert(packedTree.getBounds(i), positionAndSize);
+            }
+            indexObj = tree;
+            return indexObj;
+        }
+
+        byte[] indexBytes = readBytes(indexAddress, (int) indexSize);
         ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(indexBytes));
         indexObj = (STRtree) in.readObject();
         return indexObj;
@@ -97,7 +184,48 @@ public class DiskTreeReader implements IDiskTree {
     }
 
     /**
-     * Reads a single geomtry, using the info from the quadtree read in {@link #readIndex()}.
+     * Reads the geometries whose envelope intersects the given one.
+     * 
+     * <p>For files of version 2 this method can be called from several threads.</p>
+     * 
+     * @param envelope the envelope to query.
+     * @return the read geometries, with the user data set, if available.
+     * @throws Exception
+     */
+    public List<Geometry> readIntersectingGeometries( Envelope envelope ) throws Exception {
+        List<Geometry> geometries = new ArrayList<>();
+        if (version == VERSION) {
+            WKBReader wkbReader = new WKBReader(GeometryUtilities.gf());
+            int[] items = packedTree.query(envelope);
+            for( int item : items ) {
+                long position = (long) packedTree.getValue(item, 0);
+                int size = (int) packedTree.getValue(item, 1);
+                Geometry geometry = readWkb(wkbReader, position, size);
+                String name = packedTree.getName(item);
+                if (name != null && name.length() > 0) {
+                    geometry.setUserData(name);
+                }
+                geometries.add(geometry);
+            }
+        } else {
+            STRtree tree = indexObj;
+            if (tree == null) {
+                tree = readIndex();
+            }
+            List< ? > positions = tree.query(envelope);
+            for( Object object : positions ) {
+                long[] positionAndSize = (long[]) object;
+                geometries.add(pickGeometry(positionAndSize[0], positionAndSize[1]));
+            }
+        }
+        return geometries;
+    }
+
+    /**
+     * Reads a single geomtry, using the info from the tree read in {@link #readIndex()}.
+     * 
+     * <p>For files of version 2 the user data of the geometry are not set, use 
+     * {@link #readIntersectingGeometries(Envelope)} to get them.</p>
      * 
      * @param position the position of the geom to read.
      * @param size the size of the geom to read.
@@ -105,14 +233,48 @@ public class DiskTreeReader implements IDiskTree {
      * @throws Exception
      */
     public Geometry pickGeometry( long position, long size ) throws Exception {
-        byte[] geomBytes = new byte[(int) size];
-        raf.seek(position);
-        raf.read(geomBytes);
-
+        if (version == VERSION) {
+            return readWkb(new WKBReader(GeometryUtilities.gf()), position, (int) size);
+        }
+        byte[] geomBytes = readBytes(position, (int) size);
         ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(geomBytes));
         return (Geometry) in.readObject();
     }
 
+    private Geometry readWkb( WKBReader wkbReader, long position, int size ) throws IOException {
+        byte[] geomBytes;
+        if (geometriesBuffer != null) {
+            geomBytes = new byte[size];
+            // the duplicate has its own position, so that concurrent reads don't interfere
+            ByteBuffer buffer = geometriesBuffer.duplicate();
+            buffer.position((int) (position - geometriesStart));
+            buffer.get(geomBytes);
+        } else {
+            geomBytes = readBytes(position, size);
+        }
+        try {
+            return wkbReader.read(geomBytes);
+        } catch (ParseException e) {
+            throw new IOException("Unable to read the geometry at position " + position + ": " + path, e);
+        }
+    }
+
+    /**
+     * Reads bytes with positional reads on the channel, which don't change the file pointer.
+     */
+    private byte[] readBytes( long position, int size ) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        long filePosition = position;
+        while( buffer.hasRemaining() ) {
+            int read = channel.read(buffer, filePosition);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file reading the disktree: " + path);
+            }
+            filePosition += read;
+        }
+        return buffer.array();
+    }
+
     /**
      * Closes the filehandle.
      * 
@@ -17,19 +17,26 @@
  */
 package org.hortonmachine.gears.io.disktree;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.hortonmachine.gears.io.las.index.PackedRTreeWriter;
 
-import com.vividsolutions.jts.JTSVersion;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.index.strtree.STRtree;
+import com.vividsolutions.jts.io.WKBWriter;
 
 /**
- * Writer for the quadtree disk index.
+ * Writer for the disk index.
+ * 
+ * <p>The geometries are streamed to disk as they come, only their envelopes
+ * and positions are kept in memory to create the index at the end.</p>
  * 
  * @author Andrea Antonello (www.hydrologis.com)
  * @see IDiskTree
@@ -54,80 +61,73 @@ public class DiskTreeWriter implements IDiskTree {
      * @throws IOException
      */
     public void writeGeometries( Geometry[] geometries ) throws IOException {
-        File file = new File(path);
-        RandomAccessFile raf = null;
-        try {
-            raf = new RandomAccessFile(file, "rw");
-
-            int major = JTSVersion.MAJOR;
-            int minor = JTSVersion.MINOR;
+        writeGeometries(Arrays.asList(geometries).iterator());
+    }
 
-            raf.writeChars("jts");
-            raf.writeInt(major);
-            raf.writeInt(minor);
+    /**
+     * Writes the {@link Geometry}s of an iterator to the disk.
+     * 
+     * <p>Empty geometries are skipped. The user data of the geometries, if available,
+     * are stored as strings.</p>
+     * 
+     * @param geometries the iterator of geoms to write.
+     * @return the number of written geometries.
+     * @throws IOException
+     */
+    public int writeGeometries( Iterator<Geometry> geometries ) throws IOException {
+        File file = new File(path);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            raf.writeChars(V2_SIGNATURE);
+            raf.writeInt(VERSION);
+            raf.writeInt(ENCODING_WKB);
 
             long geometriesStart = INDEX_ADDRESS_POSITION + INDEX_ADDRESS_SIZE + INDEX_LENGTH_SIZE;
             raf.seek(geometriesStart);
-            System.out.println("geometriesStart: " + geometriesStart);
+            // the stream writes at the position of the file channel
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(raf.getChannel())));
 
+            WKBWriter wkbWriter2D = new WKBWriter(2);
+            WKBWriter wkbWriter3D = new WKBWriter(3);
+            PackedRTreeWriter tree = new PackedRTreeWriter(2);
             long fileIndex = geometriesStart;
-            STRtree tree = new STRtree(geometries.length);
-            for( int i = 0; i < geometries.length; i++ ) {
-                Geometry geometry = geometries[i];
-
-                if (geometry.isEmpty()) {
+            while( geometries.hasNext() ) {
+                Geometry geometry = geometries.next();
+                if (geometry == null || geometry.isEmpty()) {
                     continue;
                 }
                 Envelope envelope = geometry.getEnvelopeInternal();
 
-                byte[] geomBytes = serialize(geometry);
-                raf.write(geomBytes);
+                byte[] geomBytes;
+                if (Double.isNaN(geometry.getCoordinate().z)) {
+                    geomBytes = wkbWriter2D.write(geometry);
+                } else {
+                    geomBytes = wkbWriter3D.write(geometry);
+                }
+                out.write(geomBytes);
 
                 /*
                  * the tree contains the envelope of a geometry
-                 * and the array with the exact position in the file where the 
+                 * and the exact position in the file where the 
                  * geometry bytes start + the length. 
                  */
-                tree.insert(envelope, new long[]{fileIndex, geomBytes.length});
+                Object userData = geometry.getUserData();
+                String userDataString = userData != null ? userData.toString() : null;
+                tree.insert(envelope, userDataString, new double[]{fileIndex, geomBytes.length});
 
                 fileIndex = fileIndex + geomBytes.length;
-                System.out.println("geom: " + i + " finished at: " + fileIndex);
             }
 
-            raf.seek(INDEX_ADDRESS_POSITION);
-            raf.writeLong(fileIndex);
-
-            System.out.println("INDEX_ADDRESS_POSITION: " + fileIndex);
-
-            /*
-             * serialize index
-             */
-            byte[] treeBytes = serialize(tree);
-
-            long treeSize = treeBytes.length;
-            raf.seek(fileIndex);
-            raf.write(treeBytes, 0, (int) treeSize);
+            long indexAddress = fileIndex;
+            tree.write(out);
+            out.flush();
+            long treeSize = raf.getChannel().position() - indexAddress;
 
-            System.out.println("treeSize: " + treeSize);
-
-            raf.seek(INDEX_ADDRESS_POSITION + INDEX_ADDRESS_SIZE);
+            raf.seek(INDEX_ADDRESS_POSITION);
+            raf.writeLong(indexAddress);
             raf.writeLong(treeSize);
-
-            long length = raf.length();
-            System.out.println(length);
-
-        } finally {
-            System.out.println("close");
-            if (raf != null)
-                raf.close();
+            return tree.size();
         }
     }
 
-    private byte[] serialize( Object obj ) throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        ObjectOutputStream out = new ObjectOutputStream(bos);
-        out.writeObject(obj);
-        out.close();
-        return bos.toByteArray();
-    }
 }
@@ -22,24 +22,30 @@ package org.hortonmachine.gears.io.disktree;
  * Interface for DiskTree I/O modules.
  * 
  * <p>
- * The disktree binary file is defined as follows:
+ * The disktree binary file (version 2) is defined as follows:
  * 
  * <ul>
- *  <li>6 bytes containing the chars 'jts'</li>
- *  <li>4 bytes for the jts major version</li>
- *  <li>4 bytes for the jts minor version</li>
- *  <li>8 bytes containing the address at which the quadtree is stored</li>
- *  <li>8 bytes containing the size of the stored quadtree</li>
+ *  <li>6 bytes containing the chars 'dt2'</li>
+ *  <li>4 bytes for the format version (2)</li>
+ *  <li>4 bytes for the geometry encoding (1 = WKB)</li>
+ *  <li>8 bytes containing the address at which the index is stored</li>
+ *  <li>8 bytes containing the size of the stored index</li>
  *  <li>then the WKB-ized geometries are stored</li>
- *  <li>after the geometries, the quadtree is stored</li>
+ *  <li>after the geometries, the index is stored as a packed R-tree</li>
  * </ul>
  * 
- * <p>The quadtree stores the envelope of a geometry with the 
- * int array of the [position of geom on disk, size of the geom on disk].
- * It is therefore possible to extract any geometry by knowing the 
- * envelope.
+ * <p>The index stores the envelope of a geometry with the 
+ * [position of geom on disk, size of the geom on disk] and the geometry
+ * user data as string. It is memory mapped and queried without reading it
+ * whole, so that the geometries of an envelope can be extracted from
+ * several threads at the same time.
  * </p>
  * 
+ * <p>The first version of the file, starting with the chars 'jts' followed by 
+ * the jts major and minor version, stores java serialized geometries and a
+ * serialized {@link com.vividsolutions.jts.index.strtree.STRtree}. It can 
+ * still be read.</p>
+ * 
  * <p>Example write usage:
  * 
  * <pre>
@@ -58,15 +64,9 @@ package org.hortonmachine.gears.io.disktree;
  *
  * <p>Example read usage:
  * <pre>
- * DiskTreeReader writer = new DiskTreeReader("/home/moovida/TMP/index.bin");
- * Quadtree indexObj = writer.readIndex();
- *
- * List queryAll = indexObj.queryAll();
- *
- * for( Object object : queryAll ) {
- *     if (object instanceof long[]) {
- *         long[] posSize = (long[]) object;
- *         Geometry geom = writer.pickGeometry(posSize[0], posSize[1]);
+ * try (DiskTreeReader reader = new DiskTreeReader("/home/moovida/TMP/index.bin")) {
+ *     List&lt;Geometry&gt; geometries = reader.readIntersectingGeometries(new Envelope(100, 200, 100, 200));
+ *     for( Geometry geom : geometries ) {
  *         System.out.println(geom.toText());
  *     }
  * }
@@ -75,6 +75,26 @@ package org.hortonmachine.gears.io.disktree;
  * @author Andrea Antonello (www.hydrologis.com)
  */
 public interface IDiskTree {
+    /**
+     * The chars at the start of a version 1 file.
+     */
+    String V1_SIGNATURE = "jts";
+
+    /**
+     * The chars at the start of a version 2 file.
+     */
+    String V2_SIGNATURE = "dt2";
+
+    /**
+     * The current format version.
+     */
+    int VERSION = 2;
+
+    /**
+     * The geometries are encoded as WKB.
+     */
+    int ENCODING_WKB = 1;
+
     /**
      * Position of the index address.
      */
@@ -29,7 +29,12 @@ import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.geometry.jts.ReferencedEnvelope3D;
 import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.PointBatch;
 import org.hortonmachine.gears.io.las.index.LasIndexer;
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+import org.hortonmachine.gears.libs.monitor.LogProgressMonitor;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
 import org.hortonmachine.gears.utils.math.NumericsUtilities;
 import org.opengis.feature.simple.SimpleFeature;
@@ -37,11 +42,13 @@ import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
 
 /**
  * Abstract las data manager class.
@@ -61,6 +68,8 @@ public abstract class ALasDataManager implements AutoCloseable {
 
     protected CoordinateReferenceSystem crs;
 
+    protected IHMProgressMonitor pm = new LogProgressMonitor();
+
     /**
      * Factory method to create {@link ALasDataManager}.
      * 
@@ -93,6 +102,15 @@ public abstract class ALasDataManager implements AutoCloseable {
      */
     public abstract void open() throws Exception;
 
+    /**
+     * Set the monitor to which the problems met while reading the data are reported.
+     * 
+     * @param pm the progress monitor.
+     */
+    public void setProgressMonitor( IHMProgressMonitor pm ) {
+        this.pm = pm;
+    }
+
     public void setIntensityConstraint( double[] minMax ) {
         if (minMax == null)
             return;
@@ -129,6 +147,28 @@ public abstract class ALasDataManager implements AutoCloseable {
      */
     public abstract List<LasRecord> getPointsInGeometry( Geometry checkGeom, boolean doOnlyEnvelope ) throws Exception;
 
+    /**
+     * Get points inside a given geometry boundary as a {@link PointBatch}.
+     * 
+     * <p>This gives the same points as {@link #getPointsInGeometry(Geometry, boolean)}
+     * without creating an object per point. By default the points are converted from 
+     * the list of records, the data managers override this to read the points straight 
+     * into the batch.</p>
+     *
+     * @param checkGeom the {@link com.vividsolutions.jts.geom.Geometry} to use to check.
+     * @param doOnlyEnvelope check for the geom envelope instead of a intersection with it.
+     * @return the batch of points contained in the supplied geometry.
+     * @throws Exception
+     */
+    public PointBatch getPointBatchInGeometry( Geometry checkGeom, boolean doOnlyEnvelope ) throws Exception {
+        List<LasRecord> pointsInGeometry = getPointsInGeometry(checkGeom, doOnlyEnvelope);
+        PointBatch batch = new PointBatch(pointsInGeometry.size());
+        for( LasRecord lasRecord : pointsInGeometry ) {
+            batch.add(lasRecord);
+        }
+        return batch;
+    }
+
     /**
      * Retrieve all the trees envelopes that intersect the geometry.
      *
@@ -302,6 +342,102 @@ public abstract class ALasDataManager implements AutoCloseable {
         return true;
     }
 
+    /**
+     * Check the point of a batch for constraints.
+     *
+     * @param batch the batch of points.
+     * @param index the index of the point to check.
+     * @return <code>true</code> if the point is accepted.
+     * @see #doAccept(LasRecord)
+     */
+    protected boolean doAccept( PointBatch batch, int index ) {
+        if (!hasConstraint) {
+            return true;
+        }
+        if (intensityRange != null) {
+            short intensity = batch.intensity[index];
+            if (intensity < intensityRange[0] || intensity > intensityRange[1]) {
+                return false;
+            }
+        }
+        if (impulses != null) {
+            int impulse = batch.returnNumber[index];
+            boolean takeIt = false;
+            for( final double imp : impulses ) {
+                if (impulse == (int) imp) {
+                    takeIt = true;
+                    break;
+                }
+            }
+            if (!takeIt)
+                return false;
+        }
+        if (impulsesNum != -1) {
+            if (batch.numberOfReturns[index] != impulsesNum) {
+                return false;
+            }
+        }
+        if (classes != null) {
+            int classification = batch.classification[index];
+            for( final double classs : classes ) {
+                if (classification == (int) classs) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Appends the points of a batch that pass the constraints and fall inside a geometry.
+     * 
+     * @param points the read points.
+     * @param env the envelope of the geometry.
+     * @param preparedGeometry the geometry, or <code>null</code> to check only the envelope.
+     * @param probe a point reused for the geometry checks.
+     * @param dem an optional dem. If available, the height over the dem is set as ground 
+     *          elevation and only the points higher than the threshold are kept.
+     * @param elevThreshold the threshold on the height over the dem.
+     * @param into the batch to which to add the points.
+     */
+    protected void addPointsInGeometry( PointBatch points, Envelope env, PreparedGeometry preparedGeometry, Point probe,
+            GridCoverage2D dem, double elevThreshold, PointBatch into ) {
+        CoordinateSequence probeSequence = probe.getCoordinateSequence();
+        int size = points.size();
+        for( int i = 0; i < size; i++ ) {
+            if (!doAccept(points, i)) {
+                continue;
+            }
+            double x = points.x[i];
+            double y = points.y[i];
+            if (!env.contains(x, y)) {
+                continue;
+            }
+            if (preparedGeometry != null) {
+                probeSequence.setOrdinate(0, 0, x);
+                probeSequence.setOrdinate(0, 1, y);
+                probe.geometryChanged();
+                if (!preparedGeometry.contains(probe)) {
+                    continue;
+                }
+            }
+            if (dem != null) {
+                double value = CoverageUtilities.getValue(dem, x, y);
+                if (HMConstants.isNovalue(value)) {
+                    continue;
+                }
+                double height = points.z[i] - value;
+                if (height > elevThreshold) {
+                    int index = into.add(points, i);
+                    into.groundElevation[index] = height;
+                }
+            } else {
+                into.add(points, i);
+            }
+        }
+    }
+
     /**
      * Extracts the points contained inside a vertical range from the supplied list of points.
      *
@@ -349,4 +485,32 @@ public abstract class ALasDataManager implements AutoCloseable {
         }
         return pointsListInVertical;
     }
-}
\ No newline at end of file
+
+    /**
+     * Extracts the points contained inside a vertical range from the supplied batch of points.
+     *
+     * @param points the batch of points.
+     * @param min the min value of the range.
+     * @param max the max value of the range.
+     * @param isGroundElev if <code>true</code>, ground elevation is used instead of z.
+     * @return the points contained in the range.
+     */
+    public static PointBatch getPointsInVerticalRange( PointBatch points, double min, double max, boolean isGroundElev ) {
+        return points.getInRange(isGroundElev ? points.groundElevation : points.z, min, max);
+    }
+
+    /**
+     * Extracts the points contained inside a height from ground range from the supplied batch of points.
+     *
+     * <p>No check is done on the existence of the ground height value.
+     *
+     * @param points the batch of points.
+     * @param min the min value of the range.
+     * @param max the max value of the range.
+     * @return the points contained in the range.
+     */
+    public static PointBatch getPointsInHeightRange( PointBatch points, double min, double max ) {
+        return points.getInRange(points.groundElevation, min, max);
+    }
+
+}
@@ -31,6 +31,8 @@ import org.geotools.geometry.jts.ReferencedEnvelope3D;
 import org.hortonmachine.gears.io.las.core.ALasReader;
 import org.hortonmachine.gears.io.las.core.ILasHeader;
 import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.PointBatch;
+import org.hortonmachine.gears.io.las.core.v_1_0.LasReaderMapped;
 import org.hortonmachine.gears.io.las.index.LasIndexer;
 import org.hortonmachine.gears.io.las.index.OmsLasIndexReader;
 import org.hortonmachine.gears.libs.modules.HMConstants;
@@ -43,6 +45,7 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.geom.prep.PreparedGeometry;
 import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
@@ -54,6 +57,8 @@ import com.vividsolutions.jts.index.strtree.STRtree;
  * @author Andrea Antonello (www.hydrologis.com)
  */
 class LasFileDataManager extends ALasDataManager {
+    private static final int READ_BATCH_SIZE = 100000;
+
     private File lasFile;
     private GridCoverage2D inDem;
     private double elevThreshold;
@@ -199,6 +204,32 @@ class LasFileDataManager extends ALasDataManager {
         return pointsListForTile;
     }
 
+    /**
+     * Get points inside a given geometry boundary as a {@link PointBatch}.
+     * 
+     * <p>The file is scanned through a memory mapped reader, one batch at the time.</p>
+     */
+    @Override
+    public synchronized PointBatch getPointBatchInGeometry( Geometry checkGeom, boolean doOnlyEnvelope ) throws Exception {
+        Envelope env = checkGeom.getEnvelopeInternal();
+        PreparedGeometry preparedGeometry = null;
+        if (!doOnlyEnvelope) {
+            preparedGeometry = PreparedGeometryFactory.prepare(checkGeom);
+        }
+        Point probe = gf.createPoint(new Coordinate());
+
+        PointBatch pointsInGeometry = new PointBatch();
+        PointBatch readPoints = new PointBatch(READ_BATCH_SIZE);
+        try (LasReaderMapped reader = new LasReaderMapped(lasFile, crs)) {
+            reader.open();
+            while( reader.readPoints(readPoints, READ_BATCH_SIZE) > 0 ) {
+                addPointsInGeometry(readPoints, env, preparedGeometry, probe, inDem, elevThreshold, pointsInGeometry);
+                readPoints.clear();
+            }
+        }
+        return pointsInGeometry;
+    }
+
     @Override
     public synchronized List<Geometry> getEnvelopesInGeometry( Geometry checkGeom, boolean doOnlyEnvelope, double[] minMaxZ )
             throws Exception {
@@ -18,9 +18,10 @@
 package org.hortonmachine.gears.io.las;
 
 import java.io.File;
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -29,13 +30,13 @@ import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.geometry.jts.ReferencedEnvelope3D;
-import org.geotools.util.WeakValueHashMap;
-import org.hortonmachine.gears.io.las.core.ALasReader;
 import org.hortonmachine.gears.io.las.core.ILasHeader;
 import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.PointBatch;
+import org.hortonmachine.gears.io.las.core.v_1_0.LasReaderMapped;
 import org.hortonmachine.gears.io.las.index.LasIndexer;
 import org.hortonmachine.gears.io.las.index.OmsLasIndexReader;
-import org.hortonmachine.gears.io.las.index.strtree.STRtreeJGT;
+import org.hortonmachine.gears.io.las.index.PackedRTree;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.utils.CrsUtilities;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
@@ -47,25 +48,25 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.geom.prep.PreparedGeometry;
 import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
-import com.vividsolutions.jts.index.strtree.AbstractSTRtree;
-import com.vividsolutions.jts.index.strtree.ItemBoundable;
 
 /**
  * A class that manages las folder data.
  * 
+ * <p>The main folder index and the indexes of the las files are memory mapped 
+ * {@link PackedRTree}s and the las files are read through memory mapped readers, 
+ * so that the queries can be run by several threads at the same time.</p>
+ * 
  * @author Andrea Antonello (www.hydrologis.com)
  */
 class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable {
-    private WeakValueHashMap<String, Pair> fileName2LasReaderMap;
-    private WeakValueHashMap<String, STRtreeJGT> fileName2IndexMap;
-    private List<String> fileName4LasReaderMapSupport;
-    // private int READERCACHE = 5;
+    private final Map<String, Pair> fileName2LasReaderMap = new ConcurrentHashMap<String, Pair>();
     private File lasFolderIndexFile;
     private File lasFolder;
-    private STRtreeJGT mainLasFolderIndex;
+    private volatile PackedRTree mainLasFolderIndex;
     private GridCoverage2D inDem;
     private double elevThreshold;
 
@@ -103,15 +104,6 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
         } else {
             throw new IllegalArgumentException("The Crs can't be null.");
         }
-        // indexMap = new LinkedHashMap<String, Pair>() {
-        // @Override
-        // protected boolean removeEldestEntry(Entry<String, Pair> eldest) {
-        // return size() > READERCACHE;
-        // }
-        // };
-        fileName2LasReaderMap = new WeakValueHashMap<String, Pair>();
-        fileName2IndexMap = new WeakValueHashMap<String, STRtreeJGT>();
-        fileName4LasReaderMapSupport = new ArrayList<String>();
     }
 
     @Override
@@ -125,8 +117,10 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
      * @throws Exception
      */
     @Override
-    public void open() throws Exception {
-        mainLasFolderIndex = OmsLasIndexReader.readIndex(lasFolderIndexFile.getAbsolutePath());
+    public synchronized void open() throws Exception {
+        if (mainLasFolderIndex == null) {
+            mainLasFolderIndex = OmsLasIndexReader.readIndex(lasFolderIndexFile.getAbsolutePath());
+        }
     }
 
     /**
@@ -138,10 +132,10 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
      * @throws Exception
      */
     @Override
-    @SuppressWarnings("rawtypes")
-    public synchronized List<LasRecord> getPointsInGeometry( Geometry checkGeom, boolean doOnlyEnvelope ) throws Exception {
+    public List<LasRecord> getPointsInGeometry( Geometry checkGeom, boolean doOnlyEnvelope ) throws Exception {
         checkOpen();
         ArrayList<LasRecord> pointsListForTile = new ArrayList<LasRecord>();
+        PointBatch readPoints = new PointBatch();
 
         Envelope env = checkGeom.getEnvelopeInternal();
         PreparedGeometry preparedGeometry = null;
@@ -149,67 +143,50 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
             preparedGeometry = PreparedGeometryFactory.prepare(checkGeom);
         }
 
-        List filesList = mainLasFolderIndex.query(env);
-        for( Object fileName : filesList ) {
-            if (fileName instanceof String) {
-                String name = (String) fileName;
+        int[] filesItems = mainLasFolderIndex.query(env);
+        for( int fileItem : filesItems ) {
+            Pair pair = getPair(mainLasFolderIndex.getName(fileItem));
+            if (pair == null) {
+                continue;
+            }
 
-                Pair pair = fileName2LasReaderMap.get(name);
-                if (pair == null) {
-                    File lasFile = new File(lasFolder, name);
-                    File lasIndexFile = FileUtilities.substituteExtention(lasFile, "lasfix");
-
-                    if (lasIndexFile.exists()) {
-                        pair = getIndexPair(lasFile);
-                        if (pair != null) {
-                            fileName2LasReaderMap.put(name, pair);
-                            fileName4LasReaderMapSupport.add(name);
-                        }
-                    } else {
+            int[] cellItems = pair.lasIndex.query(env);
+            for( int cellItem : cellItems ) {
+                long from = (long) pair.lasIndex.getValue(cellItem, 0);
+                long to = (long) pair.lasIndex.getValue(cellItem, 1);
+                readPoints.clear();
+                int read = pair.reader.readPoints(from, (int) (to - from), readPoints);
+                for( int i = 0; i < read; i++ ) {
+                    LasRecord lasDot = readPoints.toRecord(i, null);
+                    if (!doAccept(lasDot)) {
                         continue;
                     }
-                }
-
-                List addressesList = pair.strTree.query(env);
-                for( Object obj : addressesList ) {
-                    if (obj instanceof double[]) {
-                        double[] addresses = (double[]) obj;
-                        long from = (long) addresses[0];
-                        long to = (long) addresses[1];
-                        for( long pointNum = from; pointNum < to; pointNum++ ) {
-                            LasRecord lasDot = pair.reader.getPointAt(pointNum);
-                            if (!doAccept(lasDot)) {
+                    if (inDem != null) {
+                        Coordinate c = new Coordinate(lasDot.x, lasDot.y);
+                        if (env.contains(c)) {
+                            // check geom instead of only envelope?
+                            if (!doOnlyEnvelope && !preparedGeometry.contains(gf.createPoint(c))) {
+                                continue;
+                            }
+                            double value = CoverageUtilities.getValue(inDem, lasDot.x, lasDot.y);
+                            if (HMConstants.isNovalue(value)) {
                                 continue;
                             }
-                            if (inDem != null) {
-                                Coordinate c = new Coordinate(lasDot.x, lasDot.y);
-                                if (env.contains(c)) {
-                                    // check geom instead of only envelope?
-                                    if (!doOnlyEnvelope && !preparedGeometry.contains(gf.createPoint(c))) {
-                                        continue;
-                                    }
-                                    double value = CoverageUtilities.getValue(inDem, lasDot.x, lasDot.y);
-                                    if (HMConstants.isNovalue(value)) {
-                                        continue;
-                                    }
-                                    double height = lasDot.z - value;
-                                    if (height > elevThreshold) {
-                                        // lasDot.z = height;
-                                        lasDot.groundElevation = height;
-                                        pointsListForTile.add(lasDot);
-                                    }
-                                }
-                            } else {
-                                Coordinate c = new Coordinate(lasDot.x, lasDot.y);
-                                if (env.contains(c)) {
-                                    // check geom instead of only envelope?
-                                    if (!doOnlyEnvelope && !preparedGeometry.contains(gf.createPoint(c))) {
-                                        continue;
-                                    }
-                                    pointsListForTile.add(lasDot);
-                                }
+                            double height = lasDot.z - value;
+                            if (height > elevThreshold) {
+                                // lasDot.z = height;
+                                lasDot.groundElevation = height;
+                                pointsListForTile.add(lasDot);
                             }
-
+                        }
+                    } else {
+                        Coordinate c = new Coordinate(lasDot.x, lasDot.y);
+                        if (env.contains(c)) {
+                            // check geom instead of only envelope?
+                            if (!doOnlyEnvelope && !preparedGeometry.contains(gf.createPoint(c))) {
+                                continue;
+                            }
+                            pointsListForTile.add(lasDot);
                         }
                     }
                 }
@@ -218,6 +195,43 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
         return pointsListForTile;
     }
 
+    /**
+     * Get points inside a given geometry boundary as a {@link PointBatch}.
+     * 
+     * <p>The point ranges of the index leaves are read at once into the batch.</p>
+     */
+    @Override
+    public PointBatch getPointBatchInGeometry( Geometry checkGeom, boolean doOnlyEnvelope ) throws Exception {
+        checkOpen();
+        PointBatch pointsInGeometry = new PointBatch();
+        PointBatch readPoints = new PointBatch();
+
+        Envelope env = checkGeom.getEnvelopeInternal();
+        PreparedGeometry preparedGeometry = null;
+        if (!doOnlyEnvelope) {
+            preparedGeometry = PreparedGeometryFactory.prepare(checkGeom);
+        }
+        Point probe = gf.createPoint(new Coordinate());
+
+        int[] filesItems = mainLasFolderIndex.query(env);
+        for( int fileItem : filesItems ) {
+            Pair pair = getPair(mainLasFolderIndex.getName(fileItem));
+            if (pair == null) {
+                continue;
+            }
+
+            int[] cellItems = pair.lasIndex.query(env);
+            for( int cellItem : cellItems ) {
+                long from = (long) pair.lasIndex.getValue(cellItem, 0);
+                long to = (long) pair.lasIndex.getValue(cellItem, 1);
+                readPoints.clear();
+                pair.reader.readPoints(from, (int) (to - from), readPoints);
+                addPointsInGeometry(readPoints, env, preparedGeometry, probe, inDem, elevThreshold, pointsInGeometry);
+            }
+        }
+        return pointsInGeometry;
+    }
+
     /**
      * Retrieve all the trees envelopes that intersect the geometry.
      *
@@ -228,7 +242,7 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
      * @throws Exception
      */
     @Override
-    public synchronized List<Geometry> getEnvelopesInGeometry( Geometry checkGeom, boolean doOnlyEnvelope, double[] minMaxZ )
+    public List<Geometry> getEnvelopesInGeometry( Geometry checkGeom, boolean doOnlyEnvelope, double[] minMaxZ )
             throws Exception {
         checkOpen();
         ArrayList<Geometry> envelopeListForTile = new ArrayList<Geometry>();
@@ -240,40 +254,29 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
         }
         double min = Double.POSITIVE_INFINITY;
         double max = Double.NEGATIVE_INFINITY;
-        List< ? > filesList = mainLasFolderIndex.query(env);
-        for( Object fileName : filesList ) {
-            if (fileName instanceof String) {
-                String name = (String) fileName;
-                File lasFile = new File(lasFolder, name);
-                File lasIndexFile = FileUtilities.substituteExtention(lasFile, "lasfix");
-
-                String absolutePath = lasIndexFile.getAbsolutePath();
-                STRtreeJGT lasIndex = fileName2IndexMap.get(absolutePath);
-                if (lasIndex == null) {
-                    lasIndex = OmsLasIndexReader.readIndex(absolutePath);
-                    fileName2IndexMap.put(absolutePath, lasIndex);
+        int[] filesItems = mainLasFolderIndex.query(env);
+        for( int fileItem : filesItems ) {
+            Pair pair = getPair(mainLasFolderIndex.getName(fileItem));
+            if (pair == null) {
+                continue;
+            }
+            PackedRTree lasIndex = pair.lasIndex;
+            int[] cellItems = lasIndex.query(env);
+            for( int cellItem : cellItems ) {
+                double avgElev = lasIndex.getValue(cellItem, 2);
+                double avgIntensity = lasIndex.getValue(cellItem, 3);
+                Envelope bounds = lasIndex.getBounds(cellItem);
+                Polygon envelopePolygon = LasIndexer.envelopeToPolygon(bounds);
+                envelopePolygon.setUserData(new double[]{avgElev, avgIntensity});
+                if (minMaxZ != null) {
+                    min = Math.min(min, avgElev);
+                    max = Math.max(max, avgElev);
                 }
-                List< ? > queryBoundables = lasIndex.queryBoundables(env);
-                for( Object object : queryBoundables ) {
-                    if (object instanceof ItemBoundable) {
-                        ItemBoundable itemBoundable = (ItemBoundable) object;
-                        double[] item = (double[]) itemBoundable.getItem();
-                        if (item.length > 0) {
-                            Envelope bounds = (Envelope) itemBoundable.getBounds();
-                            Polygon envelopePolygon = LasIndexer.envelopeToPolygon(bounds);
-                            envelopePolygon.setUserData(new double[]{item[2], item[3]});
-                            if (minMaxZ != null) {
-                                min = Math.min(min, item[2]);
-                                max = Math.max(max, item[2]);
-                            }
-                            if (doOnlyEnvelope) {
-                                envelopeListForTile.add(envelopePolygon);
-                            } else {
-                                if (preparedGeometry.intersects(envelopePolygon)) {
-                                    envelopeListForTile.add(envelopePolygon);
-                                }
-                            }
-                        }
+                if (doOnlyEnvelope) {
+                    envelopeListForTile.add(envelopePolygon);
+                } else {
+                    if (preparedGeometry.intersects(envelopePolygon)) {
+                        envelopeListForTile.add(envelopePolygon);
                     }
                 }
             }
@@ -286,30 +289,20 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
     }
 
     @Override
-    @SuppressWarnings("rawtypes")
     public synchronized ReferencedEnvelope getOverallEnvelope() throws Exception {
         if (referencedEnvelope2D == null) {
             checkOpen();
-            Class<AbstractSTRtree> class1 = AbstractSTRtree.class;
-            Field f1 = class1.getDeclaredField("itemBoundables");
-            f1.setAccessible(true);
-            ArrayList boundablesList = (ArrayList) f1.get(mainLasFolderIndex);
             Envelope env = null;
-            for( Object item : boundablesList ) {
-                if (item instanceof ItemBoundable) {
-                    ItemBoundable boundable = (ItemBoundable) item;
-                    Envelope envelope = (Envelope) boundable.getBounds();
-                    ReferencedEnvelope tmp = new ReferencedEnvelope(envelope, crs);
-                    referencedEnvelope2DList.add(tmp);
-                    String name = (String) boundable.getItem();
-                    fileNamesList.add(name);
-
-                    if (env == null) {
-                        env = envelope;
-                    } else {
-                        env.expandToInclude(envelope.getMinX(), envelope.getMinY());
-                        env.expandToInclude(envelope.getMaxX(), envelope.getMaxY());
-                    }
+            for( int fileItem = 0; fileItem < mainLasFolderIndex.size(); fileItem++ ) {
+                Envelope envelope = mainLasFolderIndex.getBounds(fileItem);
+                ReferencedEnvelope tmp = new ReferencedEnvelope(envelope, crs);
+                referencedEnvelope2DList.add(tmp);
+                fileNamesList.add(mainLasFolderIndex.getName(fileItem));
+
+                if (env == null) {
+                    env = envelope;
+                } else {
+                    env.expandToInclude(envelope);
                 }
             }
             referencedEnvelope2D = new ReferencedEnvelope(env, crs);
@@ -326,17 +319,13 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
     @Override
     public synchronized ReferencedEnvelope3D getEnvelope3D() throws Exception {
         if (referencedEnvelope3D == null) {
-            checkReadersMap();
-
-            for( String key : fileName4LasReaderMapSupport ) {
-                Pair pair = fileName2LasReaderMap.get(key);
+            checkOpen();
+            for( int fileItem = 0; fileItem < mainLasFolderIndex.size(); fileItem++ ) {
+                String name = mainLasFolderIndex.getName(fileItem);
+                Pair pair = getPair(name);
                 if (pair == null) {
-                    File lasFile = new File(lasFolder, key);
-                    pair = getIndexPair(lasFile);
-                    if (pair == null) {
-                        System.err.println("Null reader pair: " + lasFile);
-                        continue;
-                    }
+                    pm.errorMessage("Null reader pair, the file is not indexed: " + new File(lasFolder, name));
+                    continue;
                 }
                 ILasHeader header = pair.reader.getHeader();
                 ReferencedEnvelope3D envelope = header.getDataEnvelope();
@@ -379,58 +368,44 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
         return overviewFeatures;
     }
 
-    @SuppressWarnings("rawtypes")
-    private void checkReadersMap() throws Exception {
-        checkOpen();
-        if (fileName2LasReaderMap.size() == 0) {
-            List filesList = mainLasFolderIndex.itemsTree();
-            for( Object fileName : filesList ) {
-                if (fileName instanceof String) {
-                    String name = (String) fileName;
-                    getReader(name);
-                } else if (fileName instanceof List) {
-                    List filesList2 = (List) fileName;
-                    for( Object fileName2 : filesList2 ) {
-                        if (fileName2 instanceof String) {
-                            String name2 = (String) fileName2;
-                            getReader(name2);
-                        }
-                    }
-                } else {
-                    throw new RuntimeException();
-                }
-            }
+    /**
+     * Get the reader and index of a las file, opening them the first time.
+     * 
+     * @param name the name of the las file.
+     * @return the pair or <code>null</code>, if the file has no index.
+     */
+    private Pair getPair( String name ) throws Exception {
+        if (name == null) {
+            return null;
         }
-    }
-
-    private void getReader( String name ) throws Exception {
         Pair pair = fileName2LasReaderMap.get(name);
         if (pair == null) {
-            File lasFile = new File(lasFolder, name);
-            pair = getIndexPair(lasFile);
-            if (pair != null) {
-                fileName2LasReaderMap.put(name, pair);
-                fileName4LasReaderMapSupport.add(name);
+            synchronized (fileName2LasReaderMap) {
+                pair = fileName2LasReaderMap.get(name);
+                if (pair == null) {
+                    pair = getIndexPair(new File(lasFolder, name));
+                    if (pair != null) {
+                        fileName2LasReaderMap.put(name, pair);
+                    }
+                }
             }
-            // System.out.println("Added: " + lasIndexFile);
-            // } else {
-
         }
+        return pair;
     }
 
     private Pair getIndexPair( File lasFile ) throws Exception {
         File lasIndexFile = FileUtilities.substituteExtention(lasFile, "lasfix");
         if (lasIndexFile.exists()) {
-            ALasReader reader = ALasReader.getReader(lasFile, crs);
+            LasReaderMapped reader = new LasReaderMapped(lasFile, crs);
             reader.open();
             reader.getHeader();
-            STRtreeJGT lasIndex = OmsLasIndexReader.readIndex(lasIndexFile.getAbsolutePath());
+            PackedRTree lasIndex = OmsLasIndexReader.readIndex(lasIndexFile.getAbsolutePath());
             Pair pair = new Pair();
             pair.reader = reader;
-            pair.strTree = lasIndex;
+            pair.lasIndex = lasIndex;
             return pair;
         } else {
-            System.err.println("Doesn't exist: " + lasIndexFile);
+            pm.errorMessage("Doesn't exist: " + lasIndexFile);
         }
         return null;
     }
@@ -443,19 +418,17 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
 
     @Override
     public void close() throws Exception {
-        for( String key : fileName4LasReaderMapSupport ) {
-            Pair pair = fileName2LasReaderMap.get(key);
-            if (pair != null)
+        synchronized (fileName2LasReaderMap) {
+            for( Pair pair : fileName2LasReaderMap.values() ) {
                 pair.close();
+            }
+            fileName2LasReaderMap.clear();
         }
-        fileName4LasReaderMapSupport.clear();
-        fileName2LasReaderMap.clear();
-        fileName2LasReaderMap = null;
     }
 
     private class Pair {
-        ALasReader reader;
-        STRtreeJGT strTree;
+        LasReaderMapped reader;
+        PackedRTree lasIndex;
         public void close() {
             if (reader != null)
                 try {
@@ -464,7 +437,7 @@ class LasFolderIndexDataManager extends ALasDataManager implements AutoCloseable
                     e.printStackTrace();
                 }
             reader = null;
-            strTree = null;
+            lasIndex = null;
         }
     }
 
@@ -70,6 +70,50 @@ public abstract class ALasReader extends Las implements AutoCloseable{
      */
     public abstract LasRecord getNextPoint() throws IOException;
 
+    /**
+     * Reads the next points into a {@link PointBatch}.
+     * 
+     * <p>The points are appended to the batch. By default the points are read 
+     * through {@link #getNextPoint()}, readers that can decode the records straight 
+     * into the batch override this.</p>
+     * 
+     * @param batch the batch to fill.
+     * @param maxPoints the maximum number of points to read.
+     * @return the number of points read, 0 if no more points are available.
+     * @throws IOException
+     */
+    public int readPoints( PointBatch batch, int maxPoints ) throws IOException {
+        int read = 0;
+        while( read < maxPoints && hasNextPoint() ) {
+            batch.add(getNextPoint());
+            read++;
+        }
+        return read;
+    }
+
+    /**
+     * Reads a range of points into a {@link PointBatch}.
+     * 
+     * <p>The points are appended to the batch. By default the points are read 
+     * through {@link #getPointAt(long)}.</p>
+     * 
+     * @param fromPoint the position of the first point to read, starting from 0.
+     * @param count the number of points to read.
+     * @param batch the batch to fill.
+     * @return the number of points read.
+     * @throws IOException
+     */
+    public int readPoints( long fromPoint, int count, PointBatch batch ) throws IOException {
+        long toPoint = Math.min(fromPoint + count, getHeader().getRecordsCount());
+        batch.ensureCapacity(batch.size() + (int) Math.max(0, toPoint - fromPoint));
+        int read = 0;
+        for( long pointPosition = fromPoint; pointPosition < toPoint; pointPosition++ ) {
+            batch.add(getPointAt(pointPosition));
+            read++;
+        }
+        return read;
+    }
+
     /**
      * Reads a dot at a given address.
      * 
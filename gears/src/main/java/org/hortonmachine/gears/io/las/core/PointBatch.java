@@ -0,0 +1,329 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.las.core;
+
+import java.util.Arrays;
+
+/**
+ * A batch of las points held in primitive columns.
+ * 
+ * <p>This is the columnar counterpart of a list of {@link LasRecord}s: every
+ * attribute is kept in its own array, with the point at position <code>i</code> 
+ * being at index <code>i</code> of every array. Only the first {@link #size()} 
+ * elements of the arrays are valid, the arrays can be longer.</p>
+ * 
+ * <p>The arrays are public to allow for tight loops on the data, they are 
+ * replaced when the batch grows, so they should not be kept around while adding 
+ * points.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class PointBatch {
+
+    /**
+     * The x coordinates, with scale and offset already applied.
+     */
+    public double[] x;
+
+    /**
+     * The y coordinates, with scale and offset already applied.
+     */
+    public double[] y;
+
+    /**
+     * The z coordinates, with scale and offset already applied.
+     */
+    public double[] z;
+
+    /**
+     * The intensity values.
+     */
+    public short[] intensity;
+
+    /**
+     * The classifications.
+     */
+    public byte[] classification;
+
+    /**
+     * The return numbers.
+     */
+    public short[] returnNumber;
+
+    /**
+     * The numbers of returns of the pulses.
+     */
+    public short[] numberOfReturns;
+
+    /**
+     * The gps timestamps (-1 if not available).
+     */
+    public double[] gpsTime;
+
+    /**
+     * The red color components.
+     */
+    public short[] red;
+
+    /**
+     * The green color components.
+     */
+    public short[] green;
+
+    /**
+     * The blue color components.
+     */
+    public short[] blue;
+
+    /**
+     * The heights over the ground (not contained in record and optional, NaN if not available).
+     */
+    public double[] groundElevation;
+
+    private int size = 0;
+
+    public PointBatch() {
+        this(1024);
+    }
+
+    /**
+     * @param capacity the initial number of points the batch can hold.
+     */
+    public PointBatch( int capacity ) {
+        capacity = Math.max(capacity, 1);
+        x = new double[capacity];
+        y = new double[capacity];
+        z = new double[capacity];
+        intensity = new short[capacity];
+        classification = new byte[capacity];
+        returnNumber = new short[capacity];
+        numberOfReturns = new short[capacity];
+        gpsTime = new double[capacity];
+        red = new short[capacity];
+        green = new short[capacity];
+        blue = new short[capacity];
+        groundElevation = new double[capacity];
+    }
+
+    /**
+     * @return the number of points in the batch.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of points the batch can hold without growing.
+     */
+    public int capacity() {
+        return x.length;
+    }
+
+    /**
+     * Removes all the points, keeping the arrays.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Makes sure the batch can hold the given number of points.
+     * 
+     * @param minCapacity the number of points.
+     */
+    public void ensureCapacity( int minCapacity ) {
+        int capacity = x.length;
+        if (minCapacity <= capacity) {
+            return;
+        }
+        int newCapacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(minCapacity, capacity + (capacity >> 1)));
+        x = Arrays.copyOf(x, newCapacity);
+        y = Arrays.copyOf(y, newCapacity);
+        z = Arrays.copyOf(z, newCapacity);
+        intensity = Arrays.copyOf(intensity, newCapacity);
+        classification = Arrays.copyOf(classification, newCapacity);
+        returnNumber = Arrays.copyOf(returnNumber, newCapacity);
+        numberOfReturns = Arrays.copyOf(numberOfReturns, newCapacity);
+        gpsTime = Arrays.copyOf(gpsTime, newCapacity);
+        red = Arrays.copyOf(red, newCapacity);
+        green = Arrays.copyOf(green, newCapacity);
+        blue = Arrays.copyOf(blue, newCapacity);
+        groundElevation = Arrays.copyOf(groundElevation, newCapacity);
+    }
+
+    /**
+     * Adds a point, growing the batch if necessary.
+     * 
+     * <p>The other attributes of the new point are set to their defaults and
+     * can be set through the returned index.</p>
+     * 
+     * @param px the x coordinate.
+     * @param py the y coordinate.
+     * @param pz the z coordinate.
+     * @return the index of the added point.
+     */
+    public int add( double px, double py, double pz ) {
+        ensureCapacity(size + 1);
+        int index = size++;
+        x[index] = px;
+        y[index] = py;
+        z[index] = pz;
+        intensity[index] = -1;
+        classification[index] = -1;
+        returnNumber[index] = -1;
+        numberOfReturns[index] = -1;
+        gpsTime[index] = -1;
+        red[index] = 100;
+        green[index] = 100;
+        blue[index] = 100;
+        groundElevation[index] = Double.NaN;
+        return index;
+    }
+
+    /**
+     * Adds the content of a {@link LasRecord}.
+     * 
+     * @param record the record to add.
+     * @return the index of the added point.
+     */
+    public int add( LasRecord record ) {
+        int index = add(record.x, record.y, record.z);
+        intensity[index] = record.intensity;
+        classification[index] = record.classification;
+        returnNumber[index] = record.returnNumber;
+        numberOfReturns[index] = record.numberOfReturns;
+        gpsTime[index] = record.gpsTime;
+        red[index] = record.color[0];
+        green[index] = record.color[1];
+        blue[index] = record.color[2];
+        groundElevation[index] = record.groundElevation;
+        return index;
+    }
+
+    /**
+     * Adds a point of another batch.
+     * 
+     * @param other the batch to take the point from.
+     * @param otherIndex the index of the point in the other batch.
+     * @return the index of the added point.
+     */
+    public int add( PointBatch other, int otherIndex ) {
+        ensureCapacity(size + 1);
+        int index = size++;
+        x[index] = other.x[otherIndex];
+        y[index] = other.y[otherIndex];
+        z[index] = other.z[otherIndex];
+        intensity[index] = other.intensity[otherIndex];
+        classification[index] = other.classification[otherIndex];
+        returnNumber[index] = other.returnNumber[otherIndex];
+        numberOfReturns[index] = other.numberOfReturns[otherIndex];
+        gpsTime[index] = other.gpsTime[otherIndex];
+        red[index] = other.red[otherIndex];
+        green[index] = other.green[otherIndex];
+        blue[index] = other.blue[otherIndex];
+        groundElevation[index] = other.groundElevation[otherIndex];
+        return index;
+    }
+
+    /**
+     * Copies a point into a {@link LasRecord}, for the apis that need records.
+     * 
+     * @param index the index of the point.
+     * @param record the record to fill, or <code>null</code> to create a new one.
+     * @return the filled record.
+     */
+    public LasRecord toRecord( int index, LasRecord record ) {
+        if (record == null) {
+            record = new LasRecord();
+        }
+        record.x = x[index];
+        record.y = y[index];
+        record.z = z[index];
+        record.intensity = intensity[index];
+        record.classification = classification[index];
+        record.returnNumber = returnNumber[index];
+        record.numberOfReturns = numberOfReturns[index];
+        record.gpsTime = gpsTime[index];
+        record.color[0] = red[index];
+        record.color[1] = green[index];
+        record.color[2] = blue[index];
+        record.groundElevation = groundElevation[index];
+        return record;
+    }
+
+    /**
+     * Keeps only the points flagged in the mask, preserving their order.
+     * 
+     * @param keep the flags of the points to keep, at least {@link #size()} long.
+     * @return the new size.
+     */
+    public int retain( boolean[] keep ) {
+        int newSize = 0;
+        for( int i = 0; i < size; i++ ) {
+            if (keep[i]) {
+                if (newSize != i) {
+                    x[newSize] = x[i];
+                    y[newSize] = y[i];
+                    z[newSize] = z[i];
+                    intensity[newSize] = intensity[i];
+                    classification[newSize] = classification[i];
+                    returnNumber[newSize] = returnNumber[i];
+                    numberOfReturns[newSize] = numberOfReturns[i];
+                    gpsTime[newSize] = gpsTime[i];
+                    red[newSize] = red[i];
+                    green[newSize] = green[i];
+                    blue[newSize] = blue[i];
+                    groundElevation[newSize] = groundElevation[i];
+                }
+                newSize++;
+            }
+        }
+        size = newSize;
+        return size;
+    }
+
+    /**
+     * Creates a new batch with the points that have a value in a given range.
+     * 
+     * <p>As for {@link org.hortonmachine.gears.utils.math.NumericsUtilities#isBetween(double, double...)},
+     * the range is inclusive.</p>
+     * 
+     * @param values the values to check, as one of the columns of this batch.
+     * @param min the min value of the range.
+     * @param max the max value of the range.
+     * @return the batch of the points contained in the range.
+     */
+    public PointBatch getInRange( double[] values, double min, double max ) {
+        int count = 0;
+        for( int i = 0; i < size; i++ ) {
+            double v = values[i];
+            if (!(v < min || v > max)) {
+                count++;
+            }
+        }
+        PointBatch inRange = new PointBatch(count);
+        for( int i = 0; i < size; i++ ) {
+            double v = values[i];
+            if (!(v < min || v > max)) {
+                inRange.add(this, i);
+            }
+        }
+        return inRange;
+    }
+
+}
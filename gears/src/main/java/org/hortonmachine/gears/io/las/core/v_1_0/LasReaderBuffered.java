@@ -27,6 +27,7 @@ import java.nio.channels.FileChannel;
 import org.hortonmachine.gears.io.las.core.ALasReader;
 import org.hortonmachine.gears.io.las.core.ILasHeader;
 import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.PointBatch;
 import org.hortonmachine.gears.utils.CrsUtilities;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
@@ -45,6 +46,11 @@ public class LasReaderBuffered extends ALasReader {
     private final byte[] singleDataArray = new byte[1];
     private final ByteBuffer singleBb = ByteBuffer.wrap(singleDataArray);
 
+    /**
+     * The max size of the buffer used to read ranges of points.
+     */
+    private static final int RANGE_BUFFER_BYTES = 1024 * 1024;
+
     private byte[] readingDataArray = null;
     private ByteBuffer bufferedReadingBb = null;
 
@@ -323,6 +329,83 @@ public class LasReaderBuffered extends ALasReader {
         return dot;
     }
 
+    @Override
+    public int readPoints( PointBatch batch, int maxPoints ) throws IOException {
+        int read = 0;
+        while( read < maxPoints && hasNextPoint() ) {
+            decodeRecord(bufferedReadingBb, batch);
+            readRecords++;
+            read++;
+        }
+        return read;
+    }
+
+    @Override
+    public int readPoints( long fromPoint, int count, PointBatch batch ) throws IOException {
+        int toRead = (int) Math.max(0, Math.min(count, records - fromPoint));
+        batch.ensureCapacity(batch.size() + toRead);
+        // read the range in bounded chunks without moving the channel
+        int chunkRecords = Math.max(RANGE_BUFFER_BYTES / recordLength, 1);
+        ByteBuffer rangeBb = ByteBuffer.allocate(Math.min(toRead, chunkRecords) * recordLength);
+        rangeBb.order(ByteOrder.LITTLE_ENDIAN);
+        int read = 0;
+        while( read < toRead ) {
+            int chunkToRead = Math.min(toRead - read, chunkRecords);
+            long position = offset + (fromPoint + read) * recordLength;
+            rangeBb.clear();
+            rangeBb.limit(chunkToRead * recordLength);
+            while( rangeBb.hasRemaining() ) {
+                if (fc.read(rangeBb, position + rangeBb.position()) < 0) {
+                    break;
+                }
+            }
+            int chunkRead = rangeBb.position() / recordLength;
+            rangeBb.flip();
+            for( int i = 0; i < chunkRead; i++ ) {
+                decodeRecord(rangeBb, batch);
+            }
+            read += chunkRead;
+            if (chunkRead < chunkToRead) {
+                // end of file
+                break;
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Decodes the record at the position of the buffer into the batch.
+     * 
+     * <p>The buffer is moved to the next record.</p>
+     */
+    private void decodeRecord( ByteBuffer bb, PointBatch batch ) {
+        int start = bb.position();
+        final long x = bb.getInt();
+        final long y = bb.getInt();
+        final long z = bb.getInt();
+        final int index = batch.add(x * xScale + xOffset, y * yScale + yOffset, z * zScale + zOffset);
+        batch.intensity[index] = bb.getShort();
+        final byte b = bb.get();
+        batch.returnNumber[index] = getReturnNumber(b);
+        batch.numberOfReturns[index] = getNumberOfReturns(b);
+        batch.classification[index] = bb.get();
+        // skip scan angle rank, file marker and point source ID
+        bb.getInt();
+        if (header.pointDataFormat == 1) {
+            batch.gpsTime[index] = bb.getDouble();
+        } else if (header.pointDataFormat == 2) {
+            batch.red[index] = bb.getShort();
+            batch.green[index] = bb.getShort();
+            batch.blue[index] = bb.getShort();
+        } else if (header.pointDataFormat == 3) {
+            batch.gpsTime[index] = bb.getDouble();
+            batch.red[index] = bb.getShort();
+            batch.green[index] = bb.getShort();
+            batch.blue[index] = bb.getShort();
+        }
+        bb.position(start + recordLength);
+    }
+
     public LasRecord getPointAtAddress( long address ) throws IOException {
         fc.position(address);
         return getPoint();
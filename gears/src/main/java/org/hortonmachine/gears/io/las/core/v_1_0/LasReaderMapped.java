@@ -0,0 +1,499 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.las.core.v_1_0;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.hortonmachine.gears.io.las.core.ALasReader;
+import org.hortonmachine.gears.io.las.core.ILasHeader;
+import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.PointBatch;
+import org.hortonmachine.gears.utils.CrsUtilities;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Las record reader for las spec 1.0 that memory maps the file.
+ * 
+ * <p>The point records are decoded directly from the mapped file, so that 
+ * the points can be scanned without creating an object per point, either 
+ * through the cursor methods:</p>
+ * <pre>
+ * while( reader.nextPoint() ) {
+ *     double x = reader.getX();
+ *     ...
+ * }
+ * </pre>
+ * <p>or in bulk through {@link #readPoints(long, int, double[], double[], double[], short[], byte[])}
+ * and the {@link PointBatch} methods.</p>
+ * 
+ * <p>The {@link LasRecord} based methods of {@link ALasReader} are supported too.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class LasReaderMapped extends ALasReader {
+    private static final int HEADER_BASE_SIZE = 227;
+
+    private final File lasFile;
+    private CoordinateReferenceSystem crs;
+    private RandomAccessFile raf;
+    private FileChannel fc;
+    private boolean isOpen;
+
+    private LasHeader header;
+    private double xScale;
+    private double yScale;
+    private double zScale;
+    private double xOffset;
+    private double yOffset;
+    private double zOffset;
+    private long offset;
+    private long records;
+    private int recordLength;
+    private int gpsTimePosition = -1;
+    private int colorPosition = -1;
+
+    /**
+     * The file is mapped in chunks of whole records, since a single mapping is limited to 2GB.
+     */
+    private MappedByteBuffer[] chunks;
+    private int chunkPoints;
+
+    /**
+     * The index of the point the cursor is on.
+     */
+    private long currentPoint = -1;
+    private ByteBuffer currentChunk;
+    private int currentPosition;
+
+    public LasReaderMapped( File lasFile, CoordinateReferenceSystem crs ) throws Exception {
+        this.lasFile = lasFile;
+        if (crs != null) {
+            this.crs = crs;
+        } else {
+            try {
+                this.crs = CrsUtilities.readProjectionFile(lasFile.getAbsolutePath(), "las");
+            } catch (Exception e) {
+                // ignore
+            }
+        }
+    }
+
+    @Override
+    public File getLasFile() {
+        return lasFile;
+    }
+
+    private void checkOpen() {
+        if (!isOpen) {
+            try {
+                open();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void open() throws Exception {
+        raf = new RandomAccessFile(lasFile, "r");
+        fc = raf.getChannel();
+        parseHeader();
+        mapRecords();
+        isOpen = true;
+    }
+
+    @Override
+    public void close() throws Exception {
+        // the mappings are released by the garbage collector
+        chunks = null;
+        currentChunk = null;
+        if (fc != null && fc.isOpen())
+            fc.close();
+        if (raf != null)
+            raf.close();
+        isOpen = false;
+    }
+
+    @Override
+    public void setOverrideGpsTimeType( int type ) {
+        getHeader();
+        header.gpsTimeType = type;
+    }
+
+    @Override
+    public ILasHeader getHeader() {
+        checkOpen();
+        return header;
+    }
+
+    private void parseHeader() throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(HEADER_BASE_SIZE);
+        bb.order(ByteOrder.LITTLE_ENDIAN);
+        while( bb.hasRemaining() ) {
+            if (fc.read(bb, bb.position()) < 0) {
+                throw new IOException("The las header is incomplete: " + lasFile);
+            }
+        }
+
+        header = new LasHeader(crs);
+        header.signature = getString(bb, 0, 4);
+        header.fileSourceId = bb.getShort(4);
+        header.gpsTimeType = (bb.get(6) & 1) != 0 ? 1 : 0;
+        header.projectIdGuidData1 = bb.getInt(8);
+        header.projectIdGuidData2 = bb.getShort(12);
+        header.projectIdGuidData3 = bb.getShort(14);
+        header.projectIdGuidData4 = getString(bb, 16, 8);
+        header.versionMajor = bb.get(24);
+        header.versionMinor = bb.get(25);
+        header.systemIdentifier = getString(bb, 26, 32);
+        header.generatingSoftware = getString(bb, 58, 32);
+        header.dayOfYear = bb.getShort(90);
+        header.year = bb.getShort(92);
+        header.headerSize = bb.getShort(94);
+        offset = bb.getInt(96);
+        header.offset = offset;
+        header.variableLengthRecordNum = bb.getInt(100);
+        header.pointDataFormat = bb.get(104);
+        header.recordLength = bb.getShort(105);
+        recordLength = header.recordLength;
+        records = bb.getInt(107);
+        header.records = records;
+        // skip the number of points by return (20 bytes)
+        xScale = header.xScale = bb.getDouble(131);
+        yScale = header.yScale = bb.getDouble(139);
+        zScale = header.zScale = bb.getDouble(147);
+        xOffset = header.xOffset = bb.getDouble(155);
+        yOffset = header.yOffset = bb.getDouble(163);
+        zOffset = header.zOffset = bb.getDouble(171);
+        header.xMax = bb.getDouble(179);
+        header.xMin = bb.getDouble(187);
+        header.yMax = bb.getDouble(195);
+        header.yMin = bb.getDouble(203);
+        header.zMax = bb.getDouble(211);
+        header.zMin = bb.getDouble(219);
+
+        if (header.pointDataFormat == 1) {
+            gpsTimePosition = 20;
+        } else if (header.pointDataFormat == 2) {
+            colorPosition = 20;
+        } else if (header.pointDataFormat == 3) {
+            gpsTimePosition = 20;
+            colorPosition = 28;
+        }
+    }
+
+    private static String getString( ByteBuffer bb, int position, int size ) {
+        byte[] bytes = new byte[size];
+        for( int i = 0; i < size; i++ ) {
+            bytes[i] = bb.get(position + i);
+        }
+        return new String(bytes);
+    }
+
+    private void mapRecords() throws IOException {
+        long availableRecords = (fc.size() - offset) / recordLength;
+        if (availableRecords < records) {
+            records = Math.max(availableRecords, 0);
+        }
+        chunkPoints = (int) Math.max(1, Math.min(records, Integer.MAX_VALUE / recordLength));
+        int chunksCount = (int) ((records + chunkPoints - 1) / chunkPoints);
+        chunks = new MappedByteBuffer[chunksCount];
+        for( int i = 0; i < chunksCount; i++ ) {
+            long firstPoint = (long) i * chunkPoints;
+            long points = Math.min(chunkPoints, records - firstPoint);
+            MappedByteBuffer chunk = fc.map(MapMode.READ_ONLY, offset + firstPoint * recordLength, points * recordLength);
+            chunk.order(ByteOrder.LITTLE_ENDIAN);
+            chunks[i] = chunk;
+        }
+        currentPoint = -1;
+    }
+
+    /**
+     * @return the number of point records available in the file.
+     */
+    public long getRecordsCount() {
+        checkOpen();
+        return records;
+    }
+
+    /**
+     * Moves the cursor to a given point.
+     * 
+     * @param pointNumber the point position, starting from 0.
+     */
+    public void moveTo( long pointNumber ) {
+        checkOpen();
+        if (pointNumber < 0 || pointNumber >= records) {
+            throw new IndexOutOfBoundsException("Point " + pointNumber + " is out of the " + records + " records.");
+        }
+        currentPoint = pointNumber;
+        currentChunk = chunks[(int) (pointNumber / chunkPoints)];
+        currentPosition = (int) (pointNumber % chunkPoints) * recordLength;
+    }
+
+    /**
+     * Moves the cursor to the next point.
+     * 
+     * @return <code>true</code> if the cursor is on a point.
+     */
+    public boolean nextPoint() {
+        checkOpen();
+        long next = currentPoint + 1;
+        if (next >= records) {
+            currentPoint = records;
+            return false;
+        }
+        int chunkPosition = currentPosition + recordLength;
+        if (currentChunk != null && next % chunkPoints != 0) {
+            currentPoint = next;
+            currentPosition = chunkPosition;
+        } else {
+            moveTo(next);
+        }
+        return true;
+    }
+
+    /**
+     * @return the index of the point the cursor is on.
+     */
+    public long getCurrentPointNumber() {
+        return currentPoint;
+    }
+
+    /**
+     * @return the x coordinate of the current point, with scale and offset applied.
+     */
+    public double getX() {
+        return currentChunk.getInt(currentPosition) * xScale + xOffset;
+    }
+
+    /**
+     * @return the y coordinate of the current point, with scale and offset applied.
+     */
+    public double getY() {
+        return currentChunk.getInt(currentPosition + 4) * yScale + yOffset;
+    }
+
+    /**
+     * @return the z coordinate of the current point, with scale and offset applied.
+     */
+    public double getZ() {
+        return currentChunk.getInt(currentPosition + 8) * zScale + zOffset;
+    }
+
+    public short getIntensity() {
+        return currentChunk.getShort(currentPosition + 12);
+    }
+
+    public short getReturnNumber() {
+        return (short) (currentChunk.get(currentPosition + 14) & 0x07);
+    }
+
+    public short getNumberOfReturns() {
+        return (short) ((currentChunk.get(currentPosition + 14) >> 3) & 0x07);
+    }
+
+    public byte getClassification() {
+        return currentChunk.get(currentPosition + 15);
+    }
+
+    /**
+     * @return the gps time of the current point or -1, if the point format has none.
+     */
+    public double getGpsTime() {
+        if (gpsTimePosition < 0) {
+            return -1;
+        }
+        return currentChunk.getDouble(currentPosition + gpsTimePosition);
+    }
+
+    /**
+     * Get a color component of the current point.
+     * 
+     * @param band the band, 0 for red, 1 for green and 2 for blue.
+     * @return the color component or -1, if the point format has no color.
+     */
+    public short getColor( int band ) {
+        if (colorPosition < 0) {
+            return -1;
+        }
+        return currentChunk.getShort(currentPosition + colorPosition + 2 * band);
+    }
+
+    /**
+     * Reads a range of points into primitive arrays.
+     * 
+     * <p>The arrays that are <code>null</code> are not filled. The cursor 
+     * is not moved.</p>
+     * 
+     * @param fromPoint the index of the first point to read.
+     * @param count the maximum number of points to read.
+     * @param xs the array for the x coordinates.
+     * @param ys the array for the y coordinates.
+     * @param zs the array for the z coordinates.
+     * @param intensities the array for the intensities.
+     * @param classifications the array for the classifications.
+     * @return the number of points read.
+     */
+    public int readPoints( long fromPoint, int count, double[] xs, double[] ys, double[] zs, short[] intensities,
+            byte[] classifications ) {
+        checkOpen();
+        int read = (int) Math.max(0, Math.min(count, records - fromPoint));
+        int done = 0;
+        while( done < read ) {
+            long point = fromPoint + done;
+            ByteBuffer chunk = chunks[(int) (point / chunkPoints)];
+            int chunkPoint = (int) (point % chunkPoints);
+            int n = Math.min(read - done, chunkPoints - chunkPoint);
+            int position = chunkPoint * recordLength;
+            for( int i = done; i < done + n; i++, position += recordLength ) {
+                if (xs != null)
+                    xs[i] = chunk.getInt(position) * xScale + xOffset;
+                if (ys != null)
+                    ys[i] = chunk.getInt(position + 4) * yScale + yOffset;
+                if (zs != null)
+                    zs[i] = chunk.getInt(position + 8) * zScale + zOffset;
+                if (intensities != null)
+                    intensities[i] = chunk.getShort(position + 12);
+                if (classifications != null)
+                    classifications[i] = chunk.get(position + 15);
+            }
+            done += n;
+        }
+        return read;
+    }
+
+    @Override
+    public int readPoints( PointBatch batch, int maxPoints ) throws IOException {
+        checkOpen();
+        long fromPoint = currentPoint + 1;
+        int read = readPoints(fromPoint, maxPoints, batch);
+        // the cursor is placed on the last read point
+        currentPoint = fromPoint + read - 1;
+        currentChunk = null;
+        return read;
+    }
+
+    @Override
+    public int readPoints( long fromPoint, int count, PointBatch batch ) throws IOException {
+        checkOpen();
+        int read = (int) Math.max(0, Math.min(count, records - fromPoint));
+        int batchIndex = batch.size();
+        batch.ensureCapacity(batchIndex + read);
+        int done = 0;
+        while( done < read ) {
+            long point = fromPoint + done;
+            ByteBuffer chunk = chunks[(int) (point / chunkPoints)];
+            int chunkPoint = (int) (point % chunkPoints);
+            int n = Math.min(read - done, chunkPoints - chunkPoint);
+            int position = chunkPoint * recordLength;
+            for( int i = 0; i < n; i++, position += recordLength ) {
+                int index = batch.add(chunk.getInt(position) * xScale + xOffset, chunk.getInt(position + 4) * yScale + yOffset,
+                        chunk.getInt(position + 8) * zScale + zOffset);
+                batch.intensity[index] = chunk.getShort(position + 12);
+                byte returns = chunk.get(position + 14);
+                batch.returnNumber[index] = (short) (returns & 0x07);
+                batch.numberOfReturns[index] = (short) ((returns >> 3) & 0x07);
+                batch.classification[index] = chunk.get(position + 15);
+                if (gpsTimePosition >= 0) {
+                    batch.gpsTime[index] = chunk.getDouble(position + gpsTimePosition);
+                }
+                if (colorPosition >= 0) {
+                    batch.red[index] = chunk.getShort(position + colorPosition);
+                    batch.green[index] = chunk.getShort(position + colorPosition + 2);
+                    batch.blue[index] = chunk.getShort(position + colorPosition + 4);
+                }
+            }
+            done += n;
+        }
+        return read;
+    }
+
+    /**
+     * @return a new {@link LasRecord} of the current point.
+     */
+    private LasRecord currentToRecord() {
+        LasRecord dot = new LasRecord();
+        dot.x = getX();
+        dot.y = getY();
+        dot.z = getZ();
+        dot.intensity = getIntensity();
+        dot.classification = getClassification();
+        dot.returnNumber = getReturnNumber();
+        dot.numberOfReturns = getNumberOfReturns();
+        if (gpsTimePosition >= 0) {
+            dot.gpsTime = getGpsTime();
+        }
+        if (colorPosition >= 0) {
+            dot.color[0] = getColor(0);
+            dot.color[1] = getColor(1);
+            dot.color[2] = getColor(2);
+        }
+        return dot;
+    }
+
+    @Override
+    public boolean hasNextPoint() throws IOException {
+        checkOpen();
+        return currentPoint + 1 < records;
+    }
+
+    @Override
+    public LasRecord getNextPoint() throws IOException {
+        if (!nextPoint()) {
+            return null;
+        }
+        return currentToRecord();
+    }
+
+    @Override
+    public LasRecord getPointAtAddress( long address ) throws IOException {
+        return getPointAt((address - offset) / recordLength);
+    }
+
+    @Override
+    public LasRecord getPointAt( long pointPosition ) throws IOException {
+        moveTo(pointPosition);
+        return currentToRecord();
+    }
+
+    @Override
+    public double[] readNextLasXYZAddress() throws IOException {
+        if (!nextPoint()) {
+            return null;
+        }
+        double address = offset + currentPoint * recordLength;
+        return new double[]{getX(), getY(), getZ(), address};
+    }
+
+    @Override
+    public void seek( long pointNumber ) throws IOException {
+        checkOpen();
+        // the next read point is the one at the given position
+        currentPoint = pointNumber - 1;
+        currentChunk = null;
+    }
+
+}
@@ -26,12 +26,11 @@ import java.io.FileFilter;
 import java.io.FilenameFilter;
 import java.net.URL;
 import java.nio.ByteBuffer;
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import org.geotools.coverage.grid.GridCoordinates2D;
@@ -48,10 +47,12 @@ import org.hortonmachine.dbs.compat.ASpatialDb;
 import org.hortonmachine.dbs.compat.EDb;
 import org.hortonmachine.gears.io.las.core.ALasReader;
 import org.hortonmachine.gears.io.las.core.ILasHeader;
-import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.PointBatch;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.libs.modules.multiprocessing.BlockingExecutorService;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
 import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
 import org.hortonmachine.gears.modules.utils.fileiterator.OmsFileIterator;
 import org.hortonmachine.gears.utils.CrsUtilities;
@@ -61,7 +62,6 @@ import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
 import org.hortonmachine.gears.utils.math.NumericsUtilities;
 import org.hortonmachine.gears.utils.time.EggClock;
 import org.opengis.coverage.PointOutsideCoverageException;
-import org.opengis.geometry.DirectPosition;
 import org.opengis.parameter.GeneralParameterValue;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
@@ -139,6 +139,10 @@ public class DatabaseLasWriter extends HMModel {
     @In
     public List<String> inLasNames;
 
+    @Description("The number of las files to process in parallel.")
+    @In
+    public int pThreads = 1;
+
     private CoordinateReferenceSystem crs;
 
     private int srid = -9999;
@@ -149,7 +153,19 @@ public class DatabaseLasWriter extends HMModel {
     private ImageMosaicReader ortoReader;
 
     public boolean doVerbose = true;
+
+    /**
+     * The maximum number of points of a file kept in memory at once.
+     */
+    public int maxPointsInMemory = MAX_POINTS_IN_MEMORY;
+
     private static final String INTERRUPTED_BY_USER = "Interrupted by user.";
+    private static final int READ_BATCH_SIZE = 100000;
+    private static final int MAX_POINTS_IN_MEMORY = 5000000;
+    private static final int CELLS_PER_CHUNK = 10000;
+    private static final int CELLS_PER_TRANSACTION = 100000;
+
+    private volatile boolean stopIngestion = false;
 
     @Execute
     public void process() throws Exception {
@@ -261,56 +277,173 @@ public class DatabaseLasWriter extends HMModel {
             for( LasSource lasSource : lasSources ) {
                 existingLasSourcesNames.add(lasSource.name);
             }
+            List<File> newFilesList = new ArrayList<>();
             for( File lasFile : filesList ) {
-                if (pm.isCanceled()) {
-                    return;
-                }
                 String lasName = FileUtilities.getNameWithoutExtention(lasFile);
                 if (existingLasSourcesNames.contains(lasName)) {
                     pm.errorMessage("Not inserting already existing file in database: " + lasName);
                     continue;
                 }
-                ReferencedEnvelope3D envelope;
-                try (ALasReader reader = ALasReader.getReader(lasFile, crs)) {
-                    reader.open();
-                    ILasHeader header = reader.getHeader();
-                    envelope = header.getDataEnvelope();
-                }
-                Polygon polygon = GeometryUtilities.createPolygonFromEnvelope(envelope);
-
-                GridCoverage2D ortoGC = null;
-                if (ortoReader != null) {
-                    double west = envelope.getMinX();
-                    double east = envelope.getMaxX();
-                    double south = envelope.getMinY();
-                    double north = envelope.getMaxY();
-                    GeneralParameterValue[] readGeneralParameterValues = CoverageUtilities
-                            .createGridGeometryGeneralParameter(ortoXRes, ortoYRes, north, south, east, west, crs);
-                    ortoGC = ortoReader.read(readGeneralParameterValues);
-                }
+                newFilesList.add(lasFile);
+            }
 
-                long id = LasSourcesTable.insertLasSource(spatialiteDb, srid, pLevels, pCellsize, pFactor, polygon, lasName,
-                        envelope.getMinZ(), envelope.getMaxZ(), 0, 0);
-                processFile(spatialiteDb, lasFile, id, ortoGC);
+            for( int level = 1; level <= pLevels; level++ ) {
+                LasLevelsTable.createTable(spatialiteDb, srid, level, doAvoidIndex);
             }
+            insertFiles(spatialiteDb, newFilesList);
+        }
+    }
 
+    /**
+     * Inserts the las files into the database.
+     * 
+     * <p>The files are read, split into cells and summarized into levels by 
+     * <code>pThreads</code> worker threads. The calling thread is the only one 
+     * writing to the database: it receives the cells in chunks and inserts them 
+     * in large batched transactions.</p>
+     * 
+     * @param spatialiteDb the database to write to.
+     * @param filesList the las files to insert.
+     * @throws Exception
+     */
+    private void insertFiles( ASpatialDb spatialiteDb, List<File> filesList ) throws Exception {
+        int filesCount = filesList.size();
+        if (filesCount == 0) {
+            return;
         }
+        int threads = Math.max(1, Math.min(pThreads, filesCount));
+        BlockingQueue<IngestionChunk> chunksQueue = new ArrayBlockingQueue<>(2 * threads);
+        // all the files are queued at once, since the calling thread has to be free to write
+        BlockingExecutorService executor = ExecutionPlanner.createExecutor(threads, filesCount);
+        stopIngestion = false;
+
+        long startTime = System.currentTimeMillis();
+        long totalPoints = 0;
+        long totalCells = 0;
+        int doneFiles = 0;
+        boolean completed = false;
+        try {
+            for( File lasFile : filesList ) {
+                executor.execute(() -> {
+                    LasIngestion las = new LasIngestion(lasFile);
+                    try {
+                        processFile(las, chunksQueue);
+                    } catch (InterruptedException e) {
+                        // the writer has stopped
+                    } catch (Exception e) {
+                        IngestionChunk errorChunk = new IngestionChunk(las);
+                        errorChunk.error = e;
+                        errorChunk.isLast = true;
+                        try {
+                            chunksQueue.put(errorChunk);
+                        } catch (InterruptedException e1) {
+                            // the writer has stopped
+                        }
+                    }
+                });
+            }
+
+            pm.beginTask("Inserting las files...", filesCount);
+            List<LasCell> cellsList = new ArrayList<>();
+            while( doneFiles < filesCount ) {
+                if (pm.isCanceled()) {
+                    throw new RuntimeException(INTERRUPTED_BY_USER);
+                }
+                IngestionChunk chunk = chunksQueue.poll(1, TimeUnit.SECONDS);
+                if (chunk == null) {
+                    continue;
+                }
+                LasIngestion las = chunk.las;
+                if (chunk.error != null) {
+                    pm.errorMessage("Problems found for file: " + las.file.getName());
+                    throw chunk.error;
+                }
+                if (las.sourceId == -1) {
+                    if (doVerbose)
+                        pm.message("Inserting file: " + las.file.getName());
+                    las.sourceId = LasSourcesTable.insertLasSource(spatialiteDb, srid, pLevels, pCellsize, pFactor, las.polygon,
+                            las.name, las.envelope.getMinZ(), las.envelope.getMaxZ(), las.minIntensity, las.maxIntensity);
+                }
+                for( LasCell lasCell : chunk.cells ) {
+                    lasCell.sourceId = las.sourceId;
+                    cellsList.add(lasCell);
+                }
+                if (cellsList.size() > CELLS_PER_TRANSACTION) {
+                    LasCellsTable.insertLasCells(spatialiteDb, srid, cellsList);
+                    cellsList = new ArrayList<>();
+                }
+                if (chunk.isLast) {
+                    if (las.pointsCount == 0) {
+                        pm.errorMessage("No points found in: " + las.file.getName());
+                    }
+                    for( List<LasLevel> levelsList : chunk.levels ) {
+                        for( LasLevel lasLevel : levelsList ) {
+                            lasLevel.sourceId = las.sourceId;
+                        }
+                        LasLevelsTable.insertLasLevels(spatialiteDb, srid, levelsList);
+                    }
+                    doneFiles++;
+                    totalPoints += las.pointsCount;
+                    totalCells += las.cellsCount;
+                    if (doVerbose)
+                        pm.message("Inserted " + las.file.getName() + " (" + doneFiles + "/" + filesCount + "): "
+                                + las.pointsCount + " points in " + las.cellsCount + " cells, processed in "
+                                + las.processingMillis / 1000.0 + "s (" + perSecond(las.pointsCount, las.processingMillis)
+                                + " points/s).");
+                    pm.worked(1);
+                }
+            }
+            if (cellsList.size() > 0) {
+                LasCellsTable.insertLasCells(spatialiteDb, srid, cellsList);
+            }
+            pm.done();
+            completed = true;
+        } finally {
+            stopIngestion = true;
+            if (completed) {
+                executor.shutdown();
+            } else {
+                executor.shutdownNow();
+            }
+        }
+
+        long millis = System.currentTimeMillis() - startTime;
+        pm.message("Inserted " + filesCount + " files with " + totalPoints + " points and " + totalCells + " cells in "
+                + millis / 1000.0 + "s (" + perSecond(totalPoints, millis) + " points/s, " + perSecond(totalCells, millis)
+                + " cells/s).");
     }
 
-    @SuppressWarnings("unchecked")
-    private void processFile( final ASpatialDb spatialiteDb, File file, long sourceID, GridCoverage2D ortoGC ) throws Exception {
-        String name = file.getName();
-        pm.message("Processing file: " + name);
+    private static long perSecond( long count, long millis ) {
+        return Math.round(count * 1000.0 / Math.max(1, millis));
+    }
 
+    /**
+     * Reads a las file and hands its cells and levels to the writer in chunks.
+     * 
+     * <p>This runs in the worker threads and never touches the database. The file is read
+     * in batches of {@link #READ_BATCH_SIZE} points and at most {@link #maxPointsInMemory} 
+     * points are kept in memory, reading the file again for each band of columns if 
+     * it is bigger than that.</p>
+     */
+    private void processFile( LasIngestion las, BlockingQueue<IngestionChunk> chunksQueue ) throws Exception {
+        long startTime = System.currentTimeMillis();
+        File file = las.file;
         try (ALasReader reader = ALasReader.getReader(file, crs)) {
             reader.open();
             ILasHeader header = reader.getHeader();
             long recordsCount = header.getRecordsCount();
+            ReferencedEnvelope3D envelope = header.getDataEnvelope();
+            las.envelope = envelope;
+            las.polygon = GeometryUtilities.createPolygonFromEnvelope(envelope);
             if (recordsCount == 0) {
-                pm.errorMessage("No points found in: " + name);
+                IngestionChunk chunk = new IngestionChunk(las);
+                chunk.isLast = true;
+                chunksQueue.put(chunk);
                 return;
             }
-            ReferencedEnvelope3D envelope = header.getDataEnvelope();
+            if (recordsCount > Integer.MAX_VALUE) {
+                throw new ModelsIllegalargumentException("Too many points in file: " + file.getName(), this);
+            }
             ReferencedEnvelope env2d = new ReferencedEnvelope(envelope);
             Envelope2D e = new Envelope2D(env2d);
 
@@ -319,416 +452,431 @@ public class DatabaseLasWriter extends HMModel {
             double east = e.getMaxX();
             double west = e.getMinX();
 
+            GridCoverage2D ortoGC = null;
+            if (ortoReader != null) {
+                GeneralParameterValue[] readGeneralParameterValues = CoverageUtilities
+                        .createGridGeometryGeneralParameter(ortoXRes, ortoYRes, north, south, east, west, crs);
+                synchronized (ortoReader) {
+                    ortoGC = ortoReader.read(readGeneralParameterValues);
+                }
+            }
+
             double[] xRanges = NumericsUtilities.range2Bins(west, east, pCellsize, false);
             double[] yRanges = NumericsUtilities.range2Bins(south, north, pCellsize, false);
             int cols = xRanges.length - 1;
             int rows = yRanges.length - 1;
-            int tilesCount = cols * rows;
-
-            pm.message("Splitting " + name + " into " + tilesCount + " tiles.");
             GridGeometry2D gridGeometry = CoverageUtilities.gridGeometryFromRegionValues(north, south, east, west, cols, rows,
-                    reader.getHeader().getCrs());
-
-            List<LasRecord>[][] dotOnMatrixXY = new ArrayList[cols][rows];
-            LasCell[][] lasCellsOnMatrixXY = new LasCell[cols][rows];
-            if (doVerbose)
-                pm.beginTask("Sorting points for " + name, (int) recordsCount);
-            long readCount = 0;
-
+                    header.getCrs());
+
+            /*
+             * first pass: count the points of each cell. The points are kept only
+             * if the whole file fits in memory, else they are read again band by band.
+             */
+            boolean fitsInMemory = recordsCount <= maxPointsInMemory;
+            int pointsCount = (int) recordsCount;
+            PointBatch points = fitsInMemory ? new PointBatch(pointsCount) : null;
+            int[] pointCells = fitsInMemory ? new int[pointsCount] : null;
+            PointBatch readBatch = fitsInMemory ? points : new PointBatch(READ_BATCH_SIZE);
+            int cellsCount = cols * rows;
+            int[] cellsStart = new int[cellsCount + 1];
             short minIntens = Short.MAX_VALUE;
             short maxIntens = -Short.MAX_VALUE;
-            while( reader.hasNextPoint() ) {
-                LasRecord dot = reader.getNextPoint();
-                minIntens = (short) Math.min(minIntens, dot.intensity);
-                maxIntens = (short) Math.max(maxIntens, dot.intensity);
-                DirectPosition wPoint = new DirectPosition2D(dot.x, dot.y);
-                GridCoordinates2D gridCoord = gridGeometry.worldToGrid(wPoint);
-                int x = gridCoord.x;
-                if (x < 0)
-                    x = 0;
-                if (x > cols - 1)
-                    x = cols - 1;
-                int y = gridCoord.y;
-                if (y < 0)
-                    y = 0;
-                if (y > rows - 1)
-                    y = rows - 1;
-                if (dotOnMatrixXY[x][y] == null) {
-                    dotOnMatrixXY[x][y] = new ArrayList<>();
+            DirectPosition2D wPoint = new DirectPosition2D();
+            int readCount = 0;
+            while( readCount < pointsCount ) {
+                if (stopIngestion) {
+                    return;
                 }
-                dotOnMatrixXY[x][y].add(dot);
-                if (doVerbose)
-                    pm.worked(1);
-                readCount++;
+                if (!fitsInMemory) {
+                    readBatch.clear();
+                }
+                int start = readBatch.size();
+                int read = reader.readPoints(readCount, Math.min(READ_BATCH_SIZE, pointsCount - readCount), readBatch);
+                if (read == 0) {
+                    break;
+                }
+                for( int i = start; i < start + read; i++ ) {
+                    minIntens = (short) Math.min(minIntens, readBatch.intensity[i]);
+                    maxIntens = (short) Math.max(maxIntens, readBatch.intensity[i]);
+                    int cell = cellOf(readBatch.x[i], readBatch.y[i], gridGeometry, cols, rows, wPoint);
+                    if (fitsInMemory) {
+                        pointCells[i] = cell;
+                    }
+                    cellsStart[cell + 1]++;
+                }
+                readCount += read;
             }
-            if (doVerbose)
-                pm.done();
-            if (readCount != recordsCount) {
+            if (readCount != pointsCount) {
                 throw new RuntimeException("Didn't read all the data...");
             }
-
-            if (pm.isCanceled()) {
-                throw new RuntimeException(INTERRUPTED_BY_USER);
+            for( int cell = 0; cell < cellsCount; cell++ ) {
+                cellsStart[cell + 1] += cellsStart[cell];
             }
+            las.minIntensity = minIntens;
+            las.maxIntensity = maxIntens;
 
-            LasSourcesTable.updateMinMaxIntensity(spatialiteDb, sourceID, minIntens, maxIntens);
-
-            ExecutorService singleThreadExecutor = Executors.newSingleThreadExecutor();
-            List<LasCell> cellsList = new ArrayList<>();
             final Point2D.Double pos = new Point2D.Double();
             final int[] ortoValues = new int[3];
-            if (doVerbose)
-                pm.beginTask("Write las data...", cols * rows);
-            else
-                pm.message("Write las data...");
-            for( int c = 0; c < cols; c++ ) {
-                for( int r = 0; r < rows; r++ ) {
-                    List<LasRecord> dotsList = dotOnMatrixXY[c][r];
-
-                    Coordinate coord = CoverageUtilities.coordinateFromColRow(c, r, gridGeometry);
-                    Envelope env = new Envelope(coord);
-                    env.expandBy(pCellsize / 2.0, pCellsize / 2.0);
-                    Polygon polygon = GeometryUtilities.createPolygonFromEnvelope(env);
-
-                    if (dotsList == null || dotsList.size() == 0) {
-                        if (doEmptyCells) {
-                            final LasCell lasCell = new LasCell();
-                            lasCell.polygon = polygon;
-                            lasCell.sourceId = sourceID;
-
-                            lasCell.pointsCount = 0;
-                            lasCell.avgElev = -9999.0;
-                            lasCell.minElev = -9999.0;
-                            lasCell.maxElev = -9999.0;
-                            lasCell.xyzs = new byte[0];
-                            lasCell.avgIntensity = (short) -999;
-                            lasCell.minIntensity = (short) -999;
-                            lasCell.maxIntensity = (short) -999;
-                            lasCell.intensitiesClassifications = new byte[0];
-                            lasCell.returns = new byte[0];
-                            lasCell.minGpsTime = -9999.0;
-                            lasCell.maxGpsTime = -9999.0;
-                            lasCell.gpsTimes = new byte[0];
-                            lasCell.colors = new byte[0];
-
-                            cellsList.add(lasCell);
+            boolean hasRGB = header.hasRGB();
+            List<LasLevel> cellsSummaries = new ArrayList<>();
+            IngestionChunk chunk = new IngestionChunk(las);
+            int fromCol = 0;
+            while( fromCol < cols ) {
+                /*
+                 * the columns of a band hold at most maxPointsInMemory points,
+                 * unless a single column has more
+                 */
+                int toCol = fromCol + 1;
+                while( toCol < cols && cellsStart[(toCol + 1) * rows] - cellsStart[fromCol * rows] <= maxPointsInMemory ) {
+                    toCol++;
+                }
+                int firstCell = fromCol * rows;
+                int lastCell = toCol * rows;
+                int bandOffset = cellsStart[firstCell];
+                int bandCount = cellsStart[lastCell] - bandOffset;
+
+                PointBatch bandPoints;
+                int[] bandCells;
+                if (fitsInMemory) {
+                    bandPoints = points;
+                    bandCells = pointCells;
+                } else {
+                    bandPoints = new PointBatch(bandCount);
+                    bandCells = new int[bandCount];
+                    readCount = 0;
+                    while( readCount < pointsCount ) {
+                        if (stopIngestion) {
+                            return;
                         }
-                        continue;
-                    }
-                    int pointCount = dotsList.size();
-
-                    double avgElev = 0.0;
-                    double minElev = Double.POSITIVE_INFINITY;
-                    double maxElev = Double.NEGATIVE_INFINITY;
-                    byte[] position = new byte[8 * 3 * pointCount];
-                    ByteBuffer positionBuffer = ByteBuffer.wrap(position);
-
-                    double avgIntensity = 0.0;
-
-                    short minIntensity = 30000;
-                    short maxIntensity = -1;
-                    byte[] intensClass = new byte[2 * 2 * pointCount];
-                    ByteBuffer intensClassBuffer = ByteBuffer.wrap(intensClass);
-                    byte[] returns = new byte[2 * 2 * pointCount];
-                    ByteBuffer returnsBuffer = ByteBuffer.wrap(returns);
-                    double minGpsTime = Double.POSITIVE_INFINITY;
-                    double maxGpsTime = Double.NEGATIVE_INFINITY;
-                    byte[] gpsTimes = new byte[8 * pointCount];
-                    ByteBuffer gpsTimesBuffer = ByteBuffer.wrap(gpsTimes);
-                    byte[] colors = new byte[2 * 3 * pointCount];
-                    ByteBuffer colorsBuffer = ByteBuffer.wrap(colors);
-
-                    int count = 0;
-
-                    for( LasRecord dot : dotsList ) {
-                        avgElev += dot.z;
-                        minElev = min(dot.z, minElev);
-                        maxElev = max(dot.z, maxElev);
-                        positionBuffer.putDouble(dot.x);
-                        positionBuffer.putDouble(dot.y);
-                        positionBuffer.putDouble(dot.z);
-
-                        avgIntensity += dot.intensity;
-                        minIntensity = (short) min(dot.intensity, minIntensity);
-                        maxIntensity = (short) max(dot.intensity, maxIntensity);
-                        intensClassBuffer.putShort(dot.intensity);
-                        intensClassBuffer.putShort(dot.classification);
-
-                        returnsBuffer.putShort(dot.returnNumber);
-                        returnsBuffer.putShort(dot.numberOfReturns);
-
-                        minGpsTime = min(dot.gpsTime, minGpsTime);
-                        maxGpsTime = max(dot.gpsTime, maxGpsTime);
-
-                        gpsTimesBuffer.putDouble(dot.gpsTime);
-
-                        if (ortoGC != null) {
-                            pos.setLocation(dot.x, dot.y);
-                            try {
-                                ortoGC.evaluate(pos, ortoValues);
-                                colorsBuffer.putShort((short) ortoValues[0]);
-                                colorsBuffer.putShort((short) ortoValues[1]);
-                                colorsBuffer.putShort((short) ortoValues[2]);
-                            } catch (PointOutsideCoverageException poce) {
-                                // insert white
-                                colorsBuffer.putShort((short) 255);
-                                colorsBuffer.putShort((short) 255);
-                                colorsBuffer.putShort((short) 255);
+                        readBatch.clear();
+                        int read = reader.readPoints(readCount, Math.min(READ_BATCH_SIZE, pointsCount - readCount), readBatch);
+                        if (read == 0) {
+                            break;
+                        }
+                        for( int i = 0; i < read; i++ ) {
+                            int cell = cellOf(readBatch.x[i], readBatch.y[i], gridGeometry, cols, rows, wPoint);
+                            if (cell >= firstCell && cell < lastCell) {
+                                bandCells[bandPoints.add(readBatch, i)] = cell;
                             }
-
-                        } else if (dot.color != null) {
-                            colorsBuffer.putShort(dot.color[0]);
-                            colorsBuffer.putShort(dot.color[1]);
-                            colorsBuffer.putShort(dot.color[2]);
                         }
-
-                        count++;
+                        readCount += read;
                     }
-                    avgElev /= count;
-                    avgIntensity /= count;
-
-                    final LasCell lasCell = new LasCell();
-                    lasCell.polygon = polygon;
-                    lasCell.sourceId = sourceID;
-
-                    lasCell.pointsCount = pointCount;
-                    lasCell.avgElev = avgElev;
-                    lasCell.minElev = minElev;
-                    lasCell.maxElev = maxElev;
-                    lasCell.xyzs = position;
-                    lasCell.avgIntensity = (short) Math.round(avgIntensity);
-                    lasCell.minIntensity = minIntensity;
-                    lasCell.maxIntensity = maxIntensity;
-                    lasCell.intensitiesClassifications = intensClass;
-                    lasCell.returns = returns;
-                    lasCell.minGpsTime = minGpsTime;
-                    lasCell.maxGpsTime = maxGpsTime;
-                    lasCell.gpsTimes = gpsTimes;
-                    lasCell.colors = colors;
-
-                    cellsList.add(lasCell);
-                    lasCellsOnMatrixXY[c][r] = lasCell;
-
-                    if (cellsList.size() > 100000) {
-                        // add data to db in a thread to fasten up things
-                        final List<LasCell> processCells = cellsList;
-                        singleThreadExecutor.execute(new Runnable(){
-                            public void run() {
-                                try {
-                                    LasCellsTable.insertLasCells(spatialiteDb, srid, processCells);
-                                    pm.worked(processCells.size());
-                                } catch (Exception e) {
-                                    e.printStackTrace();
-                                }
-                            }
-                        });
-                        cellsList = new ArrayList<>();
+                    if (bandPoints.size() != bandCount) {
+                        throw new RuntimeException("Didn't read all the data...");
                     }
                 }
-                if (pm.isCanceled()) {
-                    throw new RuntimeException(INTERRUPTED_BY_USER);
-                }
-            }
-            if (cellsList.size() > 0) {
-                // add data to db in a thread to fasten up things
-                final List<LasCell> processCells = cellsList;
-                singleThreadExecutor.execute(new Runnable(){
-                    public void run() {
-                        try {
-                            LasCellsTable.insertLasCells(spatialiteDb, srid, processCells);
-                            if (doVerbose)
-                                pm.worked(processCells.size());
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                    }
-                });
-                cellsList = new ArrayList<>();
-            }
 
-            try {
-                singleThreadExecutor.shutdown();
-                singleThreadExecutor.awaitTermination(30, TimeUnit.DAYS);
-                singleThreadExecutor.shutdownNow();
-            } catch (InterruptedException ex) {
-                ex.printStackTrace();
-            }
-            if (doVerbose)
-                pm.done();
-            else
-                pm.message("Done.");
+                /*
+                 * sort the points of the band by cell, keeping them in the batch and
+                 * ordering only their indexes
+                 */
+                int[] cellsPosition = new int[lastCell - firstCell];
+                for( int cell = firstCell; cell < lastCell; cell++ ) {
+                    cellsPosition[cell - firstCell] = cellsStart[cell] - bandOffset;
+                }
+                int[] sortedPoints = new int[bandCount];
+                for( int i = 0; i < bandPoints.size(); i++ ) {
+                    sortedPoints[cellsPosition[bandCells[i] - firstCell]++] = i;
+                }
+                cellsPosition = null;
+                bandCells = null;
 
-            if (pLevels > 0) {
-                for( int level = 1; level <= pLevels; level++ ) {
-                    if (pm.isCanceled()) {
-                        throw new RuntimeException(INTERRUPTED_BY_USER);
+                for( int c = fromCol; c < toCol; c++ ) {
+                    if (stopIngestion) {
+                        return;
                     }
-                    LasLevelsTable.createTable(spatialiteDb, srid, level, doAvoidIndex);
-                    if (level == 1) {
-                        insertFirstLevel(spatialiteDb, sourceID, north, south, east, west, level);
-                    } else {
-                        insertLevel(spatialiteDb, sourceID, north, south, east, west, level);
+                    for( int r = 0; r < rows; r++ ) {
+                        int cell = c * rows + r;
+                        int from = cellsStart[cell] - bandOffset;
+                        int to = cellsStart[cell + 1] - bandOffset;
+
+                        Coordinate coord = CoverageUtilities.coordinateFromColRow(c, r, gridGeometry);
+                        Envelope env = new Envelope(coord);
+                        env.expandBy(pCellsize / 2.0, pCellsize / 2.0);
+                        Polygon polygon = GeometryUtilities.createPolygonFromEnvelope(env);
+
+                        LasCell lasCell;
+                        if (from == to) {
+                            if (!doEmptyCells) {
+                                continue;
+                            }
+                            lasCell = createEmptyCell(polygon);
+                        } else {
+                            lasCell = createCell(bandPoints, sortedPoints, from, to, polygon, ortoGC, hasRGB, pos, ortoValues);
+                            if (pLevels > 0) {
+                                cellsSummaries.add(summarize(lasCell));
+                            }
+                        }
+                        chunk.cells.add(lasCell);
+                        las.cellsCount++;
+                        if (chunk.cells.size() == CELLS_PER_CHUNK) {
+                            chunksQueue.put(chunk);
+                            chunk = new IngestionChunk(las);
+                        }
                     }
                 }
+                fromCol = toCol;
             }
-
+            points = null;
+            pointCells = null;
+            las.pointsCount = pointsCount;
+
+            List<LasLevel> previousLevel = cellsSummaries;
+            for( int level = 1; level <= pLevels; level++ ) {
+                previousLevel = aggregateLevel(previousLevel, level, north, south, east, west);
+                chunk.levels.add(previousLevel);
+            }
+            las.processingMillis = System.currentTimeMillis() - startTime;
+            chunk.isLast = true;
+            chunksQueue.put(chunk);
         }
-
     }
 
-    private void insertFirstLevel( final ASpatialDb spatialiteDb, long sourceID, double north, double south, double east,
-            double west, int level ) throws Exception, SQLException {
-        List<LasLevel> levelsList = new ArrayList<>();
-        double levelCellsize = pCellsize * level * pFactor;
-        double[] xRangesLevel = NumericsUtilities.range2Bins(west, east, levelCellsize, false);
-        double[] yRangesLevel = NumericsUtilities.range2Bins(south, north, levelCellsize, false);
-        int size = (xRangesLevel.length - 1) * (yRangesLevel.length - 1);
-        if (doVerbose)
-            pm.beginTask("Creating level " + level + " with " + size + " tiles...", xRangesLevel.length - 1);
-        else
-            pm.message("Creating level " + level + " with " + size + " tiles...");
-        for( int x = 0; x < xRangesLevel.length - 1; x++ ) {
-            double xmin = xRangesLevel[x];
-            double xmax = xRangesLevel[x + 1];
-            for( int y = 0; y < yRangesLevel.length - 1; y++ ) {
-                double ymin = yRangesLevel[y];
-                double ymax = yRangesLevel[y + 1];
-                Envelope levelEnv = new Envelope(xmin, xmax, ymin, ymax);
-                Polygon polygon = GeometryUtilities.createPolygonFromEnvelope(levelEnv);
-
-                List<LasCell> lasCells = LasCellsTable.getLasCells(spatialiteDb, polygon, true, true, false, false, false);
-
-                double avgElev = 0.0;
-                double minElev = Double.POSITIVE_INFINITY;
-                double maxElev = Double.NEGATIVE_INFINITY;
-                short avgIntensity = 0;
-                short minIntensity = 30000;
-                short maxIntensity = -1;
-
-                int count = 0;
-                for( LasCell cell : lasCells ) {
-                    avgElev += cell.avgElev;
-                    minElev = min(cell.minElev, minElev);
-                    maxElev = max(cell.maxElev, maxElev);
-
-                    avgIntensity += cell.avgIntensity;
-                    minIntensity = (short) min(cell.minIntensity, minIntensity);
-                    maxIntensity = (short) max(cell.maxIntensity, maxIntensity);
-
-                    count++;
-                }
-                if (count == 0) {
-                    continue;
-                }
-                avgElev /= count;
-                avgIntensity /= count;
-
-                LasLevel lasLevel = new LasLevel();
-                lasLevel.polygon = polygon;
-                lasLevel.level = level;
-                lasLevel.avgElev = avgElev;
-                lasLevel.minElev = minElev;
-                lasLevel.maxElev = maxElev;
-                lasLevel.avgIntensity = avgIntensity;
-                lasLevel.minIntensity = minIntensity;
-                lasLevel.maxIntensity = maxIntensity;
-                lasLevel.sourceId = sourceID;
+    /**
+     * Get the index of the cell containing a point, as <code>col * rows + row</code>.
+     */
+    private static int cellOf( double x, double y, GridGeometry2D gridGeometry, int cols, int rows, DirectPosition2D wPoint )
+            throws Exception {
+        wPoint.setLocation(x, y);
+        GridCoordinates2D gridCoord = gridGeometry.worldToGrid(wPoint);
+        int col = max(0, min(cols - 1, gridCoord.x));
+        int row = max(0, min(rows - 1, gridCoord.y));
+        return col * rows + row;
+    }
 
-                levelsList.add(lasLevel);
+    private LasCell createEmptyCell( Polygon polygon ) {
+        final LasCell lasCell = new LasCell();
+        lasCell.polygon = polygon;
+
+        lasCell.pointsCount = 0;
+        lasCell.avgElev = -9999.0;
+        lasCell.minElev = -9999.0;
+        lasCell.maxElev = -9999.0;
+        lasCell.xyzs = new byte[0];
+        lasCell.avgIntensity = (short) -999;
+        lasCell.minIntensity = (short) -999;
+        lasCell.maxIntensity = (short) -999;
+        lasCell.intensitiesClassifications = new byte[0];
+        lasCell.returns = new byte[0];
+        lasCell.minGpsTime = -9999.0;
+        lasCell.maxGpsTime = -9999.0;
+        lasCell.gpsTimes = new byte[0];
+        lasCell.colors = new byte[0];
+        return lasCell;
+    }
 
-                if (levelsList.size() > 10000) {
-                    LasLevelsTable.insertLasLevels(spatialiteDb, srid, levelsList);
-                    levelsList = new ArrayList<>();
+    /**
+     * Creates the cell of the points with indexes <code>sortedPoints[from]</code> to 
+     * <code>sortedPoints[to - 1]</code>.
+     */
+    private LasCell createCell( PointBatch points, int[] sortedPoints, int from, int to, Polygon polygon,
+            GridCoverage2D ortoGC, boolean hasRGB, Point2D.Double pos, int[] ortoValues ) {
+        int pointCount = to - from;
+
+        double avgElev = 0.0;
+        double minElev = Double.POSITIVE_INFINITY;
+        double maxElev = Double.NEGATIVE_INFINITY;
+        byte[] position = new byte[8 * 3 * pointCount];
+        ByteBuffer positionBuffer = ByteBuffer.wrap(position);
+
+        double avgIntensity = 0.0;
+
+        short minIntensity = 30000;
+        short maxIntensity = -1;
+        byte[] intensClass = new byte[2 * 2 * pointCount];
+        ByteBuffer intensClassBuffer = ByteBuffer.wrap(intensClass);
+        byte[] returns = new byte[2 * 2 * pointCount];
+        ByteBuffer returnsBuffer = ByteBuffer.wrap(returns);
+        double minGpsTime = Double.POSITIVE_INFINITY;
+        double maxGpsTime = Double.NEGATIVE_INFINITY;
+        byte[] gpsTimes = new byte[8 * pointCount];
+        ByteBuffer gpsTimesBuffer = ByteBuffer.wrap(gpsTimes);
+        byte[] colors = new byte[2 * 3 * pointCount];
+        ByteBuffer colorsBuffer = ByteBuffer.wrap(colors);
+
+        for( int j = from; j < to; j++ ) {
+            int i = sortedPoints[j];
+            double x = points.x[i];
+            double y = points.y[i];
+            double z = points.z[i];
+            short intensity = points.intensity[i];
+            double gpsTime = points.gpsTime[i];
+
+            avgElev += z;
+            minElev = min(z, minElev);
+            maxElev = max(z, maxElev);
+            positionBuffer.putDouble(x);
+            positionBuffer.putDouble(y);
+            positionBuffer.putDouble(z);
+
+            avgIntensity += intensity;
+            minIntensity = (short) min(intensity, minIntensity);
+            maxIntensity = (short) max(intensity, maxIntensity);
+            intensClassBuffer.putShort(intensity);
+            intensClassBuffer.putShort(points.classification[i]);
+
+            returnsBuffer.putShort(points.returnNumber[i]);
+            returnsBuffer.putShort(points.numberOfReturns[i]);
+
+            minGpsTime = min(gpsTime, minGpsTime);
+            maxGpsTime = max(gpsTime, maxGpsTime);
+
+            gpsTimesBuffer.putDouble(gpsTime);
+
+            if (ortoGC != null) {
+                pos.setLocation(x, y);
+                try {
+                    ortoGC.evaluate(pos, ortoValues);
+                    colorsBuffer.putShort((short) ortoValues[0]);
+                    colorsBuffer.putShort((short) ortoValues[1]);
+                    colorsBuffer.putShort((short) ortoValues[2]);
+                } catch (PointOutsideCoverageException poce) {
+                    // insert white
+                    colorsBuffer.putShort((short) 255);
+                    colorsBuffer.putShort((short) 255);
+                    colorsBuffer.putShort((short) 255);
                 }
+            } else if (hasRGB) {
+                colorsBuffer.putShort(points.red[i]);
+                colorsBuffer.putShort(points.green[i]);
+                colorsBuffer.putShort(points.blue[i]);
             }
-            if (doVerbose)
-                pm.worked(1);
         }
-        if (levelsList.size() > 0) {
-            LasLevelsTable.insertLasLevels(spatialiteDb, srid, levelsList);
-        }
-        if (doVerbose)
-            pm.done();
-        else
-            pm.message("Done.");
+        avgElev /= pointCount;
+        avgIntensity /= pointCount;
+
+        final LasCell lasCell = new LasCell();
+        lasCell.polygon = polygon;
+
+        lasCell.pointsCount = pointCount;
+        lasCell.avgElev = avgElev;
+        lasCell.minElev = minElev;
+        lasCell.maxElev = maxElev;
+        lasCell.xyzs = position;
+        lasCell.avgIntensity = (short) Math.round(avgIntensity);
+        lasCell.minIntensity = minIntensity;
+        lasCell.maxIntensity = maxIntensity;
+        lasCell.intensitiesClassifications = intensClass;
+        lasCell.returns = returns;
+        lasCell.minGpsTime = minGpsTime;
+        lasCell.maxGpsTime = maxGpsTime;
+        lasCell.gpsTimes = gpsTimes;
+        lasCell.colors = colors;
+        return lasCell;
     }
 
-    private void insertLevel( final ASpatialDb spatialiteDb, long sourceID, double north, double south, double east, double west,
-            int level ) throws Exception, SQLException {
-        int previousLevelNum = level - 1;
-        List<LasLevel> levelsList = new ArrayList<>();
+    /**
+     * Keeps the summary values of a cell, without the point blobs.
+     */
+    private LasLevel summarize( LasCell lasCell ) {
+        LasLevel summary = new LasLevel();
+        summary.polygon = lasCell.polygon;
+        summary.avgElev = lasCell.avgElev;
+        summary.minElev = lasCell.minElev;
+        summary.maxElev = lasCell.maxElev;
+        summary.avgIntensity = lasCell.avgIntensity;
+        summary.minIntensity = lasCell.minIntensity;
+        summary.maxIntensity = lasCell.maxIntensity;
+        return summary;
+    }
+
+    /**
+     * Aggregates the summaries of the previous level (or the cells) into a new level.
+     * 
+     * <p>Every summary goes into the level tile containing its center.</p>
+     */
+    private List<LasLevel> aggregateLevel( List<LasLevel> previousLevel, int level, double north, double south, double east,
+            double west ) {
         double levelCellsize = pCellsize * level * pFactor;
         double[] xRangesLevel = NumericsUtilities.range2Bins(west, east, levelCellsize, false);
         double[] yRangesLevel = NumericsUtilities.range2Bins(south, north, levelCellsize, false);
-        int size = (xRangesLevel.length - 1) * (yRangesLevel.length - 1);
-        if (doVerbose)
-            pm.beginTask("Creating level " + level + " with " + size + " tiles...", xRangesLevel.length - 1);
-        else
-            pm.message("Creating level " + level + " with " + size + " tiles...");
-        for( int x = 0; x < xRangesLevel.length - 1; x++ ) {
-            double xmin = xRangesLevel[x];
-            double xmax = xRangesLevel[x + 1];
-            for( int y = 0; y < yRangesLevel.length - 1; y++ ) {
-                double ymin = yRangesLevel[y];
-                double ymax = yRangesLevel[y + 1];
-                Envelope levelEnv = new Envelope(xmin, xmax, ymin, ymax);
-                Polygon polygon = GeometryUtilities.createPolygonFromEnvelope(levelEnv);
-
-                List<LasLevel> lasLevels = LasLevelsTable.getLasLevels(spatialiteDb, previousLevelNum, levelEnv);
-
-                double avgElev = 0.0;
-                double minElev = Double.POSITIVE_INFINITY;
-                double maxElev = Double.NEGATIVE_INFINITY;
-                short avgIntensity = 0;
-                short minIntensity = 30000;
-                short maxIntensity = -1;
-
-                int count = 0;
-                for( LasLevel lasLevel : lasLevels ) {
-                    avgElev += lasLevel.avgElev;
-                    minElev = min(lasLevel.minElev, minElev);
-                    maxElev = max(lasLevel.maxElev, maxElev);
-
-                    avgIntensity += lasLevel.avgIntensity;
-                    minIntensity = (short) min(lasLevel.minIntensity, minIntensity);
-                    maxIntensity = (short) max(lasLevel.maxIntensity, maxIntensity);
-
-                    count++;
-                }
-                if (count == 0) {
-                    continue;
-                }
-                avgElev /= count;
-                avgIntensity /= count;
-
-                LasLevel lasLevel = new LasLevel();
-                lasLevel.polygon = polygon;
+        int levelCols = xRangesLevel.length - 1;
+        int levelRows = yRangesLevel.length - 1;
+
+        LasLevel[] levelTiles = new LasLevel[levelCols * levelRows];
+        int[] counts = new int[levelTiles.length];
+        double[] intensitySums = new double[levelTiles.length];
+        for( LasLevel previous : previousLevel ) {
+            Coordinate center = previous.polygon.getEnvelopeInternal().centre();
+            int x = (int) ((center.x - west) / levelCellsize);
+            x = max(0, min(levelCols - 1, x));
+            int y = (int) ((center.y - south) / levelCellsize);
+            y = max(0, min(levelRows - 1, y));
+            int index = x * levelRows + y;
+
+            LasLevel lasLevel = levelTiles[index];
+            if (lasLevel == null) {
+                lasLevel = new LasLevel();
                 lasLevel.level = level;
-                lasLevel.avgElev = avgElev;
-                lasLevel.minElev = minElev;
-                lasLevel.maxElev = maxElev;
-                lasLevel.avgIntensity = avgIntensity;
-                lasLevel.minIntensity = minIntensity;
-                lasLevel.maxIntensity = maxIntensity;
-                lasLevel.sourceId = sourceID;
+                lasLevel.minElev = Double.POSITIVE_INFINITY;
+                lasLevel.maxElev = Double.NEGATIVE_INFINITY;
+                lasLevel.minIntensity = 30000;
+                lasLevel.maxIntensity = -1;
+                Envelope levelEnv = new Envelope(xRangesLevel[x], xRangesLevel[x + 1], yRangesLevel[y], yRangesLevel[y + 1]);
+                lasLevel.polygon = GeometryUtilities.createPolygonFromEnvelope(levelEnv);
+                levelTiles[index] = lasLevel;
+            }
+            lasLevel.avgElev += previous.avgElev;
+            lasLevel.minElev = min(previous.minElev, lasLevel.minElev);
+            lasLevel.maxElev = max(previous.maxElev, lasLevel.maxElev);
+            intensitySums[index] += previous.avgIntensity;
+            lasLevel.minIntensity = (short) min(previous.minIntensity, lasLevel.minIntensity);
+            lasLevel.maxIntensity = (short) max(previous.maxIntensity, lasLevel.maxIntensity);
+            counts[index]++;
+        }
 
+        List<LasLevel> levelsList = new ArrayList<>();
+        for( int i = 0; i < levelTiles.length; i++ ) {
+            LasLevel lasLevel = levelTiles[i];
+            if (lasLevel != null) {
+                lasLevel.avgElev /= counts[i];
+                lasLevel.avgIntensity = (short) Math.round(intensitySums[i] / counts[i]);
                 levelsList.add(lasLevel);
-
-                if (levelsList.size() > 10000) {
-                    LasLevelsTable.insertLasLevels(spatialiteDb, srid, levelsList);
-                    levelsList = new ArrayList<>();
-                }
             }
-            if (doVerbose)
-                pm.worked(1);
         }
-        if (levelsList.size() > 0) {
-            LasLevelsTable.insertLasLevels(spatialiteDb, srid, levelsList);
+        return levelsList;
+    }
+
+    /**
+     * The state of a las file during its insertion.
+     */
+    private static class LasIngestion {
+        final File file;
+        final String name;
+        ReferencedEnvelope3D envelope;
+        Polygon polygon;
+        short minIntensity;
+        short maxIntensity;
+        int pointsCount;
+        int cellsCount;
+        long processingMillis;
+        /**
+         * The id in the sources table, set by the writer.
+         */
+        long sourceId = -1;
+
+        LasIngestion( File file ) {
+            this.file = file;
+            name = FileUtilities.getNameWithoutExtention(file);
+        }
+    }
+
+    /**
+     * A chunk of a las file handed from the workers to the writer.
+     */
+    private static class IngestionChunk {
+        final LasIngestion las;
+        final List<LasCell> cells = new ArrayList<>();
+        /**
+         * The levels of the file, from level 1, only in the last chunk.
+         */
+        final List<List<LasLevel>> levels = new ArrayList<>();
+        boolean isLast = false;
+        Exception error;
+
+        IngestionChunk( LasIngestion las ) {
+            this.las = las;
         }
-        if (doVerbose)
-            pm.done();
-        else
-            pm.message("Done.");
     }
 
     @Finalize
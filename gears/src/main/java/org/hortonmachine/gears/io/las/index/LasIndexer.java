@@ -19,12 +19,8 @@ package org.hortonmachine.gears.io.las.index;
 
 import static java.lang.Math.round;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileFilter;
-import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -58,7 +54,6 @@ import org.hortonmachine.gears.io.las.core.ALasReader;
 import org.hortonmachine.gears.io.las.core.ALasWriter;
 import org.hortonmachine.gears.io.las.core.ILasHeader;
 import org.hortonmachine.gears.io.las.core.LasRecord;
-import org.hortonmachine.gears.io.las.index.strtree.STRtreeJGT;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
@@ -161,7 +156,7 @@ public class LasIndexer extends HMModel {
 
         List<File> filesList = iter.filesList;
         pm.beginTask("Creating readers index...", filesList.size());
-        STRtreeJGT mainTree = new STRtreeJGT();
+        PackedRTreeWriter mainTree = new PackedRTreeWriter(0);
         for( File file : filesList ) {
             try (ALasReader reader = ALasReader.getReader(file, crs)) {
                 reader.open();
@@ -178,8 +173,7 @@ public class LasIndexer extends HMModel {
         pm.done();
 
         File mainIndex = new File(inFolder, pIndexname);
-        byte[] mainIndexBytes = serialize(mainTree);
-        dumpBytes(mainIndex, mainIndexBytes);
+        mainTree.write(mainIndex);
 
         // write prj file
         CrsUtilities.writeProjectionFile(mainIndex.getAbsolutePath(), "lasfolder", crs);
@@ -333,7 +327,7 @@ public class LasIndexer extends HMModel {
                 writer.open();
 
                 int addedTiles = 0;
-                STRtreeJGT tree = new STRtreeJGT();
+                PackedRTreeWriter tree = new PackedRTreeWriter(4);
                 if (!isMultiThreaded) {
                     pm.beginTask("Write and index new las...", cols);
                 } else {
@@ -372,8 +366,7 @@ public class LasIndexer extends HMModel {
                 if (!isMultiThreaded)
                     pm.done();
 
-                byte[] serialized = serialize(tree);
-                dumpBytes(indexFile, serialized);
+                tree.write(indexFile);
 
                 pm.message("Tiles added for " + name + ": " + addedTiles);
             }
@@ -423,20 +416,5 @@ public class LasIndexer extends HMModel {
     public void close() throws Exception {
     }
 
-    private static byte[] serialize( Object obj ) throws IOException {
-        try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
-            ObjectOutputStream out = new ObjectOutputStream(bos);
-            out.writeObject(obj);
-            out.close();
-            return bos.toByteArray();
-        }
-    }
-
-    private static void dumpBytes( File file, byte[] bytes ) throws Exception {
-        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
-            raf.write(bytes);
-        }
-    }
-
 
 }
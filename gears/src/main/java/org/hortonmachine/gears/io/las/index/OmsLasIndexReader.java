@@ -46,7 +46,6 @@ import org.geotools.referencing.CRS;
 import org.hortonmachine.gears.io.las.core.ALasReader;
 import org.hortonmachine.gears.io.las.core.ILasHeader;
 import org.hortonmachine.gears.io.las.core.LasRecord;
-import org.hortonmachine.gears.io.las.index.strtree.STRtreeJGT;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
@@ -100,7 +99,6 @@ public class OmsLasIndexReader extends HMModel {
     public boolean doInternal = false;
     public List<LasRecord> lasPoints = new ArrayList<LasRecord>();
 
-    @SuppressWarnings("rawtypes")
     @Execute
     public void process() throws Exception {
         checkNull(inFile);
@@ -122,7 +120,7 @@ public class OmsLasIndexReader extends HMModel {
         GeometryFactory gf = GeometryUtilities.gf();
 
         File parentFolder = new File(inFile).getParentFile();
-        STRtreeJGT mainIndexTree = readIndex(inFile);
+        PackedRTree mainIndexTree = readIndex(inFile);
 
         List<Geometry> boundsList;
         if (!doBounds) {
@@ -164,11 +162,11 @@ public class OmsLasIndexReader extends HMModel {
 
         for( Geometry boundGeom : boundsList ) {
             Envelope env = boundGeom.getEnvelopeInternal();
-            List filesList = mainIndexTree.query(env);
-            for( Object fileName : filesList ) {
-                if (fileName instanceof String) {
-                    pm.message("Processing: " + fileName);
-                    String name = (String) fileName;
+            int[] filesItems = mainIndexTree.query(env);
+            for( int fileItem : filesItems ) {
+                String name = mainIndexTree.getName(fileItem);
+                if (name != null) {
+                    pm.message("Processing: " + name);
                     File lasFile = new File(parentFolder, name);
                     File lasIndexFile = FileUtilities.substituteExtention(lasFile, "lasfix");
                     if (!lasIndexFile.exists() || !lasFile.exists()) {
@@ -181,35 +179,32 @@ public class OmsLasIndexReader extends HMModel {
 
                         if (!doBounds) {
                             // TODO check files
-                            STRtreeJGT lasIndex = readIndex(lasIndexFile.getAbsolutePath());
-                            List lasIndexStoreInfoList = lasIndex.query(env);
-                            pm.beginTask("Read data...", lasIndexStoreInfoList.size());
-                            for( Object obj : lasIndexStoreInfoList ) {
-                                if (obj instanceof double[]) {
-                                    double[] addresses = (double[]) obj;
-                                    long from = (long) addresses[0];
-                                    long to = (long) addresses[1];
-                                    for( long pointNum = from; pointNum < to; pointNum++ ) {
-                                        LasRecord lasDot = reader.getPointAt(pointNum);
-                                        if (doInternal) {
-                                            lasPoints.add(lasDot);
-                                        } else {
-                                            final double x = lasDot.x;
-                                            final double y = lasDot.y;
-                                            final double z = lasDot.z;
-                                            final double intensity = lasDot.intensity;
-                                            final int classification = lasDot.classification;
-                                            final double impulse = lasDot.returnNumber;
-                                            final double impulseNumber = lasDot.numberOfReturns;
+                            PackedRTree lasIndex = readIndex(lasIndexFile.getAbsolutePath());
+                            int[] cellItems = lasIndex.query(env);
+                            pm.beginTask("Read data...", cellItems.length);
+                            for( int cellItem : cellItems ) {
+                                long from = (long) lasIndex.getValue(cellItem, 0);
+                                long to = (long) lasIndex.getValue(cellItem, 1);
+                                for( long pointNum = from; pointNum < to; pointNum++ ) {
+                                    LasRecord lasDot = reader.getPointAt(pointNum);
+                                    if (doInternal) {
+                                        lasPoints.add(lasDot);
+                                    } else {
+                                        final double x = lasDot.x;
+                                        final double y = lasDot.y;
+                                        final double z = lasDot.z;
+                                        final double intensity = lasDot.intensity;
+                                        final int classification = lasDot.classification;
+                                        final double impulse = lasDot.returnNumber;
+                                        final double impulseNumber = lasDot.numberOfReturns;
 
-                                            final Coordinate tmp = new Coordinate(x, y, z);
-                                            final Point point = gf.createPoint(tmp);
-                                            final Object[] values = new Object[]{point, z, intensity, classification, impulse,
-                                                    impulseNumber};
-                                            builder.addAll(values);
-                                            final SimpleFeature feature = builder.buildFeature(null);
-                                            ((DefaultFeatureCollection) outData).add(feature);
-                                        }
+                                        final Coordinate tmp = new Coordinate(x, y, z);
+                                        final Point point = gf.createPoint(tmp);
+                                        final Object[] values = new Object[]{point, z, intensity, classification, impulse,
+                                                impulseNumber};
+                                        builder.addAll(values);
+                                        final SimpleFeature feature = builder.buildFeature(null);
+                                        ((DefaultFeatureCollection) outData).add(feature);
                                     }
                                 }
                                 pm.worked(1);
@@ -231,26 +226,15 @@ public class OmsLasIndexReader extends HMModel {
         }
     }
 
-    public static STRtreeJGT readIndex( String path ) throws Exception {
-        File file = new File(path);
-        RandomAccessFile raf = null;
-        try {
-            raf = new RandomAccessFile(file, "r");
-            long length = raf.length();
-            // System.out.println(length + "/" + (int) length);
-            byte[] bytes = new byte[(int) length];
-            int read = raf.read(bytes);
-            if (read != length) {
-                throw new IOException();
-            }
-            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
-            Object readObject = in.readObject();
-            STRtreeJGT indexObj = (STRtreeJGT) readObject;
-            return indexObj;
-        } finally {
-            if (raf != null)
-                raf.close();
-        }
+    /**
+     * Map a las index file.
+     * 
+     * @param path the path to the index, either the main folder index or the index of a las file.
+     * @return the index tree.
+     * @throws Exception
+     */
+    public static PackedRTree readIndex( String path ) throws Exception {
+        return PackedRTree.open(new File(path));
     }
 
     public static Polygon envelopeToPolygon( Envelope envelope ) {
@@ -0,0 +1,286 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.las.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.function.IntConsumer;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * A packed R-tree, memory mapped from a file written by {@link PackedRTreeWriter}.
+ * 
+ * <p>The tree is queried directly on the mapped file, without deserialization. 
+ * All the reads are absolute, so the tree can be queried by several threads at
+ * the same time.</p>
+ * 
+ * <p>The items are identified by their position in the leaves, from 0 to 
+ * {@link #size()} - 1. Since the leaves are sorted along a hilbert curve, close 
+ * items have close positions.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class PackedRTree {
+
+    static final int MAGIC = 0x484D5254; // HMRT
+    static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 8 * 4;
+
+    private final ByteBuffer buffer;
+    private final int nodeCapacity;
+    private final int itemsCount;
+    private final int nodesCount;
+    private final int valuesCount;
+    private final int[] levelEnds;
+    private final int boxesPosition;
+    private final int valuesPosition;
+    private final int nameOffsetsPosition;
+    private final int namesPosition;
+
+    private PackedRTree( ByteBuffer buffer, String source ) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("The file is not a packed las index, it might have been created by an older version: "
+                    + source + ". Please index the las files again.");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported index version " + version + ": " + source);
+        }
+        nodeCapacity = buffer.getInt(8);
+        itemsCount = buffer.getInt(12);
+        nodesCount = buffer.getInt(16);
+        int levelsCount = buffer.getInt(20);
+        valuesCount = buffer.getInt(24);
+        int namesBytesCount = buffer.getInt(28);
+
+        levelEnds = new int[levelsCount];
+        for( int i = 0; i < levelsCount; i++ ) {
+            levelEnds[i] = buffer.getInt(HEADER_SIZE + 4 * i);
+        }
+        boxesPosition = HEADER_SIZE + 4 * levelsCount;
+        valuesPosition = boxesPosition + 8 * 4 * nodesCount;
+        if (namesBytesCount >= 0) {
+            nameOffsetsPosition = valuesPosition + 8 * valuesCount * itemsCount;
+            namesPosition = nameOffsetsPosition + 4 * (itemsCount + 1);
+        } else {
+            nameOffsetsPosition = -1;
+            namesPosition = -1;
+        }
+    }
+
+    /**
+     * Map an index file.
+     * 
+     * @param file the file written by {@link PackedRTreeWriter}.
+     * @return the tree.
+     * @throws IOException
+     */
+    public static PackedRTree open( File file ) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel fc = raf.getChannel()) {
+            long size = fc.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("The index file is too large: " + file);
+            }
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer mapped = fc.map(MapMode.READ_ONLY, 0, size);
+            return new PackedRTree(mapped, file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Wrap a buffer containing a tree, for example a mapped section of a larger file.
+     * 
+     * @param buffer the buffer, starting with the tree.
+     * @return the tree.
+     * @throws IOException
+     */
+    public static PackedRTree wrap( ByteBuffer buffer ) throws IOException {
+        return new PackedRTree(buffer.slice(), "buffer");
+    }
+
+    /**
+     * @return the number of items in the tree.
+     */
+    public int size() {
+        return itemsCount;
+    }
+
+    /**
+     * @return the number of values of every item.
+     */
+    public int getValuesCount() {
+        return valuesCount;
+    }
+
+    /**
+     * @return <code>true</code> if the items have names.
+     */
+    public boolean hasNames() {
+        return namesPosition >= 0;
+    }
+
+    /**
+     * @return the envelope of all the items, a null envelope if the tree is empty.
+     */
+    public Envelope getBounds() {
+        if (itemsCount == 0) {
+            return new Envelope();
+        }
+        return getNodeBounds(nodesCount - 1);
+    }
+
+    /**
+     * @param item the item position.
+     * @return the envelope of the item.
+     */
+    public Envelope getBounds( int item ) {
+        checkItem(item);
+        return getNodeBounds(item);
+    }
+
+    /**
+     * @param item the item position.
+     * @param index the index of the value.
+     * @return the value of the item.
+     */
+    public double getValue( int item, int index ) {
+        checkItem(item);
+        if (index < 0 || index >= valuesCount) {
+            throw new IndexOutOfBoundsException("Value index " + index + " out of " + valuesCount);
+        }
+        return buffer.getDouble(valuesPosition + 8 * (item * valuesCount + index));
+    }
+
+    /**
+     * @param item the item position.
+     * @return the values of the item.
+     */
+    public double[] getValues( int item ) {
+        checkItem(item);
+        double[] values = new double[valuesCount];
+        int position = valuesPosition + 8 * item * valuesCount;
+        for( int i = 0; i < valuesCount; i++ ) {
+            values[i] = buffer.getDouble(position + 8 * i);
+        }
+        return values;
+    }
+
+    /**
+     * @param item the item position.
+     * @return the name of the item, or <code>null</code> if the items have no names.
+     */
+    public String getName( int item ) {
+        checkItem(item);
+        if (namesPosition < 0) {
+            return null;
+        }
+        int from = buffer.getInt(nameOffsetsPosition + 4 * item);
+        int to = buffer.getInt(nameOffsetsPosition + 4 * (item + 1));
+        byte[] bytes = new byte[to - from];
+        for( int i = 0; i < bytes.length; i++ ) {
+            bytes[i] = buffer.get(namesPosition + from + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Query the items that intersect an envelope.
+     * 
+     * @param envelope the envelope to check.
+     * @return the positions of the intersecting items, in ascending order.
+     */
+    public int[] query( Envelope envelope ) {
+        int[][] holder = {new int[16]};
+        int[] count = {0};
+        query(envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(), envelope.getMaxY(), item -> {
+            if (count[0] == holder[0].length) {
+                int[] tmp = new int[holder[0].length * 2];
+                System.arraycopy(holder[0], 0, tmp, 0, count[0]);
+                holder[0] = tmp;
+            }
+            holder[0][count[0]++] = item;
+        });
+        int[] result = new int[count[0]];
+        System.arraycopy(holder[0], 0, result, 0, count[0]);
+        return result;
+    }
+
+    /**
+     * Visit the items that intersect a box, in ascending position order.
+     * 
+     * @param minX the box west.
+     * @param minY the box south.
+     * @param maxX the box east.
+     * @param maxY the box north.
+     * @param visitor the visitor of the item positions.
+     */
+    public void query( double minX, double minY, double maxX, double maxY, IntConsumer visitor ) {
+        if (itemsCount == 0) {
+            return;
+        }
+        int levelsCount = levelEnds.length;
+        // node and level pairs, a node pushes at most nodeCapacity children
+        int[] stack = new int[2 * (levelsCount * nodeCapacity + 1)];
+        int top = 0;
+        stack[top++] = nodesCount - 1;
+        stack[top++] = levelsCount - 1;
+        while( top > 0 ) {
+            int level = stack[--top];
+            int node = stack[--top];
+            int position = boxesPosition + 32 * node;
+            if (buffer.getDouble(position) > maxX || buffer.getDouble(position + 8) > maxY
+                    || buffer.getDouble(position + 16) < minX || buffer.getDouble(position + 24) < minY) {
+                continue;
+            }
+            if (level == 0) {
+                visitor.accept(node);
+                continue;
+            }
+            int levelStart = level == 1 ? 0 : levelEnds[level - 2];
+            int childrenStart = levelStart + (node - levelEnds[level - 1]) * nodeCapacity;
+            int childrenEnd = Math.min(childrenStart + nodeCapacity, levelEnds[level - 1]);
+            // pushed in reverse, so that they are visited in ascending order
+            for( int child = childrenEnd - 1; child >= childrenStart; child-- ) {
+                stack[top++] = child;
+                stack[top++] = level - 1;
+            }
+        }
+    }
+
+    private Envelope getNodeBounds( int node ) {
+        int position = boxesPosition + 32 * node;
+        return new Envelope(buffer.getDouble(position), buffer.getDouble(position + 16), buffer.getDouble(position + 8),
+                buffer.getDouble(position + 24));
+    }
+
+    private void checkItem( int item ) {
+        if (item < 0 || item >= itemsCount) {
+            throw new IndexOutOfBoundsException("Item " + item + " out of " + itemsCount);
+        }
+    }
+
+}
@@ -0,0 +1,302 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.las.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Writer of {@link PackedRTree} files.
+ * 
+ * <p>The items are collected with their envelope, and optionally a name and a
+ * fixed number of values. On {@link #write(File)} they are sorted along a
+ * Hilbert curve through the centers of their envelopes and packed bottom up
+ * into nodes of {@link #getNodeCapacity()} children.</p>
+ * 
+ * <p>The file layout (big endian) is:</p>
+ * <pre>
+ * int magic, int version, int nodeCapacity, int itemsCount, int nodesCount,
+ * int levelsCount, int valuesCount, int namesBytesCount (-1 if the items have no names)
+ * int[levelsCount]               the end node position of every level
+ * double[4 * nodesCount]         the boxes (minx, miny, maxx, maxy), leaves first, root last
+ * double[itemsCount*valuesCount] the item values
+ * int[itemsCount + 1]            the offsets of the names (only if namesBytesCount >= 0)
+ * byte[namesBytesCount]          the utf8 names
+ * </pre>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class PackedRTreeWriter {
+
+    public static final int DEFAULT_NODE_CAPACITY = 16;
+
+    private static final int HILBERT_MAX = (1 << 16) - 1;
+
+    private final int valuesCount;
+    private final int nodeCapacity;
+
+    private final List<Envelope> envelopes = new ArrayList<>();
+    private final List<double[]> valuesList = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+    private boolean hasNames = false;
+
+    /**
+     * @param valuesCount the number of values of every item.
+     */
+    public PackedRTreeWriter( int valuesCount ) {
+        this(valuesCount, DEFAULT_NODE_CAPACITY);
+    }
+
+    /**
+     * @param valuesCount the number of values of every item.
+     * @param nodeCapacity the number of children of every node.
+     */
+    public PackedRTreeWriter( int valuesCount, int nodeCapacity ) {
+        if (nodeCapacity < 2) {
+            throw new IllegalArgumentException("The node capacity has to be at least 2.");
+        }
+        this.valuesCount = valuesCount;
+        this.nodeCapacity = nodeCapacity;
+    }
+
+    public int getNodeCapacity() {
+        return nodeCapacity;
+    }
+
+    /**
+     * Add an item with values.
+     * 
+     * @param envelope the envelope of the item.
+     * @param values the values of the item, as many as defined in the constructor.
+     */
+    public void insert( Envelope envelope, double[] values ) {
+        insert(envelope, null, values);
+    }
+
+    /**
+     * Add an item with a name.
+     * 
+     * @param envelope the envelope of the item.
+     * @param name the name of the item.
+     */
+    public void insert( Envelope envelope, String name ) {
+        insert(envelope, name, new double[valuesCount]);
+    }
+
+    /**
+     * Add an item.
+     * 
+     * @param envelope the envelope of the item.
+     * @param name the optional name of the item.
+     * @param values the values of the item, as many as defined in the constructor.
+     */
+    public void insert( Envelope envelope, String name, double[] values ) {
+        if (values.length != valuesCount) {
+            throw new IllegalArgumentException("Expected " + valuesCount + " values, got " + values.length);
+        }
+        envelopes.add(envelope);
+        valuesList.add(values);
+        names.add(name);
+        if (name != null) {
+            hasNames = true;
+        }
+    }
+
+    /**
+     * @return the number of items added.
+     */
+    public int size() {
+        return envelopes.size();
+    }
+
+    /**
+     * Packs the tree and writes it to file.
+     * 
+     * @param file the file to write to.
+     * @throws IOException
+     */
+    public void write( File file ) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            write(out);
+        }
+    }
+
+    /**
+     * Packs the tree and writes it to a stream, for example to embed it in another file.
+     * 
+     * <p>The stream is not closed.</p>
+     * 
+     * @param out the stream to write to.
+     * @throws IOException
+     */
+    public void write( DataOutputStream out ) throws IOException {
+        int itemsCount = envelopes.size();
+        Integer[] order = sortByHilbert();
+
+        /*
+         * the levels, from the leaves to the root
+         */
+        List<Integer> levelEnds = new ArrayList<>();
+        int nodesCount = itemsCount;
+        if (itemsCount > 0) {
+            int levelSize = itemsCount;
+            levelEnds.add(nodesCount);
+            while( levelSize > 1 ) {
+                levelSize = (levelSize + nodeCapacity - 1) / nodeCapacity;
+                nodesCount += levelSize;
+                levelEnds.add(nodesCount);
+            }
+        }
+
+        double[] boxes = new double[4 * nodesCount];
+        for( int i = 0; i < itemsCount; i++ ) {
+            Envelope env = envelopes.get(order[i]);
+            boxes[4 * i] = env.getMinX();
+            boxes[4 * i + 1] = env.getMinY();
+            boxes[4 * i + 2] = env.getMaxX();
+            boxes[4 * i + 3] = env.getMaxY();
+        }
+        int levelStart = 0;
+        for( int level = 1; level < levelEnds.size(); level++ ) {
+            int childrenStart = levelStart;
+            int childrenEnd = levelEnds.get(level - 1);
+            levelStart = childrenEnd;
+            int node = levelStart;
+            for( int child = childrenStart; child < childrenEnd; child += nodeCapacity, node++ ) {
+                double minX = Double.POSITIVE_INFINITY;
+                double minY = Double.POSITIVE_INFINITY;
+                double maxX = Double.NEGATIVE_INFINITY;
+                double maxY = Double.NEGATIVE_INFINITY;
+                int end = Math.min(child + nodeCapacity, childrenEnd);
+                for( int c = child; c < end; c++ ) {
+                    minX = Math.min(minX, boxes[4 * c]);
+                    minY = Math.min(minY, boxes[4 * c + 1]);
+                    maxX = Math.max(maxX, boxes[4 * c + 2]);
+                    maxY = Math.max(maxY, boxes[4 * c + 3]);
+                }
+                boxes[4 * node] = minX;
+                boxes[4 * node + 1] = minY;
+                boxes[4 * node + 2] = maxX;
+                boxes[4 * node + 3] = maxY;
+            }
+        }
+
+        byte[][] namesBytes = null;
+        int namesBytesCount = 0;
+        if (hasNames) {
+            namesBytes = new byte[itemsCount][];
+            for( int i = 0; i < itemsCount; i++ ) {
+                String name = names.get(order[i]);
+                namesBytes[i] = name == null ? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+                namesBytesCount += namesBytes[i].length;
+            }
+        }
+
+        out.writeInt(PackedRTree.MAGIC);
+        out.writeInt(PackedRTree.VERSION);
+        out.writeInt(nodeCapacity);
+        out.writeInt(itemsCount);
+        out.writeInt(nodesCount);
+        out.writeInt(levelEnds.size());
+        out.writeInt(valuesCount);
+        out.writeInt(hasNames ? namesBytesCount : -1);
+        for( int levelEnd : levelEnds ) {
+            out.writeInt(levelEnd);
+        }
+        for( double value : boxes ) {
+            out.writeDouble(value);
+        }
+        for( int i = 0; i < itemsCount; i++ ) {
+            double[] values = valuesList.get(order[i]);
+            for( double value : values ) {
+                out.writeDouble(value);
+            }
+        }
+        if (hasNames) {
+            int offset = 0;
+            out.writeInt(offset);
+            for( byte[] nameBytes : namesBytes ) {
+                offset += nameBytes.length;
+                out.writeInt(offset);
+            }
+            for( byte[] nameBytes : namesBytes ) {
+                out.write(nameBytes);
+            }
+        }
+    }
+
+    /**
+     * @return the item indexes sorted by the hilbert value of the envelope centers.
+     */
+    private Integer[] sortByHilbert() {
+        int itemsCount = envelopes.size();
+        Envelope total = new Envelope();
+        for( Envelope env : envelopes ) {
+            total.expandToInclude(env);
+        }
+        double width = Math.max(total.getWidth(), Double.MIN_VALUE);
+        double height = Math.max(total.getHeight(), Double.MIN_VALUE);
+        long[] hilbertValues = new long[itemsCount];
+        Integer[] order = new Integer[itemsCount];
+        for( int i = 0; i < itemsCount; i++ ) {
+            Envelope env = envelopes.get(i);
+            double cx = (env.getMinX() + env.getMaxX()) / 2.0;
+            double cy = (env.getMinY() + env.getMaxY()) / 2.0;
+            int x = (int) Math.floor(HILBERT_MAX * (cx - total.getMinX()) / width);
+            int y = (int) Math.floor(HILBERT_MAX * (cy - total.getMinY()) / height);
+            hilbertValues[i] = hilbert(x, y);
+            order[i] = i;
+        }
+        Arrays.sort(order, ( a, b ) -> Long.compare(hilbertValues[a], hilbertValues[b]));
+        return order;
+    }
+
+    /**
+     * The position of a cell along the hilbert curve filling a 2^16 x 2^16 grid.
+     */
+    static long hilbert( int x, int y ) {
+        long d = 0;
+        int n = HILBERT_MAX + 1;
+        for( int s = n / 2; s > 0; s /= 2 ) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            // rotate the quadrant
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = n - 1 - x;
+                    y = n - 1 - y;
+                }
+                int tmp = x;
+                x = y;
+                y = tmp;
+            }
+        }
+        return d;
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.rasterreader;
+
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+
+import javax.media.jai.ImageLayout;
+import javax.media.jai.PlanarImage;
+
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+
+/**
+ * A double image whose tiles are read from the source only when requested, 
+ * through a {@link RasterTileCache}.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+class LazyTileImage extends PlanarImage {
+
+    /**
+     * The tile size used when the source tiles are too large.
+     */
+    static final int DEFAULT_TILE_SIZE = 256;
+
+    /**
+     * Reads a region of the source.
+     */
+    static interface TileReader {
+        /**
+         * @param bounds the region to read, in image coordinates.
+         * @return the raster of the region, placed at the bounds origin.
+         * @throws Exception
+         */
+        public Raster read( Rectangle bounds ) throws Exception;
+    }
+
+    /**
+     * Converts the values of a read tile, for example the novalues.
+     */
+    static interface TileFilter {
+        public void filter( WritableRaster tile );
+    }
+
+    private final RasterTileCache cache;
+    private final TileReader reader;
+    private final TileFilter filter;
+
+    LazyTileImage( int cols, int rows, int tileCols, int tileRows, RasterTileCache cache, TileReader reader,
+            TileFilter filter ) {
+        super(createLayout(cols, rows, tileCols, tileRows), null, null);
+        this.cache = cache;
+        this.reader = reader;
+        this.filter = filter;
+    }
+
+    private static ImageLayout createLayout( int cols, int rows, int tileCols, int tileRows ) {
+        SampleModel sampleModel = CoverageUtilities.createWritableRaster(tileCols, tileRows, null, null, null).getSampleModel();
+        ColorModel colorModel = PlanarImage.createColorModel(sampleModel);
+        return new ImageLayout(0, 0, cols, rows, 0, 0, tileCols, tileRows, sampleModel, colorModel);
+    }
+
+    /**
+     * Get the tile size to use for a source image.
+     * 
+     * <p>The tiles of the source are used if they are not too large (as the 
+     * strips of untiled tiffs are), so that a tile of this image decodes one 
+     * tile of the source.</p>
+     * 
+     * @param source the source image.
+     * @return the tile cols and rows.
+     */
+    static int[] getTileSize( RenderedImage source ) {
+        int tileWidth = source.getTileWidth();
+        int tileHeight = source.getTileHeight();
+        if (tileWidth > 4 * DEFAULT_TILE_SIZE || tileHeight > 4 * DEFAULT_TILE_SIZE
+                || (long) tileWidth * tileHeight > 16L * DEFAULT_TILE_SIZE * DEFAULT_TILE_SIZE) {
+            return new int[]{Math.min(DEFAULT_TILE_SIZE, source.getWidth()), Math.min(DEFAULT_TILE_SIZE, source.getHeight())};
+        }
+        return new int[]{tileWidth, tileHeight};
+    }
+
+    RasterTileCache getTileCache() {
+        return cache;
+    }
+
+    @Override
+    public Raster getTile( int tileX, int tileY ) {
+        if (tileX < 0 || tileY < 0 || tileX >= getNumXTiles() || tileY >= getNumYTiles()) {
+            return null;
+        }
+        try {
+            return cache.get(tileX, tileY, this::loadTile);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Raster loadTile( int tileX, int tileY ) throws Exception {
+        int x = tileXToX(tileX);
+        int y = tileYToY(tileY);
+        Rectangle bounds = new Rectangle(x, y, getTileWidth(), getTileHeight()).intersection(getBounds());
+
+        WritableRaster tile = CoverageUtilities.createWritableRaster(getTileWidth(), getTileHeight(), null, null,
+                HMConstants.doubleNovalue).createWritableTranslatedChild(x, y);
+        tile.setRect(reader.read(bounds));
+        if (filter != null) {
+            filter.filter(tile);
+        }
+        return tile;
+    }
+
+}
@@ -20,6 +20,7 @@ package org.hortonmachine.gears.io.rasterreader;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_AUTHORCONTACTS;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_AUTHORNAMES;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_DESCRIPTION;
+import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_DO_LAZY_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_DO_LEGACY_GRASS_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_FILE_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_FILE_NOVALUE_DESCRIPTION;
@@ -34,6 +35,7 @@ import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_P_EAST_
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_P_NORTH_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_P_ROWS_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_P_SOUTH_DESCRIPTION;
+import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_P_TILE_CACHE_SIZE_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_P_WEST_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_P_X_RES_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_P_Y_RES_DESCRIPTION;
@@ -63,7 +65,9 @@ import static org.hortonmachine.gears.utils.coverage.CoverageUtilities.getRegion
 import static org.hortonmachine.gears.utils.coverage.CoverageUtilities.gridGeometryFromRegionParams;
 import static org.hortonmachine.gears.utils.coverage.CoverageUtilities.makeRegionParamsMap;
 
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
 import java.io.File;
@@ -186,6 +190,14 @@ public class OmsRasterReader extends HMModel {
     @In
     public Boolean doLegacyGrass = false;
 
+    @Description(OMSRASTERREADER_DO_LAZY_DESCRIPTION)
+    @In
+    public boolean doLazy = false;
+
+    @Description(OMSRASTERREADER_P_TILE_CACHE_SIZE_DESCRIPTION)
+    @In
+    public int pTileCacheSize = 64;
+
     @Description(OMSRASTERREADER_OUT_RASTER_DESCRIPTION)
     @Out
     public GridCoverage2D outRaster = null;
@@ -200,6 +212,11 @@ public class OmsRasterReader extends HMModel {
      */
     public GeneralEnvelope originalEnvelope;
 
+    /**
+     * The tile cache of the output raster, if read lazily (see {@link #doLazy}).
+     */
+    public RasterTileCache tileCache;
+
     private GeneralParameterValue[] generalParameter = null;
 
     private double[] pBounds;
@@ -315,6 +332,11 @@ public class OmsRasterReader extends HMModel {
         }
 
         if (!doEnvelope) {
+            if (doLazy && !doLegacyGrassAutoBoxed) {
+                // tiles are read one by one, so also large maps are fine
+                readGrassLazy(mapEnvironment, readRegion, crs);
+                return;
+            }
             int r = readRegion.getRows();
             int c = readRegion.getCols();
             if (!HMConstants.doesOverFlow(r, c) && !doLegacyGrassAutoBoxed) {
@@ -337,6 +359,69 @@ public class OmsRasterReader extends HMModel {
         }
     }
 
+    /**
+     * Reads the GRASS raster tile by tile, every tile being a region read of the map.
+     * 
+     * <p>All the tiles are read through the same reader, one at a time.</p>
+     */
+    private void readGrassLazy( JGrassMapEnvironment mapEnvironment, JGrassRegion readRegion, CoordinateReferenceSystem crs ) {
+        int cols = readRegion.getCols();
+        int rows = readRegion.getRows();
+        double north = readRegion.getNorth();
+        double west = readRegion.getWest();
+        double xres = readRegion.getWEResolution();
+        double yres = readRegion.getNSResolution();
+        int tileSize = LazyTileImage.DEFAULT_TILE_SIZE;
+        GrassCoverageFormat format = new GrassCoverageFormatFactory().createFormat();
+        GrassCoverageReader reader = format.getReader(mapEnvironment.getCELL());
+        tileCache = new RasterTileCache(pTileCacheSize);
+        LazyTileImage image = new LazyTileImage(cols, rows, Math.min(tileSize, cols), Math.min(tileSize, rows), tileCache,
+                bounds -> {
+                    double tileNorth = north - bounds.y * yres;
+                    double tileSouth = tileNorth - bounds.height * yres;
+                    double tileWest = west + bounds.x * xres;
+                    double tileEast = tileWest + bounds.width * xres;
+                    GeneralParameterValue[] tileParameter = createGridGeometryGeneralParameter(bounds.width, bounds.height,
+                            tileNorth, tileSouth, tileEast, tileWest, crs);
+                    Raster data;
+                    synchronized (reader) {
+                        GridCoverage2D tileCoverage = (GridCoverage2D) reader.read(tileParameter);
+                        RenderedImage tileImage = tileCoverage.getRenderedImage();
+                        data = tileImage.getData(new Rectangle(tileImage.getMinX(), tileImage.getMinY(), bounds.width,
+                                bounds.height));
+                    }
+                    return data.createChild(data.getMinX(), data.getMinY(), bounds.width, bounds.height, bounds.x, bounds.y,
+                            new int[]{0});
+                }, getNovalueFilter());
+
+        HashMap<String, Double> params = makeRegionParamsMap(north, readRegion.getSouth(), west, readRegion.getEast(), xres,
+                yres, cols, rows);
+        outRaster = buildCoverage(new File(file).getName(), image, params, crs);
+    }
+
+    /**
+     * Wraps the read raster in a coverage that reads the tiles only when they are requested.
+     * 
+     * <p>The readers create deferred images, so a tile of the source is decoded only 
+     * when a tile that intersects it is requested.</p>
+     */
+    private void makeLazy() {
+        RenderedImage source = outRaster.getRenderedImage();
+        HashMap<String, Double> params = getRegionParamsFromGridCoverage(outRaster);
+        int cols = params.get(COLS).intValue();
+        int rows = params.get(ROWS).intValue();
+        int[] tileSize = LazyTileImage.getTileSize(source);
+        int minX = source.getMinX();
+        int minY = source.getMinY();
+        tileCache = new RasterTileCache(pTileCacheSize);
+        LazyTileImage image = new LazyTileImage(cols, rows, tileSize[0], tileSize[1], tileCache, bounds -> {
+            Raster data = source.getData(new Rectangle(bounds.x + minX, bounds.y + minY, bounds.width, bounds.height));
+            return data.createChild(bounds.x + minX, bounds.y + minY, bounds.width, bounds.height, bounds.x, bounds.y,
+                    new int[]{0});
+        }, getNovalueFilter());
+        outRaster = buildCoverage(new File(file).getName(), image, params, outRaster.getCoordinateReferenceSystem());
+    }
+
     private void readAig( File mapFile ) throws IllegalArgumentException, IOException {
         final ImageLayout l = new ImageLayout();
         l.setTileGridXOffset(0).setTileGridYOffset(0).setTileHeight(512).setTileWidth(512);
@@ -352,7 +437,11 @@ public class OmsRasterReader extends HMModel {
             outRaster = (GridCoverage2D) reader.read(generalParameter);
 
             resample();
-            checkNovalues();
+            if (doLazy) {
+                makeLazy();
+            } else {
+                checkNovalues();
+            }
         }
     }
 
@@ -370,7 +459,11 @@ public class OmsRasterReader extends HMModel {
             outRaster = geoTiffReader.read(generalParameter);
 
             resample();
-            checkNovalues();
+            if (doLazy) {
+                makeLazy();
+            } else {
+                checkNovalues();
+            }
         }
     }
 
@@ -381,7 +474,11 @@ public class OmsRasterReader extends HMModel {
             outRaster = arcGridReader.read(generalParameter);
 
             resample();
-            checkNovalues();
+            if (doLazy) {
+                makeLazy();
+            } else {
+                checkNovalues();
+            }
         }
     }
 
@@ -449,36 +546,62 @@ public class OmsRasterReader extends HMModel {
 
     private void checkNovalues() {
         // TODO make this nice, this can't be the way
-        if (fileNovalue == null || geodataNovalue == null) {
+        if (!needsNovalueConversion()) {
             return;
         }
+        HashMap<String, Double> params = getRegionParamsFromGridCoverage(outRaster);
+        int height = params.get(ROWS).intValue();
+        int width = params.get(COLS).intValue();
+        WritableRaster tmpWR = createWritableRaster(width, height, null, null, null);
+        WritableRandomIter tmpIter = RandomIterFactory.createWritable(tmpWR, null);
+        RenderedImage readRI = outRaster.getRenderedImage();
+        RandomIter readIter = RandomIterFactory.create(readRI, null);
+        int minX = readRI.getMinX();
+        int minY = readRI.getMinY();
+        for( int r = 0; r < height; r++ ) {
+            for( int c = 0; c < width; c++ ) {
+                double value = readIter.getSampleDouble(c + minX, r + minY, 0);
+                tmpIter.setSample(c, r, 0, toGeodataValue(value));
+            }
+        }
+        readIter.done();
+        tmpIter.done();
+        outRaster = buildCoverage(new File(file).getName(), tmpWR, params, outRaster.getCoordinateReferenceSystem());
+    }
+
+    private boolean needsNovalueConversion() {
+        if (fileNovalue == null || geodataNovalue == null) {
+            return false;
+        }
         if (isNovalue(internalFileNovalue) && isNovalue(internalGeodataNovalue)) {
-            return;
+            return false;
         }
-        if (!NumericsUtilities.dEq(internalFileNovalue, internalGeodataNovalue)) {
-            HashMap<String, Double> params = getRegionParamsFromGridCoverage(outRaster);
-            int height = params.get(ROWS).intValue();
-            int width = params.get(COLS).intValue();
-            WritableRaster tmpWR = createWritableRaster(width, height, null, null, null);
-            WritableRandomIter tmpIter = RandomIterFactory.createWritable(tmpWR, null);
-            RenderedImage readRI = outRaster.getRenderedImage();
-            RandomIter readIter = RandomIterFactory.create(readRI, null);
-            int minX = readRI.getMinX();
-            int minY = readRI.getMinY();
-            for( int r = 0; r < height; r++ ) {
-                for( int c = 0; c < width; c++ ) {
-                    double value = readIter.getSampleDouble(c + minX, r + minY, 0);
-                    if (isNovalue(value) || value == internalFileNovalue || value == -Float.MAX_VALUE || value == Float.MAX_VALUE) {
-                        tmpIter.setSample(c, r, 0, internalGeodataNovalue);
-                    } else {
-                        tmpIter.setSample(c, r, 0, value);
-                    }
+        return !NumericsUtilities.dEq(internalFileNovalue, internalGeodataNovalue);
+    }
+
+    private double toGeodataValue( double value ) {
+        if (isNovalue(value) || value == internalFileNovalue || value == -Float.MAX_VALUE || value == Float.MAX_VALUE) {
+            return internalGeodataNovalue;
+        }
+        return value;
+    }
+
+    /**
+     * @return the filter that converts the novalues of the lazily read tiles or <code>null</code>.
+     */
+    private LazyTileImage.TileFilter getNovalueFilter() {
+        if (!needsNovalueConversion()) {
+            return null;
+        }
+        return tile -> {
+            int minX = tile.getMinX();
+            int minY = tile.getMinY();
+            for( int r = minY; r < minY + tile.getHeight(); r++ ) {
+                for( int c = minX; c < minX + tile.getWidth(); c++ ) {
+                    tile.setSample(c, r, 0, toGeodataValue(tile.getSampleDouble(c, r, 0)));
                 }
             }
-            readIter.done();
-            tmpIter.done();
-            outRaster = buildCoverage(new File(file).getName(), tmpWR, params, outRaster.getCoordinateReferenceSystem());
-        }
+        };
     }
 
     private boolean hasBoundsRequest() {
@@ -507,4 +630,35 @@ public class OmsRasterReader extends HMModel {
         GridCoverage2D geodata = reader.outRaster;
         return geodata;
     }
+
+    /**
+     * Utility method to read a grid lazily, i.e. reading the tiles only when they are used.
+     * 
+     * @param path the path to the file.
+     * @param cacheSize the maximum number of tiles to keep in memory.
+     * @return the read coverage.
+     * @throws Exception
+     */
+    public static GridCoverage2D readRasterLazy( String path, int cacheSize ) throws Exception {
+        OmsRasterReader reader = new OmsRasterReader();
+        reader.file = path;
+        reader.doLazy = true;
+        reader.pTileCacheSize = cacheSize;
+        reader.process();
+        return reader.outRaster;
+    }
+
+    /**
+     * Get the tile cache of a coverage read lazily, to check its hits and misses.
+     * 
+     * @param coverage the coverage.
+     * @return the cache or <code>null</code>, if the coverage was not read lazily.
+     */
+    public static RasterTileCache getTileCache( GridCoverage2D coverage ) {
+        RenderedImage image = coverage.getRenderedImage();
+        if (image instanceof LazyTileImage) {
+            return ((LazyTileImage) image).getTileCache();
+        }
+        return null;
+    }
 }
@@ -0,0 +1,169 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.rasterreader;
+
+import java.awt.image.Raster;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded least recently used cache of raster tiles.
+ * 
+ * <p>The cache counts hits, misses and evictions, so that it is possible to check 
+ * how many tiles a workload really touched.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class RasterTileCache {
+
+    /**
+     * Loads a tile that is not in the cache.
+     */
+    public static interface TileLoader {
+        public Raster load( int tileX, int tileY ) throws Exception;
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<Long, Raster> tiles;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param capacity the maximum number of tiles kept in memory.
+     */
+    public RasterTileCache( int capacity ) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The tile cache needs to hold at least one tile.");
+        }
+        this.capacity = capacity;
+        tiles = new LinkedHashMap<Long, Raster>(16, 0.75f, true){
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<Long, Raster> eldest ) {
+                if (size() > RasterTileCache.this.capacity) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get a tile, loading it if it is not cached.
+     * 
+     * <p>The loading happens outside of the lock, so that different tiles can be loaded 
+     * in parallel. If two threads miss the same tile, it is loaded twice and the first 
+     * one is kept.</p>
+     * 
+     * @param tileX the tile column.
+     * @param tileY the tile row.
+     * @param loader the loader to use on a miss.
+     * @return the tile.
+     * @throws Exception
+     */
+    public Raster get( int tileX, int tileY, TileLoader loader ) throws Exception {
+        Long key = ((long) tileY << 32) | (tileX & 0xFFFFFFFFL);
+        synchronized (tiles) {
+            Raster tile = tiles.get(key);
+            if (tile != null) {
+                hits.incrementAndGet();
+                return tile;
+            }
+        }
+        misses.incrementAndGet();
+        Raster tile = loader.load(tileX, tileY);
+        synchronized (tiles) {
+            Raster existing = tiles.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            tiles.put(key, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Remove all the tiles, the counters are kept.
+     */
+    public void clear() {
+        synchronized (tiles) {
+            tiles.clear();
+        }
+    }
+
+    /**
+     * Reset the counters.
+     */
+    public void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of tiles currently in the cache.
+     */
+    public int getSize() {
+        synchronized (tiles) {
+            return tiles.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of misses, i.e. the tiles read from the source.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the ratio of hits over all the requests or <code>NaN</code> if there were no requests.
+     */
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        if (total == 0) {
+            return Double.NaN;
+        }
+        return (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return "RasterTileCache [capacity=" + capacity + ", size=" + getSize() + ", hits=" + getHits() + ", misses="
+                + getMisses() + ", evictions=" + getEvictions() + "]";
+    }
+
+}
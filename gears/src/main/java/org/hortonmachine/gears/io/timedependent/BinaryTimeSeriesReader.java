@@ -0,0 +1,272 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.timedependent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+/**
+ * Reader for the binary time series.
+ * 
+ * <p>The blocks are memory mapped, so that rows and columns can be read
+ * from several threads at the same time. No value is parsed and the 
+ * read methods fill buffers supplied by the caller.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @see IBinaryTimeSeries
+ */
+public class BinaryTimeSeriesReader implements IBinaryTimeSeries, AutoCloseable {
+
+    private final String path;
+
+    private RandomAccessFile raf = null;
+
+    private int columnsCount;
+    private int blockRows;
+    private int rowsCount;
+
+    private int[] columnIds;
+    private long[] timestamps;
+    private DoubleBuffer[] blocks;
+
+    /**
+     * Constructor.
+     * 
+     * @param path the path from which to read.
+     */
+    public BinaryTimeSeriesReader( String path ) {
+        this.path = path;
+    }
+
+    /**
+     * Checks if a file is a binary time series, based on its extension.
+     * 
+     * @param path the path to check.
+     * @return <code>true</code> if the file has the binary time series extension.
+     */
+    public static boolean isBinaryTimeSeries( String path ) {
+        return path != null && path.toLowerCase().endsWith("." + EXTENSION);
+    }
+
+    /**
+     * Opens the file, reads the index and maps the blocks into memory.
+     * 
+     * @throws IOException
+     */
+    public synchronized void open() throws IOException {
+        if (raf != null) {
+            return;
+        }
+        raf = new RandomAccessFile(new File(path), "r");
+
+        StringBuilder signature = new StringBuilder();
+        for( int i = 0; i < SIGNATURE.length(); i++ ) {
+            signature.append(raf.readChar());
+        }
+        if (!signature.toString().equals(SIGNATURE)) {
+            close();
+            throw new IOException("The file is not a binary time series: " + path);
+        }
+        int version = raf.readInt();
+        if (version != VERSION) {
+            close();
+            throw new IOException("Unsupported binary time series version " + version + ": " + path);
+        }
+        columnsCount = raf.readInt();
+        blockRows = raf.readInt();
+        rowsCount = raf.readInt();
+        long indexAddress = raf.readLong();
+        if ((long) columnsCount * blockRows * 8 > Integer.MAX_VALUE) {
+            close();
+            throw new IOException("The blocks of the binary time series are too large to be mapped: " + path);
+        }
+
+        FileChannel channel = raf.getChannel();
+        ByteBuffer indexBuffer = channel.map(MapMode.READ_ONLY, indexAddress, columnsCount * 4L + rowsCount * 8L);
+        columnIds = new int[columnsCount];
+        indexBuffer.asIntBuffer().get(columnIds);
+        indexBuffer.position(columnsCount * 4);
+        LongBuffer timestampsBuffer = indexBuffer.slice().asLongBuffer();
+        timestamps = new long[rowsCount];
+        timestampsBuffer.get(timestamps);
+
+        int blocksCount = (rowsCount + blockRows - 1) / blockRows;
+        blocks = new DoubleBuffer[blocksCount];
+        long blockPosition = DATA_POSITION;
+        for( int b = 0; b < blocksCount; b++ ) {
+            long blockSize = (long) columnsCount * getRowsInBlock(b) * 8;
+            blocks[b] = channel.map(MapMode.READ_ONLY, blockPosition, blockSize).asDoubleBuffer();
+            blockPosition += blockSize;
+        }
+    }
+
+    private int getRowsInBlock( int block ) {
+        return Math.min(blockRows, rowsCount - block * blockRows);
+    }
+
+    /**
+     * @return the number of value columns.
+     */
+    public int getColumnsCount() {
+        return columnsCount;
+    }
+
+    /**
+     * @return the number of rows.
+     */
+    public int getRowsCount() {
+        return rowsCount;
+    }
+
+    /**
+     * @return the id of every column, consecutive columns with the same id belong to the same station.
+     */
+    public int[] getColumnIds() {
+        return columnIds.clone();
+    }
+
+    /**
+     * Get the first column of a station.
+     * 
+     * @param id the id of the station.
+     * @return the index of the first column with the id or <code>-1</code>.
+     */
+    public int getColumnIndex( int id ) {
+        for( int c = 0; c < columnsCount; c++ ) {
+            if (columnIds[c] == id) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param row the row.
+     * @return the utc milliseconds of the row.
+     */
+    public long getTimestamp( int row ) {
+        return timestamps[row];
+    }
+
+    /**
+     * Searches the row of a timestamp.
+     * 
+     * @param timestamp the utc milliseconds to look for.
+     * @return the row of the timestamp, if it exists, else <code>(-(insertion point) - 1)</code>
+     *          as for {@link Arrays#binarySearch(long[], long)}.
+     */
+    public int findRow( long timestamp ) {
+        return findRow(timestamp, 0);
+    }
+
+    /**
+     * Searches the row of a timestamp, starting from a given row.
+     * 
+     * @param timestamp the utc milliseconds to look for.
+     * @param fromRow the first row to consider.
+     * @return the row of the timestamp, if it exists, else <code>(-(insertion point) - 1)</code>
+     *          as for {@link Arrays#binarySearch(long[], long)}.
+     */
+    public int findRow( long timestamp, int fromRow ) {
+        if (fromRow < rowsCount && timestamps[fromRow] == timestamp) {
+            return fromRow;
+        }
+        return Arrays.binarySearch(timestamps, Math.min(fromRow, rowsCount), rowsCount, timestamp);
+    }
+
+    /**
+     * Reads a value.
+     * 
+     * @param row the row.
+     * @param column the column.
+     * @return the value.
+     */
+    public double readValue( int row, int column ) {
+        int block = row / blockRows;
+        int rowInBlock = row - block * blockRows;
+        return blocks[block].get(column * getRowsInBlock(block) + rowInBlock);
+    }
+
+    /**
+     * Reads a row of values.
+     * 
+     * @param row the row to read.
+     * @param buffer the buffer to fill, of size {@link #getColumnsCount()}.
+     * @return the filled buffer.
+     */
+    public double[] readRow( int row, double[] buffer ) {
+        int block = row / blockRows;
+        int rowsInBlock = getRowsInBlock(block);
+        DoubleBuffer values = blocks[block];
+        for( int c = 0, index = row - block * blockRows; c < columnsCount; c++, index += rowsInBlock ) {
+            buffer[c] = values.get(index);
+        }
+        return buffer;
+    }
+
+    /**
+     * Reads the values of a column in a range of rows.
+     * 
+     * @param column the column to read.
+     * @param fromRow the first row, inclusive.
+     * @param toRow the last row, exclusive.
+     * @param buffer the buffer to fill, if <code>null</code> or too small a new one is created.
+     * @return the buffer, with the values starting at index 0.
+     */
+    public double[] readColumn( int column, int fromRow, int toRow, double[] buffer ) {
+        int count = toRow - fromRow;
+        if (buffer == null || buffer.length < count) {
+            buffer = new double[count];
+        }
+        int row = fromRow;
+        int offset = 0;
+        while( row < toRow ) {
+            int block = row / blockRows;
+            int rowInBlock = row - block * blockRows;
+            int rowsInBlock = getRowsInBlock(block);
+            int length = Math.min(rowsInBlock - rowInBlock, toRow - row);
+            // the duplicate has its own position, so that concurrent reads don't interfere
+            DoubleBuffer values = blocks[block].duplicate();
+            values.position(column * rowsInBlock + rowInBlock);
+            values.get(buffer, offset, length);
+            offset += length;
+            row += length;
+        }
+        return buffer;
+    }
+
+    /**
+     * Closes the filehandle.
+     * 
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+        blocks = null;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.timedependent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import oms3.io.CSTable;
+import oms3.io.DataIO;
+import oms3.io.TableIterator;
+
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * Writer for the binary time series.
+ * 
+ * <p>The rows are collected in a block, which is written column by column
+ * once it is full. Only the current block and the timestamps are kept in memory.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @see IBinaryTimeSeries
+ */
+public class BinaryTimeSeriesWriter implements IBinaryTimeSeries, AutoCloseable {
+
+    private final String path;
+    private final int[] columnIds;
+    private final int blockRows;
+
+    private RandomAccessFile raf;
+    private FileChannel channel;
+
+    /**
+     * The current block, with a stride of {@link #blockRows} between the columns.
+     */
+    private final double[] block;
+    private int rowsInBlock = 0;
+    private ByteBuffer blockBuffer;
+
+    private long[] timestamps = new long[1024];
+    private int rowsCount = 0;
+
+    /**
+     * Constructor.
+     * 
+     * @param path the path to which the time series will be written.
+     * @param columnIds the id of every column. Consecutive columns with the same 
+     *          id are the values of the same station.
+     * @throws IOException
+     */
+    public BinaryTimeSeriesWriter( String path, int[] columnIds ) throws IOException {
+        this(path, columnIds, DEFAULT_BLOCK_ROWS);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param path the path to which the time series will be written.
+     * @param columnIds the id of every column. Consecutive columns with the same 
+     *          id are the values of the same station.
+     * @param blockRows the number of rows in a block.
+     * @throws IOException
+     */
+    public BinaryTimeSeriesWriter( String path, int[] columnIds, int blockRows ) throws IOException {
+        if (columnIds.length == 0) {
+            throw new IllegalArgumentException("The time series needs at least one column.");
+        }
+        if (blockRows < 1) {
+            throw new IllegalArgumentException("The number of rows in a block needs to be positive.");
+        }
+        this.path = path;
+        this.columnIds = columnIds.clone();
+        this.blockRows = blockRows;
+        block = new double[columnIds.length * blockRows];
+        blockBuffer = ByteBuffer.allocate(block.length * 8);
+
+        raf = new RandomAccessFile(new File(path), "rw");
+        raf.setLength(0);
+        raf.writeChars(SIGNATURE);
+        raf.writeInt(VERSION);
+        raf.writeInt(columnIds.length);
+        raf.writeInt(blockRows);
+        // rows count and index address are written on close
+        raf.writeInt(0);
+        raf.writeLong(0);
+        channel = raf.getChannel();
+    }
+
+    /**
+     * @return the number of rows written so far.
+     */
+    public int getRowsCount() {
+        return rowsCount;
+    }
+
+    /**
+     * Adds a row to the time series.
+     * 
+     * @param timestamp the utc milliseconds of the row, which need to be
+     *          greater than the one of the previous row.
+     * @param values the values of the row, one per column. Novalues have 
+     *          to be {@link HMConstants#doubleNovalue}.
+     * @throws IOException
+     */
+    public void writeRow( long timestamp, double[] values ) throws IOException {
+        if (raf == null) {
+            throw new IOException("The time series has already been closed: " + path);
+        }
+        if (values.length != columnIds.length) {
+            throw new IllegalArgumentException(
+                    "The row has " + values.length + " values, while the time series has " + columnIds.length + " columns.");
+        }
+        if (rowsCount > 0 && timestamp <= timestamps[rowsCount - 1]) {
+            throw new IOException("The timestamps need to be increasing (row " + rowsCount + "): " + path);
+        }
+        if (rowsCount == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, timestamps.length * 2);
+        }
+        timestamps[rowsCount++] = timestamp;
+
+        for( int c = 0; c < values.length; c++ ) {
+            block[c * blockRows + rowsInBlock] = values[c];
+        }
+        rowsInBlock++;
+        if (rowsInBlock == blockRows) {
+            flushBlock();
+        }
+    }
+
+    /**
+     * Writes the current block, the columns one after the other.
+     */
+    private void flushBlock() throws IOException {
+        if (rowsInBlock == 0) {
+            return;
+        }
+        blockBuffer.clear();
+        DoubleBuffer doubleBuffer = blockBuffer.asDoubleBuffer();
+        for( int c = 0; c < columnIds.length; c++ ) {
+            doubleBuffer.put(block, c * blockRows, rowsInBlock);
+        }
+        blockBuffer.limit(doubleBuffer.position() * 8);
+        writeFully(blockBuffer);
+        rowsInBlock = 0;
+    }
+
+    private void writeFully( ByteBuffer buffer ) throws IOException {
+        while( buffer.hasRemaining() ) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Writes the last block and the index and closes the file.
+     * 
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        if (raf == null) {
+            return;
+        }
+        try {
+            flushBlock();
+            long indexAddress = channel.position();
+
+            ByteBuffer indexBuffer = ByteBuffer.allocate(columnIds.length * 4 + rowsCount * 8);
+            for( int columnId : columnIds ) {
+                indexBuffer.putInt(columnId);
+            }
+            for( int i = 0; i < rowsCount; i++ ) {
+                indexBuffer.putLong(timestamps[i]);
+            }
+            indexBuffer.flip();
+            writeFully(indexBuffer);
+
+            raf.seek(INDEX_ADDRESS_POSITION - 4);
+            raf.writeInt(rowsCount);
+            raf.writeLong(indexAddress);
+        } finally {
+            raf.close();
+            raf = null;
+            channel = null;
+        }
+    }
+
+    /**
+     * Converts an OMS csv time series table, as read by the {@link OmsTimeSeriesIteratorReader}, 
+     * to the binary format.
+     * 
+     * @param csvPath the path of the csv table.
+     * @param idfield the id metadata field of the columns.
+     * @param fileNovalue the novalue used in the csv table.
+     * @param binaryPath the path of the binary time series to create.
+     * @return the number of converted rows.
+     * @throws IOException
+     */
+    public static int csv2Binary( String csvPath, String idfield, String fileNovalue, String binaryPath ) throws IOException {
+        DateTimeFormatter formatter = HMConstants.utcDateFormatterYYYYMMDDHHMM;
+        CSTable table = DataIO.table(new File(csvPath), null);
+        int columnCount = table.getColumnCount();
+        int[] columnIds = new int[columnCount - 1];
+        for( int i = 2; i <= columnCount; i++ ) {
+            String id = table.getColumnInfo(i).get(idfield);
+            try {
+                columnIds[i - 2] = Integer.parseInt(id.trim());
+            } catch (Exception e) {
+                throw new IOException("The id value doesn't seem to be an integer: " + id);
+            }
+        }
+
+        double[] values = new double[columnIds.length];
+        TableIterator<String[]> rowsIterator = (TableIterator<String[]>) table.rows().iterator();
+        try (BinaryTimeSeriesWriter writer = new BinaryTimeSeriesWriter(binaryPath, columnIds)) {
+            while( rowsIterator.hasNext() ) {
+                String[] row = rowsIterator.next();
+                long timestamp = formatter.parseMillis(row[1].trim());
+                for( int c = 0; c < values.length; c++ ) {
+                    int col = c + 2;
+                    String valueStr = col < row.length && row[col] != null ? row[col].trim() : "";
+                    if (valueStr.length() == 0 || valueStr.equals(fileNovalue)) {
+                        values[c] = HMConstants.doubleNovalue;
+                    } else {
+                        values[c] = Double.parseDouble(valueStr);
+                    }
+                }
+                writer.writeRow(timestamp, values);
+            }
+            return writer.getRowsCount();
+        } finally {
+            rowsIterator.close();
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.io.timedependent;
+
+/**
+ * Interface for the binary time series I/O.
+ * 
+ * <p>
+ * The binary time series file is a columnar version of the OMS csv tables
+ * read by the {@link OmsTimeSeriesIteratorReader}. It is defined as follows:
+ * 
+ * <ul>
+ *  <li>6 bytes containing the chars 'hts'</li>
+ *  <li>4 bytes for the format version (1)</li>
+ *  <li>4 bytes for the number of value columns</li>
+ *  <li>4 bytes for the number of rows in a block</li>
+ *  <li>4 bytes for the number of rows</li>
+ *  <li>8 bytes containing the address at which the index is stored</li>
+ *  <li>then the values are stored in blocks of rows. Inside a block the values
+ *      of every column are contiguous, so a block holds 
+ *      <code>columns * rowsInBlock</code> doubles. Only the last block can 
+ *      have less rows than the others.</li>
+ *  <li>after the blocks the index is stored: one int id per column, followed
+ *      by one long per row, containing the row timestamp in utc milliseconds</li>
+ * </ul>
+ * 
+ * <p>As in the csv tables, consecutive columns with the same id belong to the same
+ * station. Novalues are stored as {@link org.hortonmachine.gears.libs.modules.HMConstants#doubleNovalue}.</p>
+ * 
+ * <p>Since the block size is fixed, the position of a value is calculated from the
+ * row and the column, while the row of a timestamp is found through a binary
+ * search on the timestamps of the index.</p>
+ * 
+ * <p>Example write usage:
+ * 
+ * <pre>
+ * try (BinaryTimeSeriesWriter writer = new BinaryTimeSeriesWriter("/home/moovida/TMP/rain.hts", new int[]{1, 2, 2})) {
+ *     writer.writeRow(timestamp, new double[]{1.0, 2.0, 2.5});
+ * }
+ * </pre>
+ * </p>
+ *
+ * <p>Example read usage:
+ * <pre>
+ * try (BinaryTimeSeriesReader reader = new BinaryTimeSeriesReader("/home/moovida/TMP/rain.hts")) {
+ *     reader.open();
+ *     double[] values = new double[reader.getColumnsCount()];
+ *     int row = reader.findRow(timestamp);
+ *     reader.readRow(row, values);
+ * }
+ * </pre>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public interface IBinaryTimeSeries {
+    /**
+     * The chars at the start of the file.
+     */
+    String SIGNATURE = "hts";
+
+    /**
+     * The current format version.
+     */
+    int VERSION = 1;
+
+    /**
+     * The extension of binary time series files.
+     */
+    String EXTENSION = "hts";
+
+    /**
+     * The default number of rows in a block.
+     */
+    int DEFAULT_BLOCK_ROWS = 4096;
+
+    /**
+     * Position of the index address.
+     */
+    long INDEX_ADDRESS_POSITION = 22;
+
+    /**
+     * Byte size of the index address.
+     */
+    long INDEX_ADDRESS_SIZE = 8;
+
+    /**
+     * Position of the first block.
+     */
+    long DATA_POSITION = INDEX_ADDRESS_POSITION + INDEX_ADDRESS_SIZE;
+}
@@ -20,6 +20,7 @@ package org.hortonmachine.gears.io.timedependent;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_AUTHORCONTACTS;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_AUTHORNAMES;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_DESCRIPTION;
+import static org.hortonmachine.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_DO_REUSE_DATA_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_FILE_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_FILE_NOVALUE_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSTIMESERIESITERATORREADER_ID_FIELD_DESCRIPTION;
@@ -42,6 +43,7 @@ import static org.hortonmachine.gears.libs.modules.HMConstants.doubleNovalue;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
@@ -125,6 +127,10 @@ public class OmsTimeSeriesIteratorReader extends HMModel {
     @Out
     public String tPrevious;
 
+    @Description(OMSTIMESERIESITERATORREADER_DO_REUSE_DATA_DESCRIPTION)
+    @In
+    public boolean doReuseData = false;
+
     @Description(OMSTIMESERIESITERATORREADER_OUT_DATA_DESCRIPTION)
     @Out
     public HashMap<Integer, double[]> outData;
@@ -133,6 +139,29 @@ public class OmsTimeSeriesIteratorReader extends HMModel {
 
     private CSTable table;
 
+    private BinaryTimeSeriesReader binaryReader;
+
+    /**
+     * The next row of the binary time series to read.
+     */
+    private int binaryRow = 0;
+
+    private double[] rowBuffer;
+
+    private double[] aggregationBuffer;
+
+    private boolean[] aggregationHasValue;
+
+    /**
+     * The ids of the stations, in the order of the columns.
+     */
+    private int[] stationIds;
+
+    /**
+     * The number of consecutive columns of every station.
+     */
+    private int[] stationCounts;
+
     private DateTimeFormatter formatter = HMConstants.utcDateFormatterYYYYMMDDHHMM;
 
     private DateTime expectedTimestamp = null;
@@ -144,6 +173,10 @@ public class OmsTimeSeriesIteratorReader extends HMModel {
 
     }
     private void ensureOpen() throws IOException {
+        if (BinaryTimeSeriesReader.isBinaryTimeSeries(file)) {
+            ensureBinaryOpen();
+            return;
+        }
         if (table == null) {
             table = DataIO.table(new File(file), null);
             rowsIterator = (TableIterator<String[]>) table.rows().iterator();
@@ -170,9 +203,78 @@ public class OmsTimeSeriesIteratorReader extends HMModel {
                 rowsIterator = (TableIterator<String[]>) table.rows().iterator();
             }
 
+            int columnCount = table.getColumnCount();
+            int[] columnIds = new int[columnCount - 1];
+            for( int i = 2; i <= columnCount; i++ ) {
+                String id = table.getColumnInfo(i).get(idfield);
+                try {
+                    columnIds[i - 2] = Integer.parseInt(id);
+                } catch (Exception e) {
+                    throw new ModelsIllegalargumentException("The id value doesn't seem to be an integer.", this.getClass()
+                            .getSimpleName(), pm);
+                }
+            }
+            createStations(columnIds);
         }
     }
 
+    private void ensureBinaryOpen() throws IOException {
+        if (binaryReader == null) {
+            binaryReader = new BinaryTimeSeriesReader(file);
+            binaryReader.open();
+            /*
+             * If tStart is null then all the values of the file are read, with the timestep of the first rows.
+             */
+            if (tStart == null && binaryReader.getRowsCount() > 0) {
+                tStart = formatter.print(binaryReader.getTimestamp(0));
+                if (binaryReader.getRowsCount() > 1) {
+                    tTimestep = (int) ((binaryReader.getTimestamp(1) - binaryReader.getTimestamp(0)) / 60000L);
+                }
+            }
+            int columnsCount = binaryReader.getColumnsCount();
+            rowBuffer = new double[columnsCount];
+            aggregationBuffer = new double[columnsCount];
+            aggregationHasValue = new boolean[columnsCount];
+            createStations(binaryReader.getColumnIds());
+        }
+    }
+
+    /**
+     * Groups the consecutive columns with the same id into stations.
+     */
+    private void createStations( int[] columnIds ) {
+        List<Integer> idList = new ArrayList<Integer>();
+        List<Integer> idCountList = new ArrayList<Integer>();
+        for( int i = 0; i < columnIds.length; i++ ) {
+            if (i > 0 && columnIds[i] == columnIds[i - 1]) {
+                int last = idCountList.size() - 1;
+                idCountList.set(last, idCountList.get(last) + 1);
+            } else {
+                idList.add(columnIds[i]);
+                idCountList.add(1);
+            }
+        }
+        stationIds = new int[idList.size()];
+        stationCounts = new int[idList.size()];
+        for( int i = 0; i < stationIds.length; i++ ) {
+            stationIds[i] = idList.get(i);
+            stationCounts[i] = idCountList.get(i);
+        }
+    }
+
+    /**
+     * Get the values array of a station, reusing the one of the previous timestep if requested.
+     */
+    private double[] getStationValues( int station ) {
+        Integer id = stationIds[station];
+        double[] values = outData.get(id);
+        if (values == null) {
+            values = new double[stationCounts[station]];
+            outData.put(id, values);
+        }
+        return values;
+    }
+
     @Execute
     public void nextRecord() throws IOException {
         ensureOpen();
@@ -186,52 +288,33 @@ public class OmsTimeSeriesIteratorReader extends HMModel {
             expectedTimestamp = expectedTimestamp.plusMinutes(tTimestep);
             tCurrent = expectedTimestamp.toString(formatter);
         }
-        outData = new HashMap<Integer, double[]>();
+        if (!doReuseData || outData == null) {
+            outData = new HashMap<Integer, double[]>();
+        }
 
-        int columnCount = table.getColumnCount();
-        List<Integer> idList = new ArrayList<Integer>();
-        List<Integer> idCountList = new ArrayList<Integer>();
-        int count = 0;
-        Integer previousIdInteger = null;
-        for( int i = 2; i <= columnCount; i++ ) {
-            String id = table.getColumnInfo(i).get(idfield);
-            try {
-                Integer idInteger = Integer.valueOf(id);
-                idList.add(idInteger);
-                if (previousIdInteger == null) {
-                    count++;
-                } else {
-                    if (idInteger.intValue() == previousIdInteger.intValue()) {
-                        count++;
-                    } else {
-                        idCountList.add(count);
-                        count = 1;
-                    }
-                }
-                if (i == columnCount) {
-                    idCountList.add(count);
-                }
-                previousIdInteger = idInteger;
-            } catch (Exception e) {
-                throw new ModelsIllegalargumentException("The id value doesn't seem to be an integer.", this.getClass()
-                        .getSimpleName(), pm);
-            }
+        if (binaryReader != null) {
+            nextBinaryRecord();
+        } else {
+            nextCsvRecord();
         }
 
+        // time ran out
+        if (tEnd != null && tCurrent.equals(tEnd)) {
+            doProcess = false;
+        }
+    }
+
+    private void nextCsvRecord() throws IOException {
+        String[] row = null;
         if (rowsIterator.hasNext()) {
-            String[] row = getExpectedRow(rowsIterator, expectedTimestamp);
-
-            int idCountIndex = 0;
-            for( int i = 2; i < row.length; i++ ) {
-                Integer id = idList.get(i - 2);
-                Integer idCount = idCountList.get(idCountIndex);
-                double[] values = outData.get(id);
-                if (values == null) {
-                    values = new double[idCount];
-                    outData.put(id, values);
-                }
-                for( int j = 0; j < idCount; j++, i++ ) {
-                    if (row[i] == null || row[i].length() == 0) {
+            row = getExpectedRow(rowsIterator, expectedTimestamp);
+        }
+        if (row != null) {
+            int i = 2;
+            for( int station = 0; station < stationIds.length; station++ ) {
+                double[] values = getStationValues(station);
+                for( int j = 0; j < values.length; j++, i++ ) {
+                    if (i >= row.length || row[i] == null || row[i].length() == 0) {
                         values[j] = novalue;
                     } else {
                         String valueStr = row[i].trim();
@@ -242,23 +325,82 @@ public class OmsTimeSeriesIteratorReader extends HMModel {
                         }
                     }
                 }
-                idCountIndex++;
-                i--;
             }
         } else {
             outData = null;
         }
 
-        // time ran out
-        if (tEnd != null && tCurrent.equals(tEnd)) {
+        // data ran out
+        if (!rowsIterator.hasNext()) {
             doProcess = false;
         }
+    }
+
+    private void nextBinaryRecord() throws IOException {
+        int rowsCount = binaryReader.getRowsCount();
+        int row = binaryReader.findRow(expectedTimestamp.getMillis(), binaryRow);
+        if (row < 0) {
+            int insertionRow = -row - 1;
+            if (insertionRow < rowsCount) {
+                String message = "The data are not aligned with the simulation interval ("
+                        + new DateTime(binaryReader.getTimestamp(insertionRow), expectedTimestamp.getZone()) + "/"
+                        + expectedTimestamp + "). Check your data file: " + file;
+                throw new IOException(message);
+            }
+            binaryRow = rowsCount;
+            outData = null;
+        } else {
+            double[] values;
+            if (pNum == 1) {
+                values = binaryReader.readRow(row, rowBuffer);
+                binaryRow = row + 1;
+            } else {
+                int rowNum = Math.min(pNum, rowsCount - row);
+                values = aggregateRows(row, rowNum);
+                binaryRow = row + rowNum;
+            }
+
+            int column = 0;
+            for( int station = 0; station < stationIds.length; station++ ) {
+                double[] stationValues = getStationValues(station);
+                for( int j = 0; j < stationValues.length; j++, column++ ) {
+                    double value = values[column];
+                    stationValues[j] = HMConstants.isNovalue(value) ? novalue : value;
+                }
+            }
+        }
+
         // data ran out
-        if (!rowsIterator.hasNext()) {
+        if (binaryRow >= rowsCount) {
             doProcess = false;
         }
     }
 
+    /**
+     * Aggregates the rows of the binary time series, as {@link #getExpectedRow(TableIterator, DateTime)} does.
+     */
+    private double[] aggregateRows( int fromRow, int rowNum ) {
+        Arrays.fill(aggregationBuffer, 0.0);
+        Arrays.fill(aggregationHasValue, false);
+        for( int r = fromRow; r < fromRow + rowNum; r++ ) {
+            binaryReader.readRow(r, rowBuffer);
+            for( int c = 0; c < rowBuffer.length; c++ ) {
+                if (!HMConstants.isNovalue(rowBuffer[c])) {
+                    aggregationBuffer[c] = aggregationBuffer[c] + rowBuffer[c];
+                    aggregationHasValue[c] = true;
+                }
+            }
+        }
+        for( int c = 0; c < aggregationBuffer.length; c++ ) {
+            if (!aggregationHasValue[c] || (pAggregation != 0 && pAggregation != 1)) {
+                aggregationBuffer[c] = doubleNovalue;
+            } else if (pAggregation == 1) {
+                aggregationBuffer[c] = aggregationBuffer[c] / pNum;
+            }
+        }
+        return aggregationBuffer;
+    }
+
     /**
      * Get the needed datarow from the table.
      * 
@@ -352,6 +494,11 @@ public class OmsTimeSeriesIteratorReader extends HMModel {
 
     @Finalize
     public void close() throws IOException {
-        rowsIterator.close();
+        if (rowsIterator != null) {
+            rowsIterator.close();
+        }
+        if (binaryReader != null) {
+            binaryReader.close();
+        }
     }
 }
@@ -36,6 +36,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map.Entry;
@@ -55,6 +56,7 @@ import oms3.annotations.UI;
 import oms3.io.DataIO;
 import oms3.io.MemoryTable;
 
+import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
 import org.joda.time.DateTime;
@@ -103,6 +105,16 @@ public class OmsTimeSeriesIteratorWriter extends HMModel {
 
     private boolean columnNamesAreSet = false;
 
+    private BinaryTimeSeriesWriter binaryWriter;
+
+    private int[] binaryStationIds;
+
+    private int[] sortedBinaryStationIds;
+
+    private int[] binaryStationLengths;
+
+    private double[] binaryRow;
+
     private void ensureOpen() throws IOException {
         if (memoryTable == null) {
             memoryTable = new MemoryTable();
@@ -119,6 +131,10 @@ public class OmsTimeSeriesIteratorWriter extends HMModel {
 
     @Execute
     public void writeNextLine() throws IOException {
+        if (BinaryTimeSeriesReader.isBinaryTimeSeries(file)) {
+            writeNextBinaryLine();
+            return;
+        }
         ensureOpen();
         List<Integer> idsList = new ArrayList<Integer>();
         List<String> columnNamesList = new ArrayList<String>();
@@ -224,8 +240,79 @@ public class OmsTimeSeriesIteratorWriter extends HMModel {
         }
     }
 
+    /**
+     * Writes the data to the binary time series, which needs the timestamps.
+     * 
+     * <p>The columns are defined by the data of the first timestep, the data of the following 
+     * timesteps need to have the same stations with the same number of values.</p>
+     */
+    private void writeNextBinaryLine() throws IOException {
+        if (binaryWriter == null) {
+            if (tStart == null || tTimestep == -1) {
+                throw new ModelsIllegalargumentException("The binary time series need the start date and the timestep to be set.",
+                        this, pm);
+            }
+            runningDateTime = formatter.parseDateTime(tStart);
+
+            List<Integer> idsList = new ArrayList<Integer>();
+            List<Integer> columnIdsList = new ArrayList<Integer>();
+            for( Entry<Integer, double[]> inDataEntry : inData.entrySet() ) {
+                idsList.add(inDataEntry.getKey());
+                for( int i = 0; i < inDataEntry.getValue().length; i++ ) {
+                    columnIdsList.add(inDataEntry.getKey());
+                }
+            }
+            binaryStationIds = new int[idsList.size()];
+            binaryStationLengths = new int[idsList.size()];
+            for( int i = 0; i < binaryStationIds.length; i++ ) {
+                binaryStationIds[i] = idsList.get(i);
+                binaryStationLengths[i] = inData.get(binaryStationIds[i]).length;
+            }
+            sortedBinaryStationIds = binaryStationIds.clone();
+            Arrays.sort(sortedBinaryStationIds);
+            int[] columnIds = new int[columnIdsList.size()];
+            for( int i = 0; i < columnIds.length; i++ ) {
+                columnIds[i] = columnIdsList.get(i);
+            }
+            binaryRow = new double[columnIds.length];
+            binaryWriter = new BinaryTimeSeriesWriter(file, columnIds);
+        }
+
+        for( Integer id : inData.keySet() ) {
+            if (Arrays.binarySearch(sortedBinaryStationIds, id) < 0) {
+                throw new ModelsIllegalargumentException(
+                        "The station " + id + " was not in the data of the first timestep of the binary time series.", this, pm);
+            }
+        }
+        int index = 0;
+        for( int i = 0; i < binaryStationIds.length; i++ ) {
+            int id = binaryStationIds[i];
+            double[] dataArray = inData.get(id);
+            if (dataArray == null) {
+                throw new ModelsIllegalargumentException("Missing data for the station " + id + " in the binary time series.",
+                        this, pm);
+            }
+            if (dataArray.length != binaryStationLengths[i]) {
+                throw new ModelsIllegalargumentException("The data of the station " + id + " have " + dataArray.length
+                        + " values, while the binary time series has " + binaryStationLengths[i] + " columns for it.", this, pm);
+            }
+            System.arraycopy(dataArray, 0, binaryRow, index, dataArray.length);
+            index += dataArray.length;
+        }
+        binaryWriter.writeRow(runningDateTime.getMillis(), binaryRow);
+        runningDateTime = runningDateTime.plusMinutes(tTimestep);
+    }
+
     @Finalize
     public void close() throws IOException {
+        if (binaryWriter != null) {
+            binaryWriter.close();
+            return;
+        }
+        if (memoryTable == null) {
+            // nothing has been written
+            return;
+        }
         DataIO.print(memoryTable, new PrintWriter(new File(file)));
     }
 }
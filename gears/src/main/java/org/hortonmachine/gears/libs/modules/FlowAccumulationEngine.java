@@ -0,0 +1,349 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.libs.modules;
+
+import static org.hortonmachine.gears.libs.modules.HMConstants.doubleNovalue;
+import static org.hortonmachine.gears.libs.modules.HMConstants.isNovalue;
+
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
+
+/**
+ * Accumulates values downstream along a D8 flowdirections map in linear time.
+ *
+ * <p>The engine first computes for every cell the index of its downstream cell
+ * and the number of cells entering it (in-degree). The accumulation is then done in
+ * a single topological (Kahn) pass: a cell is processed once all the cells
+ * entering it have been processed, so every cell is visited exactly once.</p>
+ *
+ * <p>Alternatively the accumulation can be done in parallel, partitioning the map
+ * in independent subbasins, i.e. the trees of cells draining into the same terminal
+ * cell. Both modes give the same result.</p>
+ *
+ * <p>All data are kept in primitive row-major arrays (<code>index = row * cols + col</code>).</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class FlowAccumulationEngine {
+
+    /**
+     * Value used for cells that have no downstream cell.
+     */
+    public static final int NO_DOWNSTREAM = -1;
+
+    /**
+     * The number of subbasins accumulated by a single task in the parallel mode.
+     */
+    private static final int TERMINALS_PER_TASK = 64;
+
+    private final int cols;
+    private final int rows;
+    private final int[] flow;
+
+    /**
+     * Constructor.
+     *
+     * @param flow the flowdirections in row-major order. Novalues are {@link HMConstants#intNovalue}.
+     * @param cols the cols of the map.
+     * @param rows the rows of the map.
+     */
+    public FlowAccumulationEngine( int[] flow, int cols, int rows ) {
+        if (flow.length < cols * rows) {
+            throw new IllegalArgumentException("The flow array is smaller than the raster: " + flow.length);
+        }
+        this.flow = flow;
+        this.cols = cols;
+        this.rows = rows;
+    }
+
+    /**
+     * Calculates the total contributing area in number of cells.
+     *
+     * <p>Every valid cell counts 1. Cells that do not drain to an outlet,
+     * for example because they are part of a loop, are set to novalue.</p>
+     *
+     * @param planner the planner to use for the parallel mode, or <code>null</code> for the sequential one.
+     * @return the tca values in row-major order.
+     * @throws Exception
+     */
+    public double[] tca( ExecutionPlanner planner ) throws Exception {
+        double[] weights = new double[cols * rows];
+        for( int i = 0; i < weights.length; i++ ) {
+            weights[i] = HMConstants.isNovalue(flow[i]) ? doubleNovalue : 1.0;
+        }
+        return accumulate(weights, planner);
+    }
+
+    /**
+     * Sums the supplied values downstream.
+     *
+     * <p>The result of each cell is its own weight plus the result of all the cells entering it.
+     * Cells with novalue flow or novalue weight are set to novalue and interrupt the
+     * accumulation.</p>
+     *
+     * @param weights the values to accumulate in row-major order.
+     * @param planner the planner to use for the parallel mode, or <code>null</code> for the sequential one.
+     * @return the accumulated values in row-major order.
+     * @throws Exception
+     */
+    public double[] accumulate( double[] weights, ExecutionPlanner planner ) throws Exception {
+        int size = cols * rows;
+        int[] downstream = new int[size];
+        int[] inDegree = new int[size];
+        calculateTopology(weights, downstream, inDegree);
+
+        double[] result = new double[size];
+        for( int i = 0; i < size; i++ ) {
+            result[i] = isActive(weights, i) ? weights[i] : doubleNovalue;
+        }
+
+        if (planner == null) {
+            accumulateSequential(result, downstream, inDegree, null);
+        } else {
+            accumulateParallel(result, downstream, inDegree, planner);
+        }
+        return result;
+    }
+
+    /**
+     * Sums the supplied values downstream along a multiple flow graph, in which a cell
+     * passes fractions of its value to several downstream cells.
+     *
+     * <p>The graph is given in compressed form: the edges leaving the cell <code>i</code> are the
+     * ones from <code>edgeStart[i]</code> (inclusive) to <code>edgeStart[i + 1]</code> (exclusive).
+     * The result of each cell is its own weight plus, for every edge entering it, the result of the
+     * upstream cell multiplied by the edge fraction. The accumulation is done in a single Kahn pass.
+     * Cells with novalue weight are set to novalue and interrupt the accumulation, cells that are part
+     * of a loop, or receive from one, are set to novalue.</p>
+     *
+     * @param edgeStart the index of the first edge of every cell, of size <code>cells + 1</code>.
+     * @param edgeTargets the row-major index of the downstream cell of every edge.
+     * @param edgeFractions the fraction of the cell value passed through every edge.
+     * @param weights the values to accumulate in row-major order.
+     * @return the accumulated values in row-major order.
+     */
+    public static double[] accumulateMultiple( int[] edgeStart, int[] edgeTargets, double[] edgeFractions,
+            double[] weights ) {
+        int size = weights.length;
+        if (edgeStart.length != size + 1) {
+            throw new IllegalArgumentException("The edge start array has to be one longer than the weights: "
+                    + edgeStart.length);
+        }
+        int[] inDegree = new int[size];
+        double[] result = new double[size];
+        for( int i = 0; i < size; i++ ) {
+            result[i] = isNovalue(weights[i]) ? doubleNovalue : weights[i];
+        }
+        for( int i = 0; i < size; i++ ) {
+            if (isNovalue(result[i])) {
+                continue;
+            }
+            for( int e = edgeStart[i]; e < edgeStart[i + 1]; e++ ) {
+                if (!isNovalue(result[edgeTargets[e]])) {
+                    inDegree[edgeTargets[e]]++;
+                }
+            }
+        }
+
+        int[] queue = new int[size];
+        int head = 0;
+        int tail = 0;
+        for( int i = 0; i < size; i++ ) {
+            if (inDegree[i] == 0 && !isNovalue(result[i])) {
+                queue[tail++] = i;
+            }
+        }
+        while( head < tail ) {
+            int index = queue[head++];
+            for( int e = edgeStart[index]; e < edgeStart[index + 1]; e++ ) {
+                int downIndex = edgeTargets[e];
+                if (isNovalue(result[downIndex])) {
+                    continue;
+                }
+                result[downIndex] += result[index] * edgeFractions[e];
+                if (--inDegree[downIndex] == 0) {
+                    queue[tail++] = downIndex;
+                }
+            }
+        }
+        // cells never reached have upstream cells in a loop
+        for( int i = 0; i < size; i++ ) {
+            if (inDegree[i] > 0) {
+                result[i] = doubleNovalue;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Calculates the downstream index and in-degree of every active cell.
+     */
+    private void calculateTopology( double[] weights, int[] downstream, int[] inDegree ) {
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                int index = r * cols + c;
+                downstream[index] = NO_DOWNSTREAM;
+                if (!isActive(weights, index)) {
+                    continue;
+                }
+                Direction direction = Direction.forFlow(flow[index]);
+                if (direction == null) {
+                    // outlet
+                    continue;
+                }
+                int dc = c + direction.col;
+                int dr = r + direction.row;
+                if (dc < 0 || dc >= cols || dr < 0 || dr >= rows) {
+                    continue;
+                }
+                int downIndex = dr * cols + dc;
+                if (isActive(weights, downIndex)) {
+                    downstream[index] = downIndex;
+                    inDegree[downIndex]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * The Kahn pass. If a <code>basin</code> array is given, only cells not yet assigned to
+     * a basin are processed.
+     */
+    private void accumulateSequential( double[] result, int[] downstream, int[] inDegree, int[] basin ) {
+        int size = result.length;
+        int[] queue = new int[size];
+        int head = 0;
+        int tail = 0;
+        for( int i = 0; i < size; i++ ) {
+            if (inDegree[i] == 0 && !isNovalue(result[i]) && (basin == null || basin[i] == NO_DOWNSTREAM)) {
+                queue[tail++] = i;
+            }
+        }
+        while( head < tail ) {
+            int index = queue[head++];
+            int downIndex = downstream[index];
+            if (downIndex != NO_DOWNSTREAM) {
+                result[downIndex] += result[index];
+                if (--inDegree[downIndex] == 0) {
+                    queue[tail++] = downIndex;
+                }
+            }
+        }
+        // cells never reached have upstream cells in a loop
+        for( int i = 0; i < size; i++ ) {
+            if (inDegree[i] > 0 && (basin == null || basin[i] == NO_DOWNSTREAM)) {
+                result[i] = doubleNovalue;
+            }
+        }
+    }
+
+    /**
+     * Every terminal cell (a cell with no downstream) defines an independent subbasin. The
+     * subbasins are collected walking upstream and accumulated in parallel, in tasks of 
+     * {@link #TERMINALS_PER_TASK} subbasins that share the cells buffer. Cells that
+     * do not drain into any terminal cell are handled by the sequential pass.
+     */
+    private void accumulateParallel( double[] result, int[] downstream, int[] inDegree, ExecutionPlanner planner )
+            throws Exception {
+        int size = result.length;
+        int[] basin = new int[size];
+        int terminalsCount = 0;
+        for( int i = 0; i < size; i++ ) {
+            basin[i] = NO_DOWNSTREAM;
+            if (downstream[i] == NO_DOWNSTREAM && !isNovalue(result[i])) {
+                terminalsCount++;
+            }
+        }
+        int[] terminals = new int[terminalsCount];
+        int t = 0;
+        for( int i = 0; i < size; i++ ) {
+            if (downstream[i] == NO_DOWNSTREAM && !isNovalue(result[i])) {
+                terminals[t++] = i;
+            }
+        }
+
+        planner.setNumberOfTasks((terminalsCount + TERMINALS_PER_TASK - 1) / TERMINALS_PER_TASK);
+        for( int from = 0; from < terminalsCount; from += TERMINALS_PER_TASK ) {
+            int fromTerminal = from;
+            int toTerminal = Math.min(from + TERMINALS_PER_TASK, terminalsCount);
+            planner.submit(() -> {
+                int[][] buffer = {new int[64]};
+                for( int i = fromTerminal; i < toTerminal; i++ ) {
+                    accumulateBasin(terminals[i], result, downstream, basin, buffer);
+                }
+            });
+        }
+        planner.join();
+
+        for( int i = 0; i < size; i++ ) {
+            if (basin[i] != NO_DOWNSTREAM) {
+                inDegree[i] = 0;
+            }
+        }
+        accumulateSequential(result, downstream, inDegree, basin);
+    }
+
+    /**
+     * Collects the cells of the subbasin draining into the terminal walking upstream
+     * (breadth first), then accumulates them in reverse order, which visits every cell
+     * after all the cells entering it.
+     */
+    private void accumulateBasin( int terminal, double[] result, int[] downstream, int[] basin, int[][] buffer ) {
+        int[] cells = buffer[0];
+        int count = 0;
+        cells[count++] = terminal;
+        basin[terminal] = terminal;
+        int head = 0;
+        while( head < count ) {
+            int index = cells[head++];
+            int c = index % cols;
+            int r = index / cols;
+            for( int dr = -1; dr <= 1; dr++ ) {
+                int nr = r + dr;
+                if (nr < 0 || nr >= rows) {
+                    continue;
+                }
+                for( int dc = -1; dc <= 1; dc++ ) {
+                    int nc = c + dc;
+                    if ((dc == 0 && dr == 0) || nc < 0 || nc >= cols) {
+                        continue;
+                    }
+                    int upIndex = nr * cols + nc;
+                    if (downstream[upIndex] == index) {
+                        if (count == cells.length) {
+                            int[] newCells = new int[cells.length * 2];
+                            System.arraycopy(cells, 0, newCells, 0, count);
+                            cells = newCells;
+                            buffer[0] = cells;
+                        }
+                        basin[upIndex] = terminal;
+                        cells[count++] = upIndex;
+                    }
+                }
+            }
+        }
+        for( int i = count - 1; i > 0; i-- ) {
+            int index = cells[i];
+            result[downstream[index]] += result[index];
+        }
+    }
+
+    private boolean isActive( double[] weights, int index ) {
+        return !HMConstants.isNovalue(flow[index]) && !isNovalue(weights[index]);
+    }
+
+}
@@ -0,0 +1,383 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.libs.modules;
+
+import static java.lang.Math.pow;
+import static java.lang.Math.sqrt;
+import static org.hortonmachine.gears.libs.modules.HMConstants.doubleNovalue;
+
+/**
+ * A reusable and mutable cursor over the cells of a digital elevation model.
+ *
+ * <p>The cursor offers the same neighbourhood queries as {@link GridNode}, but
+ * reads the elevations from a row-major primitive array and is moved around
+ * with {@link #moveTo(int, int)}, so that no object is created per visited cell.</p>
+ *
+ * <p>A cursor is not thread safe. Use {@link #copy()} to get a cursor over the
+ * same data for every thread.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class GridNodeCursor {
+
+    private static final Direction[] DIRS = Direction.getOrderedDirs();
+
+    private final double[] data;
+    private final int cols;
+    private final int rows;
+    private final double xRes;
+    private final double yRes;
+    /** the distances to the neighbours, indexed by the {@link Direction} ordinal. */
+    private final double[] distances = new double[8];
+
+    private int col;
+    private int row;
+    private double elevation;
+    private boolean isValid;
+    private boolean touchesBound;
+    private boolean touchesNovalue;
+    private boolean isPit;
+    private boolean isFlat;
+    private double surroundingMin;
+    /** the neighbour elevations, indexed by the {@link Direction} ordinal. */
+    private final double[] neighbours = new double[8];
+
+    /**
+     * Constructor.
+     *
+     * @param data the elevation values in row-major order (<code>index = row * cols + col</code>).
+     * @param cols the cols of the raster.
+     * @param rows the rows of the raster.
+     * @param xRes the x resolution of the raster.
+     * @param yRes the y resolution of the raster.
+     */
+    public GridNodeCursor( double[] data, int cols, int rows, double xRes, double yRes ) {
+        if (data.length < cols * rows) {
+            throw new IllegalArgumentException("The data array is smaller than the raster: " + data.length);
+        }
+        this.data = data;
+        this.cols = cols;
+        this.rows = rows;
+        this.xRes = xRes;
+        this.yRes = yRes;
+        for( Direction direction : DIRS ) {
+            distances[direction.ordinal()] = sqrt(pow(direction.col * xRes, 2.0) + pow(direction.row * yRes, 2.0));
+        }
+    }
+
+    /**
+     * @return a new cursor on the same data, positioned on the same cell.
+     */
+    public GridNodeCursor copy() {
+        GridNodeCursor copy = new GridNodeCursor(data, cols, rows, xRes, yRes);
+        copy.moveTo(col, row);
+        return copy;
+    }
+
+    /**
+     * Moves the cursor to a cell and reads its neighbourhood.
+     *
+     * <p>Positions outside of the raster are allowed, in which case the cursor
+     * is not valid, as it happens for {@link GridNode}.</p>
+     *
+     * @param col the col of the cell.
+     * @param row the row of the cell.
+     * @return the cursor itself.
+     */
+    public GridNodeCursor moveTo( int col, int row ) {
+        this.col = col;
+        this.row = row;
+        touchesBound = false;
+        touchesNovalue = false;
+        isPit = false;
+        isFlat = false;
+
+        if (isInRaster(col, row)) {
+            elevation = data[row * cols + col];
+            isValid = !HMConstants.isNovalue(elevation);
+        } else {
+            elevation = doubleNovalue;
+            isValid = false;
+        }
+
+        surroundingMin = Double.POSITIVE_INFINITY;
+        for( int i = 0; i < DIRS.length; i++ ) {
+            Direction direction = DIRS[i];
+            int newC = col + direction.col;
+            int newR = row + direction.row;
+            double tmp = doubleNovalue;
+            if (!isInRaster(newC, newR)) {
+                touchesBound = true;
+            } else {
+                tmp = data[newR * cols + newC];
+            }
+            neighbours[i] = tmp;
+
+            if (HMConstants.isNovalue(tmp)) {
+                touchesNovalue = true;
+            } else {
+                if (tmp < surroundingMin && tmp != elevation) {
+                    surroundingMin = tmp;
+                }
+                if (tmp == elevation) {
+                    isFlat = true;
+                }
+            }
+        }
+
+        if (!touchesBound && !touchesNovalue && isValid) {
+            if (elevation < surroundingMin) {
+                isPit = true;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Moves the cursor to the neighbour cell in the given direction.
+     *
+     * @param direction the {@link Direction} to move to.
+     * @return <code>true</code> if the new position is inside the raster.
+     */
+    public boolean moveTo( Direction direction ) {
+        moveTo(col + direction.col, row + direction.row);
+        return isInRaster(col, row);
+    }
+
+    public int getCol() {
+        return col;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    /**
+     * @return the row-major index of the current cell.
+     */
+    public int getIndex() {
+        return row * cols + col;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public double getXRes() {
+        return xRes;
+    }
+
+    public double getYRes() {
+        return yRes;
+    }
+
+    public double getElevation() {
+        return elevation;
+    }
+
+    /**
+     * @return <code>true</code> if the cell is inside the raster and not novalue.
+     */
+    public boolean isValid() {
+        return isValid;
+    }
+
+    /**
+     * @return <code>true</code> if the cell touches a boundary.
+     */
+    public boolean touchesBound() {
+        return touchesBound;
+    }
+
+    /**
+     * @return <code>true</code> if the cell touches a novalue.
+     */
+    public boolean touchesNovalue() {
+        return touchesNovalue;
+    }
+
+    /**
+     * @return <code>true</code> if all cells around the cell are higher than the current.
+     */
+    public boolean isPit() {
+        return isPit;
+    }
+
+    public boolean isFlat() {
+        return isFlat;
+    }
+
+    /**
+     * @return the min value of the surrounding cells.
+     */
+    public double getSurroundingMin() {
+        return surroundingMin;
+    }
+
+    /**
+     * Get the value of the elevation in one of the surrounding direction.
+     *
+     * @param direction the {@link Direction}.
+     * @return the elevation value.
+     */
+    public double getElevationAt( Direction direction ) {
+        return neighbours[direction.ordinal()];
+    }
+
+    /**
+     * Checks if the neighbour in the given direction is inside the raster and not novalue.
+     *
+     * @param direction the {@link Direction}.
+     * @return <code>true</code> if the neighbour is valid.
+     */
+    public boolean isValidAt( Direction direction ) {
+        return isInRaster(col + direction.col, row + direction.row)
+                && !HMConstants.isNovalue(neighbours[direction.ordinal()]);
+    }
+
+    /**
+     * Calculates the slope from the current cell to the neighbour in the given direction.
+     *
+     * @param direction the {@link Direction}.
+     * @return the slope.
+     */
+    public double getSlopeTo( Direction direction ) {
+        return (elevation - neighbours[direction.ordinal()]) / distances[direction.ordinal()];
+    }
+
+    /**
+     * Get the direction of the next downstream cell following the steepest path.
+     *
+     * <p>Same as {@link GridNode#goDownstreamSP()}, but without creating the neighbour nodes.</p>
+     *
+     * @return the direction or <code>null</code> if the cell is an outlet.
+     */
+    public Direction getDownstreamDirectionSP() {
+        double maxSlope = Double.NEGATIVE_INFINITY;
+        Direction nextDirection = null;
+        for( Direction direction : DIRS ) {
+            if (isValidAt(direction)) {
+                double slopeTo = getSlopeTo(direction);
+                if (slopeTo > 0 && slopeTo > maxSlope) {
+                    nextDirection = direction;
+                    maxSlope = slopeTo;
+                }
+            }
+        }
+        return nextDirection;
+    }
+
+    /**
+     * @return <code>true</code> if this cell can't flow anywhere following the steepest path downstream.
+     */
+    public boolean isOutlet() {
+        return !isPit && getDownstreamDirectionSP() == null;
+    }
+
+    /**
+     * Get the flow value of the current cell based in the steepest path.
+     *
+     * @return the value of flow.
+     */
+    public int getFlow() {
+        Direction direction = getDownstreamDirectionSP();
+        if (direction == null) {
+            return HMConstants.intNovalue;
+        }
+        return direction.getFlow();
+    }
+
+    /**
+     * Get a window of values surrounding the current cell.
+     *
+     * <p>Same as {@link GridNode#getWindow(int, boolean)}, but fills the supplied
+     * matrix, which can be reused between cells.</p>
+     *
+     * @param size the size of the window. If the size is even, size+1 will be used.
+     * @param doCircular if <code>true</code> the window values are set to novalue
+     *              were necessary to make it circular.
+     * @param window the matrix to fill or <code>null</code>, in which case a new one is created.
+     * @return the read window.
+     */
+    public double[][] getWindow( int size, boolean doCircular, double[][] window ) {
+        if (size % 2 == 0) {
+            size++;
+        }
+        if (window == null || window.length != size || window[0].length != size) {
+            window = new double[size][size];
+        }
+        int delta = (size - 1) / 2;
+        double radius = delta;
+        for( int r = -delta; r <= delta; r++ ) {
+            int tmpRow = row + r;
+            double[] windowRow = window[r + delta];
+            for( int c = -delta; c <= delta; c++ ) {
+                int tmpCol = col + c;
+                if (doCircular && sqrt(c * c + r * r) > radius) {
+                    windowRow[c + delta] = doubleNovalue;
+                } else if (isInRaster(tmpCol, tmpRow)) {
+                    windowRow[c + delta] = data[tmpRow * cols + tmpCol];
+                } else {
+                    windowRow[c + delta] = doubleNovalue;
+                }
+            }
+        }
+        return window;
+    }
+
+    public double getEastElev() {
+        return neighbours[Direction.E.ordinal()];
+    }
+
+    public double getENElev() {
+        return neighbours[Direction.EN.ordinal()];
+    }
+
+    public double getNorthElev() {
+        return neighbours[Direction.N.ordinal()];
+    }
+
+    public double getNWElev() {
+        return neighbours[Direction.NW.ordinal()];
+    }
+
+    public double getWestElev() {
+        return neighbours[Direction.W.ordinal()];
+    }
+
+    public double getWSElev() {
+        return neighbours[Direction.WS.ordinal()];
+    }
+
+    public double getSouthElev() {
+        return neighbours[Direction.S.ordinal()];
+    }
+
+    public double getSEElev() {
+        return neighbours[Direction.SE.ordinal()];
+    }
+
+    private boolean isInRaster( int col, int row ) {
+        return col >= 0 && col < cols && row >= 0 && row < rows;
+    }
+
+}
@@ -32,8 +32,11 @@ import org.hortonmachine.gears.io.vectorreader.OmsVectorReader;
 import org.hortonmachine.gears.io.vectorwriter.OmsVectorWriter;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.exceptions.ModelsUserCancelException;
+import org.hortonmachine.gears.libs.monitor.IHMMetricsCollector;
 import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
 import org.hortonmachine.gears.libs.monitor.LogProgressMonitor;
+import org.hortonmachine.gears.libs.monitor.ModuleMetrics;
+import org.hortonmachine.gears.libs.monitor.ModuleMetricsRecorder;
 
 import com.vividsolutions.jts.geom.GeometryFactory;
 
@@ -138,6 +141,89 @@ public class HMModel {
      */
     public boolean doReset = false;
 
+    private static volatile IHMMetricsCollector defaultMetricsCollector = null;
+    private IHMMetricsCollector metricsCollector = defaultMetricsCollector;
+    private volatile ModuleMetricsRecorder metricsRecorder;
+
+    /**
+     * Set the {@link IHMMetricsCollector} used by the modules created from now on.
+     * 
+     * @param collector the collector or <code>null</code> to disable the collection.
+     */
+    public static void setDefaultMetricsCollector( IHMMetricsCollector collector ) {
+        defaultMetricsCollector = collector;
+    }
+
+    /**
+     * Set the {@link IHMMetricsCollector} to which the metrics of this module are sent.
+     * 
+     * @param collector the collector or <code>null</code> to disable the collection.
+     */
+    public void setMetricsCollector( IHMMetricsCollector collector ) {
+        this.metricsCollector = collector;
+    }
+
+    public IHMMetricsCollector getMetricsCollector() {
+        return metricsCollector;
+    }
+
+    /**
+     * Start recording the execution metrics of this module.
+     * 
+     * <p>The recording has to be stopped from the same thread. See 
+     * {@link ModelsSupporter#runWithMetrics(HMModel)} to run a module with metrics in one call.</p>
+     */
+    public void startMetrics() {
+        ModuleMetricsRecorder recorder = new ModuleMetricsRecorder(getClass().getSimpleName());
+        recorder.start();
+        metricsRecorder = recorder;
+    }
+
+    /**
+     * Stop recording the execution metrics and send them to the collector, if one is set.
+     * 
+     * @return the metrics of the run.
+     * @throws Exception
+     */
+    public ModuleMetrics stopMetrics() throws Exception {
+        ModuleMetricsRecorder recorder = metricsRecorder;
+        if (recorder == null) {
+            throw new IllegalStateException("The metrics recording has not been started.");
+        }
+        metricsRecorder = null;
+        ModuleMetrics metrics = recorder.stop();
+        if (metricsCollector != null) {
+            metricsCollector.collect(metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * Stop recording the execution metrics without collecting them, for example if the run failed.
+     */
+    public void discardMetrics() {
+        ModuleMetricsRecorder recorder = metricsRecorder;
+        metricsRecorder = null;
+        if (recorder != null && recorder.isRunning()) {
+            recorder.stop();
+        }
+    }
+
+    /**
+     * Report processed elements (cells, features...) to the metrics.
+     * 
+     * <p>This does nothing if the metrics are not being recorded and can be called 
+     * from any thread.</p>
+     * 
+     * @param count the number of processed elements.
+     */
+    protected void addProcessedElements( long count ) {
+        ModuleMetricsRecorder recorder = metricsRecorder;
+        if (recorder != null) {
+            recorder.addProcessedElements(count);
+        }
+    }
+
     /**
      * Check on the progress monitor to see if the process was stopped.
      * 
@@ -17,6 +17,7 @@
  */
 package org.hortonmachine.gears.libs.modules;
 
+import java.awt.image.DataBuffer;
 import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
 import java.io.File;
@@ -24,8 +25,16 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.RandomIterFactory;
@@ -43,6 +52,8 @@ import org.geotools.geometry.DirectPosition2D;
 import org.geotools.geometry.GeneralEnvelope;
 import org.hortonmachine.gears.io.rasterwriter.OmsRasterWriter;
 import org.hortonmachine.gears.io.vectorreader.OmsVectorReader;
+import org.hortonmachine.gears.libs.modules.multiprocessing.BlockingExecutorService;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
 import org.hortonmachine.gears.libs.monitor.DummyProgressMonitor;
 import org.hortonmachine.gears.modules.r.imagemosaic.OmsImageMosaicCreator;
 import org.hortonmachine.gears.utils.RegionMap;
@@ -54,7 +65,6 @@ import org.hortonmachine.gears.utils.files.FileUtilities;
 import org.opengis.geometry.DirectPosition;
 import org.opengis.parameter.GeneralParameterValue;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
-import org.opengis.referencing.operation.TransformException;
 
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
@@ -173,173 +183,397 @@ public abstract class HMModelIM extends HMModel {
         return getGridCoverage(readerNum, envelope.getMaxY(), envelope.getMinY(), envelope.getMaxX(), envelope.getMinX());
     }
 
+    /**
+     * Process the tiles of the mosaic one at the time.
+     * 
+     * @throws Exception
+     * @see #processByTileCells(int)
+     */
     protected void processByTileCells() throws Exception {
-        int size = boundsGeometries.size();
-        int count = 0;
-        // pm.beginTask("Processing tiles...", size);
-        for( Geometry boundGeometry : boundsGeometries ) {
-            count++;
-            try {
-                pm.message("Processing tile " + boundGeometry.getUserData() + "(" + count + " of " + size + ")");
-                pm.message("\t\t->geom: " + boundGeometry.getEnvelopeInternal());
-                pm.message("\t\t->reading with cell buffer: " + cellBuffer);
-                pm.message("\t\t->reading with x/y resolution: " + xRes + "/" + yRes);
-                processGeometryByTileCell(count, boundGeometry);
-            } catch (Exception e) {
-                pm.errorMessage("Problems found for tile: " + boundGeometry.getUserData());
-                throw e;
-            }
-            // pm.worked(1);
-        }
-        // pm.done();
-
+        processByTileCells(1);
     }
 
-    private void processGeometryByTileCell( int count, Geometry boundGeometry ) throws IOException, TransformException, Exception {
-        Envelope writeEnv = boundGeometry.getEnvelopeInternal();
+    /**
+     * Process the tiles of the mosaic, up to the given number of tiles at the same time.
+     * 
+     * <p>The tiles are read by the calling thread, row by row from north to south, and
+     * handed to the processing threads. Reading goes on with the next tiles while the
+     * previous ones are processed, as long as the tiles in memory fit in half of the
+     * free heap.
+     * <p>If the mosaic tiles are on a regular grid, every tile is read only once and the
+     * cell buffer around a tile is copied from its neighbours, instead of being read again.
+     * 
+     * <p>With more than one thread the module has to implement
+     * {@link #processCell(ImageMosaicTile, int, int, int, int)}, since {@link #inRasterIterators},
+     * {@link #outRasterIterators} and {@link #readGridGeometry} are only set when the tiles are
+     * processed one at the time. Modules that don't implement it are processed with one thread.
+     * 
+     * @param threads the number of tiles to process at the same time.
+     * @throws Exception
+     */
+    protected void processByTileCells( int threads ) throws Exception {
+        if (threads > 1 && !processesSuppliedTiles()) {
+            pm.message("The module reads the shared tile fields, the tiles are processed one at the time.");
+            threads = 1;
+        }
+        List<ImageMosaicTile> tiles = new ArrayList<ImageMosaicTile>();
+        for( int i = 0; i < boundsGeometries.size(); i++ ) {
+            tiles.add(new ImageMosaicTile(i + 1, boundsGeometries.get(i), xRes, yRes));
+        }
+        Runtime runtime = Runtime.getRuntime();
+        long freeMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        int memoryKb = (int) Math.max(1, Math.min(Integer.MAX_VALUE, freeMemory / 2 / 1024));
+        MemoryBudget memory = new MemoryBudget(memoryKb);
+
+        TilesGrid tilesGrid = null;
+        if (cellBuffer > 0) {
+            tilesGrid = TilesGrid.create(tiles, xRes, yRes, cellBuffer, memory);
+            if (tilesGrid != null) {
+                tiles = tilesGrid.tilesInReadOrder;
+            }
+        }
+        int size = tiles.size();
 
-        double writeEast = writeEnv.getMaxX();
-        double writeWest = writeEnv.getMinX();
-        double writeNorth = writeEnv.getMaxY();
-        double writeSouth = writeEnv.getMinY();
-        int writeCols = (int) ((writeEast - writeWest) / xRes);
-        int writeRows = (int) ((writeNorth - writeSouth) / yRes);
+        BlockingExecutorService executor = null;
+        if (threads > 1) {
+            // as many tiles as the threads can wait in the queue, already read
+            executor = ExecutionPlanner.createExecutor(threads, 2 * threads);
+        }
+        List<Future< ? >> futures = new ArrayList<Future< ? >>();
+        boolean completed = false;
+        try {
+            for( ImageMosaicTile tile : tiles ) {
+                if (pm.isCanceled()) {
+                    break;
+                }
+                checkProcessedTiles(futures, false);
 
-        Envelope readEnv = new Envelope(writeEnv);
-        readEnv.expandBy(cellBuffer * xRes, cellBuffer * yRes);
+                Geometry boundGeometry = tile.getBoundsGeometry();
+                pm.message("Processing tile " + boundGeometry.getUserData() + "(" + tile.getNumber() + " of " + size + ")");
+                pm.message("\t\t->geom: " + tile.getWriteEnvelope());
+                pm.message("\t\t->reading with cell buffer: " + cellBuffer);
+                pm.message("\t\t->reading with x/y resolution: " + xRes + "/" + yRes);
 
-        double readEast = readEnv.getMaxX();
-        double readWest = readEnv.getMinX();
-        double readNorth = readEnv.getMaxY();
-        double readSouth = readEnv.getMinY();
-        // int readCols = (int) ((readEast - readWest) / xRes);
-        // int readRows = (int) ((readNorth - readSouth) / yRes);
+                long tileBytes = tile.estimateBytes(readers.size(), outRasterFiles.size(), cellBuffer);
+                int tileKb = (int) Math.max(1, Math.min(memoryKb, tileBytes / 1024));
+                memory.acquireTile(tileKb);
+                boolean submitted = false;
+                try {
+                    readTile(tile, tilesGrid);
+                    if (executor == null) {
+                        processTile(tile, true);
+                    } else {
+                        futures.add(executor.submit(() -> {
+                            try {
+                                processTile(tile, false);
+                            } catch (Exception e) {
+                                pm.errorMessage("Problems found for tile: " + boundGeometry.getUserData());
+                                throw e;
+                            } finally {
+                                tile.free();
+                                memory.releaseTile(tileKb);
+                            }
+                            return null;
+                        }));
+                        submitted = true;
+                    }
+                } catch (Exception e) {
+                    pm.errorMessage("Problems found for tile: " + boundGeometry.getUserData());
+                    throw e;
+                } finally {
+                    if (!submitted) {
+                        tile.free();
+                        memory.releaseTile(tileKb);
+                    }
+                }
+            }
+            checkProcessedTiles(futures, true);
+            completed = true;
+        } finally {
+            if (executor != null) {
+                if (completed) {
+                    executor.shutdown();
+                } else {
+                    executor.shutdownNow();
+                }
+            }
+        }
+    }
 
-        /*
-         * clear lists of in and out data local to the loop
-         */
-        outGridCoverages.clear();
-        inRasterIterators.clear();
-        inRasters.clear();
-        outRasterIterators.clear();
+    /**
+     * @return <code>true</code> if the module implements {@link #processCell(ImageMosaicTile, int, int, int, int)}.
+     */
+    private boolean processesSuppliedTiles() {
+        for( Class< ? > c = getClass(); c != HMModelIM.class; c = c.getSuperclass() ) {
+            try {
+                c.getDeclaredMethod("processCell", ImageMosaicTile.class, int.class, int.class, int.class, int.class);
+                return true;
+            } catch (NoSuchMethodException e) {
+                // look in the superclass
+            }
+        }
+        return false;
+    }
 
-        GridGeometry2D writeGridGeometry = CoverageUtilities.gridGeometryFromRegionValues(writeNorth, writeSouth, writeEast,
-                writeWest, writeCols, writeRows, crs);
+    /**
+     * Rethrows the exception of the first failed tile.
+     * 
+     * @param futures the submitted tiles, the finished ones are removed.
+     * @param wait if <code>true</code>, waits for all the tiles to finish.
+     * @throws Exception
+     */
+    private void checkProcessedTiles( List<Future< ? >> futures, boolean wait ) throws Exception {
+        Iterator<Future< ? >> iterator = futures.iterator();
+        while( iterator.hasNext() ) {
+            Future< ? > future = iterator.next();
+            if (!wait && !future.isDone()) {
+                continue;
+            }
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw e;
+            }
+            iterator.remove();
+        }
+    }
 
+    /**
+     * Prepares the destinations of the tile and reads its sources.
+     */
+    private void readTile( ImageMosaicTile tile, TilesGrid tilesGrid ) throws Exception {
+        Envelope writeEnv = tile.getWriteEnvelope();
+        int writeCols = tile.getWriteCols();
+        int writeRows = tile.getWriteRows();
+
+        tile.writeGridGeometry = CoverageUtilities.gridGeometryFromRegionValues(writeEnv.getMaxY(), writeEnv.getMinY(),
+                writeEnv.getMaxX(), writeEnv.getMinX(), writeCols, writeRows, crs);
+        RegionMap writeParams = CoverageUtilities.gridGeometry2RegionParamsMap(tile.writeGridGeometry);
         for( File outRasterFile : outRasterFiles ) {
             File parentFile = outRasterFile.getParentFile();
             if (parentFile != null && parentFile.exists()) {
                 WritableRaster outWR = CoverageUtilities.createWritableRaster(writeCols, writeRows, null, null,
                         HMConstants.doubleNovalue);
-                RegionMap writeParams = CoverageUtilities.gridGeometry2RegionParamsMap(writeGridGeometry);
                 GridCoverage2D writeGC = CoverageUtilities.buildCoverage(outRasterFile.getName(), outWR, writeParams, crs);
-                outGridCoverages.add(writeGC);
+                tile.outGridCoverages.add(writeGC);
                 WritableRandomIter outDataIter = CoverageUtilities.getWritableRandomIterator(outWR);
-                outRasterIterators.add(outDataIter);
+                tile.outRasterIterators.add(outDataIter);
             } else {
-                outGridCoverages.add(null);
-                outRasterIterators.add(null);
+                tile.outGridCoverages.add(null);
+                tile.outRasterIterators.add(null);
             }
         }
 
-        readGridGeometry = null;
-        GeneralParameterValue[] readGeneralParameterValues = CoverageUtilities.createGridGeometryGeneralParameter(xRes, yRes,
-                readNorth, readSouth, readEast, readWest, crs);
+        Envelope readEnv = new Envelope(writeEnv);
+        readEnv.expandBy(cellBuffer * xRes, cellBuffer * yRes);
+        if (tilesGrid == null || !tilesGrid.enabled || !readFromTilesCores(tile, readEnv, tilesGrid)) {
+            readFromMosaic(tile, readEnv);
+        }
 
-        int index = 0;
-        for( ImageMosaicReader reader : readers ) {
-            try {
-                GridCoverage2D readGC = reader.read(readGeneralParameterValues);
-                readGridGeometry = readGC.getGridGeometry();
-                // read raster at once, since a randomiter is way slower when wrapping borders
-                Raster readRaster = readGC.getRenderedImage().getData();
-                RandomIter readIter = RandomIterFactory.create(readRaster, null);
-                inRasterIterators.add(readIter);
-                inRasters.add(readGC);
-                index++;
-            } catch (Exception e) {
-                StringBuilder errSb = new StringBuilder();
-                errSb.append("ERROR: could not read coverage for parameters: \n");
-                errSb.append(readGeneralParameterValues[0]);
-                errSb.append("ERROR: with reader N." + index + ": " + Arrays.toString(reader.getGridCoverageNames()));
-                errSb.append("\nERROR: " + e.getLocalizedMessage());
-                pm.errorMessage(errSb.toString());
-                freeIterators();
-                // e.printStackTrace();
-                // return;
-                throw new IOException("Problems reading Mosaic!");
-            }
-        }
-
-        // Envelope allBoundsEnv = new Envelope(new Coordinate(llCorner[0], llCorner[1]), new
-        // Coordinate(urCorner[0], urCorner[1]));
-        // MathTransform crsToGrid = readGridGeometry.getCRSToGrid2D(PixelOrientation.LOWER_RIGHT);
-        //
-        // Envelope transformed = JTS.transform(allBoundsEnv, crsToGrid);
-        // int minX = (int) round(transformed.getMinX());
-        // int maxY = (int) round(transformed.getMaxY()); // y grid is inverse
-        // int maxX = (int) round(transformed.getMaxX());
-        // int minY = (int) round(transformed.getMinY());
-
-        GridCoordinates2D llGrid = readGridGeometry.worldToGrid(new DirectPosition2D(llCorner[0], llCorner[1]));
-        GridCoordinates2D urGrid = readGridGeometry.worldToGrid(new DirectPosition2D(urCorner[0], urCorner[1]));
+        GridGeometry2D tileReadGridGeometry = tile.readGridGeometry;
+        GridCoordinates2D llGrid = tileReadGridGeometry.worldToGrid(new DirectPosition2D(llCorner[0], llCorner[1]));
+        GridCoordinates2D urGrid = tileReadGridGeometry.worldToGrid(new DirectPosition2D(urCorner[0], urCorner[1]));
         int minX = llGrid.x;
         int maxY = llGrid.y; // y grid is inverse
         int maxX = urGrid.x;
         int minY = urGrid.y;
 
         // is there a gridrange shift?
-        GridEnvelope2D gridRange2D = readGridGeometry.getGridRange2D();
-        int readRows = gridRange2D.height;
+        GridEnvelope2D gridRange2D = tileReadGridGeometry.getGridRange2D();
+        tile.readRows = gridRange2D.height;
         minY = minY + gridRange2D.y;
-        // TODO check this out properly
+        /*
+         * the corners are placed in the grid of the read coverage, whose range 
+         * does not start at 0 if the reader clipped it on the mosaic: if the mosaic
+         * has a single tile in a direction, the far corner already contains the 
+         * shift, which then has to be taken away instead of added 
+         */
         if (isSingleInY) {
             maxY = maxY - gridRange2D.y;
         } else {
             maxY = maxY + gridRange2D.y;
         }
-        int readCols = gridRange2D.width;
+        tile.readCols = gridRange2D.width;
         minX = minX + gridRange2D.x;
         if (isSingleInX) {
             maxX = maxX - gridRange2D.x;
         } else {
             maxX = maxX + gridRange2D.x;
         }
+        tile.minReadCol = minX;
+        tile.maxReadCol = maxX;
+        tile.minReadRow = minY;
+        tile.maxReadRow = maxY;
+    }
 
-        try {
-            final GridCoordinates2D gridCoordinates2D = new GridCoordinates2D();
-            for( int writeCol = 0; writeCol < writeCols; writeCol++ ) {
-                for( int writeRow = 0; writeRow < writeRows; writeRow++ ) {
-                    gridCoordinates2D.x = writeCol;
-                    gridCoordinates2D.y = writeRow;
-                    DirectPosition writeGridToWorld = writeGridGeometry.gridToWorld(gridCoordinates2D);
-                    GridCoordinates2D worldToReadGrid = readGridGeometry.worldToGrid(writeGridToWorld);
-                    int readCol = worldToReadGrid.x;
-                    int readRow = worldToReadGrid.y;
-
-                    if (readCol + cellBuffer > maxX || readCol - cellBuffer < minX || //
-                            readRow + cellBuffer > maxY || readRow - cellBuffer < minY) {
-                        continue;
+    private void readFromMosaic( ImageMosaicTile tile, Envelope readEnv ) throws Exception {
+        for( int index = 0; index < readers.size(); index++ ) {
+            GridCoverage2D readGC = readSource(index, readEnv);
+            tile.readGridGeometry = readGC.getGridGeometry();
+            // read raster at once, since a randomiter is way slower when wrapping borders
+            Raster readRaster = readGC.getRenderedImage().getData();
+            RandomIter readIter = RandomIterFactory.create(readRaster, null);
+            tile.inRasterIterators.add(readIter);
+            tile.inRasters.add(readGC);
+        }
+    }
+
+    /**
+     * Assembles the read data of the tile from the cores of the tile and of its neighbours.
+     * 
+     * @return <code>false</code> if the cores don't match the regular grid, in which case
+     *          the grid is disabled and the tile has to be read from the mosaic.
+     */
+    private boolean readFromTilesCores( ImageMosaicTile tile, Envelope readEnv, TilesGrid tilesGrid ) throws Exception {
+        ImageMosaicTile[] neighbours = tilesGrid.getNeighbours(tile);
+        Raster[][] neighbourCores = new Raster[neighbours.length][];
+        boolean hasAllNeighbours = true;
+        for( int i = 0; i < neighbours.length; i++ ) {
+            if (neighbours[i] == null) {
+                hasAllNeighbours = false;
+                continue;
+            }
+            neighbourCores[i] = getTileCores(neighbours[i], tilesGrid);
+            if (neighbourCores[i] == null) {
+                tilesGrid.disable();
+                return false;
+            }
+        }
+
+        int writeCols = tile.getWriteCols();
+        int writeRows = tile.getWriteRows();
+        int readCols = writeCols + 2 * cellBuffer;
+        int readRows = writeRows + 2 * cellBuffer;
+        GridGeometry2D tileReadGridGeometry = CoverageUtilities.gridGeometryFromRegionValues(readEnv.getMaxY(),
+                readEnv.getMinY(), readEnv.getMaxX(), readEnv.getMinX(), readCols, readRows, crs);
+        RegionMap readParams = CoverageUtilities.gridGeometry2RegionParamsMap(tileReadGridGeometry);
+        for( int index = 0; index < readers.size(); index++ ) {
+            WritableRaster readWR = neighbourCores[4][index].createCompatibleWritableRaster(readCols, readRows);
+            if (!hasAllNeighbours) {
+                double[] novalues = new double[readCols];
+                Arrays.fill(novalues, HMConstants.doubleNovalue);
+                for( int band = 0; band < readWR.getNumBands(); band++ ) {
+                    for( int row = 0; row < readRows; row++ ) {
+                        readWR.setSamples(0, row, readCols, 1, band, novalues);
                     }
+                }
+            }
+            for( int i = 0; i < neighbours.length; i++ ) {
+                if (neighbourCores[i] != null) {
+                    // the cells out of the read tile are clipped away
+                    Raster core = neighbourCores[i][index];
+                    int dx = cellBuffer + (i % 3 - 1) * writeCols - core.getMinX();
+                    int dy = cellBuffer + (i / 3 - 1) * writeRows - core.getMinY();
+                    readWR.setRect(dx, dy, core);
+                }
+            }
+            tile.inRasterIterators.add(RandomIterFactory.create(readWR, null));
+            tile.inRasters.add(CoverageUtilities.buildCoverage("tile_" + tile.getNumber(), readWR, readParams, crs));
+        }
+        tile.readGridGeometry = tileReadGridGeometry;
 
-                    processCell(readCol, readRow, writeCol, writeRow, readCols, readRows, writeCols, writeRows);
+        for( ImageMosaicTile neighbour : neighbours ) {
+            if (neighbour != null) {
+                tilesGrid.release(neighbour);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the data of a tile without cell buffer, reading it if it is not cached yet.
+     * 
+     * @return the data of the tile per source or <code>null</code>, if the read data don't
+     *          have the size of the tile.
+     */
+    private Raster[] getTileCores( ImageMosaicTile tile, TilesGrid tilesGrid ) throws Exception {
+        Raster[] cores = tilesGrid.cores.get(tile.getNumber());
+        if (cores == null) {
+            cores = new Raster[readers.size()];
+            for( int index = 0; index < readers.size(); index++ ) {
+                GridCoverage2D readGC = readSource(index, tile.getWriteEnvelope());
+                Raster core = readGC.getRenderedImage().getData();
+                if (core.getWidth() != tile.getWriteCols() || core.getHeight() != tile.getWriteRows()) {
+                    return null;
                 }
+                cores[index] = core;
             }
+            tilesGrid.putCores(tile, cores);
+        }
+        return cores;
+    }
 
-        } finally {
-            freeIterators();
+    private GridCoverage2D readSource( int index, Envelope readEnv ) throws IOException {
+        GeneralParameterValue[] readGeneralParameterValues = CoverageUtilities.createGridGeometryGeneralParameter(xRes, yRes,
+                readEnv.getMaxY(), readEnv.getMinY(), readEnv.getMaxX(), readEnv.getMinX(), crs);
+        ImageMosaicReader reader = readers.get(index);
+        try {
+            return reader.read(readGeneralParameterValues);
+        } catch (Exception e) {
+            StringBuilder errSb = new StringBuilder();
+            errSb.append("ERROR: could not read coverage for parameters: \n");
+            errSb.append(readGeneralParameterValues[0]);
+            errSb.append("ERROR: with reader N." + index + ": " + Arrays.toString(reader.getGridCoverageNames()));
+            errSb.append("\nERROR: " + e.getLocalizedMessage());
+            pm.errorMessage(errSb.toString());
+            throw new IOException("Problems reading Mosaic!");
+        }
+    }
+
+    /**
+     * Processes the cells of a read tile and writes the result.
+     * 
+     * @param tile the tile.
+     * @param shareTile if <code>true</code>, the tile data are also set in the shared fields.
+     */
+    private void processTile( ImageMosaicTile tile, boolean shareTile ) throws Exception {
+        if (shareTile) {
+            inRasterIterators.clear();
+            inRasterIterators.addAll(tile.inRasterIterators);
+            inRasters.clear();
+            inRasters.addAll(tile.inRasters);
+            outRasterIterators.clear();
+            outRasterIterators.addAll(tile.outRasterIterators);
+            outGridCoverages.clear();
+            outGridCoverages.addAll(tile.outGridCoverages);
+            readGridGeometry = tile.readGridGeometry;
+        }
+
+        // read and write grids have the same resolution, so the offset is the same for every cell
+        DirectPosition writeOrigin = tile.writeGridGeometry.gridToWorld(new GridCoordinates2D(0, 0));
+        GridCoordinates2D readOrigin = tile.readGridGeometry.worldToGrid(writeOrigin);
+        int writeCols = tile.getWriteCols();
+        int writeRows = tile.getWriteRows();
+        for( int writeRow = 0; writeRow < writeRows; writeRow++ ) {
+            int readRow = writeRow + readOrigin.y;
+            if (readRow + cellBuffer > tile.maxReadRow || readRow - cellBuffer < tile.minReadRow) {
+                continue;
+            }
+            for( int writeCol = 0; writeCol < writeCols; writeCol++ ) {
+                int readCol = writeCol + readOrigin.x;
+                if (readCol + cellBuffer > tile.maxReadCol || readCol - cellBuffer < tile.minReadCol) {
+                    continue;
+                }
+                processCell(tile, readCol, readRow, writeCol, writeRow);
+            }
         }
 
         for( int i = 0; i < outRasterFiles.size(); i++ ) {
             File outputFile = outRasterFiles.get(i);
-            GridCoverage2D writeGC = outGridCoverages.get(i);
+            GridCoverage2D writeGC = tile.outGridCoverages.get(i);
             if (writeGC != null) {
                 File outParentFolder = outputFile.getParentFile();
                 if (outParentFolder == null || !outParentFolder.exists()) {
                     continue;
                 }
                 String outBaseName = FileUtilities.getNameWithoutExtention(outputFile);
-                File outTileFile = new File(outParentFolder, outBaseName + "_" + count + ".tiff");
+                File outTileFile = new File(outParentFolder, outBaseName + "_" + tile.getNumber() + ".tiff");
                 OmsRasterWriter writer = new OmsRasterWriter();
                 writer.pm = new DummyProgressMonitor();
                 writer.inRaster = writeGC;
@@ -347,18 +581,6 @@ public abstract class HMModelIM extends HMModel {
                 writer.process();
             }
         }
-
-    }
-
-    private void freeIterators() {
-        for( RandomIter inRasterIterator : inRasterIterators ) {
-            if (inRasterIterator != null)
-                inRasterIterator.done();
-        }
-        for( RandomIter outRasterIterator : outRasterIterators ) {
-            if (outRasterIterator != null)
-                outRasterIterator.done();
-        }
     }
 
     protected void makeMosaic() throws Exception {
@@ -403,10 +625,31 @@ public abstract class HMModelIM extends HMModel {
         }
     }
 
+    /**
+     * Process one cell of a tile.
+     * 
+     * <p>This is used when {@link #processByTileCells(int)} is called. Modules that
+     * take the data from the supplied tile, instead of the shared fields, can process 
+     * more tiles at the same time.
+     * <p>By default it calls {@link #processCell(int, int, int, int, int, int, int, int)}, 
+     * in which case the tiles are processed one at the time.
+     * 
+     * @param tile the current handled tile.
+     * @param readCol the column of the cell to read.
+     * @param readRow  the row of the cell to read.
+     * @param writeCol the column of the cell to write.
+     * @param writeRow the row of the cell to write.
+     */
+    protected void processCell( ImageMosaicTile tile, int readCol, int readRow, int writeCol, int writeRow ) {
+        processCell(readCol, readRow, writeCol, writeRow, tile.getReadCols(), tile.getReadRows(), tile.getWriteCols(),
+                tile.getWriteRows());
+    }
+
     /**
      * Process one cell.
      * 
-     * <p>This is used when {@link #processByTileCells()} is called.
+     * <p>This is used when {@link #processByTileCells()} is called and 
+     * {@link #processCell(ImageMosaicTile, int, int, int, int)} is not overridden.
      * 
      * @param readCol the column of the cell to read.
      * @param readRow  the row of the cell to read.
@@ -417,7 +660,182 @@ public abstract class HMModelIM extends HMModel {
      * @param writeCols the total columns of the current handled written tile.
      * @param writeRows the total rows of the current handled written tile.
      */
-    protected abstract void processCell( int readCol, int readRow, int writeCol, int writeRow, int readCols, int readRows,
-            int writeCols, int writeRows );
+    protected void processCell( int readCol, int readRow, int writeCol, int writeRow, int readCols, int readRows,
+            int writeCols, int writeRows ) {
+    }
+
+    /**
+     * The memory, in kilobytes, available to the tiles being processed and to the cached cores.
+     */
+    private static class MemoryBudget extends Semaphore {
+        private static final long serialVersionUID = 1L;
+        private final AtomicInteger tilesInProcess = new AtomicInteger();
+
+        MemoryBudget( int kb ) {
+            super(kb);
+        }
+
+        /**
+         * Takes memory for a tile, waiting as long as other tiles are processed and can 
+         * give it back. If no tile is processed, the memory is taken even if not available, 
+         * since nothing else would free it.
+         */
+        void acquireTile( int kb ) throws InterruptedException {
+            while( !tryAcquire(kb, 100, TimeUnit.MILLISECONDS) ) {
+                if (tilesInProcess.get() == 0) {
+                    reducePermits(kb);
+                    break;
+                }
+            }
+            tilesInProcess.incrementAndGet();
+        }
+
+        void releaseTile( int kb ) {
+            tilesInProcess.decrementAndGet();
+            release(kb);
+        }
+
+        /**
+         * Takes memory for data that are already read, without waiting.
+         */
+        void charge( int kb ) {
+            reducePermits(kb);
+        }
+    }
+
+    /**
+     * The tiles of a mosaic laid on a regular grid, with the cores of the read tiles
+     * cached until all their neighbours have been read.
+     * 
+     * <p>The cached cores are counted in the memory budget of the tiles.
+     */
+    private static class TilesGrid {
+        private final Map<Long, ImageMosaicTile> tilesByCell = new HashMap<Long, ImageMosaicTile>();
+        private final Map<Integer, int[]> cellsByTile = new HashMap<Integer, int[]>();
+        private final Map<Integer, Integer> pendingUses = new HashMap<Integer, Integer>();
+        private final Map<Integer, Raster[]> cores = new HashMap<Integer, Raster[]>();
+        private final Map<Integer, Integer> coresKb = new HashMap<Integer, Integer>();
+        private MemoryBudget memory;
+        private List<ImageMosaicTile> tilesInReadOrder;
+        private boolean enabled = true;
+
+        /**
+         * @return the grid or <code>null</code>, if the tiles are not on a regular grid
+         *          or they are smaller than the cell buffer.
+         */
+        static TilesGrid create( List<ImageMosaicTile> tiles, double xRes, double yRes, int cellBuffer,
+                MemoryBudget memory ) {
+            ImageMosaicTile firstTile = tiles.get(0);
+            int tileCols = firstTile.getWriteCols();
+            int tileRows = firstTile.getWriteRows();
+            if (cellBuffer > tileCols || cellBuffer > tileRows) {
+                return null;
+            }
+            double tileWidth = firstTile.getWriteEnvelope().getWidth();
+            double tileHeight = firstTile.getWriteEnvelope().getHeight();
+            Envelope allTilesEnv = new Envelope();
+            for( ImageMosaicTile tile : tiles ) {
+                allTilesEnv.expandToInclude(tile.getWriteEnvelope());
+            }
+
+            TilesGrid grid = new TilesGrid();
+            grid.memory = memory;
+            for( ImageMosaicTile tile : tiles ) {
+                Envelope env = tile.getWriteEnvelope();
+                if (tile.getWriteCols() != tileCols || tile.getWriteRows() != tileRows
+                        || Math.abs(env.getWidth() - tileWidth) > xRes / 2 || Math.abs(env.getHeight() - tileHeight) > yRes / 2) {
+                    return null;
+                }
+                double deltaX = env.getMinX() - allTilesEnv.getMinX();
+                double deltaY = allTilesEnv.getMaxY() - env.getMaxY();
+                int col = (int) Math.round(deltaX / tileWidth);
+                int row = (int) Math.round(deltaY / tileHeight);
+                if (Math.abs(col * tileWidth - deltaX) > xRes / 2 || Math.abs(row * tileHeight - deltaY) > yRes / 2) {
+                    return null;
+                }
+                if (grid.tilesByCell.put(key(col, row), tile) != null) {
+                    return null;
+                }
+                grid.cellsByTile.put(tile.getNumber(), new int[]{col, row});
+            }
+
+            for( ImageMosaicTile tile : tiles ) {
+                int uses = 0;
+                for( ImageMosaicTile neighbour : grid.getNeighbours(tile) ) {
+                    if (neighbour != null) {
+                        uses++;
+                    }
+                }
+                grid.pendingUses.put(tile.getNumber(), uses);
+            }
+
+            grid.tilesInReadOrder = new ArrayList<ImageMosaicTile>(tiles);
+            Collections.sort(grid.tilesInReadOrder, ( t1, t2 ) -> {
+                int[] cell1 = grid.cellsByTile.get(t1.getNumber());
+                int[] cell2 = grid.cellsByTile.get(t2.getNumber());
+                if (cell1[1] != cell2[1]) {
+                    return Integer.compare(cell1[1], cell2[1]);
+                }
+                return Integer.compare(cell1[0], cell2[0]);
+            });
+            return grid;
+        }
+
+        private static long key( int col, int row ) {
+            return ((long) row << 32) | (col & 0xffffffffL);
+        }
+
+        /**
+         * @return the 3x3 tiles around the tile, in row major order from north-west, with 
+         *          the tile itself in the center and <code>null</code> where there is no tile.
+         */
+        ImageMosaicTile[] getNeighbours( ImageMosaicTile tile ) {
+            int[] cell = cellsByTile.get(tile.getNumber());
+            ImageMosaicTile[] neighbours = new ImageMosaicTile[9];
+            for( int i = 0; i < neighbours.length; i++ ) {
+                neighbours[i] = tilesByCell.get(key(cell[0] + i % 3 - 1, cell[1] + i / 3 - 1));
+            }
+            return neighbours;
+        }
+
+        /**
+         * Caches the cores of a tile, taking their memory from the budget.
+         */
+        void putCores( ImageMosaicTile tile, Raster[] tileCores ) {
+            long bytes = 0;
+            for( Raster core : tileCores ) {
+                bytes += (long) core.getWidth() * core.getHeight() * core.getNumBands()
+                        * DataBuffer.getDataTypeSize(core.getDataBuffer().getDataType()) / 8;
+            }
+            int kb = (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes / 1024));
+            memory.charge(kb);
+            cores.put(tile.getNumber(), tileCores);
+            coresKb.put(tile.getNumber(), kb);
+        }
+
+        /**
+         * Marks one use of the core of the tile, dropping it after the last one.
+         */
+        void release( ImageMosaicTile tile ) {
+            int uses = pendingUses.get(tile.getNumber()) - 1;
+            pendingUses.put(tile.getNumber(), uses);
+            if (uses <= 0) {
+                removeCores(tile.getNumber());
+            }
+        }
+
+        void disable() {
+            enabled = false;
+            for( Integer number : new ArrayList<Integer>(cores.keySet()) ) {
+                removeCores(number);
+            }
+        }
+
+        private void removeCores( Integer number ) {
+            if (cores.remove(number) != null) {
+                memory.release(coresKb.remove(number));
+            }
+        }
+    }
 
 }
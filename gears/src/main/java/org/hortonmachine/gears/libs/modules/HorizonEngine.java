@@ -0,0 +1,311 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.libs.modules;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
+
+/**
+ * Calculates the horizon of every cell of a dem for a fixed set of azimuths.
+ *
+ * <p>For every azimuth the tangent of the horizon angle is the maximum of
+ * <code>(z - z0) / distance</code> over the cells met walking from the cell in the
+ * direction of the azimuth. Outside the dem the horizon is assumed to be flat, so the
+ * tangent is never smaller than 0.</p>
+ *
+ * <p>The horizon of an azimuth is calculated when first needed and kept in a cache that 
+ * holds a limited number of azimuths (by default as many as fit in a quarter of the 
+ * heap), so that the memory needed for large dems doesn't grow with the number of 
+ * azimuths. Sun positions should therefore be processed by azimuth, see 
+ * {@link #getSector(double)}. Once calculated, shadows for any sun position can be 
+ * evaluated cheaply, also from several threads.</p>
+ *
+ * <p>Azimuths are in radians, clockwise from north, elevations in radians above the horizontal.
+ * All data are kept in primitive row-major arrays (<code>index = row * cols + col</code>).</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class HorizonEngine {
+
+    private final double[] elev;
+    private final int cols;
+    private final int rows;
+    private final double xRes;
+    private final double yRes;
+    private final int azimuthsCount;
+    private final double azimuthStep;
+    private final double maxElev;
+
+    /**
+     * The horizon tangents of the last used azimuths, one row-major array per azimuth.
+     */
+    private final LinkedHashMap<Integer, float[]> horizonTans;
+
+    /**
+     * The horizon of the cells for a direction, interpolated between the two closest 
+     * azimuths of the engine.
+     */
+    public static class Horizon {
+        private final float[] tans0;
+        private final float[] tans1;
+        private final double weight;
+
+        private Horizon( float[] tans0, float[] tans1, double weight ) {
+            this.tans0 = tans0;
+            this.tans1 = tans1;
+            this.weight = weight;
+        }
+
+        /**
+         * @param index the row-major index of the cell.
+         * @return the tangent of the horizon angle or <code>NaN</code> for novalue cells.
+         */
+        public double getTan( int index ) {
+            return (1 - weight) * tans0[index] + weight * tans1[index];
+        }
+
+        /**
+         * Checks if a cell is in the shadow of the surrounding terrain.
+         *
+         * @param index the row-major index of the cell.
+         * @param elevation the sun elevation in radians.
+         * @return <code>true</code> if the sun is below the horizon of the cell.
+         */
+        public boolean isShadowed( int index, double elevation ) {
+            if (elevation <= 0) {
+                return true;
+            }
+            return Math.tan(elevation) < getTan(index);
+        }
+    }
+
+    /**
+     * Constructor, with a cache of as many azimuths as fit in a quarter of the heap.
+     *
+     * @param elev the elevations in row-major order. Novalues are <code>NaN</code>.
+     * @param cols the cols of the map.
+     * @param rows the rows of the map.
+     * @param xRes the x resolution.
+     * @param yRes the y resolution.
+     * @param azimuthsCount the number of azimuths, evenly spaced starting from north.
+     */
+    public HorizonEngine( double[] elev, int cols, int rows, double xRes, double yRes, int azimuthsCount ) {
+        this(elev, cols, rows, xRes, yRes, azimuthsCount,
+                (int) Math.min(azimuthsCount, Runtime.getRuntime().maxMemory() / 4 / (4L * cols * rows)));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param elev the elevations in row-major order. Novalues are <code>NaN</code>.
+     * @param cols the cols of the map.
+     * @param rows the rows of the map.
+     * @param xRes the x resolution.
+     * @param yRes the y resolution.
+     * @param azimuthsCount the number of azimuths, evenly spaced starting from north.
+     * @param cachedAzimuths the maximum number of azimuths to keep in memory, at least 2 are kept.
+     */
+    public HorizonEngine( double[] elev, int cols, int rows, double xRes, double yRes, int azimuthsCount,
+            int cachedAzimuths ) {
+        if (elev.length < cols * rows) {
+            throw new IllegalArgumentException("The elevation array is smaller than the raster: " + elev.length);
+        }
+        if (azimuthsCount < 1) {
+            throw new IllegalArgumentException("The number of azimuths needs to be positive: " + azimuthsCount);
+        }
+        this.elev = elev;
+        this.cols = cols;
+        this.rows = rows;
+        this.xRes = xRes;
+        this.yRes = yRes;
+        this.azimuthsCount = azimuthsCount;
+        azimuthStep = 2 * Math.PI / azimuthsCount;
+
+        double max = Double.NEGATIVE_INFINITY;
+        for( int i = 0; i < cols * rows; i++ ) {
+            if (elev[i] > max) {
+                max = elev[i];
+            }
+        }
+        maxElev = max;
+
+        int maxCached = Math.max(2, cachedAzimuths);
+        horizonTans = new LinkedHashMap<Integer, float[]>(16, 0.75f, true){
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<Integer, float[]> eldest ) {
+                return size() > maxCached;
+            }
+        };
+    }
+
+    /**
+     * @return the number of azimuths of the engine.
+     */
+    public int getAzimuthsCount() {
+        return azimuthsCount;
+    }
+
+    /**
+     * Get the sector of a direction, i.e. the index of the closest azimuth of the engine 
+     * counterclockwise. The directions of a sector share the horizons they are interpolated 
+     * from, so processing the directions by sector calculates every azimuth only once.
+     *
+     * @param azimuth the azimuth in radians, clockwise from north.
+     * @return the sector, between 0 and {@link #getAzimuthsCount()} - 1.
+     */
+    public int getSector( double azimuth ) {
+        int sector = (int) Math.floor(azimuth / azimuthStep) % azimuthsCount;
+        return sector < 0 ? sector + azimuthsCount : sector;
+    }
+
+    /**
+     * Get the horizon of the cells for a direction, calculating the needed azimuths if 
+     * they are not cached.
+     *
+     * @param azimuth the azimuth in radians, clockwise from north.
+     * @param planner the planner to use for the parallel mode, or <code>null</code> for the sequential one.
+     * @return the horizon.
+     * @throws Exception
+     */
+    public Horizon getHorizon( double azimuth, ExecutionPlanner planner ) throws Exception {
+        int a0 = getSector(azimuth);
+        int a1 = (a0 + 1) % azimuthsCount;
+        double position = azimuth / azimuthStep;
+        double weight = position - Math.floor(position);
+        return new Horizon(getHorizonTans(a0, planner), getHorizonTans(a1, planner), weight);
+    }
+
+    /**
+     * Get the horizon tangents of an azimuth of the engine, calculating them if they are not cached.
+     *
+     * @param azimuthIndex the index of the azimuth, between 0 and {@link #getAzimuthsCount()} - 1.
+     * @param planner the planner to use for the parallel mode, or <code>null</code> for the sequential one.
+     * @return the tangents of the horizon angle in row-major order, <code>NaN</code> for novalue cells.
+     * @throws Exception
+     */
+    public synchronized float[] getHorizonTans( int azimuthIndex, ExecutionPlanner planner ) throws Exception {
+        float[] tans = horizonTans.get(azimuthIndex);
+        if (tans == null) {
+            tans = calculateAzimuth(azimuthIndex, planner);
+            horizonTans.put(azimuthIndex, tans);
+        }
+        return tans;
+    }
+
+    /**
+     * Calculates the skyview factor as the mean over the azimuths of <code>cos^2</code> of the horizon angle.
+     * 
+     * <p>The azimuths are calculated one at a time and not cached.</p>
+     *
+     * @param planner the planner to use for the parallel mode, or <code>null</code> for the sequential one.
+     * @return the skyview factor in row-major order, <code>NaN</code> for novalue cells.
+     * @throws Exception
+     */
+    public double[] skyviewFactor( ExecutionPlanner planner ) throws Exception {
+        int size = cols * rows;
+        double[] skyview = new double[size];
+        for( int a = 0; a < azimuthsCount; a++ ) {
+            float[] tans;
+            synchronized (this) {
+                tans = horizonTans.get(a);
+            }
+            if (tans == null) {
+                tans = calculateAzimuth(a, planner);
+            }
+            for( int i = 0; i < size; i++ ) {
+                // cos^2(atan(t)) = 1 / (1 + t^2)
+                double tan = tans[i];
+                skyview[i] += 1.0 / (1.0 + tan * tan);
+            }
+        }
+        for( int i = 0; i < size; i++ ) {
+            skyview[i] /= azimuthsCount;
+        }
+        return skyview;
+    }
+
+    private float[] calculateAzimuth( int azimuthIndex, ExecutionPlanner planner ) throws Exception {
+        int maxSteps = Math.max(cols, rows);
+        double azimuth = azimuthIndex * azimuthStep;
+        double dCol = Math.sin(azimuth);
+        double dRow = -Math.cos(azimuth);
+        double m = Math.max(Math.abs(dCol), Math.abs(dRow));
+        int[] colOffsets = new int[maxSteps];
+        int[] rowOffsets = new int[maxSteps];
+        double[] distances = new double[maxSteps];
+        for( int s = 0; s < maxSteps; s++ ) {
+            int oc = (int) Math.round((s + 1) * dCol / m);
+            int or = (int) Math.round((s + 1) * dRow / m);
+            colOffsets[s] = oc;
+            rowOffsets[s] = or;
+            distances[s] = Math.sqrt(oc * xRes * oc * xRes + or * yRes * or * yRes);
+        }
+
+        float[] tans = new float[cols * rows];
+        if (planner == null) {
+            for( int r = 0; r < rows; r++ ) {
+                calculateRow(r, tans, colOffsets, rowOffsets, distances);
+            }
+        } else {
+            planner.setNumberOfTasks(rows);
+            for( int r = 0; r < rows; r++ ) {
+                int row = r;
+                planner.submit(() -> calculateRow(row, tans, colOffsets, rowOffsets, distances));
+            }
+            planner.join();
+        }
+        return tans;
+    }
+
+    private void calculateRow( int r, float[] tans, int[] oc, int[] or, double[] dist ) {
+        for( int c = 0; c < cols; c++ ) {
+            int index = r * cols + c;
+            double z0 = elev[index];
+            if (Double.isNaN(z0)) {
+                tans[index] = Float.NaN;
+                continue;
+            }
+            double best = 0;
+            for( int s = 0; s < oc.length; s++ ) {
+                int col = c + oc[s];
+                int row = r + or[s];
+                if (col < 0 || col >= cols || row < 0 || row >= rows) {
+                    break;
+                }
+                // no cell further away can rise above the current horizon
+                if ((maxElev - z0) <= best * dist[s]) {
+                    break;
+                }
+                double z = elev[row * cols + col];
+                if (Double.isNaN(z)) {
+                    continue;
+                }
+                double tan = (z - z0) / dist[s];
+                if (tan > best) {
+                    best = tan;
+                }
+            }
+            tans[index] = (float) best;
+        }
+    }
+
+}
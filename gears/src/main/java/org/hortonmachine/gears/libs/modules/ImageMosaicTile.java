@@ -0,0 +1,187 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.libs.modules;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.media.jai.iterator.RandomIter;
+import javax.media.jai.iterator.WritableRandomIter;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * A tile of an imagemosaic processed by a {@link HMModelIM}.
+ * 
+ * <p>The tile holds the data read for it, enlarged by the cell buffer of the module,
+ * and the data written for it, so that different tiles can be processed at the
+ * same time.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class ImageMosaicTile {
+
+    private final int number;
+    private final Geometry boundsGeometry;
+    private final Envelope writeEnvelope;
+    private final int writeCols;
+    private final int writeRows;
+
+    GridGeometry2D writeGridGeometry;
+    GridGeometry2D readGridGeometry;
+    int readCols;
+    int readRows;
+
+    /*
+     * the range of read cells that have valid data all around them
+     */
+    int minReadCol;
+    int maxReadCol;
+    int minReadRow;
+    int maxReadRow;
+
+    final List<GridCoverage2D> inRasters = new ArrayList<GridCoverage2D>();
+    final List<RandomIter> inRasterIterators = new ArrayList<RandomIter>();
+    final List<GridCoverage2D> outGridCoverages = new ArrayList<GridCoverage2D>();
+    final List<WritableRandomIter> outRasterIterators = new ArrayList<WritableRandomIter>();
+
+    ImageMosaicTile( int number, Geometry boundsGeometry, double xRes, double yRes ) {
+        this.number = number;
+        this.boundsGeometry = boundsGeometry;
+        writeEnvelope = boundsGeometry.getEnvelopeInternal();
+        writeCols = (int) (writeEnvelope.getWidth() / xRes);
+        writeRows = (int) (writeEnvelope.getHeight() / yRes);
+    }
+
+    /**
+     * @return the number of the tile, starting from 1, as used in the names of the written tiles.
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    /**
+     * @return the geometry of the tile in the mosaic index.
+     */
+    public Geometry getBoundsGeometry() {
+        return boundsGeometry;
+    }
+
+    /**
+     * @return the envelope of the written tile.
+     */
+    public Envelope getWriteEnvelope() {
+        return writeEnvelope;
+    }
+
+    public int getWriteCols() {
+        return writeCols;
+    }
+
+    public int getWriteRows() {
+        return writeRows;
+    }
+
+    public int getReadCols() {
+        return readCols;
+    }
+
+    public int getReadRows() {
+        return readRows;
+    }
+
+    public GridGeometry2D getWriteGridGeometry() {
+        return writeGridGeometry;
+    }
+
+    /**
+     * @return the grid geometry of the read data, including the cell buffer.
+     */
+    public GridGeometry2D getReadGridGeometry() {
+        return readGridGeometry;
+    }
+
+    /**
+     * @param index the index of the source, in the order they were added.
+     * @return the read coverage of the source.
+     */
+    public GridCoverage2D getInRaster( int index ) {
+        return inRasters.get(index);
+    }
+
+    /**
+     * @param index the index of the source, in the order they were added.
+     * @return the iterator over the read data of the source.
+     */
+    public RandomIter getInRasterIterator( int index ) {
+        return inRasterIterators.get(index);
+    }
+
+    /**
+     * @param index the index of the destination, in the order they were added.
+     * @return the coverage to write, or <code>null</code> if the destination has no existing folder.
+     */
+    public GridCoverage2D getOutGridCoverage( int index ) {
+        return outGridCoverages.get(index);
+    }
+
+    /**
+     * @param index the index of the destination, in the order they were added.
+     * @return the iterator over the data to write, or <code>null</code> if the destination has no existing folder.
+     */
+    public WritableRandomIter getOutRasterIterator( int index ) {
+        return outRasterIterators.get(index);
+    }
+
+    /**
+     * Estimates the memory used by the tile while it is processed.
+     * 
+     * @param sourcesCount the number of read sources.
+     * @param destinationsCount the number of written destinations.
+     * @param cellBuffer the cell buffer around the read tile.
+     * @return the estimated bytes, considering double values.
+     */
+    long estimateBytes( int sourcesCount, int destinationsCount, int cellBuffer ) {
+        long readCells = (long) (writeCols + 2 * cellBuffer) * (writeRows + 2 * cellBuffer);
+        long writeCells = (long) writeCols * writeRows;
+        return (sourcesCount * readCells + destinationsCount * writeCells) * Double.BYTES;
+    }
+
+    /**
+     * Frees the iterators and drops the data of the tile.
+     */
+    void free() {
+        for( RandomIter inRasterIterator : inRasterIterators ) {
+            if (inRasterIterator != null)
+                inRasterIterator.done();
+        }
+        for( RandomIter outRasterIterator : outRasterIterators ) {
+            if (outRasterIterator != null)
+                outRasterIterator.done();
+        }
+        inRasterIterators.clear();
+        inRasters.clear();
+        outRasterIterators.clear();
+        outGridCoverages.clear();
+    }
+
+}
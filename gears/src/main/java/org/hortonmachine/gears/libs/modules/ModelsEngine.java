@@ -50,6 +50,8 @@ import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.geometry.DirectPosition2D;
 import org.hortonmachine.gears.i18n.GearsMessageHandler;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
+import org.hortonmachine.gears.libs.exceptions.ModelsRuntimeException;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
 import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
@@ -1107,7 +1109,8 @@ public class ModelsEngine {
     /**
      * Calculates the sum of the values of a specified quantity from every point to the outlet.
      *
-     * <p>During the calculation the drainage directions are followed.</p>
+     * <p>During the calculation the drainage directions are followed. The sum is done
+     * in a single topological pass by the {@link FlowAccumulationEngine}.</p>
      *
      * @param flowIter the map of flowdirections.
      * @param mapToSumIter the map for which to sum downstream.
@@ -1120,10 +1123,6 @@ public class ModelsEngine {
      */
     public static WritableRaster sumDownstream( RandomIter flowIter, RandomIter mapToSumIter, int width, int height,
             Double upperThreshold, Double lowerThreshold, IHMProgressMonitor pm ) {
-        final int[] point = new int[2];
-        WritableRaster summedMapWR = CoverageUtilities.createWritableRaster(width, height, null, null, null);
-        WritableRandomIter summedMapIter = RandomIterFactory.createWritable(summedMapWR, null);
-
         double uThres = Double.POSITIVE_INFINITY;
         if (upperThreshold != null) {
             uThres = upperThreshold;
@@ -1134,55 +1133,36 @@ public class ModelsEngine {
         }
 
         pm.beginTask("Calculating downstream sum...", height);
+        int[] flow = new int[width * height];
+        double[] weights = new double[width * height];
+        int index = 0;
         for( int r = 0; r < height; r++ ) {
             for( int c = 0; c < width; c++ ) {
+                double flowValue = flowIter.getSampleDouble(c, r, 0);
                 double mapToSumValue = mapToSumIter.getSampleDouble(c, r, 0);
-                if (!isNovalue(flowIter.getSampleDouble(c, r, 0)) && //
-                        mapToSumValue < uThres && //
-                        mapToSumValue > lThres //
-                ) {
-                    point[0] = c;
-                    point[1] = r;
-                    while( flowIter.getSampleDouble(point[0], point[1], 0) < 9 && //
-                            !isNovalue(flowIter.getSampleDouble(point[0], point[1], 0))
-                            && (checkRange(mapToSumIter.getSampleDouble(point[0], point[1], 0), uThres, lThres)) ) {
-
-                        double sumValue = summedMapIter.getSampleDouble(point[0], point[1], 0)
-                                + mapToSumIter.getSampleDouble(c, r, 0);
-
-                        summedMapIter.setSample(point[0], point[1], 0, sumValue);
-
-                        // FlowNode flowNode = new FlowNode(flowIter, width, height, point[0],
-                        // point[1]);
-                        // FlowNode downStreamNode = flowNode.goDownstream();
-                        // if (downStreamNode != null) {
-                        // if (!downStreamNode.isMarkedAsOutlet()) {
-                        // point[0] = downStreamNode.col;
-                        // point[1] = downStreamNode.row;
-                        // }
-                        // } else {
-                        // return null;
-                        // }
-                        if (!go_downstream(point, flowIter.getSampleDouble(point[0], point[1], 0)))
-                            return null;
-                    }
-
-                    if (!isNovalue(flowIter.getSampleDouble(point[0], point[1], 0))) {
-                        double summedMapValue = summedMapIter.getSampleDouble(point[0], point[1], 0);
-                        if (!isNovalue(summedMapValue)) {
-                            double sumValue = summedMapValue + mapToSumIter.getSampleDouble(c, r, 0);
-                            summedMapIter.setSample(point[0], point[1], 0, sumValue);
-                        }
-                    }
+                if (isNovalue(flowValue)) {
+                    flow[index] = intNovalue;
+                    weights[index] = doubleNovalue;
                 } else {
-                    summedMapIter.setSample(c, r, 0, doubleNovalue);
+                    flow[index] = (int) flowValue;
+                    weights[index] = checkRange(mapToSumValue, uThres, lThres) ? mapToSumValue : doubleNovalue;
                 }
+                index++;
             }
             pm.worked(1);
         }
         pm.done();
 
-        return summedMapWR;
+        double[] summed;
+        try {
+            summed = new FlowAccumulationEngine(flow, width, height).accumulate(weights, null);
+        } catch (IllegalArgumentException e) {
+            // unknown flowdirection value
+            return null;
+        } catch (Exception e) {
+            throw new ModelsRuntimeException(e.getLocalizedMessage(), "ModelsEngine");
+        }
+        return CoverageUtilities.rowMajorDoubleArray2WritableRaster(summed, width, height);
     }
 
     private static boolean checkRange( double value, double upper, double lower ) {
@@ -1234,7 +1214,7 @@ public class ModelsEngine {
         return c;
     }
     /**
-    * Evaluate the shadow map calling the shadow method.
+    * Evaluate the shadow map through the {@link ShadowEngine}.
     *
     * @param h
     *            the height of the raster.
@@ -1251,97 +1231,34 @@ public class ModelsEngine {
     */
     public static WritableRaster calculateFactor( int h, int w, double[] sunVector, double[] inverseSunVector,
             double[] normalSunVector, WritableRaster demWR, double dx ) {
-
-        double casx = 1e6 * sunVector[0];
-        double casy = 1e6 * sunVector[1];
-        int f_i = 0;
-        int f_j = 0;
-
-        if (casx <= 0) {
-            f_i = 0;
-        } else {
-            f_i = w - 1;
-        }
-
-        if (casy <= 0) {
-            f_j = 0;
-        } else {
-            f_j = h - 1;
-        }
-
-        WritableRaster sOmbraWR = CoverageUtilities.createWritableRaster(w, h, null, null, 1.0);
-        int j = f_j;
-        for( int i = 0; i < sOmbraWR.getWidth(); i++ ) {
-            shadow(i, j, sOmbraWR, demWR, dx, normalSunVector, inverseSunVector);
-        }
-        int i = f_i;
-        for( int k = 0; k < sOmbraWR.getHeight(); k++ ) {
-            shadow(i, k, sOmbraWR, demWR, dx, normalSunVector, inverseSunVector);
+        try {
+            return calculateFactor(h, w, sunVector, demWR, dx, null);
+        } catch (Exception e) {
+            throw new ModelsRuntimeException(e.getLocalizedMessage(), "ModelsEngine");
         }
-        return sOmbraWR;
     }
 
     /**
-     * Evaluate the shadow map.
+     * Evaluate the shadow map through the {@link ShadowEngine}.
      *
-     * @param i
-     *            the x axis index.
-     * @param j
-     *            the y axis index.
-     * @param tmpWR
-     *            the output shadow map.
-     * @param demWR
-     *            the elevation map.
-     * @param res
-     *            the resolution of the elevation map.
-     * @param normalSunVector
-     * @param inverseSunVector
-     * @return
+     * @param h the height of the raster.
+     * @param w the width of the raster.
+     * @param sunVector the sun vector.
+     * @param demWR the elevation map.
+     * @param dx the resolution of the elevation map.
+     * @param planner the planner to trace the rays in parallel, or <code>null</code> for the sequential mode.
+     * @return the shadow map, with 1 for the lit cells and 0 for the shadowed ones.
+     * @throws Exception
      */
-    private static WritableRaster shadow( int i, int j, WritableRaster tmpWR, WritableRaster demWR, double res,
-            double[] normalSunVector, double[] inverseSunVector ) {
-        int n = 0;
-        double zcompare = -Double.MAX_VALUE;
-        double dx = (inverseSunVector[0] * n);
-        double dy = (inverseSunVector[1] * n);
-        int nCols = tmpWR.getWidth();
-        int nRows = tmpWR.getHeight();
-        int idx = (int) Math.round(i + dx);
-        int jdy = (int) Math.round(j + dy);
-        double vectorToOrigin[] = new double[3];
-        while( idx >= 0 && idx <= nCols - 1 && jdy >= 0 && jdy <= nRows - 1 ) {
-            vectorToOrigin[0] = dx * res;
-            vectorToOrigin[1] = dy * res;
-
-            int tmpY = (int) (j + dy);
-            if (tmpY < 0) {
-                tmpY = 0;
-            } else if (tmpY > nRows) {
-                tmpY = nRows - 1;
-            }
-            int tmpX = (int) (i + dx);
-            if (tmpX < 0) {
-                tmpX = 0;
-            } else if (tmpY > nCols) {
-                tmpX = nCols - 1;
-            }
-            vectorToOrigin[2] = demWR.getSampleDouble(idx, jdy, 0);
-            // vectorToOrigin[2] = (pitRandomIter.getSampleDouble(idx, jdy, 0) +
-            // pitRandomIter
-            // .getSampleDouble(tmpX, tmpY, 0)) / 2;
-            double zprojection = scalarProduct(vectorToOrigin, normalSunVector);
-            if ((zprojection < zcompare)) {
-                tmpWR.setSample(idx, jdy, 0, 0);
-            } else {
-                zcompare = zprojection;
-            }
-            n = n + 1;
-            dy = (inverseSunVector[1] * n);
-            dx = (inverseSunVector[0] * n);
-            idx = (int) Math.round(i + dx);
-            jdy = (int) Math.round(j + dy);
+    public static WritableRaster calculateFactor( int h, int w, double[] sunVector, WritableRaster demWR, double dx,
+            ExecutionPlanner planner ) throws Exception {
+        double[] elev = demWR.getSamples(demWR.getMinX(), demWR.getMinY(), w, h, 0, (double[]) null);
+        byte[] shadow = new ShadowEngine(elev, w, h, dx).shadow(sunVector, planner);
+        double[] factor = new double[shadow.length];
+        for( int i = 0; i < shadow.length; i++ ) {
+            factor[i] = shadow[i];
         }
-        return tmpWR;
+        return CoverageUtilities.rowMajorDoubleArray2WritableRaster(factor, w, h);
     }
 
     /**
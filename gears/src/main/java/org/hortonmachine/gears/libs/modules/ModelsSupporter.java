@@ -21,10 +21,15 @@ package org.hortonmachine.gears.libs.modules;
 import java.lang.reflect.Field;
 import java.util.Collection;
 
+import org.hortonmachine.gears.libs.monitor.ModuleMetrics;
+
 import oms3.Access;
 import oms3.ComponentAccess;
 import oms3.annotations.Author;
 import oms3.annotations.Description;
+import oms3.annotations.Execute;
+import oms3.annotations.Finalize;
+import oms3.annotations.Initialize;
 import oms3.annotations.Keywords;
 import oms3.annotations.License;
 import oms3.annotations.Name;
@@ -371,6 +376,30 @@ public class ModelsSupporter {
         return sb.toString();
     }
 
+    /**
+     * Runs a module recording its execution metrics.
+     * 
+     * <p>The {@link Initialize}, {@link Execute} and {@link Finalize} methods 
+     * are called and the metrics are sent to the collector of the module, if one is set.
+     * If the run fails, no metrics are collected.</p>
+     * 
+     * @param model the module, with its inputs already set.
+     * @return the metrics of the run.
+     * @throws Exception
+     */
+    public static ModuleMetrics runWithMetrics( HMModel model ) throws Exception {
+        model.startMetrics();
+        try {
+            ComponentAccess.callAnnotated(model, Initialize.class, true);
+            ComponentAccess.callAnnotated(model, Execute.class, false);
+            ComponentAccess.callAnnotated(model, Finalize.class, true);
+        } catch (Exception e) {
+            model.discardMetrics();
+            throw e;
+        }
+        return model.stopMetrics();
+    }
+
     public static String generateTemplate( Object parent ) {
         Class< ? > class1 = parent.getClass();
         String name = class1.getSimpleName();
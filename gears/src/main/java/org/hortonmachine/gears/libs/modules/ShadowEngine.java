@@ -0,0 +1,285 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.libs.modules;
+
+import java.util.Arrays;
+
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
+
+/**
+ * Calculates the cast shadows of a dem for a sun direction.
+ *
+ * <p>A ray starts from every cell of the border facing the sun and walks the dem in the
+ * direction opposite to the sun, one cell per step along the dominant axis. Along the ray
+ * the cells are projected on the normal to the sun vector: a cell whose projection is lower
+ * than the highest one met before is in shadow.</p>
+ *
+ * <p>The rays are independent and are processed in parallel. They only ever mark cells as
+ * shadowed in a shared <code>byte[]</code> map, so the result does not depend on the order
+ * in which the rays are processed.</p>
+ *
+ * <p>For dems that don't fit in memory, {@link #shadow(double[], int, RowsReader, RowsWriter, ExecutionPlanner)}
+ * sweeps the dem in bands of rows in the direction of the rays, keeping in memory only
+ * one band and the state of the rays.</p>
+ *
+ * <p>All data are kept in primitive row-major arrays (<code>index = row * cols + col</code>).</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class ShadowEngine {
+
+    /**
+     * Value of the lit cells in the shadow map.
+     */
+    public static final byte LIT = 1;
+
+    /**
+     * Value of the shadowed cells in the shadow map.
+     */
+    public static final byte SHADOW = 0;
+
+    /**
+     * The number of rays processed by a single task.
+     */
+    private static final int RAYS_PER_TASK = 256;
+
+    /**
+     * Reads a band of rows of the dem.
+     */
+    @FunctionalInterface
+    public interface RowsReader {
+        /**
+         * @param fromRow the first row to read.
+         * @param toRow the row after the last row to read.
+         * @param elev the array to fill with the elevations of the rows, in row-major order.
+         * @throws Exception
+         */
+        void readRows( int fromRow, int toRow, double[] elev ) throws Exception;
+    }
+
+    /**
+     * Receives a band of rows of the shadow map, once all the rays have crossed it.
+     */
+    @FunctionalInterface
+    public interface RowsWriter {
+        /**
+         * @param fromRow the first row of the band.
+         * @param toRow the row after the last row of the band.
+         * @param shadow the {@link #LIT} or {@link #SHADOW} values of the rows, in row-major order.
+         * @throws Exception
+         */
+        void writeRows( int fromRow, int toRow, byte[] shadow ) throws Exception;
+    }
+
+    private final double[] elev;
+    private final int cols;
+    private final int rows;
+    private final double res;
+
+    /**
+     * Constructor for dems held in memory.
+     *
+     * @param elev the elevations in row-major order.
+     * @param cols the cols of the map.
+     * @param rows the rows of the map.
+     * @param res the resolution of the map.
+     */
+    public ShadowEngine( double[] elev, int cols, int rows, double res ) {
+        if (elev.length < cols * rows) {
+            throw new IllegalArgumentException("The elevation array is smaller than the raster: " + elev.length);
+        }
+        this.elev = elev;
+        this.cols = cols;
+        this.rows = rows;
+        this.res = res;
+    }
+
+    /**
+     * Constructor for dems read by bands of rows.
+     *
+     * @param cols the cols of the map.
+     * @param rows the rows of the map.
+     * @param res the resolution of the map.
+     * @see #shadow(double[], int, RowsReader, RowsWriter, ExecutionPlanner)
+     */
+    public ShadowEngine( int cols, int rows, double res ) {
+        this.elev = null;
+        this.cols = cols;
+        this.rows = rows;
+        this.res = res;
+    }
+
+    /**
+     * Calculates the shadow map of the dem held in memory.
+     *
+     * @param sunVector the sun vector.
+     * @param planner the planner to use for the parallel mode, or <code>null</code> for the sequential one.
+     * @return the {@link #LIT} or {@link #SHADOW} values in row-major order.
+     * @throws Exception
+     */
+    public byte[] shadow( double[] sunVector, ExecutionPlanner planner ) throws Exception {
+        if (elev == null) {
+            throw new IllegalStateException("The engine has no dem in memory, use the version reading by bands of rows.");
+        }
+        byte[] shadow = new byte[cols * rows];
+        Arrays.fill(shadow, LIT);
+        Rays rays = new Rays(sunVector);
+        advanceRays(rays, elev, 0, rows, shadow, planner);
+        return shadow;
+    }
+
+    /**
+     * Calculates the shadow map reading the dem by bands of rows.
+     *
+     * <p>The bands are read and written in the direction of the rays, so from the
+     * last to the first row if the sun is in the south.</p>
+     *
+     * @param sunVector the sun vector.
+     * @param bandRows the number of rows of a band.
+     * @param reader the reader of the elevation bands.
+     * @param writer the receiver of the shadow bands.
+     * @param planner the planner to use for the parallel mode, or <code>null</code> for the sequential one.
+     * @throws Exception
+     */
+    public void shadow( double[] sunVector, int bandRows, RowsReader reader, RowsWriter writer, ExecutionPlanner planner )
+            throws Exception {
+        if (bandRows < 1) {
+            throw new IllegalArgumentException("The band needs at least one row: " + bandRows);
+        }
+        Rays rays = new Rays(sunVector);
+        int bandsCount = (rows + bandRows - 1) / bandRows;
+        boolean downwards = rays.inverse1 >= 0;
+        double[] band = new double[bandRows * cols];
+        byte[] shadow = new byte[bandRows * cols];
+        for( int b = 0; b < bandsCount; b++ ) {
+            int bandIndex = downwards ? b : bandsCount - 1 - b;
+            int fromRow = bandIndex * bandRows;
+            int toRow = Math.min(fromRow + bandRows, rows);
+            int bandSize = (toRow - fromRow) * cols;
+            reader.readRows(fromRow, toRow, band);
+            Arrays.fill(shadow, 0, bandSize, LIT);
+            advanceRays(rays, band, fromRow, toRow, shadow, planner);
+            writer.writeRows(fromRow, toRow, shadow);
+        }
+    }
+
+    private void advanceRays( Rays rays, double[] band, int fromRow, int toRow, byte[] shadow, ExecutionPlanner planner )
+            throws Exception {
+        int raysCount = rays.count;
+        if (planner == null) {
+            rays.advance(0, raysCount, band, fromRow, toRow, shadow);
+            return;
+        }
+        planner.setNumberOfTasks((raysCount + RAYS_PER_TASK - 1) / RAYS_PER_TASK);
+        for( int r = 0; r < raysCount; r += RAYS_PER_TASK ) {
+            int from = r;
+            int to = Math.min(r + RAYS_PER_TASK, raysCount);
+            planner.submit(() -> rays.advance(from, to, band, fromRow, toRow, shadow));
+        }
+        planner.join();
+    }
+
+    /**
+     * The state of the rays, which is kept between the bands.
+     */
+    private class Rays {
+        final int count;
+        final int[] startCol;
+        final int[] startRow;
+        final int[] step;
+        final double[] zcompare;
+        final boolean[] done;
+
+        final double inverse0;
+        final double inverse1;
+        final double normal0;
+        final double normal1;
+        final double normal2;
+
+        Rays( double[] sunVector ) {
+            double[] inverseSunVector = ModelsEngine.calcInverseSunVector(sunVector);
+            double[] normalSunVector = ModelsEngine.calcNormalSunVector(sunVector);
+            inverse0 = inverseSunVector[0];
+            inverse1 = inverseSunVector[1];
+            normal0 = normalSunVector[0];
+            normal1 = normalSunVector[1];
+            normal2 = normalSunVector[2];
+
+            // the rays start from the row and the col of the border facing the sun
+            int firstCol = 1e6 * sunVector[0] <= 0 ? 0 : cols - 1;
+            int firstRow = 1e6 * sunVector[1] <= 0 ? 0 : rows - 1;
+            count = cols + rows;
+            startCol = new int[count];
+            startRow = new int[count];
+            for( int c = 0; c < cols; c++ ) {
+                startCol[c] = c;
+                startRow[c] = firstRow;
+            }
+            for( int r = 0; r < rows; r++ ) {
+                startCol[cols + r] = firstCol;
+                startRow[cols + r] = r;
+            }
+            step = new int[count];
+            zcompare = new double[count];
+            Arrays.fill(zcompare, -Double.MAX_VALUE);
+            done = new boolean[count];
+        }
+
+        /**
+         * Walks the rays as long as they stay in the band.
+         */
+        void advance( int fromRay, int toRay, double[] band, int fromRow, int toRow, byte[] shadow ) {
+            for( int ray = fromRay; ray < toRay; ray++ ) {
+                if (done[ray]) {
+                    continue;
+                }
+                int i = startCol[ray];
+                int j = startRow[ray];
+                int n = step[ray];
+                double zmax = zcompare[ray];
+                double dx = inverse0 * n;
+                double dy = inverse1 * n;
+                int idx = (int) Math.round(i + dx);
+                int jdy = (int) Math.round(j + dy);
+                boolean paused = false;
+                while( idx >= 0 && idx <= cols - 1 && jdy >= 0 && jdy <= rows - 1 ) {
+                    if (jdy < fromRow || jdy >= toRow) {
+                        paused = true;
+                        break;
+                    }
+                    int index = (jdy - fromRow) * cols + idx;
+                    double zprojection = dx * res * normal0 + dy * res * normal1 + band[index] * normal2;
+                    if (zprojection < zmax) {
+                        shadow[index] = SHADOW;
+                    } else {
+                        zmax = zprojection;
+                    }
+                    n = n + 1;
+                    dy = inverse1 * n;
+                    dx = inverse0 * n;
+                    idx = (int) Math.round(i + dx);
+                    jdy = (int) Math.round(j + dy);
+                }
+                step[ray] = n;
+                zcompare[ray] = zmax;
+                done[ray] = !paused;
+            }
+        }
+    }
+
+}
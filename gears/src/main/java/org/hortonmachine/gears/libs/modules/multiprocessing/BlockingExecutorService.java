@@ -24,9 +24,14 @@ import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import org.hortonmachine.gears.libs.monitor.ModuleMetricsRecorder;
+
 /**
  * Submits up to a maximum count tasks to a delegate {@link ExecutorService}. Blocks
  * submitting thread if it thries to submit more than the maximum number of tasks.
+ * <p/>
+ * Tasks submitted by a module that records its metrics are measured on the worker
+ * threads, see {@link ModuleMetricsRecorder#measured(Runnable)}.
  *
  * @author Falko Bräutigam
  */
@@ -60,9 +65,10 @@ public class BlockingExecutorService
     @Override
     public void execute( Runnable command ) {
         beforeSubmit();
+        Runnable measured = ModuleMetricsRecorder.measured( command );
         delegate.execute( () -> {
             try {
-                command.run();
+                measured.run();
             }
             finally {
                 taskCount.release();
@@ -73,9 +79,10 @@ public class BlockingExecutorService
     @Override
     public <T> Future<T> submit( Callable<T> task ) {
         beforeSubmit();
+        Callable<T> measured = ModuleMetricsRecorder.measured( task );
         return delegate.submit( () -> {
             try {
-                return task.call();
+                return measured.call();
             }
             finally {
                 taskCount.release();
@@ -86,9 +93,10 @@ public class BlockingExecutorService
     @Override
     public <T> Future<T> submit( Runnable task, T result ) {
         beforeSubmit();
+        Runnable measured = ModuleMetricsRecorder.measured( task );
         return delegate.submit( () -> {
             try {
-                task.run();
+                measured.run();
             }
             finally {
                 taskCount.release();
@@ -99,9 +107,10 @@ public class BlockingExecutorService
     @Override
     public Future<?> submit( Runnable task ) {
         beforeSubmit();
+        Runnable measured = ModuleMetricsRecorder.measured( task );
         return delegate.submit( () -> {
             try {
-                task.run();
+                measured.run();
             }
             finally {
                 taskCount.release();
@@ -85,6 +85,41 @@ public abstract class ExecutionPlanner {
     }
     
     
+    /**
+     * Creates an executor with the given number of daemon threads, for modules that 
+     * let the user choose the number of threads. As the {@link #defaultExecutor} it
+     * refuses submits beyond the number of threads. Idle threads terminate, so 
+     * the executor does not need to be shut down.
+     */
+    public static BlockingExecutorService createExecutor( int threads ) {
+        return createExecutor( threads, threads );
+    }
+    
+    
+    /**
+     * Creates an executor with the given number of daemon threads, that accepts up to
+     * the given number of tasks. Tasks beyond the number of threads wait in the queue,
+     * which lets the submitting thread prepare the next tasks while the first ones are 
+     * executed.
+     */
+    public static BlockingExecutorService createExecutor( int threads, int maxTaskCount ) {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            volatile int threadNumber = 0;
+            
+            @Override
+            public Thread newThread( Runnable r ) {
+                Thread t = new Thread( r, "process-worker-" + threads + "-" + threadNumber++ );
+                t.setDaemon( true );
+                return t;
+            }
+        };
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor( threads, threads, 5L, TimeUnit.SECONDS,
+                new LinkedTransferQueue(), threadFactory );
+        threadPool.allowCoreThreadTimeOut( true );
+        return new BlockingExecutorService( threadPool, Math.max( threads, maxTaskCount ) );
+    }
+    
+    
     // instance *******************************************
     
     protected int           numberOfTasks = -1;
@@ -98,6 +133,23 @@ public abstract class ExecutionPlanner {
     }
     
     
+    /**
+     * Computes the size of the tiles a grid of the given size is split into before
+     * being handed to this planner. Every tile is submitted as a single task, which
+     * loops over its cells.
+     * <p/>
+     * By default tiles are row-bands of a single row. Override to tune the tile
+     * size to the execution strategy of the planner.
+     *
+     * @param cols the number of columns of the grid to process.
+     * @param rows the number of rows of the grid to process.
+     * @return the tile size as <code>[tileCols, tileRows]</code>.
+     */
+    public int[] getTileSize( int cols, int rows ) {
+        return new int[]{Math.max(cols, 1), 1};
+    }
+    
+    
     /**
      * Submits the given task for execution.
      * <p/>
@@ -17,6 +17,7 @@ package org.hortonmachine.gears.libs.modules.multiprocessing;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 
 /**
@@ -32,6 +33,24 @@ public class FixedChunkSizePlanner
      */
     public static final int             MAX_CHUNK_SIZE = 10000;
     
+    /**
+     * The default amount of data a single grid tile should fit into, a common
+     * per core L2 cache size.
+     */
+    public static final int             DEFAULT_CACHE_SIZE_BYTES = 256 * 1024;
+    
+    /**
+     * The estimated number of bytes touched per processed grid cell (a double
+     * input and a double output).
+     */
+    public static final int             BYTES_PER_CELL = 16;
+    
+    /**
+     * The minimum number of tiles submitted per core, to balance the load between
+     * the threads.
+     */
+    public static final int             TILES_PER_CORE = 4;
+    
     private int                         targetChunkSize = -1;
     
     private List<MultiProcessingTask>   accu;
@@ -40,6 +59,44 @@ public class FixedChunkSizePlanner
     
     private Exception                   exc;
     
+    private ExecutorService             executor;
+    
+    private final int                   cacheSizeBytes;
+    
+    
+    /**
+     * Creates a planner that submits to the {@link ExecutionPlanner#defaultExecutor}.
+     */
+    public FixedChunkSizePlanner() {
+        this( defaultExecutor );
+    }
+    
+    
+    /**
+     * Creates a planner that submits to the given executor, for example to run
+     * with a number of threads different from the number of cores. As for the
+     * {@link ExecutionPlanner#defaultExecutor}, the executor must refuse submits
+     * when resources are running out (see {@link BlockingExecutorService}).
+     */
+    public FixedChunkSizePlanner( ExecutorService executor ) {
+        this( executor, DEFAULT_CACHE_SIZE_BYTES );
+    }
+    
+    
+    /**
+     * Creates a planner that submits to the given executor and sizes the grid
+     * tiles to fit into the given amount of data.
+     *
+     * @param cacheSizeBytes the amount of data a single grid tile should fit into.
+     */
+    public FixedChunkSizePlanner( ExecutorService executor, int cacheSizeBytes ) {
+        if (cacheSizeBytes <= 0) {
+            throw new IllegalArgumentException( "The cache size has to be positive: " + cacheSizeBytes );
+        }
+        this.executor = executor;
+        this.cacheSizeBytes = cacheSizeBytes;
+    }
+    
     
     @Override
     public void submit( MultiProcessingTask task ) {
@@ -49,7 +106,7 @@ public class FixedChunkSizePlanner
                 throw new IllegalStateException( "No setNumberOfTasks() given." );
             }
             int procNum  = Runtime.getRuntime().availableProcessors();
-            targetChunkSize = Math.min( numberOfTasks / (procNum*3), MAX_CHUNK_SIZE );
+            targetChunkSize = Math.max( Math.min( numberOfTasks / (procNum*3), MAX_CHUNK_SIZE ), 1 );
 //            System.out.println( "targetChunkSize: " + targetChunkSize );
 
             accu = new ArrayList( targetChunkSize );
@@ -64,6 +121,31 @@ public class FixedChunkSizePlanner
     }
 
     
+    /**
+     * Sizes the tiles from the number of cores and the cache size: a tile
+     * holds as many cells as fit into the cache, but the grid is split into at
+     * least {@link #TILES_PER_CORE} tiles per core.
+     */
+    @Override
+    public int[] getTileSize( int cols, int rows ) {
+        cols = Math.max( cols, 1 );
+        rows = Math.max( rows, 1 );
+        int procNum  = Runtime.getRuntime().availableProcessors();
+        int cellsPerTile = Math.max( cacheSizeBytes / BYTES_PER_CELL, 1 );
+
+        int tileCols = Math.min( cols, cellsPerTile );
+        int tileRows = Math.max( cellsPerTile / tileCols, 1 );
+
+        long tilesPerRowBand = (cols + tileCols - 1) / tileCols;
+        long minTiles = (long) procNum * TILES_PER_CORE;
+        if (tilesPerRowBand < minTiles) {
+            int maxTileRows = (int) Math.max( rows * tilesPerRowBand / minTiles, 1 );
+            tileRows = Math.min( tileRows, maxTileRows );
+        }
+        return new int[]{tileCols, Math.min( tileRows, rows )};
+    }
+
+
     protected void submitChunk( List<MultiProcessingTask> chunk ) {
        // System.out.println( "submitting chunk: size=" + chunk.size() );
         // work task
@@ -83,7 +165,7 @@ public class FixedChunkSizePlanner
         boolean success = false;
         for (int waitMillis=10; !success; waitMillis=Math.min( 100, waitMillis*2 ) ) {
            // System.out.println( Thread.currentThread().getName() + ": " + taskCount.availablePermits() );
-            success = submitted.add( defaultExecutor.submit( work ) );
+            success = submitted.add( executor.submit( work ) );
         }
     }
     
@@ -98,7 +180,7 @@ public class FixedChunkSizePlanner
         if (exc != null) {
             throw exc;
         }
-        if (!accu.isEmpty()) {
+        if (accu != null && !accu.isEmpty()) {
             submitChunk( accu );
             accu = null;
         }
@@ -17,6 +17,8 @@
  */
 package org.hortonmachine.gears.libs.modules.multiprocessing;
 
+import java.util.function.Supplier;
+
 /**
  * A multiprocessing class for grid loops (nested for over matrix).
  *
@@ -29,11 +31,47 @@ public abstract class GridMultiProcessing extends MultiProcessing {
     }
     /**
      * Loops through all rows and cols of the given grid.
+     * 
+     * <p>The grid is split into tiles sized by {@link ExecutionPlanner#getTileSize(int, int)}.
+     * Each tile is submitted to the planner as a single task that loops over its cells,
+     * so that no object is created per cell. Cancellation is checked once per tile.</p>
+     * 
+     * <p>The visited cells are reported to the module metrics.</p>
      */
     protected void processGrid( int cols, int rows, boolean ignoreBorder, Calculator calculator ) throws Exception {
-        ExecutionPlanner planner = createDefaultPlanner();
-        planner.setNumberOfTasks(rows * cols);
+        processGrid(cols, rows, ignoreBorder, () -> null, ( state, c, r ) -> calculator.calculate(c, r));
+    }
+
+    /**
+     * Loops through all rows and cols of the given grid, as {@link #processGrid(int, int, boolean, Calculator)}, 
+     * passing to the calculator a state created for every tile.
+     * 
+     * <p>The state is created by the task of the tile and dropped with it. Use it for the cursors 
+     * and buffers that a calculation needs per thread, which in a <code>ThreadLocal</code> 
+     * would be kept alive by the pool threads after the run.</p>
+     * 
+     * @param tileState the supplier of the state, called once per tile.
+     */
+    protected <T> void processGrid( int cols, int rows, boolean ignoreBorder, Supplier<T> tileState,
+            StateCalculator<T> calculator ) throws Exception {
+        processGridTiles(cols, rows, ignoreBorder, ( fromC, fromR, toC, toR ) -> {
+            T state = tileState.get();
+            for( int r = fromR; r < toR; r++ ) {
+                for( int c = fromC; c < toC; c++ ) {
+                    calculator.calculate(state, c, r);
+                }
+            }
+        });
+    }
 
+    /**
+     * Splits the given grid in tiles and passes every tile to the calculator, as a single task.
+     * 
+     * <p>Use it when something has to be done once per tile, as reporting the progress.
+     * The calculator loops over the cells of the tile by itself.</p>
+     */
+    protected void processGridTiles( int cols, int rows, boolean ignoreBorder, TileCalculator calculator )
+            throws Exception {
         int startC = 0;
         int startR = 0;
         int endC = cols;
@@ -44,17 +82,7 @@ public abstract class GridMultiProcessing extends MultiProcessing {
             endC = cols - 1;
             endR = rows - 1;
         }
-        for( int r = startR; r < endR; r++ ) {
-            for( int c = startC; c < endC; c++ ) {
-                int _c = c, _r = r;
-                planner.submit(() -> {
-                    if (!pm.isCanceled()) {
-                        calculator.calculate(_c, _r);
-                    }
-                });
-            }
-        }
-        planner.join();
+        processTiles(startC, startR, endC, endR, calculator);
     }
 
     @FunctionalInterface
@@ -62,4 +90,9 @@ public abstract class GridMultiProcessing extends MultiProcessing {
         void calculate( int col, int row ) throws Exception;
     }
 
+    @FunctionalInterface
+    protected interface StateCalculator<T> {
+        void calculate( T state, int col, int row ) throws Exception;
+    }
+
 }
@@ -24,6 +24,7 @@ import javax.media.jai.iterator.RandomIter;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.hortonmachine.gears.libs.modules.GridNode;
+import org.hortonmachine.gears.libs.modules.GridNodeCursor;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 
@@ -51,6 +52,11 @@ public abstract class GridNodeMultiProcessing extends MultiProcessing {
     /**
      * Loops through all rows and cols of the given grid and calls the given
      * calculator for each {@link GridNode}.
+     * 
+     * <p>The grid is processed in tiles sized by {@link ExecutionPlanner#getTileSize(int, int)},
+     * each submitted as a single task. Cancellation is checked once per tile.</p>
+     * 
+     * <p>The visited cells are reported to the module metrics.</p>
      */
     protected void processGridNodes( GridCoverage2D inElev, Calculator<GridNode> calculator ) throws Exception {
         RegionMap regionMap = regionMap(inElev);
@@ -61,22 +67,44 @@ public abstract class GridNodeMultiProcessing extends MultiProcessing {
 
         RandomIter elevationIter = CoverageUtilities.getRandomIterator(inElev);
 
-        ExecutionPlanner planner = createDefaultPlanner();
-        planner.setNumberOfTasks(rows * cols);
-
         // Cycling into the valid region.
-        for( int r = 0; r < rows; r++ ) {
-            for( int c = 0; c < cols; c++ ) {
-                int _c = c, _r = r;
-                planner.submit(() -> {
-                    if (!pm.isCanceled()) {
-                        GridNode node = new GridNode(elevationIter, cols, rows, xRes, yRes, _c, _r);
-                        calculator.calculate(node);
-                    }
-                });
+        processTiles(0, 0, cols, rows, ( fromC, fromR, toC, toR ) -> {
+            for( int r = fromR; r < toR; r++ ) {
+                for( int c = fromC; c < toC; c++ ) {
+                    GridNode node = new GridNode(elevationIter, cols, rows, xRes, yRes, c, r);
+                    calculator.calculate(node);
+                }
+            }
+        });
+    }
+
+    /**
+     * Loops through all rows and cols of the given grid and calls the given
+     * calculator with a {@link GridNodeCursor} positioned on each cell.
+     * 
+     * <p>The elevation is read once into a primitive array and every tile uses its own
+     * cursor, so no object is created per cell. The cursor passed to the calculator
+     * must not be kept after the call returns.</p>
+     * 
+     * <p>The visited cells are reported to the module metrics.</p>
+     */
+    protected void processGridNodeCursors( GridCoverage2D inElev, Calculator<GridNodeCursor> calculator ) throws Exception {
+        RegionMap regionMap = regionMap(inElev);
+        int cols = regionMap.getCols();
+        int rows = regionMap.getRows();
+        double xRes = regionMap.getXres();
+        double yRes = regionMap.getYres();
+
+        double[] elevation = CoverageUtilities.renderedImage2RowMajorDoubleArray(inElev.getRenderedImage());
+
+        processTiles(0, 0, cols, rows, ( fromC, fromR, toC, toR ) -> {
+            GridNodeCursor cursor = new GridNodeCursor(elevation, cols, rows, xRes, yRes);
+            for( int r = fromR; r < toR; r++ ) {
+                for( int c = fromC; c < toC; c++ ) {
+                    calculator.calculate(cursor.moveTo(c, r));
+                }
             }
-        }
-        planner.join();
+        });
     }
 
     @FunctionalInterface
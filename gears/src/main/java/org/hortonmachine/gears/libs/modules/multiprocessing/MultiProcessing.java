@@ -28,6 +28,9 @@ import org.hortonmachine.gears.libs.modules.HMModel;
 public abstract class MultiProcessing
         extends HMModel {
 
+    private BlockingExecutorService executor;
+    private int executorThreads;
+
     /**
      * By default this method returns
      * {@link ExecutionPlanner#createDefaultPlanner()}. Override if an algorithm
@@ -36,5 +39,82 @@ public abstract class MultiProcessing
     protected ExecutionPlanner createDefaultPlanner() {
         return ExecutionPlanner.createDefaultPlanner();
     }
-    
+
+    /**
+     * Creates a planner for a user chosen number of threads. Modules with a threads 
+     * parameter override {@link #createDefaultPlanner()} to return this.
+     * 
+     * @param threads the number of threads: 1 runs in the calling thread, less than 1 
+     *          uses the {@link ExecutionPlanner#createDefaultPlanner() default planner}.
+     */
+    protected ExecutionPlanner createPlanner( int threads ) {
+        if (threads < 1) {
+            return ExecutionPlanner.createDefaultPlanner();
+        }
+        if (threads == 1) {
+            return new InThreadExecutionPlanner();
+        }
+        synchronized (this) {
+            if (executor == null || executorThreads != threads) {
+                executor = ExecutionPlanner.createExecutor(threads);
+                executorThreads = threads;
+            }
+        }
+        return new FixedChunkSizePlanner(executor);
+    }
+
+    /**
+     * Splits the given region of a grid in tiles sized by {@link ExecutionPlanner#getTileSize(int, int)}
+     * and submits every tile to the {@link #createDefaultPlanner() default planner} as a single task.
+     * 
+     * <p>Cancellation is checked once per tile. The cells of the region are reported to the module 
+     * metrics.</p>
+     * 
+     * @param startCol the first col of the region.
+     * @param startRow the first row of the region.
+     * @param endCol the col after the last col of the region.
+     * @param endRow the row after the last row of the region.
+     * @param calculator the calculator, called once per tile.
+     */
+    protected void processTiles( int startCol, int startRow, int endCol, int endRow, TileCalculator calculator )
+            throws Exception {
+        if (endCol <= startCol || endRow <= startRow) {
+            return;
+        }
+        ExecutionPlanner planner = createDefaultPlanner();
+        int[] tileSize = planner.getTileSize(endCol - startCol, endRow - startRow);
+        int tileCols = tileSize[0];
+        int tileRows = tileSize[1];
+        int tilesX = (endCol - startCol + tileCols - 1) / tileCols;
+        int tilesY = (endRow - startRow + tileRows - 1) / tileRows;
+        planner.setNumberOfTasks(tilesX * tilesY);
+
+        for( int tr = startRow; tr < endRow; tr += tileRows ) {
+            for( int tc = startCol; tc < endCol; tc += tileCols ) {
+                int fromC = tc, fromR = tr;
+                int toC = Math.min(tc + tileCols, endCol);
+                int toR = Math.min(tr + tileRows, endRow);
+                planner.submit(() -> {
+                    if (pm.isCanceled()) {
+                        return;
+                    }
+                    calculator.calculate(fromC, fromR, toC, toR);
+                });
+            }
+        }
+        planner.join();
+        addProcessedElements((long) (endCol - startCol) * (endRow - startRow));
+    }
+
+    @FunctionalInterface
+    protected interface TileCalculator {
+        /**
+         * @param fromCol the first col of the tile.
+         * @param fromRow the first row of the tile.
+         * @param toCol the col after the last col of the tile.
+         * @param toRow the row after the last row of the tile.
+         */
+        void calculate( int fromCol, int fromRow, int toCol, int toRow ) throws Exception;
+    }
+
 }
@@ -0,0 +1,130 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.libs.modules.streaming;
+
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.media.jai.ImageLayout;
+import javax.media.jai.PlanarImage;
+
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+
+/**
+ * An image whose tiles are calculated by a {@link IFocalOperator} when requested.
+ * 
+ * <p>When a tile is requested, the following tiles in row-major order are submitted 
+ * to the workers of the pipeline, so that a reader that goes through the image row by 
+ * row finds them ready. The tiles of the tile rows above the last requested one are dropped, 
+ * which keeps memory bounded to about a row of tiles.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+class FocalOpImage extends PlanarImage {
+
+    private final TiledRasterPipeline pipeline;
+    private final IFocalOperator operator;
+    private final int outputIndex;
+    private final Class< ? > outputType;
+    private final int tilesX;
+    private final int tilesCount;
+    private final int prefetch;
+
+    private final Map<Integer, Future<Raster>> tiles = new HashMap<>();
+    private int nextPrefetch = 0;
+
+    FocalOpImage( TiledRasterPipeline pipeline, IFocalOperator operator, int outputIndex, Class< ? > outputType,
+            int tileCols, int tileRows, int prefetch ) {
+        super(createLayout(pipeline, outputType, tileCols, tileRows), null, null);
+        this.pipeline = pipeline;
+        this.operator = operator;
+        this.outputIndex = outputIndex;
+        this.outputType = outputType;
+        this.prefetch = prefetch;
+        tilesX = pipeline.getTilesX();
+        tilesCount = tilesX * pipeline.getTilesY();
+    }
+
+    private static ImageLayout createLayout( TiledRasterPipeline pipeline, Class< ? > outputType, int tileCols, int tileRows ) {
+        SampleModel sampleModel = CoverageUtilities.createWritableRaster(tileCols, tileRows, outputType, null, null)
+                .getSampleModel();
+        ColorModel colorModel = PlanarImage.createColorModel(sampleModel);
+        return new ImageLayout(0, 0, pipeline.getCols(), pipeline.getRows(), 0, 0, tileCols, tileRows, sampleModel,
+                colorModel);
+    }
+
+    @Override
+    public Raster getTile( int tileX, int tileY ) {
+        if (tileX < 0 || tileY < 0 || tileX >= tilesX || tileY >= getNumYTiles()) {
+            return null;
+        }
+        int index = tileY * tilesX + tileX;
+        Future<Raster> future;
+        synchronized (tiles) {
+            // readers go top down, drop the rows of tiles above
+            Iterator<Integer> iterator = tiles.keySet().iterator();
+            while( iterator.hasNext() ) {
+                if (iterator.next() / tilesX < tileY) {
+                    iterator.remove();
+                }
+            }
+            future = tiles.get(index);
+            if (future == null) {
+                future = submit(index);
+                tiles.put(index, future);
+            }
+            nextPrefetch = Math.max(nextPrefetch, index + 1);
+            while( nextPrefetch < tilesCount && nextPrefetch <= index + prefetch ) {
+                if (!tiles.containsKey(nextPrefetch)) {
+                    tiles.put(nextPrefetch, submit(nextPrefetch));
+                }
+                nextPrefetch++;
+            }
+        }
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Future<Raster> submit( int index ) {
+        int tileX = index % tilesX;
+        int tileY = index / tilesX;
+        return pipeline.getExecutor().submit(() -> {
+            FocalWindow window = pipeline.readWindow(tileX, tileY, operator.getKernelRadius());
+            WritableRaster raster = CoverageUtilities.createWritableRaster(getTileWidth(), getTileHeight(), outputType, null,
+                    HMConstants.doubleNovalue);
+            WritableRaster tileRaster = raster.createWritableTranslatedChild(tileXToX(tileX), tileYToY(tileY));
+            TiledRasterPipeline.calculate(operator, window, new WritableRaster[]{tileRaster}, outputIndex);
+            return tileRaster;
+        });
+    }
+
+}
@@ -0,0 +1,207 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.libs.modules.streaming;
+
+import org.hortonmachine.gears.libs.modules.GridNodeCursor;
+import org.hortonmachine.gears.libs.modules.HMConstants;
+
+/**
+ * The data of a tile plus its halo, read by the {@link TiledRasterPipeline}.
+ * 
+ * <p>All positions are in the cols and rows of the whole raster. The halo is clipped 
+ * to the raster bounds, so the window bounds are the raster bounds wherever the
+ * tile touches them.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class FocalWindow {
+
+    private final int rasterCols;
+    private final int rasterRows;
+    private final double xRes;
+    private final double yRes;
+
+    private final int tileMinCol;
+    private final int tileMinRow;
+    private final int tileMaxCol;
+    private final int tileMaxRow;
+
+    private final int windowCol;
+    private final int windowRow;
+    private final int windowCols;
+    private final int windowRows;
+    private final double[][] data;
+    private final GridNodeCursor[] cursors;
+
+    private int col;
+    private int row;
+    private int index;
+
+    FocalWindow( int rasterCols, int rasterRows, double xRes, double yRes, int tileMinCol, int tileMinRow, int tileMaxCol,
+            int tileMaxRow, int windowCol, int windowRow, int windowCols, int windowRows, double[][] data ) {
+        this.rasterCols = rasterCols;
+        this.rasterRows = rasterRows;
+        this.xRes = xRes;
+        this.yRes = yRes;
+        this.tileMinCol = tileMinCol;
+        this.tileMinRow = tileMinRow;
+        this.tileMaxCol = tileMaxCol;
+        this.tileMaxRow = tileMaxRow;
+        this.windowCol = windowCol;
+        this.windowRow = windowRow;
+        this.windowCols = windowCols;
+        this.windowRows = windowRows;
+        this.data = data;
+        cursors = new GridNodeCursor[data.length];
+        moveTo(tileMinCol, tileMinRow);
+    }
+
+    /**
+     * Position the window on a cell.
+     * 
+     * @param col the col of the cell.
+     * @param row the row of the cell.
+     */
+    public void moveTo( int col, int row ) {
+        this.col = col;
+        this.row = row;
+        index = (row - windowRow) * windowCols + (col - windowCol);
+    }
+
+    /**
+     * @return the col of the current cell.
+     */
+    public int getCol() {
+        return col;
+    }
+
+    /**
+     * @return the row of the current cell.
+     */
+    public int getRow() {
+        return row;
+    }
+
+    /**
+     * @return the cols of the whole raster.
+     */
+    public int getCols() {
+        return rasterCols;
+    }
+
+    /**
+     * @return the rows of the whole raster.
+     */
+    public int getRows() {
+        return rasterRows;
+    }
+
+    public double getXRes() {
+        return xRes;
+    }
+
+    public double getYRes() {
+        return yRes;
+    }
+
+    /**
+     * @return the first col of the tile.
+     */
+    public int getTileMinCol() {
+        return tileMinCol;
+    }
+
+    /**
+     * @return the first row of the tile.
+     */
+    public int getTileMinRow() {
+        return tileMinRow;
+    }
+
+    /**
+     * @return the last col of the tile (inclusive).
+     */
+    public int getTileMaxCol() {
+        return tileMaxCol;
+    }
+
+    /**
+     * @return the last row of the tile (inclusive).
+     */
+    public int getTileMaxRow() {
+        return tileMaxRow;
+    }
+
+    /**
+     * @return the number of sources.
+     */
+    public int getSourcesCount() {
+        return data.length;
+    }
+
+    /**
+     * Get the value of the current cell.
+     * 
+     * @param source the index of the source raster.
+     * @return the value.
+     */
+    public double getValue( int source ) {
+        return data[source][index];
+    }
+
+    /**
+     * Get the value of a cell.
+     * 
+     * @param source the index of the source raster.
+     * @param col the col of the cell.
+     * @param row the row of the cell.
+     * @return the value or novalue if the cell is outside of the raster.
+     * @throws IllegalArgumentException if the cell is in the raster but outside of the window, 
+     *              i.e. beyond the kernel radius.
+     */
+    public double getValue( int source, int col, int row ) {
+        if (col < 0 || row < 0 || col >= rasterCols || row >= rasterRows) {
+            return HMConstants.doubleNovalue;
+        }
+        int c = col - windowCol;
+        int r = row - windowRow;
+        if (c < 0 || r < 0 || c >= windowCols || r >= windowRows) {
+            throw new IllegalArgumentException("The cell " + col + "/" + row + " is outside of the kernel radius.");
+        }
+        return data[source][r * windowCols + c];
+    }
+
+    /**
+     * Get a {@link GridNodeCursor} on a source, positioned on the current cell.
+     * 
+     * <p>Mind that the cursor works on the window, so its cols and rows are relative 
+     * to the window origin. Its bounds are the raster bounds wherever the tile touches them.</p>
+     * 
+     * @param source the index of the source raster.
+     * @return the cursor.
+     */
+    public GridNodeCursor getCursor( int source ) {
+        GridNodeCursor cursor = cursors[source];
+        if (cursor == null) {
+            cursor = new GridNodeCursor(data[source], windowCols, windowRows, xRes, yRes);
+            cursors[source] = cursor;
+        }
+        return cursor.moveTo(col - windowCol, row - windowRow);
+    }
+
+}
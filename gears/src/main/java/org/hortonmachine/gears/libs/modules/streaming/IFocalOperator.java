@@ -0,0 +1,54 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.libs.modules.streaming;
+
+/**
+ * A neighbourhood operator for the {@link TiledRasterPipeline}.
+ * 
+ * <p>The operator is called once per cell, with the {@link FocalWindow} positioned 
+ * on it. The window guarantees that all the cells within {@link #getKernelRadius()} 
+ * from the current one are available, also across tile borders.</p>
+ * 
+ * <p>Operators are called concurrently from different threads, each on its own window, 
+ * so they must not keep state between calls.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public interface IFocalOperator {
+
+    /**
+     * @return the number of cells around the current one that the operator reads.
+     */
+    public int getKernelRadius();
+
+    /**
+     * @return the number of values the operator produces per cell, one per output raster.
+     */
+    public int getOutputsCount();
+
+    /**
+     * Calculate the values of the current cell.
+     * 
+     * @param window the window positioned on the current cell.
+     * @param outValues the array in which to set the {@link #getOutputsCount()} resulting values.
+     *              It is prefilled with novalues.
+     * @throws Exception
+     */
+    public void calculate( FocalWindow window, double[] outValues ) throws Exception;
+
+}
@@ -0,0 +1,40 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.libs.modules.streaming;
+
+/**
+ * A visitor of the tiles read by the {@link TiledRasterPipeline}.
+ * 
+ * <p>Useful for reductions, like statistics, that need no output raster. Tiles
+ * are visited concurrently and in no particular order.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public interface ITileVisitor {
+
+    /**
+     * Visit a tile.
+     * 
+     * @param window the window of the tile, with the tile cells between 
+     *          {@link FocalWindow#getTileMinCol()} and {@link FocalWindow#getTileMaxCol()}, 
+     *          {@link FocalWindow#getTileMinRow()} and {@link FocalWindow#getTileMaxRow()}.
+     * @throws Exception
+     */
+    public void visit( FocalWindow window ) throws Exception;
+
+}
@@ -0,0 +1,410 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.libs.modules.streaming;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.io.rasterwriter.OmsRasterWriter;
+import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
+import org.hortonmachine.gears.libs.monitor.DummyProgressMonitor;
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+import org.hortonmachine.gears.utils.RegionMap;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * A tile by tile processing pipeline for neighbourhood operations on rasters.
+ * 
+ * <p>The sources are read in overlapping tiles, i.e. tiles plus a halo as large as the 
+ * kernel radius of the {@link IFocalOperator}, and the tiles are calculated in parallel.
+ * The sources are only accessed through {@link RenderedImage#getData(Rectangle)}, so 
+ * coverages read by the {@link org.hortonmachine.gears.io.rasterreader.OmsRasterReader} 
+ * from tiled formats are never loaded as a whole.</p>
+ * 
+ * <p>The results can be:</p>
+ * <ul>
+ *  <li>{@link #compute(IFocalOperator, Class, String...) computed} into in-memory coverages,</li>
+ *  <li>{@link #stream(IFocalOperator, Class, String...) streamed}, i.e. returned as coverages 
+ *      whose tiles are calculated only when requested, with some tiles calculated 
+ *      ahead by the worker threads,</li>
+ *  <li>{@link #write(IFocalOperator, Class, String...) written} to files through 
+ *      the {@link OmsRasterWriter}, which pulls the streamed tiles, so that memory stays bounded 
+ *      also for rasters larger than memory.</li>
+ * </ul>
+ * 
+ * <p>The tiles are calculated by the executor set through {@link #setExecutor(ExecutorService, int)}, 
+ * for example the one of the calling module, or else by an executor created through 
+ * {@link ExecutionPlanner#createExecutor(int, int)}.</p>
+ * 
+ * <p>All sources need to have the same grid geometry.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TiledRasterPipeline {
+
+    /**
+     * The default size of the tiles in cells.
+     */
+    public static final int DEFAULT_TILE_SIZE = 512;
+
+    private final RenderedImage[] sources;
+    private final RegionMap regionMap;
+    private final CoordinateReferenceSystem crs;
+    private final int cols;
+    private final int rows;
+
+    private int tileCols = DEFAULT_TILE_SIZE;
+    private int tileRows = DEFAULT_TILE_SIZE;
+    private int threads = HMModel.getDefaultThreadsNum();
+    private IHMProgressMonitor pm = new DummyProgressMonitor();
+    private ExecutorService executor;
+
+    /**
+     * Constructor.
+     * 
+     * @param sources the source coverages, in the order in which the operators access them.
+     */
+    public TiledRasterPipeline( GridCoverage2D... sources ) {
+        if (sources.length == 0) {
+            throw new ModelsIllegalargumentException("At least one source raster is needed.", this);
+        }
+        regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(sources[0]);
+        crs = sources[0].getCoordinateReferenceSystem();
+        cols = regionMap.getCols();
+        rows = regionMap.getRows();
+        this.sources = new RenderedImage[sources.length];
+        for( int i = 0; i < sources.length; i++ ) {
+            RegionMap sourceRegion = CoverageUtilities.getRegionParamsFromGridCoverage(sources[i]);
+            if (sourceRegion.getCols() != cols || sourceRegion.getRows() != rows) {
+                throw new ModelsIllegalargumentException("All the source rasters need to have the same grid geometry.", this);
+            }
+            this.sources[i] = sources[i].getRenderedImage();
+        }
+    }
+
+    /**
+     * Set the size of the tiles.
+     * 
+     * <p>Mind that some formats need a tile size multiple of 16 when writing.</p>
+     * 
+     * @param tileCols the cols of a tile.
+     * @param tileRows the rows of a tile.
+     * @return the pipeline itself.
+     */
+    public TiledRasterPipeline setTileSize( int tileCols, int tileRows ) {
+        if (tileCols < 1 || tileRows < 1) {
+            throw new ModelsIllegalargumentException("The tile size needs to be positive.", this);
+        }
+        this.tileCols = tileCols;
+        this.tileRows = tileRows;
+        return this;
+    }
+
+    /**
+     * Set the number of worker threads.
+     * 
+     * @param threads the threads to use, by default {@link HMModel#getDefaultThreadsNum()}.
+     * @return the pipeline itself.
+     */
+    public TiledRasterPipeline setThreads( int threads ) {
+        if (executor != null) {
+            throw new IllegalStateException("The threads need to be set before processing.");
+        }
+        this.threads = Math.max(1, threads);
+        return this;
+    }
+
+    /**
+     * Set the executor that calculates the tiles.
+     * 
+     * <p>The executor is not shut down by the pipeline.</p>
+     * 
+     * @param executor the executor to use.
+     * @param threads the threads of the executor, which size the tiles calculated ahead 
+     *          when streaming.
+     * @return the pipeline itself.
+     */
+    public TiledRasterPipeline setExecutor( ExecutorService executor, int threads ) {
+        if (this.executor != null) {
+            throw new IllegalStateException("The executor needs to be set before processing.");
+        }
+        this.threads = Math.max(1, threads);
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Set the progress monitor, which is advanced by one for every processed tile.
+     * 
+     * @param pm the progress monitor.
+     * @return the pipeline itself.
+     */
+    public TiledRasterPipeline setProgressMonitor( IHMProgressMonitor pm ) {
+        this.pm = pm;
+        return this;
+    }
+
+    public int getTilesCount() {
+        return getTilesX() * getTilesY();
+    }
+
+    public RegionMap getRegionMap() {
+        return regionMap;
+    }
+
+    /**
+     * Calculate all the tiles into in-memory coverages.
+     * 
+     * @param operator the operator to apply.
+     * @param outputType the data type of the outputs (Double, Float, Integer or Short) or 
+     *          <code>null</code> for double.
+     * @param names the names of the outputs, one per output of the operator.
+     * @return the output coverages.
+     * @throws Exception
+     */
+    public GridCoverage2D[] compute( IFocalOperator operator, Class< ? > outputType, String... names ) throws Exception {
+        checkOutputs(operator, names);
+        int outputs = operator.getOutputsCount();
+        WritableRaster[] outRasters = new WritableRaster[outputs];
+        for( int i = 0; i < outputs; i++ ) {
+            outRasters[i] = CoverageUtilities.createWritableRaster(cols, rows, outputType, null, HMConstants.doubleNovalue);
+        }
+
+        List<Future< ? >> futures = new ArrayList<>();
+        pm.beginTask("Processing tiles...", getTilesCount());
+        for( int tileY = 0; tileY < getTilesY(); tileY++ ) {
+            for( int tileX = 0; tileX < getTilesX(); tileX++ ) {
+                int tx = tileX, ty = tileY;
+                futures.add(getExecutor().submit(() -> {
+                    if (pm.isCanceled()) {
+                        return null;
+                    }
+                    FocalWindow window = readWindow(tx, ty, operator.getKernelRadius());
+                    calculate(operator, window, outRasters, -1);
+                    pm.worked(1);
+                    return null;
+                }));
+            }
+        }
+        waitFor(futures);
+        pm.done();
+
+        GridCoverage2D[] outCoverages = new GridCoverage2D[outputs];
+        for( int i = 0; i < outputs; i++ ) {
+            outCoverages[i] = CoverageUtilities.buildCoverage(names[i], outRasters[i], regionMap, crs);
+        }
+        return outCoverages;
+    }
+
+    /**
+     * Get coverages that calculate their tiles when requested.
+     * 
+     * <p>Every output calculates its own tiles, so when several outputs of the same operator 
+     * are used, the operator is run once per output. Only the last requested tiles 
+     * are kept, so the outputs are meant to be read once from top to bottom, as the 
+     * raster writers do.</p>
+     * 
+     * @param operator the operator to apply.
+     * @param outputType the data type of the outputs (Double, Float, Integer or Short) or 
+     *          <code>null</code> for double.
+     * @param names the names of the outputs, one per output of the operator.
+     * @return the output coverages.
+     */
+    public GridCoverage2D[] stream( IFocalOperator operator, Class< ? > outputType, String... names ) {
+        checkOutputs(operator, names);
+        int outputs = operator.getOutputsCount();
+        GridCoverage2D[] outCoverages = new GridCoverage2D[outputs];
+        for( int i = 0; i < outputs; i++ ) {
+            FocalOpImage image = new FocalOpImage(this, operator, i, outputType, tileCols, tileRows, threads * 2);
+            outCoverages[i] = CoverageUtilities.buildCoverage(names[i], image, regionMap, crs);
+        }
+        return outCoverages;
+    }
+
+    /**
+     * Stream the outputs to files through the {@link OmsRasterWriter}.
+     * 
+     * @param operator the operator to apply.
+     * @param outputType the data type of the outputs (Double, Float, Integer or Short) or 
+     *          <code>null</code> for double.
+     * @param paths the paths of the output files, one per output of the operator.
+     * @throws Exception
+     */
+    public void write( IFocalOperator operator, Class< ? > outputType, String... paths ) throws Exception {
+        checkOutputs(operator, paths);
+        String[] names = new String[paths.length];
+        for( int i = 0; i < paths.length; i++ ) {
+            names[i] = new File(paths[i]).getName();
+        }
+        GridCoverage2D[] outCoverages = stream(operator, outputType, names);
+        for( int i = 0; i < outCoverages.length; i++ ) {
+            OmsRasterWriter writer = new OmsRasterWriter();
+            writer.pm = pm;
+            writer.inRaster = outCoverages[i];
+            writer.file = paths[i];
+            writer.process();
+        }
+    }
+
+    /**
+     * Read all the tiles and pass them to a visitor.
+     * 
+     * @param radius the halo around the tiles to read.
+     * @param visitor the visitor.
+     * @throws Exception
+     */
+    public void visitTiles( int radius, ITileVisitor visitor ) throws Exception {
+        List<Future< ? >> futures = new ArrayList<>();
+        pm.beginTask("Reading tiles...", getTilesCount());
+        for( int tileY = 0; tileY < getTilesY(); tileY++ ) {
+            for( int tileX = 0; tileX < getTilesX(); tileX++ ) {
+                int tx = tileX, ty = tileY;
+                futures.add(getExecutor().submit(() -> {
+                    if (pm.isCanceled()) {
+                        return null;
+                    }
+                    visitor.visit(readWindow(tx, ty, radius));
+                    pm.worked(1);
+                    return null;
+                }));
+            }
+        }
+        waitFor(futures);
+        pm.done();
+    }
+
+    int getTilesX() {
+        return (cols + tileCols - 1) / tileCols;
+    }
+
+    int getTilesY() {
+        return (rows + tileRows - 1) / tileRows;
+    }
+
+    int getCols() {
+        return cols;
+    }
+
+    int getRows() {
+        return rows;
+    }
+
+    synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            // room for the tiles calculated ahead when streaming
+            executor = ExecutionPlanner.createExecutor(threads, threads * 2);
+        }
+        return executor;
+    }
+
+    /**
+     * Read the window of a tile plus the halo of the given radius, clipped to the raster.
+     */
+    FocalWindow readWindow( int tileX, int tileY, int radius ) {
+        int minCol = tileX * tileCols;
+        int minRow = tileY * tileRows;
+        int maxCol = Math.min(minCol + tileCols, cols) - 1;
+        int maxRow = Math.min(minRow + tileRows, rows) - 1;
+
+        int windowCol = Math.max(0, minCol - radius);
+        int windowRow = Math.max(0, minRow - radius);
+        int windowCols = Math.min(cols - 1, maxCol + radius) - windowCol + 1;
+        int windowRows = Math.min(rows - 1, maxRow + radius) - windowRow + 1;
+
+        double[][] data = new double[sources.length][];
+        for( int i = 0; i < sources.length; i++ ) {
+            RenderedImage source = sources[i];
+            Rectangle rectangle = new Rectangle(source.getMinX() + windowCol, source.getMinY() + windowRow, windowCols,
+                    windowRows);
+            Raster raster = source.getData(rectangle);
+            data[i] = raster.getSamples(rectangle.x, rectangle.y, windowCols, windowRows, 0,
+                    new double[windowCols * windowRows]);
+        }
+        return new FocalWindow(cols, rows, regionMap.getXres(), regionMap.getYres(), minCol, minRow, maxCol, maxRow,
+                windowCol, windowRow, windowCols, windowRows, data);
+    }
+
+    /**
+     * Apply the operator to the cells of a tile. 
+     * 
+     * @param operator the operator.
+     * @param window the window of the tile.
+     * @param outRasters the rasters to write to, positioned in raster space.
+     * @param outputIndex the output to write or -1 to write all of them.
+     * @throws Exception
+     */
+    static void calculate( IFocalOperator operator, FocalWindow window, WritableRaster[] outRasters, int outputIndex )
+            throws Exception {
+        double[] values = new double[operator.getOutputsCount()];
+        for( int r = window.getTileMinRow(); r <= window.getTileMaxRow(); r++ ) {
+            for( int c = window.getTileMinCol(); c <= window.getTileMaxCol(); c++ ) {
+                window.moveTo(c, r);
+                for( int i = 0; i < values.length; i++ ) {
+                    values[i] = HMConstants.doubleNovalue;
+                }
+                operator.calculate(window, values);
+                if (outputIndex < 0) {
+                    for( int i = 0; i < values.length; i++ ) {
+                        outRasters[i].setSample(c, r, 0, values[i]);
+                    }
+                } else {
+                    outRasters[0].setSample(c, r, 0, values[outputIndex]);
+                }
+            }
+        }
+    }
+
+    private void checkOutputs( IFocalOperator operator, String... names ) {
+        if (names.length != operator.getOutputsCount()) {
+            throw new ModelsIllegalargumentException(
+                    "The operator has " + operator.getOutputsCount() + " outputs, but " + names.length + " names were given.",
+                    this);
+        }
+    }
+
+    private static void waitFor( List<Future< ? >> futures ) throws Exception {
+        try {
+            for( Future< ? > future : futures ) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            for( Future< ? > future : futures ) {
+                future.cancel(false);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.libs.monitor;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+
+import org.hortonmachine.gears.utils.files.FileUtilities;
+import org.json.JSONArray;
+
+/**
+ * A {@link IHMMetricsCollector} that exports the metrics to a csv or json file.
+ * 
+ * <p>The format is chosen from the file extension, json for <code>.json</code> files and
+ * csv (semicolon separated, with header) for anything else. Metrics are appended to 
+ * existing files.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class FileMetricsCollector implements IHMMetricsCollector {
+
+    private final File file;
+    private final boolean isJson;
+    private JSONArray jsonArray;
+
+    public FileMetricsCollector( File file ) throws Exception {
+        this.file = file;
+        isJson = file.getName().toLowerCase().endsWith(".json");
+        if (isJson) {
+            if (file.exists() && file.length() > 0) {
+                jsonArray = new JSONArray(FileUtilities.readFile(file));
+            } else {
+                jsonArray = new JSONArray();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void collect( ModuleMetrics metrics ) throws Exception {
+        if (isJson) {
+            jsonArray.put(metrics.toJson());
+            FileUtilities.writeFile(jsonArray.toString(2), file);
+        } else {
+            boolean writeHeader = !file.exists() || file.length() == 0;
+            try (BufferedWriter bw = new BufferedWriter(new FileWriter(file, true))) {
+                if (writeHeader) {
+                    bw.write(ModuleMetrics.getCsvHeader());
+                    bw.newLine();
+                }
+                bw.write(metrics.toCsvLine());
+                bw.newLine();
+            }
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+}
@@ -0,0 +1,35 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.libs.monitor;
+
+/**
+ * A collector of the {@link ModuleMetrics} of module runs.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public interface IHMMetricsCollector {
+
+    /**
+     * Collect the metrics of a finished module run.
+     * 
+     * @param metrics the metrics to collect.
+     * @throws Exception
+     */
+    public void collect( ModuleMetrics metrics ) throws Exception;
+
+}
@@ -0,0 +1,48 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.libs.monitor;
+
+import org.hortonmachine.dbs.log.ILogDb;
+import org.hortonmachine.dbs.log.LogDb;
+import org.hortonmachine.dbs.log.Logger;
+
+/**
+ * A {@link IHMMetricsCollector} that inserts the metrics into a log database.
+ * 
+ * <p>The metrics are inserted as info messages with tag {@link #TAG} and 
+ * the json of the metrics as message. This works both with a {@link LogDb} and 
+ * the {@link Logger}.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class LogDbMetricsCollector implements IHMMetricsCollector {
+
+    public static final String TAG = "metrics";
+
+    private final ILogDb logDb;
+
+    public LogDbMetricsCollector( ILogDb logDb ) {
+        this.logDb = logDb;
+    }
+
+    @Override
+    public synchronized void collect( ModuleMetrics metrics ) throws Exception {
+        logDb.insertInfo(TAG, metrics.toJson().toString());
+    }
+
+}
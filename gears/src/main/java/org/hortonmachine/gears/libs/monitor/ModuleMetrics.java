@@ -0,0 +1,123 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.libs.monitor;
+
+import org.json.JSONObject;
+
+/**
+ * The execution metrics of a single module run.
+ * 
+ * <p>Times are in nanoseconds, the cpu time and the allocated bytes are summed over the
+ * thread that ran the module and the tasks it submitted to executors (see {@link ModuleMetricsRecorder}).</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class ModuleMetrics {
+    public static final String MODULE = "module";
+    public static final String START = "start_ms";
+    public static final String WALLTIME = "wall_ns";
+    public static final String CPUTIME = "cpu_ns";
+    public static final String ALLOCATED = "allocated_bytes";
+    public static final String PROCESSED = "processed";
+    public static final String THREADS = "threads";
+    public static final String UTILISATION = "thread_utilisation";
+
+    /**
+     * The name of the module.
+     */
+    public String module;
+    /**
+     * The start time in millis since epoch.
+     */
+    public long startTs;
+    public long wallNanos;
+    public long cpuNanos;
+    /**
+     * The allocated bytes, -1 if the jvm doesn't support it.
+     */
+    public long allocatedBytes = -1;
+    /**
+     * The processed elements, i.e. cells or features, as reported by the module.
+     */
+    public long processedElements;
+    /**
+     * The number of threads that used cpu during the run.
+     */
+    public int threads;
+    public int availableProcessors = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Get the thread utilisation, i.e. the ratio between the used cpu time and the 
+     * cpu time that all the available processors could have given in the run.
+     * 
+     * @return the utilisation between 0 and 1.
+     */
+    public double getThreadUtilisation() {
+        if (wallNanos <= 0) {
+            return 0;
+        }
+        return (double) cpuNanos / ((double) wallNanos * availableProcessors);
+    }
+
+    /**
+     * @return the processed elements per second or 0 if none were reported.
+     */
+    public double getElementsPerSecond() {
+        if (wallNanos <= 0) {
+            return 0;
+        }
+        return processedElements / (wallNanos / 1E9);
+    }
+
+    public static String getCsvHeader() {
+        return MODULE + ";" + START + ";" + WALLTIME + ";" + CPUTIME + ";" + ALLOCATED + ";" + PROCESSED + ";" + THREADS
+                + ";" + UTILISATION;
+    }
+
+    public String toCsvLine() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(module).append(";");
+        sb.append(startTs).append(";");
+        sb.append(wallNanos).append(";");
+        sb.append(cpuNanos).append(";");
+        sb.append(allocatedBytes).append(";");
+        sb.append(processedElements).append(";");
+        sb.append(threads).append(";");
+        sb.append(getThreadUtilisation());
+        return sb.toString();
+    }
+
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put(MODULE, module);
+        json.put(START, startTs);
+        json.put(WALLTIME, wallNanos);
+        json.put(CPUTIME, cpuNanos);
+        json.put(ALLOCATED, allocatedBytes);
+        json.put(PROCESSED, processedElements);
+        json.put(THREADS, threads);
+        json.put(UTILISATION, getThreadUtilisation());
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return toJson().toString();
+    }
+
+}
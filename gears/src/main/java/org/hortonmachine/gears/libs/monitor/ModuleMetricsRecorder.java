@@ -0,0 +1,251 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.libs.monitor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the {@link ModuleMetrics} of a module run.
+ * 
+ * <p>The cpu time and the allocated bytes are taken from the {@link ThreadMXBean} 
+ * for the thread that starts and stops the recording and for the tasks that the 
+ * module submits to an executor while recording, see {@link #measured(Runnable)}. 
+ * The tasks are measured on the worker thread from their start to their end, so the 
+ * work is kept also if the worker thread dies before the stop, as the idle threads of 
+ * the executors made by {@link org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner#createExecutor(int)} do. 
+ * Other threads of the jvm are not counted.</p>
+ * 
+ * <p>The processed elements can be added from any thread.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class ModuleMetricsRecorder {
+
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    /**
+     * The recorder started in the current thread, or the one that submitted the task running in it.
+     */
+    private static final ThreadLocal<ModuleMetricsRecorder> currentRecorder = new ThreadLocal<>();
+
+    private final String module;
+    private final AtomicLong processedElements = new AtomicLong();
+    private final AtomicLong workersCpu = new AtomicLong();
+    private final AtomicLong workersAllocated = new AtomicLong();
+    private final Set<Long> workerThreads = ConcurrentHashMap.newKeySet();
+    private long startTs;
+    private long startNanos;
+    private long callingThread;
+    private long[] startCallingStats;
+    private ModuleMetricsRecorder previousRecorder;
+    private volatile boolean running = false;
+
+    public ModuleMetricsRecorder( String module ) {
+        this.module = module;
+    }
+
+    /**
+     * Start the recording. 
+     * 
+     * <p>The recording has to be stopped from the same thread.</p>
+     */
+    public void start() {
+        processedElements.set(0);
+        workersCpu.set(0);
+        workersAllocated.set(0);
+        workerThreads.clear();
+        startTs = System.currentTimeMillis();
+        callingThread = Thread.currentThread().getId();
+        startCallingStats = getThreadStats(callingThread);
+        previousRecorder = currentRecorder.get();
+        currentRecorder.set(this);
+        running = true;
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * @return <code>true</code> if the recorder has been started and not yet stopped.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Add to the count of processed elements (cells, features...).
+     * 
+     * @param count the number of elements to add.
+     */
+    public void addProcessedElements( long count ) {
+        processedElements.addAndGet(count);
+    }
+
+    /**
+     * Stop the recording.
+     * 
+     * @return the metrics of the run.
+     */
+    public ModuleMetrics stop() {
+        if (!running) {
+            throw new IllegalStateException("The metrics recorder has not been started.");
+        }
+        long wallNanos = System.nanoTime() - startNanos;
+        long[] stopCallingStats = getThreadStats(callingThread);
+        running = false;
+        if (currentRecorder.get() == this) {
+            if (previousRecorder != null) {
+                currentRecorder.set(previousRecorder);
+            } else {
+                currentRecorder.remove();
+            }
+        }
+        previousRecorder = null;
+
+        ModuleMetrics metrics = new ModuleMetrics();
+        metrics.module = module;
+        metrics.startTs = startTs;
+        metrics.wallNanos = wallNanos;
+        metrics.processedElements = processedElements.get();
+
+        long cpu = workersCpu.get();
+        int threads = workerThreads.size();
+        long callingCpu = stopCallingStats[0] - startCallingStats[0];
+        if (stopCallingStats[0] >= 0 && callingCpu > 0) {
+            cpu += callingCpu;
+            threads++;
+        }
+        long allocated = -1;
+        if (stopCallingStats[1] >= 0) {
+            allocated = workersAllocated.get() + Math.max(stopCallingStats[1] - startCallingStats[1], 0);
+        }
+        metrics.cpuNanos = cpu;
+        metrics.allocatedBytes = allocated;
+        metrics.threads = threads;
+        startCallingStats = null;
+        return metrics;
+    }
+
+    /**
+     * Wrap a task, so that its cpu time and allocated bytes are added to the recorder 
+     * running in the calling thread, if any.
+     * 
+     * <p>Executors call this at submit time, before handing the task to their threads.</p>
+     * 
+     * @param task the task to wrap.
+     * @return the measured task or the task itself, if no recording is running.
+     */
+    public static Runnable measured( Runnable task ) {
+        ModuleMetricsRecorder recorder = currentRecorder.get();
+        if (recorder == null || !recorder.running) {
+            return task;
+        }
+        return () -> {
+            ModuleMetricsRecorder previous = currentRecorder.get();
+            long[] startStats = recorder.startTask();
+            try {
+                task.run();
+            } finally {
+                recorder.stopTask(startStats, previous);
+            }
+        };
+    }
+
+    /**
+     * Wrap a task, see {@link #measured(Runnable)}.
+     * 
+     * @param task the task to wrap.
+     * @return the measured task or the task itself, if no recording is running.
+     */
+    public static <T> Callable<T> measured( Callable<T> task ) {
+        ModuleMetricsRecorder recorder = currentRecorder.get();
+        if (recorder == null || !recorder.running) {
+            return task;
+        }
+        return () -> {
+            ModuleMetricsRecorder previous = currentRecorder.get();
+            long[] startStats = recorder.startTask();
+            try {
+                return task.call();
+            } finally {
+                recorder.stopTask(startStats, previous);
+            }
+        };
+    }
+
+    /**
+     * @return the stats of the current thread at the task start or <code>null</code>, if the 
+     *          task runs in the calling thread, which is already measured.
+     */
+    private long[] startTask() {
+        long thread = Thread.currentThread().getId();
+        if (thread == callingThread) {
+            return null;
+        }
+        // tasks submitted by the task are measured too
+        currentRecorder.set(this);
+        return getThreadStats(thread);
+    }
+
+    /**
+     * @param previous the recorder that was running in the worker thread before the task, 
+     *          as a module running in an executor thread, which is restored.
+     */
+    private void stopTask( long[] startStats, ModuleMetricsRecorder previous ) {
+        if (startStats == null) {
+            return;
+        }
+        long thread = Thread.currentThread().getId();
+        if (previous != null) {
+            currentRecorder.set(previous);
+        } else {
+            currentRecorder.remove();
+        }
+        long[] stopStats = getThreadStats(thread);
+        long cpu = stopStats[0] - startStats[0];
+        if (stopStats[0] >= 0 && cpu > 0) {
+            workersCpu.addAndGet(cpu);
+            workerThreads.add(thread);
+        }
+        if (stopStats[1] >= 0) {
+            workersAllocated.addAndGet(Math.max(stopStats[1] - startStats[1], 0));
+        }
+    }
+
+    /**
+     * @return the [cpu time, allocated bytes] of a thread, -1 where not supported.
+     */
+    private static long[] getThreadStats( long thread ) {
+        long cpu = -1;
+        if (threadBean.isThreadCpuTimeSupported() && threadBean.isThreadCpuTimeEnabled()) {
+            cpu = threadBean.getThreadCpuTime(thread);
+        }
+        long bytes = -1;
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreadBean = (com.sun.management.ThreadMXBean) threadBean;
+            if (sunThreadBean.isThreadAllocatedMemorySupported() && sunThreadBean.isThreadAllocatedMemoryEnabled()) {
+                bytes = sunThreadBean.getThreadAllocatedBytes(thread);
+            }
+        }
+        return new long[]{cpu, bytes};
+    }
+
+}
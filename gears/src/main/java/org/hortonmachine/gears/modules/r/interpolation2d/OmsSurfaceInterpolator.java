@@ -39,38 +39,30 @@ import static org.hortonmachine.gears.libs.modules.Variables.IDW;
 import static org.hortonmachine.gears.libs.modules.Variables.TPS;
 
 import java.awt.image.WritableRaster;
-import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
-import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.RandomIterFactory;
 import javax.media.jai.iterator.WritableRandomIter;
 
-import org.geotools.coverage.grid.GridCoordinates2D;
 import org.geotools.coverage.grid.GridCoverage2D;
-import org.geotools.coverage.grid.GridGeometry2D;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.geometry.DirectPosition2D;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.modules.HMConstants;
-import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
+import org.hortonmachine.gears.libs.modules.multiprocessing.GridMultiProcessing;
 import org.hortonmachine.gears.modules.r.interpolation2d.core.IDWInterpolator;
 import org.hortonmachine.gears.modules.r.interpolation2d.core.ISurfaceInterpolator;
 import org.hortonmachine.gears.modules.r.interpolation2d.core.TPSInterpolator;
+import org.hortonmachine.gears.utils.KdTree2D;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.gears.utils.geometry.EGeometryType;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.type.GeometryDescriptor;
-import org.opengis.geometry.DirectPosition;
-import org.opengis.referencing.operation.TransformException;
 
 import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.index.strtree.STRtree;
 
 import oms3.annotations.Author;
 import oms3.annotations.Description;
@@ -94,7 +86,7 @@ import oms3.annotations.Unit;
 @Name(OMSSURFACEINTERPOLATOR_NAME)
 @Status(OMSSURFACEINTERPOLATOR_STATUS)
 @License(OMSSURFACEINTERPOLATOR_LICENSE)
-public class OmsSurfaceInterpolator extends HMModel {
+public class OmsSurfaceInterpolator extends GridMultiProcessing {
 
     @Description(OMSSURFACEINTERPOLATOR_IN_VECTOR_DESCRIPTION)
     @In
@@ -132,59 +124,72 @@ public class OmsSurfaceInterpolator extends HMModel {
 
     private ISurfaceInterpolator interpolator;
 
-    private STRtree coordinatesSpatialTree;
-
-    private GridGeometry2D gridGeometry;
-
     @Execute
     public void process() throws Exception {
         checkNull(inGrid);
 
-        gridGeometry = inGrid.getGridGeometry();
         RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(inGrid);
         final int cols = regionMap.getCols();
         int rows = regionMap.getRows();
-
-        coordinatesSpatialTree = new STRtree();
+        double west = regionMap.getWest();
+        double north = regionMap.getNorth();
+        double xRes = regionMap.getXres();
+        double yRes = regionMap.getYres();
+
+        double[] xControl;
+        double[] yControl;
+        double[] zControl;
+        int count = 0;
         if (inVector != null) {
             checkNull(fCat);
             GeometryDescriptor geometryDescriptor = inVector.getSchema().getGeometryDescriptor();
             if (!EGeometryType.isPoint(geometryDescriptor)) {
                 throw new ModelsIllegalargumentException("The geometry has to be a point geometry.", this, pm);
             }
-            SimpleFeatureIterator featureIterator = inVector.features();
-            Coordinate[] coordinates = new Coordinate[inVector.size()];
+            int size = inVector.size();
+            xControl = new double[size];
+            yControl = new double[size];
+            zControl = new double[size];
 
-            int index = 0;
-            pm.beginTask("Indexing control points...", coordinates.length);
-            while( featureIterator.hasNext() ) {
-                SimpleFeature feature = featureIterator.next();
-                Geometry geometry = (Geometry) feature.getDefaultGeometry();
-                coordinates[index] = geometry.getCoordinate();
-                double value = ((Number) feature.getAttribute(fCat)).doubleValue();
-                coordinates[index].z = value;
-
-                Envelope env = new Envelope(coordinates[index]);
-                coordinatesSpatialTree.insert(env, coordinates[index]);
-
-                pm.worked(1);
+            pm.beginTask("Indexing control points...", size);
+            SimpleFeatureIterator featureIterator = inVector.features();
+            try {
+                while( featureIterator.hasNext() ) {
+                    SimpleFeature feature = featureIterator.next();
+                    Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                    Coordinate coordinate = geometry.getCoordinate();
+                    xControl[count] = coordinate.x;
+                    yControl[count] = coordinate.y;
+                    zControl[count] = ((Number) feature.getAttribute(fCat)).doubleValue();
+                    count++;
+                    pm.worked(1);
+                }
+            } finally {
+                featureIterator.close();
             }
             pm.done();
-            pm.message("Indexed control points: " + coordinates.length);
+            pm.message("Indexed control points: " + count);
         } else {
             // create it from grid
-            pm.beginTask("Indexing control points...", cols);
-            RandomIter inIter = CoverageUtilities.getRandomIterator(inGrid);
-            int count = 0;
-            for( int c = 0; c < cols; c++ ) {
-                for( int r = 0; r < rows; r++ ) {
-                    double value = inIter.getSampleDouble(c, r, 0);
+            pm.beginTask("Indexing control points...", rows);
+            double[] gridData = CoverageUtilities.renderedImage2RowMajorDoubleArray(inGrid.getRenderedImage());
+            for( double value : gridData ) {
+                if (!HMConstants.isNovalue(value)) {
+                    count++;
+                }
+            }
+            xControl = new double[count];
+            yControl = new double[count];
+            zControl = new double[count];
+            int index = 0;
+            for( int r = 0; r < rows; r++ ) {
+                for( int c = 0; c < cols; c++ ) {
+                    double value = gridData[r * cols + c];
                     if (!HMConstants.isNovalue(value)) {
-                        Coordinate coordinate = CoverageUtilities.coordinateFromColRow(c, r, gridGeometry);
-                        coordinate.z = value;
-                        Envelope env = new Envelope(coordinate);
-                        coordinatesSpatialTree.insert(env, coordinate);
-                        count++;
+                        xControl[index] = west + (c + 0.5) * xRes;
+                        yControl[index] = north - (r + 0.5) * yRes;
+                        zControl[index] = value;
+                        index++;
                     }
                 }
                 pm.worked(1);
@@ -192,7 +197,7 @@ public class OmsSurfaceInterpolator extends HMModel {
             pm.done();
             pm.message("Indexed control points (from input grid): " + count);
         }
-        coordinatesSpatialTree.build();
+        KdTree2D tree = new KdTree2D(xControl, yControl, count);
 
         if (pMode.equals(IDW)) {
             interpolator = new IDWInterpolator(pBuffer);
@@ -204,86 +209,44 @@ public class OmsSurfaceInterpolator extends HMModel {
                 HMConstants.doubleNovalue);
         final WritableRandomIter interpolatedIter = RandomIterFactory.createWritable(interpolatedWR, null);
 
-        boolean doMultiThread = pMaxThreads > 1;
-
-        ExecutorService fixedThreadPool = null;
-        if (doMultiThread)
-            fixedThreadPool = Executors.newFixedThreadPool(pMaxThreads);
-
-        pm.beginTask("Performing interpolation...", rows);
-
-        final double[] eval = new double[1];
-        for( int r = 0; r < rows; r++ ) {
-            final int row = r;
-            if (doMultiThread) {
-                Runnable runner = new Runnable(){
-                    public void run() {
-                        processing(cols, coordinatesSpatialTree, interpolatedIter, eval, row);
+        pm.beginTask("Performing interpolation...", cols * rows);
+        processGridTiles(cols, rows, false, ( fromC, fromR, toC, toR ) -> {
+            KdTree2D.Neighbours neighbours = new KdTree2D.Neighbours();
+            double[] eval = new double[1];
+            for( int r = fromR; r < toR; r++ ) {
+                for( int c = fromC; c < toC; c++ ) {
+                    double x = west + (c + 0.5) * xRes;
+                    double y = north - (r + 0.5) * yRes;
+                    if (inMask != null) {
+                        inMask.evaluate(new DirectPosition2D(x, y), eval);
+                        if (isNovalue(eval[0])) {
+                            continue;
+                        }
                     }
-                };
-                fixedThreadPool.execute(runner);
-            } else {
-                processing(cols, coordinatesSpatialTree, interpolatedIter, eval, row);
-            }
-        }
 
-        if (doMultiThread) {
-            try {
-                fixedThreadPool.shutdown();
-                fixedThreadPool.awaitTermination(30, TimeUnit.DAYS);
-                fixedThreadPool.shutdownNow();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+                    // the control points in the square around the cell, the IDW drops
+                    // the ones outside the buffer radius
+                    int found = tree.withinBox(x - pBuffer, y - pBuffer, x + pBuffer, y + pBuffer, neighbours);
+                    // we need at least 4 points
+                    if (found >= 4) {
+                        double value = interpolator.getValue(xControl, yControl, zControl, neighbours.getIndexes(), found, x,
+                                y);
+                        interpolatedIter.setSample(c, r, 0, value);
+                    }
+                }
             }
-        }
+            pm.worked((toC - fromC) * (toR - fromR));
+        });
         pm.done();
 
         outRaster = CoverageUtilities.buildCoverage("interpolatedraster", interpolatedWR, regionMap,
                 inGrid.getCoordinateReferenceSystem());
 
     }
-    private void processing( final int cols, final STRtree tree, final WritableRandomIter interpolatedIter, final double[] eval,
-            final int row ) {
-        try {
-            for( int c = 0; c < cols; c++ ) {
-                final DirectPosition gridToWorld = gridGeometry.gridToWorld(new GridCoordinates2D(c, row));
-                // System.out.println(row + "/" + c);
-                boolean doProcess = true;
-                if (inMask != null) {
-                    inMask.evaluate(gridToWorld, eval);
-                    if (isNovalue(eval[0])) {
-                        doProcess = false;
-                    }
-                }
-
-                if (doProcess) {
-                    final Coordinate currentCoord = new Coordinate();
-                    final double[] coord = gridToWorld.getCoordinate();
-                    currentCoord.x = coord[0];
-                    currentCoord.y = coord[1];
-
-                    final Envelope env = new Envelope(currentCoord.x - pBuffer, currentCoord.x + pBuffer, currentCoord.y
-                            - pBuffer, currentCoord.y + pBuffer);
 
-                    @SuppressWarnings("unchecked")
-                    final List<Coordinate> result = tree.query(env);
-                    // System.out.println(row + "/" + c + "  = " + result.size());
-
-                    // we need at least 3 points
-                    if (result.size() < 4) {
-                        continue;
-                    }
-
-                    final double value = interpolator.getValue(result.toArray(new Coordinate[0]), currentCoord);
-                    synchronized (interpolatedIter) {
-                        interpolatedIter.setSample(c, row, 0, value);
-                    }
-                }
-
-            }
-            pm.worked(1);
-        } catch (TransformException e) {
-            e.printStackTrace();
-        }
+    @Override
+    protected ExecutionPlanner createDefaultPlanner() {
+        return createPlanner(pMaxThreads);
     }
+
 }
@@ -29,6 +29,11 @@ import com.vividsolutions.jts.geom.Coordinate;
  */
 public class IDWInterpolator implements ISurfaceInterpolator {
 
+    /**
+     * The squared minimum distance, to avoid infinite weights.
+     */
+    private static final double MIN_DISTANCE2 = 0.00001 * 0.00001;
+
     private final double buffer;
 
     public IDWInterpolator( double buffer ) {
@@ -36,28 +41,45 @@ public class IDWInterpolator implements ISurfaceInterpolator {
     }
 
     public double getValue( Coordinate[] controlPoints, Coordinate interpolated ) {
-        if (controlPoints.length == 0) {
+        int count = controlPoints.length;
+        double[] x = new double[count];
+        double[] y = new double[count];
+        double[] z = new double[count];
+        for( int i = 0; i < count; i++ ) {
+            x[i] = controlPoints[i].x;
+            y[i] = controlPoints[i].y;
+            z[i] = controlPoints[i].z;
+        }
+        return getValue(x, y, z, null, count, interpolated.x, interpolated.y);
+    }
+
+    public double getValue( double[] x, double[] y, double[] z, int[] indexes, int count, double xp, double yp ) {
+        if (count == 0) {
             return HMConstants.doubleNovalue;
         }
 
+        double buffer2 = buffer * buffer;
         double sumdValue = 0;
         double sumweight = 0;
 
-        for( Coordinate coordinate : controlPoints ) {
-            double distance = coordinate.distance(interpolated);
+        for( int i = 0; i < count; i++ ) {
+            int index = indexes == null ? i : indexes[i];
+            double dx = x[index] - xp;
+            double dy = y[index] - yp;
+            double distance2 = dx * dx + dy * dy;
             /*
-             * the index if built on envelope, we need a radius check.
+             * the control points could come from an envelope query, we need a radius check.
              * If not near, do not consider it.
              */
-            if (distance > buffer) {
+            if (distance2 > buffer2) {
                 continue;
             }
-            if (distance < 0.00001) {
-                distance = 0.00001;
+            if (distance2 < MIN_DISTANCE2) {
+                distance2 = MIN_DISTANCE2;
             }
-            double weight = (1 / Math.pow(distance, 2));
+            double weight = 1 / distance2;
 
-            sumdValue = sumdValue + coordinate.z * weight;
+            sumdValue = sumdValue + z[index] * weight;
 
             sumweight = sumweight + weight;
         }
@@ -33,7 +33,31 @@ public interface ISurfaceInterpolator {
      * @return the interpolated z value.
      */
     public double getValue( Coordinate[] controlPoints, Coordinate interpolated );
-    
-    
+
+    /**
+     * Gets an interpolated value in a given position, from control points kept in primitive arrays.
+     * 
+     * <p>The default implementation wraps the control points in {@link Coordinate}s, 
+     * implementations should override it to avoid the allocations.</p>
+     * 
+     * @param x the x coordinates of the control points.
+     * @param y the y coordinates of the control points.
+     * @param z the values of the control points.
+     * @param indexes the indexes of the control points to consider, or <code>null</code> 
+     *          to consider the first <code>count</code> points.
+     * @param count the number of control points to consider.
+     * @param xp the x of the position in which to interpolate.
+     * @param yp the y of the position in which to interpolate.
+     * @return the interpolated z value.
+     */
+    public default double getValue( double[] x, double[] y, double[] z, int[] indexes, int count, double xp, double yp ) {
+        Coordinate[] controlPoints = new Coordinate[count];
+        for( int i = 0; i < count; i++ ) {
+            int index = indexes == null ? i : indexes[i];
+            controlPoints[i] = new Coordinate(x[index], y[index], z[index]);
+        }
+        return getValue(controlPoints, new Coordinate(xp, yp));
+    }
+
     public double getBuffer();
-}
\ No newline at end of file
+}
@@ -48,10 +48,34 @@ public class TPSInterpolator implements ISurfaceInterpolator {
     }
 
     public double getValue( Coordinate[] controlPoints, Coordinate interpolated ) {
-        int controlPointsNum = controlPoints.length;
+        int count = controlPoints.length;
+        double[] x = new double[count];
+        double[] y = new double[count];
+        double[] z = new double[count];
+        for( int i = 0; i < count; i++ ) {
+            x[i] = controlPoints[i].x;
+            y[i] = controlPoints[i].y;
+            z[i] = controlPoints[i].z;
+        }
+        double value = getValue(x, y, z, null, count, interpolated.x, interpolated.y);
+        interpolated.z = value;
+        return value;
+    }
+
+    public double getValue( double[] x, double[] y, double[] z, int[] indexes, int count, double xp, double yp ) {
+        double[] px = new double[count];
+        double[] py = new double[count];
+        double[] pz = new double[count];
+        for( int i = 0; i < count; i++ ) {
+            int index = indexes == null ? i : indexes[i];
+            px[i] = x[index];
+            py[i] = y[index];
+            pz[i] = z[index];
+        }
+
         GeneralMatrix v = null;
         try {
-            v = makeMatrix(controlPoints);
+            v = makeMatrix(px, py, pz);
         } catch (Exception e) {
             return HMConstants.doubleNovalue;
         }
@@ -60,30 +84,35 @@ public class TPSInterpolator implements ISurfaceInterpolator {
         double a3 = v.getElement(v.getNumRow() - 1, 0);
 
         double sum = 0;
-        for( int i = 0; i < controlPointsNum; i++ ) {
-            double dist = interpolated.distance(controlPoints[i]);
+        for( int i = 0; i < count; i++ ) {
+            double dist = distance(xp, yp, px[i], py[i]);
             sum = sum + (v.getElement(i, 0) * functionU(dist));
         }
 
-        double value = (a1 + (a2 * interpolated.x) + (a3 * interpolated.y) + sum);
-        interpolated.z = value;
+        double value = (a1 + (a2 * xp) + (a3 * yp) + sum);
         return value;
     }
 
-    private GeneralMatrix makeMatrix( Coordinate[] controlPoints ) {
-        int pointsNum = controlPoints.length;
+    private GeneralMatrix makeMatrix( double[] x, double[] y, double[] z ) {
+        int pointsNum = x.length;
         GeneralMatrix L = new GeneralMatrix(pointsNum + 3, pointsNum + 3);
 
-        fillKsubMatrix(controlPoints, L);
-        fillPsubMatrix(controlPoints, L);
-        fillOsubMatrix(controlPoints, L);
+        fillKsubMatrix(x, y, L);
+        fillPsubMatrix(x, y, L);
+        fillOsubMatrix(pointsNum, L);
         L.invert();
-        GeneralMatrix V = fillVMatrix(0, controlPoints);
+        GeneralMatrix V = fillVMatrix(0, z);
         GeneralMatrix result = new GeneralMatrix(pointsNum + 3, 1);
         result.mul(L, V);
         return result;
     }
 
+    private static double distance( double x1, double y1, double x2, double y2 ) {
+        double dx = x1 - x2;
+        double dy = y1 - y2;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
     /**
      * Calculates U function for distance.
      * 
@@ -98,62 +127,46 @@ public class TPSInterpolator implements ISurfaceInterpolator {
         return distance * distance * Math.log(distance);
     }
 
-    /**
-     * Calculates U function where distance = ||p<sub>i</sub>, p<sub>j</sub>|| (from source points)
-     * 
-     * @param p_i p_i
-     * @param p_j p_j
-     * @return log(distance)*distance<sub>2</sub> or 0 if distance = 0
-     */
-    private double calculateFunctionU( Coordinate p_i, Coordinate p_j ) {
-        double distance = p_i.distance(p_j);
-        return functionU(distance);
-    }
-
     /**
      * Fill K submatrix (<a href="http://elonen.iki.fi/code/tpsdemo/index.html"> see more here</a>)
      * 
-     * @param controlPoints 
+     * @param x 
+     * @param y 
      * @param L
      */
-    private void fillKsubMatrix( Coordinate[] controlPoints, GeneralMatrix L ) {
-        double alfa = 0;
-        int controlPointsNum = controlPoints.length;
+    private void fillKsubMatrix( double[] x, double[] y, GeneralMatrix L ) {
+        int controlPointsNum = x.length;
         for( int i = 0; i < controlPointsNum; i++ ) {
             for( int j = i + 1; j < controlPointsNum; j++ ) {
-                double u = calculateFunctionU(controlPoints[i], controlPoints[j]);
+                double u = functionU(distance(x[i], y[i], x[j], y[j]));
                 L.setElement(i, j, u);
                 L.setElement(j, i, u);
-                alfa = alfa + (u * 2); // same for upper and lower part
             }
         }
-
-        alfa = alfa / (controlPointsNum * controlPointsNum);
     }
 
     /**
      * Fill L submatrix (<a href="http://elonen.iki.fi/code/tpsdemo/index.html"> see more here</a>)
      */
-    private void fillPsubMatrix( Coordinate[] controlPoints, GeneralMatrix L ) {
-        int controlPointsNum = controlPoints.length;
+    private void fillPsubMatrix( double[] x, double[] y, GeneralMatrix L ) {
+        int controlPointsNum = x.length;
         for( int i = 0; i < controlPointsNum; i++ ) {
             L.setElement(i, i, 0);
 
             L.setElement(i, controlPointsNum + 0, 1);
-            L.setElement(i, controlPointsNum + 1, controlPoints[i].x);
-            L.setElement(i, controlPointsNum + 2, controlPoints[i].y);
+            L.setElement(i, controlPointsNum + 1, x[i]);
+            L.setElement(i, controlPointsNum + 2, y[i]);
 
             L.setElement(controlPointsNum + 0, i, 1);
-            L.setElement(controlPointsNum + 1, i, controlPoints[i].x);
-            L.setElement(controlPointsNum + 2, i, controlPoints[i].y);
+            L.setElement(controlPointsNum + 1, i, x[i]);
+            L.setElement(controlPointsNum + 2, i, y[i]);
         }
     }
 
     /**
      * Fill O submatrix (<a href="http://elonen.iki.fi/code/tpsdemo/index.html"> see more here</a>)
      */
-    private void fillOsubMatrix( Coordinate[] controlPoints, GeneralMatrix L ) {
-        int controlPointsNum = controlPoints.length;
+    private void fillOsubMatrix( int controlPointsNum, GeneralMatrix L ) {
         for( int i = controlPointsNum; i < (controlPointsNum + 3); i++ ) {
             for( int j = controlPointsNum; j < (controlPointsNum + 3); j++ ) {
                 L.setElement(i, j, 0);
@@ -167,12 +180,12 @@ public class TPSInterpolator implements ISurfaceInterpolator {
      * @param dim 0 for dx, 1 for dy.
      * @return V Matrix
      */
-    private GeneralMatrix fillVMatrix( int dim, Coordinate[] controlPoints ) {
-        int controlPointsNum = controlPoints.length;
+    private GeneralMatrix fillVMatrix( int dim, double[] z ) {
+        int controlPointsNum = z.length;
         GeneralMatrix V = new GeneralMatrix(controlPointsNum + 3, 1);
 
         for( int i = 0; i < controlPointsNum; i++ ) {
-            V.setElement(i, 0, controlPoints[i].z);
+            V.setElement(i, 0, z[i]);
         }
 
         V.setElement(V.getNumRow() - 3, 0, 0);
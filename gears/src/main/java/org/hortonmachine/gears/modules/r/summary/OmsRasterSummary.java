@@ -22,6 +22,7 @@ import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERSUMMARY_AUTHOR
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERSUMMARY_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERSUMMARY_DOCUMENTATION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERSUMMARY_DO_HISTOGRAM_DESCRIPTION;
+import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERSUMMARY_DO_STREAMING_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERSUMMARY_IN_RASTER_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERSUMMARY_KEYWORDS;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERSUMMARY_LABEL;
@@ -40,6 +41,7 @@ import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERSUMMARY_STATUS
 import java.awt.image.RenderedImage;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import javax.media.jai.JAI;
 import javax.media.jai.ParameterBlockJAI;
@@ -60,6 +62,7 @@ import oms3.annotations.Status;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.libs.modules.streaming.TiledRasterPipeline;
 import org.hortonmachine.gears.utils.math.CoupledFieldsMoments;
 import org.jaitools.media.jai.zonalstats.Result;
 import org.jaitools.media.jai.zonalstats.ZonalStats;
@@ -90,6 +93,10 @@ public class OmsRasterSummary extends HMModel {
     @In
     public boolean doHistogram = false;
 
+    @Description(OMSRASTERSUMMARY_DO_STREAMING_DESCRIPTION)
+    @In
+    public boolean doStreaming = false;
+
     @Description(OMSRASTERSUMMARY_OUT_MIN_DESCRIPTION)
     @Out
     public Double outMin = null;
@@ -126,17 +133,53 @@ public class OmsRasterSummary extends HMModel {
             return;
         }
 
+        if (stats == null) {
+            stats = new Statistic[]{Statistic.MIN, Statistic.MAX, Statistic.MEAN, Statistic.SDEV, Statistic.RANGE, Statistic.SUM};
+        }
+
+        RenderedImage inRI = inRaster.getRenderedImage();
+        if (doStreaming) {
+            streamStatistics();
+        } else {
+            zonalStatistics(inRI);
+        }
+
+        if (!doHistogram)
+            return;
+
+        double[][] cb = new CoupledFieldsMoments().process(inRI, null, pBins, 1, 2, pm, 1);
+
+        int width = inRI.getWidth();
+        int height = inRI.getHeight();
+        int pixelsNum = width * height;
+        outCb = new double[cb.length + 1][3];
+
+        double sum = 0;
+        for( int i = 0; i < outCb.length; i++ ) {
+            if (i < outCb.length - 1) {
+                outCb[i][0] = cb[i][0];
+                outCb[i][1] = cb[i][1];
+                sum = sum + cb[i][1];
+                outCb[i][2] = cb[i][1] * 100.0 / pixelsNum;
+            } else {
+                outCb[i][0] = HMConstants.doubleNovalue;
+                double nans = pixelsNum - sum;
+                outCb[i][1] = nans;
+                outCb[i][2] = nans * 100.0 / pixelsNum;
+            }
+
+        }
+
+    }
+
+    private void zonalStatistics( RenderedImage inRI ) {
         // TODO use the geotools bridge instead of jaitools:
         // http://svn.osgeo.org/geotools/trunk/modules/library/coverage/src/test/java/org/geotools/coverage/processing/operation/ZonalStasTest.java
 
-        RenderedImage inRI = inRaster.getRenderedImage();
         ParameterBlockJAI pb = new ParameterBlockJAI("ZonalStats");
         pb.setSource("dataImage", inRI);
         // pb.setSource("zoneImage", null);
 
-        if (stats == null) {
-            stats = new Statistic[]{Statistic.MIN, Statistic.MAX, Statistic.MEAN, Statistic.SDEV, Statistic.RANGE, Statistic.SUM};
-        }
         pb.setParameter("stats", stats);
         
         // add novalue
@@ -176,33 +219,93 @@ public class OmsRasterSummary extends HMModel {
                 break;
             }
         }
+    }
 
-        if (!doHistogram)
-            return;
-
-        double[][] cb = new CoupledFieldsMoments().process(inRI, null, pBins, 1, 2, pm, 1);
-
-        int width = inRI.getWidth();
-        int height = inRI.getHeight();
-        int pixelsNum = width * height;
-        outCb = new double[cb.length + 1][3];
+    /**
+     * Calculates the statistics reading the raster tile by tile.
+     * 
+     * <p>Every tile gives count, min, max, sum, mean and sum of squared deviations, which are
+     * then merged in tile order, so that the result does not depend on the threads.</p>
+     */
+    private void streamStatistics() throws Exception {
+        TiledRasterPipeline pipeline = new TiledRasterPipeline(inRaster).setProgressMonitor(pm);
+        ConcurrentSkipListMap<Long, double[]> tilesStats = new ConcurrentSkipListMap<>();
+        long cols = pipeline.getRegionMap().getCols();
+        pipeline.visitTiles(0, window -> {
+            double count = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            double sum = 0;
+            double mean = 0;
+            double m2 = 0;
+            for( int r = window.getTileMinRow(); r <= window.getTileMaxRow(); r++ ) {
+                for( int c = window.getTileMinCol(); c <= window.getTileMaxCol(); c++ ) {
+                    window.moveTo(c, r);
+                    double value = window.getValue(0);
+                    if (HMConstants.isNovalue(value) || Double.isNaN(value)) {
+                        continue;
+                    }
+                    count++;
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                    sum += value;
+                    double delta = value - mean;
+                    mean += delta / count;
+                    m2 += delta * (value - mean);
+                }
+            }
+            long key = window.getTileMinRow() * cols + window.getTileMinCol();
+            tilesStats.put(key, new double[]{count, min, max, sum, mean, m2});
+        });
 
+        double count = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
         double sum = 0;
-        for( int i = 0; i < outCb.length; i++ ) {
-            if (i < outCb.length - 1) {
-                outCb[i][0] = cb[i][0];
-                outCb[i][1] = cb[i][1];
-                sum = sum + cb[i][1];
-                outCb[i][2] = cb[i][1] * 100.0 / pixelsNum;
-            } else {
-                outCb[i][0] = HMConstants.doubleNovalue;
-                double nans = pixelsNum - sum;
-                outCb[i][1] = nans;
-                outCb[i][2] = nans * 100.0 / pixelsNum;
+        double mean = 0;
+        double m2 = 0;
+        for( double[] tileStats : tilesStats.values() ) {
+            double tileCount = tileStats[0];
+            if (tileCount == 0) {
+                continue;
             }
-
+            double newCount = count + tileCount;
+            double delta = tileStats[4] - mean;
+            mean += delta * tileCount / newCount;
+            m2 += tileStats[5] + delta * delta * count * tileCount / newCount;
+            count = newCount;
+            min = Math.min(min, tileStats[1]);
+            max = Math.max(max, tileStats[2]);
+            sum += tileStats[3];
+        }
+        if (count == 0) {
+            min = max = mean = sum = Double.NaN;
         }
 
+        for( Statistic statistic : stats ) {
+            switch( statistic ) {
+            case MIN:
+                outMin = min;
+                break;
+            case MAX:
+                outMax = max;
+                break;
+            case MEAN:
+                outMean = mean;
+                break;
+            case SDEV:
+                outSdev = count > 1 ? Math.sqrt(m2 / (count - 1)) : Double.NaN;
+                break;
+            case RANGE:
+                outRange = max - min;
+                break;
+            case SUM:
+                outSum = sum;
+                break;
+            default:
+                break;
+            }
+        }
     }
 
     public static double[] getMinMax( GridCoverage2D raster ) throws Exception {
@@ -83,15 +83,31 @@ public class MBTilesHelper implements AutoCloseable {
         "select " + COL_METADATA_VALUE + " from " + TABLE_METADATA + " where " + COL_METADATA_NAME + "='format'";
 
     // INDEXES on Metadata and Tiles tables
-    private final static String INDEX_TILES = "CREATE UNIQUE INDEX tile_index ON " + TABLE_TILES + " ("
+    private final static String INDEX_TILES = "CREATE UNIQUE INDEX IF NOT EXISTS tile_index ON " + TABLE_TILES + " ("
         + COL_TILES_ZOOM_LEVEL + ", " + COL_TILES_TILE_COLUMN + ", " + COL_TILES_TILE_ROW + ")";
     private final static String INDEX_METADATA =
-        "CREATE UNIQUE INDEX name ON " + TABLE_METADATA + "( " + COL_METADATA_NAME + ")";
+        "CREATE UNIQUE INDEX IF NOT EXISTS name ON " + TABLE_METADATA + "( " + COL_METADATA_NAME + ")";
+
+    // replaces existing tiles once the index is there, so that tiles can be regenerated
+    private final static String INSERT_TILE = "INSERT OR REPLACE INTO " + TABLE_TILES + " (" + COL_TILES_ZOOM_LEVEL + ","
+        + COL_TILES_TILE_COLUMN + "," + COL_TILES_TILE_ROW + "," + COL_TILES_TILE_DATA + ") values (?,?,?,?)";
+
+    private final static String DELETE_TILE = "DELETE FROM " + TABLE_TILES + " where " + COL_TILES_ZOOM_LEVEL
+        + "=? AND " + COL_TILES_TILE_COLUMN + "=? AND " + COL_TILES_TILE_ROW + "=?";
+
+    /**
+     * The number of tiles inserted in a single batch and transaction.
+     */
+    public final static int TILES_BATCH_SIZE = 100;
 
     private Connection connection;
 
     private volatile int addedTiles = 0;
 
+    private PreparedStatement insertTileStatement;
+
+    private int batchedTiles = 0;
+
     private String imageFormat;
 
     public void open(File dbFile) throws SQLException {
@@ -99,10 +115,16 @@ public class MBTilesHelper implements AutoCloseable {
         connection = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getAbsolutePath());
     }
 
-    public void close() {
+    public synchronized void close() {
         try {
-            if (connection != null)
+            if (connection != null) {
+                flush();
+                if (insertTileStatement != null) {
+                    insertTileStatement.close();
+                    insertTileStatement = null;
+                }
                 connection.close();
+            }
         } catch (SQLException e) {
             // connection close failed.
             throw new ModelsRuntimeException("An error occurred while closing the database connection.", this);
@@ -124,7 +146,19 @@ public class MBTilesHelper implements AutoCloseable {
         connection.setAutoCommit(false);
     }
 
-    public void createIndexes() throws SQLException {
+    /**
+     * Open an existing database to add or replace tiles, without dropping the existing tables.
+     * 
+     * @param dbFile the database file.
+     * @throws SQLException
+     */
+    public void openExisting(File dbFile) throws SQLException {
+        open(dbFile);
+        connection.setAutoCommit(false);
+    }
+
+    public synchronized void createIndexes() throws SQLException {
+        flush();
         try (Statement statement = connection.createStatement()) {
             statement.addBatch(INDEX_TILES);
             statement.addBatch(INDEX_METADATA);
@@ -166,7 +200,7 @@ public class MBTilesHelper implements AutoCloseable {
 
     private String toMetadataQuery(String key, String value) {
         StringBuilder sb = new StringBuilder();
-        sb.append("INSERT INTO " + TABLE_METADATA + " ");
+        sb.append("INSERT OR REPLACE INTO " + TABLE_METADATA + " ");
         sb.append("(");
         sb.append(COL_METADATA_NAME);
         sb.append(",");
@@ -180,40 +214,79 @@ public class MBTilesHelper implements AutoCloseable {
         return query;
     }
 
-    public synchronized void addTile(int x, int y, int z, BufferedImage image, String format) throws Exception {
-        addedTiles++;
-
+    /**
+     * Add a tile to the database.
+     * 
+     * <p>The image is encoded in the calling thread, only the insert is synchronized.
+     * Tiles are inserted in batches of {@link #TILES_BATCH_SIZE}, call {@link #flush()}
+     * to write the pending ones.</p>
+     * 
+     * @param x the tile x.
+     * @param y the tile y.
+     * @param z the zoomlevel.
+     * @param image the tile image.
+     * @param format the image format (jpg, png).
+     * @throws Exception
+     */
+    public void addTile(int x, int y, int z, BufferedImage image, String format) throws Exception {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         ImageIO.write(image, format, baos);
-        byte[] res = baos.toByteArray();
+        addTile(x, y, z, baos.toByteArray());
+    }
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("INSERT INTO " + TABLE_TILES + " ");
-        sb.append("(");
-        sb.append(COL_TILES_ZOOM_LEVEL);
-        sb.append(",");
-        sb.append(COL_TILES_TILE_COLUMN);
-        sb.append(",");
-        sb.append(COL_TILES_TILE_ROW);
-        sb.append(",");
-        sb.append(COL_TILES_TILE_DATA);
-        sb.append(") values (");
-        sb.append(z);
-        sb.append(",");
-        sb.append(x);
-        sb.append(",");
-        sb.append(y);
-        sb.append(",");
-        sb.append("?");
-        sb.append(")");
-        String query = sb.toString();
+    /**
+     * Add an encoded tile to the database.
+     * 
+     * @param x the tile x.
+     * @param y the tile y.
+     * @param z the zoomlevel.
+     * @param imageBytes the encoded tile image.
+     * @throws SQLException
+     */
+    public synchronized void addTile(int x, int y, int z, byte[] imageBytes) throws SQLException {
+        if (insertTileStatement == null) {
+            insertTileStatement = connection.prepareStatement(INSERT_TILE);
+        }
+        insertTileStatement.setInt(1, z);
+        insertTileStatement.setInt(2, x);
+        insertTileStatement.setInt(3, y);
+        insertTileStatement.setBytes(4, imageBytes);
+        insertTileStatement.addBatch();
+        addedTiles++;
+        batchedTiles++;
 
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
-            statement.setBytes(1, res);
-            statement.execute();
+        if (batchedTiles >= TILES_BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Remove a tile from the database, if it exists.
+     * 
+     * @param x the tile x.
+     * @param y the tile y.
+     * @param z the zoomlevel.
+     * @throws SQLException
+     */
+    public synchronized void deleteTile(int x, int y, int z) throws SQLException {
+        flush();
+        try (PreparedStatement statement = connection.prepareStatement(DELETE_TILE)) {
+            statement.setInt(1, z);
+            statement.setInt(2, x);
+            statement.setInt(3, y);
+            statement.executeUpdate();
         }
+    }
 
-        if (addedTiles % 20 == 0) {
+    /**
+     * Insert and commit the pending batch of tiles.
+     * 
+     * @throws SQLException
+     */
+    public synchronized void flush() throws SQLException {
+        if (batchedTiles > 0) {
+            insertTileStatement.executeBatch();
+            batchedTiles = 0;
             connection.commit();
         }
     }
@@ -221,6 +294,10 @@ public class MBTilesHelper implements AutoCloseable {
     /**
      * Get a Tile image from the database.
      * 
+     * <p>Tiles still pending in the insert batch are not visible, call {@link #flush()}
+     * before reading them. Only the query holds the lock, the image is decoded in the 
+     * calling thread.</p>
+     * 
      * @param x
      * @param y
      * @param z
@@ -228,22 +305,27 @@ public class MBTilesHelper implements AutoCloseable {
      * @throws Exception
      */
     public BufferedImage getTile(int x, int y, int z) throws Exception {
-        try (PreparedStatement statement = connection.prepareStatement(SELECTQUERY)) {
-            statement.setInt(1, z);
-            statement.setInt(2, x);
-            statement.setInt(3, y);
-            ResultSet resultSet = statement.executeQuery();
-            if (resultSet.next()) {
-                byte[] imageBytes = resultSet.getBytes(1);
-                boolean orig = ImageIO.getUseCache();
-                ImageIO.setUseCache(false);
-                InputStream in = new ByteArrayInputStream(imageBytes);
-                BufferedImage bufferedImage = ImageIO.read(in);
-                ImageIO.setUseCache(orig);
-                return bufferedImage;
+        byte[] imageBytes = null;
+        synchronized (this) {
+            try (PreparedStatement statement = connection.prepareStatement(SELECTQUERY)) {
+                statement.setInt(1, z);
+                statement.setInt(2, x);
+                statement.setInt(3, y);
+                ResultSet resultSet = statement.executeQuery();
+                if (resultSet.next()) {
+                    imageBytes = resultSet.getBytes(1);
+                }
             }
         }
-        return null;
+        if (imageBytes == null) {
+            return null;
+        }
+        boolean orig = ImageIO.getUseCache();
+        ImageIO.setUseCache(false);
+        InputStream in = new ByteArrayInputStream(imageBytes);
+        BufferedImage bufferedImage = ImageIO.read(in);
+        ImageIO.setUseCache(orig);
+        return bufferedImage;
     }
 
     /**
@@ -47,9 +47,11 @@ import static org.hortonmachine.gears.modules.r.tmsgenerator.MBTilesHelper.TILES
 
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
 
 import oms3.annotations.Author;
 import oms3.annotations.Description;
@@ -74,7 +76,8 @@ import org.hortonmachine.gears.libs.exceptions.ModelsIOException;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.exceptions.ModelsUserCancelException;
 import org.hortonmachine.gears.libs.modules.HMConstants;
-import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
+import org.hortonmachine.gears.libs.modules.multiprocessing.MultiProcessing;
 import org.hortonmachine.gears.utils.CrsUtilities;
 import org.hortonmachine.gears.utils.features.FeatureUtilities;
 import org.hortonmachine.gears.utils.files.FileUtilities;
@@ -99,7 +102,7 @@ import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
 @Name(OMSTMSGENERATOR_NAME)
 @Status(OMSTMSGENERATOR_STATUS)
 @License(OMSTMSGENERATOR_LICENSE)
-public class OmsTmsGenerator extends HMModel {
+public class OmsTmsGenerator extends MultiProcessing {
 
     @Description(OMSTMSGENERATOR_IN_RASTER_FILE_DESCRIPTION)
     @UI(HMConstants.FILEIN_UI_HINT_RASTER)
@@ -189,6 +192,14 @@ public class OmsTmsGenerator extends HMModel {
     @In
     public boolean doMbtiles = false;
 
+    @Description("Render only the max zoom level from the maps and build the lower levels from the tiles of the next level.")
+    @In
+    public boolean doPyramid = false;
+
+    @Description("Regenerate only the tiles covered by the maps that changed since the last run.")
+    @In
+    public boolean doIncremental = false;
+
     @Description(OMSTMSGENERATOR_IN_PATH_DESCRIPTION)
     @In
     public String inPath;
@@ -200,9 +211,13 @@ public class OmsTmsGenerator extends HMModel {
 
     private MBTilesHelper mbtilesHelper;
 
-    public CoordinateReferenceSystem dataCrs;
+    private File baseFolder;
+
+    private String format;
 
-    private volatile boolean cancelModule = false;
+    private String ext;
+
+    public CoordinateReferenceSystem dataCrs;
 
     @Execute
     public void process() throws Exception {
@@ -217,7 +232,10 @@ public class OmsTmsGenerator extends HMModel {
                     dataCrs = CRS.parseWKT(wkt);
                 }
             }
-            String format = null;
+            // the tiles of the last run, which the incremental mode updates
+            boolean outputExists = doMbtiles ? new File(inPath, pName + ".mbtiles").exists() : new File(inPath, pName).exists();
+
+            format = null;
             if (doMbtiles) {
                 mbtilesHelper = new MBTilesHelper();
                 File dbFolder = new File(inPath);
@@ -233,14 +251,19 @@ public class OmsTmsGenerator extends HMModel {
                 float e = (float) llEnvelope.getMaxX();
 
                 format = pImagetype == 0 ? "png" : "jpg";
-                mbtilesHelper.open(dbFile);
-                mbtilesHelper.createTables(false);
+                if (doIncremental && dbFile.exists()) {
+                    mbtilesHelper.openExisting(dbFile);
+                } else {
+                    mbtilesHelper.open(dbFile);
+                    // the pyramid reads back the tiles of the previous level, which needs the index
+                    mbtilesHelper.createTables(doPyramid);
+                }
                 mbtilesHelper.fillMetadata(n, s, w, e, pName, format, pMinzoom, pMaxzoom);
             }
 
             int threads = getDefaultThreadsNum();
 
-            String ext = "png";
+            ext = "png";
             if (pImagetype == 1) {
                 ext = "jpg";
             }
@@ -283,7 +306,7 @@ public class OmsTmsGenerator extends HMModel {
             }
 
             File inFolder = new File(inPath);
-            final File baseFolder = new File(inFolder, pName);
+            baseFolder = new File(inFolder, pName);
 
             final ImageGenerator imgGen = new ImageGenerator(pm, mercatorCrs);
             if (inWMS != null) {
@@ -321,10 +344,35 @@ public class OmsTmsGenerator extends HMModel {
             double e = mercatorBounds.getMaxX();
             double n = mercatorBounds.getMaxY();
 
+            /*
+             * in incremental mode only the tiles touching the changed 
+             * sources are regenerated, everything if the state is unknown.
+             */
+            TmsSourcesState sourcesState = null;
+            Envelope changedBounds = null;
+            if (doIncremental) {
+                sourcesState = new TmsSourcesState(new File(inFolder, pName + ".tmsstate"), mercatorCrs, dataCrs);
+                if (!outputExists) {
+                    sourcesState.discard();
+                }
+                String settings = pMinzoom + "," + pMaxzoom + "," + pImagetype + "," + doPyramid + "," + inWMS + ","
+                        + inZoomLimitVector + "," + pZoomLimit + "," + doMbtiles + "," + Arrays.toString(pCheckcolor) + ","
+                        + pNorth + "," + pSouth + "," + pWest + "," + pEast;
+                changedBounds = sourcesState.getChangedBounds(settings, inRasters, inVectors);
+                if (changedBounds == null) {
+                    pm.message("Regenerating all the tiles.");
+                } else if (changedBounds.isNull()) {
+                    pm.message("No map changed since the last run.");
+                } else {
+                    pm.message("Regenerating the tiles in: " + changedBounds);
+                }
+            }
+
             final GlobalMercator mercator = new GlobalMercator();
 
-            for( int z = pMinzoom; z <= pMaxzoom; z++ ) {
+            for( int z = pMaxzoom; z >= pMinzoom; z-- ) {
                 checkCancel();
+                boolean fromMaps = !doPyramid || z == pMaxzoom;
 
                 // get ul and lr tile number
                 int[] llTileNumber = mercator.MetersToTile(w, s, z);
@@ -335,120 +383,71 @@ public class OmsTmsGenerator extends HMModel {
                 int endXTile = urTileNumber[0];
                 int endYTile = urTileNumber[1];
 
-                int tileNum = 0;
-
-                final ReferencedEnvelope levelBounds = new ReferencedEnvelope(mercatorCrs);
-
-                ExecutorService fixedThreadPool = Executors.newFixedThreadPool(threads);
-
-                pm.beginTask("Generating tiles at zoom level: " + z, (endXTile - startXTile + 1) * (endYTile - startYTile + 1));
+                List<int[]> tiles = new ArrayList<>();
                 for( int i = startXTile; i <= endXTile; i++ ) {
                     checkCancel();
                     for( int j = startYTile; j <= endYTile; j++ ) {
-                        checkCancel();
                         double[] bounds = mercator.TileBounds(i, j, z);
-                        double west = bounds[0];
-                        double south = bounds[1];
-                        double east = bounds[2];
-                        double north = bounds[3];
-
-                        final ReferencedEnvelope tmpBounds = new ReferencedEnvelope(west, east, south, north, mercatorCrs);
-                        levelBounds.expandToInclude(tmpBounds);
+                        Envelope tileBounds = new Envelope(bounds[0], bounds[2], bounds[1], bounds[3]);
 
                         // if there is a zoom level geometry limitation, apply it
                         if (zoomLimitGeometry != null && z > pZoomLimit) {
-                            double safeExtend = tmpBounds.getWidth() > tmpBounds.getHeight()
-                                    ? tmpBounds.getWidth()
-                                    : tmpBounds.getHeight();
-                            final ReferencedEnvelope tmp = new ReferencedEnvelope(tmpBounds);
+                            double safeExtend = tileBounds.getWidth() > tileBounds.getHeight()
+                                    ? tileBounds.getWidth()
+                                    : tileBounds.getHeight();
+                            final Envelope tmp = new Envelope(tileBounds);
                             tmp.expandBy(safeExtend);
                             Polygon polygon = FeatureUtilities.envelopeToPolygon(tmp);
                             if (!zoomLimitGeometry.intersects(polygon)) {
-                                pm.worked(1);
                                 continue;
                             }
                         }
 
+                        boolean changed = changedBounds == null || changedBounds.intersects(tileBounds);
                         if (mbtilesHelper != null) {
-                            final int x = i;
-                            final int y = j;
-                            final int zz = z;
-                            final String fformat = format;
-                            tileNum++;
-                            Runnable runner = new Runnable(){
-                                public void run() {
-                                    if (!cancelModule) {
-                                        try {
-                                            checkCancel();
-                                            BufferedImage image = imgGen.getImageWithCheck(tmpBounds, TILESIZE, TILESIZE, 0.0,
-                                                    pCheckcolor);
-                                            if (image != null) {
-                                                mbtilesHelper.addTile(x, y, zz, image, fformat);
-                                            }
-                                        } catch (Exception e) {
-                                            pm.errorMessage(e.getMessage());
-                                            cancelModule = true;
-                                        }
-                                    }
-                                    pm.worked(1);
-                                }
-                            };
-                            fixedThreadPool.execute(runner);
-
-                        } else {
-                            File imageFolder = new File(baseFolder, z + "/" + i);
-                            if (!imageFolder.exists()) {
-                                if (!imageFolder.mkdirs()) {
-                                    throw new ModelsIOException("Unable to create folder:" + imageFolder, this);
-                                }
+                            if (doIncremental && !changed) {
+                                continue;
                             }
-
-                            File ignoreMediaFile = new File(imageFolder, ".nomedia");
-                            ignoreMediaFile.createNewFile();
-
-                            final File imageFile = new File(imageFolder, j + "." + ext);
-                            if (imageFile.exists()) {
-                                pm.worked(1);
+                        } else {
+                            File imageFile = new File(baseFolder, z + "/" + i + "/" + j + "." + ext);
+                            if (imageFile.exists() && !(doIncremental && changed)) {
                                 continue;
                             }
-                            tileNum++;
-                            final String imagePath = imageFile.getAbsolutePath();
-                            final ReferencedEnvelope finalBounds = tmpBounds;
-                            Runnable runner = new Runnable(){
-                                public void run() {
-                                    if (!cancelModule) {
-                                        try {
-                                            if (pImagetype == 1) {
-                                                imgGen.dumpJpgImage(imagePath, finalBounds, TILESIZE, TILESIZE, 0.0, pCheckcolor);
-                                            } else {
-                                                imgGen.dumpPngImage(imagePath, finalBounds, TILESIZE, TILESIZE, 0.0, pCheckcolor);
-                                            }
-                                            pm.worked(1);
-                                        } catch (Exception ex) {
-                                            pm.errorMessage(ex.getMessage());
-                                            cancelModule = true;
-                                        }
-                                    }
-                                }
-                            };
-                            fixedThreadPool.execute(runner);
                         }
+                        tiles.add(new int[]{i, j});
                     }
                 }
-                try {
-                    fixedThreadPool.shutdown();
-                    while( !fixedThreadPool.isTerminated() ) {
-                        Thread.sleep(100);
+
+                int zoom = z;
+                pm.beginTask("Generating tiles at zoom level: " + z, tiles.size());
+                if (!tiles.isEmpty()) {
+                    ExecutionPlanner planner = createPlanner(threads);
+                    planner.setNumberOfTasks(tiles.size());
+                    for( int[] tile : tiles ) {
+                        planner.submit(() -> {
+                            checkCancel();
+                            BufferedImage image;
+                            if (fromMaps) {
+                                double[] bounds = mercator.TileBounds(tile[0], tile[1], zoom);
+                                ReferencedEnvelope tileBounds = new ReferencedEnvelope(bounds[0], bounds[2], bounds[1],
+                                        bounds[3], mercatorCrs);
+                                image = imgGen.getImageWithCheck(tileBounds, TILESIZE, TILESIZE, 0.0, pCheckcolor);
+                            } else {
+                                image = buildFromChildren(tile[0], tile[1], zoom);
+                            }
+                            writeTile(tile[0], tile[1], zoom, image);
+                            pm.worked(1);
+                        });
                     }
-                } catch (InterruptedException exx) {
-                    exx.printStackTrace();
+                    planner.join();
+                    addProcessedElements(tiles.size());
+                }
+                if (mbtilesHelper != null) {
+                    mbtilesHelper.flush();
                 }
                 pm.done();
 
-                pm.message("Zoom level: " + z + " has " + tileNum + " tiles.");
-                // pm.message("Boundary covered at Zoom level: " + z + ": " + levelBounds);
-                // pm.message("Total boundary wanted: " + mercatorBounds);
-
+                pm.message("Zoom level: " + z + " has " + tiles.size() + " new tiles.");
             }
 
             if (mbtilesHelper != null) {
@@ -471,8 +470,72 @@ public class OmsTmsGenerator extends HMModel {
                 File propFile = new File(inFolder, pName + ".mapurl");
                 FileUtilities.writeFile(properties.toString(), propFile);
             }
+            if (sourcesState != null) {
+                sourcesState.save();
+            }
         } catch (ModelsUserCancelException e) {
             pm.errorMessage(ModelsUserCancelException.DEFAULTMESSAGE);
         }
     }
+
+    /**
+     * Build a tile from the four tiles of the next zoom level.
+     * 
+     * @return the tile or <code>null</code> if it would be empty.
+     */
+    private BufferedImage buildFromChildren( int x, int y, int z ) throws Exception {
+        int[][] children = TilePyramidHelper.getChildren(x, y);
+        BufferedImage[] childImages = new BufferedImage[children.length];
+        for( int i = 0; i < children.length; i++ ) {
+            childImages[i] = readTile(children[i][0], children[i][1], z + 1);
+        }
+        int[] background = pCheckcolor != null ? pCheckcolor : new int[]{255, 255, 255};
+        BufferedImage image = TilePyramidHelper.downsample(childImages, background);
+        if (image != null && pCheckcolor != null && ImageGenerator.isAllOfCheckColor(pCheckcolor, image)) {
+            return null;
+        }
+        return image;
+    }
+
+    private BufferedImage readTile( int x, int y, int z ) throws Exception {
+        if (mbtilesHelper != null) {
+            return mbtilesHelper.getTile(x, y, z);
+        }
+        File imageFile = new File(baseFolder, z + "/" + x + "/" + y + "." + ext);
+        if (imageFile.exists()) {
+            return ImageIO.read(imageFile);
+        }
+        return null;
+    }
+
+    /**
+     * Write a tile, or remove the existing one if the new tile is empty.
+     */
+    private void writeTile( int x, int y, int z, BufferedImage image ) throws Exception {
+        if (mbtilesHelper != null) {
+            if (image != null) {
+                mbtilesHelper.addTile(x, y, z, image, format);
+            } else if (doIncremental) {
+                mbtilesHelper.deleteTile(x, y, z);
+            }
+        } else {
+            File imageFolder = new File(baseFolder, z + "/" + x);
+            File imageFile = new File(imageFolder, y + "." + ext);
+            if (image != null) {
+                synchronized (this) {
+                    if (!imageFolder.exists()) {
+                        if (!imageFolder.mkdirs()) {
+                            throw new ModelsIOException("Unable to create folder:" + imageFolder, this);
+                        }
+                        File ignoreMediaFile = new File(imageFolder, ".nomedia");
+                        ignoreMediaFile.createNewFile();
+                    }
+                }
+                ImageIO.write(image, ext, imageFile);
+            } else if (imageFile.exists()) {
+                imageFile.delete();
+            }
+        }
+    }
+
 }
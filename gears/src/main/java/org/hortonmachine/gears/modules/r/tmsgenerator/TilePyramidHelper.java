@@ -0,0 +1,105 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules.r.tmsgenerator;
+
+import static org.hortonmachine.gears.modules.r.tmsgenerator.MBTilesHelper.TILESIZE;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Builds the tiles of a zoom level from the tiles of the next zoom level.
+ * 
+ * <p>In the TMS scheme the tile (x, y, z) is covered by the tiles 
+ * (2x, 2y), (2x+1, 2y) in the south half and (2x, 2y+1), (2x+1, 2y+1) in the
+ * north half of zoom level z+1. Every pixel of the parent tile is the mean of 
+ * the 2x2 pixels of the child tile covering it.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TilePyramidHelper {
+
+    private TilePyramidHelper() {
+    }
+
+    /**
+     * Get the children of a tile, in the order: upper left, upper right, lower left, lower right.
+     * 
+     * @param x the tile x.
+     * @param y the tile y (TMS).
+     * @return the [x, y] of the four children in the next zoom level.
+     */
+    public static int[][] getChildren( int x, int y ) {
+        return new int[][]{//
+                {2 * x, 2 * y + 1}, //
+                {2 * x + 1, 2 * y + 1}, //
+                {2 * x, 2 * y}, //
+                {2 * x + 1, 2 * y}//
+        };
+    }
+
+    /**
+     * Downsample four child tiles to their parent tile.
+     * 
+     * @param children the child tiles as ordered by {@link #getChildren(int, int)}. 
+     *          Missing tiles can be <code>null</code>.
+     * @param background the rgb color of the areas without child tiles.
+     * @return the parent tile or <code>null</code>, if all the children are missing.
+     */
+    public static BufferedImage downsample( BufferedImage[] children, int[] background ) {
+        int backgroundRgb = (background[0] & 0xFF) << 16 | (background[1] & 0xFF) << 8 | (background[2] & 0xFF);
+        int half = TILESIZE / 2;
+        BufferedImage parent = null;
+        int[] childPixels = new int[TILESIZE * TILESIZE];
+        int[] parentPixels = new int[half * half];
+        for( int i = 0; i < children.length; i++ ) {
+            BufferedImage child = children[i];
+            if (child == null) {
+                continue;
+            }
+            if (parent == null) {
+                parent = new BufferedImage(TILESIZE, TILESIZE, BufferedImage.TYPE_INT_RGB);
+                int[] backgroundPixels = new int[TILESIZE * TILESIZE];
+                Arrays.fill(backgroundPixels, backgroundRgb);
+                parent.setRGB(0, 0, TILESIZE, TILESIZE, backgroundPixels, 0, TILESIZE);
+            }
+            child.getRGB(0, 0, TILESIZE, TILESIZE, childPixels, 0, TILESIZE);
+            for( int r = 0; r < half; r++ ) {
+                int row1 = 2 * r * TILESIZE;
+                int row2 = row1 + TILESIZE;
+                for( int c = 0; c < half; c++ ) {
+                    int c1 = 2 * c;
+                    parentPixels[r * half + c] = mean(childPixels[row1 + c1], childPixels[row1 + c1 + 1],
+                            childPixels[row2 + c1], childPixels[row2 + c1 + 1]);
+                }
+            }
+            int startX = (i % 2) * half;
+            int startY = (i / 2) * half;
+            parent.setRGB(startX, startY, half, half, parentPixels, 0, half);
+        }
+        return parent;
+    }
+
+    private static int mean( int p1, int p2, int p3, int p4 ) {
+        int r = (((p1 >> 16) & 0xFF) + ((p2 >> 16) & 0xFF) + ((p3 >> 16) & 0xFF) + ((p4 >> 16) & 0xFF) + 2) >> 2;
+        int g = (((p1 >> 8) & 0xFF) + ((p2 >> 8) & 0xFF) + ((p3 >> 8) & 0xFF) + ((p4 >> 8) & 0xFF) + 2) >> 2;
+        int b = ((p1 & 0xFF) + (p2 & 0xFF) + (p3 & 0xFF) + (p4 & 0xFF) + 2) >> 2;
+        return r << 16 | g << 8 | b;
+    }
+
+}
@@ -0,0 +1,234 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules.r.tmsgenerator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Properties;
+
+import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.GridFormatFinder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.hortonmachine.gears.io.rasterreader.OmsRasterReader;
+import org.hortonmachine.gears.io.vectorreader.OmsVectorReader;
+import org.hortonmachine.gears.utils.files.FileUtilities;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * The state of the sources of a tileset, used to regenerate only the tiles
+ * covered by the sources that changed since the last run.
+ * 
+ * <p>For every source the modification time and size of the file (and of its 
+ * style) are kept, together with its bounds in the tiles crs. The state is kept
+ * in a properties file next to the tileset.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TmsSourcesState {
+
+    private static final String MODIFIED = ".modified";
+    private static final String LENGTH = ".length";
+    private static final String BOUNDS = ".bounds";
+    private static final String SETTINGS = "settings";
+
+    private final File stateFile;
+    private final CoordinateReferenceSystem tilesCrs;
+    private final CoordinateReferenceSystem defaultCrs;
+    private final Properties previous = new Properties();
+    private final Properties current = new Properties();
+    private boolean hasPrevious = false;
+
+    /**
+     * @param stateFile the file of the state.
+     * @param tilesCrs the crs of the tiles, in which the bounds are kept.
+     * @param defaultCrs the crs to use for sources without crs.
+     * @throws IOException
+     */
+    public TmsSourcesState( File stateFile, CoordinateReferenceSystem tilesCrs, CoordinateReferenceSystem defaultCrs )
+            throws IOException {
+        this.stateFile = stateFile;
+        this.tilesCrs = tilesCrs;
+        this.defaultCrs = defaultCrs;
+        if (stateFile.exists()) {
+            try (InputStream in = new FileInputStream(stateFile)) {
+                previous.load(in);
+            }
+            hasPrevious = true;
+        }
+    }
+
+    /**
+     * Forgets the state of the last run, to call if the tiles it describes are missing,
+     * so that everything is regenerated.
+     */
+    public void discard() {
+        previous.clear();
+        hasPrevious = false;
+    }
+
+    /**
+     * Calculates the area covered by the sources that changed since the last run.
+     * 
+     * @param settings a description of the tileset settings. If they changed, all is regenerated.
+     * @param rasterPaths the raster sources.
+     * @param vectorPaths the vector sources.
+     * @return the changed area, which is empty if nothing changed, or <code>null</code> if
+     *          everything has to be regenerated.
+     * @throws Exception
+     */
+    public Envelope getChangedBounds( String settings, List<String> rasterPaths, List<String> vectorPaths ) throws Exception {
+        current.clear();
+        current.setProperty(SETTINGS, settings);
+        boolean all = !hasPrevious || !settings.equals(previous.getProperty(SETTINGS));
+
+        Envelope changed = new Envelope();
+        if (rasterPaths != null) {
+            for( String path : rasterPaths ) {
+                all = checkSource(path, true, changed) || all;
+            }
+        }
+        if (vectorPaths != null) {
+            for( String path : vectorPaths ) {
+                all = checkSource(path, false, changed) || all;
+            }
+        }
+        // removed sources
+        for( String key : previous.stringPropertyNames() ) {
+            if (key.endsWith(BOUNDS) && !current.containsKey(key)) {
+                Envelope previousBounds = parseBounds(previous.getProperty(key));
+                if (previousBounds == null) {
+                    all = true;
+                } else {
+                    changed.expandToInclude(previousBounds);
+                }
+            }
+        }
+        return all ? null : changed;
+    }
+
+    /**
+     * Write the current state, to call once the tiles have been generated.
+     * 
+     * @throws IOException
+     */
+    public void save() throws IOException {
+        try (OutputStream out = new FileOutputStream(stateFile)) {
+            current.store(out, "Sources of the tileset");
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the bounds of the source are unknown and all has to be regenerated.
+     */
+    private boolean checkSource( String path, boolean isRaster, Envelope changed ) throws Exception {
+        File file = new File(path);
+        if (!file.exists()) {
+            return false;
+        }
+        long modified = file.lastModified();
+        long length = file.length();
+        File styleFile = FileUtilities.substituteExtention(file, "sld");
+        if (styleFile.exists()) {
+            modified = Math.max(modified, styleFile.lastModified());
+            length += styleFile.length();
+        }
+
+        String previousModified = previous.getProperty(path + MODIFIED);
+        String previousLength = previous.getProperty(path + LENGTH);
+        String previousBounds = previous.getProperty(path + BOUNDS);
+        String bounds;
+        boolean all = false;
+        if (String.valueOf(modified).equals(previousModified) && String.valueOf(length).equals(previousLength)
+                && previousBounds != null) {
+            bounds = previousBounds;
+        } else {
+            Envelope sourceBounds = readBounds(path, isRaster);
+            Envelope oldBounds = parseBounds(previousBounds);
+            if (sourceBounds == null) {
+                all = true;
+                bounds = "";
+            } else {
+                changed.expandToInclude(sourceBounds);
+                bounds = sourceBounds.getMinX() + "," + sourceBounds.getMinY() + "," + sourceBounds.getMaxX() + ","
+                        + sourceBounds.getMaxY();
+            }
+            if (oldBounds != null) {
+                changed.expandToInclude(oldBounds);
+            } else if (previousBounds != null) {
+                all = true;
+            }
+        }
+        current.setProperty(path + MODIFIED, String.valueOf(modified));
+        current.setProperty(path + LENGTH, String.valueOf(length));
+        current.setProperty(path + BOUNDS, bounds);
+        return all;
+    }
+
+    /**
+     * @return the bounds of the source in the tiles crs or <code>null</code>, if they can't be read.
+     */
+    private Envelope readBounds( String path, boolean isRaster ) {
+        try {
+            ReferencedEnvelope bounds;
+            if (isRaster) {
+                AbstractGridCoverage2DReader reader = null;
+                try {
+                    AbstractGridFormat format = GridFormatFinder.findFormat(new File(path));
+                    reader = format.getReader(new File(path));
+                } catch (Exception e) {
+                    // try the raster reader
+                }
+                if (reader != null) {
+                    try {
+                        bounds = new ReferencedEnvelope(reader.getOriginalEnvelope());
+                    } finally {
+                        reader.dispose();
+                    }
+                } else {
+                    bounds = new ReferencedEnvelope(OmsRasterReader.readRaster(path).getEnvelope2D());
+                }
+            } else {
+                bounds = OmsVectorReader.readEnvelope(path);
+            }
+            if (bounds.getCoordinateReferenceSystem() == null) {
+                bounds = new ReferencedEnvelope(bounds, defaultCrs);
+            }
+            return bounds.transform(tilesCrs, true);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static Envelope parseBounds( String bounds ) {
+        if (bounds == null || bounds.length() == 0) {
+            return null;
+        }
+        String[] split = bounds.split(",");
+        return new Envelope(Double.parseDouble(split[0]), Double.parseDouble(split[2]), Double.parseDouble(split[1]),
+                Double.parseDouble(split[3]));
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.utils;
+
+/**
+ * A binary min-heap of int values (for example packed cell indexes) ordered by a double key.
+ *
+ * <p>Keys and values are kept in primitive arrays, so that no object is created per
+ * inserted element. Elements with the same key are returned in insertion order,
+ * which makes the processing order deterministic.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class DoubleKeyIntHeap {
+
+    private double[] keys;
+    private int[] values;
+    private long[] order;
+    private long insertionCount = 0;
+    private int size = 0;
+
+    /**
+     * Create the heap with an initial capacity.
+     *
+     * @param initialCapacity the initial capacity. The heap grows as needed.
+     */
+    public DoubleKeyIntHeap( int initialCapacity ) {
+        int capacity = Math.max(initialCapacity, 16);
+        keys = new double[capacity];
+        values = new int[capacity];
+        order = new long[capacity];
+    }
+
+    /**
+     * Add a value to the heap.
+     *
+     * @param key the key to order by.
+     * @param value the value.
+     */
+    public void add( double key, int value ) {
+        if (size == keys.length) {
+            grow();
+        }
+        int i = size++;
+        long o = insertionCount++;
+        // sift up
+        while( i > 0 ) {
+            int parent = (i - 1) >>> 1;
+            if (!isLess(key, o, keys[parent], order[parent])) {
+                break;
+            }
+            keys[i] = keys[parent];
+            values[i] = values[parent];
+            order[i] = order[parent];
+            i = parent;
+        }
+        keys[i] = key;
+        values[i] = value;
+        order[i] = o;
+    }
+
+    /**
+     * @return the key of the smallest element. The heap must not be empty.
+     */
+    public double peekKey() {
+        return keys[0];
+    }
+
+    /**
+     * @return the value of the smallest element. The heap must not be empty.
+     */
+    public int peekValue() {
+        return values[0];
+    }
+
+    /**
+     * Removes the smallest element.
+     *
+     * @return the value of the removed element. The heap must not be empty.
+     */
+    public int poll() {
+        int result = values[0];
+        size--;
+        if (size > 0) {
+            double key = keys[size];
+            int value = values[size];
+            long o = order[size];
+            // sift down
+            int i = 0;
+            int half = size >>> 1;
+            while( i < half ) {
+                int child = 2 * i + 1;
+                int right = child + 1;
+                if (right < size && isLess(keys[right], order[right], keys[child], order[child])) {
+                    child = right;
+                }
+                if (!isLess(keys[child], order[child], key, o)) {
+                    break;
+                }
+                keys[i] = keys[child];
+                values[i] = values[child];
+                order[i] = order[child];
+                i = child;
+            }
+            keys[i] = key;
+            values[i] = value;
+            order[i] = o;
+        }
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all elements, keeping the allocated memory.
+     */
+    public void clear() {
+        size = 0;
+        insertionCount = 0;
+    }
+
+    private static boolean isLess( double key1, long order1, double key2, long order2 ) {
+        return key1 < key2 || (key1 == key2 && order1 < order2);
+    }
+
+    private void grow() {
+        int newCapacity = keys.length * 2;
+        double[] newKeys = new double[newCapacity];
+        int[] newValues = new int[newCapacity];
+        long[] newOrder = new long[newCapacity];
+        System.arraycopy(keys, 0, newKeys, 0, size);
+        System.arraycopy(values, 0, newValues, 0, size);
+        System.arraycopy(order, 0, newOrder, 0, size);
+        keys = newKeys;
+        values = newValues;
+        order = newOrder;
+    }
+}
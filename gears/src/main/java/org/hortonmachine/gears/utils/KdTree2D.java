@@ -0,0 +1,318 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.utils;
+
+/**
+ * A static 2D k-d tree of points kept in primitive arrays.
+ * 
+ * <p>The tree is built once by reordering copies of the coordinates around the 
+ * median of alternating axes, so that it needs no node objects. Queries return 
+ * the indexes of the points in the arrays passed to the constructor and fill a 
+ * {@link Neighbours} buffer, which can be reused between queries to avoid any 
+ * allocation.</p>
+ * 
+ * <p>Once built the tree is read only and can be queried from several threads, 
+ * as long as every thread uses its own {@link Neighbours}.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class KdTree2D {
+
+    /**
+     * Ranges with up to this number of points are scanned linearly.
+     */
+    private static final int LEAF_SIZE = 8;
+
+    private final double[] xs;
+    private final double[] ys;
+    private final int[] indexes;
+    private final int size;
+
+    /**
+     * Build the tree.
+     * 
+     * @param x the x coordinates of the points.
+     * @param y the y coordinates of the points.
+     */
+    public KdTree2D( double[] x, double[] y ) {
+        this(x, y, x.length);
+    }
+
+    /**
+     * Build the tree on the first points of the arrays.
+     * 
+     * @param x the x coordinates of the points.
+     * @param y the y coordinates of the points.
+     * @param count the number of points to use.
+     */
+    public KdTree2D( double[] x, double[] y, int count ) {
+        size = count;
+        xs = new double[count];
+        ys = new double[count];
+        indexes = new int[count];
+        System.arraycopy(x, 0, xs, 0, count);
+        System.arraycopy(y, 0, ys, 0, count);
+        for( int i = 0; i < count; i++ ) {
+            indexes[i] = i;
+        }
+        build(0, count, 0);
+    }
+
+    /**
+     * @return the number of points in the tree.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Find all the points inside a radius.
+     * 
+     * @param x the x of the center.
+     * @param y the y of the center.
+     * @param radius the search radius.
+     * @param result the buffer to fill, cleared before the search.
+     * @return the number of points found.
+     */
+    public int withinRadius( double x, double y, double radius, Neighbours result ) {
+        result.clear();
+        if (size > 0) {
+            searchRadius(0, size, 0, x, y, radius * radius, result);
+        }
+        return result.size;
+    }
+
+    /**
+     * Find all the points inside a rectangle, borders included.
+     * 
+     * @param minX the min x of the rectangle.
+     * @param minY the min y of the rectangle.
+     * @param maxX the max x of the rectangle.
+     * @param maxY the max y of the rectangle.
+     * @param result the buffer to fill, cleared before the search. The distances 
+     *          are from the center of the rectangle.
+     * @return the number of points found.
+     */
+    public int withinBox( double minX, double minY, double maxX, double maxY, Neighbours result ) {
+        result.clear();
+        if (size > 0) {
+            searchBox(0, size, 0, minX, minY, maxX, maxY, (minX + maxX) / 2.0, (minY + maxY) / 2.0, result);
+        }
+        return result.size;
+    }
+
+    private void build( int lo, int hi, int depth ) {
+        while( hi - lo > LEAF_SIZE ) {
+            int mid = (lo + hi) >>> 1;
+            select(lo, hi - 1, mid, (depth & 1) == 0 ? xs : ys);
+            build(lo, mid, depth + 1);
+            lo = mid + 1;
+            depth++;
+        }
+    }
+
+    /**
+     * Partially sorts the range so that the k-th element is in place, with the
+     * smaller or equal elements before it and the bigger or equal after it.
+     */
+    private void select( int lo, int hi, int k, double[] values ) {
+        while( hi > lo ) {
+            double pivot = values[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while( i <= j ) {
+                while( values[i] < pivot ) {
+                    i++;
+                }
+                while( values[j] > pivot ) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap( int i, int j ) {
+        double tmpX = xs[i];
+        xs[i] = xs[j];
+        xs[j] = tmpX;
+        double tmpY = ys[i];
+        ys[i] = ys[j];
+        ys[j] = tmpY;
+        int tmpIndex = indexes[i];
+        indexes[i] = indexes[j];
+        indexes[j] = tmpIndex;
+    }
+
+    private void searchRadius( int lo, int hi, int depth, double x, double y, double radius2, Neighbours result ) {
+        if (hi - lo <= LEAF_SIZE) {
+            for( int i = lo; i < hi; i++ ) {
+                double dx = xs[i] - x;
+                double dy = ys[i] - y;
+                double distance2 = dx * dx + dy * dy;
+                if (distance2 <= radius2) {
+                    result.add(indexes[i], distance2);
+                }
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        double dx = xs[mid] - x;
+        double dy = ys[mid] - y;
+        double distance2 = dx * dx + dy * dy;
+        if (distance2 <= radius2) {
+            result.add(indexes[mid], distance2);
+        }
+        double delta = (depth & 1) == 0 ? x - xs[mid] : y - ys[mid];
+        boolean crosses = delta * delta <= radius2;
+        if (delta <= 0) {
+            searchRadius(lo, mid, depth + 1, x, y, radius2, result);
+            if (crosses) {
+                searchRadius(mid + 1, hi, depth + 1, x, y, radius2, result);
+            }
+        } else {
+            searchRadius(mid + 1, hi, depth + 1, x, y, radius2, result);
+            if (crosses) {
+                searchRadius(lo, mid, depth + 1, x, y, radius2, result);
+            }
+        }
+    }
+
+    private void searchBox( int lo, int hi, int depth, double minX, double minY, double maxX, double maxY, double x,
+            double y, Neighbours result ) {
+        if (hi - lo <= LEAF_SIZE) {
+            for( int i = lo; i < hi; i++ ) {
+                addIfInBox(i, minX, minY, maxX, maxY, x, y, result);
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        addIfInBox(mid, minX, minY, maxX, maxY, x, y, result);
+        double split;
+        double min;
+        double max;
+        if ((depth & 1) == 0) {
+            split = xs[mid];
+            min = minX;
+            max = maxX;
+        } else {
+            split = ys[mid];
+            min = minY;
+            max = maxY;
+        }
+        if (min <= split) {
+            searchBox(lo, mid, depth + 1, minX, minY, maxX, maxY, x, y, result);
+        }
+        if (max >= split) {
+            searchBox(mid + 1, hi, depth + 1, minX, minY, maxX, maxY, x, y, result);
+        }
+    }
+
+    private void addIfInBox( int i, double minX, double minY, double maxX, double maxY, double x, double y, Neighbours result ) {
+        double px = xs[i];
+        double py = ys[i];
+        if (px >= minX && px <= maxX && py >= minY && py <= maxY) {
+            double dx = px - x;
+            double dy = py - y;
+            result.add(indexes[i], dx * dx + dy * dy);
+        }
+    }
+
+    /**
+     * A reusable buffer for the result of the queries.
+     */
+    public static class Neighbours {
+        private int[] indexes;
+        private double[] distances2;
+        private int size = 0;
+
+        public Neighbours() {
+            this(32);
+        }
+
+        /**
+         * @param initialCapacity the initial capacity. The buffer grows as needed.
+         */
+        public Neighbours( int initialCapacity ) {
+            int capacity = Math.max(initialCapacity, 1);
+            indexes = new int[capacity];
+            distances2 = new double[capacity];
+        }
+
+        /**
+         * @return the number of points found.
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @param i the position in the result.
+         * @return the index of the point in the arrays of the tree.
+         */
+        public int getIndex( int i ) {
+            return indexes[i];
+        }
+
+        /**
+         * @param i the position in the result.
+         * @return the squared distance of the point from the query center.
+         */
+        public double getSquaredDistance( int i ) {
+            return distances2[i];
+        }
+
+        /**
+         * @return the internal array of the indexes, valid up to {@link #size()}.
+         */
+        public int[] getIndexes() {
+            return indexes;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        void add( int index, double distance2 ) {
+            if (size == indexes.length) {
+                int newCapacity = indexes.length * 2;
+                int[] newIndexes = new int[newCapacity];
+                double[] newDistances2 = new double[newCapacity];
+                System.arraycopy(indexes, 0, newIndexes, 0, size);
+                System.arraycopy(distances2, 0, newDistances2, 0, size);
+                indexes = newIndexes;
+                distances2 = newDistances2;
+            }
+            indexes[size] = index;
+            distances2[size] = distance2;
+            size++;
+        }
+    }
+
+}
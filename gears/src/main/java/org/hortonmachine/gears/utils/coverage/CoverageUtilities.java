@@ -208,18 +208,7 @@ public class CoverageUtilities {
      */
     public static WritableRaster createWritableRaster( int width, int height, Class< ? > dataClass, SampleModel sampleModel,
             Object value ) {
-        int dataType = DataBuffer.TYPE_DOUBLE;
-        if (dataClass != null) {
-            if (dataClass.isAssignableFrom(Integer.class)) {
-                dataType = DataBuffer.TYPE_INT;
-            } else if (dataClass.isAssignableFrom(Float.class)) {
-                dataType = DataBuffer.TYPE_FLOAT;
-            } else if (dataClass.isAssignableFrom(Byte.class)) {
-                dataType = DataBuffer.TYPE_BYTE;
-            } else if (dataClass.isAssignableFrom(Short.class)) {
-                dataType = DataBuffer.TYPE_SHORT;
-            }
-        }
+        int dataType = getDataType(dataClass);
 
         if (!doesOverFlow(width, height)) {
             if (sampleModel == null) {
@@ -286,6 +275,151 @@ public class CoverageUtilities {
         }
     }
 
+    private static int getDataType( Class< ? > dataClass ) {
+        int dataType = DataBuffer.TYPE_DOUBLE;
+        if (dataClass != null) {
+            if (dataClass.isAssignableFrom(Integer.class)) {
+                dataType = DataBuffer.TYPE_INT;
+            } else if (dataClass.isAssignableFrom(Float.class)) {
+                dataType = DataBuffer.TYPE_FLOAT;
+            } else if (dataClass.isAssignableFrom(Byte.class)) {
+                dataType = DataBuffer.TYPE_BYTE;
+            } else if (dataClass.isAssignableFrom(Short.class)) {
+                dataType = DataBuffer.TYPE_SHORT;
+            }
+        }
+        return dataType;
+    }
+
+    /**
+     * Creates a {@link WritableRaster writable raster} backed by a memory-mapped file.
+     * 
+     * <p>The raster can be used as any other raster, for example to build a coverage through
+     * {@link #buildCoverage(String, WritableRaster, HashMap, CoordinateReferenceSystem)}, but
+     * its values are kept outside of the java heap. See {@link MappedRasterDataBuffer}.
+     * 
+     * @param file the file to create. An existing file is overwritten.
+     * @param width width of the raster to create.
+     * @param height height of the raster to create.
+     * @param dataClass data type for the raster: Double, Float, Integer or Short. If <code>null</code>, 
+     *                  defaults to double.
+     * @param value value to which to set the raster to. If null, the raster is set to 0.
+     * @return the {@link WritableRaster writable raster}.
+     * @throws IOException
+     */
+    public static WritableRaster createMappedWritableRaster( File file, int width, int height, Class< ? > dataClass,
+            Number value ) throws IOException {
+        MappedRasterDataBuffer dataBuffer = new MappedRasterDataBuffer(file, getDataType(dataClass), width, height, true);
+        if (value != null) {
+            double v = value.doubleValue();
+            int size = dataBuffer.getSize();
+            for( int i = 0; i < size; i++ ) {
+                dataBuffer.setDouble(i, v);
+            }
+        }
+        return createMappedWritableRaster(dataBuffer);
+    }
+
+    /**
+     * Opens a {@link WritableRaster writable raster} on an existing memory-mapped raster file.
+     * 
+     * @param file the file to open.
+     * @param width width of the raster.
+     * @param height height of the raster.
+     * @param dataClass data type of the raster: Double, Float, Integer or Short. If <code>null</code>, 
+     *                  defaults to double.
+     * @return the {@link WritableRaster writable raster}.
+     * @throws IOException if the file doesn't exist or doesn't match the given size and type.
+     */
+    public static WritableRaster openMappedWritableRaster( File file, int width, int height, Class< ? > dataClass )
+            throws IOException {
+        MappedRasterDataBuffer dataBuffer = new MappedRasterDataBuffer(file, getDataType(dataClass), width, height, false);
+        return createMappedWritableRaster(dataBuffer);
+    }
+
+    private static WritableRaster createMappedWritableRaster( MappedRasterDataBuffer dataBuffer ) {
+        int width = dataBuffer.getCols();
+        int height = dataBuffer.getRows();
+        ComponentSampleModel sampleModel = new ComponentSampleModel(dataBuffer.getDataType(), width, height, 1, width,
+                new int[]{0});
+        return Raster.createWritableRaster(sampleModel, dataBuffer, null);
+    }
+
+    /**
+     * Copies the first band of a {@link RenderedImage} into a memory-mapped {@link WritableRaster}.
+     * 
+     * <p>The image is copied tile by tile, so it never needs to be fully loaded in memory.
+     * 
+     * @param renderedImage the image to copy.
+     * @param file the file to create. An existing file is overwritten.
+     * @param dataClass data type for the raster: Double, Float, Integer or Short. If <code>null</code>, 
+     *                  defaults to double.
+     * @return the mapped {@link WritableRaster writable raster}.
+     * @throws IOException
+     */
+    public static WritableRaster renderedImage2MappedWritableRaster( RenderedImage renderedImage, File file,
+            Class< ? > dataClass ) throws IOException {
+        int width = renderedImage.getWidth();
+        int height = renderedImage.getHeight();
+        int minX = renderedImage.getMinX();
+        int minY = renderedImage.getMinY();
+        WritableRaster writableRaster = createMappedWritableRaster(file, width, height, dataClass, null);
+        int minTileX = renderedImage.getMinTileX();
+        int minTileY = renderedImage.getMinTileY();
+        for( int tileY = minTileY; tileY < minTileY + renderedImage.getNumYTiles(); tileY++ ) {
+            for( int tileX = minTileX; tileX < minTileX + renderedImage.getNumXTiles(); tileX++ ) {
+                Raster tile = renderedImage.getTile(tileX, tileY);
+                if (tile.getNumBands() > 1) {
+                    tile = tile.createChild(tile.getMinX(), tile.getMinY(), tile.getWidth(), tile.getHeight(), tile.getMinX(),
+                            tile.getMinY(), new int[]{0});
+                }
+                writableRaster.setRect(-minX, -minY, tile);
+            }
+        }
+        return writableRaster;
+    }
+
+    /**
+     * Get an {@link IDirectRasterAccess} on the first band of an image.
+     * 
+     * <p>If the image is backed by a memory-mapped raster, the values are accessed 
+     * directly in the mapped file.
+     * 
+     * @param renderedImage the image to access.
+     * @return the direct access. If the image is not a single raster, the access
+     *              is done on a read only copy of its data, whose setters throw an 
+     *              {@link UnsupportedOperationException}.
+     */
+    public static IDirectRasterAccess getDirectAccess( RenderedImage renderedImage ) {
+        if (renderedImage.getNumXTiles() == 1 && renderedImage.getNumYTiles() == 1) {
+            Raster raster = renderedImage.getTile(renderedImage.getMinTileX(), renderedImage.getMinTileY());
+            if (raster.getMinX() == renderedImage.getMinX() && raster.getMinY() == renderedImage.getMinY()
+                    && raster.getWidth() == renderedImage.getWidth() && raster.getHeight() == renderedImage.getHeight()) {
+                return getDirectAccess(raster);
+            }
+        }
+        // getData returns a copy, writing into it would silently get lost
+        return new RasterDirectAccess(renderedImage.getData(), true);
+    }
+
+    /**
+     * Get an {@link IDirectRasterAccess} on the first band of a raster.
+     * 
+     * @param raster the raster to access.
+     * @return the direct access.
+     */
+    public static IDirectRasterAccess getDirectAccess( Raster raster ) {
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        if (dataBuffer instanceof MappedRasterDataBuffer) {
+            MappedRasterDataBuffer mappedBuffer = (MappedRasterDataBuffer) dataBuffer;
+            if (raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                    && raster.getWidth() == mappedBuffer.getCols() && raster.getHeight() == mappedBuffer.getRows()) {
+                return mappedBuffer;
+            }
+        }
+        return new RasterDirectAccess(raster);
+    }
+
     /**
      * Creates a new {@link GridCoverage2D} using an existing as template.
      * 
@@ -1039,6 +1173,40 @@ public class CoverageUtilities {
         return values;
     }
 
+    /**
+     * Transform a rendered image in its row-major array representation.
+     * 
+     * <p>The value of col/row is at <code>index = row * width + col</code>, which 
+     * is the layout used by {@link org.hortonmachine.gears.libs.modules.GridNodeCursor}.</p>
+     * 
+     * @param renderedImage the rendered image to transform.
+     * @return the array holding the data.
+     */
+    public static double[] renderedImage2RowMajorDoubleArray( RenderedImage renderedImage ) {
+        Raster data = renderedImage.getData();
+        int width = data.getWidth();
+        int height = data.getHeight();
+        double[] values = new double[width * height];
+        data.getSamples(data.getMinX(), data.getMinY(), width, height, 0, values);
+        return values;
+    }
+
+    /**
+     * Transform a rendered image in its row-major integer array representation.
+     * 
+     * @param renderedImage the rendered image to transform.
+     * @return the array holding the data.
+     * @see #renderedImage2RowMajorDoubleArray(RenderedImage)
+     */
+    public static int[] renderedImage2RowMajorIntArray( RenderedImage renderedImage ) {
+        Raster data = renderedImage.getData();
+        int width = data.getWidth();
+        int height = data.getHeight();
+        int[] values = new int[width * height];
+        data.getSamples(data.getMinX(), data.getMinY(), width, height, 0, values);
+        return values;
+    }
+
     /**
      * Transform a double values rendered image in its integer array representation by scaling the values.
      * 
@@ -1140,6 +1308,20 @@ public class CoverageUtilities {
         return writableRaster;
     }
 
+    /**
+     * Transforms an array of values in row-major order into a {@link WritableRaster}.
+     * 
+     * @param array the values to transform.
+     * @param width the width of the resulting image.
+     * @param height the height of the resulting image.
+     * @return the raster.
+     */
+    public static WritableRaster rowMajorDoubleArray2WritableRaster( double[] array, int width, int height ) {
+        WritableRaster writableRaster = createWritableRaster(width, height, null, null, null);
+        writableRaster.setSamples(0, 0, width, height, 0, array);
+        return writableRaster;
+    }
+
     /**
      * Creates a border of novalues.
      * 
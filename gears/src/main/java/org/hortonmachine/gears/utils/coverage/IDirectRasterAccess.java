@@ -0,0 +1,54 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.utils.coverage;
+
+/**
+ * Direct access to the values of a single band raster.
+ *
+ * <p>Meant for hot loops, where the per sample overhead of the
+ * JAI iterators is not wanted. Values are converted to and from
+ * the data type of the raster.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @see CoverageUtilities#getDirectAccess(java.awt.image.RenderedImage)
+ */
+public interface IDirectRasterAccess {
+
+    /**
+     * @return the cols of the raster.
+     */
+    int getCols();
+
+    /**
+     * @return the rows of the raster.
+     */
+    int getRows();
+
+    double getDouble( int col, int row );
+
+    void setDouble( int col, int row, double value );
+
+    float getFloat( int col, int row );
+
+    void setFloat( int col, int row, float value );
+
+    int getInt( int col, int row );
+
+    void setInt( int col, int row, int value );
+
+}
@@ -0,0 +1,315 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.utils.coverage;
+
+import java.awt.image.DataBuffer;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * A {@link DataBuffer} that keeps the raster values in a memory-mapped file.
+ *
+ * <p>The values are stored uncompressed, row by row, in little endian order, without any
+ * header. Since the data live outside of the java heap, rasters of several GB can be
+ * handled. The file is mapped in segments of 1GB, the total number of cells is limited
+ * to the int range as for any {@link DataBuffer}.</p>
+ *
+ * <p>Supported types are {@link DataBuffer#TYPE_DOUBLE}, {@link DataBuffer#TYPE_FLOAT},
+ * {@link DataBuffer#TYPE_INT} and {@link DataBuffer#TYPE_SHORT}.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class MappedRasterDataBuffer extends DataBuffer implements IDirectRasterAccess, Closeable {
+
+    private static final int SEGMENT_BYTES_SHIFT = 30;
+
+    private final File file;
+    private final int cols;
+    private final int rows;
+    private final int typeShift;
+    private final int segmentShift;
+    private final int segmentMask;
+    private final RandomAccessFile randomAccessFile;
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * Create or open a mapped raster file.
+     *
+     * @param file the file to use.
+     * @param dataType the {@link DataBuffer} data type.
+     * @param cols the cols of the raster.
+     * @param rows the rows of the raster.
+     * @param create if <code>true</code>, a new file is created (an existing one is overwritten).
+     *              Else an existing file with the right size is opened.
+     * @throws IOException
+     */
+    public MappedRasterDataBuffer( File file, int dataType, int cols, int rows, boolean create ) throws IOException {
+        super(dataType, checkedSize(cols, rows));
+        this.file = file;
+        this.cols = cols;
+        this.rows = rows;
+        switch( dataType ) {
+        case TYPE_DOUBLE:
+            typeShift = 3;
+            break;
+        case TYPE_FLOAT:
+        case TYPE_INT:
+            typeShift = 2;
+            break;
+        case TYPE_SHORT:
+            typeShift = 1;
+            break;
+        default:
+            throw new IllegalArgumentException("Data type not supported by the mapped raster: " + dataType);
+        }
+        segmentShift = SEGMENT_BYTES_SHIFT - typeShift;
+        segmentMask = (1 << segmentShift) - 1;
+
+        long totalBytes = (long) size << typeShift;
+        boolean readOnly = !create && !file.canWrite();
+        if (!create) {
+            if (!file.exists()) {
+                throw new IOException("The mapped raster file doesn't exist: " + file);
+            }
+            if (file.length() != totalBytes) {
+                throw new IOException(
+                        "The size of the file " + file + " doesn't match the raster size: " + file.length() + " / " + totalBytes);
+            }
+        }
+        randomAccessFile = new RandomAccessFile(file, readOnly ? "r" : "rw");
+        if (create) {
+            randomAccessFile.setLength(0);
+            randomAccessFile.setLength(totalBytes);
+        }
+        FileChannel channel = randomAccessFile.getChannel();
+        long segmentBytes = 1L << SEGMENT_BYTES_SHIFT;
+        int segmentsCount = (int) ((totalBytes + segmentBytes - 1) / segmentBytes);
+        segments = new MappedByteBuffer[segmentsCount];
+        for( int i = 0; i < segmentsCount; i++ ) {
+            long position = i * segmentBytes;
+            long length = Math.min(segmentBytes, totalBytes - position);
+            segments[i] = channel.map(readOnly ? MapMode.READ_ONLY : MapMode.READ_WRITE, position, length);
+            segments[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private static int checkedSize( int cols, int rows ) {
+        long size = (long) cols * rows;
+        if (cols <= 0 || rows <= 0 || size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Unsupported raster size: " + cols + "x" + rows);
+        }
+        return (int) size;
+    }
+
+    /**
+     * @return the file backing the raster.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public int getCols() {
+        return cols;
+    }
+
+    @Override
+    public int getRows() {
+        return rows;
+    }
+
+    public double getDouble( int index ) {
+        MappedByteBuffer segment = segments[index >>> segmentShift];
+        int offset = (index & segmentMask) << typeShift;
+        switch( dataType ) {
+        case TYPE_DOUBLE:
+            return segment.getDouble(offset);
+        case TYPE_FLOAT:
+            return segment.getFloat(offset);
+        case TYPE_INT:
+            return segment.getInt(offset);
+        default:
+            return segment.getShort(offset);
+        }
+    }
+
+    public void setDouble( int index, double value ) {
+        MappedByteBuffer segment = segments[index >>> segmentShift];
+        int offset = (index & segmentMask) << typeShift;
+        switch( dataType ) {
+        case TYPE_DOUBLE:
+            segment.putDouble(offset, value);
+            break;
+        case TYPE_FLOAT:
+            segment.putFloat(offset, (float) value);
+            break;
+        case TYPE_INT:
+            segment.putInt(offset, (int) value);
+            break;
+        default:
+            segment.putShort(offset, (short) value);
+            break;
+        }
+    }
+
+    public float getFloat( int index ) {
+        MappedByteBuffer segment = segments[index >>> segmentShift];
+        int offset = (index & segmentMask) << typeShift;
+        switch( dataType ) {
+        case TYPE_DOUBLE:
+            return (float) segment.getDouble(offset);
+        case TYPE_FLOAT:
+            return segment.getFloat(offset);
+        case TYPE_INT:
+            return segment.getInt(offset);
+        default:
+            return segment.getShort(offset);
+        }
+    }
+
+    public void setFloat( int index, float value ) {
+        if (dataType == TYPE_FLOAT) {
+            segments[index >>> segmentShift].putFloat((index & segmentMask) << typeShift, value);
+        } else {
+            setDouble(index, value);
+        }
+    }
+
+    public int getInt( int index ) {
+        MappedByteBuffer segment = segments[index >>> segmentShift];
+        int offset = (index & segmentMask) << typeShift;
+        switch( dataType ) {
+        case TYPE_DOUBLE:
+            return (int) segment.getDouble(offset);
+        case TYPE_FLOAT:
+            return (int) segment.getFloat(offset);
+        case TYPE_INT:
+            return segment.getInt(offset);
+        default:
+            return segment.getShort(offset);
+        }
+    }
+
+    public void setInt( int index, int value ) {
+        MappedByteBuffer segment = segments[index >>> segmentShift];
+        int offset = (index & segmentMask) << typeShift;
+        switch( dataType ) {
+        case TYPE_DOUBLE:
+            segment.putDouble(offset, value);
+            break;
+        case TYPE_FLOAT:
+            segment.putFloat(offset, value);
+            break;
+        case TYPE_INT:
+            segment.putInt(offset, value);
+            break;
+        default:
+            segment.putShort(offset, (short) value);
+            break;
+        }
+    }
+
+    @Override
+    public double getDouble( int col, int row ) {
+        return getDouble(row * cols + col);
+    }
+
+    @Override
+    public void setDouble( int col, int row, double value ) {
+        setDouble(row * cols + col, value);
+    }
+
+    @Override
+    public float getFloat( int col, int row ) {
+        return getFloat(row * cols + col);
+    }
+
+    @Override
+    public void setFloat( int col, int row, float value ) {
+        setFloat(row * cols + col, value);
+    }
+
+    @Override
+    public int getInt( int col, int row ) {
+        return getInt(row * cols + col);
+    }
+
+    @Override
+    public void setInt( int col, int row, int value ) {
+        setInt(row * cols + col, value);
+    }
+
+    @Override
+    public int getElem( int bank, int i ) {
+        return getInt(i);
+    }
+
+    @Override
+    public void setElem( int bank, int i, int val ) {
+        setInt(i, val);
+    }
+
+    @Override
+    public float getElemFloat( int bank, int i ) {
+        return getFloat(i);
+    }
+
+    @Override
+    public void setElemFloat( int bank, int i, float val ) {
+        setFloat(i, val);
+    }
+
+    @Override
+    public double getElemDouble( int bank, int i ) {
+        return getDouble(i);
+    }
+
+    @Override
+    public void setElemDouble( int bank, int i, double val ) {
+        setDouble(i, val);
+    }
+
+    /**
+     * Writes the changes to the file.
+     */
+    public void flush() {
+        for( MappedByteBuffer segment : segments ) {
+            if (!segment.isReadOnly()) {
+                segment.force();
+            }
+        }
+    }
+
+    /**
+     * Writes the changes and closes the file.
+     *
+     * <p>The mapped memory is released once the buffer is garbage collected.</p>
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        randomAccessFile.close();
+    }
+
+}
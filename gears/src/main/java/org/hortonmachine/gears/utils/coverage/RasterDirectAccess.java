@@ -0,0 +1,103 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.utils.coverage;
+
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ * {@link IDirectRasterAccess} on the first band of a plain {@link Raster}.
+ * 
+ * <p>The access can be written only if the raster is a {@link WritableRaster} 
+ * and the access is not read only.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+class RasterDirectAccess implements IDirectRasterAccess {
+
+    private final Raster raster;
+    private final WritableRaster writableRaster;
+    private final int minX;
+    private final int minY;
+
+    RasterDirectAccess( Raster raster ) {
+        this(raster, false);
+    }
+
+    /**
+     * @param raster the raster to access.
+     * @param readOnly if <code>true</code>, the setters throw also if the raster is writable, 
+     *          for example because it is a copy of the data of an image.
+     */
+    RasterDirectAccess( Raster raster, boolean readOnly ) {
+        this.raster = raster;
+        writableRaster = !readOnly && raster instanceof WritableRaster ? (WritableRaster) raster : null;
+        minX = raster.getMinX();
+        minY = raster.getMinY();
+    }
+
+    @Override
+    public int getCols() {
+        return raster.getWidth();
+    }
+
+    @Override
+    public int getRows() {
+        return raster.getHeight();
+    }
+
+    @Override
+    public double getDouble( int col, int row ) {
+        return raster.getSampleDouble(col + minX, row + minY, 0);
+    }
+
+    @Override
+    public void setDouble( int col, int row, double value ) {
+        checkWritable();
+        writableRaster.setSample(col + minX, row + minY, 0, value);
+    }
+
+    @Override
+    public float getFloat( int col, int row ) {
+        return raster.getSampleFloat(col + minX, row + minY, 0);
+    }
+
+    @Override
+    public void setFloat( int col, int row, float value ) {
+        checkWritable();
+        writableRaster.setSample(col + minX, row + minY, 0, value);
+    }
+
+    @Override
+    public int getInt( int col, int row ) {
+        return raster.getSample(col + minX, row + minY, 0);
+    }
+
+    @Override
+    public void setInt( int col, int row, int value ) {
+        checkWritable();
+        writableRaster.setSample(col + minX, row + minY, 0, value);
+    }
+
+    private void checkWritable() {
+        if (writableRaster == null) {
+            throw new UnsupportedOperationException("The raster is read only.");
+        }
+    }
+
+}
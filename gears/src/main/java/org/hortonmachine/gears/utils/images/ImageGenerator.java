@@ -638,7 +638,14 @@ public class ImageGenerator {
         }
     }
 
-    private boolean isAllOfCheckColor( int[] rgbCheck, BufferedImage dumpImage ) {
+    /**
+     * Checks if an image is made only of a given color.
+     * 
+     * @param rgbCheck the rgb triplet to check.
+     * @param dumpImage the image.
+     * @return <code>true</code> if all the pixels have the check color.
+     */
+    public static boolean isAllOfCheckColor( int[] rgbCheck, BufferedImage dumpImage ) {
         WritableRaster raster = dumpImage.getRaster();
         for( int i = 0; i < raster.getWidth(); i++ ) {
             for( int j = 0; j < raster.getHeight(); j++ ) {
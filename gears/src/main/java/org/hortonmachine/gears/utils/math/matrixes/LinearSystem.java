@@ -129,6 +129,39 @@ public class LinearSystem extends SquareMatrix
         return x;
     }
 
+    /**
+     * Solve Ax = b for several right-hand sides b, decomposing
+     * A only once.  Once A is decomposed, the solutions are
+     * computed on the arrays without touching the state of this
+     * system, so the method can be called from several threads.
+     * The solutions are the same as the ones of
+     * {@link #solve(ColumnVector, boolean)}.
+     * @param b the right-hand sides, b[k] being the k-th one
+     * @param improve true to improve the solutions
+     * @return the solutions, one per right-hand side
+     * @throws matrix.MatrixException if an error occurred
+     */
+    public double[][] solve(double b[][], boolean improve)
+        throws MatrixException
+    {
+        decompose();
+
+        double lu[][] = LU.values;
+        double x[][]  = new double[b.length][];
+        for (int k = 0; k < b.length; ++k) {
+
+            // Validate b's size.
+            if (b[k].length != nRows) {
+                throw new MatrixException(
+                                MatrixException.INVALID_DIMENSIONS);
+            }
+
+            x[k] = substitution(lu, b[k]);
+            if (improve) improve(lu, b[k], x[k]);
+        }
+        return x;
+    }
+
     /**
      * Compute the upper triangular matrix U and lower triangular
      * matrix L such that A = L*U.  Store L and U together in
@@ -137,7 +170,7 @@ public class LinearSystem extends SquareMatrix
      * @throws matrix.MatrixException for a zero row or
      *                                a singular matrix
      */
-    protected void decompose() throws MatrixException
+    protected synchronized void decompose() throws MatrixException
     {
         // Return if the decomposition is valid.
         if (LU != null) return;
@@ -358,4 +391,93 @@ public class LinearSystem extends SquareMatrix
         // Failed to converge because A is nearly singular.
         throw new MatrixException(MatrixException.NO_CONVERGENCE);
     }
-}
\ No newline at end of file
+
+    /**
+     * Solve Ly = b by forward substitution and Ux = y by back
+     * substitution, on the arrays.
+     * @param lu the decomposed values
+     * @param b the right-hand side
+     * @return the solution x
+     */
+    private double[] substitution(double lu[][], double b[])
+    {
+        double y[] = new double[nRows];
+        for (int r = 0; r < nRows; ++r) {
+            int   pr  = permutation[r];     // permuted row index
+            double dot = 0;
+            for (int c = 0; c < r; ++c) {
+                dot += lu[pr][c]*y[c];
+            }
+            y[r] = b[pr] - dot;
+        }
+
+        double x[] = new double[nRows];
+        for (int r = nRows - 1; r >= 0; --r) {
+            int   pr  = permutation[r];     // permuted row index
+            double dot = 0;
+            for (int c = r+1; c < nRows; ++c) {
+                dot += lu[pr][c]*x[c];
+            }
+            x[r] = (y[r] - dot)/lu[pr][r];
+        }
+        return x;
+    }
+
+    /**
+     * Iteratively improve the solution x to machine accuracy,
+     * on the arrays.
+     * @param lu the decomposed values
+     * @param b the right-hand side
+     * @param x the improved solution
+     * @throws matrix.MatrixException if failed to converge
+     */
+    private void improve(double lu[][], double b[], double x[])
+        throws MatrixException
+    {
+        // Find the largest x element.
+        double largestX = 0;
+        for (int r = 0; r < nRows; ++r) {
+            double absX = Math.abs(x[r]);
+            if (largestX < absX) largestX = absX;
+        }
+
+        // Is x already as good as possible?
+        if (largestX == 0) return;
+
+        double residuals[] = new double[nRows];
+
+        // Iterate to improve x.
+        for (int iter = 0; iter < MAX_ITER; ++iter) {
+
+            // Compute residuals = b - Ax.
+            for (int r = 0; r < nRows; ++r) {
+                double dot   = 0;
+                double row[] = values[r];
+                for (int c = 0; c < nRows; ++c) {
+                    dot += row[c]*x[c];
+                }
+                residuals[r] = b[r] - dot;
+            }
+
+            // Solve Az = residuals for z.
+            double z[] = substitution(lu, residuals);
+
+            // Set x = x + z.
+            // Find largest the largest difference.
+            double largestDiff = 0;
+            for (int r = 0; r < nRows; ++r) {
+                double oldX = x[r];
+                x[r] = oldX + z[r];
+
+                double diff = Math.abs(x[r] - oldX);
+                if (largestDiff < diff) largestDiff = diff;
+            }
+
+            // Is any further improvement possible?
+            if (largestDiff < largestX*TOLERANCE) return;
+        }
+
+        // Failed to converge because A is nearly singular.
+        throw new MatrixException(MatrixException.NO_CONVERGENCE);
+    }
+}
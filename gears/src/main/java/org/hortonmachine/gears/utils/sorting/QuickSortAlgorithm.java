@@ -20,9 +20,17 @@ package org.hortonmachine.gears.utils.sorting;
 
 import static org.hortonmachine.gears.libs.modules.HMConstants.isNovalue;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
 import org.hortonmachine.gears.libs.monitor.LogProgressMonitor;
 public class QuickSortAlgorithm {
+    /**
+     * The size of the partitions below which the parallel sort continues in the same thread.
+     */
+    private static final int PARALLEL_THRESHOLD = 8192;
+
     private double[] valuesToSortDouble;
     private float[] valuesToSortFloat;
     private int number;
@@ -92,6 +100,43 @@ public class QuickSortAlgorithm {
         monitor.done();
     }
 
+    /**
+     * Sorts an array of double values and moves with the sort a second array,
+     * using the given number of threads.
+     * 
+     * <p>The partitions are the same as in {@link #sort(double[], int[])}, only
+     * the disjoint sub-ranges are sorted in parallel. Therefore the result is
+     * identical to the one of the single threaded sort, also in the order of
+     * equal values.</p>
+     * 
+     * @param values the array to sort.
+     * @param valuesToFollow the array that should be sorted following the 
+     *              indexes of the first array. Can be null.
+     * @param threads the number of threads to use.
+     */
+    public void sort( double[] values, int[] valuesToFollow, int threads ) {
+        if (threads <= 1 || values.length < PARALLEL_THRESHOLD) {
+            sort(values, valuesToFollow);
+            return;
+        }
+        this.valuesToSortDouble = values;
+        this.valuesToFollowInt = valuesToFollow;
+
+        number = values.length;
+
+        monitor.beginTask("Sorting...", -1);
+
+        monitor.worked(1);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new QuicksortIntTask(0, number - 1));
+        } finally {
+            pool.shutdown();
+        }
+
+        monitor.done();
+    }
+
     private void quicksort( int low, int high ) {
         int i = low, j = high;
         // Get the pivot element from the middle of the list
@@ -166,7 +211,12 @@ public class QuickSortAlgorithm {
             quicksortFloat(i, high);
     }
 
-    private void quicksortInt( int low, int high ) {
+    /**
+     * Partitions the range around the middle element.
+     * 
+     * @return the end of the lower and the start of the upper partition, packed in a long.
+     */
+    private long partitionInt( int low, int high ) {
         int i = low, j = high;
         // Get the pivot element from the middle of the list
         double pivot = valuesToSortDouble[(low + high) >>> 1];
@@ -196,6 +246,13 @@ public class QuickSortAlgorithm {
                 j--;
             }
         }
+        return ((long) j << 32) | (i & 0xFFFFFFFFL);
+    }
+
+    private void quicksortInt( int low, int high ) {
+        long partition = partitionInt(low, high);
+        int j = (int) (partition >> 32);
+        int i = (int) partition;
         // Recursion
         if (low < j)
             quicksortInt(low, j);
@@ -203,6 +260,37 @@ public class QuickSortAlgorithm {
             quicksortInt(i, high);
     }
 
+    private class QuicksortIntTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int low;
+        private final int high;
+
+        QuicksortIntTask( int low, int high ) {
+            this.low = low;
+            this.high = high;
+        }
+
+        @Override
+        protected void compute() {
+            if (high - low < PARALLEL_THRESHOLD) {
+                quicksortInt(low, high);
+                return;
+            }
+            long partition = partitionInt(low, high);
+            int j = (int) (partition >> 32);
+            int i = (int) partition;
+            QuicksortIntTask lowTask = low < j ? new QuicksortIntTask(low, j) : null;
+            QuicksortIntTask highTask = i < high ? new QuicksortIntTask(i, high) : null;
+            if (lowTask != null && highTask != null) {
+                invokeAll(lowTask, highTask);
+            } else if (lowTask != null) {
+                lowTask.compute();
+            } else if (highTask != null) {
+                highTask.compute();
+            }
+        }
+    }
+
     private void exchange( int i, int j ) {
         double temp = valuesToSortDouble[i];
         valuesToSortDouble[i] = valuesToSortDouble[j];
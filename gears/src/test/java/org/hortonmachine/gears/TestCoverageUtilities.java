@@ -17,18 +17,26 @@
  */
 package org.hortonmachine.gears;
 
+import java.awt.image.DataBuffer;
+import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
+import java.io.File;
 import java.util.HashMap;
 import java.util.List;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.geometry.Envelope2D;
+import javax.media.jai.RasterFactory;
+import javax.media.jai.TiledImage;
+
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.monitor.DummyProgressMonitor;
 import org.hortonmachine.gears.utils.HMTestCase;
 import org.hortonmachine.gears.utils.HMTestMaps;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.gears.utils.coverage.IDirectRasterAccess;
+import org.hortonmachine.gears.utils.coverage.MappedRasterDataBuffer;
 import org.hortonmachine.gears.utils.coverage.ProfilePoint;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
@@ -105,6 +113,75 @@ public class TestCoverageUtilities extends HMTestCase {
         assertFalse(CoverageUtilities.equals(wr1, wr2));
     }
 
+    public void testMappedRaster() throws Exception {
+        File mappedFile = File.createTempFile("hm_mapped", ".raw");
+        try {
+            WritableRaster mappedRaster = CoverageUtilities.renderedImage2MappedWritableRaster(
+                    elevationCoverage.getRenderedImage(), mappedFile, Double.class);
+            assertEquals(cols * rows * 8L, mappedFile.length());
+
+            GridCoverage2D mappedCoverage = CoverageUtilities.buildCoverage("mapped", mappedRaster, eP, crs);
+            checkMatrixEqual(mappedCoverage.getRenderedImage(), HMTestMaps.mapData, 0);
+
+            IDirectRasterAccess access = CoverageUtilities.getDirectAccess(mappedCoverage.getRenderedImage());
+            assertTrue(access instanceof MappedRasterDataBuffer);
+            assertEquals(cols, access.getCols());
+            assertEquals(rows, access.getRows());
+            assertEquals(HMTestMaps.mapData[3][2], access.getDouble(2, 3));
+
+            access.setDouble(2, 3, 1234.0);
+            assertEquals(1234.0, CoverageUtilities.getValue(mappedCoverage, 2, 3));
+            ((MappedRasterDataBuffer) access).close();
+
+            WritableRaster reopenedRaster = CoverageUtilities.openMappedWritableRaster(mappedFile, cols, rows, Double.class);
+            assertEquals(1234.0, reopenedRaster.getSampleDouble(2, 3, 0));
+            ((MappedRasterDataBuffer) reopenedRaster.getDataBuffer()).close();
+        } finally {
+            mappedFile.delete();
+        }
+    }
+
+    public void testDirectAccessOnTiles() throws Exception {
+        // one tile, the access writes into the image
+        SampleModel singleModel = RasterFactory.createBandedSampleModel(DataBuffer.TYPE_DOUBLE, 10, 8, 1);
+        TiledImage singleTile = new TiledImage(0, 0, 10, 8, 0, 0, singleModel, null);
+        fillImage(singleTile);
+        IDirectRasterAccess access = CoverageUtilities.getDirectAccess(singleTile);
+        assertEquals(7 * 10 + 9.0, access.getDouble(9, 7));
+        access.setDouble(9, 7, -1.0);
+        assertEquals(-1.0, singleTile.getTile(0, 0).getSampleDouble(9, 7, 0));
+
+        // four tiles, the access works on a copy and must not be written
+        SampleModel tiledModel = RasterFactory.createBandedSampleModel(DataBuffer.TYPE_DOUBLE, 5, 4, 1);
+        TiledImage tiled = new TiledImage(0, 0, 10, 8, 0, 0, tiledModel, null);
+        assertEquals(2, tiled.getNumXTiles());
+        assertEquals(2, tiled.getNumYTiles());
+        fillImage(tiled);
+        access = CoverageUtilities.getDirectAccess(tiled);
+        assertEquals(10, access.getCols());
+        assertEquals(8, access.getRows());
+        for( int r = 0; r < 8; r++ ) {
+            for( int c = 0; c < 10; c++ ) {
+                assertEquals(r * 10 + c, access.getInt(c, r));
+            }
+        }
+        try {
+            access.setDouble(7, 6, -1.0);
+            fail("The copy of a tiled image must be read only.");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        assertEquals(6 * 10 + 7.0, tiled.getTile(1, 1).getSampleDouble(7, 6, 0));
+    }
+
+    private void fillImage( TiledImage image ) {
+        for( int r = 0; r < image.getHeight(); r++ ) {
+            for( int c = 0; c < image.getWidth(); c++ ) {
+                image.setSample(c, r, 0, r * 10.0 + c);
+            }
+        }
+    }
+
     public void testCoverageSubregionLoop() throws Exception {
         Envelope2D env = new Envelope2D();
         env.setRect(west, south, east - west, north - south);
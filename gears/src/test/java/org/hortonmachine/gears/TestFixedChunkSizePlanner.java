@@ -0,0 +1,86 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears;
+
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
+import org.hortonmachine.gears.libs.modules.multiprocessing.FixedChunkSizePlanner;
+import org.hortonmachine.gears.utils.HMTestCase;
+
+/**
+ * Test the tile sizing of the {@link FixedChunkSizePlanner}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestFixedChunkSizePlanner extends HMTestCase {
+
+    private static final int[][] GRIDS = {{1000, 1000}, {50, 7}, {100000, 3}, {3, 100000}, {1, 1}};
+
+    public void testTilesFitTheCache() throws Exception {
+        int[] cacheSizes = {FixedChunkSizePlanner.BYTES_PER_CELL * 100, 64 * 1024, FixedChunkSizePlanner.DEFAULT_CACHE_SIZE_BYTES};
+        for( int cacheSize : cacheSizes ) {
+            FixedChunkSizePlanner planner = new FixedChunkSizePlanner(ExecutionPlanner.defaultExecutor, cacheSize);
+            for( int[] grid : GRIDS ) {
+                int[] tileSize = planner.getTileSize(grid[0], grid[1]);
+                assertTrue(tileSize[0] >= 1 && tileSize[0] <= grid[0]);
+                assertTrue(tileSize[1] >= 1 && tileSize[1] <= grid[1]);
+                assertTrue((long) tileSize[0] * tileSize[1] * FixedChunkSizePlanner.BYTES_PER_CELL <= cacheSize);
+            }
+        }
+    }
+
+    public void testTilesPerCore() throws Exception {
+        int procNum = Runtime.getRuntime().availableProcessors();
+        FixedChunkSizePlanner planner = new FixedChunkSizePlanner(ExecutionPlanner.defaultExecutor);
+        // a grid that fits a single tile is still split for all the cores
+        int cols = 100;
+        int rows = 100 * procNum;
+        int[] tileSize = planner.getTileSize(cols, rows);
+        int tiles = ((cols + tileSize[0] - 1) / tileSize[0]) * ((rows + tileSize[1] - 1) / tileSize[1]);
+        assertTrue(tiles >= procNum * FixedChunkSizePlanner.TILES_PER_CORE);
+    }
+
+    public void testRowBands() throws Exception {
+        int cellsPerTile = FixedChunkSizePlanner.DEFAULT_CACHE_SIZE_BYTES / FixedChunkSizePlanner.BYTES_PER_CELL;
+        FixedChunkSizePlanner planner = new FixedChunkSizePlanner(ExecutionPlanner.defaultExecutor);
+        // rows wider than the cache are split in cols
+        int[] tileSize = planner.getTileSize(cellsPerTile * 10, 3);
+        assertEquals(cellsPerTile, tileSize[0]);
+        assertEquals(1, tileSize[1]);
+
+        // a cache smaller than a cell gives single cell tiles
+        planner = new FixedChunkSizePlanner(ExecutionPlanner.defaultExecutor, 1);
+        tileSize = planner.getTileSize(100, 100);
+        assertEquals(1, tileSize[0]);
+        assertEquals(1, tileSize[1]);
+
+        // empty grids give a valid tile size
+        tileSize = planner.getTileSize(0, 0);
+        assertEquals(1, tileSize[0]);
+        assertEquals(1, tileSize[1]);
+    }
+
+    public void testInvalidCacheSize() throws Exception {
+        try {
+            new FixedChunkSizePlanner(ExecutionPlanner.defaultExecutor, 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+}
@@ -10,6 +10,7 @@ import org.geotools.coverage.grid.GridCoverage2D;
 import org.hortonmachine.gears.libs.modules.Direction;
 import org.hortonmachine.gears.libs.modules.FlowNode;
 import org.hortonmachine.gears.libs.modules.GridNode;
+import org.hortonmachine.gears.libs.modules.GridNodeCursor;
 import org.hortonmachine.gears.libs.modules.GridNodeElevationToLeastComparator;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.Node;
@@ -225,4 +226,33 @@ public class TestFlowUtils extends HMTestCase {
         assertNull(n);
     }
 
+    public void testGridNodeCursor() throws Exception {
+        double[] data = new double[nCols * nRows];
+        for( int r = 0; r < nRows; r++ ) {
+            for( int c = 0; c < nCols; c++ ) {
+                data[r * nCols + c] = elevationIter.getSampleDouble(c, r, 0);
+            }
+        }
+        GridNodeCursor cursor = new GridNodeCursor(data, nCols, nRows, xRes, yRes);
+        double[][] window = null;
+        for( int r = 0; r < nRows; r++ ) {
+            for( int c = 0; c < nCols; c++ ) {
+                GridNode node = new GridNode(elevationIter, nCols, nRows, xRes, yRes, c, r);
+                cursor.moveTo(c, r);
+                assertEquals(node.elevation, cursor.getElevation(), 0.0);
+                assertEquals(node.isValid(), cursor.isValid());
+                assertEquals(node.isPit(), cursor.isPit());
+                assertEquals(node.touchesBound(), cursor.touchesBound());
+                assertEquals(node.touchesNovalue(), cursor.touchesNovalue());
+                for( Direction direction : Direction.getOrderedDirs() ) {
+                    assertEquals(node.getElevationAt(direction), cursor.getElevationAt(direction), 0.0);
+                }
+                assertEquals(node.getFlow(), cursor.getFlow());
+
+                window = cursor.getWindow(5, true, window);
+                checkMatrixEqual(node.getWindow(5, true), window, 0.0);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,145 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears;
+
+import org.hortonmachine.gears.libs.modules.HorizonEngine;
+import org.hortonmachine.gears.libs.modules.ShadowEngine;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.hortonmachine.gears.utils.HMTestMaps;
+
+/**
+ * Test the {@link HorizonEngine}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestHorizonEngine extends HMTestCase {
+
+    public void testWallHorizon() throws Exception {
+        int cols = 20;
+        int rows = 10;
+        double[] elev = new double[cols * rows];
+        for( int r = 0; r < rows; r++ ) {
+            elev[r * cols + 10] = 100;
+        }
+        HorizonEngine engine = new HorizonEngine(elev, cols, rows, 10, 10, 4);
+
+        // 5 cells west of the wall: looking east the horizon rises 100 over 50
+        int index = 5 * cols + 5;
+        assertEquals(2.0, engine.getHorizonTans(1, null)[index], DELTA);
+        assertEquals(0.0, engine.getHorizonTans(3, null)[index], DELTA);
+        assertEquals(0.0, engine.getHorizonTans(1, null)[5 * cols + 10], DELTA);
+
+        HorizonEngine.Horizon east = engine.getHorizon(Math.PI / 2, null);
+        assertTrue(east.isShadowed(index, Math.toRadians(60)));
+        assertFalse(east.isShadowed(index, Math.toRadians(70)));
+        assertFalse(engine.getHorizon(3 * Math.PI / 2, null).isShadowed(index, Math.toRadians(5)));
+    }
+
+    public void testBoundedCache() throws Exception {
+        double[] elev = toRowMajor(HMTestMaps.mapData);
+        int rows = HMTestMaps.mapData.length;
+        int cols = HMTestMaps.mapData[0].length;
+
+        HorizonEngine engine = new HorizonEngine(elev, cols, rows, 30, 30, 72);
+        HorizonEngine boundedEngine = new HorizonEngine(elev, cols, rows, 30, 30, 72, 2);
+        // jump around the azimuths, so that the bounded cache has to recalculate them
+        for( int azimuth = 0; azimuth < 360 * 7; azimuth += 97 ) {
+            double azimuthRad = Math.toRadians(azimuth % 360 + 0.3);
+            HorizonEngine.Horizon expected = engine.getHorizon(azimuthRad, null);
+            HorizonEngine.Horizon horizon = boundedEngine.getHorizon(azimuthRad, null);
+            for( int i = 0; i < elev.length; i++ ) {
+                if (!Double.isNaN(elev[i])) {
+                    assertEquals(expected.getTan(i), horizon.getTan(i), 0.0);
+                }
+            }
+        }
+
+        double[] expected = engine.skyviewFactor(null);
+        double[] skyview = boundedEngine.skyviewFactor(null);
+        for( int i = 0; i < elev.length; i++ ) {
+            if (!Double.isNaN(elev[i])) {
+                assertEquals(expected[i], skyview[i], 0.0);
+            }
+        }
+    }
+
+    public void testShadowAgainstRayMarching() throws Exception {
+        int rows = 40;
+        int cols = 50;
+        double[] synthetic = new double[cols * rows];
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                synthetic[r * cols + c] = 200 * Math.sin(c / 6.0) * Math.cos(r / 5.0) + 3 * c;
+            }
+        }
+        checkShadowAgainstRayMarching(toRowMajor(HMTestMaps.mapData), HMTestMaps.mapData[0].length, HMTestMaps.mapData.length);
+        checkShadowAgainstRayMarching(synthetic, cols, rows);
+    }
+
+    public void testSkyviewOfFlatArea() throws Exception {
+        double[] elev = new double[20 * 10];
+        double[] skyview = new HorizonEngine(elev, 20, 10, 30, 30, 36).skyviewFactor(null);
+        for( double value : skyview ) {
+            assertEquals(1.0, value, DELTA);
+        }
+    }
+
+    /**
+     * The horizon and the {@link ShadowEngine} walk the rays over different cells, so 
+     * only cells at the border of the shadows are expected to differ.
+     */
+    private void checkShadowAgainstRayMarching( double[] elev, int cols, int rows ) throws Exception {
+        ShadowEngine shadowEngine = new ShadowEngine(elev, cols, rows, 30);
+        HorizonEngine horizonEngine = new HorizonEngine(elev, cols, rows, 30, 30, 72);
+        int[] elevations = {5, 20, 45};
+        int count = 0;
+        int equal = 0;
+        for( int azimuth = 0; azimuth < 360; azimuth += 15 ) {
+            for( int elevation : elevations ) {
+                double azimuthRad = Math.toRadians(azimuth + 7);
+                double elevationRad = Math.toRadians(elevation);
+                double[] sunVector = {Math.sin(azimuthRad) * Math.cos(elevationRad),
+                        -Math.cos(azimuthRad) * Math.cos(elevationRad), Math.sin(elevationRad)};
+
+                byte[] shadow = shadowEngine.shadow(sunVector, null);
+                HorizonEngine.Horizon horizon = horizonEngine.getHorizon(azimuthRad, null);
+                for( int i = 0; i < elev.length; i++ ) {
+                    if (Double.isNaN(elev[i])) {
+                        continue;
+                    }
+                    count++;
+                    if ((shadow[i] == ShadowEngine.SHADOW) == horizon.isShadowed(i, elevationRad)) {
+                        equal++;
+                    }
+                }
+            }
+        }
+        assertTrue(equal >= 0.95 * count);
+    }
+
+    private static double[] toRowMajor( double[][] mapData ) {
+        int rows = mapData.length;
+        int cols = mapData[0].length;
+        double[] elev = new double[cols * rows];
+        for( int r = 0; r < rows; r++ ) {
+            System.arraycopy(mapData[r], 0, elev, r * cols, cols);
+        }
+        return elev;
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.hortonmachine.gears.utils.KdTree2D;
+
+/**
+ * Test {@link KdTree2D}.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestKdTree2D extends HMTestCase {
+
+    public void testQueriesMatchBruteForce() throws Exception {
+        int size = 5000;
+        // points on a coarse lattice, so that there are many duplicated coordinates
+        Random random = new Random(42);
+        double[] x = new double[size];
+        double[] y = new double[size];
+        for( int i = 0; i < size; i++ ) {
+            x[i] = random.nextInt(200);
+            y[i] = random.nextInt(200) * 0.5;
+        }
+        KdTree2D tree = new KdTree2D(x, y);
+        assertEquals(size, tree.size());
+
+        KdTree2D.Neighbours neighbours = new KdTree2D.Neighbours(2);
+        double[] distances2 = new double[size];
+        for( int q = 0; q < 500; q++ ) {
+            double px = random.nextDouble() * 220 - 10;
+            double py = random.nextDouble() * 120 - 10;
+            double radius = random.nextDouble() * 15;
+
+            Set<Integer> expected = new HashSet<Integer>();
+            for( int i = 0; i < size; i++ ) {
+                double dx = x[i] - px;
+                double dy = y[i] - py;
+                distances2[i] = dx * dx + dy * dy;
+                if (distances2[i] <= radius * radius) {
+                    expected.add(i);
+                }
+            }
+
+            int found = tree.withinRadius(px, py, radius, neighbours);
+            assertEquals(expected.size(), found);
+            Set<Integer> result = new HashSet<Integer>();
+            for( int i = 0; i < found; i++ ) {
+                result.add(neighbours.getIndex(i));
+            }
+            assertEquals(expected, result);
+
+            Set<Integer> expectedBox = new HashSet<Integer>();
+            for( int i = 0; i < size; i++ ) {
+                if (Math.abs(x[i] - px) <= radius && Math.abs(y[i] - py) <= radius) {
+                    expectedBox.add(i);
+                }
+            }
+            found = tree.withinBox(px - radius, py - radius, px + radius, py + radius, neighbours);
+            assertEquals(expectedBox.size(), found);
+            result.clear();
+            for( int i = 0; i < found; i++ ) {
+                result.add(neighbours.getIndex(i));
+                assertEquals(distances2[neighbours.getIndex(i)], neighbours.getSquaredDistance(i), 1E-9);
+            }
+            assertEquals(expectedBox, result);
+        }
+    }
+
+}
@@ -0,0 +1,226 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.libs.modules.ModelsSupporter;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
+import org.hortonmachine.gears.libs.modules.multiprocessing.GridMultiProcessing;
+import org.hortonmachine.gears.libs.modules.multiprocessing.GridNodeMultiProcessing;
+import org.hortonmachine.gears.libs.monitor.FileMetricsCollector;
+import org.hortonmachine.gears.libs.monitor.ModuleMetrics;
+import org.hortonmachine.gears.libs.monitor.ModuleMetricsRecorder;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.hortonmachine.gears.utils.HMTestMaps;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.gears.utils.files.FileUtilities;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import oms3.annotations.Execute;
+/**
+ * Test the module execution metrics.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestModuleMetrics extends HMTestCase {
+
+    public static class GridSumModule extends GridMultiProcessing {
+        public double sum = 0;
+
+        @Execute
+        public void process() throws Exception {
+            double[] values = new double[200 * 100];
+            processGrid(200, 100, ( c, r ) -> {
+                values[r * 200 + c] = Math.sqrt(c * r);
+            });
+            for( double v : values ) {
+                sum += v;
+            }
+        }
+    }
+
+    public static class ParallelSumModule extends GridMultiProcessing {
+        public double sum = 0;
+
+        @Override
+        protected ExecutionPlanner createDefaultPlanner() {
+            return createPlanner(3);
+        }
+
+        @Execute
+        public void process() throws Exception {
+            double[] values = new double[400 * 300];
+            processGrid(400, 300, ( c, r ) -> {
+                double v = 0;
+                for( int i = 1; i < 50; i++ ) {
+                    v += Math.sqrt(c * r + i);
+                }
+                values[r * 400 + c] = v;
+            });
+            for( double v : values ) {
+                sum += v;
+            }
+        }
+    }
+
+    public static class GridNodeModule extends GridNodeMultiProcessing {
+        public GridCoverage2D inElev;
+
+        @Execute
+        public void process() throws Exception {
+            processGridNodes(inElev, node -> {
+            });
+            processGridNodeCursors(inElev, cursor -> {
+            });
+        }
+    }
+
+    public static class SleepingModule extends GridMultiProcessing {
+        @Execute
+        public void process() throws Exception {
+            Thread.sleep(400);
+        }
+    }
+
+    public void testMetrics() throws Exception {
+        List<ModuleMetrics> collected = new ArrayList<>();
+        GridSumModule module = new GridSumModule();
+        module.setMetricsCollector(m -> collected.add(m));
+        ModuleMetrics metrics = ModelsSupporter.runWithMetrics(module);
+
+        assertEquals(1, collected.size());
+        assertSame(metrics, collected.get(0));
+        assertEquals("GridSumModule", metrics.module);
+        assertEquals(20000, metrics.processedElements);
+        assertTrue(metrics.wallNanos > 0);
+        assertTrue(metrics.startTs > 0);
+        assertTrue(metrics.getThreadUtilisation() >= 0);
+
+        // no recording, no counting
+        module.process();
+        assertEquals(1, collected.size());
+    }
+
+    public void testGridNodeElements() throws Exception {
+        GridNodeModule module = new GridNodeModule();
+        module.inElev = CoverageUtilities.buildCoverage("elev", HMTestMaps.mapData, HMTestMaps.getEnvelopeparams(),
+                HMTestMaps.getCrs(), true);
+        ModuleMetrics metrics = ModelsSupporter.runWithMetrics(module);
+        // both loops visit the 10x8 cells
+        assertEquals(160, metrics.processedElements);
+    }
+
+    public void testWorkerThreads() throws Exception {
+        ParallelSumModule module = new ParallelSumModule();
+        ModuleMetrics metrics = ModelsSupporter.runWithMetrics(module);
+        assertEquals(120000, metrics.processedElements);
+        // the calling thread and at least one worker
+        assertTrue(metrics.threads >= 2);
+        assertTrue(metrics.cpuNanos > 0);
+    }
+
+    public void testWorkerRecorderRestored() throws Exception {
+        ModuleMetricsRecorder outer = new ModuleMetricsRecorder("outer");
+        outer.start();
+        Runnable outerTask = ModuleMetricsRecorder.measured(() -> {
+        });
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // a module recording in the worker thread runs a task of the outer module
+            Future<boolean[]> future = executor.submit(() -> {
+                ModuleMetricsRecorder worker = new ModuleMetricsRecorder("worker");
+                worker.start();
+                outerTask.run();
+                Runnable plain = () -> {
+                };
+                boolean workerMeasured = ModuleMetricsRecorder.measured(plain) != plain;
+                worker.stop();
+                boolean nothingMeasured = ModuleMetricsRecorder.measured(plain) == plain;
+                return new boolean[]{workerMeasured, nothingMeasured};
+            });
+            boolean[] result = future.get();
+            assertTrue(result[0]);
+            assertTrue(result[1]);
+        } finally {
+            executor.shutdown();
+            outer.stop();
+        }
+    }
+
+    public void testOtherThreadsNotCounted() throws Exception {
+        AtomicBoolean spin = new AtomicBoolean(true);
+        Thread spinner = new Thread(() -> {
+            double v = 0;
+            while( spin.get() ) {
+                v += Math.sqrt(v + 1);
+            }
+        });
+        spinner.setDaemon(true);
+        spinner.start();
+        try {
+            SleepingModule module = new SleepingModule();
+            ModuleMetrics metrics = ModelsSupporter.runWithMetrics(module);
+            // the spinning thread used about 400ms of cpu during the run
+            assertTrue(metrics.cpuNanos < 200_000_000L);
+            assertTrue(metrics.threads <= 1);
+        } finally {
+            spin.set(false);
+            spinner.join();
+        }
+    }
+
+    public void testFileExport() throws Exception {
+        File csvFile = File.createTempFile("metrics", ".csv");
+        File jsonFile = File.createTempFile("metrics", ".json");
+        try {
+            GridSumModule module = new GridSumModule();
+            module.setMetricsCollector(new FileMetricsCollector(csvFile));
+            ModelsSupporter.runWithMetrics(module);
+            ModelsSupporter.runWithMetrics(module);
+
+            List<String> lines = FileUtilities.readFileToLinesList(csvFile);
+            assertEquals(3, lines.size());
+            assertEquals(ModuleMetrics.getCsvHeader(), lines.get(0));
+            assertTrue(lines.get(1).startsWith("GridSumModule;"));
+
+            module.setMetricsCollector(new FileMetricsCollector(jsonFile));
+            ModelsSupporter.runWithMetrics(module);
+            module.setMetricsCollector(new FileMetricsCollector(jsonFile));
+            ModelsSupporter.runWithMetrics(module);
+
+            JSONArray array = new JSONArray(FileUtilities.readFile(jsonFile));
+            assertEquals(2, array.length());
+            JSONObject json = array.getJSONObject(1);
+            assertEquals("GridSumModule", json.getString(ModuleMetrics.MODULE));
+            assertEquals(20000, json.getLong(ModuleMetrics.PROCESSED));
+        } finally {
+            csvFile.delete();
+            jsonFile.delete();
+        }
+    }
+
+}
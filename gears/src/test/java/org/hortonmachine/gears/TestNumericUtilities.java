@@ -11,6 +11,8 @@ import java.util.List;
 
 import org.hortonmachine.gears.utils.HMTestCase;
 import org.hortonmachine.gears.utils.math.NumericsUtilities;
+import org.hortonmachine.gears.utils.math.matrixes.ColumnVector;
+import org.hortonmachine.gears.utils.math.matrixes.LinearSystem;
 
 /**
  * Test numerics.
@@ -123,4 +125,25 @@ public class TestNumericUtilities extends HMTestCase {
         got = new double[][]{range2Bins};
         checkMatrixEqual(got, expected, DELTA);
     }
+
+    public void testLinearSystemMultipleRightHandSides() throws Exception {
+        double[][] a = {//
+                {4.0, 1.0, 2.0, 1.0}, //
+                {1.0, 5.0, 1.0, 1.0}, //
+                {2.0, 1.0, 6.0, 1.0}, //
+                {1.0, 1.0, 1.0, 0.0}//
+        };
+        double[][] b = {//
+                {1.0, 2.0, 3.0, 1.0}, //
+                {0.5, 0.1, 0.7, 1.0}, //
+                {3.0, 3.0, 3.0, 1.0}//
+        };
+
+        double[][] solutions = new LinearSystem(a).solve(b, true);
+        assertEquals(b.length, solutions.length);
+        for( int k = 0; k < b.length; k++ ) {
+            double[] expected = new LinearSystem(a).solve(new ColumnVector(b[k]), true).copyValues1D();
+            assertTrue(Arrays.equals(expected, solutions[k]));
+        }
+    }
 }
@@ -0,0 +1,59 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.hortonmachine.gears.utils.sorting.QuickSortAlgorithm;
+
+/**
+ * Test {@link QuickSortAlgorithm}.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestQuickSortAlgorithm extends HMTestCase {
+
+    public void testParallelSortIsIdentical() throws Exception {
+        int size = 100000;
+        // few distinct values, so that there are many ties, and some novalues
+        Random random = new Random(42);
+        double[] values = new double[size];
+        int[] indexes = new int[size];
+        for( int i = 0; i < size; i++ ) {
+            values[i] = random.nextInt(10) == 0 ? HMConstants.doubleNovalue : random.nextInt(500);
+            indexes[i] = i;
+        }
+        double[] parallelValues = values.clone();
+        int[] parallelIndexes = indexes.clone();
+
+        new QuickSortAlgorithm(pm).sort(values, indexes);
+        new QuickSortAlgorithm(pm).sort(parallelValues, parallelIndexes, 4);
+
+        assertTrue(Arrays.equals(values, parallelValues));
+        assertTrue(Arrays.equals(indexes, parallelIndexes));
+        for( int i = 1; i < size; i++ ) {
+            if (!HMConstants.isNovalue(values[i - 1])) {
+                assertTrue(values[i - 1] <= values[i]);
+            }
+        }
+    }
+
+}
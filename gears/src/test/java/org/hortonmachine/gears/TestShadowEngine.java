@@ -0,0 +1,170 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears;
+
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+import org.hortonmachine.gears.libs.modules.ModelsEngine;
+import org.hortonmachine.gears.libs.modules.ShadowEngine;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
+import org.hortonmachine.gears.libs.modules.multiprocessing.FixedChunkSizePlanner;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.hortonmachine.gears.utils.HMTestMaps;
+
+/**
+ * Test the {@link ShadowEngine}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestShadowEngine extends HMTestCase {
+
+    public void testWallShadow() throws Exception {
+        int cols = 20;
+        int rows = 10;
+        double[] elev = new double[cols * rows];
+        for( int r = 0; r < rows; r++ ) {
+            elev[r * cols + 10] = 100;
+        }
+        // sun from the east at 45 degrees, the wall shadows 10 cells to the west
+        double elevation = Math.toRadians(45);
+        double[] sunVector = {Math.cos(elevation), 0, Math.sin(elevation)};
+        byte[] shadow = new ShadowEngine(elev, cols, rows, 10).shadow(sunVector, null);
+
+        int row = 5 * cols;
+        assertEquals(ShadowEngine.LIT, shadow[row + 10]);
+        assertEquals(ShadowEngine.SHADOW, shadow[row + 9]);
+        assertEquals(ShadowEngine.SHADOW, shadow[row + 1]);
+        assertEquals(ShadowEngine.LIT, shadow[row + 11]);
+    }
+
+    public void testParallelAndBands() throws Exception {
+        double[][] mapData = HMTestMaps.mapData;
+        int rows = mapData.length;
+        int cols = mapData[0].length;
+        double[] elev = new double[cols * rows];
+        for( int r = 0; r < rows; r++ ) {
+            System.arraycopy(mapData[r], 0, elev, r * cols, cols);
+        }
+
+        ShadowEngine engine = new ShadowEngine(elev, cols, rows, 30);
+        ShadowEngine bandsEngine = new ShadowEngine(cols, rows, 30);
+        for( int azimuth = 0; azimuth < 360; azimuth += 45 ) {
+            double azimuthRad = Math.toRadians(azimuth);
+            double elevationRad = Math.toRadians(10);
+            double[] sunVector = {Math.sin(azimuthRad) * Math.cos(elevationRad), -Math.cos(azimuthRad) * Math.cos(elevationRad),
+                    Math.sin(elevationRad)};
+
+            byte[] expected = engine.shadow(sunVector, null);
+            byte[] parallel = engine.shadow(sunVector, new FixedChunkSizePlanner(ExecutionPlanner.createExecutor(3)));
+            assertTrue(Arrays.equals(expected, parallel));
+
+            byte[] bands = new byte[cols * rows];
+            bandsEngine.shadow(sunVector, 3, ( fromRow, toRow, bandElev ) -> {
+                System.arraycopy(elev, fromRow * cols, bandElev, 0, (toRow - fromRow) * cols);
+            }, ( fromRow, toRow, bandShadow ) -> {
+                System.arraycopy(bandShadow, 0, bands, fromRow * cols, (toRow - fromRow) * cols);
+            }, null);
+            assertTrue(Arrays.equals(expected, bands));
+        }
+    }
+
+    public void testLegacyRayMarch() throws Exception {
+        double[][][] maps = {HMTestMaps.mapData, HMTestMaps.outPitData};
+        for( double[][] mapData : maps ) {
+            int rows = mapData.length;
+            int cols = mapData[0].length;
+            double[] elev = new double[cols * rows];
+            WritableRaster demWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, null);
+            for( int r = 0; r < rows; r++ ) {
+                for( int c = 0; c < cols; c++ ) {
+                    elev[r * cols + c] = mapData[r][c];
+                    demWR.setSample(c, r, 0, mapData[r][c]);
+                }
+            }
+
+            ShadowEngine engine = new ShadowEngine(elev, cols, rows, 30);
+            int[] elevations = {5, 20, 45};
+            for( int azimuth = 0; azimuth < 360; azimuth += 15 ) {
+                for( int elevation : elevations ) {
+                    double azimuthRad = Math.toRadians(azimuth + 7);
+                    double elevationRad = Math.toRadians(elevation);
+                    double[] sunVector = {Math.sin(azimuthRad) * Math.cos(elevationRad),
+                            -Math.cos(azimuthRad) * Math.cos(elevationRad), Math.sin(elevationRad)};
+
+                    WritableRaster expected = legacyShadow(rows, cols, sunVector, demWR, 30);
+                    byte[] shadow = engine.shadow(sunVector, null);
+                    for( int r = 0; r < rows; r++ ) {
+                        for( int c = 0; c < cols; c++ ) {
+                            assertEquals(expected.getSample(c, r, 0), shadow[r * cols + c]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The shadow map as it was calculated before the {@link ShadowEngine}, one ray at a time
+     * through the raster api.
+     */
+    private static WritableRaster legacyShadow( int h, int w, double[] sunVector, WritableRaster demWR, double res ) {
+        double[] inverseSunVector = ModelsEngine.calcInverseSunVector(sunVector);
+        double[] normalSunVector = ModelsEngine.calcNormalSunVector(sunVector);
+        int f_i = 1e6 * sunVector[0] <= 0 ? 0 : w - 1;
+        int f_j = 1e6 * sunVector[1] <= 0 ? 0 : h - 1;
+
+        WritableRaster shadowWR = CoverageUtilities.createWritableRaster(w, h, null, null, 1.0);
+        for( int i = 0; i < w; i++ ) {
+            legacyRay(i, f_j, shadowWR, demWR, res, normalSunVector, inverseSunVector);
+        }
+        for( int k = 0; k < h; k++ ) {
+            legacyRay(f_i, k, shadowWR, demWR, res, normalSunVector, inverseSunVector);
+        }
+        return shadowWR;
+    }
+
+    private static void legacyRay( int i, int j, WritableRaster shadowWR, WritableRaster demWR, double res,
+            double[] normalSunVector, double[] inverseSunVector ) {
+        int n = 0;
+        double zcompare = -Double.MAX_VALUE;
+        double dx = inverseSunVector[0] * n;
+        double dy = inverseSunVector[1] * n;
+        int idx = (int) Math.round(i + dx);
+        int jdy = (int) Math.round(j + dy);
+        double[] vectorToOrigin = new double[3];
+        while( idx >= 0 && idx <= shadowWR.getWidth() - 1 && jdy >= 0 && jdy <= shadowWR.getHeight() - 1 ) {
+            vectorToOrigin[0] = dx * res;
+            vectorToOrigin[1] = dy * res;
+            vectorToOrigin[2] = demWR.getSampleDouble(idx, jdy, 0);
+            double zprojection = ModelsEngine.scalarProduct(vectorToOrigin, normalSunVector);
+            if (zprojection < zcompare) {
+                shadowWR.setSample(idx, jdy, 0, 0);
+            } else {
+                zcompare = zprojection;
+            }
+            n = n + 1;
+            dy = inverseSunVector[1] * n;
+            dx = inverseSunVector[0] * n;
+            idx = (int) Math.round(i + dx);
+            jdy = (int) Math.round(j + dy);
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.libs.modules.multiprocessing.BlockingExecutorService;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
+import org.hortonmachine.gears.libs.modules.streaming.FocalWindow;
+import org.hortonmachine.gears.libs.modules.streaming.IFocalOperator;
+import org.hortonmachine.gears.libs.modules.streaming.TiledRasterPipeline;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.hortonmachine.gears.utils.HMTestMaps;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Test the {@link TiledRasterPipeline}.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestTiledRasterPipeline extends HMTestCase {
+
+    /**
+     * Sum and count of the valid cells in the 3x3 neighbourhood.
+     */
+    private static class SumOperator implements IFocalOperator {
+        @Override
+        public int getKernelRadius() {
+            return 1;
+        }
+
+        @Override
+        public int getOutputsCount() {
+            return 2;
+        }
+
+        @Override
+        public void calculate( FocalWindow window, double[] outValues ) {
+            double sum = 0;
+            int count = 0;
+            for( int r = window.getRow() - 1; r <= window.getRow() + 1; r++ ) {
+                for( int c = window.getCol() - 1; c <= window.getCol() + 1; c++ ) {
+                    double value = window.getValue(0, c, r);
+                    if (!HMConstants.isNovalue(value) && !Double.isNaN(value)) {
+                        sum += value;
+                        count++;
+                    }
+                }
+            }
+            outValues[0] = sum;
+            outValues[1] = count;
+        }
+    }
+
+    private double[][][] expected( double[][] data ) {
+        int rows = data.length;
+        int cols = data[0].length;
+        double[][][] expected = new double[2][rows][cols];
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                for( int rr = r - 1; rr <= r + 1; rr++ ) {
+                    for( int cc = c - 1; cc <= c + 1; cc++ ) {
+                        if (rr < 0 || cc < 0 || rr >= rows || cc >= cols || HMConstants.isNovalue(data[rr][cc])
+                                || Double.isNaN(data[rr][cc])) {
+                            continue;
+                        }
+                        expected[0][r][c] += data[rr][cc];
+                        expected[1][r][c]++;
+                    }
+                }
+            }
+        }
+        return expected;
+    }
+
+    private GridCoverage2D getCoverage() {
+        HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs();
+        return CoverageUtilities.buildCoverage("elev", HMTestMaps.mapData, envelopeParams, crs, true);
+    }
+
+    public void testCompute() throws Exception {
+        double[][][] expected = expected(HMTestMaps.mapData);
+        TiledRasterPipeline pipeline = new TiledRasterPipeline(getCoverage()).setTileSize(4, 3).setThreads(3);
+        assertEquals(3 * 3, pipeline.getTilesCount());
+
+        GridCoverage2D[] out = pipeline.compute(new SumOperator(), null, "sum", "count");
+        checkMatrixEqual(out[0].getRenderedImage(), expected[0], DELTA);
+        checkMatrixEqual(out[1].getRenderedImage(), expected[1], DELTA);
+    }
+
+    public void testComputeOnExecutor() throws Exception {
+        double[][][] expected = expected(HMTestMaps.mapData);
+        BlockingExecutorService executor = ExecutionPlanner.createExecutor(2);
+        TiledRasterPipeline pipeline = new TiledRasterPipeline(getCoverage()).setTileSize(4, 3).setExecutor(executor, 2);
+
+        GridCoverage2D[] out = pipeline.compute(new SumOperator(), null, "sum", "count");
+        checkMatrixEqual(out[0].getRenderedImage(), expected[0], DELTA);
+        checkMatrixEqual(out[1].getRenderedImage(), expected[1], DELTA);
+        out = pipeline.stream(new SumOperator(), null, "sum", "count");
+        checkMatrixEqual(out[0].getRenderedImage(), expected[0], DELTA);
+    }
+
+    public void testStream() throws Exception {
+        double[][][] expected = expected(HMTestMaps.mapData);
+        TiledRasterPipeline pipeline = new TiledRasterPipeline(getCoverage()).setTileSize(3, 2).setThreads(2);
+
+        GridCoverage2D[] out = pipeline.stream(new SumOperator(), null, "sum", "count");
+        checkMatrixEqual(out[0].getRenderedImage(), expected[0], DELTA);
+        checkMatrixEqual(out[1].getRenderedImage(), expected[1], DELTA);
+    }
+
+    public void testVisitTiles() throws Exception {
+        TiledRasterPipeline pipeline = new TiledRasterPipeline(getCoverage()).setTileSize(5, 5);
+        AtomicInteger cells = new AtomicInteger();
+        pipeline.visitTiles(0, window -> {
+            int tileCells = (window.getTileMaxCol() - window.getTileMinCol() + 1)
+                    * (window.getTileMaxRow() - window.getTileMinRow() + 1);
+            cells.addAndGet(tileCells);
+        });
+        assertEquals(HMTestMaps.mapData.length * HMTestMaps.mapData[0].length, cells.get());
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules;
+
+import java.io.File;
+import java.net.URL;
+import java.util.HashMap;
+
+import org.hortonmachine.gears.io.timedependent.BinaryTimeSeriesReader;
+import org.hortonmachine.gears.io.timedependent.BinaryTimeSeriesWriter;
+import org.hortonmachine.gears.io.timedependent.OmsTimeSeriesIteratorReader;
+import org.hortonmachine.gears.io.timedependent.OmsTimeSeriesIteratorWriter;
+import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.utils.HMTestCase;
+/**
+ * Test {@link BinaryTimeSeriesWriter} and {@link BinaryTimeSeriesReader}.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestBinaryTimeSeries extends HMTestCase {
+
+    public void testCsvConversion() throws Exception {
+        URL dataUrl = this.getClass().getClassLoader().getResource("timeseriesiteratorreader_test.csv");
+        File file = File.createTempFile("hm_timeseries", ".hts");
+        try {
+            int rows = BinaryTimeSeriesWriter.csv2Binary(new File(dataUrl.toURI()).getAbsolutePath(), "ID", "-9999.0",
+                    file.getAbsolutePath());
+            assertTrue(rows > 2);
+
+            OmsTimeSeriesIteratorReader reader = new OmsTimeSeriesIteratorReader();
+            reader.file = file.getAbsolutePath();
+            reader.idfield = "ID";
+            reader.tStart = "2000-01-01 00:00";
+            reader.tEnd = "2000-12-31 00:00";
+            reader.tTimestep = 1440;
+            reader.doReuseData = true;
+
+            reader.nextRecord();
+            // record 1: ,2000-01-01 00:00,-2.5,-2,-1.3,-1.1
+            HashMap<Integer, double[]> id2ValueMap = reader.outData;
+            assertEquals(-2.5, id2ValueMap.get(1)[0]);
+            assertEquals(-2.0, id2ValueMap.get(2)[0]);
+            assertEquals(-1.3, id2ValueMap.get(3)[0]);
+            assertEquals(-1.1, id2ValueMap.get(4)[0]);
+
+            reader.nextRecord();
+            // record 2: ,2000-01-02 00:00,-2,2.6,3.9,3.4
+            assertSame(id2ValueMap, reader.outData);
+            assertEquals("2000-01-02 00:00", reader.tCurrent);
+            assertEquals(-2.0, id2ValueMap.get(1)[0]);
+            assertEquals(2.6, id2ValueMap.get(2)[0]);
+            assertEquals(3.9, id2ValueMap.get(3)[0]);
+            assertEquals(3.4, id2ValueMap.get(4)[0]);
+
+            reader.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testBlocks() throws Exception {
+        File file = File.createTempFile("hm_timeseries", ".hts");
+        try {
+            long step = 15 * 60 * 1000L;
+            // 3 blocks of 4 rows, the last one with 2 rows
+            try (BinaryTimeSeriesWriter writer = new BinaryTimeSeriesWriter(file.getAbsolutePath(), new int[]{1, 2, 2}, 4)) {
+                for( int i = 0; i < 10; i++ ) {
+                    double first = i == 5 ? HMConstants.doubleNovalue : i;
+                    writer.writeRow(i * step, new double[]{first, 100 + i, 200 + i});
+                }
+            }
+
+            try (BinaryTimeSeriesReader reader = new BinaryTimeSeriesReader(file.getAbsolutePath())) {
+                reader.open();
+                assertEquals(10, reader.getRowsCount());
+                assertEquals(3, reader.getColumnsCount());
+                assertEquals(1, reader.getColumnIndex(2));
+
+                assertEquals(9, reader.findRow(9 * step));
+                assertEquals(-4, reader.findRow(2 * step + 1));
+
+                double[] row = reader.readRow(9, new double[3]);
+                assertEquals(9.0, row[0]);
+                assertEquals(109.0, row[1]);
+                assertEquals(209.0, row[2]);
+                assertEquals(HMConstants.doubleNovalue, reader.readValue(5, 0));
+
+                double[] column = reader.readColumn(2, 3, 10, null);
+                for( int i = 0; i < 7; i++ ) {
+                    assertEquals(203.0 + i, column[i]);
+                }
+            }
+
+            OmsTimeSeriesIteratorReader reader = new OmsTimeSeriesIteratorReader();
+            reader.file = file.getAbsolutePath();
+            reader.tStart = "1970-01-01 00:00";
+            reader.pNum = 2;
+            reader.pAggregation = 1;
+            reader.tTimestep = 30;
+            reader.initProcess();
+            int count = 0;
+            while( reader.doProcess ) {
+                reader.nextRecord();
+                double[] values = reader.outData.get(2);
+                assertEquals(2, values.length);
+                assertEquals(100.5 + 2 * count, values[0]);
+                assertEquals(200.5 + 2 * count, values[1]);
+                count++;
+            }
+            assertEquals(5, count);
+            reader.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testIteratorWriter() throws Exception {
+        File file = File.createTempFile("hm_timeseries", ".hts");
+        try {
+            OmsTimeSeriesIteratorWriter writer = new OmsTimeSeriesIteratorWriter();
+            writer.file = file.getAbsolutePath();
+            writer.tStart = "2000-01-01 00:00";
+            writer.tTimestep = 60;
+            for( int i = 0; i < 3; i++ ) {
+                HashMap<Integer, double[]> data = new HashMap<Integer, double[]>();
+                data.put(1, new double[]{i});
+                data.put(2, new double[]{10 + i, HMConstants.doubleNovalue});
+                writer.inData = data;
+                writer.writeNextLine();
+            }
+            writer.close();
+
+            OmsTimeSeriesIteratorReader reader = new OmsTimeSeriesIteratorReader();
+            reader.file = file.getAbsolutePath();
+            reader.novalue = Double.NaN;
+            reader.initProcess();
+            reader.nextRecord();
+            reader.nextRecord();
+            assertEquals("2000-01-01 01:00", reader.tCurrent);
+            assertEquals(1.0, reader.outData.get(1)[0]);
+            assertEquals(11.0, reader.outData.get(2)[0]);
+            assertTrue(Double.isNaN(reader.outData.get(2)[1]));
+            reader.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testIteratorWriterLayout() throws Exception {
+        HashMap<Integer, double[]> missingStation = new HashMap<Integer, double[]>();
+        missingStation.put(1, new double[]{1});
+        checkLayoutError(missingStation, "station 2");
+
+        HashMap<Integer, double[]> changedLength = new HashMap<Integer, double[]>();
+        changedLength.put(1, new double[]{1});
+        changedLength.put(2, new double[]{11});
+        checkLayoutError(changedLength, "station 2");
+
+        HashMap<Integer, double[]> newStation = new HashMap<Integer, double[]>();
+        newStation.put(1, new double[]{1});
+        newStation.put(3, new double[]{21, 22});
+        checkLayoutError(newStation, "station 3");
+    }
+
+    /**
+     * Writes a first timestep with the stations 1 and 2 and checks that the second one is refused.
+     */
+    private void checkLayoutError( HashMap<Integer, double[]> secondData, String station ) throws Exception {
+        File file = File.createTempFile("hm_timeseries", ".hts");
+        try {
+            OmsTimeSeriesIteratorWriter writer = new OmsTimeSeriesIteratorWriter();
+            writer.file = file.getAbsolutePath();
+            writer.tStart = "2000-01-01 00:00";
+            writer.tTimestep = 60;
+            HashMap<Integer, double[]> data = new HashMap<Integer, double[]>();
+            data.put(1, new double[]{0});
+            data.put(2, new double[]{10, 20});
+            writer.inData = data;
+            writer.writeNextLine();
+            writer.inData = secondData;
+            try {
+                writer.writeNextLine();
+                fail();
+            } catch (ModelsIllegalargumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains(station));
+            } finally {
+                writer.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+}
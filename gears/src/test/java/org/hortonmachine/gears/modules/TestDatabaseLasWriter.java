@@ -0,0 +1,283 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hortonmachine.dbs.compat.ASpatialDb;
+import org.hortonmachine.dbs.compat.EDb;
+import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.v_1_0.LasWriterBuffered;
+import org.hortonmachine.gears.io.las.databases.DatabaseLasWriter;
+import org.hortonmachine.gears.io.las.databases.LasCell;
+import org.hortonmachine.gears.io.las.databases.LasCellsTable;
+import org.hortonmachine.gears.io.las.databases.LasLevel;
+import org.hortonmachine.gears.io.las.databases.LasLevelsTable;
+import org.hortonmachine.gears.io.las.databases.LasSource;
+import org.hortonmachine.gears.io.las.databases.LasSourcesTable;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.hortonmachine.gears.utils.files.FileUtilities;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Test {@link DatabaseLasWriter}.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestDatabaseLasWriter extends HMTestCase {
+
+    private static final double WEST = 660000.0;
+    private static final double SOUTH = 5100000.0;
+    private static final int LEVELS = 2;
+
+    /**
+     * Two las files overlapping for half of their width, the first with elevations 
+     * around 100 and the second around 200.
+     */
+    public void testParallelIngestion() throws Exception {
+        File folder = Files.createTempDirectory("hm_test_databaselaswriter").toFile();
+        try {
+            File lasFolder = new File(folder, "las");
+            lasFolder.mkdirs();
+            writeLas(new File(lasFolder, "west.las"), 0.0, 100.0, 10);
+            writeLas(new File(lasFolder, "east.las"), 30.0, 200.0, 500);
+
+            String dbPath1 = new File(folder, "las_1").getAbsolutePath();
+            String dbPath3 = new File(folder, "las_3").getAbsolutePath();
+            String dbPathBands = new File(folder, "las_bands").getAbsolutePath();
+            ingest(lasFolder, dbPath1, 1, Integer.MAX_VALUE);
+            ingest(lasFolder, dbPath3, 3, Integer.MAX_VALUE);
+            // about 440 points per column of cells, so each file is read in bands of 4 columns
+            ingest(lasFolder, dbPathBands, 2, 2000);
+
+            Map<String, LasCell> cells1 = new HashMap<>();
+            Map<String, List<LasLevel>> levels1 = new HashMap<>();
+            readDatabase(dbPath1, cells1, levels1);
+            Map<String, LasCell> cells3 = new HashMap<>();
+            Map<String, List<LasLevel>> levels3 = new HashMap<>();
+            readDatabase(dbPath3, cells3, levels3);
+            Map<String, LasCell> cellsBands = new HashMap<>();
+            Map<String, List<LasLevel>> levelsBands = new HashMap<>();
+            readDatabase(dbPathBands, cellsBands, levelsBands);
+
+            // the cells table is the same for any number of threads and points in memory
+            assertEquals(2 * 20 * 12, cells1.size());
+            checkSameCells(cells1, cells3);
+            checkSameCells(cells1, cellsBands);
+
+            // so are the levels tables
+            checkSameLevels(levels1, levels3);
+            checkSameLevels(levels1, levelsBands);
+
+            checkLevelsOfSource("west", cells1, levels1, 100.0);
+            checkLevelsOfSource("east", cells1, levels1, 200.0);
+        } finally {
+            FileUtilities.deleteFileOrDir(folder);
+        }
+    }
+
+    private void checkSameCells( Map<String, LasCell> expectedCells, Map<String, LasCell> cells ) {
+        assertEquals(expectedCells.keySet(), cells.keySet());
+        for( Map.Entry<String, LasCell> entry : expectedCells.entrySet() ) {
+            LasCell expected = entry.getValue();
+            LasCell cell = cells.get(entry.getKey());
+            assertEquals(expected.pointsCount, cell.pointsCount);
+            assertEquals(expected.avgElev, cell.avgElev, DELTA);
+            assertEquals(expected.minElev, cell.minElev, DELTA);
+            assertEquals(expected.maxElev, cell.maxElev, DELTA);
+            assertEquals(expected.avgIntensity, cell.avgIntensity);
+            assertEquals(expected.minIntensity, cell.minIntensity);
+            assertEquals(expected.maxIntensity, cell.maxIntensity);
+            assertEquals(expected.minGpsTime, cell.minGpsTime, DELTA);
+            assertEquals(expected.maxGpsTime, cell.maxGpsTime, DELTA);
+            assertTrue(Arrays.equals(expected.xyzs, cell.xyzs));
+            assertTrue(Arrays.equals(expected.intensitiesClassifications, cell.intensitiesClassifications));
+            assertTrue(Arrays.equals(expected.returns, cell.returns));
+            assertTrue(Arrays.equals(expected.gpsTimes, cell.gpsTimes));
+        }
+    }
+
+    private void checkSameLevels( Map<String, List<LasLevel>> expectedLevels, Map<String, List<LasLevel>> levels ) {
+        for( int level = 1; level <= LEVELS; level++ ) {
+            Map<String, LasLevel> expectedTiles = levelsByKey(expectedLevels, level);
+            Map<String, LasLevel> tiles = levelsByKey(levels, level);
+            assertEquals(expectedTiles.keySet(), tiles.keySet());
+            for( Map.Entry<String, LasLevel> entry : expectedTiles.entrySet() ) {
+                LasLevel expected = entry.getValue();
+                LasLevel tile = tiles.get(entry.getKey());
+                assertEquals(expected.avgElev, tile.avgElev, DELTA);
+                assertEquals(expected.minElev, tile.minElev, DELTA);
+                assertEquals(expected.maxElev, tile.maxElev, DELTA);
+                assertEquals(expected.avgIntensity, tile.avgIntensity);
+                assertEquals(expected.minIntensity, tile.minIntensity);
+                assertEquals(expected.maxIntensity, tile.maxIntensity);
+            }
+        }
+    }
+
+    /**
+     * Checks that every level tile of a source summarizes the cells (or the lower level 
+     * tiles) of that source only, each one counted once in the tile containing its center.
+     */
+    private void checkLevelsOfSource( String source, Map<String, LasCell> cells, Map<String, List<LasLevel>> levels,
+            double minElev ) {
+        List<LasLevel> previous = new ArrayList<>();
+        int pointsCount = 0;
+        for( Map.Entry<String, LasCell> entry : cells.entrySet() ) {
+            if (entry.getKey().startsWith(source + "_")) {
+                LasCell cell = entry.getValue();
+                LasLevel summary = new LasLevel();
+                summary.polygon = cell.polygon;
+                summary.avgElev = cell.avgElev;
+                summary.minElev = cell.minElev;
+                summary.maxElev = cell.maxElev;
+                summary.avgIntensity = cell.avgIntensity;
+                summary.minIntensity = cell.minIntensity;
+                summary.maxIntensity = cell.maxIntensity;
+                previous.add(summary);
+                pointsCount += cell.pointsCount;
+            }
+        }
+        assertEquals(121 * 73, pointsCount);
+
+        int[] tilesCount = {10 * 6, 5 * 3};
+        for( int level = 1; level <= LEVELS; level++ ) {
+            List<LasLevel> tiles = levels.get(source + "_" + level);
+            assertEquals(tilesCount[level - 1], tiles.size());
+            int summarized = 0;
+            for( LasLevel tile : tiles ) {
+                Envelope tileEnv = tile.polygon.getEnvelopeInternal();
+                double avgElev = 0;
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                double avgIntensity = 0;
+                int count = 0;
+                for( LasLevel p : previous ) {
+                    Coordinate center = p.polygon.getEnvelopeInternal().centre();
+                    if (tileEnv.contains(center)) {
+                        avgElev += p.avgElev;
+                        min = Math.min(min, p.minElev);
+                        max = Math.max(max, p.maxElev);
+                        avgIntensity += p.avgIntensity;
+                        count++;
+                    }
+                }
+                assertTrue(count > 0);
+                summarized += count;
+                assertEquals(avgElev / count, tile.avgElev, 1E-6);
+                assertEquals(min, tile.minElev, DELTA);
+                assertEquals(max, tile.maxElev, DELTA);
+                assertEquals((short) Math.round(avgIntensity / count), tile.avgIntensity);
+                // the overlapping source is never mixed in
+                assertTrue(tile.minElev >= minElev);
+                assertTrue(tile.maxElev < minElev + 10);
+            }
+            assertEquals(previous.size(), summarized);
+            previous = tiles;
+        }
+    }
+
+    private Map<String, LasLevel> levelsByKey( Map<String, List<LasLevel>> levels, int level ) {
+        Map<String, LasLevel> map = new HashMap<>();
+        for( String source : new String[]{"west", "east"} ) {
+            for( LasLevel lasLevel : levels.get(source + "_" + level) ) {
+                map.put(source + "_" + key(lasLevel.polygon.getEnvelopeInternal().centre()), lasLevel);
+            }
+        }
+        return map;
+    }
+
+    private void readDatabase( String dbPath, Map<String, LasCell> cells, Map<String, List<LasLevel>> levels ) throws Exception {
+        try (ASpatialDb db = EDb.H2GIS.getSpatialDb()) {
+            db.open(dbPath);
+            List<LasSource> sources = LasSourcesTable.getLasSources(db);
+            assertEquals(2, sources.size());
+            for( LasSource source : sources ) {
+                String name = source.name;
+                for( LasCell cell : LasCellsTable.getLasCellsBySource(db, source.id, true, true, true, true, false) ) {
+                    cells.put(name + "_" + key(cell.polygon.getEnvelopeInternal().centre()), cell);
+                }
+                for( int level = 1; level <= LEVELS; level++ ) {
+                    List<LasLevel> sourceLevels = new ArrayList<>();
+                    for( LasLevel lasLevel : LasLevelsTable.getLasLevels(db, level, (Envelope) null) ) {
+                        if (lasLevel.sourceId == source.id) {
+                            sourceLevels.add(lasLevel);
+                        }
+                    }
+                    levels.put(name + "_" + level, sourceLevels);
+                }
+            }
+        }
+    }
+
+    private static String key( Coordinate center ) {
+        return Math.round(center.x * 100) + "_" + Math.round(center.y * 100);
+    }
+
+    private void ingest( File lasFolder, String dbPath, int threads, int maxPointsInMemory ) throws Exception {
+        DatabaseLasWriter writer = new DatabaseLasWriter();
+        writer.pm = pm;
+        writer.inFolder = lasFolder.getAbsolutePath();
+        writer.inDatabasePath = dbPath;
+        writer.pDbType = EDb.H2GIS.name();
+        writer.pCode = "EPSG:32632";
+        writer.pCellsize = 3;
+        writer.pLevels = LEVELS;
+        writer.pFactor = 2;
+        writer.pThreads = threads;
+        writer.doVerbose = false;
+        writer.maxPointsInMemory = maxPointsInMemory;
+        writer.process();
+    }
+
+    /**
+     * Writes a 60x36 meters las file with a point every half meter.
+     */
+    private void writeLas( File lasFile, double xOffset, double zBase, int intensityBase ) throws Exception {
+        double west = WEST + xOffset;
+        try (LasWriterBuffered writer = new LasWriterBuffered(lasFile, null)) {
+            writer.setPointFormat(1);
+            writer.setBounds(west, west + 60.0, SOUTH, SOUTH + 36.0, zBase, zBase + 6.6);
+            writer.open();
+            for( int i = 0; i <= 120; i++ ) {
+                for( int j = 0; j <= 72; j++ ) {
+                    LasRecord record = new LasRecord();
+                    record.x = west + i * 0.5;
+                    record.y = SOUTH + j * 0.5;
+                    record.z = zBase + i * 0.05 + (j % 7) * 0.1;
+                    record.intensity = (short) (intensityBase + (i * 7 + j * 13) % 100);
+                    record.returnNumber = 1;
+                    record.numberOfReturns = 1;
+                    record.classification = 2;
+                    record.gpsTime = 1000.0 + i * 73 + j;
+                    writer.addPoint(record);
+                }
+            }
+        }
+    }
+
+}
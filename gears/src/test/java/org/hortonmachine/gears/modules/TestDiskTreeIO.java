@@ -2,17 +2,26 @@ package org.hortonmachine.gears.modules;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.hortonmachine.gears.io.disktree.DiskTreeReader;
+import org.hortonmachine.gears.io.disktree.DiskTreeWriter;
 import org.hortonmachine.gears.io.disktree.IDiskTree;
 import org.hortonmachine.gears.utils.HMTestCase;
 
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.index.quadtree.Quadtree;
+import com.vividsolutions.jts.index.strtree.STRtree;
 import com.vividsolutions.jts.io.WKTReader;
 /**
  * Test {@link IDiskTree} reader and writer.
@@ -151,6 +160,143 @@ public class TestDiskTreeIO extends HMTestCase {
 
     }
 
+    public void testDiskTreeV2() throws Exception {
+        WKTReader r = new WKTReader();
+        Geometry pol = r.read("POLYGON ((210 350, 230 310, 290 350, 290 350, 210 350))");
+        pol.setUserData(1);
+        Geometry line = r.read("LINESTRING (50 380, 90 210, 180 160, 240 40, 240 40)");
+        line.setUserData(2);
+        Geometry point = r.read("POINT (130 120 10)");
+        point.setUserData(3);
+        Geometry empty = r.read("POINT EMPTY");
+
+        File file = File.createTempFile("hm_disktree", ".bin");
+        try {
+            DiskTreeWriter writer = new DiskTreeWriter(file.getAbsolutePath());
+            writer.writeGeometries(new Geometry[]{pol, line, point, empty});
+
+            try (DiskTreeReader reader = new DiskTreeReader(file.getAbsolutePath())) {
+                assertEquals(IDiskTree.VERSION, reader.getVersion());
+
+                List<Geometry> geometries = reader.readIntersectingGeometries(pol.getEnvelopeInternal());
+                assertEquals(2, geometries.size());
+                for( Geometry geometry : geometries ) {
+                    if (geometry.getUserData().equals("1")) {
+                        assertTrue(geometry.equalsExact(pol));
+                    } else {
+                        assertEquals("2", geometry.getUserData());
+                        assertTrue(geometry.equalsExact(line));
+                    }
+                }
+
+                // the point is also in the envelope of the line
+                geometries = reader.readIntersectingGeometries(new Envelope(120, 140, 110, 130));
+                assertEquals(2, geometries.size());
+                Geometry readPoint = geometries.get(0).getUserData().equals("3") ? geometries.get(0) : geometries.get(1);
+                assertEquals("3", readPoint.getUserData());
+                assertEquals(10.0, readPoint.getCoordinate().z, DELTA);
+
+                STRtree index = reader.readIndex();
+                assertEquals(3, index.size());
+                List< ? > positions = index.query(line.getEnvelopeInternal());
+                for( Object object : positions ) {
+                    long[] positionAndSize = (long[]) object;
+                    Geometry geometry = reader.pickGeometry(positionAndSize[0], positionAndSize[1]);
+                    assertNotNull(geometry);
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testDiskTreeV1() throws Exception {
+        // written by the serialized STRtree writer of version 1, with jts 1.14
+        URL url = this.getClass().getClassLoader().getResource("disktree_v1.bin");
+        WKTReader r = new WKTReader();
+        Geometry pol = r.read("POLYGON ((210 350, 230 310, 290 350, 290 350, 210 350))");
+        Geometry line = r.read("LINESTRING (50 380, 90 210, 180 160, 240 40, 240 40)");
+        Geometry point = r.read("POINT (130 120)");
+
+        try (DiskTreeReader reader = new DiskTreeReader(new File(url.toURI()).getAbsolutePath())) {
+            assertEquals(1, reader.getVersion());
+
+            List<Geometry> geometries = reader.readIntersectingGeometries(pol.getEnvelopeInternal());
+            assertEquals(2, geometries.size());
+            for( Geometry geometry : geometries ) {
+                if (geometry.getUserData().equals(1)) {
+                    assertTrue(geometry.equalsExact(pol));
+                } else {
+                    assertEquals(2, geometry.getUserData());
+                    assertTrue(geometry.equalsExact(line));
+                }
+            }
+
+            // the point is also in the envelope of the line
+            geometries = reader.readIntersectingGeometries(new Envelope(120, 140, 110, 130));
+            assertEquals(2, geometries.size());
+            Geometry readPoint = geometries.get(0).getUserData().equals(3) ? geometries.get(0) : geometries.get(1);
+            assertEquals(3, readPoint.getUserData());
+            assertTrue(readPoint.equalsExact(point));
+
+            STRtree index = reader.readIndex();
+            assertEquals(3, index.size());
+        }
+    }
+
+    public void testDiskTreeConcurrentReaders() throws Exception {
+        // a grid of squares with their position as user data
+        int size = 40;
+        WKTReader r = new WKTReader();
+        Geometry[] squares = new Geometry[size * size];
+        for( int i = 0; i < size; i++ ) {
+            for( int j = 0; j < size; j++ ) {
+                int x = i * 10;
+                int y = j * 10;
+                Geometry square = r.read("POLYGON ((" + x + " " + y + ", " + (x + 8) + " " + y + ", " + (x + 8) + " "
+                        + (y + 8) + ", " + x + " " + (y + 8) + ", " + x + " " + y + "))");
+                square.setUserData(i + "_" + j);
+                squares[i * size + j] = square;
+            }
+        }
+
+        File file = File.createTempFile("hm_disktree", ".bin");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            new DiskTreeWriter(file.getAbsolutePath()).writeGeometries(squares);
+            try (DiskTreeReader reader = new DiskTreeReader(file.getAbsolutePath())) {
+                List<Future<String>> results = new ArrayList<>();
+                for( int t = 0; t < 16; t++ ) {
+                    final int offset = t;
+                    results.add(executor.submit(() -> {
+                        for( int q = 0; q < 200; q++ ) {
+                            int i = (q * 7 + offset) % size;
+                            int j = (q * 13 + offset * 3) % size;
+                            // the inner part of a square, which doesn't touch the neighbours
+                            Envelope query = new Envelope(i * 10 + 2, i * 10 + 6, j * 10 + 2, j * 10 + 6);
+                            List<Geometry> geometries = reader.readIntersectingGeometries(query);
+                            if (geometries.size() != 1) {
+                                return "Wrong number of geometries at " + i + "_" + j + ": " + geometries.size();
+                            }
+                            Geometry geometry = geometries.get(0);
+                            if (!geometry.getUserData().equals(i + "_" + j)
+                                    || !geometry.equalsExact(squares[i * size + j])) {
+                                return "Wrong geometry at " + i + "_" + j + ": " + geometry.getUserData();
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                for( Future<String> result : results ) {
+                    assertNull(result.get());
+                }
+            }
+        } finally {
+            executor.shutdown();
+            file.delete();
+        }
+    }
+
     private static byte[] serialize( Object obj ) throws IOException {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         ObjectOutputStream out = new ObjectOutputStream(bos);
@@ -0,0 +1,216 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.io.las.ALasDataManager;
+import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.PointBatch;
+import org.hortonmachine.gears.io.las.core.v_1_0.LasWriterBuffered;
+import org.hortonmachine.gears.io.las.index.LasIndexer;
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.utils.CrsUtilities;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.hortonmachine.gears.utils.RegionMap;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.gears.utils.files.FileUtilities;
+import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Test the {@link PointBatch} queries of the {@link ALasDataManager}s against the {@link LasRecord} ones.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestLasDataManager extends HMTestCase {
+
+    private static final double WEST = 660000.0;
+    private static final double SOUTH = 5100000.0;
+    private static final double THRESHOLD = 2.0;
+
+    private CoordinateReferenceSystem crs;
+    private GridCoverage2D dem;
+    private Geometry[] geometries;
+
+    @Override
+    protected void setUp() throws Exception {
+        crs = CrsUtilities.getCrsFromEpsg("EPSG:32632");
+
+        // a dem on the las file, with some holes
+        double[][] demData = new double[8][12];
+        for( int r = 0; r < demData.length; r++ ) {
+            for( int c = 0; c < demData[0].length; c++ ) {
+                demData[r][c] = (r + c) % 7 == 0 ? HMConstants.doubleNovalue : 100.0 + c * 0.3 + r * 0.2;
+            }
+        }
+        RegionMap regionMap = CoverageUtilities.makeRegionParamsMap(SOUTH + 40.0, SOUTH, WEST, WEST + 60.0, 5.0, 5.0, 12, 8);
+        dem = CoverageUtilities.buildCoverage("dem", demData, regionMap, crs, true);
+
+        geometries = new Geometry[]{//
+                GeometryUtilities.gf().createPolygon(new Coordinate[]{//
+                        new Coordinate(WEST + 5.3, SOUTH + 3.1), //
+                        new Coordinate(WEST + 52.7, SOUTH + 8.9), //
+                        new Coordinate(WEST + 30.1, SOUTH + 37.3), //
+                        new Coordinate(WEST + 5.3, SOUTH + 3.1)}), //
+                GeometryUtilities.createPolygonFromEnvelope(new Envelope(WEST + 10.1, WEST + 80.0, SOUTH - 5.0, SOUTH + 21.7))};
+    }
+
+    public void testFileDataManager() throws Exception {
+        File folder = Files.createTempDirectory("hm_test_lasdatamanager").toFile();
+        try {
+            File lasFile = new File(folder, "points.las");
+            writeLas(lasFile);
+            checkBatchesAgainstRecords(lasFile);
+        } finally {
+            FileUtilities.deleteFileOrDir(folder);
+        }
+    }
+
+    public void testFolderIndexDataManager() throws Exception {
+        File folder = Files.createTempDirectory("hm_test_lasdatamanager").toFile();
+        try {
+            writeLas(new File(folder, "points.las"));
+            LasIndexer indexer = new LasIndexer();
+            indexer.pm = pm;
+            indexer.inFolder = folder.getAbsolutePath();
+            indexer.pCode = "EPSG:32632";
+            indexer.pCellsize = 4;
+            indexer.process();
+            checkBatchesAgainstRecords(new File(folder, LasIndexer.INDEX_LASFOLDER));
+        } finally {
+            FileUtilities.deleteFileOrDir(folder);
+        }
+    }
+
+    public void testRanges() throws Exception {
+        File folder = Files.createTempDirectory("hm_test_lasdatamanager").toFile();
+        try {
+            File lasFile = new File(folder, "points.las");
+            writeLas(lasFile);
+            try (ALasDataManager dataManager = ALasDataManager.getDataManager(lasFile, dem, -100.0, crs)) {
+                dataManager.open();
+                List<LasRecord> records = dataManager.getPointsInGeometry(geometries[0], false);
+                PointBatch batch = new PointBatch();
+                for( LasRecord record : records ) {
+                    batch.add(record);
+                }
+
+                assertSamePoints(ALasDataManager.getPointsInVerticalRange(records, 102.0, 105.5, false),
+                        ALasDataManager.getPointsInVerticalRange(batch, 102.0, 105.5, false));
+                assertSamePoints(ALasDataManager.getPointsInVerticalRange(records, 1.0, 4.0, true),
+                        ALasDataManager.getPointsInVerticalRange(batch, 1.0, 4.0, true));
+                assertSamePoints(ALasDataManager.getPointsInHeightRange(records, -1.0, 3.0),
+                        ALasDataManager.getPointsInHeightRange(batch, -1.0, 3.0));
+            }
+        } finally {
+            FileUtilities.deleteFileOrDir(folder);
+        }
+    }
+
+    /**
+     * Runs every query on a fresh data manager with the record and batch path, since 
+     * the file data manager caches the points of the first record query.
+     */
+    private void checkBatchesAgainstRecords( File dataFile ) throws Exception {
+        for( Geometry geometry : geometries ) {
+            for( boolean doOnlyEnvelope : new boolean[]{false, true} ) {
+                for( boolean useDem : new boolean[]{false, true} ) {
+                    for( boolean useConstraints : new boolean[]{false, true} ) {
+                        List<LasRecord> records;
+                        try (ALasDataManager dataManager = createDataManager(dataFile, useDem, useConstraints)) {
+                            records = dataManager.getPointsInGeometry(geometry, doOnlyEnvelope);
+                        }
+                        PointBatch batch;
+                        try (ALasDataManager dataManager = createDataManager(dataFile, useDem, useConstraints)) {
+                            batch = dataManager.getPointBatchInGeometry(geometry, doOnlyEnvelope);
+                        }
+                        assertTrue(records.size() > 0);
+                        assertSamePoints(records, batch);
+                    }
+                }
+            }
+        }
+    }
+
+    private ALasDataManager createDataManager( File dataFile, boolean useDem, boolean useConstraints ) throws Exception {
+        ALasDataManager dataManager = ALasDataManager.getDataManager(dataFile, useDem ? dem : null, THRESHOLD, crs);
+        if (useConstraints) {
+            dataManager.setImpulsesConstraint(new double[]{1, 2});
+            dataManager.setClassesConstraint(new double[]{2, 3, 5});
+            dataManager.setIntensityConstraint(new double[]{100, 800});
+        }
+        dataManager.open();
+        return dataManager;
+    }
+
+    private void assertSamePoints( List<LasRecord> records, PointBatch batch ) {
+        assertEquals(records.size(), batch.size());
+        for( int i = 0; i < records.size(); i++ ) {
+            LasRecord expected = records.get(i);
+            LasRecord record = batch.toRecord(i, null);
+            assertEquals(expected.x, record.x, DELTA);
+            assertEquals(expected.y, record.y, DELTA);
+            assertEquals(expected.z, record.z, DELTA);
+            assertEquals(expected.intensity, record.intensity);
+            assertEquals(expected.returnNumber, record.returnNumber);
+            assertEquals(expected.classification, record.classification);
+            if (Double.isNaN(expected.groundElevation)) {
+                assertTrue(Double.isNaN(record.groundElevation));
+            } else {
+                assertEquals(expected.groundElevation, record.groundElevation, DELTA);
+            }
+        }
+    }
+
+    /**
+     * Writes a 60x40 meters las file with a point every half meter.
+     */
+    private void writeLas( File lasFile ) throws Exception {
+        try (LasWriterBuffered writer = new LasWriterBuffered(lasFile, crs)) {
+            writer.setPointFormat(1);
+            writer.setBounds(WEST, WEST + 60.0, SOUTH, SOUTH + 40.0, 100.0, 110.0);
+            writer.open();
+            int index = 0;
+            for( int i = 0; i <= 120; i++ ) {
+                for( int j = 0; j <= 80; j++ ) {
+                    LasRecord record = new LasRecord();
+                    record.x = WEST + i * 0.5;
+                    record.y = SOUTH + j * 0.5;
+                    record.z = 100.0 + (index * 37 % 1000) * 0.01;
+                    record.intensity = (short) (index * 13 % 1000);
+                    record.returnNumber = (short) (1 + index % 3);
+                    record.numberOfReturns = 3;
+                    record.classification = (byte) (1 + index % 5);
+                    record.gpsTime = 1000.0 + index * 0.5;
+                    writer.addPoint(record);
+                    index++;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.hortonmachine.gears.io.las.ALasDataManager;
+import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.PointBatch;
+import org.hortonmachine.gears.io.las.core.v_1_0.LasWriterBuffered;
+import org.hortonmachine.gears.io.las.index.LasIndexer;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.hortonmachine.gears.utils.files.FileUtilities;
+import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Test the las folder index written by {@link LasIndexer} and queried through the {@link ALasDataManager}.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestLasFolderIndex extends HMTestCase {
+
+    private static final double WEST = 660000.0;
+    private static final double SOUTH = 5100000.0;
+    private static final double[] OFFSETS = {0.0, 50.0, 100.0};
+
+    public void testIndexedQueries() throws Exception {
+        File folder = Files.createTempDirectory("hm_test_lasfolderindex").toFile();
+        try {
+            File indexFile = createIndexedFolder(folder);
+            Envelope[] envelopes = getQueryEnvelopes();
+
+            try (ALasDataManager dataManager = ALasDataManager.getDataManager(indexFile, null, 0, null)) {
+                dataManager.open();
+                assertEquals(OFFSETS.length, dataManager.getEnvelopeList().size());
+                Envelope overall = dataManager.getOverallEnvelope();
+                assertEquals(WEST, overall.getMinX(), DELTA);
+                assertEquals(WEST + 160.0, overall.getMaxX(), DELTA);
+                assertEquals(SOUTH, overall.getMinY(), DELTA);
+                assertEquals(SOUTH + 40.0, overall.getMaxY(), DELTA);
+
+                for( Envelope envelope : envelopes ) {
+                    Geometry geometry = GeometryUtilities.createPolygonFromEnvelope(envelope);
+                    int expected = countPoints(envelope);
+                    List<LasRecord> points = dataManager.getPointsInGeometry(geometry, true);
+                    assertEquals(expected, points.size());
+                    for( LasRecord point : points ) {
+                        assertTrue(envelope.contains(point.x, point.y));
+                    }
+                    PointBatch batch = dataManager.getPointBatchInGeometry(geometry, true);
+                    assertEquals(expected, batch.size());
+                }
+            }
+        } finally {
+            FileUtilities.deleteFileOrDir(folder);
+        }
+    }
+
+    /**
+     * Several threads query a fresh data manager at the same time, so that the readers 
+     * of the las files are opened concurrently.
+     */
+    public void testConcurrentQueries() throws Exception {
+        File folder = Files.createTempDirectory("hm_test_lasfolderindex").toFile();
+        try {
+            File indexFile = createIndexedFolder(folder);
+            Envelope[] envelopes = getQueryEnvelopes();
+            int threads = 8;
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                for( int round = 0; round < 5; round++ ) {
+                    try (ALasDataManager dataManager = ALasDataManager.getDataManager(indexFile, null, 0, null)) {
+                        dataManager.open();
+                        CountDownLatch start = new CountDownLatch(1);
+                        List<Future<int[]>> futures = new ArrayList<>();
+                        for( int t = 0; t < threads; t++ ) {
+                            futures.add(executor.submit(new Callable<int[]>(){
+                                public int[] call() throws Exception {
+                                    start.await();
+                                    int[] counts = new int[envelopes.length];
+                                    for( int i = 0; i < envelopes.length; i++ ) {
+                                        Geometry geometry = GeometryUtilities.createPolygonFromEnvelope(envelopes[i]);
+                                        counts[i] = dataManager.getPointBatchInGeometry(geometry, true).size();
+                                    }
+                                    return counts;
+                                }
+                            }));
+                        }
+                        start.countDown();
+                        for( Future<int[]> future : futures ) {
+                            int[] counts = future.get();
+                            for( int i = 0; i < envelopes.length; i++ ) {
+                                assertEquals(countPoints(envelopes[i]), counts[i]);
+                            }
+                        }
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        } finally {
+            FileUtilities.deleteFileOrDir(folder);
+        }
+    }
+
+    private File createIndexedFolder( File folder ) throws Exception {
+        for( int i = 0; i < OFFSETS.length; i++ ) {
+            writeLas(new File(folder, "tile" + i + ".las"), OFFSETS[i]);
+        }
+
+        LasIndexer indexer = new LasIndexer();
+        indexer.pm = pm;
+        indexer.inFolder = folder.getAbsolutePath();
+        indexer.pCode = "EPSG:32632";
+        indexer.pCellsize = 5;
+        indexer.pThreads = 2;
+        indexer.process();
+
+        File indexFile = new File(folder, LasIndexer.INDEX_LASFOLDER);
+        assertTrue(indexFile.exists());
+        for( int i = 0; i < OFFSETS.length; i++ ) {
+            assertTrue(new File(folder, "tile" + i + "_indexed.lasfix").exists());
+        }
+        return indexFile;
+    }
+
+    /**
+     * Envelopes inside one file, across two overlapping files, across all of them and outside of them.
+     */
+    private Envelope[] getQueryEnvelopes() {
+        return new Envelope[]{//
+                new Envelope(WEST + 3.3, WEST + 17.7, SOUTH + 2.1, SOUTH + 12.9), //
+                new Envelope(WEST + 41.1, WEST + 63.9, SOUTH + 10.2, SOUTH + 30.3), //
+                new Envelope(WEST - 10.0, WEST + 170.0, SOUTH + 19.9, SOUTH + 20.1), //
+                new Envelope(WEST + 200.0, WEST + 210.0, SOUTH, SOUTH + 10.0)};
+    }
+
+    /**
+     * Counts the points of all the written files that fall in the envelope.
+     */
+    private int countPoints( Envelope envelope ) {
+        int count = 0;
+        for( double offset : OFFSETS ) {
+            for( int i = 0; i <= 120; i++ ) {
+                for( int j = 0; j <= 80; j++ ) {
+                    if (envelope.contains(WEST + offset + i * 0.5, SOUTH + j * 0.5)) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes a 60x40 meters las file with a point every half meter.
+     */
+    private void writeLas( File lasFile, double xOffset ) throws Exception {
+        double west = WEST + xOffset;
+        try (LasWriterBuffered writer = new LasWriterBuffered(lasFile, null)) {
+            writer.setPointFormat(1);
+            writer.setBounds(west, west + 60.0, SOUTH, SOUTH + 40.0, 100.0, 110.0);
+            writer.open();
+            for( int i = 0; i <= 120; i++ ) {
+                for( int j = 0; j <= 80; j++ ) {
+                    LasRecord record = new LasRecord();
+                    record.x = west + i * 0.5;
+                    record.y = SOUTH + j * 0.5;
+                    record.z = 100.0 + (i % 10);
+                    record.intensity = (short) ((i * 7 + j * 13) % 100);
+                    record.returnNumber = 1;
+                    record.numberOfReturns = 1;
+                    record.classification = 2;
+                    record.gpsTime = 1000.0 + i * 81 + j;
+                    writer.addPoint(record);
+                }
+            }
+        }
+    }
+
+}
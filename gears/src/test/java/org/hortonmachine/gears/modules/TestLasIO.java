@@ -34,10 +34,16 @@ import org.hortonmachine.gears.io.las.core.liblas.LiblasWrapper;
 import org.hortonmachine.gears.io.las.core.liblas.LiblasWriter;
 import org.hortonmachine.gears.io.las.core.v_1_0.LasReaderBuffered;
 import org.hortonmachine.gears.io.las.core.v_1_0.LasReaderEachPoint;
+import org.hortonmachine.gears.io.las.core.v_1_0.LasReaderMapped;
 import org.hortonmachine.gears.io.las.core.v_1_0.LasWriterBuffered;
 import org.hortonmachine.gears.io.las.core.v_1_0.LasWriterEachPoint;
+import org.hortonmachine.gears.io.las.index.PackedRTree;
+import org.hortonmachine.gears.io.las.index.PackedRTreeWriter;
 import org.hortonmachine.gears.io.las.utils.LasUtils;
 import org.hortonmachine.gears.utils.HMTestCase;
+
+import com.vividsolutions.jts.geom.Envelope;
+
 @SuppressWarnings("nls")
 public class TestLasIO extends HMTestCase {
 
@@ -120,6 +126,96 @@ public class TestLasIO extends HMTestCase {
 
     }
 
+    public void testLasMappedReader() throws Exception {
+        String[] names = {"las/1.0_0.las", "las/1.0_1.las", "las/1.1_0.las", "las/1.1_1.las", "las/1.2_0.las", "las/1.2_1.las",
+                "las/1.2_2.las", "las/1.2_3.las", "las/1.2-with-color.las"};
+        for( String name : names ) {
+            File lasFile = fileFromName(name);
+            try (LasReaderBuffered lasReaderBuffered = new LasReaderBuffered(lasFile, null);
+                    LasReaderMapped lasReaderMapped = new LasReaderMapped(lasFile, null);) {
+                lasReaderBuffered.open();
+                lasReaderMapped.open();
+                checkHeader(lasReaderBuffered.getHeader(), lasReaderMapped.getHeader());
+
+                int recordsCount = (int) lasReaderMapped.getRecordsCount();
+                double[] xs = new double[recordsCount];
+                double[] ys = new double[recordsCount];
+                double[] zs = new double[recordsCount];
+                short[] intensities = new short[recordsCount];
+                byte[] classifications = new byte[recordsCount];
+                assertEquals(recordsCount, lasReaderMapped.readPoints(0, recordsCount, xs, ys, zs, intensities, classifications));
+
+                int count = 0;
+                while( lasReaderBuffered.hasNextPoint() ) {
+                    LasRecord lasBuf = lasReaderBuffered.getNextPoint();
+                    assertTrue(lasReaderMapped.nextPoint());
+                    assertEquals(lasBuf.x, lasReaderMapped.getX(), DELTA);
+                    assertEquals(lasBuf.y, lasReaderMapped.getY(), DELTA);
+                    assertEquals(lasBuf.z, lasReaderMapped.getZ(), DELTA);
+                    assertEquals(lasBuf.intensity, lasReaderMapped.getIntensity());
+                    assertEquals(lasBuf.classification, lasReaderMapped.getClassification());
+                    assertEquals(lasBuf.returnNumber, lasReaderMapped.getReturnNumber());
+                    assertEquals(lasBuf.numberOfReturns, lasReaderMapped.getNumberOfReturns());
+
+                    assertEquals(lasBuf.x, xs[count], DELTA);
+                    assertEquals(lasBuf.y, ys[count], DELTA);
+                    assertEquals(lasBuf.z, zs[count], DELTA);
+                    assertEquals(lasBuf.intensity, intensities[count]);
+                    assertEquals(lasBuf.classification, classifications[count]);
+                    count++;
+                }
+                assertEquals(recordsCount, count);
+                assertFalse(lasReaderMapped.nextPoint());
+
+                LasRecord lasBuf = lasReaderBuffered.getPointAt(recordsCount - 1);
+                LasRecord lasMapped = lasReaderMapped.getPointAt(recordsCount - 1);
+                assertTrue(LasUtils.lasRecordEqual(lasBuf, lasMapped));
+            }
+        }
+    }
+
+    public void testPackedRTree() throws Exception {
+        File indexFile = File.createTempFile("hm_test_packed_rtree", ".lasfix");
+        try {
+            int cols = 37;
+            int rows = 23;
+            PackedRTreeWriter writer = new PackedRTreeWriter(2, 4);
+            for( int c = 0; c < cols; c++ ) {
+                for( int r = 0; r < rows; r++ ) {
+                    Envelope env = new Envelope(c, c + 1, r, r + 1);
+                    writer.insert(env, "cell_" + c + "_" + r, new double[]{c, r});
+                }
+            }
+            writer.write(indexFile);
+
+            PackedRTree tree = PackedRTree.open(indexFile);
+            assertEquals(cols * rows, tree.size());
+            assertEquals(2, tree.getValuesCount());
+            assertTrue(tree.hasNames());
+            assertEquals(new Envelope(0, cols, 0, rows), tree.getBounds());
+
+            Envelope query = new Envelope(10.5, 14.5, 3.2, 7.8);
+            int[] items = tree.query(query);
+            assertEquals(5 * 5, items.length);
+            for( int i = 0; i < items.length; i++ ) {
+                if (i > 0) {
+                    assertTrue(items[i - 1] < items[i]);
+                }
+                Envelope bounds = tree.getBounds(items[i]);
+                assertTrue(bounds.intersects(query));
+                double[] values = tree.getValues(items[i]);
+                assertEquals(bounds.getMinX(), values[0], DELTA);
+                assertEquals(bounds.getMinY(), values[1], DELTA);
+                assertEquals("cell_" + (int) values[0] + "_" + (int) values[1], tree.getName(items[i]));
+            }
+
+            assertEquals(0, tree.query(new Envelope(100, 110, 100, 110)).length);
+            assertEquals(cols * rows, tree.query(new Envelope(-1, 100, -1, 100)).length);
+        } finally {
+            indexFile.delete();
+        }
+    }
+
     public void testLazReader() throws Exception {
         if (doNative) {
             String name = "las/1.2-with-color.laz";
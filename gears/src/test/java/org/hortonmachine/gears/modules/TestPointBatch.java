@@ -0,0 +1,254 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hortonmachine.gears.io.las.core.ALasReader;
+import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.PointBatch;
+import org.hortonmachine.gears.io.las.core.v_1_0.LasReaderBuffered;
+import org.hortonmachine.gears.io.las.core.v_1_0.LasReaderMapped;
+import org.hortonmachine.gears.io.las.core.v_1_0.LasWriterBuffered;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.hortonmachine.gears.utils.files.FileUtilities;
+
+/**
+ * Test {@link PointBatch}.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestPointBatch extends HMTestCase {
+
+    private static final int POINTS = 1000;
+
+    public void testRetainAndToRecord() throws Exception {
+        // a small capacity, so that the batch has to grow
+        PointBatch batch = new PointBatch(4);
+        List<LasRecord> records = new ArrayList<LasRecord>();
+        for( int i = 0; i < 10; i++ ) {
+            LasRecord record = createRecord(i);
+            records.add(record);
+            assertEquals(i, batch.add(record));
+        }
+        assertEquals(10, batch.size());
+        assertTrue(batch.capacity() >= 10);
+        for( int i = 0; i < 10; i++ ) {
+            assertRecordEquals(records.get(i), batch.toRecord(i, null));
+        }
+
+        int index = batch.add(5.0, 6.0, 7.0);
+        LasRecord defaults = new LasRecord();
+        defaults.x = 5.0;
+        defaults.y = 6.0;
+        defaults.z = 7.0;
+        assertRecordEquals(defaults, batch.toRecord(index, null));
+        records.add(defaults);
+
+        // keep the odd points, in their order
+        boolean[] keep = new boolean[batch.size()];
+        for( int i = 0; i < keep.length; i++ ) {
+            keep[i] = i % 2 == 1;
+        }
+        assertEquals(5, batch.retain(keep));
+        assertEquals(5, batch.size());
+        LasRecord reused = new LasRecord();
+        for( int i = 0; i < batch.size(); i++ ) {
+            assertSame(reused, batch.toRecord(i, reused));
+            assertRecordEquals(records.get(2 * i + 1), reused);
+        }
+
+        // the range is inclusive
+        PointBatch inRange = batch.getInRange(batch.z, records.get(3).z, records.get(7).z);
+        assertEquals(3, inRange.size());
+        for( int i = 0; i < inRange.size(); i++ ) {
+            assertRecordEquals(records.get(2 * i + 3), inRange.toRecord(i, null));
+        }
+
+        batch.clear();
+        assertEquals(0, batch.size());
+        assertEquals(0, batch.retain(keep));
+    }
+
+    public void testColumnarDecode() throws Exception {
+        File folder = Files.createTempDirectory("hm_test_pointbatch").toFile();
+        try {
+            for( int pointFormat = 0; pointFormat <= 3; pointFormat++ ) {
+                File lasFile = new File(folder, "points_" + pointFormat + ".las");
+                writeLas(lasFile, pointFormat);
+
+                List<LasRecord> expected = new ArrayList<LasRecord>();
+                try (ALasReader reader = new LasReaderBuffered(lasFile, null)) {
+                    reader.open();
+                    while( reader.hasNextPoint() ) {
+                        expected.add(reader.getNextPoint());
+                    }
+                }
+                assertEquals(POINTS, expected.size());
+
+                // a buffer that does not hold all the points and a batch size that is not a divisor of it
+                try (ALasReader reader = new LasReaderBuffered(lasFile, 64, null)) {
+                    reader.open();
+                    checkSequential(reader, expected);
+                }
+                try (ALasReader reader = new LasReaderBuffered(lasFile, null)) {
+                    reader.open();
+                    checkPositional(reader, expected);
+                }
+                try (ALasReader reader = new LasReaderMapped(lasFile, null)) {
+                    reader.open();
+                    checkSequential(reader, expected);
+                }
+                try (ALasReader reader = new LasReaderMapped(lasFile, null)) {
+                    reader.open();
+                    checkPositional(reader, expected);
+                }
+            }
+        } finally {
+            FileUtilities.deleteFileOrDir(folder);
+        }
+    }
+
+    /**
+     * A range bigger than the read buffer of the buffered reader, which is read in chunks.
+     */
+    public void testBigPositionalRange() throws Exception {
+        File folder = Files.createTempDirectory("hm_test_pointbatch").toFile();
+        try {
+            int points = 150000;
+            File lasFile = new File(folder, "points.las");
+            try (LasWriterBuffered writer = new LasWriterBuffered(lasFile, null)) {
+                writer.setPointFormat(1);
+                writer.setBounds(660000.0, 660100.0, 5100000.0, 5100400.0, 100.0, 200.0);
+                writer.open();
+                for( int i = 0; i < points; i++ ) {
+                    LasRecord record = createRecord(i % POINTS);
+                    record.y = 5100000.0 + i / 400;
+                    writer.addPoint(record);
+                }
+            }
+
+            try (ALasReader sequentialReader = new LasReaderBuffered(lasFile, null);
+                    ALasReader reader = new LasReaderBuffered(lasFile, null)) {
+                sequentialReader.open();
+                reader.open();
+                PointBatch batch = new PointBatch();
+                assertEquals(points - 7, reader.readPoints(7, points, batch));
+                assertEquals(points - 7, batch.size());
+                for( int i = 0; i < points; i++ ) {
+                    LasRecord expected = sequentialReader.getNextPoint();
+                    if (i >= 7) {
+                        assertRecordEquals(expected, batch.toRecord(i - 7, null));
+                    }
+                }
+            }
+        } finally {
+            FileUtilities.deleteFileOrDir(folder);
+        }
+    }
+
+    private void checkSequential( ALasReader reader, List<LasRecord> expected ) throws Exception {
+        PointBatch batch = new PointBatch(16);
+        int read;
+        int count = 0;
+        while( (read = reader.readPoints(batch, 37)) > 0 ) {
+            assertTrue(read <= 37);
+            assertEquals(read, batch.size());
+            for( int i = 0; i < read; i++ ) {
+                assertRecordEquals(expected.get(count + i), batch.toRecord(i, null));
+            }
+            count += read;
+            batch.clear();
+        }
+        assertEquals(expected.size(), count);
+    }
+
+    private void checkPositional( ALasReader reader, List<LasRecord> expected ) throws Exception {
+        PointBatch batch = new PointBatch(16);
+        // the points are appended to the batch
+        batch.add(-1.0, -1.0, -1.0);
+        assertEquals(100, reader.readPoints(250, 100, batch));
+        assertEquals(101, batch.size());
+        for( int i = 0; i < 100; i++ ) {
+            assertRecordEquals(expected.get(250 + i), batch.toRecord(i + 1, null));
+        }
+
+        // the range is cut at the end of the file
+        batch.clear();
+        assertEquals(10, reader.readPoints(POINTS - 10, 100, batch));
+        for( int i = 0; i < 10; i++ ) {
+            assertRecordEquals(expected.get(POINTS - 10 + i), batch.toRecord(i, null));
+        }
+    }
+
+    private void writeLas( File lasFile, int pointFormat ) throws Exception {
+        try (LasWriterBuffered writer = new LasWriterBuffered(lasFile, null)) {
+            writer.setPointFormat(pointFormat);
+            writer.setBounds(660000.0, 660100.0, 5100000.0, 5100100.0, 100.0, 200.0);
+            writer.open();
+            for( int i = 0; i < POINTS; i++ ) {
+                LasRecord record = createRecord(i);
+                if (pointFormat == 0 || pointFormat == 2) {
+                    record.gpsTime = -1;
+                }
+                if (pointFormat < 2) {
+                    record.color = new short[]{100, 100, 100};
+                }
+                writer.addPoint(record);
+            }
+        }
+    }
+
+    private LasRecord createRecord( int i ) {
+        LasRecord record = new LasRecord();
+        record.x = 660000.0 + (i % 100) * 0.25;
+        record.y = 5100000.0 + (i / 100) * 0.5;
+        record.z = 100.0 + (i * 37 % 1000) * 0.01;
+        record.intensity = (short) (i * 13 % 1000);
+        record.returnNumber = (short) (1 + i % 3);
+        record.numberOfReturns = 3;
+        record.classification = (byte) (1 + i % 5);
+        record.gpsTime = 1000.0 + i * 0.5;
+        record.color = new short[]{(short) (i % 256), (short) (i * 3 % 256), (short) (i * 7 % 256)};
+        return record;
+    }
+
+    private void assertRecordEquals( LasRecord expected, LasRecord record ) {
+        assertEquals(expected.x, record.x, DELTA);
+        assertEquals(expected.y, record.y, DELTA);
+        assertEquals(expected.z, record.z, DELTA);
+        assertEquals(expected.intensity, record.intensity);
+        assertEquals(expected.returnNumber, record.returnNumber);
+        assertEquals(expected.numberOfReturns, record.numberOfReturns);
+        assertEquals(expected.classification, record.classification);
+        assertEquals(expected.gpsTime, record.gpsTime, DELTA);
+        assertEquals(expected.color[0], record.color[0]);
+        assertEquals(expected.color[1], record.color[1]);
+        assertEquals(expected.color[2], record.color[2]);
+        if (Double.isNaN(expected.groundElevation)) {
+            assertTrue(Double.isNaN(record.groundElevation));
+        } else {
+            assertEquals(expected.groundElevation, record.groundElevation, DELTA);
+        }
+    }
+
+}
@@ -17,14 +17,18 @@
  */
 package org.hortonmachine.gears.modules;
 
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
 import java.io.File;
 import java.net.URL;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.hortonmachine.gears.io.rasterreader.OmsRasterReader;
+import org.hortonmachine.gears.io.rasterreader.RasterTileCache;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.utils.HMTestCase;
 import org.hortonmachine.gears.utils.HMTestMaps;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 /**
  * Test {@link OmsRasterReader}.
  * 
@@ -186,4 +190,97 @@ public class TestRasterReader extends HMTestCase {
         readCoverage = reader.outRaster;
         checkMatrixEqual(readCoverage.getRenderedImage(), mapData);
     }
+
+    public void testRasterReaderLazy() throws Exception {
+        OmsRasterReader reader = new OmsRasterReader();
+        reader.file = arcPath;
+        reader.fileNovalue = NaN;
+        reader.geodataNovalue = NaN;
+        reader.doLazy = true;
+        reader.process();
+        GridCoverage2D readCoverage = reader.outRaster;
+        RasterTileCache tileCache = OmsRasterReader.getTileCache(readCoverage);
+        assertSame(reader.tileCache, tileCache);
+        assertEquals(0, tileCache.getMisses());
+
+        checkMatrixEqual(readCoverage.getRenderedImage(), HMTestMaps.mapData);
+        assertEquals(1, tileCache.getMisses());
+        checkMatrixEqual(readCoverage.getRenderedImage(), HMTestMaps.mapData);
+        assertEquals(1, tileCache.getMisses());
+        assertTrue(tileCache.getHits() > 0);
+
+        reader = new OmsRasterReader();
+        reader.file = grassPath;
+        reader.doLazy = true;
+        reader.pXres = 60.0;
+        reader.pYres = 60.0;
+        reader.process();
+        readCoverage = reader.outRaster;
+        double[][] mapData = new double[][]{//
+        {800.0, 1000.0, 1200.0, 1300.0, 1450.0}, //
+                {500.0, 700.0, 800.0, 900.0, 1100.0}, //
+                {450.0, 430.0, 600.0, 800.0, 450.0}, //
+                {600.0, 750.0, 780.0, 1000.0, 1250.0} //
+        };
+        checkMatrixEqual(readCoverage.getRenderedImage(), mapData);
+        assertEquals(1, reader.tileCache.getMisses());
+    }
+
+    public void testRasterReaderLazyMultiTile() throws Exception {
+        // at half a meter the 10x8 cells map becomes 600x480 cells, i.e. 3x2 tiles
+        OmsRasterReader reader = new OmsRasterReader();
+        reader.file = grassPath;
+        reader.pXres = 0.5;
+        reader.pYres = 0.5;
+        reader.process();
+        Raster expectedData = reader.outRaster.getRenderedImage().getData();
+        double[][] expected = new double[expectedData.getHeight()][expectedData.getWidth()];
+        for( int r = 0; r < expected.length; r++ ) {
+            for( int c = 0; c < expected[0].length; c++ ) {
+                expected[r][c] = expectedData.getSampleDouble(expectedData.getMinX() + c, expectedData.getMinY() + r, 0);
+            }
+        }
+
+        reader = new OmsRasterReader();
+        reader.file = grassPath;
+        reader.doLazy = true;
+        reader.pTileCacheSize = 2;
+        reader.pXres = 0.5;
+        reader.pYres = 0.5;
+        reader.process();
+        RenderedImage image = reader.outRaster.getRenderedImage();
+        int tilesCount = image.getNumXTiles() * image.getNumYTiles();
+        assertEquals(6, tilesCount);
+        RasterTileCache tileCache = reader.tileCache;
+        assertEquals(0, tileCache.getMisses());
+
+        checkMatrixEqual(image, expected, DELTA);
+        // every tile has been read at least once, but only two are kept
+        assertTrue(tileCache.getMisses() >= tilesCount);
+        assertTrue(tileCache.getEvictions() >= tilesCount - 2);
+        assertEquals(2, tileCache.getSize());
+
+        // tiles read again after their eviction are the same
+        checkMatrixEqual(image, expected, DELTA);
+        assertTrue(tileCache.getMisses() > tilesCount);
+        assertEquals(2, tileCache.getSize());
+    }
+
+    public void testTileCache() throws Exception {
+        RasterTileCache tileCache = new RasterTileCache(2);
+        RasterTileCache.TileLoader loader = ( x, y ) -> CoverageUtilities.createWritableRaster(2, 2, null, null, (double) x);
+        assertEquals(0.0, tileCache.get(0, 0, loader).getSampleDouble(0, 0, 0));
+        assertEquals(1.0, tileCache.get(1, 0, loader).getSampleDouble(0, 0, 0));
+        tileCache.get(0, 0, loader);
+        assertEquals(1, tileCache.getHits());
+        // the least recently used is 1/0
+        tileCache.get(2, 0, loader);
+        assertEquals(1, tileCache.getEvictions());
+        tileCache.get(0, 0, loader);
+        assertEquals(2, tileCache.getHits());
+        tileCache.get(1, 0, loader);
+        assertEquals(4, tileCache.getMisses());
+        assertEquals(2, tileCache.getSize());
+        assertEquals(2.0 / 6.0, tileCache.getHitRatio(), DELTA);
+    }
 }
@@ -81,4 +81,29 @@ public class TestRasterSummary extends HMTestCase {
 
     }
 
+    public void testCoverageSummaryStreaming() throws Exception {
+        double[][] inData = HMTestMaps.mapData;
+        HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs();
+        GridCoverage2D inCoverage = CoverageUtilities.buildCoverage("data", inData, envelopeParams, crs, true);
+
+        OmsRasterSummary summary = new OmsRasterSummary();
+        summary.pm = pm;
+        summary.inRaster = inCoverage;
+        summary.process();
+
+        OmsRasterSummary streamSummary = new OmsRasterSummary();
+        streamSummary.pm = pm;
+        streamSummary.inRaster = inCoverage;
+        streamSummary.doStreaming = true;
+        streamSummary.process();
+
+        assertEquals(summary.outMin, streamSummary.outMin, DELTA);
+        assertEquals(summary.outMax, streamSummary.outMax, DELTA);
+        assertEquals(summary.outMean, streamSummary.outMean, 0.000001);
+        assertEquals(summary.outSdev, streamSummary.outSdev, 0.001);
+        assertEquals(summary.outRange, streamSummary.outRange, DELTA);
+        assertEquals(summary.outSum, streamSummary.outSum, 0.001);
+    }
+
 }
@@ -0,0 +1,176 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules;
+
+import static org.hortonmachine.gears.libs.modules.HMConstants.isNovalue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.libs.modules.Variables;
+import org.hortonmachine.gears.modules.r.interpolation2d.OmsSurfaceInterpolator;
+import org.hortonmachine.gears.modules.r.interpolation2d.core.IDWInterpolator;
+import org.hortonmachine.gears.modules.r.interpolation2d.core.ISurfaceInterpolator;
+import org.hortonmachine.gears.modules.r.interpolation2d.core.TPSInterpolator;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.hortonmachine.gears.utils.HMTestMaps;
+import org.hortonmachine.gears.utils.RegionMap;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Test {@link OmsSurfaceInterpolator} against the envelope query and 
+ * coordinate based interpolation it used before the k-d tree.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestSurfaceInterpolator extends HMTestCase {
+
+    private static final double BUFFER = 65.0;
+
+    public void testIDW() throws Exception {
+        double[][] expected = legacyInterpolation(new LegacyIDWInterpolator(BUFFER));
+        for( int threads : new int[]{1, 4} ) {
+            GridCoverage2D interpolated = interpolate(Variables.IDW, threads);
+            checkMatrixEqual(interpolated.getRenderedImage(), expected, 0.000001);
+        }
+    }
+
+    public void testTPS() throws Exception {
+        double[][] expected = legacyInterpolation(new TPSInterpolator(BUFFER));
+        for( int threads : new int[]{1, 4} ) {
+            GridCoverage2D interpolated = interpolate(Variables.TPS, threads);
+            checkMatrixEqual(interpolated.getRenderedImage(), expected, 0.0001);
+        }
+    }
+
+    public void testDefaultArrayValue() throws Exception {
+        double[] x = {0, 10, 0, 10, 5, 100};
+        double[] y = {0, 0, 10, 10, 4, 100};
+        double[] z = {1, 2, 3, 4, 5, 6};
+        int[] indexes = {4, 0, 3, 1, 2};
+
+        // the legacy interpolator gets the array variant from the interface
+        ISurfaceInterpolator legacy = new LegacyIDWInterpolator(BUFFER);
+        IDWInterpolator idw = new IDWInterpolator(BUFFER);
+        assertEquals(idw.getValue(x, y, z, indexes, indexes.length, 3, 6),
+                legacy.getValue(x, y, z, indexes, indexes.length, 3, 6), 0.000001);
+        assertEquals(idw.getValue(x, y, z, null, 5, 7, 2), legacy.getValue(x, y, z, null, 5, 7, 2), 0.000001);
+    }
+
+    private GridCoverage2D interpolate( String mode, int threads ) throws Exception {
+        OmsSurfaceInterpolator interpolator = new OmsSurfaceInterpolator();
+        interpolator.inGrid = getInGrid();
+        interpolator.pMode = mode;
+        interpolator.pBuffer = BUFFER;
+        interpolator.pMaxThreads = threads;
+        interpolator.pm = pm;
+        interpolator.process();
+        return interpolator.outRaster;
+    }
+
+    private GridCoverage2D getInGrid() {
+        RegionMap envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs();
+        return CoverageUtilities.buildCoverage("elev", HMTestMaps.mapData, envelopeParams, crs, true);
+    }
+
+    /**
+     * The previous implementation: the control points in the square buffer around 
+     * every cell are collected as coordinates and interpolated if at least 4.
+     */
+    private double[][] legacyInterpolation( ISurfaceInterpolator interpolator ) {
+        RegionMap regionMap = HMTestMaps.getEnvelopeparams();
+        int cols = regionMap.getCols();
+        int rows = regionMap.getRows();
+        double west = regionMap.getWest();
+        double north = regionMap.getNorth();
+        double xRes = regionMap.getXres();
+        double yRes = regionMap.getYres();
+
+        List<Coordinate> controlPoints = new ArrayList<Coordinate>();
+        for( int c = 0; c < cols; c++ ) {
+            for( int r = 0; r < rows; r++ ) {
+                double value = HMTestMaps.mapData[r][c];
+                if (!isNovalue(value)) {
+                    controlPoints.add(new Coordinate(west + (c + 0.5) * xRes, north - (r + 0.5) * yRes, value));
+                }
+            }
+        }
+
+        double[][] result = new double[rows][cols];
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                Coordinate current = new Coordinate(west + (c + 0.5) * xRes, north - (r + 0.5) * yRes);
+                List<Coordinate> inBuffer = new ArrayList<Coordinate>();
+                for( Coordinate controlPoint : controlPoints ) {
+                    if (Math.abs(controlPoint.x - current.x) <= BUFFER && Math.abs(controlPoint.y - current.y) <= BUFFER) {
+                        inBuffer.add(controlPoint);
+                    }
+                }
+                if (inBuffer.size() < 4) {
+                    result[r][c] = HMConstants.doubleNovalue;
+                } else {
+                    result[r][c] = interpolator.getValue(inBuffer.toArray(new Coordinate[0]), current);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The IDW as it was before the primitive arrays, which only implements the coordinate variant.
+     */
+    private static class LegacyIDWInterpolator implements ISurfaceInterpolator {
+        private final double buffer;
+
+        public LegacyIDWInterpolator( double buffer ) {
+            this.buffer = buffer;
+        }
+
+        public double getValue( Coordinate[] controlPoints, Coordinate interpolated ) {
+            if (controlPoints.length == 0) {
+                return HMConstants.doubleNovalue;
+            }
+            double sumdValue = 0;
+            double sumweight = 0;
+            for( Coordinate coordinate : controlPoints ) {
+                double distance = coordinate.distance(interpolated);
+                if (distance > buffer) {
+                    continue;
+                }
+                if (distance < 0.00001) {
+                    distance = 0.00001;
+                }
+                double weight = (1 / Math.pow(distance, 2));
+                sumdValue = sumdValue + coordinate.z * weight;
+                sumweight = sumweight + weight;
+            }
+            return sumdValue / sumweight;
+        }
+
+        public double getBuffer() {
+            return buffer;
+        }
+    }
+
+}
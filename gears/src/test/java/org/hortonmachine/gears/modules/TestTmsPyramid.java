@@ -0,0 +1,189 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.gears.modules;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.hortonmachine.gears.modules.r.tmsgenerator.GlobalMercator;
+import org.hortonmachine.gears.modules.r.tmsgenerator.MBTilesHelper;
+import org.hortonmachine.gears.modules.r.tmsgenerator.TilePyramidHelper;
+import org.hortonmachine.gears.modules.r.tmsgenerator.TmsSourcesState;
+import org.hortonmachine.gears.utils.CrsUtilities;
+import org.hortonmachine.gears.utils.HMTestCase;
+import org.hortonmachine.gears.utils.files.FileUtilities;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Test the pyramid and the incremental state of the tms generator.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestTmsPyramid extends HMTestCase {
+
+    private static final int SIZE = MBTilesHelper.TILESIZE;
+    private static final int HALF = SIZE / 2;
+
+    public void testChildren() throws Exception {
+        GlobalMercator mercator = new GlobalMercator();
+        int x = 5;
+        int y = 11;
+        int zoom = 6;
+        double[] parent = mercator.TileBounds(x, y, zoom);
+        int[][] children = TilePyramidHelper.getChildren(x, y);
+        assertEquals(4, children.length);
+
+        double[] ul = mercator.TileBounds(children[0][0], children[0][1], zoom + 1);
+        double[] ur = mercator.TileBounds(children[1][0], children[1][1], zoom + 1);
+        double[] ll = mercator.TileBounds(children[2][0], children[2][1], zoom + 1);
+        double[] lr = mercator.TileBounds(children[3][0], children[3][1], zoom + 1);
+        double delta = 1E-6;
+        // [minx, miny, maxx, maxy]
+        assertEquals(parent[0], ul[0], delta);
+        assertEquals(parent[3], ul[3], delta);
+        assertEquals(parent[2], ur[2], delta);
+        assertEquals(parent[3], ur[3], delta);
+        assertEquals(parent[0], ll[0], delta);
+        assertEquals(parent[1], ll[1], delta);
+        assertEquals(parent[2], lr[2], delta);
+        assertEquals(parent[1], lr[1], delta);
+        // the children meet in the center of the parent
+        double centerX = (parent[0] + parent[2]) / 2.0;
+        double centerY = (parent[1] + parent[3]) / 2.0;
+        assertEquals(centerX, ul[2], delta);
+        assertEquals(centerY, ul[1], delta);
+        assertEquals(centerX, lr[0], delta);
+        assertEquals(centerY, lr[3], delta);
+    }
+
+    public void testDownsample() throws Exception {
+        int[] colors = {0xFF0000, 0x00FF00, 0x0000FF, 0x808080};
+        BufferedImage[] children = new BufferedImage[4];
+        for( int i = 0; i < children.length; i++ ) {
+            children[i] = filledImage(colors[i]);
+        }
+        BufferedImage parent = TilePyramidHelper.downsample(children, new int[]{255, 255, 255});
+        assertEquals(SIZE, parent.getWidth());
+        assertEquals(SIZE, parent.getHeight());
+        for( int i = 0; i < children.length; i++ ) {
+            int startX = (i % 2) * HALF;
+            int startY = (i / 2) * HALF;
+            assertEquals(colors[i], parent.getRGB(startX, startY) & 0xFFFFFF);
+            assertEquals(colors[i], parent.getRGB(startX + HALF - 1, startY + HALF - 1) & 0xFFFFFF);
+        }
+
+        // every parent pixel is the mean of the 2x2 child pixels
+        BufferedImage checkers = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+        for( int r = 0; r < SIZE; r++ ) {
+            for( int c = 0; c < SIZE; c++ ) {
+                int v = (r + c) % 2 == 0 ? 10 : 21;
+                checkers.setRGB(c, r, v << 16 | v << 8 | v);
+            }
+        }
+        parent = TilePyramidHelper.downsample(new BufferedImage[]{checkers, null, null, null}, new int[]{0, 0, 0});
+        // (10 + 21 + 21 + 10 + 2) / 4 = 16
+        assertEquals(16 << 16 | 16 << 8 | 16, parent.getRGB(0, 0) & 0xFFFFFF);
+        assertEquals(16 << 16 | 16 << 8 | 16, parent.getRGB(HALF - 1, HALF - 1) & 0xFFFFFF);
+        // missing children get the background
+        assertEquals(0, parent.getRGB(HALF, 0) & 0xFFFFFF);
+        assertEquals(0, parent.getRGB(0, HALF) & 0xFFFFFF);
+        assertEquals(0, parent.getRGB(SIZE - 1, SIZE - 1) & 0xFFFFFF);
+
+        assertNull(TilePyramidHelper.downsample(new BufferedImage[4], new int[]{0, 0, 0}));
+    }
+
+    public void testSourcesState() throws Exception {
+        File dir = Files.createTempDirectory("tmsstate").toFile();
+        try {
+            File a = copyResource("dtm_test", dir);
+            File b = copyResource("dtm_test_left", dir);
+            CoordinateReferenceSystem tilesCrs = CrsUtilities.getCrsFromEpsg("EPSG:3857", null);
+            File stateFile = new File(dir, "state.properties");
+            List<String> both = Arrays.asList(a.getAbsolutePath(), b.getAbsolutePath());
+
+            // first run, all has to be generated
+            TmsSourcesState state = new TmsSourcesState(stateFile, tilesCrs, null);
+            assertNull(state.getChangedBounds("settings", both, null));
+            state.save();
+
+            // nothing changed
+            state = new TmsSourcesState(stateFile, tilesCrs, null);
+            Envelope changed = state.getChangedBounds("settings", both, null);
+            assertNotNull(changed);
+            assertTrue(changed.isNull());
+
+            // the settings changed
+            state = new TmsSourcesState(stateFile, tilesCrs, null);
+            assertNull(state.getChangedBounds("other settings", both, null));
+
+            // the tiles of the last run are missing
+            state = new TmsSourcesState(stateFile, tilesCrs, null);
+            state.discard();
+            assertNull(state.getChangedBounds("settings", both, null));
+
+            // a source changed
+            assertTrue(a.setLastModified(a.lastModified() + 10000));
+            state = new TmsSourcesState(stateFile, tilesCrs, null);
+            Envelope changedA = state.getChangedBounds("settings", both, null);
+            assertNotNull(changedA);
+            assertFalse(changedA.isNull());
+            assertTrue(changedA.getWidth() > 0);
+            assertTrue(changedA.getHeight() > 0);
+
+            // a source was removed, its previous bounds change
+            state = new TmsSourcesState(stateFile, tilesCrs, null);
+            Envelope removedA = state.getChangedBounds("settings", Collections.singletonList(b.getAbsolutePath()), null);
+            assertNotNull(removedA);
+            assertEquals(changedA.getMinX(), removedA.getMinX(), 1E-6);
+            assertEquals(changedA.getMinY(), removedA.getMinY(), 1E-6);
+            assertEquals(changedA.getMaxX(), removedA.getMaxX(), 1E-6);
+            assertEquals(changedA.getMaxY(), removedA.getMaxY(), 1E-6);
+        } finally {
+            FileUtilities.deleteFileOrDir(dir);
+        }
+    }
+
+    private static BufferedImage filledImage( int rgb ) {
+        BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = new int[SIZE * SIZE];
+        Arrays.fill(pixels, rgb);
+        image.setRGB(0, 0, SIZE, SIZE, pixels, 0, SIZE);
+        return image;
+    }
+
+    private File copyResource( String name, File dir ) throws Exception {
+        File asc = null;
+        for( String extension : new String[]{".asc", ".prj"} ) {
+            URL url = this.getClass().getClassLoader().getResource(name + extension);
+            File out = new File(dir, name + extension);
+            FileUtilities.copyFile(new File(url.toURI()), out);
+            if (asc == null) {
+                asc = out;
+            }
+        }
+        return asc;
+    }
+
+}
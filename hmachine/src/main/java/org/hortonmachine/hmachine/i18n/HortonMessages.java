@@ -126,6 +126,9 @@ public class HortonMessages {
     public static final String OMSKRIGING_pA_DESCRIPTION = "The range if the models runs with the gaussian variogram.";
     public static final String OMSKRIGING_pS_DESCRIPTION = "The sill if the models runs with the gaussian variogram.";
     public static final String OMSKRIGING_pNug_DESCRIPTION = "Is the nugget if the models runs with the gaussian variogram.";
+    public static final String OMSKRIGING_pMaxNeighbours_DESCRIPTION = "The maximum number of nearest stations used for each point (0 = all the stations).";
+    public static final String OMSKRIGING_pSearchRadius_DESCRIPTION = "The radius in which stations are used for each point (0 = no limit).";
+    public static final String OMSKRIGING_pThreads_DESCRIPTION = "The number of threads to use (default 1).";
     public static final String OMSKRIGING_outGrid_DESCRIPTION = "The interpolated gridded data (for mode 2 and 3.";
     public static final String OMSKRIGING_outData_DESCRIPTION = "The interpolated data (for mode 0 and 1).";
 
@@ -174,6 +177,8 @@ public class HortonMessages {
     public static final String OMSSKYVIEW_AUTHORCONTACTS = "http://www.ing.unitn.it/dica/hp/?user=rigon";
     public static final String OMSSKYVIEW_inElev_DESCRIPTION = "The map of the elevation.";
     public static final String OMSSKYVIEW_outSky_DESCRIPTION = "The map of skyview factor.";
+    public static final String OMSSKYVIEW_pAzimuths_DESCRIPTION = "The number of azimuths of the terrain horizon to average (0 traces the 35 directions of the original method). The horizon gives 1 on flat areas, where the original method gives 35/36, and lower values in steep terrain, where the original method ignores the shadows of slopes facing away from the sun.";
+    public static final String OMSSKYVIEW_pThreads_DESCRIPTION = "The number of threads to use (default 1).";
 
     public static final String OMSSHALSTAB_DESCRIPTION = "A version of the OmsShalstab stability model.";
     public static final String OMSSHALSTAB_DOCUMENTATION = "OmsShalstab.html";
@@ -374,6 +379,8 @@ public class HortonMessages {
     public static final String OMSHILLSHADE_pAzimuth_DESCRIPTION = "The value of the azimuth (default is 360).";
     public static final String OMSHILLSHADE_pElev_DESCRIPTION = "The sun elevation (default is 90).";
     public static final String OMSHILLSHADE_outHill_DESCRIPTION = "The map of hillshade.";
+    public static final String OMSHILLSHADE_doStreaming_DESCRIPTION = "If true, the map is calculated by bands of rows, for maps larger than memory (default is false). The result is the same as the one of the in memory calculation and is kept in a memory mapped temporary file.";
+    public static final String OMSHILLSHADE_pThreads_DESCRIPTION = "The number of threads to use (default 1).";
 
     public static final String OMSEPANETPROJECTFILESGENERATOR_DESCRIPTION = "Generates the base shapefiles for an epanet run.";
     public static final String OMSEPANETPROJECTFILESGENERATOR_DOCUMENTATION = "";
@@ -415,6 +422,7 @@ public class HortonMessages {
     public static final String OMSSLOPE_inFlow_DESCRIPTION = "The map of flowdirection.";
     public static final String OMSSLOPE_doHandleNegativeSlope_DESCRIPTION = "If true, negative slopes will be set to the minimum positive value.";
     public static final String OMSSLOPE_outSlope_DESCRIPTION = "The map of gradient.";
+    public static final String OMSSLOPE_doStreaming_DESCRIPTION = "If true, the map is calculated tile by tile when it is read or written, for maps larger than memory.";
 
     public static final String OMSFAOETPMODEL_DESCRIPTION = "Calculates evapotranspiration.";
     public static final String OMSFAOETPMODEL_DOCUMENTATION = "";
@@ -509,6 +517,8 @@ public class HortonMessages {
     public static final String OMSINSOLATION_tStartDate_DESCRIPTION = "The first day of the simulation.";
     public static final String OMSINSOLATION_tEndDate_DESCRIPTION = "The last day of the simulation.";
     public static final String OMSINSOLATION_outIns_DESCRIPTION = "The map of total insolation.";
+    public static final String OMSINSOLATION_pAzimuths_DESCRIPTION = "The number of azimuths of the terrain horizon used for the shadows (0 traces the shadows of every sun position).";
+    public static final String OMSINSOLATION_pThreads_DESCRIPTION = "The number of threads to use (default 1).";
 
     public static final String OMSMELTONNUMBER_DESCRIPTION = "Melton number calculator";
     public static final String OMSMELTONNUMBER_DOCUMENTATION = "";
@@ -738,8 +748,10 @@ public class HortonMessages {
     public static final String OMSADIGE_pPfafids_DESCRIPTION = "Comma separated list of pfafstetter ids, in which to generate the output";
     public static final String OMSADIGE_fMonpointid_DESCRIPTION = "The field name of the monitoring point's id attribute in the monitoring points data.";
     public static final String OMSADIGE_inNetwork_DESCRIPTION = "The network data.";
+    public static final String OMSADIGE_inAdigeNetwork_DESCRIPTION = "The network topology, to share it between runs (optional, built from the hillslope and network data if missing).";
     public static final String OMSADIGE_inEtp_DESCRIPTION = "The evapotranspiration data.";
     public static final String OMSADIGE_doLog_DESCRIPTION = "Switch to activate additional logging to file.";
+    public static final String OMSADIGE_pThreads_DESCRIPTION = "The number of threads to use (default 1).";
     public static final String OMSADIGE_tTimestep_DESCRIPTION = "The timestep in minutes.";
     public static final String OMSADIGE_tStart_DESCRIPTION = "The start date.";
     public static final String OMSADIGE_tEnd_DESCRIPTION = "The end date.";
@@ -792,6 +804,7 @@ public class HortonMessages {
     public static final String OMSFLOWDIRECTIONS_AUTHORCONTACTS = "http://www.neng.usu.edu/cee/faculty/dtarb/tardem.html#programs, http://www.hydrologis.com, http://www.ing.unitn.it/dica/hp/?user=rigon";
     public static final String OMSFLOWDIRECTIONS_inPit_DESCRIPTION = "The depitted elevation map.";
     public static final String OMSFLOWDIRECTIONS_outFlow_DESCRIPTION = "The map of flowdirections.";
+    public static final String OMSFLOWDIRECTIONS_pThreads_DESCRIPTION = "The number of threads to use (default 1).";
 
     public static final String OMSVARIOGRAM_DESCRIPTION = "Experimental semivariogram algorithm.";
     public static final String OMSVARIOGRAM_DOCUMENTATION = "Experimental semivariogram";
@@ -853,6 +866,7 @@ public class HortonMessages {
     public static final String OMSTCA_AUTHORNAMES = "Antonello Andrea";
     public static final String OMSTCA_AUTHORCONTACTS = "http://www.hydrologis.com";
     public static final String OMSTCA_inFlow_DESCRIPTION = "The map of flowdirections.";
+    public static final String OMSTCA_pThreads_DESCRIPTION = "The number of threads to use (default 1). With more threads the independent subbasins are calculated in parallel.";
     public static final String OMSTCA_outTca_DESCRIPTION = "The map of total contributing areas.";
     public static final String OMSTCA_outLoop_DESCRIPTION = "The vector containing loops, if there are any.";
 
@@ -952,6 +966,8 @@ public class HortonMessages {
     public static final String OMSENERGYINDEXCALCULATOR_pEs_DESCRIPTION = "Number of altimetric bands.";
     public static final String OMSENERGYINDEXCALCULATOR_pEi_DESCRIPTION = "Number of energetic bands.";
     public static final String OMSENERGYINDEXCALCULATOR_pDt_DESCRIPTION = "Aggregation interval of the data [h].";
+    public static final String OMSENERGYINDEXCALCULATOR_pAzimuths_DESCRIPTION = "The number of azimuths of the terrain horizon used for the shadows (0 traces the shadows of every sun position from the convex cells of the curvatures map).";
+    public static final String OMSENERGYINDEXCALCULATOR_pThreads_DESCRIPTION = "The number of threads to use (default 1).";
     public static final String OMSENERGYINDEXCALCULATOR_outAltimetry_DESCRIPTION = "Output list of altimetric bands information.";
     public static final String OMSENERGYINDEXCALCULATOR_outEnergy_DESCRIPTION = "Output list of energetic bands information.";
     public static final String OMSENERGYINDEXCALCULATOR_outArea_DESCRIPTION = "Output list of areas of the energetic and altimetric bands.";
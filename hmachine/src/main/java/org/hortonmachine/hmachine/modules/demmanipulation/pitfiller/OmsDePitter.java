@@ -31,7 +31,9 @@ import java.util.concurrent.atomic.AtomicInteger;
 import javax.media.jai.iterator.WritableRandomIter;
 
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.libs.modules.Direction;
 import org.hortonmachine.gears.libs.modules.GridNode;
+import org.hortonmachine.gears.libs.modules.GridNodeCursor;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.multiprocessing.GridMultiProcessing;
 import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
@@ -62,6 +64,10 @@ public class OmsDePitter extends GridMultiProcessing {
     @In
     public GridCoverage2D inElev;
 
+    @Description(OMSDEPITTER_doPriorityFlood_DESCRIPTION)
+    @In
+    public boolean doPriorityFlood = false;
+
     @Description(OMSDEPITTER_outPit_DESCRIPTION)
     @Out
     public GridCoverage2D outPit = null;
@@ -84,6 +90,7 @@ public class OmsDePitter extends GridMultiProcessing {
     public static final String OMSDEPITTER_AUTHORNAMES = "Andrea Antonello, Silvia Franceschi";
     public static final String OMSDEPITTER_AUTHORCONTACTS = "http://www.hydrologis.com";
     public static final String OMSDEPITTER_inElev_DESCRIPTION = "The map of digital elevation model (DEM).";
+    public static final String OMSDEPITTER_doPriorityFlood_DESCRIPTION = "Use the priority-flood algorithm to fill the pits and give a slope to the flat areas.";
     public static final String OMSDEPITTER_outPit_DESCRIPTION = "The depitted elevation map.";
     public static final String OMSDEPITTER_outPitPoints_DESCRIPTION = "The shapefile of handled pits.";
     public static final String OMSDEPITTER_outFlow_DESCRIPTION = "The map of D8 flowdirections.";
@@ -114,7 +121,21 @@ public class OmsDePitter extends GridMultiProcessing {
         WritableRandomIter pitIter = CoverageUtilities.getWritableRandomIterator(pitRaster);
         try {
 
-            ConcurrentLinkedQueue<GridNode> pitsList = getPitsList(cols, rows, xRes, yRes, pitIter);
+            ConcurrentLinkedQueue<GridNode> pitsList;
+            if (doPriorityFlood) {
+                double[] pitData = pitRaster.getSamples(0, 0, cols, rows, 0, (double[]) null);
+                PriorityFlood priorityFlood = new PriorityFlood(pitData, cols, rows);
+                priorityFlood.setProgressMonitor(pm);
+                priorityFlood.fill(delta);
+                if (pm.isCanceled()) {
+                    return;
+                }
+                pitRaster.setSamples(0, 0, cols, rows, 0, pitData);
+                // nothing left for the iterative pit processing
+                pitsList = new ConcurrentLinkedQueue<>();
+            } else {
+                pitsList = getPitsList(cols, rows, xRes, yRes, pitIter);
+            }
 
             AtomicInteger count = new AtomicInteger();
             // int count = 0;
@@ -218,22 +239,22 @@ public class OmsDePitter extends GridMultiProcessing {
             WritableRaster flowRaster = CoverageUtilities.createWritableRaster(cols, rows, Short.class, null, null);
             WritableRandomIter flowIter = CoverageUtilities.getWritableRandomIterator(flowRaster);
             try {
+                double[] pitData = CoverageUtilities.renderedImage2RowMajorDoubleArray(outPit.getRenderedImage());
                 pm.beginTask("Calculating flowdirections...", rows * cols);
-                processGrid(cols, rows, false, ( c, r ) -> {
+                processGrid(cols, rows, false, () -> new GridNodeCursor(pitData, cols, rows, xRes, yRes), ( cursor, c, r ) -> {
                     if (pm.isCanceled()) {
                         return;
                     }
-                    GridNode node = new GridNode(pitIter, cols, rows, xRes, yRes, c, r);
+                    GridNodeCursor node = cursor.moveTo(c, r);
                     boolean isValid = node.isValid();
                     if (!isValid || node.touchesBound() || node.touchesNovalue()) {
                         flowIter.setSample(c, r, 0, HMConstants.intNovalue);
                     } else {
-                        GridNode nextDown = node.goDownstreamSP();
+                        Direction nextDown = node.getDownstreamDirectionSP();
                         if (nextDown == null) {
                             flowIter.setSample(c, r, 0, HMConstants.intNovalue);
                         } else {
-                            int newFlow = node.getFlow();
-                            flowIter.setSample(c, r, 0, newFlow);
+                            flowIter.setSample(c, r, 0, nextDown.getFlow());
                         }
                     }
                     pm.worked(1);
@@ -21,7 +21,10 @@ import static org.hortonmachine.gears.libs.modules.HMConstants.DEMMANIPULATION;
 import static org.hortonmachine.gears.libs.modules.HMConstants.doubleNovalue;
 import static org.hortonmachine.gears.libs.modules.HMConstants.isNovalue;
 
+import java.awt.Rectangle;
+import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
+import java.io.File;
 import java.util.HashMap;
 
 import javax.media.jai.iterator.RandomIter;
@@ -31,6 +34,7 @@ import org.geotools.coverage.grid.GridCoverage2D;
 import org.hortonmachine.gears.libs.modules.HMModel;
 import org.hortonmachine.gears.libs.modules.ModelsSupporter;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.gears.utils.coverage.IDirectRasterAccess;
 import org.hortonmachine.hmachine.i18n.HortonMessageHandler;
 
 import oms3.annotations.Author;
@@ -56,6 +60,14 @@ public class OmsPitfiller extends HMModel {
     @In
     public GridCoverage2D inElev;
 
+    @Description(OMSPITFILLER_doPriorityFlood_DESCRIPTION)
+    @In
+    public boolean doPriorityFlood = false;
+
+    @Description(OMSPITFILLER_pTileSize_DESCRIPTION)
+    @In
+    public int pTileSize = 0;
+
     @Description(OMSPITFILLER_outPit_DESCRIPTION)
     @Out
     public GridCoverage2D outPit = null;
@@ -70,6 +82,8 @@ public class OmsPitfiller extends HMModel {
     public static final String OMSPITFILLER_AUTHORNAMES = "David Tarboton, Andrea Antonello";
     public static final String OMSPITFILLER_AUTHORCONTACTS = "http://www.neng.usu.edu/cee/faculty/dtarb/tardem.html#programs, http://www.hydrologis.com";
     public static final String OMSPITFILLER_inElev_DESCRIPTION = "The map of digital elevation model (DEM).";
+    public static final String OMSPITFILLER_doPriorityFlood_DESCRIPTION = "Use the priority-flood algorithm instead of the original one.";
+    public static final String OMSPITFILLER_pTileSize_DESCRIPTION = "The size of the tiles to process one at a time with the priority-flood algorithm, for maps larger than memory (0 processes the whole map at once).";
     public static final String OMSPITFILLER_outPit_DESCRIPTION = "The depitted elevation map.";
 
     private HortonMessageHandler msg = HortonMessageHandler.getInstance();
@@ -154,6 +168,11 @@ public class OmsPitfiller extends HMModel {
         xRes = regionMap.get(CoverageUtilities.XRES);
         yRes = regionMap.get(CoverageUtilities.YRES);
 
+        if (doPriorityFlood) {
+            priorityFlood(regionMap);
+            return;
+        }
+
         elevationIter = CoverageUtilities.getRandomIterator(inElev);
 
         // output raster
@@ -198,6 +217,60 @@ public class OmsPitfiller extends HMModel {
         outPit = CoverageUtilities.buildCoverage("pitfiller", pitRaster, regionMap, inElev.getCoordinateReferenceSystem());
     }
 
+    /**
+     * Fills the pits with the {@link PriorityFlood} algorithm or, if a tile size is
+     * given, with its {@link TiledPriorityFlood tiled} version.
+     * 
+     * <p>The tiled version reads the tiles from the elevation image, so that only the 
+     * image tiles that intersect the processed tile are loaded, and writes the filled 
+     * tiles straight into a memory mapped temporary file, through its {@link IDirectRasterAccess}.</p>
+     * 
+     * @param regionMap the region of the elevation map.
+     * @throws Exception
+     */
+    private void priorityFlood( HashMap<String, Double> regionMap ) throws Exception {
+        WritableRaster pitRaster;
+        if (pTileSize > 0) {
+            RenderedImage elevRI = inElev.getRenderedImage();
+            int minX = elevRI.getMinX();
+            int minY = elevRI.getMinY();
+            File pitFile = File.createTempFile("hm_pitfiller_", ".raster");
+            pitFile.deleteOnExit();
+            WritableRaster mappedRaster = CoverageUtilities.createMappedWritableRaster(pitFile, nCols, nRows, null, null);
+            IDirectRasterAccess pitAccess = CoverageUtilities.getDirectAccess(mappedRaster);
+            TiledPriorityFlood tiledFlood = new TiledPriorityFlood(new TiledPriorityFlood.ITileAccess(){
+                @Override
+                public double[] read( int col, int row, int width, int height ) {
+                    Rectangle window = new Rectangle(minX + col, minY + row, width, height);
+                    return elevRI.getData(window).getSamples(window.x, window.y, width, height, 0, (double[]) null);
+                }
+                @Override
+                public void write( int col, int row, int width, int height, double[] data ) {
+                    int index = 0;
+                    for( int r = row; r < row + height; r++ ) {
+                        for( int c = col; c < col + width; c++ ) {
+                            pitAccess.setDouble(c, r, data[index++]);
+                        }
+                    }
+                }
+            }, nCols, nRows, pTileSize, pTileSize);
+            tiledFlood.setProgressMonitor(pm);
+            tiledFlood.fill();
+            pitRaster = mappedRaster;
+        } else {
+            pitRaster = CoverageUtilities.renderedImage2DoubleWritableRaster(inElev.getRenderedImage(), false);
+            double[] pitData = pitRaster.getSamples(0, 0, nCols, nRows, 0, (double[]) null);
+            PriorityFlood flood = new PriorityFlood(pitData, nCols, nRows);
+            flood.setProgressMonitor(pm);
+            flood.fill(0);
+            pitRaster.setSamples(0, 0, nCols, nRows, 0, pitData);
+        }
+        if (pm.isCanceled()) {
+            return;
+        }
+        outPit = CoverageUtilities.buildCoverage("pitfiller", pitRaster, regionMap, inElev.getCoordinateReferenceSystem());
+    }
+
     /**
      * Takes the elevation matrix and calculate a matrix with pits filled, using the flooding
      * algorithm.
@@ -0,0 +1,180 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.hmachine.modules.demmanipulation.pitfiller;
+
+import static org.hortonmachine.gears.libs.modules.HMConstants.isNovalue;
+
+import java.util.BitSet;
+
+import org.hortonmachine.gears.libs.monitor.DummyProgressMonitor;
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+import org.hortonmachine.gears.utils.DoubleKeyIntHeap;
+
+/**
+ * Priority-Flood depression filling.
+ *
+ * <p>The cells on the raster border and the cells touching novalues are the seeds of
+ * a flood that proceeds always from the lowest cell reached so far. Every cell is
+ * visited once: a neighbour that is lower than the cell it is reached from is part of
+ * a depression and is raised to that level. The algorithm runs in <code>O(n log n)</code>
+ * and all the state is kept in primitive arrays indexed by the packed cell index
+ * <code>row * cols + col</code>.</p>
+ *
+ * <p>If an epsilon greater than zero is used, every cell raised inside a depression or
+ * reached on a flat area is set to the elevation it is reached from plus epsilon, so that
+ * the filled surface has a slope towards the outlet and steepest descent flowdirections
+ * can be calculated everywhere.</p>
+ *
+ * <p>Reference: Barnes, R., Lehman, C., Mulla, D., 2014. Priority-flood: An optimal
+ * depression-filling and watershed-labeling algorithm for digital elevation models.
+ * Computers &amp; Geosciences 62, 117-127.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class PriorityFlood {
+
+    private static final int[] DCOLS = {1, 1, 0, -1, -1, -1, 0, 1};
+    private static final int[] DROWS = {0, -1, -1, -1, 0, 1, 1, 1};
+
+    private final double[] dem;
+    private final int cols;
+    private final int rows;
+    private IHMProgressMonitor pm = new DummyProgressMonitor();
+
+    /**
+     * Constructor.
+     *
+     * @param dem the elevation values in row-major order. The array is filled in place.
+     * @param cols the cols of the raster.
+     * @param rows the rows of the raster.
+     */
+    public PriorityFlood( double[] dem, int cols, int rows ) {
+        if (dem.length < cols * rows) {
+            throw new IllegalArgumentException("The dem array is smaller than the raster: " + dem.length);
+        }
+        this.dem = dem;
+        this.cols = cols;
+        this.rows = rows;
+    }
+
+    /**
+     * @param pm the progress monitor to use.
+     */
+    public void setProgressMonitor( IHMProgressMonitor pm ) {
+        if (pm != null) {
+            this.pm = pm;
+        }
+    }
+
+    /**
+     * Fills the depressions of the dem.
+     *
+     * @param epsilon the elevation increment used to give a slope to the filled and flat areas.
+     *              If <code>0</code>, depressions are filled to the exact spill level.
+     */
+    public void fill( double epsilon ) {
+        int size = cols * rows;
+        BitSet closed = new BitSet(size);
+        DoubleKeyIntHeap open = new DoubleKeyIntHeap(2 * (cols + rows));
+        int[] pitQueue = new int[1024];
+        int pitHead = 0;
+        int pitTail = 0;
+
+        pm.beginTask("Flooding the dem...", rows);
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                int index = r * cols + c;
+                if (isNovalue(dem[index])) {
+                    closed.set(index);
+                } else if (isSeed(c, r)) {
+                    closed.set(index);
+                    open.add(dem[index], index);
+                }
+            }
+        }
+
+        int processed = 0;
+        while( !open.isEmpty() || pitHead < pitTail ) {
+            int index;
+            if (pitHead < pitTail) {
+                index = pitQueue[pitHead++];
+                if (pitHead == pitTail) {
+                    pitHead = 0;
+                    pitTail = 0;
+                }
+            } else {
+                index = open.poll();
+            }
+            if (++processed % cols == 0) {
+                if (pm.isCanceled()) {
+                    return;
+                }
+                pm.worked(1);
+            }
+
+            int c = index % cols;
+            int r = index / cols;
+            double elevation = dem[index];
+            for( int i = 0; i < DCOLS.length; i++ ) {
+                int nc = c + DCOLS[i];
+                int nr = r + DROWS[i];
+                if (nc < 0 || nc >= cols || nr < 0 || nr >= rows) {
+                    continue;
+                }
+                int nIndex = nr * cols + nc;
+                if (closed.get(nIndex)) {
+                    continue;
+                }
+                closed.set(nIndex);
+                double spill = elevation + epsilon;
+                if (dem[nIndex] <= spill) {
+                    dem[nIndex] = epsilon > 0 ? spill : elevation;
+                    if (pitTail == pitQueue.length) {
+                        // compact or grow the fifo
+                        int count = pitTail - pitHead;
+                        int[] newQueue = count * 2 > pitQueue.length ? new int[pitQueue.length * 2] : pitQueue;
+                        System.arraycopy(pitQueue, pitHead, newQueue, 0, count);
+                        pitQueue = newQueue;
+                        pitHead = 0;
+                        pitTail = count;
+                    }
+                    pitQueue[pitTail++] = nIndex;
+                } else {
+                    open.add(dem[nIndex], nIndex);
+                }
+            }
+        }
+        pm.done();
+    }
+
+    /**
+     * A seed is a valid cell on the border of the raster or touching a novalue.
+     */
+    private boolean isSeed( int c, int r ) {
+        if (c == 0 || r == 0 || c == cols - 1 || r == rows - 1) {
+            return true;
+        }
+        for( int i = 0; i < DCOLS.length; i++ ) {
+            if (isNovalue(dem[(r + DROWS[i]) * cols + c + DCOLS[i]])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,591 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.hmachine.modules.demmanipulation.pitfiller;
+
+import static org.hortonmachine.gears.libs.modules.HMConstants.isNovalue;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.hortonmachine.gears.libs.monitor.DummyProgressMonitor;
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+import org.hortonmachine.gears.utils.DoubleKeyIntHeap;
+
+/**
+ * Tiled Priority-Flood depression filling, for dems that do not fit in memory.
+ *
+ * <p>The dem is read and written one tile at a time through an {@link ITileAccess}, so
+ * that only a tile and the spill graph need to be kept in memory. The spill graph is kept
+ * in primitive arrays: the lowest spill towards the outside of every perimeter cell and,
+ * for every tile, the spills between its perimeter cells and towards the neighbour tiles.
+ * The algorithm works in three steps:</p>
+ * <ol>
+ * <li>every tile is flooded from its perimeter cells, each of which gets its own label.
+ * Where two labels meet, the lowest spill elevation between them is recorded in the
+ * spill graph, together with the spill elevations towards the neighbour tiles and towards
+ * the outside of the dem (raster border or novalues);</li>
+ * <li>the spill graph is solved, giving the final elevation of every perimeter cell;</li>
+ * <li>every tile is flooded again starting from the final elevations of its perimeter cells
+ * and written back.</li>
+ * </ol>
+ *
+ * <p>The result is the same as the one of {@link PriorityFlood} with no epsilon. Flat
+ * areas are not given a slope, since that would require the flats to be resolved
+ * across tiles.</p>
+ *
+ * <p>Reference: Barnes, R., 2016. Parallel Priority-Flood depression filling for trillion cell
+ * digital elevation models on desktops or clusters. Computers &amp; Geosciences 96, 56-68.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TiledPriorityFlood {
+
+    private static final int[] DCOLS = {1, 1, 0, -1, -1, -1, 0, 1};
+    private static final int[] DROWS = {0, -1, -1, -1, 0, 1, 1, 1};
+
+    /**
+     * The label of the outside of the dem.
+     */
+    private static final int OCEAN = 0;
+
+    /**
+     * The slot of the directions that lead to a following cell (east, south-west, south
+     * and south-east), in which the spills towards the neighbour tiles are recorded, so
+     * that every spill between two tiles is recorded once.
+     */
+    private static final boolean[] FORWARD = {true, false, false, false, false, true, true, true};
+
+    /**
+     * Access to the tiles of the dem.
+     * 
+     * <p>The read windows always need to contain the original values of the dem: the 
+     * filled tiles are written only once and never read back, so the tiles can be read 
+     * from a source and written to a different sink.</p>
+     */
+    public static interface ITileAccess {
+        /**
+         * Read a window of the dem.
+         *
+         * @param col the first col of the window.
+         * @param row the first row of the window.
+         * @param width the width of the window.
+         * @param height the height of the window.
+         * @return the values of the window in row-major order.
+         * @throws Exception
+         */
+        double[] read( int col, int row, int width, int height ) throws Exception;
+
+        /**
+         * Write a window of the dem.
+         *
+         * @param col the first col of the window.
+         * @param row the first row of the window.
+         * @param width the width of the window.
+         * @param height the height of the window.
+         * @param data the values of the window in row-major order.
+         * @throws Exception
+         */
+        void write( int col, int row, int width, int height, double[] data ) throws Exception;
+    }
+
+    private final ITileAccess access;
+    private final int cols;
+    private final int rows;
+    private final int tileCols;
+    private final int tileRows;
+    private final int tilesX;
+    private final int tilesY;
+    /**
+     * The first label of every tile's perimeter.
+     */
+    private final int[] labelOffsets;
+    private final int labelsCount;
+    /**
+     * The lowest spill elevation of every label towards the outside of the dem.
+     */
+    private double[] outletLevels;
+    /**
+     * The spill edges of every tile, as pairs of labels.
+     */
+    private int[][] tileEdgeLabels;
+    /**
+     * The lowest spill elevations of the edges of every tile.
+     */
+    private double[][] tileEdgeLevels;
+    private IHMProgressMonitor pm = new DummyProgressMonitor();
+
+    /**
+     * Constructor.
+     *
+     * @param access the access to the dem tiles. Read tiles are filled and written back.
+     * @param cols the cols of the raster.
+     * @param rows the rows of the raster.
+     * @param tileCols the cols of a tile.
+     * @param tileRows the rows of a tile.
+     */
+    public TiledPriorityFlood( ITileAccess access, int cols, int rows, int tileCols, int tileRows ) {
+        if (tileCols < 1 || tileRows < 1) {
+            throw new IllegalArgumentException("The tile size needs to be positive.");
+        }
+        this.access = access;
+        this.cols = cols;
+        this.rows = rows;
+        this.tileCols = Math.min(tileCols, cols);
+        this.tileRows = Math.min(tileRows, rows);
+        tilesX = (cols + this.tileCols - 1) / this.tileCols;
+        tilesY = (rows + this.tileRows - 1) / this.tileRows;
+
+        labelOffsets = new int[tilesX * tilesY];
+        int count = 1;
+        for( int ty = 0; ty < tilesY; ty++ ) {
+            for( int tx = 0; tx < tilesX; tx++ ) {
+                labelOffsets[ty * tilesX + tx] = count;
+                count += perimeterCount(tileWidth(tx), tileHeight(ty));
+            }
+        }
+        labelsCount = count;
+    }
+
+    /**
+     * @param pm the progress monitor to use.
+     */
+    public void setProgressMonitor( IHMProgressMonitor pm ) {
+        if (pm != null) {
+            this.pm = pm;
+        }
+    }
+
+    /**
+     * Fills the depressions of the dem.
+     *
+     * @throws Exception
+     */
+    public void fill() throws Exception {
+        int tilesCount = tilesX * tilesY;
+        outletLevels = new double[labelsCount];
+        Arrays.fill(outletLevels, Double.POSITIVE_INFINITY);
+        tileEdgeLabels = new int[tilesCount][];
+        tileEdgeLevels = new double[tilesCount][];
+        pm.beginTask("Building the spill graph...", tilesCount);
+        for( int ty = 0; ty < tilesY; ty++ ) {
+            for( int tx = 0; tx < tilesX; tx++ ) {
+                if (pm.isCanceled()) {
+                    return;
+                }
+                labelTile(tx, ty);
+                pm.worked(1);
+            }
+        }
+        pm.done();
+
+        double[] perimeterLevels = solveSpillGraph();
+        outletLevels = null;
+        tileEdgeLabels = null;
+        tileEdgeLevels = null;
+
+        pm.beginTask("Filling the tiles...", tilesCount);
+        for( int ty = 0; ty < tilesY; ty++ ) {
+            for( int tx = 0; tx < tilesX; tx++ ) {
+                if (pm.isCanceled()) {
+                    return;
+                }
+                fillTile(tx, ty, perimeterLevels);
+                pm.worked(1);
+            }
+        }
+        pm.done();
+    }
+
+    /**
+     * Floods a tile from its perimeter, labeling the cells and collecting the spill edges.
+     */
+    private void labelTile( int tx, int ty ) throws Exception {
+        int x0 = tx * tileCols;
+        int y0 = ty * tileRows;
+        int w = tileWidth(tx);
+        int h = tileHeight(ty);
+
+        // the tile is read with a one cell halo to know about the neighbour tiles
+        int hx0 = Math.max(x0 - 1, 0);
+        int hy0 = Math.max(y0 - 1, 0);
+        int hw = Math.min(x0 + w + 1, cols) - hx0;
+        int hh = Math.min(y0 + h + 1, rows) - hy0;
+        double[] halo = access.read(hx0, hy0, hw, hh);
+
+        double[] levels = new double[w * h];
+        int[] labels = new int[w * h];
+        BitSet closed = new BitSet(w * h);
+        DoubleKeyIntHeap open = new DoubleKeyIntHeap(2 * (w + h));
+        SpillEdges edges = new SpillEdges(4 * (w + h));
+
+        for( int lr = 0; lr < h; lr++ ) {
+            for( int lc = 0; lc < w; lc++ ) {
+                int gc = x0 + lc;
+                int gr = y0 + lr;
+                double elevation = halo[(gr - hy0) * hw + gc - hx0];
+                int index = lr * w + lc;
+                if (isNovalue(elevation)) {
+                    closed.set(index);
+                    continue;
+                }
+                levels[index] = elevation;
+                boolean isPerimeter = lc == 0 || lr == 0 || lc == w - 1 || lr == h - 1;
+                boolean touchesOutside = false;
+                int label = isPerimeter ? labelOffsets[ty * tilesX + tx] + perimeterIndex(lc, lr, w, h) : OCEAN;
+                for( int i = 0; i < DCOLS.length; i++ ) {
+                    int nc = gc + DCOLS[i];
+                    int nr = gr + DROWS[i];
+                    if (nc < 0 || nc >= cols || nr < 0 || nr >= rows) {
+                        touchesOutside = true;
+                        continue;
+                    }
+                    double nElevation = halo[(nr - hy0) * hw + nc - hx0];
+                    if (isNovalue(nElevation)) {
+                        touchesOutside = true;
+                    } else if (isPerimeter && FORWARD[i] && (nc < x0 || nc >= x0 + w || nr < y0 || nr >= y0 + h)) {
+                        edges.add(label, perimeterLabel(nc, nr), Math.max(elevation, nElevation));
+                    }
+                }
+                if (isPerimeter) {
+                    if (touchesOutside) {
+                        addOutlet(label, elevation);
+                    }
+                } else if (!touchesOutside) {
+                    continue;
+                }
+                labels[index] = label;
+                closed.set(index);
+                open.add(elevation, index);
+            }
+        }
+
+        while( !open.isEmpty() ) {
+            int index = open.poll();
+            int lc = index % w;
+            int lr = index / w;
+            double level = levels[index];
+            int label = labels[index];
+            for( int i = 0; i < DCOLS.length; i++ ) {
+                int nc = lc + DCOLS[i];
+                int nr = lr + DROWS[i];
+                if (nc < 0 || nc >= w || nr < 0 || nr >= h) {
+                    continue;
+                }
+                int nIndex = nr * w + nc;
+                if (closed.get(nIndex)) {
+                    double nLevel = levels[nIndex];
+                    int nLabel = labels[nIndex];
+                    if (nLabel != label && !isNovalue(halo[(y0 + nr - hy0) * hw + x0 + nc - hx0])) {
+                        double spill = Math.max(level, nLevel);
+                        if (label == OCEAN) {
+                            addOutlet(nLabel, spill);
+                        } else if (nLabel == OCEAN) {
+                            addOutlet(label, spill);
+                        } else {
+                            edges.add(label, nLabel, spill);
+                        }
+                    }
+                    continue;
+                }
+                closed.set(nIndex);
+                labels[nIndex] = label;
+                levels[nIndex] = Math.max(levels[nIndex], level);
+                open.add(levels[nIndex], nIndex);
+            }
+        }
+
+        int tile = ty * tilesX + tx;
+        tileEdgeLabels[tile] = edges.labels();
+        tileEdgeLevels[tile] = edges.levels();
+    }
+
+    /**
+     * Finds for every label the lowest level at which it can spill out of the dem
+     * (a minimax path search from the outside).
+     */
+    private double[] solveSpillGraph() {
+        int[] degrees = new int[labelsCount + 1];
+        for( int label = 1; label < labelsCount; label++ ) {
+            if (outletLevels[label] != Double.POSITIVE_INFINITY) {
+                degrees[OCEAN + 1]++;
+                degrees[label + 1]++;
+            }
+        }
+        for( int[] edgeLabels : tileEdgeLabels ) {
+            for( int edgeLabel : edgeLabels ) {
+                degrees[edgeLabel + 1]++;
+            }
+        }
+        for( int i = 0; i < labelsCount; i++ ) {
+            degrees[i + 1] += degrees[i];
+        }
+        int[] adjacent = new int[degrees[labelsCount]];
+        double[] weights = new double[degrees[labelsCount]];
+        int[] fill = new int[labelsCount];
+        for( int label = 1; label < labelsCount; label++ ) {
+            if (outletLevels[label] != Double.POSITIVE_INFINITY) {
+                addAdjacent(degrees, fill, adjacent, weights, OCEAN, label, outletLevels[label]);
+            }
+        }
+        for( int tile = 0; tile < tileEdgeLabels.length; tile++ ) {
+            int[] edgeLabels = tileEdgeLabels[tile];
+            double[] edgeLevels = tileEdgeLevels[tile];
+            for( int i = 0; i < edgeLevels.length; i++ ) {
+                addAdjacent(degrees, fill, adjacent, weights, edgeLabels[2 * i], edgeLabels[2 * i + 1], edgeLevels[i]);
+            }
+        }
+
+        double[] levels = new double[labelsCount];
+        Arrays.fill(levels, Double.POSITIVE_INFINITY);
+        levels[OCEAN] = Double.NEGATIVE_INFINITY;
+        BitSet done = new BitSet(labelsCount);
+        DoubleKeyIntHeap open = new DoubleKeyIntHeap(labelsCount);
+        open.add(levels[OCEAN], OCEAN);
+        while( !open.isEmpty() ) {
+            int label = open.poll();
+            if (done.get(label)) {
+                continue;
+            }
+            done.set(label);
+            double level = levels[label];
+            for( int i = degrees[label]; i < degrees[label + 1]; i++ ) {
+                int other = adjacent[i];
+                double otherLevel = Math.max(level, weights[i]);
+                if (otherLevel < levels[other]) {
+                    levels[other] = otherLevel;
+                    open.add(otherLevel, other);
+                }
+            }
+        }
+        return levels;
+    }
+
+    /**
+     * Floods a tile from its perimeter cells raised to their final level.
+     */
+    private void fillTile( int tx, int ty, double[] perimeterLevels ) throws Exception {
+        int x0 = tx * tileCols;
+        int y0 = ty * tileRows;
+        int w = tileWidth(tx);
+        int h = tileHeight(ty);
+        double[] data = access.read(x0, y0, w, h);
+
+        BitSet closed = new BitSet(w * h);
+        DoubleKeyIntHeap open = new DoubleKeyIntHeap(2 * (w + h));
+        for( int lr = 0; lr < h; lr++ ) {
+            for( int lc = 0; lc < w; lc++ ) {
+                int index = lr * w + lc;
+                double elevation = data[index];
+                if (isNovalue(elevation)) {
+                    closed.set(index);
+                    continue;
+                }
+                if (lc == 0 || lr == 0 || lc == w - 1 || lr == h - 1) {
+                    double level = perimeterLevels[labelOffsets[ty * tilesX + tx] + perimeterIndex(lc, lr, w, h)];
+                    if (level > elevation && level != Double.POSITIVE_INFINITY) {
+                        data[index] = level;
+                    }
+                } else if (!touchesNovalue(data, lc, lr, w)) {
+                    continue;
+                }
+                closed.set(index);
+                open.add(data[index], index);
+            }
+        }
+
+        while( !open.isEmpty() ) {
+            int index = open.poll();
+            int lc = index % w;
+            int lr = index / w;
+            double level = data[index];
+            for( int i = 0; i < DCOLS.length; i++ ) {
+                int nc = lc + DCOLS[i];
+                int nr = lr + DROWS[i];
+                if (nc < 0 || nc >= w || nr < 0 || nr >= h) {
+                    continue;
+                }
+                int nIndex = nr * w + nc;
+                if (closed.get(nIndex)) {
+                    continue;
+                }
+                closed.set(nIndex);
+                if (data[nIndex] < level) {
+                    data[nIndex] = level;
+                }
+                open.add(data[nIndex], nIndex);
+            }
+        }
+        access.write(x0, y0, w, h, data);
+    }
+
+    private boolean touchesNovalue( double[] data, int lc, int lr, int w ) {
+        for( int i = 0; i < DCOLS.length; i++ ) {
+            if (isNovalue(data[(lr + DROWS[i]) * w + lc + DCOLS[i]])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void addAdjacent( int[] degrees, int[] fill, int[] adjacent, double[] weights, int label1, int label2,
+            double weight ) {
+        int p1 = degrees[label1] + fill[label1]++;
+        adjacent[p1] = label2;
+        weights[p1] = weight;
+        int p2 = degrees[label2] + fill[label2]++;
+        adjacent[p2] = label1;
+        weights[p2] = weight;
+    }
+
+    private void addOutlet( int label, double elevation ) {
+        if (label != OCEAN && elevation < outletLevels[label]) {
+            outletLevels[label] = elevation;
+        }
+    }
+
+    /**
+     * @return the label of a cell on the perimeter of its tile.
+     */
+    private int perimeterLabel( int col, int row ) {
+        int tx = col / tileCols;
+        int ty = row / tileRows;
+        int lc = col - tx * tileCols;
+        int lr = row - ty * tileRows;
+        return labelOffsets[ty * tilesX + tx] + perimeterIndex(lc, lr, tileWidth(tx), tileHeight(ty));
+    }
+
+    private int tileWidth( int tx ) {
+        return Math.min(tileCols, cols - tx * tileCols);
+    }
+
+    private int tileHeight( int ty ) {
+        return Math.min(tileRows, rows - ty * tileRows);
+    }
+
+    /**
+     * Numbers the perimeter cells of a tile: first the top row, then the bottom row,
+     * then the left and right cells of the rows in between.
+     */
+    private static int perimeterIndex( int lc, int lr, int w, int h ) {
+        if (lr == 0) {
+            return lc;
+        }
+        if (lr == h - 1) {
+            return w + lc;
+        }
+        int sides = w > 1 ? 2 : 1;
+        return 2 * w + (lr - 1) * sides + (lc == 0 ? 0 : 1);
+    }
+
+    private static int perimeterCount( int w, int h ) {
+        return w * h - Math.max(w - 2, 0) * Math.max(h - 2, 0);
+    }
+
+    /**
+     * The spill edges found in a tile, kept at their lowest elevation in an open addressing
+     * table that packs the two labels of an edge in a long key.
+     */
+    private static class SpillEdges {
+        private static final long EMPTY = -1;
+
+        private long[] keys;
+        private double[] levels;
+        private int size;
+
+        SpillEdges( int capacity ) {
+            int tableSize = Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) * 2;
+            keys = new long[tableSize];
+            Arrays.fill(keys, EMPTY);
+            levels = new double[tableSize];
+        }
+
+        void add( int label1, int label2, double level ) {
+            long key = label1 < label2 ? ((long) label1 << 32) | label2 : ((long) label2 << 32) | label1;
+            int mask = keys.length - 1;
+            int slot = slot(key, mask);
+            while( keys[slot] != EMPTY ) {
+                if (keys[slot] == key) {
+                    if (level < levels[slot]) {
+                        levels[slot] = level;
+                    }
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            levels[slot] = level;
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            double[] oldLevels = levels;
+            keys = new long[oldKeys.length * 2];
+            Arrays.fill(keys, EMPTY);
+            levels = new double[keys.length];
+            int mask = keys.length - 1;
+            for( int i = 0; i < oldKeys.length; i++ ) {
+                if (oldKeys[i] != EMPTY) {
+                    int slot = slot(oldKeys[i], mask);
+                    while( keys[slot] != EMPTY ) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    levels[slot] = oldLevels[i];
+                }
+            }
+        }
+
+        private static int slot( long key, int mask ) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+
+        /**
+         * @return the pairs of labels of the edges.
+         */
+        int[] labels() {
+            int[] labels = new int[2 * size];
+            int count = 0;
+            for( long key : keys ) {
+                if (key != EMPTY) {
+                    labels[count++] = (int) (key >>> 32);
+                    labels[count++] = (int) (key & 0xFFFFFFFFL);
+                }
+            }
+            return labels;
+        }
+
+        /**
+         * @return the levels of the edges, in the order of {@link #labels()}.
+         */
+        double[] levels() {
+            double[] edgeLevels = new double[size];
+            int count = 0;
+            for( int i = 0; i < keys.length; i++ ) {
+                if (keys[i] != EMPTY) {
+                    edgeLevels[count++] = levels[i];
+                }
+            }
+            return edgeLevels;
+        }
+    }
+
+}
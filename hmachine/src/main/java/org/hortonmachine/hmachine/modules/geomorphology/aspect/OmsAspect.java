@@ -37,8 +37,12 @@ import javax.media.jai.iterator.WritableRandomIter;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.hortonmachine.gears.libs.modules.GridNode;
+import org.hortonmachine.gears.libs.modules.GridNodeCursor;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.multiprocessing.GridNodeMultiProcessing;
+import org.hortonmachine.gears.libs.modules.streaming.FocalWindow;
+import org.hortonmachine.gears.libs.modules.streaming.IFocalOperator;
+import org.hortonmachine.gears.libs.modules.streaming.TiledRasterPipeline;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.gears.utils.math.NumericsUtilities;
@@ -77,6 +81,10 @@ public class OmsAspect extends GridNodeMultiProcessing {
     @In
     public boolean doRound = false;
 
+    @Description(OMSASPECT_doStreaming_DESCRIPTION)
+    @In
+    public boolean doStreaming = false;
+
     @Description(OMSASPECT_outAspect_DESCRIPTION)
     @Out
     public GridCoverage2D outAspect = null;
@@ -93,6 +101,7 @@ public class OmsAspect extends GridNodeMultiProcessing {
     public static final String OMSASPECT_inElev_DESCRIPTION = "The map of the digital elevation model (DEM).";
     public static final String OMSASPECT_doRadiants_DESCRIPTION = "Switch to define whether create the output map in degrees (default) or radiants.";
     public static final String OMSASPECT_doRound_DESCRIPTION = "Switch to define whether the output map values should be rounded (might make sense in the case of degree maps).";
+    public static final String OMSASPECT_doStreaming_DESCRIPTION = "If true, the map is calculated tile by tile when it is read or written, for maps larger than memory.";
     public static final String OMSASPECT_outAspect_DESCRIPTION = "The map of aspect.";
 
     private HortonMessageHandler msg = HortonMessageHandler.getInstance();
@@ -109,6 +118,13 @@ public class OmsAspect extends GridNodeMultiProcessing {
             radtodeg = 1.0;
         }
 
+        if (doStreaming) {
+            TiledRasterPipeline pipeline = new TiledRasterPipeline(inElev);
+            Class< ? > outputType = doRound ? Short.class : Float.class;
+            outAspect = pipeline.stream(new AspectOperator(radtodeg, doRound), outputType, "aspect")[0];
+            return;
+        }
+
         RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(inElev);
         int cols = regionMap.getCols();
         int rows = regionMap.getRows();
@@ -122,13 +138,13 @@ public class OmsAspect extends GridNodeMultiProcessing {
         WritableRandomIter aspectIter = RandomIterFactory.createWritable(aspectWR, null);
         try {
             pm.beginTask(msg.message("aspect.calculating"), rows * cols);
-            processGridNodes(inElev, gridNode -> {
+            processGridNodeCursors(inElev, gridNode -> {
                 if (pm.isCanceled()) {
                     return;
                 }
                 double aspect = calculateAspect(gridNode, radtodeg, doRound);
-                int col = gridNode.col;
-                int row = gridNode.row;
+                int col = gridNode.getCol();
+                int row = gridNode.getRow();
                 if (col == 0 || row == 0 || col == cols - 1 || row == rows - 1) {
                     aspectIter.setSample(col, row, 0, HMConstants.shortNovalue);
                 } else {
@@ -157,17 +173,30 @@ public class OmsAspect extends GridNodeMultiProcessing {
      * @return the value of aspect.
      */
     public static double calculateAspect( GridNode node, double radtodeg, boolean doRound ) {
+        return calculateAspect(node.xRes, node.yRes, node.elevation, node.getNorthElev(), node.getSouthElev(),
+                node.getWestElev(), node.getEastElev(), radtodeg, doRound);
+    }
+
+    /**
+     * Calculates the aspect in the cell a {@link GridNodeCursor} is positioned on.
+     * 
+     * @param cursor the cursor positioned on the current cell.
+     * @param radtodeg radiants to degrees conversion factor.
+     * @param doRound if <code>true</code>, values are round to integer.
+     * @return the value of aspect.
+     * @see #calculateAspect(GridNode, double, boolean)
+     */
+    public static double calculateAspect( GridNodeCursor cursor, double radtodeg, boolean doRound ) {
+        return calculateAspect(cursor.getXRes(), cursor.getYRes(), cursor.getElevation(), cursor.getNorthElev(),
+                cursor.getSouthElev(), cursor.getWestElev(), cursor.getEastElev(), radtodeg, doRound);
+    }
+
+    private static double calculateAspect( double xRes, double yRes, double centralValue, double nValue, double sValue,
+            double wValue, double eValue, double radtodeg, boolean doRound ) {
         double aspect = doubleNovalue;
         // the value of the x and y derivative
         double aData = 0.0;
         double bData = 0.0;
-        double xRes = node.xRes;
-        double yRes = node.yRes;
-        double centralValue = node.elevation;
-        double nValue = node.getNorthElev();
-        double sValue = node.getSouthElev();
-        double wValue = node.getWestElev();
-        double eValue = node.getEastElev();
 
         if (!isNovalue(centralValue)) {
             boolean sIsNovalue = isNovalue(sValue);
@@ -237,4 +266,39 @@ public class OmsAspect extends GridNodeMultiProcessing {
         return aspect;
     }
 
+    /**
+     * The aspect as {@link IFocalOperator}, on the elevation source.
+     */
+    private static class AspectOperator implements IFocalOperator {
+        private final double radtodeg;
+        private final boolean doRound;
+
+        AspectOperator( double radtodeg, boolean doRound ) {
+            this.radtodeg = radtodeg;
+            this.doRound = doRound;
+        }
+
+        @Override
+        public int getKernelRadius() {
+            return 1;
+        }
+
+        @Override
+        public int getOutputsCount() {
+            return 1;
+        }
+
+        @Override
+        public void calculate( FocalWindow window, double[] outValues ) {
+            int col = window.getCol();
+            int row = window.getRow();
+            if (col == 0 || row == 0 || col == window.getCols() - 1 || row == window.getRows() - 1) {
+                outValues[0] = HMConstants.shortNovalue;
+            } else {
+                double aspect = calculateAspect(window.getCursor(0), radtodeg, doRound);
+                outValues[0] = doRound ? (short) aspect : aspect;
+            }
+        }
+    }
+
 }
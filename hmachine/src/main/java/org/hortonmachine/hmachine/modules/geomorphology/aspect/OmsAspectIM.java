@@ -38,6 +38,7 @@ import javax.media.jai.iterator.WritableRandomIter;
 
 import org.hortonmachine.gears.libs.modules.GridNode;
 import org.hortonmachine.gears.libs.modules.HMModelIM;
+import org.hortonmachine.gears.libs.modules.ImageMosaicTile;
 import org.hortonmachine.gears.utils.colors.EColorTables;
 import org.hortonmachine.gears.utils.math.NumericsUtilities;
 
@@ -74,6 +75,10 @@ public class OmsAspectIM extends HMModelIM {
     @In
     public boolean doRound = false;
 
+    @Description("The number of tiles to process in parallel.")
+    @In
+    public int pThreads = 1;
+
     @Description(OMSASPECT_outAspect_DESCRIPTION)
     @Out
     public String outAspect = null;
@@ -92,7 +97,7 @@ public class OmsAspectIM extends HMModelIM {
         addSource(new File(inElev));
         addDestination(new File(outAspect));
 
-        processByTileCells();
+        processByTileCells(pThreads);
 
         makeMosaic();
         makeStyle(EColorTables.aspect, 0, 360);
@@ -101,13 +106,12 @@ public class OmsAspectIM extends HMModelIM {
     }
 
     @Override
-    protected void processCell( int readCol, int readRow, int writeCol, int writeRow, int readCols, int readRows, int writeCols,
-            int writeRows ) {
+    protected void processCell( ImageMosaicTile tile, int readCol, int readRow, int writeCol, int writeRow ) {
 
-        RandomIter elevIter = inRasterIterators.get(0);
-        GridNode node = new GridNode(elevIter, readCols, readRows, xRes, yRes, readCol, readRow);
+        RandomIter elevIter = tile.getInRasterIterator(0);
+        GridNode node = new GridNode(elevIter, tile.getReadCols(), tile.getReadRows(), xRes, yRes, readCol, readRow);
         double aspect = OmsAspect.calculateAspect(node, radtodeg, doRound);
-        WritableRandomIter outDataIter = outRasterIterators.get(0);
+        WritableRandomIter outDataIter = tile.getOutRasterIterator(0);
         outDataIter.setSample(writeCol, writeRow, 0, aspect);
     }
 
@@ -36,7 +36,11 @@ import javax.media.jai.iterator.RandomIter;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.hortonmachine.gears.libs.modules.GridNode;
+import org.hortonmachine.gears.libs.modules.GridNodeCursor;
 import org.hortonmachine.gears.libs.modules.multiprocessing.GridMultiProcessing;
+import org.hortonmachine.gears.libs.modules.streaming.FocalWindow;
+import org.hortonmachine.gears.libs.modules.streaming.IFocalOperator;
+import org.hortonmachine.gears.libs.modules.streaming.TiledRasterPipeline;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.hmachine.i18n.HortonMessageHandler;
@@ -66,6 +70,10 @@ public class OmsCurvatures extends GridMultiProcessing {
     @In
     public GridCoverage2D inElev = null;
 
+    @Description(OMSCURVATURES_doStreaming_DESCRIPTION)
+    @In
+    public boolean doStreaming = false;
+
     // output
     @Description(OMSCURVATURES_outProf_DESCRIPTION)
     @Out
@@ -89,6 +97,7 @@ public class OmsCurvatures extends GridMultiProcessing {
     public static final String OMSCURVATURES_AUTHORNAMES = "Daniele Andreis, Antonello Andrea, Erica Ghesla, Cozzini Andrea, Franceschi Silvia, Pisoni Silvano, Rigon Riccardo";
     public static final String OMSCURVATURES_AUTHORCONTACTS = "http://www.hydrologis.com, http://www.ing.unitn.it/dica/hp/?user=rigon";
     public static final String OMSCURVATURES_inElev_DESCRIPTION = "The map of the digital elevation model (DEM or pit).";
+    public static final String OMSCURVATURES_doStreaming_DESCRIPTION = "If true, the maps are calculated tile by tile when they are read or written, for maps larger than memory.";
     public static final String OMSCURVATURES_outProf_DESCRIPTION = "The map of profile curvatures.";
     public static final String OMSCURVATURES_outPlan_DESCRIPTION = "The map of planar curvatures.";
     public static final String OMSCURVATURES_outTang_DESCRIPTION = "The map of tangential curvatures.";
@@ -101,42 +110,46 @@ public class OmsCurvatures extends GridMultiProcessing {
             return;
         }
         checkNull(inElev);
+        if (doStreaming) {
+            TiledRasterPipeline pipeline = new TiledRasterPipeline(inElev);
+            GridCoverage2D[] outCurvatures = pipeline.stream(new CurvaturesOperator(), null, "plan_curvature",
+                    "tang_curvature", "prof_curvature");
+            outPlan = outCurvatures[0];
+            outTang = outCurvatures[1];
+            outProf = outCurvatures[2];
+            return;
+        }
         RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(inElev);
         int nCols = regionMap.getCols();
         int nRows = regionMap.getRows();
         double xRes = regionMap.getXres();
         double yRes = regionMap.getYres();
 
-        RandomIter elevationIter = CoverageUtilities.getRandomIterator(inElev);
+        double[] elevation = CoverageUtilities.renderedImage2RowMajorDoubleArray(inElev.getRenderedImage());
 
         WritableRaster profWR = CoverageUtilities.createWritableRaster(nCols, nRows, null, null, doubleNovalue);
         WritableRaster planWR = CoverageUtilities.createWritableRaster(nCols, nRows, null, null, doubleNovalue);
         WritableRaster tangWR = CoverageUtilities.createWritableRaster(nCols, nRows, null, null, doubleNovalue);
 
-        final double[] planTangProf = new double[3];
-
-        try {
-            /*
-                 * calculate curvatures
-                 */
-            pm.beginTask(msg.message("curvatures.calculating"), (nRows - 2) * (nCols - 2));
-            processGrid(nCols, nRows, true, ( c, r ) -> {
-                if (pm.isCanceled()) {
-                    return;
-                }
-                GridNode node = new GridNode(elevationIter, nCols, nRows, xRes, yRes, c, r);
-                if (node.isValid() && !node.touchesNovalue() && !node.touchesBound()) {
-                    calculateCurvatures2(node, planTangProf);
-                    planWR.setSample(c, r, 0, planTangProf[0]);
-                    tangWR.setSample(c, r, 0, planTangProf[1]);
-                    profWR.setSample(c, r, 0, planTangProf[2]);
-                }
-                pm.worked(1);
-            });
-            pm.done();
-        } finally {
-            elevationIter.done();
-        }
+        /*
+         * calculate curvatures
+         */
+        pm.beginTask(msg.message("curvatures.calculating"), (nRows - 2) * (nCols - 2));
+        processGrid(nCols, nRows, true, () -> new CurvaturesTile(elevation, nCols, nRows, xRes, yRes), ( tile, c, r ) -> {
+            if (pm.isCanceled()) {
+                return;
+            }
+            GridNodeCursor node = tile.cursor.moveTo(c, r);
+            if (node.isValid() && !node.touchesNovalue() && !node.touchesBound()) {
+                double[] planTangProf = tile.planTangProf;
+                calculateCurvatures2(node, planTangProf);
+                planWR.setSample(c, r, 0, planTangProf[0]);
+                tangWR.setSample(c, r, 0, planTangProf[1]);
+                profWR.setSample(c, r, 0, planTangProf[2]);
+            }
+            pm.worked(1);
+        });
+        pm.done();
         if (pm.isCanceled()) {
             return;
         }
@@ -145,6 +158,18 @@ public class OmsCurvatures extends GridMultiProcessing {
         outTang = CoverageUtilities.buildCoverage("tang_curvature", tangWR, regionMap, inElev.getCoordinateReferenceSystem());
     }
 
+    /**
+     * The cursor and the result buffer of a processed tile.
+     */
+    private static class CurvaturesTile {
+        final GridNodeCursor cursor;
+        final double[] planTangProf = new double[3];
+
+        CurvaturesTile( double[] elevation, int cols, int rows, double xRes, double yRes ) {
+            cursor = new GridNodeCursor(elevation, cols, rows, xRes, yRes);
+        }
+    }
+
     /**
      * Calculate curvatures for a single cell.
      * 
@@ -203,18 +228,33 @@ public class OmsCurvatures extends GridMultiProcessing {
     }
 
     public static void calculateCurvatures2( GridNode node, final double[] planTangProf ) {
-        double disXX = Math.pow(node.xRes, 2.0);
-        double disYY = Math.pow(node.yRes, 2.0);
-        double elevation = node.elevation;
-        double elevRplus = node.getSouthElev();
-        double elevRminus = node.getNorthElev();
-        double elevCplus = node.getEastElev();
-        double elevCminus = node.getWestElev();
+        calculateCurvatures2(node.xRes, node.yRes, node.elevation, node.getSouthElev(), node.getNorthElev(),
+                node.getEastElev(), node.getWestElev(), node.getSEElev(), node.getENElev(), node.getWSElev(),
+                node.getNWElev(), planTangProf);
+    }
+
+    /**
+     * Calculate curvatures for the cell a {@link GridNodeCursor} is positioned on.
+     * 
+     * @param cursor the cursor positioned on the current cell.
+     * @param planTangProf the array into which to insert the resulting [plan, tang, prof] curvatures.
+     */
+    public static void calculateCurvatures2( GridNodeCursor cursor, final double[] planTangProf ) {
+        calculateCurvatures2(cursor.getXRes(), cursor.getYRes(), cursor.getElevation(), cursor.getSouthElev(),
+                cursor.getNorthElev(), cursor.getEastElev(), cursor.getWestElev(), cursor.getSEElev(), cursor.getENElev(),
+                cursor.getWSElev(), cursor.getNWElev(), planTangProf);
+    }
+
+    private static void calculateCurvatures2( double xRes, double yRes, double elevation, double elevRplus,
+            double elevRminus, double elevCplus, double elevCminus, double elevCplusRplus, double elevCplusRminus,
+            double elevCminusRplus, double elevCminusRminus, final double[] planTangProf ) {
+        double disXX = Math.pow(xRes, 2.0);
+        double disYY = Math.pow(yRes, 2.0);
         /*
          * first derivate
          */
-        double sxValue = 0.5 * (elevRplus - elevRminus) / node.xRes;
-        double syValue = 0.5 * (elevCplus - elevCminus) / node.yRes;
+        double sxValue = 0.5 * (elevRplus - elevRminus) / xRes;
+        double syValue = 0.5 * (elevCplus - elevCminus) / yRes;
         double p = Math.pow(sxValue, 2.0) + Math.pow(syValue, 2.0);
         double q = p + 1;
         if (p == 0.0) {
@@ -222,15 +262,10 @@ public class OmsCurvatures extends GridMultiProcessing {
             planTangProf[1] = 0.0;
             planTangProf[2] = 0.0;
         } else {
-            double elevCplusRplus = node.getSEElev();
-            double elevCplusRminus = node.getENElev();
-            double elevCminusRplus = node.getWSElev();
-            double elevCminusRminus = node.getNWElev();
-
             double sxxValue = (elevRplus - 2 * elevation + elevRminus) / disXX;
             double syyValue = (elevCplus - 2 * elevation + elevCminus) / disYY;
             double sxyValue = 0.25
-                    * ((elevCplusRplus - elevCplusRminus - elevCminusRplus + elevCminusRminus) / (node.xRes * node.yRes));
+                    * ((elevCplusRplus - elevCplusRminus - elevCminusRplus + elevCminusRminus) / (xRes * yRes));
 
             planTangProf[0] = (sxxValue * Math.pow(syValue, 2.0) - 2 * sxyValue * sxValue * syValue
                     + syyValue * Math.pow(sxValue, 2.0)) / (Math.pow(p, 1.5));
@@ -240,4 +275,28 @@ public class OmsCurvatures extends GridMultiProcessing {
                     + syyValue * Math.pow(syValue, 2.0)) / (p * Math.pow(q, 1.5));
         }
     }
+
+    /**
+     * The curvatures as {@link IFocalOperator}, on the elevation source, with 
+     * outputs [plan, tang, prof].
+     */
+    private static class CurvaturesOperator implements IFocalOperator {
+        @Override
+        public int getKernelRadius() {
+            return 1;
+        }
+
+        @Override
+        public int getOutputsCount() {
+            return 3;
+        }
+
+        @Override
+        public void calculate( FocalWindow window, double[] outValues ) {
+            GridNodeCursor node = window.getCursor(0);
+            if (node.isValid() && !node.touchesNovalue() && !node.touchesBound()) {
+                calculateCurvatures2(node, outValues);
+            }
+        }
+    }
 }
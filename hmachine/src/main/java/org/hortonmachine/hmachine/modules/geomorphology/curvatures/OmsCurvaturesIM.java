@@ -25,6 +25,7 @@ import javax.media.jai.iterator.RandomIter;
 
 import org.hortonmachine.gears.libs.modules.GridNode;
 import org.hortonmachine.gears.libs.modules.HMModelIM;
+import org.hortonmachine.gears.libs.modules.ImageMosaicTile;
 import org.hortonmachine.gears.utils.colors.EColorTables;
 
 import oms3.annotations.Author;
@@ -52,6 +53,10 @@ public class OmsCurvaturesIM extends HMModelIM {
     @In
     public String inElev = null;
 
+    @Description("The number of tiles to process in parallel.")
+    @In
+    public int pThreads = 1;
+
     // output
     @Description(OMSCURVATURES_outPlan_DESCRIPTION)
     @Out
@@ -65,8 +70,6 @@ public class OmsCurvaturesIM extends HMModelIM {
     @Out
     public String outProf = null;
 
-    private double[] planTangProf = new double[3];
-
     @Execute
     public void process() throws Exception {
         addSource(new File(inElev));
@@ -79,7 +82,7 @@ public class OmsCurvaturesIM extends HMModelIM {
 
         cellBuffer = 1;
 
-        processByTileCells();
+        processByTileCells(pThreads);
 
         makeMosaic();
         makeStyle(EColorTables.extrainbow, 0, 1);
@@ -88,19 +91,19 @@ public class OmsCurvaturesIM extends HMModelIM {
     }
 
     @Override
-    protected void processCell( int readCol, int readRow, int writeCol, int writeRow, int readCols, int readRows, int writeCols,
-            int writeRows ) {
+    protected void processCell( ImageMosaicTile tile, int readCol, int readRow, int writeCol, int writeRow ) {
 
-        RandomIter elevIter = inRasterIterators.get(0);
+        RandomIter elevIter = tile.getInRasterIterator(0);
 
-        GridNode node = new GridNode(elevIter, readCols, readRows, xRes, yRes, readCol, readRow);
+        GridNode node = new GridNode(elevIter, tile.getReadCols(), tile.getReadRows(), xRes, yRes, readCol, readRow);
+        double[] planTangProf = new double[3];
         OmsCurvatures.calculateCurvatures2(node, planTangProf);
         if (outPlan != null)
-            outRasterIterators.get(0).setSample(writeCol, writeRow, 0, planTangProf[0]);
+            tile.getOutRasterIterator(0).setSample(writeCol, writeRow, 0, planTangProf[0]);
         if (outTang != null)
-            outRasterIterators.get(1).setSample(writeCol, writeRow, 0, planTangProf[1]);
+            tile.getOutRasterIterator(1).setSample(writeCol, writeRow, 0, planTangProf[1]);
         if (outProf != null)
-            outRasterIterators.get(2).setSample(writeCol, writeRow, 0, planTangProf[2]);
+            tile.getOutRasterIterator(2).setSample(writeCol, writeRow, 0, planTangProf[2]);
 
     }
 }
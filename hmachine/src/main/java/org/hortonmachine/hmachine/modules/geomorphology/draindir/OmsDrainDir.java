@@ -22,6 +22,10 @@ import static org.hortonmachine.gears.libs.modules.HMConstants.isNovalue;
 
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.RandomIterFactory;
@@ -30,8 +34,9 @@ import javax.media.jai.iterator.WritableRandomIter;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.hortonmachine.gears.libs.modules.FlowNode;
 import org.hortonmachine.gears.libs.modules.HMConstants;
-import org.hortonmachine.gears.libs.modules.HMModel;
 import org.hortonmachine.gears.libs.modules.ModelsSupporter;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
+import org.hortonmachine.gears.libs.modules.multiprocessing.GridMultiProcessing;
 import org.hortonmachine.gears.utils.BitMatrix;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
@@ -58,7 +63,7 @@ import oms3.annotations.Status;
 @Name(OmsDrainDir.OMSDRAINDIR_NAME)
 @Status(OmsDrainDir.OMSDRAINDIR_STATUS)
 @License(OmsDrainDir.OMSDRAINDIR_LICENSE)
-public class OmsDrainDir extends HMModel {
+public class OmsDrainDir extends GridMultiProcessing {
 
     @Description(OMSDRAINDIR_inPit_DESCRIPTION)
     @In
@@ -80,6 +85,10 @@ public class OmsDrainDir extends HMModel {
     @In
     public boolean doLad = true;
 
+    @Description(OMSDRAINDIR_pThreads_DESCRIPTION)
+    @In
+    public int pThreads = 1;
+
     @Description(OMSDRAINDIR_outFlow_DESCRIPTION)
     @Out
     public GridCoverage2D outFlow = null;
@@ -102,6 +111,7 @@ public class OmsDrainDir extends HMModel {
     public static final String OMSDRAINDIR_inFlownet_DESCRIPTION = "The map of flowdirections on the network pixels (considered only in case of LTD method). Remember that in the case of fixed flow calculation the tca has to be recalculated afterwards; the tca output in this case is not corrected.";
     public static final String OMSDRAINDIR_pLambda_DESCRIPTION = "The direction correction factor.";
     public static final String OMSDRAINDIR_doLad_DESCRIPTION = "Switch for the mode to use: true = LAD (default), false = LTD)).";
+    public static final String OMSDRAINDIR_pThreads_DESCRIPTION = "The number of threads to use (default 1).";
     public static final String OMSDRAINDIR_outFlow_DESCRIPTION = "The map of drainage directions.";
     public static final String OMSDRAINDIR_outTca_DESCRIPTION = "The map of total contributing areas.";
 
@@ -136,6 +146,15 @@ public class OmsDrainDir extends HMModel {
     private double yRes;
     private double dxySqrt;
 
+    /*
+     * the maximum slope data of the cells, precalculated in parallel
+     */
+    private static final byte SLOPE_NOT_CALCULATED = -2;
+    private static final byte NO_TRIANGLE = -1;
+    private double[] maxSlopes;
+    private double[] maxSlopeDirections;
+    private byte[] maxSlopeTriangles;
+
     /**
      * Calculates new drainage directions
      * 
@@ -160,30 +179,44 @@ public class OmsDrainDir extends HMModel {
         RenderedImage flowRI = inFlow.getRenderedImage();
         WritableRaster flowWR = CoverageUtilities.renderedImage2ShortWritableRaster(flowRI, true);
 
-        RandomIter pitRandomIter = RandomIterFactory.create(pitfillerWR, null);
-
         // create new matrix
         double[] orderedelev = new double[cols * rows];
         int[] indexes = new int[cols * rows];
 
-        int nelev = 0;
-        for( int r = 0; r < rows; r++ ) {
-            if (pm.isCanceled()) {
-                return;
-            }
-            for( int c = 0; c < cols; c++ ) {
-                double pitValue = pitRandomIter.getSampleDouble(c, r, 0);
-                int pos = (r * cols) + c;
-                orderedelev[pos] = pitValue;
-                indexes[pos] = pos + 1;
-                if (!isNovalue(pitValue)) {
-                    nelev = nelev + 1;
-                }
+        // the valid cells are counted per tile and summed after the join
+        List<int[]> tilesValidCounts = Collections.synchronizedList(new ArrayList<>());
+        processGrid(cols, rows, false, () -> {
+            int[] validCount = new int[1];
+            tilesValidCounts.add(validCount);
+            return validCount;
+        }, ( validCount, c, r ) -> {
+            double pitValue = pitfillerWR.getSampleDouble(c, r, 0);
+            int pos = (r * cols) + c;
+            orderedelev[pos] = pitValue;
+            indexes[pos] = pos + 1;
+            if (!isNovalue(pitValue)) {
+                validCount[0]++;
             }
+        });
+        if (pm.isCanceled()) {
+            return;
+        }
+        int nelev = 0;
+        for( int[] validCount : tilesValidCounts ) {
+            nelev += validCount[0];
         }
 
+        // the parallel sort gives the same order, also for equal elevations
         QuickSortAlgorithm t = new QuickSortAlgorithm(pm);
-        t.sort(orderedelev, indexes);
+        t.sort(orderedelev, indexes, pThreads);
+        if (pm.isCanceled()) {
+            return;
+        }
+
+        precalculateMaximumSlopes(pitfillerWR, flowWR);
+        if (pm.isCanceled()) {
+            return;
+        }
 
         pm.message(msg.message("draindir.initializematrix"));
 
@@ -207,6 +240,9 @@ public class OmsDrainDir extends HMModel {
                 newDirections(pitfillerWR, dirWR);
             }
         }
+        maxSlopes = null;
+        maxSlopeDirections = null;
+        maxSlopeTriangles = null;
         if (pm.isCanceled()) {
             return;
         }
@@ -214,6 +250,54 @@ public class OmsDrainDir extends HMModel {
         outTca = CoverageUtilities.buildCoverage("tca", tcaWR, regionMap, inPit.getCoordinateReferenceSystem());
     }
 
+    @Override
+    protected ExecutionPlanner createDefaultPlanner() {
+        return createPlanner(pThreads);
+    }
+
+    /**
+     * Calculates the maximum slope of the triangles of every valid cell not on the border. 
+     * 
+     * <p>The slopes only depend on the elevations, so they are calculated in parallel
+     * before the drainage directions, which need to follow the order of the elevations.</p>
+     */
+    private void precalculateMaximumSlopes( WritableRaster pitWR, WritableRaster flowWR ) throws Exception {
+        maxSlopes = new double[cols * rows];
+        maxSlopeDirections = new double[cols * rows];
+        maxSlopeTriangles = new byte[cols * rows];
+        Arrays.fill(maxSlopeTriangles, SLOPE_NOT_CALCULATED);
+
+        processGrid(cols, rows, true, ( col, row ) -> {
+            double elev = pitWR.getSampleDouble(col, row, 0);
+            if (isNovalue(elev) || isNovalue(flowWR.getSample(col, row, 0))) {
+                return;
+            }
+            double[] maxSlopeData = new double[10];
+            maxSlopeData[3] = elev;
+            double pendmax = 0f;
+            double dirmax = 0f;
+            byte triangle = NO_TRIANGLE;
+            for( int j = 0; j <= 7; j++ ) {
+                int n = tri[j][0];
+                int m = tri[j][1];
+                maxSlopeData[4] = pitWR.getSampleDouble(col + order[n][1], row + order[n][0], 0);
+                maxSlopeData[5] = pitWR.getSampleDouble(col + order[m][1], row + order[m][0], 0);
+                if (!isNovalue(maxSlopeData[4]) && !isNovalue(maxSlopeData[5])) {
+                    calculateMaxSlopeAndDirection4Triangles(maxSlopeData);
+                    if (maxSlopeData[1] > pendmax) {
+                        dirmax = maxSlopeData[2];
+                        pendmax = maxSlopeData[1];
+                        triangle = (byte) j;
+                    }
+                }
+            }
+            int pos = row * cols + col;
+            maxSlopes[pos] = pendmax;
+            maxSlopeDirections[pos] = dirmax;
+            maxSlopeTriangles[pos] = triangle;
+        });
+    }
+
     private void orlandiniD8LAD( int[] indexes, WritableRaster deviationsWR, BitMatrix analizedMatrix, WritableRaster pitWR,
             WritableRaster flowWR, WritableRaster tcaWR, WritableRaster dirWR, int nelev ) {
         RandomIter pitRandomIter = RandomIterFactory.create(pitWR, null);
@@ -452,6 +536,25 @@ public class OmsDrainDir extends HMModel {
         tcaRandomIter.setSample(col, row, 0, 1);
         double pendmax = 0f;
         maxSlopeData[3] = pitRandomIter.getSampleDouble(col, row, 0);
+
+        int pos = row * cols + col;
+        byte triangle = maxSlopeTriangles[pos];
+        if (triangle != SLOPE_NOT_CALCULATED) {
+            maxSlopeData[1] = maxSlopes[pos];
+            maxSlopeData[2] = maxSlopeDirections[pos];
+            if (triangle != NO_TRIANGLE) {
+                n = tri[triangle][0];
+                m = tri[triangle][1];
+                maxSlopeData[7] = n;
+                maxSlopeData[8] = m;
+                maxSlopeData[9] = tri[triangle][2];
+                e1min = pitRandomIter.getSampleDouble(col + order[n][1], row + order[n][0], 0);
+                e2min = pitRandomIter.getSampleDouble(col + order[m][1], row + order[m][0], 0);
+            }
+            maxSlopeData[4] = e1min;
+            maxSlopeData[5] = e2min;
+            return maxSlopeData;
+        }
         /*
          * per ogni triangolo calcolo la pendenza massima e la direzione di
          * deflusso reale.
@@ -30,12 +30,12 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSFLOWDIRECTIONS_N
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSFLOWDIRECTIONS_STATUS;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSFLOWDIRECTIONS_inPit_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSFLOWDIRECTIONS_outFlow_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSFLOWDIRECTIONS_pThreads_DESCRIPTION;
 
 import java.awt.image.RenderedImage;
 import java.util.HashMap;
-
-import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import oms3.annotations.Author;
 import oms3.annotations.Description;
@@ -50,7 +50,8 @@ import oms3.annotations.Out;
 import oms3.annotations.Status;
 
 import org.geotools.coverage.grid.GridCoverage2D;
-import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
+import org.hortonmachine.gears.libs.modules.multiprocessing.GridMultiProcessing;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.hmachine.i18n.HortonMessageHandler;
 
@@ -62,11 +63,15 @@ import org.hortonmachine.hmachine.i18n.HortonMessageHandler;
 @Name(OMSFLOWDIRECTIONS_NAME)
 @Status(OMSFLOWDIRECTIONS_STATUS)
 @License(OMSFLOWDIRECTIONS_LICENSE)
-public class OmsFlowDirections extends HMModel {
+public class OmsFlowDirections extends GridMultiProcessing {
     @Description(OMSFLOWDIRECTIONS_inPit_DESCRIPTION)
     @In
     public GridCoverage2D inPit = null;
 
+    @Description(OMSFLOWDIRECTIONS_pThreads_DESCRIPTION)
+    @In
+    public int pThreads = 1;
+
     @Description(OMSFLOWDIRECTIONS_outFlow_DESCRIPTION)
     @Out
     public GridCoverage2D outFlow = null;
@@ -78,8 +83,6 @@ public class OmsFlowDirections extends HMModel {
      */
     public static final double FLOWNOVALUE = -1.0;
 
-    private RandomIter pitfillerIter;
-
     // the hydrologic variables
     /* define directions */
     private int[] d1 = new int[]{(int) FLOWNOVALUE, 0, -1, -1, -1, 0, 1, 1, 1};
@@ -116,8 +119,7 @@ public class OmsFlowDirections extends HMModel {
         dy = regionMap.get(CoverageUtilities.YRES);
 
         RenderedImage pitfillerRI = inPit.getRenderedImage();
-        // input iterator
-        pitfillerIter = RandomIterFactory.create(pitfillerRI, null);
+        double[] pitData = CoverageUtilities.renderedImage2RowMajorDoubleArray(pitfillerRI);
 
         i1 = 0;
         i2 = 0;
@@ -126,49 +128,57 @@ public class OmsFlowDirections extends HMModel {
 
         elevations = new double[nx][ny];
 
-        for( int i = 0; i < nx; i++ ) {
-            if (isCanceled(pm)) {
-                return;
-            }
-            for( int j = 0; j < ny; j++ ) {
-                double pitValue = pitfillerIter.getSampleDouble(i, j, 0);
-                if (!isNovalue(pitValue)) {
-                    elevations[i][j] = pitValue;
-                } else {
-                    elevations[i][j] = FLOWNOVALUE;
-                }
+        processGrid(nx, ny, ( c, r ) -> {
+            double pitValue = pitData[r * nx + c];
+            if (!isNovalue(pitValue)) {
+                elevations[c][r] = pitValue;
+            } else {
+                elevations[c][r] = FLOWNOVALUE;
             }
+        });
+        if (isCanceled(pm)) {
+            return;
         }
 
         setdfnoflood();
+        if (isCanceled(pm)) {
+            return;
+        }
 
         // it is necessary to transpose the dir matrix and than it's possible to
         // write the output
         double[][] transposedFlow = new double[dir[0].length][dir.length];
-        for( int i = 0; i < dir[0].length; i++ ) {
-            if (isCanceled(pm)) {
-                return;
-            }
-            for( int j = 0; j < dir.length; j++ ) {
-                if (dir[j][i] == 0) {
-                    return;
-                }
-                if (dir[j][i] != FLOWNOVALUE) {
-                    transposedFlow[i][j] = dir[j][i];
-                } else {
-                    transposedFlow[i][j] = doubleNovalue;
-                }
+        AtomicBoolean hasUnsetDirections = new AtomicBoolean(false);
+        processGrid(nx, ny, ( c, r ) -> {
+            if (dir[c][r] == 0) {
+                hasUnsetDirections.set(true);
+            } else if (dir[c][r] != FLOWNOVALUE) {
+                transposedFlow[r][c] = dir[c][r];
+            } else {
+                transposedFlow[r][c] = doubleNovalue;
             }
+        });
+        if (isCanceled(pm) || hasUnsetDirections.get()) {
+            return;
         }
 
         outFlow = CoverageUtilities.buildCoverage("flowdirections", transposedFlow, regionMap,
                 inPit.getCoordinateReferenceSystem(), true);
     }
 
+    @Override
+    protected ExecutionPlanner createDefaultPlanner() {
+        return createPlanner(pThreads);
+    }
+
     /**
+     * Sets the directions and resolves the flats.
      * 
+     * <p>The passes that only write the cell being processed run in parallel, 
+     * the ones that depend on the processing order stay sequential, so that the 
+     * result does not depend on the number of threads.</p>
      */
-    private void setdfnoflood() {
+    private void setdfnoflood() throws Exception {
         int n;
         double[] fact = new double[9];
 
@@ -188,24 +198,15 @@ public class OmsFlowDirections extends HMModel {
         }
         pm.message(msg.message("flow.initpointers"));
         /* initialize internal pointers */
-        for( int col = (i2 + 1); col < (n2 - 1); col++ ) {
-            if (isCanceled(pm)) {
-                return;
-            }
-            for( int row = (i1 + 1); row < (n1 - 1); row++ ) {
-
-                if (doesntTouchNovalue(col, row)) {
-                    dir[row][col] = 0;
-                } else {
-                    dir[row][col] = -1;
-                }
-
-                // if (elevations[row][col] <= FLOWNOVALUE) {
-                // dir[row][col] = -1;
-                // } else {
-                // dir[row][col] = 0;
-                // }
+        processGrid(nx, ny, true, ( row, col ) -> {
+            if (doesntTouchNovalue(col, row)) {
+                dir[row][col] = 0;
+            } else {
+                dir[row][col] = -1;
             }
+        });
+        if (isCanceled(pm)) {
+            return;
         }
 
         /* Direction factors */
@@ -236,23 +237,25 @@ public class OmsFlowDirections extends HMModel {
         }
 
         pm.message(msg.message("flow.setpos"));
-        /* Set positive slope directions */
-        n = 0;
-        for( int i = (i2 + 1); i < (n2 - 1); i++ ) {
-            if (isCanceled(pm)) {
-                return;
-            }
-            for( int j = (i1 + 1); j < (n1 - 1); j++ ) {
-                if (dir[j][i] == 0) {
-                    if (elevations[j][i] > FLOWNOVALUE) {
-                        set(i, j, fact);
-                        if (dir[j][i] == 0) {
-                            n++;
-                        }
+        /*
+         * Set positive slope directions. Every cell only reads its own direction, so
+         * the cells are independent.
+         */
+        AtomicInteger unresolvedCount = new AtomicInteger();
+        processGrid(nx, ny, true, ( j, i ) -> {
+            if (dir[j][i] == 0) {
+                if (elevations[j][i] > FLOWNOVALUE) {
+                    set(i, j, fact);
+                    if (dir[j][i] == 0) {
+                        unresolvedCount.incrementAndGet();
                     }
                 }
             }
+        });
+        if (isCanceled(pm)) {
+            return;
         }
+        n = unresolvedCount.get();
 
         pm.message(msg.message("flow.solveflats"));
         /*
@@ -313,6 +316,18 @@ public class OmsFlowDirections extends HMModel {
         }
     }
 
+    /**
+     * Processes the cells of the flats stack, in parallel if more threads are used.
+     */
+    private void processStack( int n, StackCalculator calculator ) throws Exception {
+        processGrid(n, 1, ( ip, r ) -> calculator.calculate(ip));
+    }
+
+    @FunctionalInterface
+    private interface StackCalculator {
+        void calculate( int ip ) throws Exception;
+    }
+
     private boolean doesntTouchNovalue( int col, int row ) {
         int rows = elevations.length;
         int cols = elevations[0].length;
@@ -331,28 +346,39 @@ public class OmsFlowDirections extends HMModel {
     }
 
     private void flatrout( int n, int[] sloc, int[] s, int[][] spos, int iter, double[] elev1, double[] elev2, double[] fact,
-            int ns ) {
+            int ns ) throws Exception {
         int nu, ipp;
         int[] sloc2;
         double[] elev3;
 
         incfall(n, elev1, s, spos, iter, sloc);
+        if (isCanceled(pm)) {
+            return;
+        }
         for( int ip = 0; ip < n; ip++ ) {
             elev2[sloc[ip]] = (s[sloc[ip]]);
             s[sloc[ip]] = 0; /* Initialize for pass 2 */
         }
 
         incrise(n, elev1, s, spos, iter, sloc);
+        if (isCanceled(pm)) {
+            return;
+        }
         for( int ip = 0; ip < n; ip++ ) {
             elev2[sloc[ip]] += (s[sloc[ip]]);
         }
 
-        nu = 0;
-        for( int ip = 0; ip < n; ip++ ) {
-            set2(is[sloc[ip]], js[sloc[ip]], fact, elev1, elev2, iter, spos, s);
+        AtomicInteger unresolvedCount = new AtomicInteger();
+        int currentIter = iter;
+        processStack(n, ip -> {
+            set2(is[sloc[ip]], js[sloc[ip]], fact, elev1, elev2, currentIter, spos, s);
             if (dir[js[sloc[ip]]][is[sloc[ip]]] == 0)
-                nu++;
+                unresolvedCount.incrementAndGet();
+        });
+        if (isCanceled(pm)) {
+            return;
         }
+        nu = unresolvedCount.get();
 
         if (nu > 0) {
             /* Iterate Recursively */
@@ -457,26 +483,25 @@ public class OmsFlowDirections extends HMModel {
      * @param iter
      * @param sloc
      */
-    private void incrise( int n, double[] elev1, int[] s2, int[][] spos, int iter, int[] sloc ) {
+    private void incrise( int n, double[] elev1, int[] s2, int[][] spos, int iter, int[] sloc ) throws Exception {
         /*
          * This routine implements stage 2 drainage away from higher ground dn is used to flag
          * pixels still being incremented
          */
-        int done = 0, ninc, nincold, spn;
-        double ed;
-        int i, j, in, jn;
+        int done = 0, ninc, nincold;
         nincold = 0;
 
         while( done < 1 ) {
             if (isCanceled(pm)) {
                 return;
             }
-            done = 1;
-            ninc = 0;
-            for( int ip = 0; ip < n; ip++ ) {
-                if (isCanceled(pm)) {
-                    return;
-                }
+            /*
+             * s2 is only read in the first pass and only written in the second, so the
+             * flat cells are independent within each pass.
+             */
+            processStack(n, ip -> {
+                int i, j, in, jn, spn;
+                double ed;
                 for( int k = 1; k <= 8; k++ ) {
                     j = js[sloc[ip]];
                     i = is[sloc[ip]];
@@ -498,20 +523,25 @@ public class OmsFlowDirections extends HMModel {
                         }
                     }
                 }
-            }
-            for( int ip = 0; ip < n; ip++ ) {
-                if (isCanceled(pm)) {
-                    return;
-                }
+            });
+            AtomicInteger incremented = new AtomicInteger();
+            AtomicBoolean notIncremented = new AtomicBoolean(false);
+            processStack(n, ip -> {
                 s2[sloc[ip]] = s2[sloc[ip]] + dn[sloc[ip]];
-                ninc = ninc + dn[sloc[ip]];
                 if (dn[sloc[ip]] == 0) {
-                    done = 0; /*
-                                 * if still some not being incremented continue looping
-                                 */
+                    notIncremented.set(true);
+                } else {
+                    incremented.addAndGet(dn[sloc[ip]]);
                 }
-
+            });
+            if (isCanceled(pm)) {
+                return;
             }
+            ninc = incremented.get();
+            /*
+             * if still some not being incremented continue looping
+             */
+            done = notIncremented.get() ? 0 : 1;
             // printf("incrise %d %d\n",ninc,n);
             if (ninc == nincold) {
                 done = 1;
@@ -532,90 +562,53 @@ public class OmsFlowDirections extends HMModel {
      * @param iter
      * @param sloc
      */
-    private void incfall( int n, double[] elev1, int[] s1, int[][] spos, int iter, int[] sloc ) {
+    private void incfall( int n, double[] elev1, int[] s1, int[][] spos, int iter, int[] sloc ) throws Exception {
         /* This routine implements drainage towards lower areas - stage 1 */
-        int done = 0, donothing, ninc, nincold, spn;
-        int st = 1, i, j, in, jn;
-        double ed;
+        int done = 0, ninc, nincold;
+        int st = 1;
         nincold = -1;
 
         while( done < 1 ) {
             if (isCanceled(pm)) {
                 return;
             }
-            done = 1;
-            ninc = 0;
-            for( int ip = 0; ip < n; ip++ ) {
+            /*
+             * The cells still being incremented all have s1 == st, the others are frozen
+             * below st. Incrementing a cell during the pass does not change the s1 < st
+             * test of its neighbours, so the flat cells are independent.
+             */
+            int stage = st;
+            AtomicInteger incremented = new AtomicInteger();
+            processStack(n, ip -> {
                 /*
                  * if adjacent to same level or lower that drains or adjacent to pixel with s1 < st
                  * and dir not set do nothing
                  */
-                donothing = 0;
-                j = js[sloc[ip]];
-                i = is[sloc[ip]];
-                for( int k = 1; k <= 8; k++ ) {
-                    jn = j + d2[k];
-                    in = i + d1[k];
-                    spn = spos[jn][in];
-                    if (iter <= 1) {
-                        ed = elevations[j][i] - elevations[jn][in];
-                    } else {
-                        ed = elev1[sloc[ip]] - elev1[spn];
-                    }
-                    if (ed >= 0. && dir[jn][in] != 0)
-                        donothing = 1; /* If neighbor drains */
-                    if (spn >= 0) /* if neighbor is in flat */
-                    {
-                        /* If neighbor is not being */
-                        if (s1[spn] >= 0 && s1[spn] < st && dir[jn][in] == 0) {
-                            donothing = 1; /* Incremented */
-                        }
-                    }
-                }
-
-                if (donothing == 0) {
-                    s1[sloc[ip]]++;
-                    ninc++;
-                    done = 0;
+                if (doesNothing(ip, elev1, s1, spos, iter, sloc, stage)) {
+                    return;
                 }
-            } /* End of loop over all flats */
+                s1[sloc[ip]]++;
+                incremented.incrementAndGet();
+            }); /* End of loop over all flats */
+            if (isCanceled(pm)) {
+                return;
+            }
+            ninc = incremented.get();
+            done = ninc > 0 ? 0 : 1;
             st = st + 1;
             // printf("Incfall %d %d \n",ninc,n);
             if (ninc == nincold) {
                 done = 1;
                 // printf("There are pits remaining, direction will not be
                 // set\n");
-                /* Set the direction of these pits to 19 to flag them */
+                /*
+                 * Set the direction of these pits to 19 to flag them. This changes the
+                 * directions read by the following cells, so it stays sequential.
+                 */
                 for( int ip = 0; ip < n; ip++ ) /* loop 2 over all flats */
                 {
-                    /*
-                     * if adjacent to same level or lower that drains or adjacent to pixel with s1 <
-                     * st and dir not set do nothing
-                     */
-                    donothing = 0;
-                    j = js[sloc[ip]];
-                    i = is[sloc[ip]];
-                    for( int k = 1; k <= 8; k++ ) {
-                        jn = j + d2[k];
-                        in = i + d1[k];
-                        spn = spos[jn][in];
-                        if (iter <= 1) {
-                            ed = elevations[j][i] - elevations[jn][in];
-                        } else {
-                            ed = elev1[sloc[ip]] - elev1[spn];
-                        }
-                        if (ed >= 0. && dir[jn][in] != 0)
-                            donothing = 1; /* If neighbor drains */
-                        if (spn >= 0) /* if neighbor is in flat */
-                        {
-                            /* If neighbor is not being */
-                            if (s1[spn] >= 0 && s1[spn] < st && dir[jn][in] == 0)
-                                donothing = 1; /* Incremented */
-                        }
-                    }
-                    if (donothing == 0) {
-                        dir[j][i] = 19;
-                        /* printf("%d %d\n",i,j); */
+                    if (!doesNothing(ip, elev1, s1, spos, iter, sloc, st)) {
+                        dir[js[sloc[ip]]][is[sloc[ip]]] = 19;
                     }
                 } /* End of loop 2 over all flats */
             }
@@ -624,6 +617,37 @@ public class OmsFlowDirections extends HMModel {
 
     }
 
+    /**
+     * Checks if a flat cell is adjacent to same level or lower that drains or adjacent 
+     * to pixel with s1 < st and dir not set.
+     */
+    private boolean doesNothing( int ip, double[] elev1, int[] s1, int[][] spos, int iter, int[] sloc, int st ) {
+        boolean donothing = false;
+        int j = js[sloc[ip]];
+        int i = is[sloc[ip]];
+        for( int k = 1; k <= 8; k++ ) {
+            int jn = j + d2[k];
+            int in = i + d1[k];
+            int spn = spos[jn][in];
+            double ed;
+            if (iter <= 1) {
+                ed = elevations[j][i] - elevations[jn][in];
+            } else {
+                ed = elev1[sloc[ip]] - elev1[spn];
+            }
+            if (ed >= 0. && dir[jn][in] != 0)
+                donothing = true; /* If neighbor drains */
+            if (spn >= 0) /* if neighbor is in flat */
+            {
+                /* If neighbor is not being */
+                if (s1[spn] >= 0 && s1[spn] < st && dir[jn][in] == 0) {
+                    donothing = true; /* Incremented */
+                }
+            }
+        }
+        return donothing;
+    }
+
     /**
      * @param i
      * @param j
@@ -39,6 +39,7 @@ import oms3.annotations.Unit;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModelIM;
+import org.hortonmachine.gears.libs.modules.ImageMosaicTile;
 import org.hortonmachine.gears.utils.colors.EColorTables;
 import org.opengis.referencing.operation.TransformException;
 
@@ -64,6 +65,10 @@ public class OmsGeomorphonIM extends HMModelIM {
     @In
     public double pThreshold = 1;
 
+    @Description("The number of tiles to process in parallel.")
+    @In
+    public int pThreads = 1;
+
     @Description("Output categories raster.")
     @Out
     public String outRaster;
@@ -85,7 +90,7 @@ public class OmsGeomorphonIM extends HMModelIM {
         cellBuffer = (int) ceil(pRadius / max(xRes, yRes));
         pm.message("Using a cell buffer of: " + cellBuffer);
 
-        processByTileCells();
+        processByTileCells(pThreads);
 
         makeMosaic();
         makeStyle(EColorTables.geomorphon, 1000, 1008);
@@ -94,13 +99,12 @@ public class OmsGeomorphonIM extends HMModelIM {
     }
 
     @Override
-    protected void processCell( int readCol, int readRow, int writeCol, int writeRow, int readCols, int readRows, int writeCols,
-            int writeRows ) {
+    protected void processCell( ImageMosaicTile tile, int readCol, int readRow, int writeCol, int writeRow ) {
         try {
-            RandomIter elevIter = inRasterIterators.get(0);
-            double classification = OmsGeomorphon.calculateGeomorphon(elevIter, readGridGeometry, pRadius, pThreshold,
+            RandomIter elevIter = tile.getInRasterIterator(0);
+            double classification = OmsGeomorphon.calculateGeomorphon(elevIter, tile.getReadGridGeometry(), pRadius, pThreshold,
                     diagonalDelta, readCol, readRow);
-            WritableRandomIter outDataIter = outRasterIterators.get(0);
+            WritableRandomIter outDataIter = tile.getOutRasterIterator(0);
             outDataIter.setSample(writeCol, writeRow, 0, classification);
         } catch (TransformException e) {
             e.printStackTrace();
@@ -35,6 +35,7 @@ import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.WritableRandomIter;
 
 import org.hortonmachine.gears.libs.modules.HMModelIM;
+import org.hortonmachine.gears.libs.modules.ImageMosaicTile;
 import org.hortonmachine.gears.utils.colors.EColorTables;
 
 import oms3.annotations.Author;
@@ -70,6 +71,10 @@ public class OmsGradientIM extends HMModelIM {
     @In
     public boolean doDegrees = false;
 
+    @Description("The number of tiles to process in parallel.")
+    @In
+    public int pThreads = 1;
+
     @Description(OMSGRADIENT_outSlope_DESCRIPTION)
     @Out
     public String outSlope = null;
@@ -90,7 +95,7 @@ public class OmsGradientIM extends HMModelIM {
         addSource(new File(inElev));
         addDestination(new File(outSlope));
 
-        processByTileCells();
+        processByTileCells(pThreads);
 
         makeMosaic();
         makeStyle(EColorTables.extrainbow, 0, 1);
@@ -99,9 +104,8 @@ public class OmsGradientIM extends HMModelIM {
     }
 
     @Override
-    protected void processCell( int readCol, int readRow, int writeCol, int writeRow, int readCols, int readRows, int writeCols,
-            int writeRows ) {
-        RandomIter elevIter = inRasterIterators.get(0);
+    protected void processCell( ImageMosaicTile tile, int readCol, int readRow, int writeCol, int writeRow ) {
+        RandomIter elevIter = tile.getInRasterIterator(0);
         double gradient;
         switch( pMode ) {
         case 1:
@@ -114,7 +118,7 @@ public class OmsGradientIM extends HMModelIM {
             gradient = OmsGradient.doGradientDiffOnCell(elevIter, readCol, readRow, xRes, yRes, doDegrees);
             break;
         }
-        WritableRandomIter outDataIter = outRasterIterators.get(0);
+        WritableRandomIter outDataIter = tile.getOutRasterIterator(0);
         outDataIter.setSample(writeCol, writeRow, 0, gradient);
     }
 
@@ -18,10 +18,6 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSMULTITCA_outMult
 import java.awt.image.WritableRaster;
 import java.util.HashMap;
 
-import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
-import javax.media.jai.iterator.WritableRandomIter;
-
 import oms3.annotations.Author;
 import oms3.annotations.Description;
 import oms3.annotations.Documentation;
@@ -35,11 +31,11 @@ import oms3.annotations.Out;
 import oms3.annotations.Status;
 
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.libs.modules.FlowAccumulationEngine;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
 import org.hortonmachine.gears.libs.modules.ModelsSupporter;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
-import org.hortonmachine.gears.utils.sorting.QuickSortAlgorithm;
 
 @Description(OMSMULTITCA_DESCRIPTION)
 @Documentation(OMSMULTITCA_DOCUMENTATION)
@@ -68,8 +64,6 @@ public class OmsMultiTca extends HMModel {
 
     // the flow direction.
     private int[][] dir = ModelsSupporter.DIR_WITHFLOW_EXITING;
-    // the incoming flow direction.
-    private int[][] dirIn = ModelsSupporter.DIR_WITHFLOW_ENTERING;
 
     @Execute
     public void process() {
@@ -80,208 +74,93 @@ public class OmsMultiTca extends HMModel {
         HashMap<String, Double> regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(inFlow);
         int cols = regionMap.get(CoverageUtilities.COLS).intValue();
         int rows = regionMap.get(CoverageUtilities.ROWS).intValue();
-        // pm.message();
-
-        @SuppressWarnings("unused")
-        int ipos, jpos, i, j, ncicli = 0;
-        double sum, delta, pos;
-
-        // create new matrix
-        double[] elevationArray = new double[cols * rows];
-        double[] indexOfElevation = new double[cols * rows];
-
-        // pm.message();
 
-        RandomIter flowIter = CoverageUtilities.getRandomIterator(inFlow);
-        RandomIter pitIter = CoverageUtilities.getRandomIterator(inPit);
-        RandomIter cp9Iter = CoverageUtilities.getRandomIterator(inCp9);
-        WritableRaster alreadyDonePixelWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, 0.0);
-        WritableRandomIter alreadyDoneIter = RandomIterFactory.createWritable(alreadyDonePixelWR, null);
-        WritableRaster multiTcaWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, 1.0);
-        WritableRandomIter multiTcaIter = RandomIterFactory.createWritable(multiTcaWR, null);
-
-        /*
-         * store the value of elevation in an array
-         */
-        for( int t = 0; t < rows; t++ ) {
-            for( int s = 0; s < cols; s++ ) {
-                elevationArray[((t) * cols) + s] = pitIter.getSampleDouble(s, t, 0);
-                indexOfElevation[((t) * cols) + s] = ((t) * cols) + s + 1;
-            }
-        }
-
-        /*
-         * sorted the array of elevation.
-         */
-        // pm.message();
-        try {
-            QuickSortAlgorithm sortAlgorithm = new QuickSortAlgorithm(pm);
-            sortAlgorithm.sort(elevationArray, indexOfElevation);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        double[] pit = CoverageUtilities.renderedImage2RowMajorDoubleArray(inPit.getRenderedImage());
+        double[] flow = CoverageUtilities.renderedImage2RowMajorDoubleArray(inFlow.getRenderedImage());
+        double[] cp9 = CoverageUtilities.renderedImage2RowMajorDoubleArray(inCp9.getRenderedImage());
 
         /*
-         * start to working with the highest value of elevation.
+         * build the multiple flow graph: non convergent cells pass their value to all the
+         * lower cells proportionally to the drop and to the flat cell their flow points to,
+         * convergent cells follow the flowdirection.
          */
-        for( int l = cols * rows - 1; l >= 0; l-- ) {
-            ncicli = cols * rows - l;
-            if (elevationArray[l] <= 0) {
-                break;
-            } else {
-
-                pos = indexOfElevation[l];
-                // extract the index of the matrix from the arrays index.
-                i = (int) (pos - 1) % cols;
-                j = (int) (pos - 1) / cols;
-
-                if (alreadyDoneIter.getSampleDouble(i, j, 0) == 0.0) {
-
-                    alreadyDoneIter.setSample(i, j, 0, 1.0);
-                    if (cp9Iter.getSampleDouble(i, j, 0) == 10 || cp9Iter.getSampleDouble(i, j, 0) == 20
-                            || cp9Iter.getSampleDouble(i, j, 0) == 30 || cp9Iter.getSampleDouble(i, j, 0) == 40
-                            || cp9Iter.getSampleDouble(i, j, 0) == 50 || cp9Iter.getSampleDouble(i, j, 0) == 60) {
-                        sum = 0;
-                        for( int k = 1; k <= 8; k++ ) {
-                            ipos = i + dir[k][0];
-                            jpos = j + dir[k][1];
-                            delta = pitIter.getSampleDouble(i, j, 0) - pitIter.getSampleDouble(ipos, jpos, 0);
-                            if (delta == 0) {
-                                if (alreadyDoneIter.getSampleDouble(ipos, jpos, 0) == 0.0
-                                        && flowIter.getSampleDouble(ipos, jpos, 0) == dirIn[k][2]) {
-                                    resolveFlat(ipos, jpos, cols, rows, pitIter, multiTcaIter, alreadyDoneIter, flowIter, cp9Iter);
-                                }
-                            }
-                            if (delta > 0.0 && pitIter.getSampleDouble(ipos, jpos, 0) > 0.0) {
-                                sum += delta;
-                            }
+        int size = cols * rows;
+        int[] edgeStart = new int[size + 1];
+        int[] edgeTargets = new int[size * 8];
+        double[] edgeFractions = new double[size * 8];
+        double[] weights = new double[size];
+        int edges = 0;
+        pm.beginTask("Building the multiple flow graph...", rows);
+        for( int j = 0; j < rows; j++ ) {
+            for( int i = 0; i < cols; i++ ) {
+                int index = j * cols + i;
+                edgeStart[index] = edges;
+                weights[index] = isNovalue(cp9[index]) || isNovalue(flow[index]) ? HMConstants.doubleNovalue : 1.0;
+                double elevation = pit[index];
+                if (!(elevation > 0)) {
+                    continue;
+                }
+                if (isNonConvergent(cp9[index])) {
+                    double sum = 0;
+                    for( int k = 1; k <= 8; k++ ) {
+                        int downIndex = neighbourIndex(i, j, k, cols, rows);
+                        if (downIndex != -1 && pit[downIndex] > 0.0 && elevation - pit[downIndex] > 0.0) {
+                            sum += elevation - pit[downIndex];
                         }
-                        for( int k = 1; k <= 8; k++ ) {
-                            ipos = i + dir[k][0];
-                            jpos = j + dir[k][1];
-                            delta = pitIter.getSampleDouble(i, j, 0) - pitIter.getSampleDouble(ipos, jpos, 0);
-                            if (delta > 0.0 && pitIter.getSampleDouble(ipos, jpos, 0) > 0.0) {
-                                multiTcaIter.setSample(ipos, jpos, 0,
-                                        multiTcaIter.getSampleDouble(ipos, jpos, 0) + multiTcaIter.getSampleDouble(i, j, 0)
-                                                * (delta / sum));
-                            } else if (delta == 0.0 && flowIter.getSampleDouble(i, j, 0) == dirIn[k][2]) {
-                                multiTcaIter.setSample(ipos, jpos, 0,
-                                        multiTcaIter.getSampleDouble(ipos, jpos, 0) + multiTcaIter.getSampleDouble(i, j, 0));
-                            }
+                    }
+                    for( int k = 1; k <= 8; k++ ) {
+                        int downIndex = neighbourIndex(i, j, k, cols, rows);
+                        if (downIndex == -1) {
+                            continue;
                         }
-
-                    } else if (cp9Iter.getSampleDouble(i, j, 0) == 70 || cp9Iter.getSampleDouble(i, j, 0) == 80
-                            || cp9Iter.getSampleDouble(i, j, 0) == 90) {
-                        for( int k = 1; k <= 8; k++ ) {
-                            ipos = i + dir[k][0];
-                            jpos = j + dir[k][1];
-                            double delta2 = pitIter.getSampleDouble(i, j, 0) - pitIter.getSampleDouble(ipos, jpos, 0);
-                            if (delta2 == 0) {
-                                if (alreadyDoneIter.getSampleDouble(ipos, jpos, 0) == 0.0
-                                        && flowIter.getSampleDouble(ipos, jpos, 0) == dirIn[k][2]) {
-
-                                    resolveFlat(ipos, jpos, cols, rows, pitIter, multiTcaIter, alreadyDoneIter, flowIter, cp9Iter);
-                                }
-                            }
+                        double delta = elevation - pit[downIndex];
+                        if (delta > 0.0 && pit[downIndex] > 0.0) {
+                            edgeTargets[edges] = downIndex;
+                            edgeFractions[edges++] = delta / sum;
+                        } else if (delta == 0.0 && flow[index] == dir[k][2]) {
+                            edgeTargets[edges] = downIndex;
+                            edgeFractions[edges++] = 1.0;
                         }
-                        for( int k = 1; k <= 8; k++ ) {
-                            ipos = i + dir[k][0];
-                            jpos = j + dir[k][1];
-                            if (flowIter.getSampleDouble(i, j, 0) != 10 && flowIter.getSampleDouble(i, j, 0) == dir[k][2]) {
-
-                                multiTcaIter.setSample(ipos, jpos, 0,
-                                        multiTcaIter.getSampleDouble(ipos, jpos, 0) + multiTcaIter.getSampleDouble(i, j, 0));
-                                break;
+                    }
+                } else if (isConvergent(cp9[index]) && flow[index] != 10) {
+                    for( int k = 1; k <= 8; k++ ) {
+                        if (flow[index] == dir[k][2]) {
+                            int downIndex = neighbourIndex(i, j, k, cols, rows);
+                            if (downIndex != -1) {
+                                edgeTargets[edges] = downIndex;
+                                edgeFractions[edges++] = 1.0;
                             }
+                            break;
                         }
                     }
-
                 }
-
-            }
-        }
-        for( int t = 0; t < rows; t++ ) {
-            for( int s = 0; s < cols; s++ ) {
-                if (isNovalue(cp9Iter.getSampleDouble(s, t, 0)) || isNovalue(flowIter.getSampleDouble(s, t, 0)))
-                    multiTcaIter.setSample(s, t, 0, HMConstants.doubleNovalue);
             }
+            pm.worked(1);
         }
+        pm.done();
+        edgeStart[size] = edges;
 
-        outMultiTca = CoverageUtilities.buildCoverage("multiTca", multiTcaWR, regionMap, inFlow.getCoordinateReferenceSystem());
+        double[] multiTca = FlowAccumulationEngine.accumulateMultiple(edgeStart, edgeTargets, edgeFractions, weights);
+        addProcessedElements(size);
 
+        WritableRaster multiTcaWR = CoverageUtilities.rowMajorDoubleArray2WritableRaster(multiTca, cols, rows);
+        outMultiTca = CoverageUtilities.buildCoverage("multiTca", multiTcaWR, regionMap, inFlow.getCoordinateReferenceSystem());
     }
-    private int resolveFlat( int ipos, int jpos, int cols, int rows, RandomIter pitRandomIter,
-            WritableRandomIter multitcaRandomIter, WritableRandomIter segnaRandomIter, RandomIter flowRandomIter,
-            RandomIter cp3RandomIter ) {
-        double delta2 = 0;
-        double sum2 = 0;
-        int count = 0;
-
-        segnaRandomIter.setSample(ipos, jpos, 0, 1.0);
-        if (cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 10 || cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 20
-                || cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 30 || cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 40
-                || cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 50 || cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 60) {
-            for( int k = 1; k <= 8; k++ ) {
-                int ipos2 = ipos + dir[k][0];
-                int jpos2 = jpos + dir[k][1];
-                delta2 = pitRandomIter.getSampleDouble(ipos, jpos, 0) - pitRandomIter.getSampleDouble(ipos2, jpos2, 0);
-                if (delta2 == 0) {
-                    if (segnaRandomIter.getSampleDouble(ipos2, jpos2, 0) == 0.0
-                            && flowRandomIter.getSampleDouble(ipos2, jpos2, 0) == dirIn[k][2]) {
-                        resolveFlat(ipos2, jpos2, cols, rows, pitRandomIter, multitcaRandomIter, segnaRandomIter, flowRandomIter,
-                                cp3RandomIter);
-                    }
-                }
-                if (delta2 > 0.0 && pitRandomIter.getSampleDouble(ipos2, jpos2, 0) > 0.0) {
-                    sum2 += delta2;
-                }
-            }
-            for( int k = 1; k <= 8; k++ ) {
-                int ipos2 = ipos + dir[k][0];
-                int jpos2 = jpos + dir[k][1];
-                delta2 = pitRandomIter.getSampleDouble(ipos, jpos, 0) - pitRandomIter.getSampleDouble(ipos2, jpos2, 0);
-                if (delta2 > 0.0 && pitRandomIter.getSampleDouble(ipos2, jpos2, 0) > 0.0) {
-                    multitcaRandomIter.setSample(ipos2, jpos2, 0, multitcaRandomIter.getSampleDouble(ipos2, jpos2, 0)
-                            + multitcaRandomIter.getSampleDouble(ipos, jpos, 0) * (delta2 / sum2));
-                } else if (delta2 == 0.0 && flowRandomIter.getSampleDouble(ipos, jpos, 0) == dir[k][2]) {
-                    multitcaRandomIter.setSample(ipos2, jpos2, 0, multitcaRandomIter.getSampleDouble(ipos2, jpos2, 0)
-                            + multitcaRandomIter.getSampleDouble(ipos, jpos, 0));
-                }
-            }
-        } else if (cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 70 || cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 80
-                || cp3RandomIter.getSampleDouble(ipos, jpos, 0) == 90) {
 
-            for( int k = 1; k <= 8; k++ ) {
-
-                int ipos2 = ipos + dir[k][0];
-                int jpos2 = jpos + dir[k][1];
-
-                delta2 = pitRandomIter.getSampleDouble(ipos, jpos, 0) - pitRandomIter.getSampleDouble(ipos2, jpos2, 0);
-                if (delta2 == 0) {
-                    if (segnaRandomIter.getSampleDouble(ipos2, jpos2, 0) == 0.0
-                            && flowRandomIter.getSampleDouble(ipos2, jpos2, 0) == dirIn[k][2]) {
-                        resolveFlat(ipos2, jpos2, cols, rows, pitRandomIter, multitcaRandomIter, segnaRandomIter, flowRandomIter,
-                                cp3RandomIter);
-                    }
-                }
-
-            }
-
-            for( int k = 1; k <= 8; k++ ) {
-
-                int ipos2 = ipos + dir[k][0];
-                int jpos2 = jpos + dir[k][1];
+    private static boolean isNonConvergent( double cp9 ) {
+        return cp9 == 10 || cp9 == 20 || cp9 == 30 || cp9 == 40 || cp9 == 50 || cp9 == 60;
+    }
 
-                if (flowRandomIter.getSampleDouble(ipos, jpos, 0) != 10
-                        && flowRandomIter.getSampleDouble(ipos, jpos, 0) == dir[k][2]) {
+    private static boolean isConvergent( double cp9 ) {
+        return cp9 == 70 || cp9 == 80 || cp9 == 90;
+    }
 
-                    multitcaRandomIter.setSample(ipos2, jpos2, 0, multitcaRandomIter.getSampleDouble(ipos2, jpos2, 0)
-                            + multitcaRandomIter.getSampleDouble(ipos, jpos, 0));
-                    break;
-                }
-            }
+    private int neighbourIndex( int i, int j, int k, int cols, int rows ) {
+        int ipos = i + dir[k][0];
+        int jpos = j + dir[k][1];
+        if (ipos < 0 || ipos >= cols || jpos < 0 || jpos >= rows) {
+            return -1;
         }
-
-        return count;
+        return jpos * cols + ipos;
     }
 }
@@ -29,6 +29,7 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSLOPE_LICENSE;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSLOPE_NAME;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSLOPE_STATUS;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSLOPE_doHandleNegativeSlope_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSLOPE_doStreaming_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSLOPE_inFlow_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSLOPE_inPit_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSLOPE_outSlope_DESCRIPTION;
@@ -56,7 +57,11 @@ import oms3.annotations.Unit;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.hortonmachine.gears.libs.modules.Direction;
 import org.hortonmachine.gears.libs.modules.GridNode;
+import org.hortonmachine.gears.libs.modules.GridNodeCursor;
 import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.libs.modules.streaming.FocalWindow;
+import org.hortonmachine.gears.libs.modules.streaming.IFocalOperator;
+import org.hortonmachine.gears.libs.modules.streaming.TiledRasterPipeline;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.hmachine.i18n.HortonMessageHandler;
 
@@ -81,6 +86,10 @@ public class OmsSlope extends HMModel {
     @In
     public boolean doHandleNegativeSlope;
 
+    @Description(OMSSLOPE_doStreaming_DESCRIPTION)
+    @In
+    public boolean doStreaming = false;
+
     @Description(OMSSLOPE_outSlope_DESCRIPTION)
     @Unit("m/m")
     @Out
@@ -94,25 +103,29 @@ public class OmsSlope extends HMModel {
             return;
         }
         checkNull(inPit, inFlow);
+        if (doStreaming) {
+            TiledRasterPipeline pipeline = new TiledRasterPipeline(inPit, inFlow);
+            outSlope = pipeline.stream(new SlopeOperator(doHandleNegativeSlope), null, "slope")[0];
+            return;
+        }
         HashMap<String, Double> regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(inPit);
         int nCols = regionMap.get(CoverageUtilities.COLS).intValue();
         int nRows = regionMap.get(CoverageUtilities.ROWS).intValue();
         double xRes = regionMap.get(CoverageUtilities.XRES);
         double yRes = regionMap.get(CoverageUtilities.YRES);
 
-        RenderedImage elevationRI = inPit.getRenderedImage();
-        RandomIter elevationIter = RandomIterFactory.create(elevationRI, null);
+        double[] elevation = CoverageUtilities.renderedImage2RowMajorDoubleArray(inPit.getRenderedImage());
+        GridNodeCursor node = new GridNodeCursor(elevation, nCols, nRows, xRes, yRes);
         RenderedImage flowRI = inFlow.getRenderedImage();
         RandomIter flowIter = RandomIterFactory.create(flowRI, null);
 
         WritableRaster slopeWR = CoverageUtilities.createWritableRaster(nCols, nRows, null, null, doubleNovalue);
 
-        pm.beginTask(msg.message("slope.calculating"), nCols);
-        for( int c = 0; c < nCols; c++ ) {
-            for( int r = 0; r < nRows; r++ ) {
+        pm.beginTask(msg.message("slope.calculating"), nRows);
+        for( int r = 0; r < nRows; r++ ) {
+            for( int c = 0; c < nCols; c++ ) {
                 double flowValue = flowIter.getSampleDouble(c, r, 0);
-                GridNode node = new GridNode(elevationIter, nCols, nRows, xRes, yRes, c, r);
-                double value = calculateSlope(node, flowValue);
+                double value = calculateSlope(node.moveTo(c, r), flowValue);
                 if (doHandleNegativeSlope && value < 0) {
                     value = Double.MIN_VALUE;
                 }
@@ -133,18 +146,76 @@ public class OmsSlope extends HMModel {
      * @return
      */
     public static double calculateSlope( GridNode node, double flowValue ) {
-        double value = doubleNovalue;
-        if (!isNovalue(flowValue)) {
-            int flowDir = (int) flowValue;
-            if (flowDir != 10) {
-                Direction direction = Direction.forFlow(flowDir);
-                double distance = direction.getDistance(node.xRes, node.yRes);
-                double currentElevation = node.elevation;
-                double nextElevation = node.getElevationAt(direction);
-                value = (currentElevation - nextElevation) / distance;
+        Direction direction = getFlowDirection(flowValue);
+        if (direction == null) {
+            return doubleNovalue;
+        }
+        return calculateSlope(node.elevation, node.getElevationAt(direction), direction.getDistance(node.xRes, node.yRes));
+    }
+
+    /**
+     * Calculates the slope of a given flowdirection value in the cell the cursor is positioned on.
+     * 
+     * @param cursor the {@link GridNodeCursor} positioned on the current cell.
+     * @param flowValue the value of the flowdirection.
+     * @return the slope.
+     */
+    public static double calculateSlope( GridNodeCursor cursor, double flowValue ) {
+        Direction direction = getFlowDirection(flowValue);
+        if (direction == null) {
+            return doubleNovalue;
+        }
+        return calculateSlope(cursor.getElevation(), cursor.getElevationAt(direction),
+                direction.getDistance(cursor.getXRes(), cursor.getYRes()));
+    }
+
+    /**
+     * @param flowValue the value of the flowdirection.
+     * @return the direction of the flow or <code>null</code> for novalues and outlets.
+     */
+    private static Direction getFlowDirection( double flowValue ) {
+        if (isNovalue(flowValue)) {
+            return null;
+        }
+        int flowDir = (int) flowValue;
+        if (flowDir == 10) {
+            return null;
+        }
+        return Direction.forFlow(flowDir);
+    }
+
+    private static double calculateSlope( double elevation, double nextElevation, double distance ) {
+        return (elevation - nextElevation) / distance;
+    }
+
+    /**
+     * The slope as {@link IFocalOperator}, on the sources [pit, flow].
+     */
+    private static class SlopeOperator implements IFocalOperator {
+        private final boolean doHandleNegativeSlope;
+
+        SlopeOperator( boolean doHandleNegativeSlope ) {
+            this.doHandleNegativeSlope = doHandleNegativeSlope;
+        }
+
+        @Override
+        public int getKernelRadius() {
+            return 1;
+        }
+
+        @Override
+        public int getOutputsCount() {
+            return 1;
+        }
+
+        @Override
+        public void calculate( FocalWindow window, double[] outValues ) {
+            double value = calculateSlope(window.getCursor(0), window.getValue(1));
+            if (doHandleNegativeSlope && value < 0) {
+                value = Double.MIN_VALUE;
             }
+            outValues[0] = value;
         }
-        return value;
     }
 
 }
@@ -17,8 +17,6 @@
  */
 package org.hortonmachine.hmachine.modules.geomorphology.tca;
 
-import static org.hortonmachine.gears.libs.modules.HMConstants.doubleNovalue;
-import static org.hortonmachine.gears.libs.modules.HMConstants.isNovalue;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSTCA_AUTHORCONTACTS;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSTCA_AUTHORNAMES;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSTCA_DESCRIPTION;
@@ -31,14 +29,10 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSTCA_STATUS;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSTCA_inFlow_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSTCA_outLoop_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSTCA_outTca_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSTCA_pThreads_DESCRIPTION;
 
-import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
 
-import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
-import javax.media.jai.iterator.WritableRandomIter;
-
 import oms3.annotations.Author;
 import oms3.annotations.Description;
 import oms3.annotations.Documentation;
@@ -53,8 +47,10 @@ import oms3.annotations.Status;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.data.simple.SimpleFeatureCollection;
-import org.hortonmachine.gears.libs.modules.FlowNode;
-import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.libs.modules.FlowAccumulationEngine;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
+import org.hortonmachine.gears.libs.modules.multiprocessing.MultiProcessing;
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 
@@ -66,11 +62,15 @@ import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 @Name(OMSTCA_NAME)
 @Status(OMSTCA_STATUS)
 @License(OMSTCA_LICENSE)
-public class OmsTca extends HMModel {
+public class OmsTca extends MultiProcessing {
     @Description(OMSTCA_inFlow_DESCRIPTION)
     @In
     public GridCoverage2D inFlow = null;
 
+    @Description(OMSTCA_pThreads_DESCRIPTION)
+    @In
+    public int pThreads = 1;
+
     @Description(OMSTCA_outTca_DESCRIPTION)
     @Out
     public GridCoverage2D outTca = null;
@@ -90,46 +90,21 @@ public class OmsTca extends HMModel {
         int cols = regionMap.getCols();
         int rows = regionMap.getRows();
 
-        RenderedImage flowRI = inFlow.getRenderedImage();
-        WritableRaster tcaWR = CoverageUtilities.createWritableRaster(cols, rows, null, null, doubleNovalue);
-
-        RandomIter flowIter = RandomIterFactory.create(flowRI, null);
-        WritableRandomIter tcaIter = RandomIterFactory.createWritable(tcaWR, null);
+        int[] flow = CoverageUtilities.renderedImage2RowMajorIntArray(inFlow.getRenderedImage());
+        FlowAccumulationEngine engine = new FlowAccumulationEngine(flow, cols, rows);
 
-        pm.beginTask("Calculating tca...", rows); //$NON-NLS-1$
-        for( int r = 0; r < rows; r++ ) {
-            for( int c = 0; c < cols; c++ ) {
-                FlowNode flowNode = new FlowNode(flowIter, cols, rows, c, r);
-                if (flowNode.isSource()) {
-                    double previousTcaValue = 0.0;
-                    while( flowNode != null && flowNode.isValid() ) {
-                        int col = flowNode.col;
-                        int row = flowNode.row;
-                        double tmpTca = tcaIter.getSampleDouble(col, row, 0);
-                        double newTcaValue;
-                        /*
-                         * cumulate only if first time passing, else
-                         * just propagate 
-                         */
-                        if (isNovalue(tmpTca)) {
-                            tmpTca = 1.0;
-                            newTcaValue = tmpTca + previousTcaValue;
-                            previousTcaValue = newTcaValue;
-                        } else {
-                            newTcaValue = tmpTca + previousTcaValue;
-                        }
-                        tcaIter.setSample(col, row, 0, newTcaValue);
-                        flowNode = flowNode.goDownstream();
-                    }
-                }
-            }
-            pm.worked(1);
-        }
+        pm.beginTask("Calculating tca...", IHMProgressMonitor.UNKNOWN); //$NON-NLS-1$
+        double[] tca = engine.tca(pThreads == 1 ? null : createDefaultPlanner());
         pm.done();
-        flowIter.done();
-        tcaIter.done();
+        addProcessedElements((long) cols * rows);
+        WritableRaster tcaWR = CoverageUtilities.rowMajorDoubleArray2WritableRaster(tca, cols, rows);
 
         outTca = CoverageUtilities.buildCoverage("tca", tcaWR, regionMap, inFlow.getCoordinateReferenceSystem());
     }
 
+    @Override
+    protected ExecutionPlanner createDefaultPlanner() {
+        return createPlanner(pThreads);
+    }
+
 }
\ No newline at end of file
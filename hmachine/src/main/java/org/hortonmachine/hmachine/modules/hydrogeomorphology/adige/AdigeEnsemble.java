@@ -0,0 +1,236 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.hmachine.modules.hydrogeomorphology.adige;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.hortonmachine.gears.io.timedependent.OmsTimeSeriesIteratorReader;
+import org.hortonmachine.gears.io.timedependent.OmsTimeSeriesIteratorWriter;
+import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
+import org.hortonmachine.gears.libs.modules.multiprocessing.FixedChunkSizePlanner;
+import org.hortonmachine.gears.libs.modules.multiprocessing.InThreadExecutionPlanner;
+
+/**
+ * Runs many {@link OmsAdige} scenarios concurrently on a shared {@link AdigeNetwork}.
+ * 
+ * <p>The network topology is built once and shared read only. Every {@link Member} has its 
+ * own {@link OmsAdige} instance, with its parameters and state, its own time series readers 
+ * and its own writers, so the members only share the network.</p>
+ * 
+ * <pre>
+ * AdigeNetwork network = new AdigeNetwork(hillslopes, net, hydrometers, null, null, null, "id", pm);
+ * AdigeEnsemble ensemble = new AdigeEnsemble(network);
+ * for( ... ) {
+ *     OmsAdige adige = new OmsAdige();
+ *     adige.inDuffyInput = ...;
+ *     Member member = ensemble.addMember(adige);
+ *     member.rainReader = ...;
+ *     member.dischargeWriter = ...;
+ * }
+ * ensemble.run(threads);
+ * </pre>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class AdigeEnsemble {
+
+    private final AdigeNetwork network;
+    private final List<Member> members = new ArrayList<Member>();
+
+    /**
+     * A scenario of the ensemble.
+     * 
+     * <p>The readers are advanced together with the rain reader, the run stops when the 
+     * rain data end. The writers that are not set are skipped.</p>
+     */
+    public static class Member {
+        /** the model of the scenario. */
+        public final OmsAdige adige;
+        /** the mandatory rain data reader. */
+        public OmsTimeSeriesIteratorReader rainReader;
+        public OmsTimeSeriesIteratorReader etpReader;
+        public OmsTimeSeriesIteratorReader hydrometersReader;
+        public OmsTimeSeriesIteratorReader damsReader;
+        public OmsTimeSeriesIteratorReader tributaryReader;
+        public OmsTimeSeriesIteratorReader offtakesReader;
+        public OmsTimeSeriesIteratorWriter dischargeWriter;
+        public OmsTimeSeriesIteratorWriter subDischargeWriter;
+
+        private Member( OmsAdige adige ) {
+            this.adige = adige;
+        }
+
+        /**
+         * Runs the scenario over the whole rain time series.
+         * 
+         * <p>If not set, the start date and timestep of the model and of the writers are 
+         * taken from the rain reader.</p>
+         * 
+         * @throws Exception
+         */
+        public void run() throws Exception {
+            if (rainReader == null) {
+                throw new ModelsIllegalargumentException("The rain reader of the ensemble member is missing.", this);
+            }
+            OmsTimeSeriesIteratorReader[] readers = {rainReader, etpReader, hydrometersReader, damsReader, tributaryReader,
+                    offtakesReader};
+            try {
+                for( OmsTimeSeriesIteratorReader reader : readers ) {
+                    if (reader != null) {
+                        reader.initProcess();
+                    }
+                }
+                while( rainReader.doProcess ) {
+                    rainReader.nextRecord();
+                    if (rainReader.outData == null) {
+                        break;
+                    }
+                    adige.inRain = rainReader.outData;
+                    if (etpReader != null) {
+                        etpReader.nextRecord();
+                        adige.inEtp = etpReader.outData;
+                    }
+                    if (hydrometersReader != null) {
+                        hydrometersReader.nextRecord();
+                        adige.inHydrometerdata = hydrometersReader.outData;
+                    }
+                    if (damsReader != null) {
+                        damsReader.nextRecord();
+                        adige.inDamsdata = damsReader.outData;
+                    }
+                    if (tributaryReader != null) {
+                        tributaryReader.nextRecord();
+                        adige.inTributarydata = tributaryReader.outData;
+                    }
+                    if (offtakesReader != null) {
+                        offtakesReader.nextRecord();
+                        adige.inOfftakesdata = offtakesReader.outData;
+                    }
+
+                    if (adige.tStart == null) {
+                        adige.tStart = rainReader.tCurrent;
+                    }
+                    if (adige.tTimestep == 0) {
+                        adige.tTimestep = rainReader.tTimestep;
+                    }
+                    adige.process();
+
+                    write(dischargeWriter, adige.outDischarge);
+                    write(subDischargeWriter, adige.outSubdischarge);
+                }
+            } finally {
+                close(readers);
+            }
+        }
+
+        private void close( OmsTimeSeriesIteratorReader[] readers ) throws IOException {
+            for( OmsTimeSeriesIteratorReader reader : readers ) {
+                if (reader != null) {
+                    reader.close();
+                }
+            }
+            if (dischargeWriter != null) {
+                dischargeWriter.close();
+            }
+            if (subDischargeWriter != null) {
+                subDischargeWriter.close();
+            }
+        }
+
+        private void write( OmsTimeSeriesIteratorWriter writer, HashMap<Integer, double[]> data )
+                throws IOException {
+            if (writer == null) {
+                return;
+            }
+            if (writer.tStart == null) {
+                writer.tStart = adige.tStart;
+                writer.tTimestep = adige.tTimestep;
+            }
+            writer.inData = data;
+            writer.writeNextLine();
+        }
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param network the network shared by all the members.
+     */
+    public AdigeEnsemble( AdigeNetwork network ) {
+        this.network = network;
+    }
+
+    /**
+     * Adds a scenario to the ensemble.
+     * 
+     * @param adige the configured model of the scenario, the network is set on it.
+     * @return the member, to set the readers and writers on.
+     */
+    public Member addMember( OmsAdige adige ) {
+        adige.inAdigeNetwork = network;
+        Member member = new Member(adige);
+        members.add(member);
+        return member;
+    }
+
+    /**
+     * @return the unmodifiable list of members.
+     */
+    public List<Member> getMembers() {
+        return Collections.unmodifiableList(members);
+    }
+
+    /**
+     * Runs all the members with the given number of threads.
+     * 
+     * @param threads the number of members run at the same time.
+     * @throws Exception the exception of the first member that failed.
+     */
+    public void run( int threads ) throws Exception {
+        ExecutionPlanner planner;
+        if (threads <= 1) {
+            planner = new InThreadExecutionPlanner();
+        } else {
+            planner = new FixedChunkSizePlanner(ExecutionPlanner.createExecutor(threads));
+        }
+        run(planner);
+    }
+
+    /**
+     * Runs all the members, every member as a task of the planner.
+     * 
+     * @param planner the planner to use.
+     * @throws Exception the exception of the first member that failed.
+     */
+    public void run( ExecutionPlanner planner ) throws Exception {
+        if (members.isEmpty()) {
+            return;
+        }
+        planner.setNumberOfTasks(members.size());
+        for( Member member : members ) {
+            planner.submit(member::run);
+        }
+        planner.join();
+    }
+
+}
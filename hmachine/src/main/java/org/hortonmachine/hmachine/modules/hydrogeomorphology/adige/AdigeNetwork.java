@@ -0,0 +1,283 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.hmachine.modules.hydrogeomorphology.adige;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
+import org.hortonmachine.gears.libs.exceptions.ModelsRuntimeException;
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+import org.hortonmachine.gears.utils.features.FeatureExtender;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.Dams;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.Hydrometers;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.IDischargeContributor;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.IHillSlope;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.Offtakes;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.Tributaries;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.utils.AdigeUtilities;
+import org.hortonmachine.hmachine.modules.network.PfafstetterNumber;
+import org.hortonmachine.hmachine.modules.network.networkattributes.NetworkChannel;
+import org.opengis.feature.simple.SimpleFeature;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+
+/**
+ * The network topology used by {@link OmsAdige}: the ordered hillslopes, their indexes and 
+ * the mapping of the monitoring points (hydrometers, dams, tributaries and offtakes) on the 
+ * network.
+ * 
+ * <p>The topology is built once and is read only afterwards, so that it can be shared 
+ * by many {@link OmsAdige} instances, for example the members of an {@link AdigeEnsemble}. 
+ * The state of a run (the model parameters, the discharge contributors and their data) 
+ * stays in every single instance.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class AdigeNetwork {
+
+    private final SimpleFeatureCollection linkedNetwork;
+    private final int hillslopesCount;
+    private final List<IHillSlope> orderedHillslopes;
+    private final List<PfafstetterNumber> netPfaffsList = new ArrayList<PfafstetterNumber>();
+    private final HashMap<String, Integer> pfaff2Index = new HashMap<String, Integer>();
+    private final HashMap<Integer, Integer> basinid2Index = new HashMap<Integer, Integer>();
+    private final HashMap<Integer, Integer> index2Basinid = new HashMap<Integer, Integer>();
+
+    private HashMap<String, Integer> hydrometer_pfaff2idMap;
+    private HashMap<String, Integer> dams_pfaff2idMap;
+    private HashMap<String, Integer> tributary_pfaff2idMap;
+    private HashMap<String, Integer> offtakes_pfaff2idMap;
+
+    /**
+     * Builds the network topology.
+     * 
+     * @param inHillslope the hillslope data.
+     * @param inNetwork the network data.
+     * @param inHydrometers the hydrometers monitoring points or <code>null</code>.
+     * @param inDams the dams monitoring points or <code>null</code>.
+     * @param inTributary the tributary monitoring points or <code>null</code>.
+     * @param inOfftakes the offtakes monitoring points or <code>null</code>.
+     * @param fMonpointid the field name of the monitoring point's id attribute, needed 
+     *          if any monitoring point is supplied.
+     * @param pm the progress monitor.
+     * @throws Exception
+     */
+    public AdigeNetwork( SimpleFeatureCollection inHillslope, SimpleFeatureCollection inNetwork,
+            SimpleFeatureCollection inHydrometers, SimpleFeatureCollection inDams, SimpleFeatureCollection inTributary,
+            SimpleFeatureCollection inOfftakes, String fMonpointid, IHMProgressMonitor pm ) throws Exception {
+        linkedNetwork = linkBasinWithNetwork(inHillslope, inNetwork);
+
+        prepareMonitoringPoints(inHydrometers, inDams, inTributary, inOfftakes, fMonpointid, pm);
+
+        hillslopesCount = inHillslope.size();
+
+        orderedHillslopes = Collections.unmodifiableList(AdigeUtilities.generateHillSlopes(linkedNetwork, inHillslope, pm));
+        pm.beginTask("Analaysing hillslopes and calculating distribution curves...", orderedHillslopes.size());
+        for( int i = 0; i < orderedHillslopes.size(); i++ ) {
+            IHillSlope hillSlope = orderedHillslopes.get(i);
+            PfafstetterNumber pfafstetterNumber = hillSlope.getPfafstetterNumber();
+            netPfaffsList.add(pfafstetterNumber);
+            int hillslopeId = hillSlope.getHillslopeId();
+            basinid2Index.put(hillslopeId, i);
+            index2Basinid.put(i, hillslopeId);
+            pfaff2Index.put(pfafstetterNumber.toString(), i);
+            /*
+             * the hillslopes cache their geometric values lazily, fill 
+             * the caches before the hillslopes are shared between threads.
+             */
+            hillSlope.getHillslopeArea();
+            hillSlope.getUpstreamArea(null);
+            hillSlope.getLinkLength();
+            SimpleFeature linkFeature = hillSlope.getLinkFeature();
+            if (linkFeature.getAttribute(NetworkChannel.STARTELEVNAME) != null
+                    && linkFeature.getAttribute(NetworkChannel.ENDELEVNAME) != null) {
+                // the slope needs the link elevations, which only the duffy model requires
+                hillSlope.getLinkSlope();
+            }
+            pm.worked(1);
+        }
+        pm.done();
+    }
+
+    private SimpleFeatureCollection linkBasinWithNetwork( SimpleFeatureCollection inHillslope,
+            SimpleFeatureCollection inNetwork ) throws Exception {
+        FeatureExtender fExt = new FeatureExtender(inNetwork.getSchema(), new String[]{NetworkChannel.NETNUMNAME},
+                new Class[]{Integer.class});
+
+        DefaultFeatureCollection newCollection = new DefaultFeatureCollection();
+
+        SimpleFeatureIterator hillslopeFeatures = inHillslope.features();
+        while( hillslopeFeatures.hasNext() ) {
+            SimpleFeature hFeature = hillslopeFeatures.next();
+            Object netNum = hFeature.getAttribute(NetworkChannel.NETNUMNAME);
+            Geometry hGeometry = (Geometry) hFeature.getDefaultGeometry();
+            PreparedGeometry preparedHGeometry = PreparedGeometryFactory.prepare(hGeometry);
+            SimpleFeatureIterator netFeatures = inNetwork.features();
+            while( netFeatures.hasNext() ) {
+                SimpleFeature nFeature = netFeatures.next();
+                Geometry geometry = (Geometry) nFeature.getDefaultGeometry();
+                if (geometry.getNumGeometries() != 1) {
+                    throw new ModelsRuntimeException("The network geometries have to be single lines.", this);
+                }
+                LineString nLine = (LineString) geometry.getGeometryN(0);
+                Point startPoint = nLine.getStartPoint();
+                if (preparedHGeometry.contains(startPoint)) {
+                    SimpleFeature extendFeature = fExt.extendFeature(nFeature, new Object[]{netNum});
+                    newCollection.add(extendFeature);
+                    break;
+                }
+            }
+        }
+        return newCollection;
+    }
+
+    private void prepareMonitoringPoints( SimpleFeatureCollection inHydrometers, SimpleFeatureCollection inDams,
+            SimpleFeatureCollection inTributary, SimpleFeatureCollection inOfftakes, String fMonpointid,
+            IHMProgressMonitor pm ) {
+        if (inHydrometers != null || inDams != null || inTributary != null || inOfftakes != null) {
+            if (fMonpointid == null || fMonpointid.length() < 1) {
+                throw new ModelsIllegalargumentException("Missing monitoring point id attribute name.", this.getClass()
+                        .getSimpleName(), pm);
+            }
+        }
+
+        if (inHydrometers != null) {
+            pm.message("Reading hydrometers geometries and mapping them to the network...");
+            hydrometer_pfaff2idMap = readMonitoringPoints(inHydrometers, fMonpointid);
+        }
+        if (inDams != null) {
+            pm.message("Reading dams geometries and mapping them to the network...");
+            dams_pfaff2idMap = readMonitoringPoints(inDams, fMonpointid);
+        }
+        if (inTributary != null) {
+            pm.message("Reading tributary geometries and mapping them to the network...");
+            tributary_pfaff2idMap = readMonitoringPoints(inTributary, fMonpointid);
+        }
+        if (inOfftakes != null) {
+            pm.message("Reading offtakes geometries and mapping them to the network...");
+            offtakes_pfaff2idMap = readMonitoringPoints(inOfftakes, fMonpointid);
+        }
+    }
+
+    private HashMap<String, Integer> readMonitoringPoints( SimpleFeatureCollection monitoringPoints, String fMonpointid ) {
+        HashMap<String, Integer> pfaff2idMap = new HashMap<String, Integer>();
+        FeatureIterator<SimpleFeature> monitoringPointsIterator = monitoringPoints.features();
+        while( monitoringPointsIterator.hasNext() ) {
+            SimpleFeature monitoringPoint = monitoringPointsIterator.next();
+            String pNumberStr = (String) monitoringPoint.getAttribute(NetworkChannel.PFAFNAME);
+            int id = ((Number) monitoringPoint.getAttribute(fMonpointid)).intValue();
+            pfaff2idMap.put(pNumberStr, id);
+        }
+        return pfaff2idMap;
+    }
+
+    /**
+     * @return the network features extended with the number of the hillslope they start in.
+     */
+    public SimpleFeatureCollection getLinkedNetwork() {
+        return linkedNetwork;
+    }
+
+    /**
+     * @return the number of hillslope features.
+     */
+    public int getHillslopesCount() {
+        return hillslopesCount;
+    }
+
+    /**
+     * @return the unmodifiable list of ordered hillslopes, starting from the most downstream one.
+     */
+    public List<IHillSlope> getOrderedHillslopes() {
+        return orderedHillslopes;
+    }
+
+    /**
+     * @return the pfafstetter numbers of the ordered hillslopes.
+     */
+    public List<PfafstetterNumber> getPfafstetterNumbers() {
+        return Collections.unmodifiableList(netPfaffsList);
+    }
+
+    /**
+     * @return the read only map of pfafstetter numbers to the index of the hillslope in the ordered list.
+     */
+    public Map<String, Integer> getPfaff2Index() {
+        return Collections.unmodifiableMap(pfaff2Index);
+    }
+
+    /**
+     * @return the read only map of hillslope ids to the index of the hillslope in the ordered list.
+     */
+    public Map<Integer, Integer> getBasinid2Index() {
+        return Collections.unmodifiableMap(basinid2Index);
+    }
+
+    /**
+     * @return the read only map of the index of the hillslope in the ordered list to the hillslope id.
+     */
+    public Map<Integer, Integer> getIndex2Basinid() {
+        return Collections.unmodifiableMap(index2Basinid);
+    }
+
+    /**
+     * @return a new hydrometers contributor on the shared mapping, or <code>null</code> 
+     *          if no hydrometers were supplied.
+     */
+    public IDischargeContributor createHydrometers() {
+        return hydrometer_pfaff2idMap == null ? null : new Hydrometers(hydrometer_pfaff2idMap);
+    }
+
+    /**
+     * @return a new dams contributor on the shared mapping, or <code>null</code> 
+     *          if no dams were supplied.
+     */
+    public IDischargeContributor createDams() {
+        return dams_pfaff2idMap == null ? null : new Dams(dams_pfaff2idMap);
+    }
+
+    /**
+     * @return a new tributaries contributor on the shared mapping, or <code>null</code> 
+     *          if no tributaries were supplied.
+     */
+    public IDischargeContributor createTributaries() {
+        return tributary_pfaff2idMap == null ? null : new Tributaries(tributary_pfaff2idMap);
+    }
+
+    /**
+     * @param pm the progress monitor for the warnings.
+     * @return a new offtakes contributor on the shared mapping, or <code>null</code> 
+     *          if no offtakes were supplied.
+     */
+    public IDischargeContributor createOfftakes( IHMProgressMonitor pm ) {
+        return offtakes_pfaff2idMap == null ? null : new Offtakes(offtakes_pfaff2idMap, pm);
+    }
+
+}
@@ -67,4 +67,18 @@ public interface IAdigeEngine {
      * @return the discharge.
      */
     public HashMap<Integer, double[]> getSubDischarge();
+
+    /**
+     * Getter for the number of hillslope evaluations done in the last solved timestep.
+     * 
+     * @return the number of evaluations.
+     */
+    public long getTimestepEvaluations();
+
+    /**
+     * Getter for the throughput of the last solved timestep.
+     * 
+     * @return the hillslope evaluations per second.
+     */
+    public double getTimestepEvaluationsPerSecond();
 }
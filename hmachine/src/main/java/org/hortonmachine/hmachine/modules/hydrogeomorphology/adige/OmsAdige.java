@@ -29,6 +29,7 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSADIGE_NAME;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSADIGE_STATUS;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSADIGE_doLog_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSADIGE_fMonpointid_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSADIGE_inAdigeNetwork_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSADIGE_inDams_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSADIGE_inDamsdata_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSADIGE_inDuffyInput_DESCRIPTION;
@@ -48,6 +49,7 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSADIGE_outSubdisc
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSADIGE_pPfafids_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSADIGE_pRainduration_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSADIGE_pRainintensity_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSADIGE_pThreads_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSADIGE_tEnd_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSADIGE_tStart_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSADIGE_tTimestep_DESCRIPTION;
@@ -56,8 +58,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.function.Supplier;
 
 import oms3.annotations.Author;
 import oms3.annotations.Description;
@@ -72,37 +76,21 @@ import oms3.annotations.Status;
 import oms3.annotations.Unit;
 
 import org.geotools.data.simple.SimpleFeatureCollection;
-import org.geotools.data.simple.SimpleFeatureIterator;
-import org.geotools.feature.DefaultFeatureCollection;
-import org.geotools.feature.FeatureIterator;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
-import org.hortonmachine.gears.libs.exceptions.ModelsRuntimeException;
 import org.hortonmachine.gears.libs.modules.HMConstants;
-import org.hortonmachine.gears.libs.modules.HMModel;
-import org.hortonmachine.gears.utils.features.FeatureExtender;
-import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.Dams;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
+import org.hortonmachine.gears.libs.modules.multiprocessing.MultiProcessing;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.HillSlopeDuffy;
-import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.Hydrometers;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.IDischargeContributor;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.IHillSlope;
-import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.Offtakes;
-import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.Tributaries;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.duffy.DuffyAdigeEngine;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.duffy.DuffyInputs;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.hymod.HymodAdigeEngine;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.hymod.HymodInputs;
-import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.utils.AdigeUtilities;
 import org.hortonmachine.hmachine.modules.network.PfafstetterNumber;
-import org.hortonmachine.hmachine.modules.network.networkattributes.NetworkChannel;
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormatter;
-import org.opengis.feature.simple.SimpleFeature;
 
-import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.LineString;
-import com.vividsolutions.jts.geom.Point;
-import com.vividsolutions.jts.geom.prep.PreparedGeometry;
-import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
 
 @Description(OMSADIGE_DESCRIPTION)
 @Author(name = OMSADIGE_AUTHORNAMES, contact = OMSADIGE_AUTHORCONTACTS)
@@ -111,7 +99,7 @@ import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
 @Name(OMSADIGE_NAME)
 @Status(OMSADIGE_STATUS)
 @License(OMSADIGE_LICENSE)
-public class OmsAdige extends HMModel {
+public class OmsAdige extends MultiProcessing {
 
     @Description(OMSADIGE_inHillslope_DESCRIPTION)
     @In
@@ -177,6 +165,10 @@ public class OmsAdige extends HMModel {
     @In
     public SimpleFeatureCollection inNetwork;
 
+    @Description(OMSADIGE_inAdigeNetwork_DESCRIPTION)
+    @In
+    public AdigeNetwork inAdigeNetwork = null;
+
     @Description(OMSADIGE_inEtp_DESCRIPTION)
     @In
     public HashMap<Integer, double[]> inEtp;
@@ -185,6 +177,10 @@ public class OmsAdige extends HMModel {
     @In
     public boolean doLog = false;
 
+    @Description(OMSADIGE_pThreads_DESCRIPTION)
+    @In
+    public int pThreads = 1;
+
     @Description(OMSADIGE_tTimestep_DESCRIPTION)
     @In
     public int tTimestep = 0;
@@ -235,26 +231,22 @@ public class OmsAdige extends HMModel {
 
     // hydrometers
     private IDischargeContributor hydrometersHandler;
-    private HashMap<String, Integer> hydrometer_pfaff2idMap;
 
     // dams
     private IDischargeContributor damsHandler;
-    private HashMap<String, Integer> dams_pfaff2idMap;
 
     // tributaries
     private IDischargeContributor tributaryHandler;
-    private HashMap<String, Integer> tributary_pfaff2idMap;
 
     // offtakes
     private IDischargeContributor offtakesHandler;
-    private HashMap<String, Integer> offtakes_pfaff2idMap;
 
-    private HashMap<Integer, Integer> basinid2Index;
-    private HashMap<Integer, Integer> index2Basinid;
+    private Map<Integer, Integer> basinid2Index;
+    private Map<Integer, Integer> index2Basinid;
 
     private int hillsSlopeNum;
     private int outletHillslopeId = -1;
-    private HashMap<String, Integer> pfaff2Index;
+    private Map<String, Integer> pfaff2Index;
     private List<IHillSlope> orderedHillslopes;
 
     public static DateTimeFormatter adigeFormatter = HMConstants.utcDateFormatterYYYYMMDDHHMM;
@@ -269,7 +261,9 @@ public class OmsAdige extends HMModel {
     @SuppressWarnings("nls")
     @Execute
     public void process() throws Exception {
-        checkNull(inHillslope, inNetwork);
+        if (inAdigeNetwork == null) {
+            checkNull(inHillslope, inNetwork);
+        }
 
         if (startTimestamp == null) {
             outDischarge = new HashMap<Integer, double[]>();
@@ -291,17 +285,17 @@ public class OmsAdige extends HMModel {
                 }
             }
 
-            if (pfaffsList == null) {
-                // first time link basins with network
-                linkBasinWithNetwork();
+            if (inAdigeNetwork == null) {
+                // first time link basins with network and create the hillslopes hierarchy
+                inAdigeNetwork = new AdigeNetwork(inHillslope, inNetwork, inHydrometers, inDams, inTributary, inOfftakes,
+                        fMonpointid, pm);
             }
 
             prepareMonitoringPoints();
 
-            hillsSlopeNum = inHillslope.size();
+            hillsSlopeNum = inAdigeNetwork.getHillslopesCount();
 
-            // at the first round create the hillslopes and network hierarchy
-            orderedHillslopes = AdigeUtilities.generateHillSlopes(inNetwork, inHillslope, pm);
+            orderedHillslopes = inAdigeNetwork.getOrderedHillslopes();
             if (inDuffyInput != null) {
                 List<IHillSlope> duffyHillslopes = new ArrayList<IHillSlope>();
                 for( IHillSlope hillSlope : orderedHillslopes ) {
@@ -313,23 +307,10 @@ public class OmsAdige extends HMModel {
 
             IHillSlope outletHillSlope = orderedHillslopes.get(0);
             outletHillslopeId = outletHillSlope.getHillslopeId();
-            netPfaffsList = new ArrayList<PfafstetterNumber>();
-            pfaff2Index = new HashMap<String, Integer>();
-            basinid2Index = new HashMap<Integer, Integer>();
-            index2Basinid = new HashMap<Integer, Integer>();
-            pm.beginTask("Analaysing hillslopes and calculating distribution curves...", orderedHillslopes.size());
-            for( int i = 0; i < orderedHillslopes.size(); i++ ) {
-                IHillSlope hillSlope = orderedHillslopes.get(i);
-                PfafstetterNumber pfafstetterNumber = hillSlope.getPfafstetterNumber();
-                netPfaffsList.add(pfafstetterNumber);
-                int hillslopeId = hillSlope.getHillslopeId();
-                basinid2Index.put(hillslopeId, i);
-                index2Basinid.put(i, hillslopeId);
-                pfaff2Index.put(pfafstetterNumber.toString(), i);
-                // the distributor
-                pm.worked(1);
-            }
-            pm.done();
+            netPfaffsList = inAdigeNetwork.getPfafstetterNumbers();
+            pfaff2Index = inAdigeNetwork.getPfaff2Index();
+            basinid2Index = inAdigeNetwork.getBasinid2Index();
+            index2Basinid = inAdigeNetwork.getIndex2Basinid();
 
             if (pPfafids == null) {
                 pPfafids = outletHillSlope.getPfafstetterNumber().toString();
@@ -341,15 +322,17 @@ public class OmsAdige extends HMModel {
                 }
                 pfaffsList = Arrays.asList(split);
             }
+            // a single thread keeps the sequential hillslopes processing
+            Supplier<ExecutionPlanner> plannerFactory = pThreads == 1 ? null : this::createDefaultPlanner;
             if (inDuffyInput != null) {
                 initialConditions = new double[hillsSlopeNum * 4];
                 adigeEngine = new DuffyAdigeEngine(orderedHillslopes, inDuffyInput, pm, doLog, initialConditions, basinid2Index,
                         index2Basinid, pfaffsList, pfaff2Index, outDischarge, outSubdischarge, startTimestamp, endTimestamp,
-                        tTimestep);
+                        tTimestep, plannerFactory);
             } else if (inHymodInput != null) {
                 initialConditions = null;
                 adigeEngine = new HymodAdigeEngine(inHymodInput, orderedHillslopes, index2Basinid, outDischarge, outSubdischarge,
-                        pfaffsList, doLog, doLog, pm);
+                        pfaffsList, doLog, doLog, pm, plannerFactory);
             } else {
                 throw new ModelsIllegalargumentException("No parameters for any model were defined. Check your syntax.", this, pm);
             }
@@ -414,116 +397,27 @@ public class OmsAdige extends HMModel {
         // double intervalEndTimeInMinutes = runningDateInMinutes + tTimestep;
 
         initialConditions = adigeEngine.solve(currentTimstamp, tTimestep, 1, initialConditions, rainArray, etpArray);
+        addProcessedElements(hillsSlopeNum);
 
     }
 
-    private void linkBasinWithNetwork() throws Exception {
-        FeatureExtender fExt = new FeatureExtender(inNetwork.getSchema(), new String[]{NetworkChannel.NETNUMNAME},
-                new Class[]{Integer.class});
-
-        DefaultFeatureCollection newCollection = new DefaultFeatureCollection();
-
-        SimpleFeatureIterator hillslopeFeatures = inHillslope.features();
-        while( hillslopeFeatures.hasNext() ) {
-            SimpleFeature hFeature = hillslopeFeatures.next();
-            Object netNum = hFeature.getAttribute(NetworkChannel.NETNUMNAME);
-            Geometry hGeometry = (Geometry) hFeature.getDefaultGeometry();
-            PreparedGeometry preparedHGeometry = PreparedGeometryFactory.prepare(hGeometry);
-            SimpleFeatureIterator netFeatures = inNetwork.features();
-            while( netFeatures.hasNext() ) {
-                SimpleFeature nFeature = netFeatures.next();
-                Geometry geometry = (Geometry) nFeature.getDefaultGeometry();
-                if (geometry.getNumGeometries() != 1) {
-                    throw new ModelsRuntimeException("The network geometries have to be single lines.", this);
-                }
-                LineString nLine = (LineString) geometry.getGeometryN(0);
-                Point startPoint = nLine.getStartPoint();
-                if (preparedHGeometry.contains(startPoint)) {
-                    SimpleFeature extendFeature = fExt.extendFeature(nFeature, new Object[]{netNum});
-                    newCollection.add(extendFeature);
-                    break;
-                }
-            }
-        }
-        inNetwork = newCollection;
+    @Override
+    protected ExecutionPlanner createDefaultPlanner() {
+        return createPlanner(pThreads);
     }
 
     private void prepareMonitoringPoints() {
-        if (inHydrometers != null || inDams != null || inTributary != null || inOfftakes != null) {
-            if (fMonpointid == null || fMonpointid.length() < 1) {
-                throw new ModelsIllegalargumentException("Missing monitoring point id attribute name.", this.getClass()
-                        .getSimpleName(), pm);
-            }
+        if (inHydrometerdata != null && hydrometersHandler == null) {
+            hydrometersHandler = inAdigeNetwork.createHydrometers();
         }
-
-        // hydrometers
-        if (inHydrometers != null && inHydrometerdata != null) {
-            if (hydrometersHandler == null) {
-                pm.message("Reading hydrometers geometries and mapping them to the network...");
-                hydrometer_pfaff2idMap = new HashMap<String, Integer>();
-                hydrometersHandler = new Hydrometers(hydrometer_pfaff2idMap);
-
-                FeatureIterator<SimpleFeature> hydrometersIterator = inHydrometers.features();
-                while( hydrometersIterator.hasNext() ) {
-                    SimpleFeature hydrometer = hydrometersIterator.next();
-
-                    String pNumberStr = (String) hydrometer.getAttribute(NetworkChannel.PFAFNAME);
-                    int id = ((Number) hydrometer.getAttribute(fMonpointid)).intValue();
-                    hydrometer_pfaff2idMap.put(pNumberStr, id);
-                }
-            }
-        }
-
-        // dams
-        if (inDams != null && inDamsdata != null) {
-            if (damsHandler == null) {
-                pm.message("Reading dams geometries and mapping them to the network...");
-                dams_pfaff2idMap = new HashMap<String, Integer>();
-                damsHandler = new Dams(dams_pfaff2idMap);
-
-                FeatureIterator<SimpleFeature> damsIterator = inDams.features();
-                while( damsIterator.hasNext() ) {
-                    SimpleFeature dam = damsIterator.next();
-
-                    String pNumberStr = (String) dam.getAttribute(NetworkChannel.PFAFNAME);
-                    int id = ((Number) dam.getAttribute(fMonpointid)).intValue();
-                    dams_pfaff2idMap.put(pNumberStr, id);
-                }
-            }
+        if (inDamsdata != null && damsHandler == null) {
+            damsHandler = inAdigeNetwork.createDams();
         }
-
-        // tributary
-        if (inTributary != null && inTributarydata != null) {
-            if (tributaryHandler == null) {
-                pm.message("Reading tributary geometries and mapping them to the network...");
-                tributary_pfaff2idMap = new HashMap<String, Integer>();
-                tributaryHandler = new Tributaries(tributary_pfaff2idMap);
-
-                FeatureIterator<SimpleFeature> tributaryIterator = inTributary.features();
-                while( tributaryIterator.hasNext() ) {
-                    SimpleFeature tributary = tributaryIterator.next();
-                    String pNumberStr = (String) tributary.getAttribute(NetworkChannel.PFAFNAME);
-                    int id = ((Number) tributary.getAttribute(fMonpointid)).intValue();
-                    tributary_pfaff2idMap.put(pNumberStr, id);
-                }
-            }
+        if (inTributarydata != null && tributaryHandler == null) {
+            tributaryHandler = inAdigeNetwork.createTributaries();
         }
-
-        // offtakes
-        if (inOfftakes != null && inOfftakesdata != null) {
-            if (offtakesHandler == null) {
-                pm.message("Reading offtakes geometries and mapping them to the network...");
-                offtakes_pfaff2idMap = new HashMap<String, Integer>();
-                offtakesHandler = new Offtakes(offtakes_pfaff2idMap, pm);
-
-                FeatureIterator<SimpleFeature> offtakesIterator = inOfftakes.features();
-                while( offtakesIterator.hasNext() ) {
-                    SimpleFeature offtakes = offtakesIterator.next();
-                    String pNumberStr = (String) offtakes.getAttribute(NetworkChannel.PFAFNAME);
-                    int id = ((Number) offtakes.getAttribute(fMonpointid)).intValue();
-                    offtakes_pfaff2idMap.put(pNumberStr, id);
-                }
-            }
+        if (inOfftakesdata != null && offtakesHandler == null) {
+            offtakesHandler = inAdigeNetwork.createOfftakes(pm);
         }
     }
 
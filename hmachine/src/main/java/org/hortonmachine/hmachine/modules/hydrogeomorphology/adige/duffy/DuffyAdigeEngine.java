@@ -24,14 +24,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.function.Supplier;
 
 import org.hortonmachine.gears.io.adige.AdigeBoundaryCondition;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
 import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.IAdigeEngine;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.OmsAdige;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.HillSlopeDuffy;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.IDischargeContributor;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.IHillSlope;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.utils.HillSlopesScheduler;
 import org.joda.time.DateTime;
 
 /**
@@ -45,8 +48,8 @@ public class DuffyAdigeEngine implements IAdigeEngine {
     private DuffyModel duffyEvaluator;
     private RungeKuttaFelberg rainRunoffRaining;
     private final DuffyInputs inDuffyInput;
-    private final HashMap<Integer, Integer> index2Basinid;
-    private final HashMap<String, Integer> pfaff2Index;
+    private final Map<Integer, Integer> index2Basinid;
+    private final Map<String, Integer> pfaff2Index;
     private final List<String> pfaffsList;
     private int hillsSlopeNum;
     private final HashMap<Integer, double[]> outDischarge;
@@ -55,6 +58,8 @@ public class DuffyAdigeEngine implements IAdigeEngine {
     private final DateTime startTimestamp;
     private final int tTimestep;
     private final DateTime endTimestamp;
+    private final IHMProgressMonitor pm;
+    private final boolean doLog;
 
     /**
      * Create the Duffy engine.
@@ -79,9 +84,28 @@ public class DuffyAdigeEngine implements IAdigeEngine {
      * @param startTimestamp 
      */
     public DuffyAdigeEngine( List<IHillSlope> orderedHillslopes, DuffyInputs inDuffyInput, IHMProgressMonitor pm, boolean doLog,
-            double[] initialConditions, HashMap<Integer, Integer> basinid2Index, HashMap<Integer, Integer> index2Basinid,
-            List<String> pfaffsList, HashMap<String, Integer> pfaff2Index, HashMap<Integer, double[]> outDischarge,
+            double[] initialConditions, Map<Integer, Integer> basinid2Index, Map<Integer, Integer> index2Basinid,
+            List<String> pfaffsList, Map<String, Integer> pfaff2Index, HashMap<Integer, double[]> outDischarge,
             HashMap<Integer, double[]> outSubDischarge, DateTime startTimestamp, DateTime endTimestamp, int tTimestep ) {
+        this(orderedHillslopes, inDuffyInput, pm, doLog, initialConditions, basinid2Index, index2Basinid, pfaffsList,
+                pfaff2Index, outDischarge, outSubDischarge, startTimestamp, endTimestamp, tTimestep, null);
+    }
+
+    /**
+     * Create the Duffy engine, evaluating the independent hillslopes in parallel.
+     * 
+     * <p>The parameters are the ones of the sequential engine, plus:</p>
+     * 
+     * @param plannerFactory the factory of the planners used to evaluate the hillslopes 
+     *          of a level in parallel, or <code>null</code> for the sequential evaluation.
+     */
+    public DuffyAdigeEngine( List<IHillSlope> orderedHillslopes, DuffyInputs inDuffyInput, IHMProgressMonitor pm, boolean doLog,
+            double[] initialConditions, Map<Integer, Integer> basinid2Index, Map<Integer, Integer> index2Basinid,
+            List<String> pfaffsList, Map<String, Integer> pfaff2Index, HashMap<Integer, double[]> outDischarge,
+            HashMap<Integer, double[]> outSubDischarge, DateTime startTimestamp, DateTime endTimestamp, int tTimestep,
+            Supplier<ExecutionPlanner> plannerFactory ) {
+        this.pm = pm;
+        this.doLog = doLog;
         this.orderedHillslopes = orderedHillslopes;
         this.inDuffyInput = inDuffyInput;
         this.index2Basinid = index2Basinid;
@@ -96,7 +120,7 @@ public class DuffyAdigeEngine implements IAdigeEngine {
         inDuffyInput.outS1 = new HashMap<Integer, double[]>();
         inDuffyInput.outS2 = new HashMap<Integer, double[]>();
 
-        duffyEvaluator = new DuffyModel(orderedHillslopes, inDuffyInput.pRouting, pm, doLog);
+        duffyEvaluator = new DuffyModel(orderedHillslopes, inDuffyInput.pRouting, pm, doLog, plannerFactory);
 
         hillsSlopeNum = orderedHillslopes.size();
 
@@ -163,9 +187,12 @@ public class DuffyAdigeEngine implements IAdigeEngine {
 
     public double[] solve( DateTime currentTimstamp, int modelTimestepInMinutes, double internalTimestepInMinutes,
             double[] previousSolution, double[] rainArray, double[] etpArray ) throws IOException {
+        HillSlopesScheduler scheduler = duffyEvaluator.getScheduler();
+        scheduler.startTimestep();
         rainRunoffRaining.solve(currentTimstamp, modelTimestepInMinutes, internalTimestepInMinutes, previousSolution, rainArray,
                 etpArray);
         double[] finalCond = rainRunoffRaining.getFinalCond();
+        scheduler.endTimestep(doLog ? pm : null, "integration steps so far: " + rainRunoffRaining.getStepsCount());
 
         if (inDuffyInput.doBoundary)
             inDuffyInput.outFinalconditions = new HashMap<Integer, AdigeBoundaryCondition>();
@@ -200,6 +227,14 @@ public class DuffyAdigeEngine implements IAdigeEngine {
         return finalCond;
     }
 
+    public long getTimestepEvaluations() {
+        return duffyEvaluator.getScheduler().getTimestepEvaluations();
+    }
+
+    public double getTimestepEvaluationsPerSecond() {
+        return duffyEvaluator.getScheduler().getTimestepEvaluationsPerSecond();
+    }
+
     public HashMap<Integer, double[]> getDischarge() {
         return outDischarge;
     }
@@ -63,6 +63,16 @@ public class RungeKuttaFelberg {
     private boolean isAtFinalSubtimestep = true;
     private IHMProgressMonitor outputStream;
 
+    /*
+     * the integration buffers, allocated once and reused by every step. The solution 
+     * is double buffered, since the solution of a step is the initial condition of the next.
+     */
+    private double[] carrier;
+    private double[] k0, k1, k2, k3, k4, k5;
+    private double[] newYstar;
+    private final double[][] solutionBuffers = new double[2][];
+    private long stepsCount = 0;
+
     /**
      * Creates new RKF
      * 
@@ -94,35 +104,46 @@ public class RungeKuttaFelberg {
     private void step( double currentTimeInMinutes, double[] initialConditions, double timeStepInMinutes, boolean finalize,
             CurrentTimestepSolution currentSolution, double[] rainArray, double[] etpArray ) {
 
-        double[] carrier = new double[initialConditions.length];
-
-        double[] k0 = duffy.eval(currentTimeInMinutes, initialConditions, rainArray, etpArray, false);
-        for( int i = 0; i < initialConditions.length; i++ )
+        int length = initialConditions.length;
+        ensureBuffers(length);
+        stepsCount++;
+        double[] carrier = this.carrier;
+        double[] k0 = this.k0;
+        double[] k1 = this.k1;
+        double[] k2 = this.k2;
+        double[] k3 = this.k3;
+        double[] k4 = this.k4;
+        double[] k5 = this.k5;
+        // never write the new solution over the initial conditions of this step
+        double[] newY = initialConditions == solutionBuffers[0] ? solutionBuffers[1] : solutionBuffers[0];
+        double[] newYstar = this.newYstar;
+
+        duffy.eval(currentTimeInMinutes, initialConditions, k0, rainArray, etpArray, false);
+        for( int i = 0; i < length; i++ )
             carrier[i] = Math.max(0, initialConditions[i] + timeStepInMinutes * b[1][0] * k0[i]);
 
-        double[] k1 = duffy.eval(currentTimeInMinutes, carrier, rainArray, etpArray, false);
-        for( int i = 0; i < initialConditions.length; i++ )
+        duffy.eval(currentTimeInMinutes, carrier, k1, rainArray, etpArray, false);
+        for( int i = 0; i < length; i++ )
             carrier[i] = Math.max(0, initialConditions[i] + timeStepInMinutes * (b[2][0] * k0[i] + b[2][1] * k1[i]));
 
-        double[] k2 = duffy.eval(currentTimeInMinutes, carrier, rainArray, etpArray, false);
-        for( int i = 0; i < initialConditions.length; i++ )
+        duffy.eval(currentTimeInMinutes, carrier, k2, rainArray, etpArray, false);
+        for( int i = 0; i < length; i++ )
             carrier[i] = Math.max(0, initialConditions[i] + timeStepInMinutes
                     * (b[3][0] * k0[i] + b[3][1] * k1[i] + b[3][2] * k2[i]));
 
-        double[] k3 = duffy.eval(currentTimeInMinutes, carrier, rainArray, etpArray, false);
-        for( int i = 0; i < initialConditions.length; i++ )
+        duffy.eval(currentTimeInMinutes, carrier, k3, rainArray, etpArray, false);
+        for( int i = 0; i < length; i++ )
             carrier[i] = Math.max(0, initialConditions[i] + timeStepInMinutes
                     * (b[4][0] * k0[i] + b[4][1] * k1[i] + b[4][2] * k2[i] + b[4][3] * k3[i]));
 
-        double[] k4 = duffy.eval(currentTimeInMinutes, carrier, rainArray, etpArray, false);
-        for( int i = 0; i < initialConditions.length; i++ )
+        duffy.eval(currentTimeInMinutes, carrier, k4, rainArray, etpArray, false);
+        for( int i = 0; i < length; i++ )
             carrier[i] = Math.max(0, initialConditions[i] + timeStepInMinutes
                     * (b[5][0] * k0[i] + b[5][1] * k1[i] + b[5][2] * k2[i] + b[5][3] * k3[i] + b[5][4] * k4[i]));
 
-        double[] k5 = duffy.eval(currentTimeInMinutes, carrier, rainArray, etpArray, isAtFinalSubtimestep);
+        duffy.eval(currentTimeInMinutes, carrier, k5, rainArray, etpArray, isAtFinalSubtimestep);
 
-        double[] newY = new double[initialConditions.length];
-        for( int i = 0; i < initialConditions.length; i++ ) {
+        for( int i = 0; i < length; i++ ) {
             newY[i] = initialConditions[i] + timeStepInMinutes
                     * (c[0] * k0[i] + c[1] * k1[i] + c[2] * k2[i] + c[3] * k3[i] + c[4] * k4[i] + c[5] * k5[i]);
             newY[i] = Math.max(0, newY[i]);
@@ -131,8 +152,7 @@ public class RungeKuttaFelberg {
             }
         }
 
-        double[] newYstar = new double[initialConditions.length];
-        for( int i = 0; i < initialConditions.length; i++ ) {
+        for( int i = 0; i < length; i++ ) {
             newYstar[i] = initialConditions[i]
                     + timeStepInMinutes
                     * (cStar[0] * k0[i] + cStar[1] * k1[i] + cStar[2] * k2[i] + cStar[3] * k3[i] + cStar[4] * k4[i] + cStar[5]
@@ -144,7 +164,7 @@ public class RungeKuttaFelberg {
         }
 
         double delta = 0;
-        for( int i = 0; i < initialConditions.length; i++ ) {
+        for( int i = 0; i < length; i++ ) {
             if ((newY[i] + newYstar[i]) > 0)
                 delta = Math.max(delta, Math.abs(2 * (newY[i] - newYstar[i]) / (newY[i] + newYstar[i])));
         }
@@ -177,6 +197,22 @@ public class RungeKuttaFelberg {
 
     }
 
+    private void ensureBuffers( int length ) {
+        if (carrier != null && carrier.length == length) {
+            return;
+        }
+        carrier = new double[length];
+        k0 = new double[length];
+        k1 = new double[length];
+        k2 = new double[length];
+        k3 = new double[length];
+        k4 = new double[length];
+        k5 = new double[length];
+        newYstar = new double[length];
+        solutionBuffers[0] = new double[length];
+        solutionBuffers[1] = new double[length];
+    }
+
     public void printDate( double minutes ) {
         double millis = minutes * 1000d * 60d;
         System.out.println(new DateTime((long) millis).toString(HMConstants.utcDateFormatterYYYYMMDDHHMM));
@@ -321,7 +357,8 @@ public class RungeKuttaFelberg {
             outputStream.errorMessage("WARNING, UNEXPECTED");
         }
 
-        finalCond = initialConditions;
+        // the solution buffers are reused in the next timestep
+        finalCond = initialConditions.clone();
 
     }
 
@@ -329,4 +366,12 @@ public class RungeKuttaFelberg {
         return finalCond;
     }
 
+    /**
+     * @return the total number of integration steps run so far, each of which evaluates 
+     *          the {@link DuffyModel} six times.
+     */
+    public long getStepsCount() {
+        return stepsCount;
+    }
+
 }
@@ -26,12 +26,16 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
 import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.IAdigeEngine;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.OmsAdige;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.IDischargeContributor;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.IHillSlope;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.utils.HillSlopesScheduler;
 import org.hortonmachine.hmachine.modules.network.PfafstetterNumber;
 import org.joda.time.DateTime;
 
@@ -52,8 +56,10 @@ public class HymodAdigeEngine implements IAdigeEngine {
     private double[][] xQuick = null;
     private final HashMap<Integer, double[]> outDischarge;
     private final HashMap<Integer, double[]> outSubDischarge;
-    private final HashMap<Integer, double[]> outDischargeInternal;
-    private final HashMap<Integer, Integer> index2Basinid;
+    /** the discharge of every hillslope in the current timestep, upstream contributions included */
+    private double[] internalDischarge = null;
+    private double[] internalSubDischarge = null;
+    private final Map<Integer, Integer> index2Basinid;
     private List<IDischargeContributor> dischargeContributorList = new ArrayList<IDischargeContributor>();
     private final boolean doPrint;
     private final boolean doLog;
@@ -62,11 +68,28 @@ public class HymodAdigeEngine implements IAdigeEngine {
     private double[] coeffs;
     public static final double doubleNovalue = Double.NaN;
     int conta = 0;
+    private final HillSlopesScheduler scheduler;
 
     public HymodAdigeEngine( HymodInputs hymodInputs, List<IHillSlope> orderedHillslopes,
-            HashMap<Integer, Integer> index2Basinid, HashMap<Integer, double[]> outDischarge,
+            Map<Integer, Integer> index2Basinid, HashMap<Integer, double[]> outDischarge,
             HashMap<Integer, double[]> outSubDischarge, List<String> pfaffsList, boolean doLog, boolean doPrint,
             IHMProgressMonitor pm ) {
+        this(hymodInputs, orderedHillslopes, index2Basinid, outDischarge, outSubDischarge, pfaffsList, doLog, doPrint, pm, null);
+    }
+
+    /**
+     * Create the Hymod engine, processing the independent hillslopes in parallel.
+     * 
+     * <p>A hillslope needs the discharge of its upstream hillslopes, so the hillslopes are 
+     * processed level by level through a {@link HillSlopesScheduler}.</p>
+     * 
+     * @param plannerFactory the factory of the planners used to process the hillslopes 
+     *          of a level in parallel, or <code>null</code> for the sequential processing.
+     */
+    public HymodAdigeEngine( HymodInputs hymodInputs, List<IHillSlope> orderedHillslopes,
+            Map<Integer, Integer> index2Basinid, HashMap<Integer, double[]> outDischarge,
+            HashMap<Integer, double[]> outSubDischarge, List<String> pfaffsList, boolean doLog, boolean doPrint,
+            IHMProgressMonitor pm, Supplier<ExecutionPlanner> plannerFactory ) {
         this.hymodInputs = hymodInputs;
         this.orderedHillslopes = orderedHillslopes;
         this.index2Basinid = index2Basinid;
@@ -76,13 +99,21 @@ public class HymodAdigeEngine implements IAdigeEngine {
         this.doLog = doLog;
         this.doPrint = doPrint;
         this.pm = pm;
-        outDischargeInternal = new HashMap<Integer, double[]>();
+        scheduler = new HillSlopesScheduler(orderedHillslopes, plannerFactory);
     }
 
     public void addDischargeContributor( IDischargeContributor dischargeContributor ) {
         dischargeContributorList.add(dischargeContributor);
     }
 
+    public long getTimestepEvaluations() {
+        return scheduler.getTimestepEvaluations();
+    }
+
+    public double getTimestepEvaluationsPerSecond() {
+        return scheduler.getTimestepEvaluationsPerSecond();
+    }
+
     public HashMap<Integer, double[]> getDischarge() {
         return outDischarge;
     }
@@ -123,171 +154,190 @@ public class HymodAdigeEngine implements IAdigeEngine {
             }
         }
 
-        for( int i = orderedHillslopes.size() - 1; i >= 0; i-- ) {
-            IHillSlope hillSlope = orderedHillslopes.get(i);
-
-            // /////////////FISSATO PER CHECK///////////////
-            // hymodInputs.pAlpha=0.323;
-            // hymodInputs.pCmax=999.0;
-            // hymodInputs.pB=0.515;
-            // hymodInputs.pRq=0.135;
-            // hymodInputs.pRs=0.0091;
-            // /////////////FISSATO PER CHECK///////////////
-
-            double rain = rainArray[i];
-            double etp = etpArray[i];
-            // funziona
-            // if (rain == -999 || etp ==-999) {
-            // rain=0;etp=0;
-            // }
-            // modificato
-            // System.out.println("rain= "+rain+" etp= "+etp);
-            // if (isNovalue(rain) || isNovalue(etp)) {
-            // rain=0;
-            // etp=0;
-            // }
-            //
-            //
-            // /*
-            // * sum together the discharge contributed by the current
-            // * hillslope plus the contributions coming from upstream
-            // */
-            //
-            // PfafstetterNumber pfaf = hillSlope.getPfafstetterNumber();
-            // if (pfaffsList.contains(pfaf.toString())) {
-            // outDischarge.put(basinId, new double[] { -999 });
-            // outSubDischarge.put(basinId, new double[] { -999 });
-            // }
-            //
-            // outDischargeInternal.put(basinId,
-            // new double[] { -999 });
-            // System.out.println(basinId+" rain= "+rain+" etp="+etp+ "outDischargeInternal="+
-            // outDischargeInternal.get(basinId));
-            // // if (i == 2) {
-            // // //
-            // // System.out.println(conta+" basinDischarge"+(-999)
-            // // +" xloss="+xLoss[i]);
-            // // conta++;
-            // // }
-
-            // } else {
-
-            double[] out_excess = excess(xLoss[i], rain, etp);
-            double UT1 = out_excess[0];
-            double UT2 = out_excess[1];
-            xLoss[i] = out_excess[2];
-
-            double UQ = hymodInputs.pAlpha * UT2 + UT1;
-            double US = (1.0 - hymodInputs.pAlpha) * UT2;
-
-            double inflow = US;
-            double[] out_linres1 = linres(xSlow[i], inflow, hymodInputs.pRs, 1);
-
-            xSlow[i] = out_linres1[0];
-            double outflow1 = out_linres1[1];
-            double QS = outflow1;
-            inflow = UQ;
-            double outflow2 = 0;
-
-            for( int k = 0; k < 3; k++ ) {
-                double[] out_linres2 = linres(xQuick[k][i], inflow, hymodInputs.pRq, 1);
-                xQuick[k][i] = out_linres2[0];
-                outflow2 = out_linres2[1];
-                inflow = outflow2;
-            }
-
-            Integer basinId = index2Basinid.get(i);
-            double basinDischarge = (QS + outflow2) / coeffs[i];
-            double basinSubDischarge = QS / coeffs[i];
-
-            double allContributionsDischarge = handleContributors(hillSlope, basinDischarge);
+        if (internalDischarge == null) {
+            internalDischarge = new double[orderedHillslopes.size()];
+            internalSubDischarge = new double[orderedHillslopes.size()];
+        }
 
-            /*
-             * sum together the discharge contributed by the current
-             * hillslope plus the contributions coming from upstream
-             */
-            basinDischarge = basinDischarge + allContributionsDischarge;
+        scheduler.startTimestep();
+        double[] solution = initialConditions;
+        scheduler.run(i -> solveHillslope(i, solution, rainArray, etpArray));
 
-            PfafstetterNumber pfaf = hillSlope.getPfafstetterNumber();
+        for( int i = orderedHillslopes.size() - 1; i >= 0; i-- ) {
+            PfafstetterNumber pfaf = orderedHillslopes.get(i).getPfafstetterNumber();
             if (pfaffsList.contains(pfaf.toString())) {
-                outDischarge.put(basinId, new double[]{basinDischarge});
-                outSubDischarge.put(basinId, new double[]{basinSubDischarge});
+                Integer basinId = index2Basinid.get(i);
+                outDischarge.put(basinId, new double[]{internalDischarge[i]});
+                outSubDischarge.put(basinId, new double[]{internalSubDischarge[i]});
             }
-            initialConditions[i] = xLoss[i];
-            initialConditions[i + orderedHillslopes.size()] = xSlow[i];
-            initialConditions[i + 2 * orderedHillslopes.size()] = xQuick[0][i];
-            initialConditions[i + 3 * orderedHillslopes.size()] = xQuick[1][i];
-            initialConditions[i + 4 * orderedHillslopes.size()] = xQuick[2][i];
-
-            outDischargeInternal.put(basinId, new double[]{basinDischarge});
-            // System.out.println(basinId+" rain= "+rain+" etp="+etp+ "outDischargeInternal="+
-            // outDischargeInternal.get(basinId));
-            // if (i == 61) {
-            // System.out.println("rain= "+rain+" etp= "+etp+" basinId= "+basinId+
-            // " basinDischarge"+basinDischarge+" allcontributions= "+allContributionsDischarge+" xloss= "+xLoss[i]);
-            // }
-            // if (i == 61) {
-            // //
-            // System.out.println(conta+"rain= "+rain+" etp= "+etp+" basinDischarge"+(basinDischarge-allContributionsDischarge)
-            // +" xloss="+xLoss[i]);
-            // conta++;
-            // }
-            // }
         }
 
+        scheduler.endTimestep(doLog ? pm : null, null);
+
         // System.out.println("out=" + outDischarge.get(basinId)[0] + " x_slow="
         // + xSlow[0] + "rain=" + rainArray[0] + " etp="
         // + etpArray[0]);
         return initialConditions;
     }
 
-    private double handleContributors( IHillSlope hillSlope, final double basinDischarge ) {
+    private void solveHillslope( int i, double[] initialConditions, double[] rainArray, double[] etpArray ) {
+        IHillSlope hillSlope = orderedHillslopes.get(i);
+
+        // /////////////FISSATO PER CHECK///////////////
+        // hymodInputs.pAlpha=0.323;
+        // hymodInputs.pCmax=999.0;
+        // hymodInputs.pB=0.515;
+        // hymodInputs.pRq=0.135;
+        // hymodInputs.pRs=0.0091;
+        // /////////////FISSATO PER CHECK///////////////
+
+        double rain = rainArray[i];
+        double etp = etpArray[i];
+        // funziona
+        // if (rain == -999 || etp ==-999) {
+        // rain=0;etp=0;
+        // }
+        // modificato
+        // System.out.println("rain= "+rain+" etp= "+etp);
+        // if (isNovalue(rain) || isNovalue(etp)) {
+        // rain=0;
+        // etp=0;
+        // }
+        //
+        //
+        // /*
+        // * sum together the discharge contributed by the current
+        // * hillslope plus the contributions coming from upstream
+        // */
+        //
+        // PfafstetterNumber pfaf = hillSlope.getPfafstetterNumber();
+        // if (pfaffsList.contains(pfaf.toString())) {
+        // outDischarge.put(basinId, new double[] { -999 });
+        // outSubDischarge.put(basinId, new double[] { -999 });
+        // }
+        //
+        // outDischargeInternal.put(basinId,
+        // new double[] { -999 });
+        // System.out.println(basinId+" rain= "+rain+" etp="+etp+ "outDischargeInternal="+
+        // outDischargeInternal.get(basinId));
+        // // if (i == 2) {
+        // // //
+        // // System.out.println(conta+" basinDischarge"+(-999)
+        // // +" xloss="+xLoss[i]);
+        // // conta++;
+        // // }
+
+        // } else {
+
+        double[] out_excess = excess(xLoss[i], rain, etp);
+        double UT1 = out_excess[0];
+        double UT2 = out_excess[1];
+        xLoss[i] = out_excess[2];
+
+        double UQ = hymodInputs.pAlpha * UT2 + UT1;
+        double US = (1.0 - hymodInputs.pAlpha) * UT2;
+
+        double inflow = US;
+        double[] out_linres1 = linres(xSlow[i], inflow, hymodInputs.pRs, 1);
+
+        xSlow[i] = out_linres1[0];
+        double outflow1 = out_linres1[1];
+        double QS = outflow1;
+        inflow = UQ;
+        double outflow2 = 0;
+
+        for( int k = 0; k < 3; k++ ) {
+            double[] out_linres2 = linres(xQuick[k][i], inflow, hymodInputs.pRq, 1);
+            xQuick[k][i] = out_linres2[0];
+            outflow2 = out_linres2[1];
+            inflow = outflow2;
+        }
+
+        double basinDischarge = (QS + outflow2) / coeffs[i];
+        double basinSubDischarge = QS / coeffs[i];
+
+        double allContributionsDischarge = handleContributors(i, hillSlope, basinDischarge);
+
+        /*
+         * sum together the discharge contributed by the current
+         * hillslope plus the contributions coming from upstream
+         */
+        basinDischarge = basinDischarge + allContributionsDischarge;
+
+        initialConditions[i] = xLoss[i];
+        initialConditions[i + orderedHillslopes.size()] = xSlow[i];
+        initialConditions[i + 2 * orderedHillslopes.size()] = xQuick[0][i];
+        initialConditions[i + 3 * orderedHillslopes.size()] = xQuick[1][i];
+        initialConditions[i + 4 * orderedHillslopes.size()] = xQuick[2][i];
+
+        internalDischarge[i] = basinDischarge;
+        internalSubDischarge[i] = basinSubDischarge;
+        // System.out.println(basinId+" rain= "+rain+" etp="+etp+ "outDischargeInternal="+
+        // outDischargeInternal.get(basinId));
+        // if (i == 61) {
+        // System.out.println("rain= "+rain+" etp= "+etp+" basinId= "+basinId+
+        // " basinDischarge"+basinDischarge+" allcontributions= "+allContributionsDischarge+" xloss= "+xLoss[i]);
+        // }
+        // if (i == 61) {
+        // //
+        // System.out.println(conta+"rain= "+rain+" etp= "+etp+" basinDischarge"+(basinDischarge-allContributionsDischarge)
+        // +" xloss="+xLoss[i]);
+        // conta++;
+        // }
+        // }
+    }
+
+    private double handleContributors( int index, IHillSlope hillSlope, final double basinDischarge ) {
         double summedContributions = 0;
 
         List<IHillSlope> connectedUpstreamHillSlopes = hillSlope.getConnectedUpstreamElements();
+        int[] upstreamIndexes = scheduler.getUpstreamIndexes(index);
         if (connectedUpstreamHillSlopes != null) {
-            for( IHillSlope tmpHillSlope : connectedUpstreamHillSlopes ) {
+            for( int j = 0; j < upstreamIndexes.length; j++ ) {
+                IHillSlope tmpHillSlope = connectedUpstreamHillSlopes.get(j);
                 PfafstetterNumber pNum = tmpHillSlope.getPfafstetterNumber();
-                int hillslopeId = tmpHillSlope.getHillslopeId();
 
                 /*
                  * get the inflow from upstream basins
                  */
-                double upstreamDischarge = outDischargeInternal.get(hillslopeId)[0];
+                double upstreamDischarge = internalDischarge[upstreamIndexes[j]];
 
                 /*
                  * handle the contributors
                  */
                 for( IDischargeContributor dContributor : dischargeContributorList ) {
-                    Double contributedDischarge = dContributor.getDischarge(pNum.toString());
-                    if (!isNovalue(contributedDischarge)) {
-                        if (doLog && doPrint) {
-                            pm.message("----> For hillslope " + hillSlope.getPfafstetterNumber()
-                                    + " using hydrometer/dams data in pfafstetter: " + pNum.toString() + "(meaning added "
-                                    + contributedDischarge + " instead of " + upstreamDischarge + ")");
-                        }
-
-                        /*
-                         * here the contributor will give its contribution,
-                         * which depends on the type of contributor. For example
-                         * a Hydrometer will completely substitute the
-                         * calculated discharge of the current hillslope
-                         * (tmpHillSlope) with the measure supplied by the
-                         * Hydrometer.
-                         */
-
-                        // funziona
-                        // if (contributedDischarge != -9999) {
-                        // upstreamDischarge = dContributor
-                        // .mergeWithDischarge(contributedDischarge,
-                        // upstreamDischarge);
-                        // }
-
-                        // modificato
+                    // the contributors keep the last queried pfafstetter for their messages
+                    synchronized (dContributor) {
+                        Double contributedDischarge = dContributor.getDischarge(pNum.toString());
                         if (!isNovalue(contributedDischarge)) {
-                            upstreamDischarge = dContributor.mergeWithDischarge(contributedDischarge, upstreamDischarge);
-                        }
+                            if (doLog && doPrint) {
+                                pm.message("----> For hillslope " + hillSlope.getPfafstetterNumber()
+                                        + " using hydrometer/dams data in pfafstetter: " + pNum.toString() + "(meaning added "
+                                        + contributedDischarge + " instead of " + upstreamDischarge + ")");
+                            }
+
+                            /*
+                             * here the contributor will give its contribution,
+                             * which depends on the type of contributor. For example
+                             * a Hydrometer will completely substitute the
+                             * calculated discharge of the current hillslope
+                             * (tmpHillSlope) with the measure supplied by the
+                             * Hydrometer.
+                             */
+
+                            // funziona
+                            // if (contributedDischarge != -9999) {
+                            // upstreamDischarge = dContributor
+                            // .mergeWithDischarge(contributedDischarge,
+                            // upstreamDischarge);
+                            // }
+
+                            // modificato
+                            if (!isNovalue(contributedDischarge)) {
+                                upstreamDischarge = dContributor.mergeWithDischarge(contributedDischarge, upstreamDischarge);
+                            }
 
+                        }
                     }
                 }
                 double routedDischarge = doRouting(upstreamDischarge, basinDischarge, tmpHillSlope);
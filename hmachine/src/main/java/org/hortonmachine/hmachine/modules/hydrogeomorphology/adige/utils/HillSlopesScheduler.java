@@ -0,0 +1,290 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
+import org.hortonmachine.gears.libs.exceptions.ModelsRuntimeException;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.core.IHillSlope;
+
+/**
+ * Schedules a calculation over the ordered hillslopes of a basin, so that every hillslope is
+ * processed after all its upstream hillslopes.
+ * 
+ * <p>The hillslopes are grouped in levels: the headwater hillslopes are in the first level and
+ * every other hillslope is one level below its deepest upstream hillslope. The hillslopes of a
+ * level are independent from each other and are processed in parallel, the levels are processed
+ * in order.</p>
+ * 
+ * <p>Without a planner factory the hillslopes are processed sequentially from the last to the
+ * first, which is the order the models used before.</p>
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class HillSlopesScheduler {
+
+    /**
+     * Levels with less hillslopes than this are processed in the calling thread, since the
+     * submit and join of the tasks would cost more than the calculation itself.
+     */
+    public static final int MIN_PARALLEL_LEVEL_SIZE = 64;
+
+    private final int hillslopesNum;
+    private final int[][] upstreamIndexes;
+    private final int[][] levels;
+    private final Supplier<ExecutionPlanner> plannerFactory;
+
+    private long evaluationsCount = 0;
+
+    private long timestepStartEvaluations = 0;
+    private long timestepStartNanos = 0;
+    private long timestepEvaluations = 0;
+    private double timestepEvaluationsPerSecond = 0;
+
+    /**
+     * Constructor.
+     * 
+     * @param orderedHillslopes the list of ordered hillslopes, starting from the most downstream one.
+     * @param plannerFactory the factory of the planners used to process a level, or 
+     *          <code>null</code> for the sequential processing.
+     */
+    public HillSlopesScheduler( List<IHillSlope> orderedHillslopes, Supplier<ExecutionPlanner> plannerFactory ) {
+        this(getUpstreamIndexes(orderedHillslopes), plannerFactory);
+    }
+
+    /**
+     * Constructor on the topology of the hillslopes.
+     * 
+     * @param upstreamIndexes for every hillslope, the indexes of its directly connected upstream 
+     *          hillslopes. The hillslopes are indexed as in the ordered list, starting from the 
+     *          most downstream one.
+     * @param plannerFactory the factory of the planners used to process a level, or 
+     *          <code>null</code> for the sequential processing.
+     */
+    public HillSlopesScheduler( int[][] upstreamIndexes, Supplier<ExecutionPlanner> plannerFactory ) {
+        this.plannerFactory = plannerFactory;
+        this.upstreamIndexes = upstreamIndexes;
+        hillslopesNum = upstreamIndexes.length;
+
+        int[] downstream = new int[hillslopesNum];
+        Arrays.fill(downstream, -1);
+        for( int i = 0; i < hillslopesNum; i++ ) {
+            for( int index : upstreamIndexes[i] ) {
+                if (downstream[index] != -1) {
+                    throw new ModelsIllegalargumentException("The hillslope " + index + " drains into more than one hillslope.",
+                            this);
+                }
+                downstream[index] = i;
+            }
+        }
+
+        levels = createLevels(downstream);
+    }
+
+    private static int[][] getUpstreamIndexes( List<IHillSlope> orderedHillslopes ) {
+        int hillslopesNum = orderedHillslopes.size();
+        HashMap<Integer, Integer> id2Index = new HashMap<Integer, Integer>();
+        for( int i = 0; i < hillslopesNum; i++ ) {
+            id2Index.put(orderedHillslopes.get(i).getHillslopeId(), i);
+        }
+
+        int[][] upstreamIndexes = new int[hillslopesNum][];
+        for( int i = 0; i < hillslopesNum; i++ ) {
+            List<IHillSlope> upstreamHillslopes = orderedHillslopes.get(i).getConnectedUpstreamElements();
+            if (upstreamHillslopes == null) {
+                upstreamIndexes[i] = new int[0];
+                continue;
+            }
+            upstreamIndexes[i] = new int[upstreamHillslopes.size()];
+            for( int j = 0; j < upstreamIndexes[i].length; j++ ) {
+                Integer index = id2Index.get(upstreamHillslopes.get(j).getHillslopeId());
+                if (index == null) {
+                    throw new ModelsIllegalargumentException("The upstream hillslope "
+                            + upstreamHillslopes.get(j).getHillslopeId() + " is not part of the ordered hillslopes.",
+                            HillSlopesScheduler.class.getSimpleName());
+                }
+                upstreamIndexes[i][j] = index;
+            }
+        }
+        return upstreamIndexes;
+    }
+
+    /**
+     * Walks the network from the headwaters, a hillslope is reached once all its upstream 
+     * hillslopes have been visited.
+     */
+    private int[][] createLevels( int[] downstream ) {
+        int[] level = new int[hillslopesNum];
+        int[] missingUpstream = new int[hillslopesNum];
+        int[] queue = new int[hillslopesNum];
+        int head = 0;
+        int tail = 0;
+        for( int i = hillslopesNum - 1; i >= 0; i-- ) {
+            missingUpstream[i] = upstreamIndexes[i].length;
+            if (missingUpstream[i] == 0) {
+                queue[tail++] = i;
+            }
+        }
+        int maxLevel = 0;
+        while( head < tail ) {
+            int index = queue[head++];
+            maxLevel = Math.max(maxLevel, level[index]);
+            int downIndex = downstream[index];
+            if (downIndex != -1) {
+                level[downIndex] = Math.max(level[downIndex], level[index] + 1);
+                if (--missingUpstream[downIndex] == 0) {
+                    queue[tail++] = downIndex;
+                }
+            }
+        }
+        if (tail != hillslopesNum) {
+            throw new ModelsIllegalargumentException("The hillslopes network contains loops.", this);
+        }
+
+        List<List<Integer>> levelsList = new ArrayList<List<Integer>>();
+        for( int i = 0; i <= maxLevel; i++ ) {
+            levelsList.add(new ArrayList<Integer>());
+        }
+        for( int i = hillslopesNum - 1; i >= 0; i-- ) {
+            levelsList.get(level[i]).add(i);
+        }
+        int[][] levels = new int[levelsList.size()][];
+        for( int i = 0; i < levels.length; i++ ) {
+            List<Integer> indexes = levelsList.get(i);
+            levels[i] = new int[indexes.size()];
+            for( int j = 0; j < levels[i].length; j++ ) {
+                levels[i][j] = indexes.get(j);
+            }
+        }
+        return levels;
+    }
+
+    /**
+     * Runs the task for every hillslope, upstream hillslopes first.
+     * 
+     * @param task the task, called with the index of the hillslope in the ordered list.
+     */
+    public void run( IntConsumer task ) {
+        if (plannerFactory == null) {
+            for( int i = hillslopesNum - 1; i >= 0; i-- ) {
+                task.accept(i);
+            }
+        } else {
+            for( int[] level : levels ) {
+                if (level.length < MIN_PARALLEL_LEVEL_SIZE) {
+                    for( int index : level ) {
+                        task.accept(index);
+                    }
+                    continue;
+                }
+                ExecutionPlanner planner = plannerFactory.get();
+                planner.setNumberOfTasks(level.length);
+                for( int index : level ) {
+                    planner.submit(() -> task.accept(index));
+                }
+                try {
+                    planner.join();
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new ModelsRuntimeException(e.getLocalizedMessage(), this);
+                }
+            }
+        }
+        evaluationsCount += hillslopesNum;
+    }
+
+    /**
+     * @param index the index of the hillslope in the ordered list.
+     * @return the indexes of the directly connected upstream hillslopes, in the order of 
+     *          {@link IHillSlope#getConnectedUpstreamElements()}.
+     */
+    public int[] getUpstreamIndexes( int index ) {
+        return upstreamIndexes[index];
+    }
+
+    /**
+     * @return the number of levels, i.e. the length of the longest chain of hillslopes.
+     */
+    public int getLevelsCount() {
+        return levels.length;
+    }
+
+    /**
+     * @param level the level, starting from the headwaters in level 0.
+     * @return the indexes of the hillslopes of the level, in decreasing order.
+     */
+    public int[] getLevel( int level ) {
+        return levels[level].clone();
+    }
+
+    /**
+     * @return the total number of hillslope evaluations run so far.
+     */
+    public long getEvaluationsCount() {
+        return evaluationsCount;
+    }
+
+    /**
+     * Marks the start of a model timestep, for the timestep metrics.
+     */
+    public void startTimestep() {
+        timestepStartEvaluations = evaluationsCount;
+        timestepStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Updates the timestep metrics with the evaluations run since {@link #startTimestep()} and 
+     * optionally logs them.
+     * 
+     * @param pm the monitor to log the metrics to, or <code>null</code> to not log them.
+     * @param details an additional information appended to the log message, or <code>null</code>.
+     */
+    public void endTimestep( IHMProgressMonitor pm, String details ) {
+        long elapsedNanos = Math.max(System.nanoTime() - timestepStartNanos, 1);
+        timestepEvaluations = evaluationsCount - timestepStartEvaluations;
+        timestepEvaluationsPerSecond = timestepEvaluations * 1E9 / elapsedNanos;
+        if (pm != null) {
+            pm.message("Timestep hillslope evaluations: " + timestepEvaluations + " in " + elapsedNanos / 1000000 + " ms ("
+                    + (long) timestepEvaluationsPerSecond + " per second" + (details == null ? "" : ", " + details) + ")");
+        }
+    }
+
+    /**
+     * @return the number of hillslope evaluations of the last timestep.
+     */
+    public long getTimestepEvaluations() {
+        return timestepEvaluations;
+    }
+
+    /**
+     * @return the hillslope evaluations per second of the last timestep.
+     */
+    public double getTimestepEvaluationsPerSecond() {
+        return timestepEvaluationsPerSecond;
+    }
+
+}
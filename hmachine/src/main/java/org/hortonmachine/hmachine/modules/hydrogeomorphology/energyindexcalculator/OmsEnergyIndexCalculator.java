@@ -43,9 +43,11 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSENERGYINDEXCALCU
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSENERGYINDEXCALCULATOR_outAltimetry_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSENERGYINDEXCALCULATOR_outArea_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSENERGYINDEXCALCULATOR_outEnergy_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSENERGYINDEXCALCULATOR_pAzimuths_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSENERGYINDEXCALCULATOR_pDt_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSENERGYINDEXCALCULATOR_pEi_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSENERGYINDEXCALCULATOR_pEs_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSENERGYINDEXCALCULATOR_pThreads_DESCRIPTION;
 
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
@@ -76,7 +78,9 @@ import org.hortonmachine.gears.io.eicalculator.EIAltimetry;
 import org.hortonmachine.gears.io.eicalculator.EIAreas;
 import org.hortonmachine.gears.io.eicalculator.EIEnergy;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
-import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.libs.modules.HorizonEngine;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
+import org.hortonmachine.gears.libs.modules.multiprocessing.MultiProcessing;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.hmachine.i18n.HortonMessageHandler;
 import org.opengis.referencing.operation.MathTransform;
@@ -90,7 +94,7 @@ import com.vividsolutions.jts.geom.Coordinate;
 @Name(OMSENERGYINDEXCALCULATOR_NAME)
 @Status(OMSENERGYINDEXCALCULATOR_STATUS)
 @License(OMSENERGYINDEXCALCULATOR_LICENSE)
-public class OmsEnergyIndexCalculator extends HMModel {
+public class OmsEnergyIndexCalculator extends MultiProcessing {
 
     @Description(OMSENERGYINDEXCALCULATOR_inElev_DESCRIPTION)
     @In
@@ -124,6 +128,14 @@ public class OmsEnergyIndexCalculator extends HMModel {
     @In
     public double pDt = -1;
 
+    @Description(OMSENERGYINDEXCALCULATOR_pAzimuths_DESCRIPTION)
+    @In
+    public int pAzimuths = 0;
+
+    @Description(OMSENERGYINDEXCALCULATOR_pThreads_DESCRIPTION)
+    @In
+    public int pThreads = 1;
+
     @Description(OMSENERGYINDEXCALCULATOR_outAltimetry_DESCRIPTION)
     @Out
     public List<EIAltimetry> outAltimetry;
@@ -159,6 +171,8 @@ public class OmsEnergyIndexCalculator extends HMModel {
 
     private RandomIter elevImageIterator;
 
+    private HorizonEngine horizonEngine;
+
     private WritableRaster curvatureImage;
 
     private RandomIter aspectImageIterator;
@@ -196,6 +210,15 @@ public class OmsEnergyIndexCalculator extends HMModel {
 
         RenderedImage elevImage = inElev.getRenderedImage();
         elevImageIterator = RandomIterFactory.create(elevImage, null);
+        if (pAzimuths > 0) {
+            double[] elevData = CoverageUtilities.renderedImage2RowMajorDoubleArray(elevImage);
+            for( int i = 0; i < elevData.length; i++ ) {
+                if (isNovalue(elevData[i])) {
+                    elevData[i] = Double.NaN;
+                }
+            }
+            horizonEngine = new HorizonEngine(elevData, cols, rows, dx, dy, pAzimuths);
+        }
 
         RenderedImage tmpImage = inCurvatures.getRenderedImage();
         curvatureImage = CoverageUtilities
@@ -228,6 +251,7 @@ public class OmsEnergyIndexCalculator extends HMModel {
         pm.done();
 
         average_EI(10, 6);
+        addProcessedElements((long) cols * rows);
 
         pm.beginTask(msg.message("eicalculator.calc_areas"), eibasinNum); //$NON-NLS-1$
         for( int i = 0; i < eibasinNum; i++ ) {
@@ -380,7 +404,7 @@ public class OmsEnergyIndexCalculator extends HMModel {
         return eibasinNum;
     }
 
-    private void compute_EI( int month ) {
+    private void compute_EI( int month ) throws Exception {
 
         int[] day_beg = new int[1], day_end = new int[1], daymonth = new int[1], monthyear = new int[1];
         int day;
@@ -537,7 +561,7 @@ public class OmsEnergyIndexCalculator extends HMModel {
 
     }
 
-    private void sun( double hour, int day, double[] E0, double[] alpha, double[] direction ) {
+    private void sun( double hour, int day, double[] E0, double[] alpha, double[] direction ) throws Exception {
 
         // latitudine, longitudine in [rad]
 
@@ -588,7 +612,9 @@ public class OmsEnergyIndexCalculator extends HMModel {
              * Outputs: shadow: matrice ombre (1 ombra 0 sole)
              */
 
-            if (direction[0] >= 0. && direction[0] <= PI / 4.) {
+            if (horizonEngine != null) {
+                calculateShadowWithHorizon(direction[0], alpha[0]);
+            } else if (direction[0] >= 0. && direction[0] <= PI / 4.) {
                 beta = direction[0];
                 geomorphUtilities.orizzonte1(dx, 2 * (cols + rows), beta, alpha[0], elevImageIterator, curvatureImage,
                         outputShadow);
@@ -654,6 +680,34 @@ public class OmsEnergyIndexCalculator extends HMModel {
 
     }
 
+    /**
+     * Fills the shadow matrix from the horizon of the {@link HorizonEngine}.
+     * 
+     * <p>All the cells cast shadows, not only the convex ones used by the orizzonte
+     * routines, so the energy index can differ noticeably from the one of the default mode.</p>
+     */
+    private void calculateShadowWithHorizon( double direction, double alpha ) throws Exception {
+        ExecutionPlanner planner = createDefaultPlanner();
+        HorizonEngine.Horizon horizon = horizonEngine.getHorizon(direction, planner);
+        planner.setNumberOfTasks(rows);
+        for( int r = 0; r < rows; r++ ) {
+            int row = r;
+            planner.submit(() -> {
+                for( int c = 0; c < cols; c++ ) {
+                    if (eibasinID[row][c] != NOVALUE) {
+                        outputShadow[row][c] = horizon.isShadowed(row * cols + c, alpha) ? 1 : 0;
+                    }
+                }
+            });
+        }
+        planner.join();
+    }
+
+    @Override
+    protected ExecutionPlanner createDefaultPlanner() {
+        return createPlanner(pThreads);
+    }
+
     private void radiation( double[] Rad_morpho, double[] Rad_flat, double E0, double alpha, double direction, double aspect,
             double slope, int shadow ) {
 
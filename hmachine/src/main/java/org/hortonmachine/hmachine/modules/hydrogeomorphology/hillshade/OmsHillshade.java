@@ -17,8 +17,6 @@
  */
 package org.hortonmachine.hmachine.modules.hydrogeomorphology.hillshade;
 
-import static org.hortonmachine.gears.libs.modules.ModelsEngine.calcInverseSunVector;
-import static org.hortonmachine.gears.libs.modules.ModelsEngine.calcNormalSunVector;
 import static org.hortonmachine.gears.libs.modules.ModelsEngine.calculateFactor;
 import static org.hortonmachine.gears.libs.modules.ModelsEngine.scalarProduct;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_AUTHORCONTACTS;
@@ -29,15 +27,20 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_LABEL;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_LICENSE;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_NAME;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_STATUS;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_doStreaming_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_inElev_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_outHill_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_pAzimuth_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_pElev_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_pMinDiffuse_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_pThreads_DESCRIPTION;
 
+import java.awt.Rectangle;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
+import java.io.File;
 import java.util.HashMap;
 
 import javax.media.jai.RasterFactory;
@@ -58,8 +61,11 @@ import oms3.annotations.Status;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.hortonmachine.gears.libs.modules.HMConstants;
-import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.libs.modules.ShadowEngine;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
+import org.hortonmachine.gears.libs.modules.multiprocessing.MultiProcessing;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.gears.utils.coverage.IDirectRasterAccess;
 import org.hortonmachine.hmachine.i18n.HortonMessageHandler;
 
 @Description(OMSHILLSHADE_DESCRIPTION)
@@ -69,7 +75,7 @@ import org.hortonmachine.hmachine.i18n.HortonMessageHandler;
 @Name(OMSHILLSHADE_NAME)
 @Status(OMSHILLSHADE_STATUS)
 @License(OMSHILLSHADE_LICENSE)
-public class OmsHillshade extends HMModel {
+public class OmsHillshade extends MultiProcessing {
 
     @Description(OMSHILLSHADE_inElev_DESCRIPTION)
     @In
@@ -87,11 +93,25 @@ public class OmsHillshade extends HMModel {
     @In
     public double pElev = 90;
 
+    @Description(OMSHILLSHADE_doStreaming_DESCRIPTION)
+    @In
+    public boolean doStreaming = false;
+
+    @Description(OMSHILLSHADE_pThreads_DESCRIPTION)
+    @In
+    public int pThreads = 1;
+
     @Description(OMSHILLSHADE_outHill_DESCRIPTION)
     @Out
     public GridCoverage2D outHill;
 
     private final static double doubleNoValue = HMConstants.doubleNovalue;
+
+    /**
+     * The minimum number of rows of the bands, when streaming.
+     */
+    private final static int MIN_BAND_ROWS = 16;
+
     private HortonMessageHandler msg = HortonMessageHandler.getInstance();
 
     @Execute
@@ -104,6 +124,10 @@ public class OmsHillshade extends HMModel {
         if (pElev < 0.0 || pElev > 90.0) {
             System.err.println(msg.message("hillshade.errElevation"));
         }
+        if (doStreaming) {
+            outHill = streamHillshade();
+            return;
+        }
         RenderedImage pitRI = inElev.getRenderedImage();
         WritableRaster pitWR = CoverageUtilities.replaceNovalue(pitRI, -9999.0);
         // extract some attributes of the dem
@@ -118,6 +142,7 @@ public class OmsHillshade extends HMModel {
         WritableRaster gradientWR = normalVector(pitWR, dx);
 
         calchillshade(pitWR, hillshadeWR, gradientWR, dx);
+        addProcessedElements((long) width * height);
 
         // re-set the value to NaN
         setNoValueBorder(pitWR, width, height, hillshadeWR);
@@ -125,6 +150,85 @@ public class OmsHillshade extends HMModel {
         outHill = CoverageUtilities.buildCoverage("insolation", hillshadeWR, attribute, inElev.getCoordinateReferenceSystem());
     }
 
+    /**
+     * Calculates the hillshade by bands of rows, for maps that don't fit in memory.
+     * 
+     * <p>The shadows are traced by the {@link ShadowEngine} sweeping the bands in the direction 
+     * of the rays, which carries the state of the rays from a band to the next, so the result 
+     * is the same as the one of the in memory calculation. The bands are as high as the tiles of 
+     * the elevation image (at least {@value #MIN_BAND_ROWS} rows) and the output is written 
+     * straight into a memory mapped temporary file, through its {@link IDirectRasterAccess}.</p>
+     */
+    private GridCoverage2D streamHillshade() throws Exception {
+        RenderedImage elevRI = inElev.getRenderedImage();
+        HashMap<String, Double> attribute = CoverageUtilities.getRegionParamsFromGridCoverage(inElev);
+        double res = attribute.get(CoverageUtilities.XRES);
+        int cols = elevRI.getWidth();
+        int rows = elevRI.getHeight();
+        int bandRows = Math.min(rows, Math.max(MIN_BAND_ROWS, elevRI.getTileHeight()));
+
+        File outFile = File.createTempFile("hm_hillshade_", ".raster");
+        outFile.deleteOnExit();
+        WritableRaster hillshadeWR = CoverageUtilities.createMappedWritableRaster(outFile, cols, rows, null, null);
+        IDirectRasterAccess hillshadeAccess = CoverageUtilities.getDirectAccess(hillshadeWR);
+
+        double[] sunVector = calcSunVector(Math.toRadians(pAzimuth), Math.toRadians(pElev));
+        double[] elev = new double[(bandRows + 1) * cols];
+        pm.beginTask(msg.message("hillshade.calculating"), rows);
+        ShadowEngine engine = new ShadowEngine(cols, rows, res);
+        engine.shadow(sunVector, bandRows, ( fromRow, toRow, bandElev ) -> {
+            readElevation(elevRI, fromRow, toRow, bandElev);
+        }, ( fromRow, toRow, shadow ) -> {
+            // the normal of a cell needs the next row too
+            readElevation(elevRI, fromRow, Math.min(toRow + 1, rows), elev);
+            for( int row = fromRow; row < toRow; row++ ) {
+                int offset = (row - fromRow) * cols;
+                for( int col = 0; col < cols; col++ ) {
+                    int index = offset + col;
+                    double value;
+                    if (col < 2 || row < 2 || col >= cols - 2 || row >= rows - 2) {
+                        value = 0;
+                    } else if (elev[index] == -9999.0) {
+                        value = doubleNoValue;
+                    } else {
+                        double[] ng = normalVector(elev[index], elev[index + 1], elev[index + cols], elev[index + cols + 1],
+                                res);
+                        double cosinc = scalarProduct(sunVector, ng);
+                        double sOmbra = shadow[index];
+                        if (cosinc < 0) {
+                            sOmbra = 0;
+                        }
+                        value = (int) (212.5 * (cosinc * sOmbra + pMinDiffuse));
+                    }
+                    hillshadeAccess.setDouble(col, row, value);
+                }
+            }
+            pm.worked(toRow - fromRow);
+        }, createDefaultPlanner());
+        pm.done();
+        addProcessedElements((long) cols * rows);
+
+        return CoverageUtilities.buildCoverage("insolation", hillshadeWR, attribute, inElev.getCoordinateReferenceSystem());
+    }
+
+    /**
+     * Reads rows of the elevation image in row-major order, with the novalues set to -9999.0 
+     * as in the in memory calculation.
+     */
+    private static void readElevation( RenderedImage elevRI, int fromRow, int toRow, double[] elev ) {
+        int minX = elevRI.getMinX();
+        int minY = elevRI.getMinY();
+        int cols = elevRI.getWidth();
+        Raster band = elevRI.getData(new Rectangle(minX, minY + fromRow, cols, toRow - fromRow));
+        band.getSamples(minX, minY + fromRow, cols, toRow - fromRow, 0, elev);
+        int size = (toRow - fromRow) * cols;
+        for( int i = 0; i < size; i++ ) {
+            if (Double.isNaN(elev[i])) {
+                elev[i] = -9999.0;
+            }
+        }
+    }
+
     /*
      * Re-set the no value to NaN (I have set it to -9999.0 in order to use this
      * value in the equation) and set the border to 0.
@@ -166,17 +270,16 @@ public class OmsHillshade extends HMModel {
      * @param dx
      *            the resolution of the dem. .
      */
-    private void calchillshade( WritableRaster pitWR, WritableRaster hillshadeWR, WritableRaster gradientWR, double dx ) {
+    private void calchillshade( WritableRaster pitWR, WritableRaster hillshadeWR, WritableRaster gradientWR, double dx )
+            throws Exception {
 
         pAzimuth = Math.toRadians(pAzimuth);
         pElev = Math.toRadians(pElev);
 
         double[] sunVector = calcSunVector();
-        double[] normalSunVector = calcNormalSunVector(sunVector);
-        double[] inverseSunVector = calcInverseSunVector(sunVector);
         int rows = pitWR.getHeight();
         int cols = pitWR.getWidth();
-        WritableRaster sOmbraWR = calculateFactor(rows, cols, sunVector, inverseSunVector, normalSunVector, pitWR, dx);
+        WritableRaster sOmbraWR = calculateFactor(rows, cols, sunVector, pitWR, dx, createDefaultPlanner());
         pm.beginTask(msg.message("hillshade.calculating"), rows * cols);
         for( int j = 1; j < rows - 1; j++ ) {
             for( int i = 1; i < cols - 1; i++ ) {
@@ -193,11 +296,20 @@ public class OmsHillshade extends HMModel {
         pm.done();
     }
 
+    @Override
+    protected ExecutionPlanner createDefaultPlanner() {
+        return createPlanner(pThreads);
+    }
+
     protected double[] calcSunVector() {
+        return calcSunVector(pAzimuth, pElev);
+    }
+
+    private static double[] calcSunVector( double azimuth, double elevation ) {
         double[] sunVector = new double[3];
-        sunVector[0] = Math.sin(pAzimuth) * Math.cos(pElev);
-        sunVector[1] = -Math.cos(pAzimuth) * Math.cos(pElev);
-        sunVector[2] = Math.sin(pElev);
+        sunVector[0] = Math.sin(azimuth) * Math.cos(elevation);
+        sunVector[1] = -Math.cos(azimuth) * Math.cos(elevation);
+        sunVector[2] = Math.sin(elevation);
         return sunVector;
 
     }
@@ -225,12 +337,7 @@ public class OmsHillshade extends HMModel {
                 double zidxj = pitIter.getSampleDouble(i + 1, j, 0);
                 double zijdy = pitIter.getSampleDouble(i, j + 1, 0);
                 double zidxjdy = pitIter.getSampleDouble(i + 1, j + 1, 0);
-                double firstComponent = 0.5 * res * (zij - zidxj + zijdy - zidxjdy);
-                double secondComponent = 0.5 * res * (zij + zidxj - zijdy - zidxjdy);
-                double thirthComponent = (res * res);
-                double den = Math.sqrt(firstComponent * firstComponent + secondComponent * secondComponent + thirthComponent
-                        * thirthComponent);
-                tmpNormaIter.setPixel(i, j, new double[]{firstComponent / den, secondComponent / den, thirthComponent / den});
+                tmpNormaIter.setPixel(i, j, normalVector(zij, zidxj, zijdy, zidxjdy, res));
 
             }
         }
@@ -239,4 +346,17 @@ public class OmsHillshade extends HMModel {
         return tmpNormalVectorWR;
 
     }
+
+    /**
+     * The normal vector in the center of the cell through the corripio's formula.
+     */
+    private static double[] normalVector( double zij, double zidxj, double zijdy, double zidxjdy, double res ) {
+        double firstComponent = 0.5 * res * (zij - zidxj + zijdy - zidxjdy);
+        double secondComponent = 0.5 * res * (zij + zidxj - zijdy - zidxjdy);
+        double thirthComponent = (res * res);
+        double den = Math.sqrt(firstComponent * firstComponent + secondComponent * secondComponent + thirthComponent
+                * thirthComponent);
+        return new double[]{firstComponent / den, secondComponent / den, thirthComponent / den};
+    }
+
 }
@@ -17,10 +17,6 @@
  */
 package org.hortonmachine.hmachine.modules.hydrogeomorphology.insolation;
 
-import static org.hortonmachine.gears.libs.modules.ModelsEngine.calcInverseSunVector;
-import static org.hortonmachine.gears.libs.modules.ModelsEngine.calcNormalSunVector;
-import static org.hortonmachine.gears.libs.modules.ModelsEngine.calculateFactor;
-import static org.hortonmachine.gears.libs.modules.ModelsEngine.scalarProduct;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_AUTHORCONTACTS;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_AUTHORNAMES;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_DESCRIPTION;
@@ -31,13 +27,17 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_NAME;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_STATUS;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_inElev_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_outIns_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_pAzimuths_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_pThreads_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_tEndDate_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_tStartDate_DESCRIPTION;
 
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import javax.media.jai.RasterFactory;
 import javax.media.jai.iterator.RandomIter;
@@ -57,7 +57,10 @@ import oms3.annotations.Status;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
-import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.libs.modules.HorizonEngine;
+import org.hortonmachine.gears.libs.modules.ShadowEngine;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
+import org.hortonmachine.gears.libs.modules.multiprocessing.MultiProcessing;
 import org.hortonmachine.gears.utils.CrsUtilities;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
@@ -78,7 +81,7 @@ import com.vividsolutions.jts.geom.Point;
 @Name(OMSINSOLATION_NAME)
 @Status(OMSINSOLATION_STATUS)
 @License(OMSINSOLATION_LICENSE)
-public class OmsInsolation extends HMModel {
+public class OmsInsolation extends MultiProcessing {
 
     @Description(OMSINSOLATION_inElev_DESCRIPTION)
     @In
@@ -92,6 +95,14 @@ public class OmsInsolation extends HMModel {
     @In
     public String tEndDate = null;
 
+    @Description(OMSINSOLATION_pAzimuths_DESCRIPTION)
+    @In
+    public int pAzimuths = 0;
+
+    @Description(OMSINSOLATION_pThreads_DESCRIPTION)
+    @In
+    public int pThreads = 1;
+
     @Description(OMSINSOLATION_outIns_DESCRIPTION)
     @Out
     public GridCoverage2D outIns;
@@ -116,10 +127,6 @@ public class OmsInsolation extends HMModel {
 
     private double lambda;
 
-    private double delta;
-
-    private double omega;
-
     private HortonMessageHandler msg = HortonMessageHandler.getInstance();
 
     @Execute
@@ -161,77 +168,203 @@ public class OmsInsolation extends HMModel {
         WritableRaster pitWR = CoverageUtilities.replaceNovalue(pitTmpRI, -9999.0);
         pitTmpRI = null;
 
-        WritableRaster insolationWR = CoverageUtilities.createWritableRaster(width, height, null, pitWR.getSampleModel(),
-                0.0);
-        WritableRandomIter insolationIterator = RandomIterFactory.createWritable(insolationWR, null);
-
         WritableRaster gradientWR = normalVector(pitWR, dx);
 
-        pm.beginTask(msg.message("insolation.calculating"), endDay - startDay);
+        // the data in row-major order
+        double[] elevData = pitWR.getSamples(0, 0, width, height, 0, (double[]) null);
+        double[][] normalData = new double[3][];
+        for( int b = 0; b < 3; b++ ) {
+            normalData[b] = gradientWR.getSamples(0, 0, width, height, b, (double[]) null);
+        }
 
-        for( int i = startDay; i <= endDay; i++ ) {
-            calcInsolation(lambda, pitWR, gradientWR, insolationWR, i, dx);
-            pm.worked(i - startDay);
+        double[] insolation;
+        if (pAzimuths > 0) {
+            insolation = calcInsolationWithHorizon(elevData, normalData, width, height, startDay, endDay, dx);
+        } else {
+            insolation = calcInsolationByDay(elevData, normalData, width, height, startDay, endDay, dx);
         }
-        pm.done();
+        if (pm.isCanceled()) {
+            return;
+        }
+
         for( int y = 2; y < height - 2; y++ ) {
             for( int x = 2; x < width - 2; x++ ) {
-                if (pitWR.getSampleDouble(x, y, 0) == -9999.0) {
-                    insolationIterator.setSample(x, y, 0, Double.NaN);
-
+                if (elevData[y * width + x] == -9999.0) {
+                    insolation[y * width + x] = Double.NaN;
                 }
             }
         }
 
+        addProcessedElements((long) width * height);
+        WritableRaster insolationWR = CoverageUtilities.rowMajorDoubleArray2WritableRaster(insolation, width, height);
         outIns = CoverageUtilities.buildCoverage("insolation", insolationWR, attribute, inElev.getCoordinateReferenceSystem());
     }
 
+    @Override
+    protected ExecutionPlanner createDefaultPlanner() {
+        return createPlanner(pThreads);
+    }
+
+    /**
+     * Evaluate the radiation tracing the shadows of every sun position with the {@link ShadowEngine}.
+     * 
+     * <p>The days are processed in parallel, every thread sums its days in its own array.</p>
+     */
+    private double[] calcInsolationByDay( double[] elevData, double[][] normalData, int width, int height, int startDay,
+            int endDay, double dx ) throws Exception {
+        ShadowEngine shadowEngine = new ShadowEngine(elevData, width, height, dx);
+        List<double[]> accumulators = new ArrayList<>();
+        ThreadLocal<double[]> threadAccumulator = ThreadLocal.withInitial(() -> {
+            double[] accumulator = new double[width * height];
+            synchronized (accumulators) {
+                accumulators.add(accumulator);
+            }
+            return accumulator;
+        });
+
+        pm.beginTask(msg.message("insolation.calculating"), endDay - startDay + 1);
+        ExecutionPlanner planner = createDefaultPlanner();
+        planner.setNumberOfTasks(endDay - startDay + 1);
+        for( int i = startDay; i <= endDay; i++ ) {
+            int day = i;
+            planner.submit(() -> {
+                if (pm.isCanceled()) {
+                    return;
+                }
+                double[] accumulator = threadAccumulator.get();
+                for( double[] sunVector : calcSunVectors(day) ) {
+                    // the days are already in parallel, the rays of a day are traced in this thread
+                    byte[] shadow = shadowEngine.shadow(sunVector, null);
+                    double mr = calcMr(sunVector);
+                    for( int index = 0; index < shadow.length; index++ ) {
+                        // evaluate the radiation.
+                        accumulator[index] += calcRadiation(index, elevData, normalData, shadow[index], sunVector, mr);
+                    }
+                }
+                pm.worked(1);
+            });
+        }
+        planner.join();
+        pm.done();
+
+        double[] insolation = new double[width * height];
+        for( double[] accumulator : accumulators ) {
+            for( int i = 0; i < insolation.length; i++ ) {
+                insolation[i] += accumulator[i];
+            }
+        }
+        return insolation;
+    }
+
     /**
-     * Evaluate the radiation.
+     * Evaluate the radiation with the shadows of a {@link HorizonEngine}.
      * 
-     * @param lambda
-     *            the latitude.
-     * @param demWR
-     *            the raster of elevation
-     * @param gradientWR
-     *            the raster of the gradient value of the dem.
-     * @param insolationWR
-     *            the wr where to store the result.
-     * @param the
-     *            day in the year.
-     * @paradx the resolutiono of the dem.
+     * <p>The sun positions are grouped by the {@link HorizonEngine#getSector(double) sector}
+     * of their azimuth, so that the horizon of every azimuth is calculated once. For every 
+     * sector the rows are processed in parallel, every row summing the sun positions of the 
+     * sector in the same order.</p>
      */
-    private void calcInsolation( double lambda, WritableRaster demWR, WritableRaster gradientWR, WritableRaster insolationWR,
-            int day, double dx ) {
+    private double[] calcInsolationWithHorizon( double[] elevData, double[][] normalData, int width, int height, int startDay,
+            int endDay, double dx ) throws Exception {
+        double[] horizonElev = new double[elevData.length];
+        for( int i = 0; i < elevData.length; i++ ) {
+            horizonElev[i] = elevData[i] == -9999.0 ? Double.NaN : elevData[i];
+        }
+        HorizonEngine horizonEngine = new HorizonEngine(horizonElev, width, height, dx, dx, pAzimuths);
+
+        List<List<double[]>> sectorSunVectors = new ArrayList<>();
+        for( int a = 0; a < pAzimuths; a++ ) {
+            sectorSunVectors.add(new ArrayList<>());
+        }
+        for( int day = startDay; day <= endDay; day++ ) {
+            for( double[] sunVector : calcSunVectors(day) ) {
+                sectorSunVectors.get(horizonEngine.getSector(calcAzimuth(sunVector))).add(sunVector);
+            }
+        }
+
+        double[] insolation = new double[width * height];
+        pm.beginTask(msg.message("insolation.calculating"), pAzimuths);
+        ExecutionPlanner planner = createDefaultPlanner();
+        for( List<double[]> sunVectors : sectorSunVectors ) {
+            if (pm.isCanceled()) {
+                return insolation;
+            }
+            int sunPositions = sunVectors.size();
+            if (sunPositions > 0) {
+                HorizonEngine.Horizon[] horizons = new HorizonEngine.Horizon[sunPositions];
+                double[] elevations = new double[sunPositions];
+                double[] mrs = new double[sunPositions];
+                for( int s = 0; s < sunPositions; s++ ) {
+                    double[] sunVector = sunVectors.get(s);
+                    horizons[s] = horizonEngine.getHorizon(calcAzimuth(sunVector), planner);
+                    elevations[s] = Math.asin(sunVector[2]);
+                    mrs[s] = calcMr(sunVector);
+                }
+
+                planner.setNumberOfTasks(height);
+                for( int j = 0; j < height; j++ ) {
+                    int row = j;
+                    planner.submit(() -> {
+                        for( int s = 0; s < sunPositions; s++ ) {
+                            double[] sunVector = sunVectors.get(s);
+                            for( int k = 0; k < width; k++ ) {
+                                int index = row * width + k;
+                                if (Double.isNaN(horizonElev[index])) {
+                                    continue;
+                                }
+                                double sOmbra = horizons[s].isShadowed(index, elevations[s]) ? 0.0 : 1.0;
+                                insolation[index] += calcRadiation(index, elevData, normalData, sOmbra, sunVector, mrs[s]);
+                            }
+                        }
+                    });
+                }
+                planner.join();
+            }
+            pm.worked(1);
+        }
+        pm.done();
+        return insolation;
+    }
+
+    /**
+     * @return the azimuth of a sun vector in radians, clockwise from north.
+     */
+    private static double calcAzimuth( double[] sunVector ) {
+        // the sun vector points east and south in the raster
+        return Math.atan2(sunVector[0], -sunVector[1]);
+    }
+
+    /**
+     * Calculate the sun vectors of a day, every half hour while the sun is up.
+     * 
+     * @param day the day in the year.
+     * @return the list of sun vectors.
+     */
+    private List<double[]> calcSunVectors( int day ) {
         // calculating the day angle
         // double dayang = 2 * Math.PI * (day - 1) / 365.0;
         double dayangb = (360 / 365.25) * (day - 79.436);
         dayangb = Math.toRadians(dayangb);
         // Evaluate the declination of the sun.
-        delta = getDeclination(dayangb);
+        double delta = getDeclination(dayangb);
         // Evaluate the radiation in this day.
         double ss = Math.acos(-Math.tan(delta) * Math.tan(lambda));
         double hour = -ss + (Math.PI / 48.0);
+        List<double[]> sunVectors = new ArrayList<>();
         while( hour <= ss - (Math.PI / 48) ) {
-            omega = hour;
             // calculating the vector related to the sun
-            double sunVector[] = calcSunVector();
-            double zenith = calcZenith(sunVector[2]);
-            double[] inverseSunVector = calcInverseSunVector(sunVector);
-            double[] normalSunVector = calcNormalSunVector(sunVector);
-
-            int height = demWR.getHeight();
-            int width = demWR.getWidth();
-            WritableRaster sOmbraWR = calculateFactor(height, width, sunVector, inverseSunVector, normalSunVector, demWR, dx);
-            double mr = 1 / (sunVector[2] + 0.15 * Math.pow((93.885 - zenith), (-1.253)));
-            for( int j = 0; j < height; j++ ) {
-                for( int i = 0; i < width; i++ ) {
-                    // evaluate the radiation.
-                    calcRadiation(i, j, demWR, sOmbraWR, insolationWR, sunVector, gradientWR, mr);
-                }
-            }
+            sunVectors.add(calcSunVector(hour, delta));
             hour = hour + Math.PI / 24.0;
         }
+        return sunVectors;
+    }
+
+    /**
+     * Calculate the relative optical air mass.
+     */
+    private double calcMr( double[] sunVector ) {
+        double zenith = calcZenith(sunVector[2]);
+        return 1 / (sunVector[2] + 0.15 * Math.pow((93.885 - zenith), (-1.253)));
     }
 
     /*
@@ -247,9 +380,9 @@ public class OmsInsolation extends HMModel {
      * evaluate several component of the radiation and then multiply by the
      * sOmbra factor.
      */
-    private void calcRadiation( int i, int j, WritableRaster demWR, WritableRaster sOmbraWR, WritableRaster insolationWR,
-            double[] sunVector, WritableRaster gradientWR, double mr ) {
-        double z = demWR.getSampleDouble(i, j, 0);
+    private double calcRadiation( int index, double[] elevData, double[][] normalData, double sOmbra, double[] sunVector,
+            double mr ) {
+        double z = elevData[index];
         double pressure = ATM * Math.exp(-0.0001184 * z);
         double ma = mr * pressure / ATM;
         double temp = 273 + pLapse * (z - 4000);
@@ -265,16 +398,16 @@ public class OmsInsolation extends HMModel {
 
         double In = 0.9751 * SOLARCTE * taur * tauo * taug * tauw * taua;
 
-        double cosinc = scalarProduct(sunVector, gradientWR.getPixel(i, j, new double[3]));
+        double cosinc = sunVector[0] * normalData[0][index] + sunVector[1] * normalData[1][index] + sunVector[2]
+                * normalData[2][index];
 
         if (cosinc < 0) {
             cosinc = 0;
         }
-        double tmp = insolationWR.getSampleDouble(i, j, 0);
-        insolationWR.setSample(i, j, 0, In * cosinc * sOmbraWR.getSampleDouble(i, j, 0) / 1000 + tmp);
+        return In * cosinc * sOmbra / 1000;
     }
 
-    protected double[] calcSunVector() {
+    protected double[] calcSunVector( double omega, double delta ) {
         double sunVector[] = new double[3];
         sunVector[0] = -Math.sin(omega) * Math.cos(delta);
         sunVector[1] = Math.sin(lambda) * Math.cos(omega) * Math.cos(delta) - Math.cos(lambda) * Math.sin(delta);
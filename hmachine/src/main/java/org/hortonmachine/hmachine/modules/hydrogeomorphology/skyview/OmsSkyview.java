@@ -34,6 +34,8 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_NAME;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_STATUS;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_inElev_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_outSky_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_pAzimuths_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_pThreads_DESCRIPTION;
 
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
@@ -54,7 +56,10 @@ import oms3.annotations.Out;
 import oms3.annotations.Status;
 
 import org.geotools.coverage.grid.GridCoverage2D;
-import org.hortonmachine.gears.libs.modules.HMModel;
+import org.hortonmachine.gears.libs.modules.HorizonEngine;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
+import org.hortonmachine.gears.libs.modules.multiprocessing.MultiProcessing;
+import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.hmachine.i18n.HortonMessageHandler;
 
@@ -65,12 +70,20 @@ import org.hortonmachine.hmachine.i18n.HortonMessageHandler;
 @Name(OMSSKYVIEW_NAME)
 @Status(OMSSKYVIEW_STATUS)
 @License(OMSSKYVIEW_LICENSE)
-public class OmsSkyview extends HMModel {
+public class OmsSkyview extends MultiProcessing {
 
     @Description(OMSSKYVIEW_inElev_DESCRIPTION)
     @In
     public GridCoverage2D inElev = null;
 
+    @Description(OMSSKYVIEW_pAzimuths_DESCRIPTION)
+    @In
+    public int pAzimuths = 0;
+
+    @Description(OMSSKYVIEW_pThreads_DESCRIPTION)
+    @In
+    public int pThreads = 1;
+
     @Description(OMSSKYVIEW_outSky_DESCRIPTION)
     @Out
     public GridCoverage2D outSky;
@@ -102,7 +115,12 @@ public class OmsSkyview extends HMModel {
         rows = pitWR.getHeight();
         cols = pitWR.getWidth();
 
-        WritableRaster skyWR = skyviewfactor(pitWR, dx);
+        WritableRaster skyWR;
+        if (pAzimuths > 0) {
+            skyWR = skyviewfactorWithHorizon(pitWR, dx);
+        } else {
+            skyWR = skyviewfactor(pitWR, dx);
+        }
 
         int maxY = minY + rows;
         int maxX = minX + cols;
@@ -126,6 +144,7 @@ public class OmsSkyview extends HMModel {
             skyWR.setSample(x, rows - 2, 0, doubleNovalue);
             skyWR.setSample(x, rows - 1, 0, doubleNovalue);
         }
+        addProcessedElements((long) cols * rows);
         outSky = CoverageUtilities.buildCoverage("skyview factor", skyWR, attribute, inElev.getCoordinateReferenceSystem());
 
     }
@@ -269,6 +288,40 @@ public class OmsSkyview extends HMModel {
         return skyviewFactorWR;
     }
 
+    /**
+     * Calculate the skyview factor from the horizon of a {@link HorizonEngine}.
+     * 
+     * <p>This is the mean of <code>cos^2</code> of the horizon angle over all the 
+     * azimuths, so a flat area gives 1, while {@link #skyviewfactor(WritableRaster, double)}
+     * sums 35 directions weighted by <code>10/360</code> and gives 35/36. Also, there the 
+     * cells facing away from the sun don't cast shadows, so in steep terrain the horizon 
+     * is lower and the factor higher than the one calculated here.</p>
+     * 
+     * @param pitWR
+     *            the dem ( the map of elevation).
+     * @param res the resolution of the map.
+     * @return the map of sky view factor.
+     * @throws Exception
+     */
+    private WritableRaster skyviewfactorWithHorizon( WritableRaster pitWR, double res ) throws Exception {
+        double[] elevData = pitWR.getSamples(minX, minY, cols, rows, 0, (double[]) null);
+        for( int i = 0; i < elevData.length; i++ ) {
+            if (elevData[i] == -9999.0) {
+                elevData[i] = Double.NaN;
+            }
+        }
+        pm.beginTask(msg.message("skyview.calculating"), IHMProgressMonitor.UNKNOWN);
+        HorizonEngine horizonEngine = new HorizonEngine(elevData, cols, rows, res, res, pAzimuths);
+        double[] skyview = horizonEngine.skyviewFactor(createDefaultPlanner());
+        pm.done();
+        return CoverageUtilities.rowMajorDoubleArray2WritableRaster(skyview, cols, rows);
+    }
+
+    @Override
+    protected ExecutionPlanner createDefaultPlanner() {
+        return createPlanner(pThreads);
+    }
+
     /**
      * Calculate the angle.
      * 
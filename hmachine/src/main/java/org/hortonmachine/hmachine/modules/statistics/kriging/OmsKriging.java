@@ -16,6 +16,7 @@
  */
 package org.hortonmachine.hmachine.modules.statistics.kriging;
 
+import static org.hortonmachine.gears.libs.modules.HMConstants.doubleNovalue;
 import static org.hortonmachine.gears.libs.modules.HMConstants.isNovalue;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_AUTHORCONTACTS;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_AUTHORNAMES;
@@ -39,18 +40,23 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_outData_
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_outGrid_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_pA_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_pIntegralscale_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_pMaxNeighbours_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_pMode_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_pNug_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_pS_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_pSearchRadius_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_pSemivariogramType_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_pThreads_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_pVariance_DESCRIPTION;
 
 import java.awt.image.WritableRaster;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.media.jai.iterator.RandomIterFactory;
@@ -76,11 +82,11 @@ import org.geotools.feature.SchemaException;
 import org.geotools.geometry.DirectPosition2D;
 import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
 import org.hortonmachine.gears.libs.exceptions.ModelsRuntimeException;
-import org.hortonmachine.gears.libs.modules.HMModel;
 import org.hortonmachine.gears.libs.modules.ModelsEngine;
+import org.hortonmachine.gears.libs.modules.multiprocessing.ExecutionPlanner;
+import org.hortonmachine.gears.libs.modules.multiprocessing.GridMultiProcessing;
 import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
-import org.hortonmachine.gears.utils.math.matrixes.ColumnVector;
 import org.hortonmachine.gears.utils.math.matrixes.LinearSystem;
 import org.hortonmachine.hmachine.i18n.HortonMessageHandler;
 import org.opengis.feature.simple.SimpleFeature;
@@ -89,7 +95,9 @@ import org.opengis.geometry.MismatchedDimensionException;
 import org.opengis.referencing.operation.MathTransform;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.strtree.STRtree;
 
 @Description(OMSKRIGING_DESCRIPTION)
 @Author(name = OMSKRIGING_AUTHORNAMES, contact = OMSKRIGING_AUTHORCONTACTS)
@@ -98,7 +106,7 @@ import com.vividsolutions.jts.geom.Geometry;
 @Name(OMSKRIGING_NAME)
 @Status(OMSKRIGING_STATUS)
 @License(OMSKRIGING_LICENSE)
-public class OmsKriging extends HMModel {
+public class OmsKriging extends GridMultiProcessing {
 
     @Description(OMSKRIGING_inStations_DESCRIPTION)
     @In
@@ -194,6 +202,26 @@ public class OmsKriging extends HMModel {
     @In
     public double pNug;
 
+    /**
+     * The maximum number of nearest stations used for each point. If this
+     * or {@link #pSearchRadius} are set, every point is interpolated with a
+     * local kriging system of its neighbouring stations.
+     */
+    @Description(OMSKRIGING_pMaxNeighbours_DESCRIPTION)
+    @In
+    public int pMaxNeighbours = 0;
+
+    /**
+     * The radius in which stations are used for each point.
+     */
+    @Description(OMSKRIGING_pSearchRadius_DESCRIPTION)
+    @In
+    public double pSearchRadius = 0;
+
+    @Description(OMSKRIGING_pThreads_DESCRIPTION)
+    @In
+    public int pThreads = 1;
+
     @Description(OMSKRIGING_outGrid_DESCRIPTION)
     @Out
     public GridCoverage2D outGrid = null;
@@ -207,6 +235,16 @@ public class OmsKriging extends HMModel {
      */
     private static final double TOLL = 1.0d * 10E-8;
 
+    /**
+     * The number of points whose systems are solved together.
+     */
+    private static final int POINTS_PER_BLOCK = 256;
+
+    /**
+     * The number of local systems kept decomposed, per block of points.
+     */
+    private static final int LOCAL_SYSTEMS_CACHE_SIZE = 32;
+
     private HortonMessageHandler msg = HortonMessageHandler.getInstance();
 
     private WritableRaster outWR = null;
@@ -225,6 +263,11 @@ public class OmsKriging extends HMModel {
      * <li>For each point to interpolated, evalutate the know term vector (b)
      * and solve the system (a x)=b where x is the weight.
      * </p>
+     * <p>
+     * The covariance matrix is the same for all the points, so it is decomposed
+     * only once. The points are processed in blocks, in parallel if more threads
+     * are used.
+     * </p>
      * 
      * @throws SchemaException
      */
@@ -390,60 +433,54 @@ public class OmsKriging extends HMModel {
                 }
             }
 
-            /*
-             * calculating the covariance matrix.
-             */
-            double[][] covarianceMatrix = covMatrixCalculating(xStation, yStation, zStation, n1);
-            /*
-             * extract the coordinate of the points where interpolated.
-             */
-
-            /*
-             * initialize the solution and its variance vector.
-             */
-
             if (!areAllEquals && n1 > 1) {
                 // pm.beginTask(msg.message("kriging.working"),inInterpolate.size());
+                int pointsNum = pointsToInterpolateId2Coordinates.size();
+                double[] xPoints = new double[pointsNum];
+                double[] yPoints = new double[pointsNum];
+                double[] zPoints = new double[pointsNum];
                 while( idIterator.hasNext() ) {
-                    double sum = 0.;
                     int id = idIterator.next();
                     idArray[j] = id;
                     Coordinate coordinate = (Coordinate) pointsToInterpolateId2Coordinates.get(id);
-                    xStation[n1] = coordinate.x;
-                    yStation[n1] = coordinate.y;
-                    zStation[n1] = coordinate.z;
-                    /*
-                     * calculating the right hand side of the kriging linear
-                     * system.
-                     */
-                    double[] knownTerm = knownTermsCalculation(xStation, yStation, zStation, n1);
+                    xPoints[j] = coordinate.x;
+                    yPoints[j] = coordinate.y;
+                    zPoints[j] = coordinate.z;
+                    j++;
+                }
 
+                int stationsNum = n1;
+                if (pMaxNeighbours > 0 || pSearchRadius > 0) {
+                    interpolateLocally(xStation, yStation, zStation, hStation, stationsNum, xPoints, yPoints, zPoints, result);
+                } else {
                     /*
-                     * solve the linear system, where the result is the weight.
+                     * calculating the covariance matrix.
                      */
-                    ColumnVector knownTermColumn = new ColumnVector(knownTerm);
+                    double[][] covarianceMatrix = covMatrixCalculating(xStation, yStation, zStation, n1);
                     LinearSystem linearSystem = new LinearSystem(covarianceMatrix);
-                    ColumnVector solution = linearSystem.solve(knownTermColumn, true);
-                    // Matrix a = new Matrix(covarianceMatrix);
-                    // Matrix b = new Matrix(knownTerm, knownTerm.length);
-                    // Matrix x = a.solve(b);
-                    double[] moltiplicativeFactor = solution.copyValues1D();
-
-                    double h0 = 0.0;
-                    for( int k = 0; k < n1; k++ ) {
-                        h0 = h0 + moltiplicativeFactor[k] * hStation[k];
-                        sum = sum + moltiplicativeFactor[k];
-                    }
-
-                    if (doLogarithmic) {
-                        h0 = Math.exp(h0);
-                    }
-                    result[j] = h0;
-                    j++;
-                    if (Math.abs(sum - 1) >= TOLL) {
-                        throw new ModelsRuntimeException("Error in the coffeicients calculation", this.getClass().getSimpleName());
-                    }
+                    int blocksNum = (pointsNum + POINTS_PER_BLOCK - 1) / POINTS_PER_BLOCK;
+                    // the blocks are the rows of a one column grid, so that they are split among the tiles
+                    processGrid(1, blocksNum, ( c, block ) -> {
+                        int from = block * POINTS_PER_BLOCK;
+                        int to = Math.min(from + POINTS_PER_BLOCK, pointsNum);
+                        /*
+                         * calculating the right hand sides of the kriging linear
+                         * systems of the block.
+                         */
+                        double[][] knownTerms = new double[to - from][];
+                        for( int p = from; p < to; p++ ) {
+                            knownTerms[p - from] = knownTermsCalculation(xStation, yStation, zStation, stationsNum, xPoints[p],
+                                    yPoints[p], zPoints[p]);
+                        }
 
+                        /*
+                         * solve the linear systems, where the results are the weights.
+                         */
+                        double[][] solutions = linearSystem.solve(knownTerms, true);
+                        for( int p = from; p < to; p++ ) {
+                            result[p] = krigedValue(solutions[p - from], hStation, null, stationsNum);
+                        }
+                    });
                 }
             } else if (n1 == 1 || areAllEquals) {
                 double tmp = hStation[0];
@@ -480,6 +517,11 @@ public class OmsKriging extends HMModel {
         }
     }
 
+    @Override
+    protected ExecutionPlanner createDefaultPlanner() {
+        return createPlanner(pThreads);
+    }
+
     /**
      * Verify the input of the model.
      */
@@ -575,7 +617,172 @@ public class OmsKriging extends HMModel {
 
     }
 
+    /**
+     * Interpolates the points with the moving neighbourhood kriging.
+     * 
+     * <p>The neighbouring stations of each point are searched through a spatial
+     * index. Neighbouring points often have the same neighbouring stations, so the
+     * decomposed local systems are kept by their set of stations and reused.</p>
+     * <p>Points without stations in the search radius get novalue.</p>
+     */
+    private void interpolateLocally( double[] xStation, double[] yStation, double[] zStation, double[] hStation,
+            int stationsNum, double[] xPoints, double[] yPoints, double[] zPoints, double[] result ) throws Exception {
+        STRtree stationsTree = new STRtree();
+        Envelope stationsEnvelope = new Envelope();
+        for( int i = 0; i < stationsNum; i++ ) {
+            Envelope env = new Envelope(xStation[i], xStation[i], yStation[i], yStation[i]);
+            stationsTree.insert(env, i);
+            stationsEnvelope.expandToInclude(env);
+        }
+        stationsTree.build();
+
+        /*
+         * a first guess of the radius containing the nearest stations, 
+         * supposing them uniformly distributed.
+         */
+        double startRadius = pSearchRadius;
+        if (pMaxNeighbours > 0) {
+            double area = stationsEnvelope.getArea();
+            if (area > 0) {
+                startRadius = Math.sqrt(area * pMaxNeighbours / (Math.PI * stationsNum));
+            } else {
+                startRadius = Math.max(Math.max(stationsEnvelope.getWidth(), stationsEnvelope.getHeight()), 1.0);
+            }
+            if (pSearchRadius > 0) {
+                startRadius = Math.min(startRadius, pSearchRadius);
+            }
+        }
+        double firstRadius = startRadius;
+
+        int pointsNum = xPoints.length;
+        int blocksNum = (pointsNum + POINTS_PER_BLOCK - 1) / POINTS_PER_BLOCK;
+        // the blocks are the rows of a one column grid, so that they are split among the tiles
+        processGrid(1, blocksNum, ( c, block ) -> {
+            Map<StationsSet, LinearSystem> systemsCache = new LinkedHashMap<StationsSet, LinearSystem>(16, 0.75f, true){
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry( Map.Entry<StationsSet, LinearSystem> eldest ) {
+                    return size() > LOCAL_SYSTEMS_CACHE_SIZE;
+                }
+            };
+            int from = block * POINTS_PER_BLOCK;
+            int to = Math.min(from + POINTS_PER_BLOCK, pointsNum);
+            for( int p = from; p < to; p++ ) {
+                int[] stations = findNeighbourStations(stationsTree, stationsEnvelope, xStation, yStation, xPoints[p],
+                        yPoints[p], firstRadius);
+                int n = stations.length;
+                if (n == 0) {
+                    result[p] = doubleNovalue;
+                    continue;
+                }
+                double[] x = new double[n + 1];
+                double[] y = new double[n + 1];
+                double[] z = new double[n + 1];
+                for( int k = 0; k < n; k++ ) {
+                    x[k] = xStation[stations[k]];
+                    y[k] = yStation[stations[k]];
+                    z[k] = zStation[stations[k]];
+                }
+
+                StationsSet stationsSet = new StationsSet(stations);
+                LinearSystem linearSystem = systemsCache.get(stationsSet);
+                if (linearSystem == null) {
+                    linearSystem = new LinearSystem(covMatrixCalculating(x, y, z, n));
+                    systemsCache.put(stationsSet, linearSystem);
+                }
+                double[] knownTerm = knownTermsCalculation(x, y, z, n, xPoints[p], yPoints[p], zPoints[p]);
+                double[] weights = linearSystem.solve(new double[][]{knownTerm}, true)[0];
+                result[p] = krigedValue(weights, hStation, stations, n);
+            }
+        });
+    }
+
+    /**
+     * Finds the stations to use for a point: the {@link #pMaxNeighbours} nearest ones,
+     * limited to the {@link #pSearchRadius} if set.
+     * 
+     * @return the indexes of the stations, in ascending order.
+     */
+    private int[] findNeighbourStations( STRtree stationsTree, Envelope stationsEnvelope, double[] xStation,
+            double[] yStation, double xp, double yp, double startRadius ) {
+        // the distance at which all the stations are found
+        double maxDistance = Math.max(Math.abs(xp - stationsEnvelope.getMinX()), Math.abs(xp - stationsEnvelope.getMaxX()));
+        maxDistance = Math.hypot(maxDistance,
+                Math.max(Math.abs(yp - stationsEnvelope.getMinY()), Math.abs(yp - stationsEnvelope.getMaxY())));
+
+        double radius = startRadius;
+        List<Integer> candidates = new ArrayList<Integer>();
+        while( true ) {
+            candidates.clear();
+            Envelope env = new Envelope(xp - radius, xp + radius, yp - radius, yp + radius);
+            @SuppressWarnings("unchecked")
+            List<Integer> found = stationsTree.query(env);
+            for( Integer station : found ) {
+                if (Math.hypot(xStation[station] - xp, yStation[station] - yp) <= radius) {
+                    candidates.add(station);
+                }
+            }
+            if (pMaxNeighbours <= 0 || candidates.size() >= pMaxNeighbours || radius >= maxDistance
+                    || (pSearchRadius > 0 && radius >= pSearchRadius)) {
+                break;
+            }
+            radius = radius * 2;
+            if (pSearchRadius > 0) {
+                radius = Math.min(radius, pSearchRadius);
+            }
+        }
+
+        if (pMaxNeighbours > 0 && candidates.size() > pMaxNeighbours) {
+            // keep the nearest, ties by index
+            candidates.sort(( s1, s2 ) -> {
+                double d1 = Math.hypot(xStation[s1] - xp, yStation[s1] - yp);
+                double d2 = Math.hypot(xStation[s2] - xp, yStation[s2] - yp);
+                int compare = Double.compare(d1, d2);
+                return compare != 0 ? compare : Integer.compare(s1, s2);
+            });
+            candidates = candidates.subList(0, pMaxNeighbours);
+        }
+        int[] stations = new int[candidates.size()];
+        for( int i = 0; i < stations.length; i++ ) {
+            stations[i] = candidates.get(i);
+        }
+        Arrays.sort(stations);
+        return stations;
+    }
+
+    /**
+     * Calculates the interpolated value from the kriging weights.
+     * 
+     * @param weights the weights of the stations.
+     * @param hStation the measured values.
+     * @param stations the indexes of the stations the weights refer to, or 
+     *          <code>null</code> if they refer to the first n stations.
+     * @param n the number of stations.
+     * @return the interpolated value.
+     */
+    private double krigedValue( double[] weights, double[] hStation, int[] stations, int n ) {
+        double sum = 0.;
+        double h0 = 0.0;
+        for( int k = 0; k < n; k++ ) {
+            double h = stations == null ? hStation[k] : hStation[stations[k]];
+            h0 = h0 + weights[k] * h;
+            sum = sum + weights[k];
+        }
+
+        if (doLogarithmic) {
+            h0 = Math.exp(h0);
+        }
+        if (Math.abs(sum - 1) >= TOLL) {
+            throw new ModelsRuntimeException("Error in the coffeicients calculation", this.getClass().getSimpleName());
+        }
+        return h0;
+    }
+
     private double checkResultValue( double resultValue ) {
+        if (isNovalue(resultValue)) {
+            return resultValue;
+        }
         if (resultValue < 0) {
             return 0.0;
         }
@@ -776,23 +983,29 @@ public class OmsKriging extends HMModel {
      *            the z coordinates.
      * @param n
      *            the number of the stations points.
+     * @param xp
+     *            the x coordinate of the point to interpolate.
+     * @param yp
+     *            the y coordinate of the point to interpolate.
+     * @param zp
+     *            the z coordinate of the point to interpolate.
      * @return
      */
-    private double[] knownTermsCalculation( double[] x, double[] y, double[] z, int n ) {
+    private double[] knownTermsCalculation( double[] x, double[] y, double[] z, int n, double xp, double yp, double zp ) {
 
         double[] gamma = new double[n + 1];
         if (defaultVariogramMode == 0) {
             for( int i = 0; i < n; i++ ) {
-                double rx = x[i] - x[n];
-                double ry = y[i] - y[n];
-                double rz = z[i] - z[n];
+                double rx = x[i] - xp;
+                double ry = y[i] - yp;
+                double rz = z[i] - zp;
                 gamma[i] = variogram(rx, ry, rz);
             }
         } else if (defaultVariogramMode == 1) {
             for( int i = 0; i < n; i++ ) {
-                double rx = x[i] - x[n];
-                double ry = y[i] - y[n];
-                double rz = z[i] - z[n];
+                double rx = x[i] - xp;
+                double ry = y[i] - yp;
+                double rz = z[i] - zp;
                 gamma[i] = variogram(pNug, pA, pS, rx, ry, rz);
             }
 
@@ -802,4 +1015,30 @@ public class OmsKriging extends HMModel {
 
     }
 
+    /**
+     * The set of stations of a local kriging system.
+     */
+    private static class StationsSet {
+        private final int[] stations;
+        private final int hash;
+
+        StationsSet( int[] stations ) {
+            this.stations = stations;
+            this.hash = Arrays.hashCode(stations);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if (!(obj instanceof StationsSet)) {
+                return false;
+            }
+            return Arrays.equals(stations, ((StationsSet) obj).stations);
+        }
+    }
+
 }
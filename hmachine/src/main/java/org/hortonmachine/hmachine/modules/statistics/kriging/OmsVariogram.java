@@ -59,7 +59,9 @@ import org.hortonmachine.hmachine.i18n.HortonMessageHandler;
 import org.opengis.feature.simple.SimpleFeature;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.strtree.STRtree;
 
 @Description(OMSVARIOGRAM_DESCRIPTION)
 @Author(name = OMSVARIOGRAM_AUTHORNAMES, contact = OMSVARIOGRAM_AUTHORCONTACTS)
@@ -218,22 +220,14 @@ public class OmsVariogram extends HMModel {
 
     public static double[][] processAlgorithm( double[] xcord, double ycoord[], double[] values, double Cutoffinput ) {
 
-        double x1, x2, y1, y2;
-        double dDifX, dDifY;
-        double value;
         double mean = 0;
-        double maxDist = 0;
 
         int Cutoff_divide = 15;
         double Cutoff;
         int iCount = xcord.length;
-        double d[][] = new double[iCount][iCount];
         double x_max = xcord[0], y_max = ycoord[0], diagonale;
         double x_min = xcord[0], y_min = ycoord[0];
         for( int i = 1; i < iCount; i++ ) {
-            // System.out.println(values[i]);
-            // System.out.println(xcord[i]);
-            // System.out.println(ycoord[i]);
             x_min = Math.min(x_min, xcord[i]);
             y_min = Math.min(y_min, ycoord[i]);
             x_max = Math.max(x_max, xcord[i]);
@@ -247,31 +241,56 @@ public class OmsVariogram extends HMModel {
             Cutoff = diagonale / 3;
         } else
             Cutoff = Cutoffinput;
-        // System.out.println(Cutoff);
-        for( int i = 0; i < iCount; i++ ) {
-            x1 = xcord[i];
-            y1 = ycoord[i];
-            value = values[i];
-
-            mean += value;
-
-            for( int j = 0; j < iCount; j++ ) {
 
-                x2 = xcord[j];
-                y2 = ycoord[j];
-
-                dDifX = x2 - x1;
-                dDifY = y2 - y1;
-                d[i][j] = Math.sqrt(dDifX * dDifX + dDifY * dDifY); // Teor
-                                                                    // Pitagora
-
-                maxDist = Math.max(maxDist, d[i][j]);
+        /*
+         * only the pairs closer than the cutoff are used, so instead of the 
+         * whole distance matrix only the neighbours in the cutoff are
+         * searched through a spatial index.
+         */
+        STRtree tree = new STRtree();
+        for( int i = 0; i < iCount; i++ ) {
+            tree.insert(new Envelope(xcord[i], xcord[i], ycoord[i], ycoord[i]), i);
+        }
+        tree.build();
 
+        int[][] neighbours = new int[iCount][];
+        double[][] distances = new double[iCount][];
+        for( int i = 0; i < iCount; i++ ) {
+            double x1 = xcord[i];
+            double y1 = ycoord[i];
+            mean += values[i];
+
+            @SuppressWarnings("unchecked")
+            List<Integer> found = tree.query(new Envelope(x1 - Cutoff, x1 + Cutoff, y1 - Cutoff, y1 + Cutoff));
+            int[] candidates = new int[found.size()];
+            int count = 0;
+            for( Integer j : found ) {
+                if (j > i) {
+                    candidates[count++] = j;
+                }
             }
+            Arrays.sort(candidates, 0, count);
+
+            int[] iNeighbours = new int[count];
+            double[] iDistances = new double[count];
+            int k = 0;
+            for( int c = 0; c < count; c++ ) {
+                int j = candidates[c];
+                double dDifX = xcord[j] - x1;
+                double dDifY = ycoord[j] - y1;
+                double d = Math.sqrt(dDifX * dDifX + dDifY * dDifY);
+                if (d > 0 && d < Cutoff) {
+                    iNeighbours[k] = j;
+                    iDistances[k] = d;
+                    k++;
+                }
+            }
+            neighbours[i] = Arrays.copyOf(iNeighbours, k);
+            distances[i] = Arrays.copyOf(iDistances, k);
         }
 
         mean /= (double) iCount; // media dei valori di pioggia
-        double[][] risultato = calculate(Cutoff_divide, Cutoff, d, values, mean, maxDist);
+        double[][] risultato = calculate(Cutoff_divide, Cutoff, neighbours, distances, values, mean);
 
         return risultato;
 
@@ -279,6 +298,41 @@ public class OmsVariogram extends HMModel {
 
     public static double[][] calculate( int num, double cutoff, double[][] matricedelledistanze, double[] values, double media,
             double maxdistanza ) {
+        int count = matricedelledistanze.length;
+        int[][] neighbours = new int[count][];
+        double[][] distances = new double[count][];
+        for( int i = 0; i < count; i++ ) {
+            int[] iNeighbours = new int[count];
+            double[] iDistances = new double[count];
+            int k = 0;
+            for( int j = i + 1; j < count; j++ ) {
+                if (matricedelledistanze[i][j] > 0 && matricedelledistanze[i][j] < cutoff) {
+                    iNeighbours[k] = j;
+                    iDistances[k] = matricedelledistanze[i][j];
+                    k++;
+                }
+            }
+            neighbours[i] = Arrays.copyOf(iNeighbours, k);
+            distances[i] = Arrays.copyOf(iDistances, k);
+        }
+        return calculate(num, cutoff, neighbours, distances, values, media);
+    }
+
+    /**
+     * Calculates the experimental variogram from the pairs of points closer than the cutoff.
+     * 
+     * @param num the number of distance classes in the cutoff.
+     * @param cutoff the cutoff distance.
+     * @param neighbours for each point, the following points (in ascending order) that 
+     *          are closer than the cutoff.
+     * @param distances the distances to the neighbours.
+     * @param values the values of the points.
+     * @param media the mean of the values.
+     * @return the number of pairs, the mean distance, the semivariance, the Moran 
+     *          and the Geary index of the distance classes.
+     */
+    public static double[][] calculate( int num, double cutoff, int[][] neighbours, double[][] distances, double[] values,
+            double media ) {
         int i, j;
         int iClasses;
         int iClass;
@@ -289,11 +343,10 @@ public class OmsVariogram extends HMModel {
         double[] dDen;
 
         binAmplitude = cutoff / num;
-        iClasses = (int) (maxdistanza / binAmplitude + 2); // numero di distanze
-                                                           // e per ogni dist
-                                                           // calcolo la
-                                                           // semivar
-        // System.out.println(binAmplitude);
+        iClasses = num + 2; // numero di distanze
+                            // e per ogni dist
+                            // calcolo la
+                            // semivar
         double[] m_dMoran = new double[iClasses];
         double[] m_dGeary = new double[iClasses];
         dDen = new double[iClasses]; // vettori che per ogni distanza
@@ -305,55 +358,35 @@ public class OmsVariogram extends HMModel {
         bIsInClass = new boolean[iClasses];
         double[] m_ddist = new double[iClasses];
 
-        for( i = 0; i < matricedelledistanze.length; i++ ) {
+        for( i = 0; i < neighbours.length; i++ ) {
             Arrays.fill(bIsInClass, false); // riempio il vettore buleano
                                             // bisinclass di false
             double value1 = values[i]; // valori di pioggia del primo ciclo
 
-            for( j = i + 1; j < matricedelledistanze.length; j++ ) {
-                if (matricedelledistanze[i][j] > 0 && matricedelledistanze[i][j] < cutoff) {
-
-                    iClass = (int) Math.floor((matricedelledistanze[i][j]) / binAmplitude); // ritorna
-                                                                                            // a
-                                                                                            // quale
-                                                                                            // classe
-                                                                                            // di
-                                                                                            // distanza
-                                                                                            // appartiene
-                                                                                            // quella
-                                                                                            // in
-                                                                                            // oggetto
-
-                    iPointsInClass[iClass]++; // conta i numeri di distanze per
-                                              // ogni tipo di distanze
-                    double value2 = values[j]; // val di pioggia del secondo
-                                               // ciclo
-                    dSemivar = Math.pow((value1 - value2), 2.); // calcolo la
-                                                                // semivarianza
-
-                    m_dSemivar[iClass] += dSemivar; // la varianza va a sommare
-                                                    // tutte le varianze della
-                                                    // classe di distanza
-                    m_dMoran[iClass] += (value1 - media) * (value2 - media); // somma
-                                                                             // delle
-                                                                             // covarianze
-                                                                             // della
-                                                                             // classe
-                                                                             // di
-                                                                             // distanza
-                    m_dGeary[iClass] = m_dSemivar[iClass]; // inserita la
-                                                           // somma delle
-                                                           // semivarianze
-                                                           // della distanza
-                    bIsInClass[iClass] = true; // per la dist in questione si
-                                               // inserisce true
-
-                    m_ddist[iClass] += matricedelledistanze[i][j]; // +
-                                                                   // binAmplitude
-                                                                   // / 2. /
-                                                                   // binAmplitude;
-
-                }
+            for( int k = 0; k < neighbours[i].length; k++ ) {
+                double distance = distances[i][k];
+                iClass = (int) Math.floor(distance / binAmplitude); // classe di distanza
+
+                iPointsInClass[iClass]++; // conta i numeri di distanze per
+                                          // ogni tipo di distanze
+                double value2 = values[neighbours[i][k]]; // val di pioggia del secondo
+                                                          // ciclo
+                dSemivar = Math.pow((value1 - value2), 2.); // calcolo la
+                                                            // semivarianza
+
+                m_dSemivar[iClass] += dSemivar; // la varianza va a sommare
+                                                // tutte le varianze della
+                                                // classe di distanza
+                m_dMoran[iClass] += (value1 - media) * (value2 - media); // somma delle covarianze
+                                                                         // della classe di distanza
+                m_dGeary[iClass] = m_dSemivar[iClass]; // inserita la
+                                                       // somma delle
+                                                       // semivarianze
+                                                       // della distanza
+                bIsInClass[iClass] = true; // per la dist in questione si
+                                           // inserisce true
+
+                m_ddist[iClass] += distance;
             }
 
             for( j = 0; j < iClasses; j++ ) {
@@ -0,0 +1,335 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.hmachine.models.hm;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.hortonmachine.gears.io.timedependent.OmsTimeSeriesIteratorReader;
+import org.hortonmachine.gears.io.timedependent.OmsTimeSeriesIteratorWriter;
+import org.hortonmachine.gears.utils.files.FileUtilities;
+import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.AdigeEnsemble;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.AdigeNetwork;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.OmsAdige;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.duffy.DuffyInputs;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.hymod.HymodInputs;
+import org.hortonmachine.hmachine.modules.network.networkattributes.NetworkChannel;
+import org.hortonmachine.hmachine.utils.HMTestCase;
+import org.hortonmachine.hmachine.utils.HMTestMaps;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Test {@link OmsAdige}.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestAdige extends HMTestCase {
+
+    /**
+     * The number of links of the main stream, pfafstetter 1, 3, 5... Every link but
+     * the most downstream one receives a tributary, pfafstetter 2, 4, 6...
+     */
+    private static final int MAIN_LINKS = 81;
+    private static final int LINKS = 2 * MAIN_LINKS - 1;
+    private static final int STEPS = 8;
+    private static final String START = "2000-01-01 00:00";
+    private static final String END = "2000-01-01 07:00";
+    private static final String[] DUFFY_FIELDS = {"avg_sub", "var_sub", "avg_sup_10", "var_sup_10", "avg_sup_30", "var_sup_30",
+            "avg_sup_60", "var_sup_60"};
+
+    /**
+     * The outlet discharges of the sequential engines before the hillslopes were scheduled by level.
+     */
+    private static final double[] HYMOD_OUTLET = {3.586808287500858E-5, 1.4603180096523657E-4, 3.3612886048622946E-4,
+            6.129408167552569E-4, 6.55783029514581E-4, 7.060395322871941E-4, 7.599888729279281E-4, 8.147567536014251E-4};
+    private static final double[] DUFFY_OUTLET = {0.3012102902567682, 0.2892283109562081, 0.2883536593759411,
+            0.28293082985078805, 0.01578419055998963, 0.002367323338147603, 9.932287431217355E-4, 9.932287431217355E-4};
+
+    private SimpleFeatureCollection hillslopes;
+    private SimpleFeatureCollection network;
+    private String allPfafs;
+
+    @Override
+    protected void setUp() throws Exception {
+        createNetwork();
+    }
+
+    public void testAdigeThreads() throws Exception {
+        // the tributaries are all headwaters, so the first level is processed in parallel
+        List<HashMap<Integer, double[]>> sequential = runAdige(1, 1.0);
+        List<HashMap<Integer, double[]>> parallel = runAdige(4, 1.0);
+        assertDischargesEqual(sequential, parallel);
+        assertOutletDischarges(HYMOD_OUTLET, sequential);
+    }
+
+    public void testAdigeDuffyThreads() throws Exception {
+        List<HashMap<Integer, double[]>> sequential = runDuffy(1);
+        List<HashMap<Integer, double[]>> parallel = runDuffy(4);
+        assertDischargesEqual(sequential, parallel);
+        assertOutletDischarges(DUFFY_OUTLET, sequential);
+    }
+
+    public void testAdigeEnsemble() throws Exception {
+        double[] rainFactors = {1.0, 2.0};
+        File folder = Files.createTempDirectory("hm_test_adigeensemble").toFile();
+        try {
+            AdigeNetwork adigeNetwork = new AdigeNetwork(hillslopes, network, null, null, null, null, null, pm);
+            AdigeEnsemble ensemble = new AdigeEnsemble(adigeNetwork);
+            File[] dischargeFiles = new File[rainFactors.length];
+            for( int i = 0; i < rainFactors.length; i++ ) {
+                File rainFile = new File(folder, "rain_" + i + ".csv");
+                writeRain(rainFile, rainFactors[i]);
+                dischargeFiles[i] = new File(folder, "discharge_" + i + ".csv");
+
+                OmsAdige adige = new OmsAdige();
+                adige.pm = pm;
+                adige.inHymodInput = createHymodInputs();
+                adige.pPfafids = allPfafs;
+                AdigeEnsemble.Member member = ensemble.addMember(adige);
+                member.rainReader = createReader(rainFile);
+                member.dischargeWriter = new OmsTimeSeriesIteratorWriter();
+                member.dischargeWriter.file = dischargeFiles[i].getAbsolutePath();
+                member.dischargeWriter.inTablename = "discharge";
+            }
+            ensemble.run(2);
+
+            // every member gives the discharges of an independent run
+            for( int i = 0; i < rainFactors.length; i++ ) {
+                List<HashMap<Integer, double[]>> expected = runAdige(1, rainFactors[i]);
+                List<HashMap<Integer, double[]>> result = new ArrayList<HashMap<Integer, double[]>>();
+                OmsTimeSeriesIteratorReader reader = createReader(dischargeFiles[i]);
+                reader.initProcess();
+                while( reader.doProcess ) {
+                    reader.nextRecord();
+                    if (reader.outData == null) {
+                        break;
+                    }
+                    result.add(reader.outData);
+                }
+                reader.close();
+                assertDischargesEqual(expected, result);
+            }
+        } finally {
+            FileUtilities.deleteFileOrDir(folder);
+        }
+    }
+
+    private void writeRain( File rainFile, double rainFactor ) throws Exception {
+        OmsTimeSeriesIteratorWriter writer = new OmsTimeSeriesIteratorWriter();
+        writer.file = rainFile.getAbsolutePath();
+        writer.inTablename = "rain";
+        writer.tStart = START;
+        writer.tTimestep = 60;
+        for( int step = 0; step < STEPS; step++ ) {
+            writer.inData = createRain(step, rainFactor);
+            writer.writeNextLine();
+        }
+        writer.close();
+    }
+
+    private OmsTimeSeriesIteratorReader createReader( File file ) {
+        OmsTimeSeriesIteratorReader reader = new OmsTimeSeriesIteratorReader();
+        reader.file = file.getAbsolutePath();
+        reader.idfield = "ID";
+        reader.tStart = START;
+        reader.tEnd = END;
+        reader.tTimestep = 60;
+        return reader;
+    }
+
+    private void assertDischargesEqual( List<HashMap<Integer, double[]>> expected, List<HashMap<Integer, double[]>> result ) {
+        assertEquals(expected.size(), result.size());
+        for( int step = 0; step < expected.size(); step++ ) {
+            HashMap<Integer, double[]> expectedStep = expected.get(step);
+            HashMap<Integer, double[]> resultStep = result.get(step);
+            assertEquals(LINKS, expectedStep.size());
+            assertEquals(expectedStep.keySet(), resultStep.keySet());
+            for( Entry<Integer, double[]> entry : expectedStep.entrySet() ) {
+                assertEquals(entry.getValue()[0], resultStep.get(entry.getKey())[0], 0.0);
+            }
+        }
+    }
+
+    private void assertOutletDischarges( double[] expected, List<HashMap<Integer, double[]>> result ) {
+        assertEquals(expected.length, result.size());
+        for( int step = 0; step < expected.length; step++ ) {
+            assertEquals(expected[step], result.get(step).get(1)[0], 1E-12);
+        }
+    }
+
+    private List<HashMap<Integer, double[]>> runAdige( int threads, double rainFactor ) throws Exception {
+        OmsAdige adige = createAdige(threads);
+        adige.inHymodInput = createHymodInputs();
+        return runSteps(adige, rainFactor);
+    }
+
+    private List<HashMap<Integer, double[]>> runDuffy( int threads ) throws Exception {
+        OmsAdige adige = createAdige(threads);
+        adige.inDuffyInput = createDuffyInputs();
+        adige.tEnd = END;
+        return runSteps(adige, 1.0);
+    }
+
+    private OmsAdige createAdige( int threads ) {
+        OmsAdige adige = new OmsAdige();
+        adige.pm = pm;
+        adige.inHillslope = hillslopes;
+        adige.inNetwork = network;
+        adige.pPfafids = allPfafs;
+        adige.tStart = START;
+        adige.tTimestep = 60;
+        adige.pThreads = threads;
+        return adige;
+    }
+
+    private List<HashMap<Integer, double[]>> runSteps( OmsAdige adige, double rainFactor ) throws Exception {
+        List<HashMap<Integer, double[]>> discharges = new ArrayList<HashMap<Integer, double[]>>();
+        for( int step = 0; step < STEPS; step++ ) {
+            adige.inRain = createRain(step, rainFactor);
+            adige.process();
+            discharges.add(copy(adige.outDischarge));
+        }
+        return discharges;
+    }
+
+    private HashMap<Integer, double[]> copy( HashMap<Integer, double[]> map ) {
+        HashMap<Integer, double[]> copy = new HashMap<Integer, double[]>();
+        for( Entry<Integer, double[]> entry : map.entrySet() ) {
+            copy.put(entry.getKey(), entry.getValue().clone());
+        }
+        return copy;
+    }
+
+    /**
+     * Rain on the first half of the steps, different on every hillslope.
+     */
+    private HashMap<Integer, double[]> createRain( int step, double rainFactor ) {
+        HashMap<Integer, double[]> rain = new HashMap<Integer, double[]>();
+        for( int pfaf = 1; pfaf <= LINKS; pfaf++ ) {
+            double value = step < STEPS / 2 ? rainFactor * (1 + pfaf % 5) : 0.0;
+            rain.put(pfaf, new double[]{value});
+        }
+        return rain;
+    }
+
+    private HymodInputs createHymodInputs() {
+        HymodInputs hymodInputs = new HymodInputs();
+        hymodInputs.pCmax = 250.0;
+        hymodInputs.pB = 0.5;
+        hymodInputs.pAlpha = 0.3;
+        hymodInputs.pRs = 0.01;
+        hymodInputs.pRq = 0.1;
+        hymodInputs.pQ0 = 0.0;
+        return hymodInputs;
+    }
+
+    private DuffyInputs createDuffyInputs() {
+        DuffyInputs duffyInputs = new DuffyInputs();
+        duffyInputs.fAvg_sub = DUFFY_FIELDS[0];
+        duffyInputs.fVar_sub = DUFFY_FIELDS[1];
+        duffyInputs.fAvg_sup_10 = DUFFY_FIELDS[2];
+        duffyInputs.fVar_sup_10 = DUFFY_FIELDS[3];
+        duffyInputs.fAvg_sup_30 = DUFFY_FIELDS[4];
+        duffyInputs.fVar_sup_30 = DUFFY_FIELDS[5];
+        duffyInputs.fAvg_sup_60 = DUFFY_FIELDS[6];
+        duffyInputs.fVar_sup_60 = DUFFY_FIELDS[7];
+        duffyInputs.pV_sup = 1.0;
+        duffyInputs.pV_sub = 0.1;
+        return duffyInputs;
+    }
+
+    /**
+     * Every link lies in a square hillslope of 100 meters, the main stream in the first row 
+     * and the tributaries in the second. The links and hillslopes are identified by their 
+     * pfafstetter number.
+     */
+    private void createNetwork() throws Exception {
+        SimpleFeatureTypeBuilder b = new SimpleFeatureTypeBuilder();
+        b.setName("network");
+        b.setCRS(HMTestMaps.getCrs3004());
+        b.add("the_geom", LineString.class);
+        b.add(NetworkChannel.PFAFNAME, String.class);
+        b.add(NetworkChannel.STARTELEVNAME, Double.class);
+        b.add(NetworkChannel.ENDELEVNAME, Double.class);
+        SimpleFeatureType networkType = b.buildFeatureType();
+        SimpleFeatureBuilder networkBuilder = new SimpleFeatureBuilder(networkType);
+
+        b = new SimpleFeatureTypeBuilder();
+        b.setName("hillslopes");
+        b.setCRS(HMTestMaps.getCrs3004());
+        b.add("the_geom", Polygon.class);
+        b.add(NetworkChannel.NETNUMNAME, Integer.class);
+        b.add(NetworkChannel.BARICENTERELEVNAME, Double.class);
+        for( String field : DUFFY_FIELDS ) {
+            b.add(field, Double.class);
+        }
+        SimpleFeatureType hillslopeType = b.buildFeatureType();
+        SimpleFeatureBuilder hillslopeBuilder = new SimpleFeatureBuilder(hillslopeType);
+
+        GeometryFactory gf = GeometryUtilities.gf();
+        DefaultFeatureCollection networkCollection = new DefaultFeatureCollection();
+        DefaultFeatureCollection hillslopeCollection = new DefaultFeatureCollection();
+        StringBuilder pfafs = new StringBuilder();
+        // the most downstream link can't be the first
+        for( int pfaf = LINKS; pfaf >= 1; pfaf-- ) {
+            int col = pfaf / 2;
+            int row = pfaf % 2 == 0 ? 1 : 0;
+            double x = 350000.0 + col * 100.0;
+            double y = 5000000.0 + row * 100.0;
+            double startElev = 1000.0 - col * 5.0 + row * 20.0;
+
+            LineString link = gf
+                    .createLineString(new Coordinate[]{new Coordinate(x + 50, y + 50), new Coordinate(x + 50, y + 10)});
+            networkBuilder.addAll(new Object[]{link, String.valueOf(pfaf), startElev, startElev - 4.0});
+            networkCollection.add(networkBuilder.buildFeature(networkType.getTypeName() + "." + pfaf));
+
+            Coordinate[] square = new Coordinate[]{new Coordinate(x, y), new Coordinate(x + 100, y),
+                    new Coordinate(x + 100, y + 100), new Coordinate(x, y + 100), new Coordinate(x, y)};
+            Polygon hillslope = gf.createPolygon(gf.createLinearRing(square), null);
+            hillslopeBuilder.addAll(new Object[]{hillslope, pfaf, startElev});
+            for( String field : DUFFY_FIELDS ) {
+                hillslopeBuilder.set(field, 1.0);
+            }
+            hillslopeCollection.add(hillslopeBuilder.buildFeature(hillslopeType.getTypeName() + "." + pfaf));
+
+            if (pfafs.length() > 0) {
+                pfafs.append(",");
+            }
+            pfafs.append(pfaf);
+        }
+        network = networkCollection;
+        hillslopes = hillslopeCollection;
+        allPfafs = pfafs.toString();
+    }
+
+}
@@ -67,4 +67,22 @@ public class TestAspect extends HMTestCase {
         checkMatrixEqual(aspectCoverage.getRenderedImage(), HMTestMaps.aspectDataRadiants, 0.01);
     }
 
+    public void testAspectStreaming() throws Exception {
+        double[][] pitData = HMTestMaps.pitData;
+        HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs();
+        GridCoverage2D pitCoverage = CoverageUtilities.buildCoverage("pit", pitData, envelopeParams, crs, true);
+
+        OmsAspect aspect = new OmsAspect();
+        aspect.inElev = pitCoverage;
+        aspect.doRound = true;
+        aspect.doStreaming = true;
+        aspect.pm = pm;
+
+        aspect.process();
+
+        GridCoverage2D aspectCoverage = aspect.outAspect;
+        checkMatrixEqual(aspectCoverage.getRenderedImage(), HMTestMaps.aspectDataDegrees, 0.01);
+    }
+
 }
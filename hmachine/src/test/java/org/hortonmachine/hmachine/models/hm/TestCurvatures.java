@@ -54,4 +54,22 @@ public class TestCurvatures extends HMTestCase {
         checkMatrixEqual(planCoverage.getRenderedImage(), HMTestMaps.planData, 0.0001);
         checkMatrixEqual(tangCoverage.getRenderedImage(), HMTestMaps.tanData, 0.0001);
     }
+
+    public void testCurvaturesStreaming() throws Exception {
+        HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs();
+        GridCoverage2D pitfillerCoverage = CoverageUtilities.buildCoverage("pitfiller", HMTestMaps.pitData, envelopeParams,
+                crs, true);
+
+        OmsCurvatures curvatures = new OmsCurvatures();
+        curvatures.inElev = pitfillerCoverage;
+        curvatures.doStreaming = true;
+        curvatures.pm = pm;
+
+        curvatures.process();
+
+        checkMatrixEqual(curvatures.outProf.getRenderedImage(), HMTestMaps.profData, 0.0001);
+        checkMatrixEqual(curvatures.outPlan.getRenderedImage(), HMTestMaps.planData, 0.0001);
+        checkMatrixEqual(curvatures.outTang.getRenderedImage(), HMTestMaps.tanData, 0.0001);
+    }
 }
@@ -73,7 +73,15 @@ public class TestDePitter extends HMTestCase {
 //        egg.printTimePassedInMinutes(System.out);
 //
 //    }
-     public void testPitfiller() throws Exception {
+    public void testPitfiller() throws Exception {
+        checkDePitter(false);
+    }
+
+    public void testPriorityFloodPitfiller() throws Exception {
+        checkDePitter(true);
+    }
+
+     private void checkDePitter( boolean doPriorityFlood ) throws Exception {
      double[][] elevationData = new double[][]{//
      {800, 900, 1000, 1000, 1200, 1250, 1300, 1350, 1450, 1500}, //
      {600, ND, 750, 850, 860, 900, 1000, 1200, 1250, 1500}, //
@@ -91,6 +99,7 @@ public class TestDePitter extends HMTestCase {
     
      OmsDePitter pitfiller = new OmsDePitter();
      pitfiller.inElev = elevationCoverage;
+     pitfiller.doPriorityFlood = doPriorityFlood;
      pitfiller.pm = pm;
      pitfiller.process();
     
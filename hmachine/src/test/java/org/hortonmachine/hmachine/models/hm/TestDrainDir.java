@@ -58,6 +58,28 @@ public class TestDrainDir extends HMTestCase {
         checkMatrixEqual(tcaCoverage.getRenderedImage(), HMTestMaps.mtcaData);
     }
 
+    public void testDrainParallel() throws Exception {
+        HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs();
+
+        double[][] pitfillerData = HMTestMaps.pitData;
+        GridCoverage2D pitfillerCoverage = CoverageUtilities.buildCoverage("pitfiller", pitfillerData, envelopeParams, crs, true);
+        double[][] flowData = HMTestMaps.flowData;
+        GridCoverage2D flowCoverage = CoverageUtilities.buildCoverage("flow", flowData, envelopeParams, crs, true);
+
+        OmsDrainDir drainDir = new OmsDrainDir();
+        drainDir.pLambda = 1;
+        drainDir.inPit = pitfillerCoverage;
+        drainDir.inFlow = flowCoverage;
+        drainDir.pThreads = 4;
+        drainDir.pm = pm;
+
+        drainDir.process();
+
+        checkMatrixEqual(drainDir.outFlow.getRenderedImage(), HMTestMaps.drainData1);
+        checkMatrixEqual(drainDir.outTca.getRenderedImage(), HMTestMaps.mtcaData);
+    }
+
     public void testDrainLtd() throws Exception {
         HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
         CoordinateReferenceSystem crs = HMTestMaps.getCrs();
@@ -81,4 +81,52 @@ public class TestEnergyIndexCalculator extends HMTestCase {
 
     }
 
+    public void testEnergyIndexCalculatorWithHorizon() throws Exception {
+        OmsEnergyIndexCalculator sequential = energyIndex(72, 1);
+        OmsEnergyIndexCalculator parallel = energyIndex(72, 4);
+
+        // the shadows don't change the altimetric bands
+        EIAltimetry eiAltimetry = sequential.outAltimetry.get(0);
+        assertEquals(737.5, eiAltimetry.elevationValue);
+        assertEquals(75.0, eiAltimetry.bandRange);
+
+        // all the cells cast shadows, not only the convex ones, so the energy differs from the one
+        // of testEnergyIndexCalculator
+        List<EIEnergy> energeticValues = sequential.outEnergy;
+        assertEquals(1, energeticValues.get(0).basinId);
+        assertEquals(0.0764, energeticValues.get(0).energyValue, 0.001);
+        assertEquals(0.5571, energeticValues.get(1).energyValue, 0.001);
+        assertEquals(2, energeticValues.get(12).basinId);
+        assertEquals(0.4365, energeticValues.get(12).energyValue, 0.001);
+
+        assertEquals(energeticValues.size(), parallel.outEnergy.size());
+        for( int i = 0; i < energeticValues.size(); i++ ) {
+            assertEquals(energeticValues.get(i).energyValue, parallel.outEnergy.get(i).energyValue, 0.0);
+        }
+        for( int i = 0; i < sequential.outArea.size(); i++ ) {
+            assertEquals(sequential.outArea.get(i).areaValue, parallel.outArea.get(i).areaValue, 0.0);
+        }
+    }
+
+    private OmsEnergyIndexCalculator energyIndex( int azimuths, int threads ) throws Exception {
+        HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs();
+
+        OmsEnergyIndexCalculator eiCalculator = new OmsEnergyIndexCalculator();
+        eiCalculator.inAspect = CoverageUtilities.buildCoverage("aspect", HMTestMaps.aspectDataRadiants, envelopeParams, crs,
+                true);
+        eiCalculator.inCurvatures = CoverageUtilities.buildCoverage("nabla", HMTestMaps.nablaData0, envelopeParams, crs, true);
+        eiCalculator.inElev = CoverageUtilities.buildCoverage("pit", HMTestMaps.pitData, envelopeParams, crs, true);
+        eiCalculator.inSlope = CoverageUtilities.buildCoverage("slope", HMTestMaps.slopeData, envelopeParams, crs, true);
+        eiCalculator.inBasins = CoverageUtilities.buildCoverage("subbasins", HMTestMaps.basinDataNN0, envelopeParams, crs, true);
+        eiCalculator.pDt = 1;
+        eiCalculator.pEi = 2;
+        eiCalculator.pEs = 2;
+        eiCalculator.pAzimuths = azimuths;
+        eiCalculator.pThreads = threads;
+        eiCalculator.pm = new DummyProgressMonitor();
+        eiCalculator.process();
+        return eiCalculator;
+    }
+
 }
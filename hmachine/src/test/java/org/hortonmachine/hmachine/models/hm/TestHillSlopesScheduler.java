@@ -0,0 +1,135 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.hmachine.models.hm;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hortonmachine.gears.libs.exceptions.ModelsIllegalargumentException;
+import org.hortonmachine.gears.libs.modules.multiprocessing.FixedChunkSizePlanner;
+import org.hortonmachine.hmachine.modules.hydrogeomorphology.adige.utils.HillSlopesScheduler;
+import org.hortonmachine.hmachine.utils.HMTestCase;
+
+/**
+ * Test {@link HillSlopesScheduler}.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestHillSlopesScheduler extends HMTestCase {
+
+    /**
+     * <pre>
+     *   5
+     *   |
+     *   3   4
+     *    \ /
+     *     1   2
+     *      \ /
+     *       0
+     * </pre>
+     */
+    private static final int[][] TREE = {//
+            {1, 2}, //
+            {3, 4}, //
+            {}, //
+            {5}, //
+            {}, //
+            {} //
+    };
+
+    public void testLevels() throws Exception {
+        HillSlopesScheduler scheduler = new HillSlopesScheduler(TREE, null);
+        assertEquals(4, scheduler.getLevelsCount());
+        assertTrue(Arrays.equals(new int[]{5, 4, 2}, scheduler.getLevel(0)));
+        assertTrue(Arrays.equals(new int[]{3}, scheduler.getLevel(1)));
+        assertTrue(Arrays.equals(new int[]{1}, scheduler.getLevel(2)));
+        assertTrue(Arrays.equals(new int[]{0}, scheduler.getLevel(3)));
+        assertTrue(Arrays.equals(new int[]{3, 4}, scheduler.getUpstreamIndexes(1)));
+
+        // sequential, from the last to the first
+        int[] order = new int[TREE.length];
+        AtomicInteger counter = new AtomicInteger();
+        scheduler.run(i -> order[counter.getAndIncrement()] = i);
+        assertTrue(Arrays.equals(new int[]{5, 4, 3, 2, 1, 0}, order));
+        assertEquals(TREE.length, scheduler.getEvaluationsCount());
+
+        // small levels run in the calling thread, level by level
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            scheduler = new HillSlopesScheduler(TREE, () -> new FixedChunkSizePlanner(executor));
+            counter.set(0);
+            scheduler.run(i -> order[counter.getAndIncrement()] = i);
+            assertTrue(Arrays.equals(new int[]{5, 4, 2, 3, 1, 0}, order));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testParallelLevel() throws Exception {
+        /*
+         * a chain of hillslopes, each one with a headwater tributary,
+         * so that the first level is processed in parallel
+         */
+        int chainLength = 2 * HillSlopesScheduler.MIN_PARALLEL_LEVEL_SIZE;
+        int[][] comb = new int[2 * chainLength][];
+        for( int i = 0; i < chainLength; i++ ) {
+            if (i < chainLength - 1) {
+                comb[i] = new int[]{i + 1, chainLength + i};
+            } else {
+                comb[i] = new int[]{chainLength + i};
+            }
+            comb[chainLength + i] = new int[0];
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            HillSlopesScheduler scheduler = new HillSlopesScheduler(comb, () -> new FixedChunkSizePlanner(executor));
+            assertEquals(chainLength + 1, scheduler.getLevelsCount());
+            assertEquals(chainLength, scheduler.getLevel(0).length);
+
+            int[] position = new int[comb.length];
+            AtomicInteger counter = new AtomicInteger();
+            scheduler.run(i -> position[i] = counter.getAndIncrement());
+            assertEquals(comb.length, counter.get());
+            for( int i = 0; i < comb.length; i++ ) {
+                for( int upstream : comb[i] ) {
+                    assertTrue(position[upstream] < position[i]);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testLoop() throws Exception {
+        int[][] loop = {//
+                {1}, //
+                {2}, //
+                {0} //
+        };
+        try {
+            new HillSlopesScheduler(loop, null);
+            fail();
+        } catch (ModelsIllegalargumentException e) {
+            assertTrue(e.getMessage().contains("loops"));
+        }
+    }
+
+}
@@ -17,9 +17,17 @@
  */
 package org.hortonmachine.hmachine.models.hm;
 
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
 import java.util.HashMap;
 
+import javax.media.jai.RasterFactory;
+import javax.media.jai.TiledImage;
+
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.hillshade.OmsHillshade;
 import org.hortonmachine.hmachine.utils.HMTestCase;
@@ -54,4 +62,144 @@ public class TestHillshade extends HMTestCase {
         checkMatrixEqual(hillshadeCoverage.getRenderedImage(), HMTestMaps.outHillshade, 0.1);
     }
 
+    public void testHillshadeStreaming() throws Exception {
+        HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs3004();
+        GridCoverage2D elevationCoverage = CoverageUtilities.buildCoverage("elevation", HMTestMaps.mapData, envelopeParams,
+                crs, true);
+
+        OmsHillshade hillshade = new OmsHillshade();
+        hillshade.inElev = elevationCoverage;
+        hillshade.pElev = 45.0;
+        hillshade.pAzimuth = 315;
+        hillshade.doStreaming = true;
+        hillshade.pm = pm;
+
+        hillshade.process();
+
+        checkMatrixEqual(hillshade.outHill.getRenderedImage(), HMTestMaps.outHillshade, 0.1);
+    }
+
+    public void testHillshadeStreamingBands() throws Exception {
+        int cols = 120;
+        int rows = 100;
+        double res = 10;
+        double[][] elevationData = new double[rows][cols];
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                elevationData[r][c] = 500 + 200 * Math.sin(c / 9.0) * Math.cos(r / 11.0) + 120 * Math.sin((c + r) / 17.0)
+                        + 2 * c;
+            }
+        }
+        elevationData[40][50] = Double.NaN;
+        GridCoverage2D elevationCoverage = buildCoverage(elevationData, res);
+        // the same map in tiles of 16 rows, which is streamed in 7 bands
+        GridCoverage2D tiledCoverage = buildTiledCoverage(elevationData, res, 16);
+
+        for( double elevation : new double[]{10, 35} ) {
+            for( double azimuth : new double[]{20, 100, 200, 290} ) {
+                Raster inMemory = hillshade(elevationCoverage, azimuth, elevation, false);
+                checkEqual(inMemory, hillshade(elevationCoverage, azimuth, elevation, true));
+                checkEqual(inMemory, hillshade(tiledCoverage, azimuth, elevation, true));
+            }
+        }
+    }
+
+    public void testHillshadeStreamingLongShadow() throws Exception {
+        // a flat plain with a plateau to the east, which casts a shadow over the whole plain
+        int cols = 1300;
+        int rows = 40;
+        int plateauCol = 1290;
+        double[][] elevationData = new double[rows][cols];
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = plateauCol; c < cols; c++ ) {
+                elevationData[r][c] = 200;
+            }
+        }
+        GridCoverage2D elevationCoverage = buildTiledCoverage(elevationData, 1.0, 16);
+
+        Raster inMemory = hillshade(elevationCoverage, 90, 5, false);
+        Raster streamed = hillshade(elevationCoverage, 90, 5, true);
+        checkEqual(inMemory, streamed);
+        for( int r = 2; r < rows - 2; r++ ) {
+            for( int c = 2; c < plateauCol - 1; c++ ) {
+                assertEquals(0.0, streamed.getSampleDouble(c, r, 0));
+            }
+        }
+    }
+
+    public void testHillshadeThreads() throws Exception {
+        double[][] elevationData = HMTestMaps.pitData;
+        GridCoverage2D elevationCoverage = buildCoverage(elevationData, 30);
+        GridCoverage2D tiledCoverage = buildTiledCoverage(elevationData, 30, 4);
+        for( double azimuth : new double[]{45, 250} ) {
+            Raster sequential = hillshade(elevationCoverage, azimuth, 20, false, 1);
+            checkEqual(sequential, hillshade(elevationCoverage, azimuth, 20, false, 3));
+            checkEqual(sequential, hillshade(tiledCoverage, azimuth, 20, true, 3));
+        }
+    }
+
+    private void checkEqual( Raster expected, Raster result ) {
+        assertEquals(expected.getWidth(), result.getWidth());
+        assertEquals(expected.getHeight(), result.getHeight());
+        for( int r = 0; r < expected.getHeight(); r++ ) {
+            for( int c = 0; c < expected.getWidth(); c++ ) {
+                double expectedValue = expected.getSampleDouble(c, r, 0);
+                double value = result.getSampleDouble(c, r, 0);
+                if (Double.isNaN(expectedValue)) {
+                    assertTrue(c + "/" + r, Double.isNaN(value));
+                } else {
+                    assertEquals(c + "/" + r, expectedValue, value, 0.0);
+                }
+            }
+        }
+    }
+
+    private GridCoverage2D buildTiledCoverage( double[][] elevationData, double res, int tileSize ) {
+        int rows = elevationData.length;
+        int cols = elevationData[0].length;
+        WritableRaster raster = CoverageUtilities.createWritableRaster(cols, rows, null, null, null);
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                raster.setSample(c, r, 0, elevationData[r][c]);
+            }
+        }
+        SampleModel sampleModel = RasterFactory.createBandedSampleModel(DataBuffer.TYPE_DOUBLE, tileSize, tileSize, 1);
+        TiledImage image = new TiledImage(0, 0, cols, rows, 0, 0, sampleModel, null);
+        image.setData(raster);
+        double west = 1640650.0;
+        double south = 5139780.0;
+        RegionMap envelopeParams = CoverageUtilities.makeRegionParamsMap(south + rows * res, south, west, west + cols * res,
+                res, res, cols, rows);
+        return CoverageUtilities.buildCoverage("elevation", image, envelopeParams, HMTestMaps.getCrs3004());
+    }
+
+    private GridCoverage2D buildCoverage( double[][] elevationData, double res ) {
+        int rows = elevationData.length;
+        int cols = elevationData[0].length;
+        double west = 1640650.0;
+        double south = 5139780.0;
+        RegionMap envelopeParams = CoverageUtilities.makeRegionParamsMap(south + rows * res, south, west, west + cols * res,
+                res, res, cols, rows);
+        return CoverageUtilities.buildCoverage("elevation", elevationData, envelopeParams, HMTestMaps.getCrs3004(), true);
+    }
+
+    private Raster hillshade( GridCoverage2D elevationCoverage, double azimuth, double elevation, boolean doStreaming )
+            throws Exception {
+        return hillshade(elevationCoverage, azimuth, elevation, doStreaming, 1);
+    }
+
+    private Raster hillshade( GridCoverage2D elevationCoverage, double azimuth, double elevation, boolean doStreaming,
+            int threads ) throws Exception {
+        OmsHillshade hillshade = new OmsHillshade();
+        hillshade.inElev = elevationCoverage;
+        hillshade.pAzimuth = azimuth;
+        hillshade.pElev = elevation;
+        hillshade.doStreaming = doStreaming;
+        hillshade.pThreads = threads;
+        hillshade.pm = pm;
+        hillshade.process();
+        return hillshade.outHill.getRenderedImage().getData();
+    }
+
 }
@@ -17,9 +17,11 @@
  */
 package org.hortonmachine.hmachine.models.hm;
 
+import java.util.Arrays;
 import java.util.HashMap;
 
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.insolation.OmsInsolation;
 import org.hortonmachine.hmachine.utils.HMTestCase;
@@ -60,4 +62,76 @@ public class TestInsolation extends HMTestCase {
         checkMatrixEqual(insolationCoverage.getRenderedImage(), HMTestMaps.outInsolation, 0.1);
     }
 
+    public void testInsolationParallel() throws Exception {
+        double[][] elevationData = HMTestMaps.mapData;
+        HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs3004();
+        GridCoverage2D elevationCoverage = CoverageUtilities.buildCoverage("elevation", elevationData, envelopeParams, crs, true);
+
+        OmsInsolation insolation = new OmsInsolation();
+        insolation.inElev = elevationCoverage;
+        insolation.tStartDate = START_DATE;
+        insolation.tEndDate = END_DATE;
+        insolation.pThreads = 2;
+        insolation.pm = pm;
+        insolation.process();
+
+        checkMatrixEqual(insolation.outIns.getRenderedImage(), HMTestMaps.outInsolation, 0.1);
+    }
+
+    public void testInsolationWithHorizon() throws Exception {
+        double[][] elevationData = HMTestMaps.mapData;
+        HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs3004();
+        GridCoverage2D elevationCoverage = CoverageUtilities.buildCoverage("elevation", elevationData, envelopeParams, crs, true);
+
+        OmsInsolation insolation = new OmsInsolation();
+        insolation.inElev = elevationCoverage;
+        insolation.tStartDate = START_DATE;
+        insolation.tEndDate = END_DATE;
+        insolation.pAzimuths = 72;
+        insolation.pm = pm;
+        insolation.process();
+        GridCoverage2D sequential = insolation.outIns;
+
+        insolation = new OmsInsolation();
+        insolation.inElev = elevationCoverage;
+        insolation.tStartDate = START_DATE;
+        insolation.tEndDate = END_DATE;
+        insolation.pAzimuths = 72;
+        insolation.pThreads = 4;
+        insolation.pm = pm;
+        insolation.process();
+
+        // every row sums the sun positions in the same order, whatever the threads
+        double[] expected = CoverageUtilities.renderedImage2RowMajorDoubleArray(sequential.getRenderedImage());
+        double[] result = CoverageUtilities.renderedImage2RowMajorDoubleArray(insolation.outIns.getRenderedImage());
+        assertTrue(Arrays.equals(expected, result));
+
+        // the horizon and the ray marching sample the terrain on different cells, so only
+        // cells at the border of the shadows differ from the ray-marched results
+        int cols = elevationData[0].length;
+        int cells = 0;
+        int equalCells = 0;
+        double sum = 0;
+        double expectedSum = 0;
+        for( int r = 0; r < elevationData.length; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                double expectedValue = HMTestMaps.outInsolation[r][c];
+                if (HMConstants.isNovalue(expectedValue)) {
+                    continue;
+                }
+                double value = result[r * cols + c];
+                cells++;
+                if (Math.abs(value - expectedValue) <= 0.1) {
+                    equalCells++;
+                }
+                sum += value;
+                expectedSum += expectedValue;
+            }
+        }
+        assertTrue(equalCells >= 0.9 * cells);
+        assertEquals(expectedSum, sum, 0.02 * expectedSum);
+    }
+
 }
@@ -0,0 +1,175 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.hmachine.models.hm;
+
+import java.util.HashMap;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.utils.features.FeatureUtilities;
+import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
+import org.hortonmachine.hmachine.modules.statistics.kriging.OmsKriging;
+import org.hortonmachine.hmachine.utils.HMTestCase;
+import org.hortonmachine.hmachine.utils.HMTestMaps;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+/**
+ * Test the kriging solved in blocks with more threads.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestKrigingBlocks extends HMTestCase {
+
+    private static final int STATIONS_NUM = 12;
+    private static final int POINTS_COLS = 60;
+    private static final int POINTS_ROWS = 50;
+
+    private SimpleFeatureCollection stationsFC;
+    private SimpleFeatureCollection pointsFC;
+    private HashMap<Integer, double[]> stationsData;
+    private double[] xStations = new double[STATIONS_NUM];
+    private double[] yStations = new double[STATIONS_NUM];
+
+    @Override
+    protected void setUp() throws Exception {
+        Geometry[] stations = new Geometry[STATIONS_NUM];
+        stationsData = new HashMap<Integer, double[]>();
+        for( int i = 0; i < STATIONS_NUM; i++ ) {
+            double x = 1000.0 + (i * 3779) % 10000;
+            double y = 1000.0 + (i * 6151) % 10000;
+            xStations[i] = x;
+            yStations[i] = y;
+            stations[i] = GeometryUtilities.gf().createPoint(new Coordinate(x, y));
+            stations[i].setUserData(i + 1);
+            stationsData.put(i + 1, new double[]{1.0 + (i * 7) % 5 + x / 10000.0});
+        }
+        stationsFC = FeatureUtilities.featureCollectionFromGeometry(HMTestMaps.getCrs(), stations);
+
+        Geometry[] points = new Geometry[POINTS_COLS * POINTS_ROWS];
+        for( int r = 0; r < POINTS_ROWS; r++ ) {
+            for( int c = 0; c < POINTS_COLS; c++ ) {
+                int index = r * POINTS_COLS + c;
+                points[index] = GeometryUtilities.gf().createPoint(new Coordinate(c * 200.0 + 50, r * 240.0 + 50));
+                points[index].setUserData(index);
+            }
+        }
+        pointsFC = FeatureUtilities.featureCollectionFromGeometry(HMTestMaps.getCrs(), points);
+        super.setUp();
+    }
+
+    private OmsKriging createKriging( int threads ) {
+        OmsKriging kriging = new OmsKriging();
+        kriging.pm = pm;
+        kriging.inStations = stationsFC;
+        kriging.fStationsid = "userdata";
+        kriging.inInterpolate = pointsFC;
+        kriging.fInterpolateid = "userdata";
+        kriging.inData = stationsData;
+        kriging.defaultVariogramMode = 1;
+        kriging.pSemivariogramType = 1;
+        kriging.pA = 8000.0;
+        kriging.pS = 1.5;
+        kriging.pNug = 0.1;
+        kriging.pMode = 0;
+        kriging.pThreads = threads;
+        return kriging;
+    }
+
+    public void testParallelBlocks() throws Exception {
+        OmsKriging kriging = createKriging(1);
+        kriging.process();
+        HashMap<Integer, double[]> serialData = kriging.outData;
+
+        kriging = createKriging(4);
+        kriging.process();
+        HashMap<Integer, double[]> parallelData = kriging.outData;
+
+        assertEquals(POINTS_COLS * POINTS_ROWS, serialData.size());
+        assertEquals(serialData.size(), parallelData.size());
+        for( int id = 0; id < serialData.size(); id++ ) {
+            assertEquals(serialData.get(id)[0], parallelData.get(id)[0], 0.0);
+        }
+    }
+
+    public void testLocalParallelBlocks() throws Exception {
+        OmsKriging kriging = createKriging(1);
+        kriging.pMaxNeighbours = 5;
+        kriging.process();
+        HashMap<Integer, double[]> serialData = kriging.outData;
+
+        kriging = createKriging(4);
+        kriging.pMaxNeighbours = 5;
+        kriging.process();
+        HashMap<Integer, double[]> parallelData = kriging.outData;
+
+        assertEquals(serialData.size(), parallelData.size());
+        for( int id = 0; id < serialData.size(); id++ ) {
+            assertEquals(serialData.get(id)[0], parallelData.get(id)[0], 0.0);
+        }
+    }
+
+    public void testLocalWithAllStations() throws Exception {
+        OmsKriging kriging = createKriging(1);
+        kriging.process();
+        HashMap<Integer, double[]> globalData = kriging.outData;
+
+        kriging = createKriging(4);
+        kriging.pMaxNeighbours = STATIONS_NUM + 3;
+        kriging.process();
+        HashMap<Integer, double[]> localData = kriging.outData;
+
+        assertEquals(globalData.size(), localData.size());
+        for( int id = 0; id < globalData.size(); id++ ) {
+            assertEquals(globalData.get(id)[0], localData.get(id)[0], 1E-9);
+        }
+    }
+
+    public void testSearchRadius() throws Exception {
+        double radius = 600.0;
+        OmsKriging kriging = createKriging(4);
+        kriging.pSearchRadius = radius;
+        kriging.process();
+        HashMap<Integer, double[]> outData = kriging.outData;
+
+        int withValue = 0;
+        int withoutValue = 0;
+        for( int r = 0; r < POINTS_ROWS; r++ ) {
+            for( int c = 0; c < POINTS_COLS; c++ ) {
+                int id = r * POINTS_COLS + c;
+                double x = c * 200.0 + 50;
+                double y = r * 240.0 + 50;
+                double minDistance = Double.POSITIVE_INFINITY;
+                for( int i = 0; i < STATIONS_NUM; i++ ) {
+                    minDistance = Math.min(minDistance, Math.hypot(xStations[i] - x, yStations[i] - y));
+                }
+                double value = outData.get(id)[0];
+                if (minDistance > radius) {
+                    assertTrue(HMConstants.isNovalue(value));
+                    withoutValue++;
+                } else {
+                    assertFalse(HMConstants.isNovalue(value));
+                    withValue++;
+                }
+            }
+        }
+        assertTrue(withValue > 0);
+        assertTrue(withoutValue > 0);
+    }
+
+}
@@ -0,0 +1,250 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.hmachine.models.hm;
+
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.nio.file.Files;
+
+import javax.media.jai.iterator.RandomIter;
+import javax.media.jai.iterator.RandomIterFactory;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.io.rasterreader.OmsRasterReader;
+import org.hortonmachine.gears.io.rasterwriter.OmsRasterWriter;
+import org.hortonmachine.gears.libs.modules.HMModelIM;
+import org.hortonmachine.gears.modules.r.imagemosaic.OmsImageMosaicCreator;
+import org.hortonmachine.gears.utils.RegionMap;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.gears.utils.files.FileUtilities;
+import org.hortonmachine.hmachine.modules.geomorphology.aspect.OmsAspectIM;
+import org.hortonmachine.hmachine.modules.geomorphology.curvatures.OmsCurvaturesIM;
+import org.hortonmachine.hmachine.modules.geomorphology.geomorphon.OmsGeomorphonIM;
+import org.hortonmachine.hmachine.modules.geomorphology.gradient.OmsGradientIM;
+import org.hortonmachine.hmachine.utils.HMTestCase;
+import org.hortonmachine.hmachine.utils.HMTestMaps;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Test the imagemosaic modules processing the tiles in parallel.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestModulesIM extends HMTestCase {
+
+    private static final double WEST = 1640000.0;
+    private static final double NORTH = 5140000.0;
+    private static final double RES = 10.0;
+    private static final int TILE_SIZE = 20;
+    private static final int TILES_X = 3;
+    private static final int TILES_Y = 2;
+    private static final int TILES = TILES_X * TILES_Y;
+
+    private File folder;
+    private String inElev;
+
+    protected void setUp() throws Exception {
+        folder = Files.createTempDirectory("hm_test_modulesim").toFile();
+        File elevFolder = new File(folder, "elev");
+        elevFolder.mkdirs();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs3004();
+        for( int ty = 0; ty < TILES_Y; ty++ ) {
+            for( int tx = 0; tx < TILES_X; tx++ ) {
+                double[][] data = new double[TILE_SIZE][TILE_SIZE];
+                for( int r = 0; r < TILE_SIZE; r++ ) {
+                    for( int c = 0; c < TILE_SIZE; c++ ) {
+                        double x = tx * TILE_SIZE + c;
+                        double y = ty * TILE_SIZE + r;
+                        data[r][c] = 500.0 + 3.0 * x + 2.0 * y + 40.0 * Math.sin(x / 5.0) * Math.cos(y / 7.0);
+                    }
+                }
+                double north = NORTH - ty * TILE_SIZE * RES;
+                double west = WEST + tx * TILE_SIZE * RES;
+                RegionMap regionMap = CoverageUtilities.makeRegionParamsMap(north, north - TILE_SIZE * RES, west,
+                        west + TILE_SIZE * RES, RES, RES, TILE_SIZE, TILE_SIZE);
+                GridCoverage2D tile = CoverageUtilities.buildCoverage("elev", data, regionMap, crs, true);
+                OmsRasterWriter.writeRaster(new File(elevFolder, "elev_" + tx + "_" + ty + ".tif").getAbsolutePath(), tile);
+            }
+        }
+        OmsImageMosaicCreator creator = new OmsImageMosaicCreator();
+        creator.pm = pm;
+        creator.inFolder = elevFolder.getAbsolutePath();
+        creator.process();
+        inElev = new File(elevFolder, "elev.shp").getAbsolutePath();
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtilities.deleteFileOrDir(folder);
+    }
+
+    public void testAspect() throws Exception {
+        for( int threads : new int[]{1, 3} ) {
+            OmsAspectIM aspect = new OmsAspectIM();
+            aspect.pm = pm;
+            aspect.inElev = inElev;
+            aspect.pThreads = threads;
+            aspect.outAspect = outFile("aspect", threads);
+            aspect.process();
+        }
+        checkThreadsEqual("aspect");
+    }
+
+    public void testCurvatures() throws Exception {
+        for( int threads : new int[]{1, 3} ) {
+            OmsCurvaturesIM curvatures = new OmsCurvaturesIM();
+            curvatures.pm = pm;
+            curvatures.inElev = inElev;
+            curvatures.pThreads = threads;
+            curvatures.outPlan = outFile("plan", threads);
+            curvatures.outTang = outFile("tang", threads);
+            curvatures.outProf = outFile("prof", threads);
+            curvatures.process();
+        }
+        checkThreadsEqual("plan");
+        checkThreadsEqual("tang");
+        checkThreadsEqual("prof");
+    }
+
+    public void testGeomorphon() throws Exception {
+        for( int threads : new int[]{1, 3} ) {
+            OmsGeomorphonIM geomorphon = new OmsGeomorphonIM();
+            geomorphon.pm = pm;
+            geomorphon.inElev = inElev;
+            // a cell buffer of 3 cells, read from the neighbour tiles
+            geomorphon.pRadius = 30;
+            geomorphon.pThreads = threads;
+            geomorphon.outRaster = outFile("geomorphon", threads);
+            geomorphon.process();
+        }
+        checkThreadsEqual("geomorphon");
+    }
+
+    public void testGradient() throws Exception {
+        for( int mode = 0; mode < 3; mode++ ) {
+            String name = "gradient" + mode;
+            for( int threads : new int[]{1, 3} ) {
+                OmsGradientIM gradient = new OmsGradientIM();
+                gradient.pm = pm;
+                gradient.inElev = inElev;
+                gradient.pMode = mode;
+                gradient.pThreads = threads;
+                gradient.outSlope = outFile(name, threads);
+                gradient.process();
+            }
+            checkThreadsEqual(name);
+        }
+    }
+
+    /**
+     * A module reading the shared fields is processed with one thread also if more are asked.
+     */
+    public void testSharedFieldsModule() throws Exception {
+        SharedFieldsCopyIM copy = new SharedFieldsCopyIM();
+        copy.pm = pm;
+        copy.process(inElev, outFile("copy", 3), 3);
+
+        File copyFolder = new File(folder, "copy_3");
+        int tiles = 0;
+        for( int number = 1; number <= TILES; number++ ) {
+            File tileFile = new File(copyFolder, "copy_" + number + ".tiff");
+            if (!tileFile.exists()) {
+                continue;
+            }
+            tiles++;
+            GridCoverage2D tile = OmsRasterReader.readRaster(tileFile.getAbsolutePath());
+            RenderedImage image = tile.getRenderedImage();
+            RandomIter iter = RandomIterFactory.create(image, null);
+            RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(tile);
+            int tx = (int) Math.round((regionMap.getWest() - WEST) / (TILE_SIZE * RES));
+            int ty = (int) Math.round((NORTH - regionMap.getNorth()) / (TILE_SIZE * RES));
+            for( int r = 0; r < image.getHeight(); r++ ) {
+                for( int c = 0; c < image.getWidth(); c++ ) {
+                    double x = tx * TILE_SIZE + c;
+                    double y = ty * TILE_SIZE + r;
+                    double expected = 500.0 + 3.0 * x + 2.0 * y + 40.0 * Math.sin(x / 5.0) * Math.cos(y / 7.0);
+                    assertEquals(expected, iter.getSampleDouble(c, r, 0), DELTA);
+                }
+            }
+            iter.done();
+        }
+        assertEquals(TILES, tiles);
+    }
+
+    private String outFile( String name, int threads ) {
+        File outFolder = new File(folder, name + "_" + threads);
+        outFolder.mkdirs();
+        return new File(outFolder, name + ".tif").getAbsolutePath();
+    }
+
+    /**
+     * Checks that the tiles written with one and with more threads are the same.
+     */
+    private void checkThreadsEqual( String name ) throws Exception {
+        File folder1 = new File(folder, name + "_1");
+        File folder3 = new File(folder, name + "_3");
+        for( int number = 1; number <= TILES; number++ ) {
+            File tileFile1 = new File(folder1, name + "_" + number + ".tiff");
+            File tileFile3 = new File(folder3, name + "_" + number + ".tiff");
+            assertTrue(tileFile1.getName(), tileFile1.exists());
+            assertTrue(tileFile3.getName(), tileFile3.exists());
+            RenderedImage image1 = OmsRasterReader.readRaster(tileFile1.getAbsolutePath()).getRenderedImage();
+            RenderedImage image3 = OmsRasterReader.readRaster(tileFile3.getAbsolutePath()).getRenderedImage();
+            assertEquals(image1.getWidth(), image3.getWidth());
+            assertEquals(image1.getHeight(), image3.getHeight());
+            RandomIter iter1 = RandomIterFactory.create(image1, null);
+            RandomIter iter3 = RandomIterFactory.create(image3, null);
+            int valid = 0;
+            for( int r = 0; r < image1.getHeight(); r++ ) {
+                for( int c = 0; c < image1.getWidth(); c++ ) {
+                    double value1 = iter1.getSampleDouble(c, r, 0);
+                    double value3 = iter3.getSampleDouble(c, r, 0);
+                    if (Double.isNaN(value1)) {
+                        assertTrue(name + " " + number + ": " + c + "/" + r, Double.isNaN(value3));
+                    } else {
+                        assertEquals(name + " " + number + ": " + c + "/" + r, value1, value3, 0.0);
+                        valid++;
+                    }
+                }
+            }
+            assertTrue(valid > 0);
+            iter1.done();
+            iter3.done();
+        }
+    }
+
+    /**
+     * Copies the elevation through the shared fields of {@link HMModelIM}.
+     */
+    private static class SharedFieldsCopyIM extends HMModelIM {
+        void process( String inElev, String outCopy, int threads ) throws Exception {
+            addSource(new File(inElev));
+            addDestination(new File(outCopy));
+            processByTileCells(threads);
+            dispose();
+        }
+
+        @Override
+        protected void processCell( int readCol, int readRow, int writeCol, int writeRow, int readCols, int readRows,
+                int writeCols, int writeRows ) {
+            double elev = inRasterIterators.get(0).getSampleDouble(readCol, readRow, 0);
+            outRasterIterators.get(0).setSample(writeCol, writeRow, 0, elev);
+        }
+    }
+
+}
@@ -32,6 +32,6 @@ public class TestMultiTca extends HMTestCase {
         tca.pm = pm;
         tca.process();
         GridCoverage2D tcaCoverage = tca.outMultiTca;
- //       checkMatrixEqual(tcaCoverage.getRenderedImage(), HMTestMaps.multiTcaData);
+        checkMatrixEqual(tcaCoverage.getRenderedImage(), HMTestMaps.multiTcaData, 0.001);
     }
 }
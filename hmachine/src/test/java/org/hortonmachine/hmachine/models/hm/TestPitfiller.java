@@ -19,13 +19,20 @@ package org.hortonmachine.hmachine.models.hm;
 
 import static org.hortonmachine.gears.libs.modules.HMConstants.isNovalue;
 
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
 import java.util.HashMap;
 
+import javax.media.jai.RasterFactory;
+import javax.media.jai.TiledImage;
 import javax.media.jai.iterator.RectIter;
 import javax.media.jai.iterator.RectIterFactory;
 
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.utils.RegionMap;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.hmachine.modules.demmanipulation.pitfiller.OmsPitfiller;
 import org.hortonmachine.hmachine.utils.HMTestCase;
@@ -55,6 +62,93 @@ public class TestPitfiller extends HMTestCase {
 
     }
 
+    public void testPriorityFloodPitfiller() throws Exception {
+        double[][] elevationData = HMTestMaps.mapData;
+        HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs();
+        GridCoverage2D elevationCoverage = CoverageUtilities.buildCoverage("elevation", elevationData, envelopeParams, crs, true);
+
+        // novalues are kept instead of being filled
+        double[][] expected = new double[HMTestMaps.outPitData.length][];
+        for( int i = 0; i < expected.length; i++ ) {
+            expected[i] = HMTestMaps.outPitData[i].clone();
+            for( int j = 0; j < expected[i].length; j++ ) {
+                if (isNovalue(elevationData[i][j])) {
+                    expected[i][j] = elevationData[i][j];
+                }
+            }
+        }
+
+        OmsPitfiller pitfiller = new OmsPitfiller();
+        pitfiller.inElev = elevationCoverage;
+        pitfiller.doPriorityFlood = true;
+        pitfiller.pm = pm;
+        pitfiller.process();
+        checkMatrixEqual(pitfiller.outPit.getRenderedImage(), expected, 0);
+
+        pitfiller = new OmsPitfiller();
+        pitfiller.inElev = elevationCoverage;
+        pitfiller.doPriorityFlood = true;
+        pitfiller.pTileSize = 3;
+        pitfiller.pm = pm;
+        pitfiller.process();
+        checkMatrixEqual(pitfiller.outPit.getRenderedImage(), expected, 0);
+    }
+
+    public void testTiledPriorityFloodOnTiledImage() throws Exception {
+        // a rough surface full of pits, with some novalues, in an image of 16x16 tiles
+        int cols = 90;
+        int rows = 70;
+        double res = 10;
+        WritableRaster elevationRaster = CoverageUtilities.createWritableRaster(cols, rows, null, null, null);
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                double elevation = 100 + 30 * Math.sin(c / 7.0) * Math.cos(r / 5.0) + 10 * Math.sin(c * r / 13.0) + r;
+                if ((c * 31 + r * 17) % 97 == 0) {
+                    elevation = Double.NaN;
+                }
+                elevationRaster.setSample(c, r, 0, elevation);
+            }
+        }
+        SampleModel sampleModel = RasterFactory.createBandedSampleModel(DataBuffer.TYPE_DOUBLE, 16, 16, 1);
+        TiledImage elevationImage = new TiledImage(0, 0, cols, rows, 0, 0, sampleModel, null);
+        elevationImage.setData(elevationRaster);
+        double west = 1640650.0;
+        double south = 5139780.0;
+        RegionMap envelopeParams = CoverageUtilities.makeRegionParamsMap(south + rows * res, south, west, west + cols * res,
+                res, res, cols, rows);
+        GridCoverage2D elevationCoverage = CoverageUtilities.buildCoverage("elevation", elevationImage, envelopeParams,
+                HMTestMaps.getCrs3004());
+
+        OmsPitfiller pitfiller = new OmsPitfiller();
+        pitfiller.inElev = elevationCoverage;
+        pitfiller.doPriorityFlood = true;
+        pitfiller.pm = pm;
+        pitfiller.process();
+        Raster expected = pitfiller.outPit.getRenderedImage().getData();
+
+        for( int tileSize : new int[]{7, 20, 64} ) {
+            pitfiller = new OmsPitfiller();
+            pitfiller.inElev = elevationCoverage;
+            pitfiller.doPriorityFlood = true;
+            pitfiller.pTileSize = tileSize;
+            pitfiller.pm = pm;
+            pitfiller.process();
+            Raster tiled = pitfiller.outPit.getRenderedImage().getData();
+            for( int r = 0; r < rows; r++ ) {
+                for( int c = 0; c < cols; c++ ) {
+                    double expectedValue = expected.getSampleDouble(c, r, 0);
+                    double value = tiled.getSampleDouble(c, r, 0);
+                    if (isNovalue(expectedValue)) {
+                        assertTrue(c + "/" + r, isNovalue(value));
+                    } else {
+                        assertEquals(c + "/" + r, expectedValue, value, 0.0);
+                    }
+                }
+            }
+        }
+    }
+
     protected void checkMatrixEqualLimit( RenderedImage image, double[][] matrix, double delta ) {
         RectIter rectIter = RectIterFactory.create(image, null);
         int y = 0;
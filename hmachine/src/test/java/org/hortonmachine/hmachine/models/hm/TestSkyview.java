@@ -20,6 +20,7 @@ package org.hortonmachine.hmachine.models.hm;
 import java.util.HashMap;
 
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
 import org.hortonmachine.hmachine.modules.hydrogeomorphology.skyview.OmsSkyview;
 import org.hortonmachine.hmachine.utils.HMTestCase;
@@ -49,4 +50,62 @@ public class TestSkyview extends HMTestCase {
         checkMatrixEqual(hillshadeCoverage.getRenderedImage(), HMTestMaps.outSkyview, 0.03);
     }
 
+    public void testSkyviewWithHorizon() throws Exception {
+        // in steep terrain the original method lets only the slopes facing the sun cast shadows
+        double[] legacy = skyview(HMTestMaps.mapData, 0);
+        double[] horizon = skyview(HMTestMaps.mapData, 36);
+        for( int index : interiorCells() ) {
+            if (!HMConstants.isNovalue(legacy[index])) {
+                assertTrue(horizon[index] > 0.0 && horizon[index] <= legacy[index]);
+            }
+        }
+
+        // on a plane the horizons are the same, the original method misses one of 36 directions
+        double[][] planeData = new double[8][10];
+        for( int r = 0; r < planeData.length; r++ ) {
+            for( int c = 0; c < planeData[0].length; c++ ) {
+                planeData[r][c] = 10.0 * c + 5.0 * r;
+            }
+        }
+        legacy = skyview(planeData, 0);
+        horizon = skyview(planeData, 36);
+        for( int index : interiorCells() ) {
+            assertEquals(1.0 / 36.0, horizon[index] - legacy[index], 0.01);
+        }
+
+        double[] flat = skyview(new double[8][10], 36);
+        for( int index : interiorCells() ) {
+            assertEquals(1.0, flat[index], DELTA);
+        }
+    }
+
+    private double[] skyview( double[][] elevationData, int azimuths ) throws Exception {
+        HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs3004();
+        GridCoverage2D elevationCoverage = CoverageUtilities.buildCoverage("elevation", elevationData, envelopeParams, crs, true);
+
+        OmsSkyview skyview = new OmsSkyview();
+        skyview.inElev = elevationCoverage;
+        skyview.pAzimuths = azimuths;
+        skyview.pThreads = 2;
+        skyview.pm = pm;
+        skyview.process();
+        return CoverageUtilities.renderedImage2RowMajorDoubleArray(skyview.outSky.getRenderedImage());
+    }
+
+    /**
+     * @return the row-major indexes of the cells of the 10x8 test maps that the module doesn't set to novalue.
+     */
+    private static int[] interiorCells() {
+        int cols = 10;
+        int[] cells = new int[24];
+        int i = 0;
+        for( int r = 2; r < 6; r++ ) {
+            for( int c = 2; c < 8; c++ ) {
+                cells[i++] = r * cols + c;
+            }
+        }
+        return cells;
+    }
+
 }
@@ -52,4 +52,23 @@ public class TestSlope extends HMTestCase {
         checkMatrixEqual(slopeCoverage.getRenderedImage(), HMTestMaps.slopeData, 0.01);
     }
 
+    public void testSlopeStreaming() throws Exception {
+        HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs();
+        GridCoverage2D pitfillerCoverage = CoverageUtilities.buildCoverage("elevation", HMTestMaps.pitData, envelopeParams,
+                crs, true);
+        GridCoverage2D flowCoverage = CoverageUtilities.buildCoverage("flow", HMTestMaps.flowData, envelopeParams, crs, true);
+
+        OmsSlope slope = new OmsSlope();
+        slope.inPit = pitfillerCoverage;
+        slope.inFlow = flowCoverage;
+        slope.doStreaming = true;
+        slope.pm = pm;
+
+        slope.process();
+
+        GridCoverage2D slopeCoverage = slope.outSlope;
+        checkMatrixEqual(slopeCoverage.getRenderedImage(), HMTestMaps.slopeData, 0.01);
+    }
+
 }
@@ -67,4 +67,21 @@ public class TestTca extends HMTestCase {
         checkMatrixEqual(tcaCoverage.getRenderedImage(), HMTestMaps.tcaData);
     }
 
+    public void testParallelTca() throws Exception {
+        HashMap<String, Double> envelopeParams = HMTestMaps.getEnvelopeparams();
+        CoordinateReferenceSystem crs = HMTestMaps.getCrs();
+
+        double[][] flowData = HMTestMaps.flowData;
+        GridCoverage2D flowCoverage = CoverageUtilities.buildCoverage("flow", flowData, envelopeParams, crs, true);
+
+        OmsTca tca = new OmsTca();
+        tca.inFlow = flowCoverage;
+        tca.pThreads = 4;
+        tca.pm = pm;
+        tca.process();
+        GridCoverage2D tcaCoverage = tca.outTca;
+
+        checkMatrixEqual(tcaCoverage.getRenderedImage(), HMTestMaps.tcaData);
+    }
+
 }
\ No newline at end of file
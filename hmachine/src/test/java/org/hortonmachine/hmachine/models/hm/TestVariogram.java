@@ -2,6 +2,7 @@ package org.hortonmachine.hmachine.models.hm;
 
 import java.io.File;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -111,4 +112,105 @@ public class TestVariogram extends HMTestCase {
 
     }
 
+    public void testPairsAsDistanceMatrix() throws Exception {
+        int count = 200;
+        double[] x = new double[count];
+        double[] y = new double[count];
+        double[] values = new double[count];
+        for( int i = 0; i < count; i++ ) {
+            x[i] = (i * 7919) % 5000;
+            y[i] = (i * 104729) % 3000;
+            values[i] = Math.sin(i) * 10 + x[i] / 1000.0;
+        }
+        // a duplicated point, whose pair at distance 0 is not used
+        x[count - 1] = x[0];
+        y[count - 1] = y[0];
+
+        for( double cutoff : new double[]{0, 800, 10000} ) {
+            double[][] expected = matrixVariogram(x, y, values, cutoff);
+            double[][] result = OmsVariogram.processAlgorithm(x, y, values, cutoff);
+            assertEquals(expected.length, result.length);
+            for( int i = 0; i < expected.length; i++ ) {
+                assertTrue(Arrays.equals(expected[i], result[i]));
+            }
+        }
+    }
+
+    /**
+     * The variogram as calculated before the pairs were searched through the spatial 
+     * index, from the whole distance matrix.
+     */
+    private static double[][] matrixVariogram( double[] xcord, double ycoord[], double[] values, double cutoffInput ) {
+        int num = 15;
+        int iCount = xcord.length;
+        double mean = 0;
+        double maxDist = 0;
+        double x_max = xcord[0], y_max = ycoord[0];
+        double x_min = xcord[0], y_min = ycoord[0];
+        for( int i = 1; i < iCount; i++ ) {
+            x_min = Math.min(x_min, xcord[i]);
+            y_min = Math.min(y_min, ycoord[i]);
+            x_max = Math.max(x_max, xcord[i]);
+            y_max = Math.max(y_max, ycoord[i]);
+        }
+        double diagonale = Math.sqrt((x_max - x_min) * (x_max - x_min) + (y_max - y_min) * (y_max - y_min));
+        double cutoff = cutoffInput == 0 ? diagonale / 3 : cutoffInput;
+
+        double[][] d = new double[iCount][iCount];
+        for( int i = 0; i < iCount; i++ ) {
+            mean += values[i];
+            for( int j = 0; j < iCount; j++ ) {
+                double dDifX = xcord[j] - xcord[i];
+                double dDifY = ycoord[j] - ycoord[i];
+                d[i][j] = Math.sqrt(dDifX * dDifX + dDifY * dDifY);
+                maxDist = Math.max(maxDist, d[i][j]);
+            }
+        }
+        mean /= (double) iCount;
+
+        double binAmplitude = cutoff / num;
+        int iClasses = (int) (maxDist / binAmplitude + 2);
+        double[] moran = new double[iClasses];
+        double[] geary = new double[iClasses];
+        double[] den = new double[iClasses];
+        double[] semivar = new double[iClasses];
+        int[] pointsInClass = new int[iClasses];
+        boolean[] isInClass = new boolean[iClasses];
+        double[] dist = new double[iClasses];
+        for( int i = 0; i < iCount; i++ ) {
+            Arrays.fill(isInClass, false);
+            double value1 = values[i];
+            for( int j = i + 1; j < iCount; j++ ) {
+                if (d[i][j] > 0 && d[i][j] < cutoff) {
+                    int iClass = (int) Math.floor(d[i][j] / binAmplitude);
+                    pointsInClass[iClass]++;
+                    double value2 = values[j];
+                    semivar[iClass] += Math.pow((value1 - value2), 2.);
+                    moran[iClass] += (value1 - mean) * (value2 - mean);
+                    geary[iClass] = semivar[iClass];
+                    isInClass[iClass] = true;
+                    dist[iClass] += d[i][j];
+                }
+            }
+            for( int j = 0; j < iClasses; j++ ) {
+                if (isInClass[j]) {
+                    den[j] += Math.pow(value1 - mean, 2.);
+                }
+            }
+        }
+        double[][] result = new double[iClasses][5];
+        int nonZero = 0;
+        for( int i = 0; i < iClasses; i++ ) {
+            if (den[i] != 0) {
+                nonZero++;
+                moran[i] /= den[i];
+                geary[i] *= ((pointsInClass[i] - 1) / (2. * pointsInClass[i] * den[i]));
+                semivar[i] /= (2. * pointsInClass[i]);
+                dist[i] /= pointsInClass[i];
+                result[i] = new double[]{pointsInClass[i], dist[i], semivar[i], moran[i], geary[i]};
+            }
+        }
+        return Arrays.copyOf(result, nonZero);
+    }
+
 }
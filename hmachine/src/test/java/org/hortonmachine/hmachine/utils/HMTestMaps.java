@@ -424,12 +424,12 @@ public class HMTestMaps {
 
     public static double[][] multiTcaData = new double[][]{ //
     /*    */{N, N, N, N, N, N, N, N, N, N}, //
-            {N, N, N, 1.0, 1.0, 1.0, 1.0, 1.0, 1.0, N}, //
-            {N, N, N, 2.25, 2.125, 2.0, 2.0, 2.0, 1.0, N}, //
-            {N, 33.87, 3.25, 3.47, 3.45, 3.14, 1.0, 5.14, 2.0, N}, //
-            {N, 1.82, 31.5, 26.14, 15.13, 8.35, 7.43, 5.14, 2.0, N}, //
-            {N, 2.28, 2.0, 2.06, 3.0, 2.0, 2.0, 2.0, 1.0, N}, //
-            {N, 1.0, 1.0, 1.0, 1.0, 2.0, 1.0, 1.0, 1.0, N}, //
+            {N, N, N, 1.068, 1.286, 1.357, 1.250, 1.0, 1.0, N}, //
+            {N, N, N, 2.719, 2.832, 2.311, 2.103, 2.411, 1.125, N}, //
+            {N, 39.160, 2.635, 3.418, 3.228, 2.551, 1.907, 5.421, 2.224, N}, //
+            {N, 1.929, 36.897, 31.058, 23.980, 17.078, 12.275, 4.636, 2.029, N}, //
+            {N, 2.267, 1.740, 1.800, 3.404, 2.149, 2.381, 2.401, 1.0, N}, //
+            {N, 1.238, 1.192, 1.0, 1.077, 1.806, 1.235, 1.056, 1.0, N}, //
             {N, N, N, N, N, N, N, N, N, N} //
     };
 
@@ -23,7 +23,7 @@ import static org.hortonmachine.gears.libs.modules.HMConstants.isNovalue;
 import java.awt.image.WritableRaster;
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.media.jai.iterator.RandomIter;
@@ -48,8 +48,7 @@ import org.geotools.geometry.DirectPosition2D;
 import org.geotools.geometry.Envelope2D;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.hortonmachine.gears.io.las.ALasDataManager;
-import org.hortonmachine.gears.io.las.core.LasRecord;
-import org.hortonmachine.gears.io.las.utils.LasRecordGroundElevationComparator;
+import org.hortonmachine.gears.io.las.core.PointBatch;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
 import org.hortonmachine.gears.modules.r.filter.OmsKernelFilter;
@@ -140,6 +139,7 @@ public class LasHeightDistribution extends HMModel {
         WritableRandomIter finalIter = CoverageUtilities.getWritableRandomIterator(finalCoverageWRH[0]);
 
         try (ALasDataManager dataManager = ALasDataManager.getDataManager(indexFile, inDemGC, pThres, null)) {
+            dataManager.setProgressMonitor(pm);
             dataManager.open();
 
             for( int i = 0; i < tilesMates.size(); i++ ) {
@@ -157,7 +157,7 @@ public class LasHeightDistribution extends HMModel {
                 RegionMap tileRegionMap = CoverageUtilities.getRegionParamsFromGridCoverage(tmp);
                 GridGeometry2D tileGridGeometry = tmp.getGridGeometry();
 
-                List<LasRecord> pointsListForTile = dataManager.getPointsInGeometry(tileGeom, true);
+                PointBatch pointsListForTile = getPointsInTile(dataManager, tileGeom);
                 // do something with the data
 
                 if (pointsListForTile.size() == 0) {
@@ -172,7 +172,7 @@ public class LasHeightDistribution extends HMModel {
                 List<GridCoverage2D> rangeCoverages = new ArrayList<GridCoverage2D>();
 
                 for( double[] range : negativeRanges ) {
-                    List<LasRecord> pointsInVerticalRange = ALasDataManager.getPointsInVerticalRange(pointsListForTile, range[0],
+                    PointBatch pointsInVerticalRange = ALasDataManager.getPointsInVerticalRange(pointsListForTile, range[0],
                             range[1], true);
 
                     WritableRaster[] wrH = new WritableRaster[1];
@@ -183,8 +183,9 @@ public class LasHeightDistribution extends HMModel {
                     WritableRandomIter tmpIter = CoverageUtilities.getWritableRandomIterator(wrH[0]);
 
                     final DirectPosition2D wp = new DirectPosition2D();
-                    for( LasRecord lasRecord : pointsInVerticalRange ) {
-                        wp.setLocation(lasRecord.x, lasRecord.y);
+                    int rangeSize = pointsInVerticalRange.size();
+                    for( int p = 0; p < rangeSize; p++ ) {
+                        wp.setLocation(pointsInVerticalRange.x[p], pointsInVerticalRange.y[p]);
                         GridCoordinates2D gp = tileGridGeometry.worldToGrid(wp);
                         double count = tmpIter.getSampleDouble(gp.x, gp.y, 0);
                         if (isNovalue(count)) {
@@ -275,6 +276,18 @@ public class LasHeightDistribution extends HMModel {
 
     }
 
+    /**
+     * Read the points of a tile, with their height over the dem as ground elevation.
+     * 
+     * @param dataManager the las data manager.
+     * @param tileGeom the geometry of the tile.
+     * @return the points in the envelope of the tile.
+     * @throws Exception
+     */
+    protected PointBatch getPointsInTile( ALasDataManager dataManager, Geometry tileGeom ) throws Exception {
+        return dataManager.getPointBatchInGeometry(tileGeom, true);
+    }
+
     private boolean overlapForPercentage( GridCoverage2D cov1, GridCoverage2D cov2, double forPercentage ) {
         RandomIter cov1Iter = CoverageUtilities.getRandomIterator(cov1);
         RandomIter cov2Iter = CoverageUtilities.getRandomIterator(cov2);
@@ -321,14 +334,9 @@ public class LasHeightDistribution extends HMModel {
         return false;
     }
 
-    private List<double[]> analyseNegativeLayerRanges( String id, List<LasRecord> pointsList ) throws Exception {
-        Collections.sort(pointsList, new LasRecordGroundElevationComparator());
-
-        double[] pointsArray = new double[pointsList.size()];
-        for( int i = 0; i < pointsArray.length; i++ ) {
-            LasRecord lasRecord = pointsList.get(i);
-            pointsArray[i] = lasRecord.groundElevation;
-        }
+    private List<double[]> analyseNegativeLayerRanges( String id, PointBatch points ) throws Exception {
+        double[] pointsArray = Arrays.copyOf(points.groundElevation, points.size());
+        Arrays.sort(pointsArray);
 
         double binSize = 0.5;
         double[][] bins = toBins(pointsArray, binSize);
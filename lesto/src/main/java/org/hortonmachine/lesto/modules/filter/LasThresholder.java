@@ -22,6 +22,7 @@ import org.hortonmachine.gears.io.las.core.ALasReader;
 import org.hortonmachine.gears.io.las.core.ALasWriter;
 import org.hortonmachine.gears.io.las.core.ILasHeader;
 import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.PointBatch;
 import org.hortonmachine.gears.io.las.utils.LasUtils;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
@@ -46,6 +47,8 @@ import oms3.annotations.UI;
 @Status(Status.EXPERIMENTAL)
 @License(HMConstants.GPL3_LICENSE)
 public class LasThresholder extends HMModel {
+    private static final int BATCH_SIZE = 100000;
+
     @Description("A las file to filter.")
     @UI(HMConstants.FILEIN_UI_HINT_LAS)
     @In
@@ -100,22 +103,28 @@ public class LasThresholder extends HMModel {
             if (pUpper != null) {
                 max = pUpper;
             }
-            while( reader.hasNextPoint() ) {
-                LasRecord readNextLasDot = reader.getNextPoint();
-                double value = readNextLasDot.z;
+            PointBatch batch = new PointBatch(BATCH_SIZE);
+            boolean[] keep = new boolean[BATCH_SIZE];
+            LasRecord record = new LasRecord();
+            int read;
+            while( (read = reader.readPoints(batch, BATCH_SIZE)) > 0 ) {
                 if (doIntensity) {
-                    value = readNextLasDot.intensity;
-                }
-                if (value < min) {
-                    pm.worked(1);
-                    continue;
+                    short[] intensities = batch.intensity;
+                    for( int i = 0; i < read; i++ ) {
+                        keep[i] = intensities[i] >= min && intensities[i] <= max;
+                    }
+                } else {
+                    double[] elevations = batch.z;
+                    for( int i = 0; i < read; i++ ) {
+                        keep[i] = elevations[i] >= min && elevations[i] <= max;
+                    }
                 }
-                if (value > max) {
-                    pm.worked(1);
-                    continue;
+                int kept = batch.retain(keep);
+                for( int i = 0; i < kept; i++ ) {
+                    writer.addPoint(batch.toRecord(i, record));
                 }
-                writer.addPoint(readNextLasDot);
-                pm.worked(1);
+                batch.clear();
+                pm.worked(read);
             }
         }
         pm.done();
@@ -24,7 +24,6 @@ import static org.hortonmachine.gears.i18n.GearsMessages.OMSHYDRO_DRAFT;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSHYDRO_LICENSE;
 
 import java.io.File;
-import java.util.List;
 
 import oms3.annotations.Author;
 import oms3.annotations.Description;
@@ -42,7 +41,7 @@ import org.geotools.feature.DefaultFeatureCollection;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.hortonmachine.gears.io.las.ALasDataManager;
-import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.PointBatch;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
 import org.hortonmachine.gears.libs.modules.Variables;
@@ -111,12 +110,13 @@ public class Las2RasterInterpolator extends HMModel {
         CoordinateReferenceSystem crs = inDtmGC.getCoordinateReferenceSystem();
 
         try (ALasDataManager lasData = ALasDataManager.getDataManager(new File(inIndexFile), inDtmGC, pThreshold, crs)) {
+            lasData.setProgressMonitor(pm);
             lasData.open();
             if (pImpulse != null) {
                 lasData.setImpulsesConstraint(new double[]{pImpulse});
             }
 
-            List<LasRecord> lasPoints = lasData.getPointsInGeometry(polygon, false);
+            PointBatch lasPoints = lasData.getPointBatchInGeometry(polygon, false);
             if (lasPoints.size() == 0) {
                 pm.message("No points foudn in the given area. Check your input.");
                 return;
@@ -146,10 +146,11 @@ public class Las2RasterInterpolator extends HMModel {
             final SimpleFeatureType featureType = b.buildFeatureType();
             SimpleFeatureBuilder builder = new SimpleFeatureBuilder(featureType);
 
-            pm.beginTask("Prepare points collection for interpolation...", lasPoints.size());
-            for( LasRecord r : lasPoints ) {
-                final Point point = gf.createPoint(new Coordinate(r.x, r.y));
-                final Object[] values = new Object[]{point, r.z,};
+            int size = lasPoints.size();
+            pm.beginTask("Prepare points collection for interpolation...", size);
+            for( int i = 0; i < size; i++ ) {
+                final Point point = gf.createPoint(new Coordinate(lasPoints.x[i], lasPoints.y[i]));
+                final Object[] values = new Object[]{point, lasPoints.z[i],};
                 builder.addAll(values);
                 final SimpleFeature feature = builder.buildFeature(null);
                 newCollection.add(feature);
@@ -26,7 +26,6 @@ import static org.hortonmachine.gears.i18n.GearsMessages.OMSHYDRO_LICENSE;
 import java.awt.Point;
 import java.awt.image.WritableRaster;
 import java.io.File;
-import java.util.List;
 
 import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.WritableRandomIter;
@@ -45,7 +44,7 @@ import oms3.annotations.UI;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridGeometry2D;
 import org.hortonmachine.gears.io.las.ALasDataManager;
-import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.PointBatch;
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
 import org.hortonmachine.gears.libs.monitor.IHMProgressMonitor;
@@ -132,15 +131,21 @@ public class LasOnRasterMapper extends HMModel {
         try (ALasDataManager lasData = ALasDataManager.getDataManager(new File(inLas), null, 0.0, crs)) {
             lasData.open();
             pm.beginTask("Reading points on region...", IHMProgressMonitor.UNKNOWN);
-            List<LasRecord> lasPoints = lasData.getPointsInGeometry(polygon, false);
+            PointBatch lasPoints = lasData.getPointBatchInGeometry(polygon, false);
             pm.done();
 
-            pm.beginTask("Setting raster points...", lasPoints.size());
+            int size = lasPoints.size();
+            double[] xs = lasPoints.x;
+            double[] ys = lasPoints.y;
+            double[] zs = lasPoints.z;
+            pm.beginTask("Setting raster points...", size);
             final Point gridPoint = new Point();
             final Point dtmPoint = new Point();
-            for( LasRecord lasRecord : lasPoints ) {
-                double dotZ = lasRecord.z;
-                Coordinate coordinate = new Coordinate(lasRecord.x, lasRecord.y, dotZ);
+            final Coordinate coordinate = new Coordinate();
+            for( int i = 0; i < size; i++ ) {
+                double dotZ = zs[i];
+                coordinate.x = xs[i];
+                coordinate.y = ys[i];
                 CoverageUtilities.colRowFromCoordinate(coordinate, newGridGeometry2D, gridPoint);
 
                 double newRasterValue = newWR.getSampleDouble(gridPoint.x, gridPoint.y, 0);
@@ -55,6 +55,10 @@ public class Aspect extends HMModel {
     @In
     public boolean doRound = false;
 
+    @Description(OMSASPECT_doStreaming_DESCRIPTION)
+    @In
+    public boolean doStreaming = false;
+
     @Description(OMSASPECT_outAspect_DESCRIPTION)
     @UI(HMConstants.FILEOUT_UI_HINT)
     @In
@@ -66,6 +70,7 @@ public class Aspect extends HMModel {
         aspect.inElev = getRaster(inElev);
         aspect.doRadiants = doRadiants;
         aspect.doRound = doRound;
+        aspect.doStreaming = doStreaming;
         aspect.pm = pm;
         aspect.process();
         dumpRaster(aspect.outAspect, outAspect);
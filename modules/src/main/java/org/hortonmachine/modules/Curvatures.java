@@ -47,6 +47,10 @@ public class Curvatures extends HMModel {
     @In
     public String inElev = null;
 
+    @Description(OMSCURVATURES_doStreaming_DESCRIPTION)
+    @In
+    public boolean doStreaming = false;
+
     // output
     @Description(OMSCURVATURES_outProf_DESCRIPTION)
     @UI(HMConstants.FILEOUT_UI_HINT)
@@ -68,6 +72,7 @@ public class Curvatures extends HMModel {
         OmsCurvatures curv = new OmsCurvatures();
         curv.pm = pm;
         curv.inElev = getRaster(inElev);
+        curv.doStreaming = doStreaming;
         curv.process();
         dumpRaster(curv.outProf, outProf);
         dumpRaster(curv.outPlan, outPlan);
@@ -32,6 +32,7 @@ import static org.hortonmachine.hmachine.modules.geomorphology.draindir.OmsDrain
 import static org.hortonmachine.hmachine.modules.geomorphology.draindir.OmsDrainDir.OMSDRAINDIR_outFlow_DESCRIPTION;
 import static org.hortonmachine.hmachine.modules.geomorphology.draindir.OmsDrainDir.OMSDRAINDIR_outTca_DESCRIPTION;
 import static org.hortonmachine.hmachine.modules.geomorphology.draindir.OmsDrainDir.OMSDRAINDIR_pLambda_DESCRIPTION;
+import static org.hortonmachine.hmachine.modules.geomorphology.draindir.OmsDrainDir.OMSDRAINDIR_pThreads_DESCRIPTION;
 
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
@@ -80,6 +81,10 @@ public class DrainDir extends HMModel {
     @In
     public boolean doLad = true;
 
+    @Description(OMSDRAINDIR_pThreads_DESCRIPTION)
+    @In
+    public int pThreads = 1;
+
     @Description(OMSDRAINDIR_outFlow_DESCRIPTION)
     @UI(HMConstants.FILEOUT_UI_HINT)
     @In
@@ -98,6 +103,7 @@ public class DrainDir extends HMModel {
         draindir.inFlownet = getRaster(inFlownet);
         draindir.pLambda = pLambda;
         draindir.doLad = doLad;
+        draindir.pThreads = pThreads;
         draindir.pm = pm;
         draindir.doProcess = doProcess;
         draindir.doReset = doReset;
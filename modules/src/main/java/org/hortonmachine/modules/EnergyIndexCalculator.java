@@ -34,9 +34,11 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSENERGYINDEXCALCU
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSENERGYINDEXCALCULATOR_outAltimetry_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSENERGYINDEXCALCULATOR_outArea_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSENERGYINDEXCALCULATOR_outEnergy_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSENERGYINDEXCALCULATOR_pAzimuths_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSENERGYINDEXCALCULATOR_pDt_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSENERGYINDEXCALCULATOR_pEi_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSENERGYINDEXCALCULATOR_pEs_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSENERGYINDEXCALCULATOR_pThreads_DESCRIPTION;
 
 import java.util.List;
 
@@ -107,6 +109,14 @@ public class EnergyIndexCalculator extends HMModel {
     @In
     public double pDt = -1;
 
+    @Description(OMSENERGYINDEXCALCULATOR_pAzimuths_DESCRIPTION)
+    @In
+    public int pAzimuths = 0;
+
+    @Description(OMSENERGYINDEXCALCULATOR_pThreads_DESCRIPTION)
+    @In
+    public int pThreads = 1;
+
     @Description(OMSENERGYINDEXCALCULATOR_outAltimetry_DESCRIPTION)
     @UI(HMConstants.FILEOUT_UI_HINT)
     @In
@@ -134,6 +144,8 @@ public class EnergyIndexCalculator extends HMModel {
         energyindexcalculator.pEs = pEs;
         energyindexcalculator.pEi = pEi;
         energyindexcalculator.pDt = pDt;
+        energyindexcalculator.pAzimuths = pAzimuths;
+        energyindexcalculator.pThreads = pThreads;
         energyindexcalculator.pm = pm;
         energyindexcalculator.process();
         List<EIAltimetry> outAltimetryObj = energyindexcalculator.outAltimetry;
@@ -27,6 +27,7 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSFLOWDIRECTIONS_N
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSFLOWDIRECTIONS_STATUS;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSFLOWDIRECTIONS_inPit_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSFLOWDIRECTIONS_outFlow_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSFLOWDIRECTIONS_pThreads_DESCRIPTION;
 
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
@@ -56,6 +57,10 @@ public class FlowDirections extends HMModel {
     @In
     public String inPit = null;
 
+    @Description(OMSFLOWDIRECTIONS_pThreads_DESCRIPTION)
+    @In
+    public int pThreads = 1;
+
     @Description(OMSFLOWDIRECTIONS_outFlow_DESCRIPTION)
     @UI(HMConstants.FILEOUT_UI_HINT)
     @In
@@ -65,6 +70,7 @@ public class FlowDirections extends HMModel {
     public void process() throws Exception {
         OmsFlowDirections omsflowdirections = new OmsFlowDirections();
         omsflowdirections.inPit = getRaster(inPit);
+        omsflowdirections.pThreads = pThreads;
         omsflowdirections.pm = pm;
         omsflowdirections.doProcess = doProcess;
         omsflowdirections.doReset = doReset;
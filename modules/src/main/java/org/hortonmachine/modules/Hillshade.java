@@ -25,6 +25,7 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_LABEL;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_LICENSE;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_NAME;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_STATUS;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_doStreaming_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_inElev_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_outHill_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSHILLSHADE_pAzimuth_DESCRIPTION;
@@ -72,6 +73,10 @@ public class Hillshade extends HMModel {
     @In
     public double pElev = 90;
 
+    @Description(OMSHILLSHADE_doStreaming_DESCRIPTION)
+    @In
+    public boolean doStreaming = false;
+
     @Description(OMSHILLSHADE_outHill_DESCRIPTION)
     @UI(HMConstants.FILEOUT_UI_HINT)
     @In
@@ -84,6 +89,7 @@ public class Hillshade extends HMModel {
         hillshade.pMinDiffuse = pMinDiffuse;
         hillshade.pAzimuth = pAzimuth;
         hillshade.pElev = pElev;
+        hillshade.doStreaming = doStreaming;
         hillshade.pm = pm;
         hillshade.doProcess = doProcess;
         hillshade.doReset = doReset;
@@ -27,6 +27,8 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_NAME;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_STATUS;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_inElev_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_outIns_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_pAzimuths_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_pThreads_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_tEndDate_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSINSOLATION_tStartDate_DESCRIPTION;
 
@@ -67,6 +69,14 @@ public class Insolation extends HMModel {
     @In
     public String tEndDate = null;
 
+    @Description(OMSINSOLATION_pAzimuths_DESCRIPTION)
+    @In
+    public int pAzimuths = 0;
+
+    @Description(OMSINSOLATION_pThreads_DESCRIPTION)
+    @In
+    public int pThreads = 1;
+
     @Description(OMSINSOLATION_outIns_DESCRIPTION)
     @UI(HMConstants.FILEOUT_UI_HINT)
     @In
@@ -78,6 +88,8 @@ public class Insolation extends HMModel {
         insolation.inElev = getRaster(inElev);
         insolation.tStartDate = tStartDate;
         insolation.tEndDate = tEndDate;
+        insolation.pAzimuths = pAzimuths;
+        insolation.pThreads = pThreads;
         insolation.pm = pm;
         insolation.doProcess = doProcess;
         insolation.doReset = doReset;
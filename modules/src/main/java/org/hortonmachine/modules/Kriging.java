@@ -38,10 +38,13 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_outData_
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_outGrid_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_pA_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_pIntegralscale_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_pMaxNeighbours_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_pMode_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_pNug_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_pS_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_pSearchRadius_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_pSemivariogramType_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_pThreads_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSKRIGING_pVariance_DESCRIPTION;
 
 import java.util.HashMap;
@@ -150,6 +153,18 @@ public class Kriging extends HMModel {
     @In
     public double pNug;
 
+    @Description(OMSKRIGING_pMaxNeighbours_DESCRIPTION)
+    @In
+    public int pMaxNeighbours = 0;
+
+    @Description(OMSKRIGING_pSearchRadius_DESCRIPTION)
+    @In
+    public double pSearchRadius = 0;
+
+    @Description(OMSKRIGING_pThreads_DESCRIPTION)
+    @In
+    public int pThreads = 1;
+
     @Description(OMSKRIGING_outGrid_DESCRIPTION)
     @UI(HMConstants.FILEOUT_UI_HINT)
     @In
@@ -204,6 +219,9 @@ public class Kriging extends HMModel {
         kriging.pA = pA;
         kriging.pS = pS;
         kriging.pNug = pNug;
+        kriging.pMaxNeighbours = pMaxNeighbours;
+        kriging.pSearchRadius = pSearchRadius;
+        kriging.pThreads = pThreads;
         kriging.pm = pm;
         kriging.doProcess = doProcess;
         kriging.doReset = doReset;
@@ -26,8 +26,10 @@ import static org.hortonmachine.hmachine.modules.demmanipulation.pitfiller.OmsPi
 import static org.hortonmachine.hmachine.modules.demmanipulation.pitfiller.OmsPitfiller.OMSPITFILLER_LICENSE;
 import static org.hortonmachine.hmachine.modules.demmanipulation.pitfiller.OmsPitfiller.OMSPITFILLER_NAME;
 import static org.hortonmachine.hmachine.modules.demmanipulation.pitfiller.OmsPitfiller.OMSPITFILLER_STATUS;
+import static org.hortonmachine.hmachine.modules.demmanipulation.pitfiller.OmsPitfiller.OMSPITFILLER_doPriorityFlood_DESCRIPTION;
 import static org.hortonmachine.hmachine.modules.demmanipulation.pitfiller.OmsPitfiller.OMSPITFILLER_inElev_DESCRIPTION;
 import static org.hortonmachine.hmachine.modules.demmanipulation.pitfiller.OmsPitfiller.OMSPITFILLER_outPit_DESCRIPTION;
+import static org.hortonmachine.hmachine.modules.demmanipulation.pitfiller.OmsPitfiller.OMSPITFILLER_pTileSize_DESCRIPTION;
 
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
@@ -57,6 +59,14 @@ public class Pitfiller extends HMModel {
     @In
     public String inElev;
 
+    @Description(OMSPITFILLER_doPriorityFlood_DESCRIPTION)
+    @In
+    public boolean doPriorityFlood = false;
+
+    @Description(OMSPITFILLER_pTileSize_DESCRIPTION)
+    @In
+    public int pTileSize = 0;
+
     @Description(OMSPITFILLER_outPit_DESCRIPTION)
     @UI(HMConstants.FILEOUT_UI_HINT)
     @In
@@ -66,6 +76,8 @@ public class Pitfiller extends HMModel {
     public void process() throws Exception {
         OmsPitfiller pitfiller = new OmsPitfiller();
         pitfiller.inElev = getRaster(inElev);
+        pitfiller.doPriorityFlood = doPriorityFlood;
+        pitfiller.pTileSize = pTileSize;
         pitfiller.pm = pm;
         pitfiller.doProcess = doProcess;
         pitfiller.doReset = doReset;
@@ -31,6 +31,7 @@ import oms3.annotations.UI;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_AUTHORCONTACTS;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_AUTHORNAMES;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_DESCRIPTION;
+import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_DO_LAZY_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_DO_LEGACY_GRASS_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_FILE_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_FILE_NOVALUE_DESCRIPTION;
@@ -45,6 +46,7 @@ import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_P_EAST_
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_P_NORTH_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_P_ROWS_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_P_SOUTH_DESCRIPTION;
+import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_P_TILE_CACHE_SIZE_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_P_WEST_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_P_X_RES_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERREADER_P_Y_RES_DESCRIPTION;
@@ -123,6 +125,14 @@ public class RasterReader extends HMModel {
     @In
     public Boolean doLegacyGrass = false;
 
+    @Description(OMSRASTERREADER_DO_LAZY_DESCRIPTION)
+    @In
+    public boolean doLazy = false;
+
+    @Description(OMSRASTERREADER_P_TILE_CACHE_SIZE_DESCRIPTION)
+    @In
+    public int pTileCacheSize = 64;
+
     @Description(OMSRASTERREADER_OUT_RASTER_DESCRIPTION)
     @In
     public GridCoverage2D outRaster = null;
@@ -152,6 +162,8 @@ public class RasterReader extends HMModel {
         rasterreader.pRows = pRows;
         rasterreader.pCols = pCols;
         rasterreader.doLegacyGrass = doLegacyGrass;
+        rasterreader.doLazy = doLazy;
+        rasterreader.pTileCacheSize = pTileCacheSize;
         rasterreader.doEnvelope = doEnvelope;
         rasterreader.pm = pm;
         rasterreader.doProcess = doProcess;
@@ -21,6 +21,7 @@ import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERSUMMARY_AUTHOR
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERSUMMARY_AUTHORNAMES;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERSUMMARY_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERSUMMARY_DO_HISTOGRAM_DESCRIPTION;
+import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERSUMMARY_DO_STREAMING_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERSUMMARY_IN_RASTER_DESCRIPTION;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERSUMMARY_KEYWORDS;
 import static org.hortonmachine.gears.i18n.GearsMessages.OMSRASTERSUMMARY_LABEL;
@@ -74,6 +75,10 @@ public class RasterSummary extends HMModel {
     @In
     public boolean doHistogram = false;
 
+    @Description(OMSRASTERSUMMARY_DO_STREAMING_DESCRIPTION)
+    @In
+    public boolean doStreaming = false;
+
     @Description(OMSRASTERSUMMARY_OUT_MIN_DESCRIPTION)
     @Out
     public Double outMin = null;
@@ -108,6 +113,7 @@ public class RasterSummary extends HMModel {
         rastersummary.inRaster = getRaster(inRaster);
         rastersummary.pBins = pBins;
         rastersummary.doHistogram = doHistogram;
+        rastersummary.doStreaming = doStreaming;
         rastersummary.pm = pm;
         rastersummary.doProcess = doProcess;
         rastersummary.doReset = doReset;
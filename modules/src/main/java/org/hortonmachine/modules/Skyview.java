@@ -27,6 +27,8 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_NAME;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_STATUS;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_inElev_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_outSky_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_pAzimuths_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSKYVIEW_pThreads_DESCRIPTION;
 
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
@@ -57,6 +59,14 @@ public class Skyview extends HMModel {
     @In
     public String inElev = null;
 
+    @Description(OMSSKYVIEW_pAzimuths_DESCRIPTION)
+    @In
+    public int pAzimuths = 0;
+
+    @Description(OMSSKYVIEW_pThreads_DESCRIPTION)
+    @In
+    public int pThreads = 1;
+
     @Description(OMSSKYVIEW_outSky_DESCRIPTION)
     @UI(HMConstants.FILEOUT_UI_HINT)
     @In
@@ -66,6 +76,8 @@ public class Skyview extends HMModel {
     public void process() throws Exception {
         OmsSkyview skyview = new OmsSkyview();
         skyview.inElev = getRaster(inElev);
+        skyview.pAzimuths = pAzimuths;
+        skyview.pThreads = pThreads;
         skyview.pm = pm;
         skyview.doProcess = doProcess;
         skyview.doReset = doReset;
@@ -26,6 +26,7 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSLOPE_LICENSE;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSLOPE_NAME;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSLOPE_STATUS;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSLOPE_doHandleNegativeSlope_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSLOPE_doStreaming_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSLOPE_inFlow_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSLOPE_inPit_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSSLOPE_outSlope_DESCRIPTION;
@@ -67,6 +68,10 @@ public class Slope extends HMModel {
     @In
     public boolean doHandleNegativeSlope;
 
+    @Description(OMSSLOPE_doStreaming_DESCRIPTION)
+    @In
+    public boolean doStreaming = false;
+
     @Description(OMSSLOPE_outSlope_DESCRIPTION)
     @UI(HMConstants.FILEOUT_UI_HINT)
     @In
@@ -78,6 +83,7 @@ public class Slope extends HMModel {
         slope.inPit = getRaster(inPit);
         slope.inFlow = getRaster(inFlow);
         slope.doHandleNegativeSlope = doHandleNegativeSlope;
+        slope.doStreaming = doStreaming;
         slope.pm = pm;
         slope.doProcess = doProcess;
         slope.doReset = doReset;
@@ -28,6 +28,7 @@ import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSTCA_STATUS;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSTCA_inFlow_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSTCA_outLoop_DESCRIPTION;
 import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSTCA_outTca_DESCRIPTION;
+import static org.hortonmachine.hmachine.i18n.HortonMessages.OMSTCA_pThreads_DESCRIPTION;
 
 import org.hortonmachine.gears.libs.modules.HMConstants;
 import org.hortonmachine.gears.libs.modules.HMModel;
@@ -57,6 +58,10 @@ public class Tca extends HMModel {
     @In
     public String inFlow = null;
 
+    @Description(OMSTCA_pThreads_DESCRIPTION)
+    @In
+    public int pThreads = 1;
+
     @Description(OMSTCA_outTca_DESCRIPTION)
     @UI(HMConstants.FILEOUT_UI_HINT)
     @In
@@ -71,6 +76,7 @@ public class Tca extends HMModel {
     public void process() throws Exception {
         OmsTca omstca = new OmsTca();
         omstca.inFlow = getRaster(inFlow);
+        omstca.pThreads = pThreads;
         omstca.pm = pm;
         omstca.doProcess = doProcess;
         omstca.doReset = doReset;
@@ -0,0 +1,229 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.modules;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import javax.media.jai.iterator.RandomIter;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.hortonmachine.gears.io.las.ALasDataManager;
+import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.v_1_0.LasWriterBuffered;
+import org.hortonmachine.gears.io.las.index.LasIndexer;
+import org.hortonmachine.gears.io.rasterreader.OmsRasterReader;
+import org.hortonmachine.gears.io.rasterwriter.OmsRasterWriter;
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.libs.modules.Variables;
+import org.hortonmachine.gears.modules.r.interpolation2d.OmsSurfaceInterpolator;
+import org.hortonmachine.gears.modules.r.rastergenerator.OmsRasterGenerator;
+import org.hortonmachine.gears.utils.CrsUtilities;
+import org.hortonmachine.gears.utils.RegionMap;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.gears.utils.files.FileUtilities;
+import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
+import org.hortonmachine.lesto.modules.raster.Las2RasterInterpolator;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * Test {@link Las2RasterInterpolator} against the interpolation of the points read as records.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestLas2RasterInterpolator extends HMTestCase {
+
+    private static final double WEST = 660000.0;
+    private static final double SOUTH = 5100000.0;
+    private static final double THRESHOLD = 1.0;
+
+    public void testInterpolation() throws Exception {
+        File folder = Files.createTempDirectory("hm_test_las2rasterinterpolator").toFile();
+        try {
+            CoordinateReferenceSystem crs = CrsUtilities.getCrsFromEpsg("EPSG:32632");
+            File lasFolder = new File(folder, "las");
+            lasFolder.mkdirs();
+            writeLas(new File(lasFolder, "points.las"), crs);
+            LasIndexer indexer = new LasIndexer();
+            indexer.pm = pm;
+            indexer.inFolder = lasFolder.getAbsolutePath();
+            indexer.pCode = "EPSG:32632";
+            indexer.pCellsize = 5;
+            indexer.process();
+            File indexFile = new File(lasFolder, LasIndexer.INDEX_LASFOLDER);
+
+            File dtmFile = new File(folder, "dtm.tif");
+            writeDtm(dtmFile, crs);
+            File outFile = new File(folder, "out.tif");
+
+            Las2RasterInterpolator interpolator = new Las2RasterInterpolator();
+            interpolator.pm = pm;
+            interpolator.inIndexFile = indexFile.getAbsolutePath();
+            interpolator.inDtm = dtmFile.getAbsolutePath();
+            interpolator.pThreshold = THRESHOLD;
+            interpolator.pImpulse = 1;
+            interpolator.pXres = 2.0;
+            interpolator.pYres = 2.0;
+            interpolator.outRaster = outFile.getAbsolutePath();
+            interpolator.process();
+
+            GridCoverage2D dtm = OmsRasterReader.readRaster(dtmFile.getAbsolutePath());
+            GridCoverage2D expected = interpolateRecords(indexFile, dtm, 2.0, 2.0);
+            GridCoverage2D out = OmsRasterReader.readRaster(outFile.getAbsolutePath());
+            assertRastersEqual(expected, out);
+        } finally {
+            FileUtilities.deleteFileOrDir(folder);
+        }
+    }
+
+    private void assertRastersEqual( GridCoverage2D expected, GridCoverage2D result ) {
+        RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(expected);
+        int cols = regionMap.getCols();
+        int rows = regionMap.getRows();
+        RegionMap resultRegionMap = CoverageUtilities.getRegionParamsFromGridCoverage(result);
+        assertEquals(cols, resultRegionMap.getCols());
+        assertEquals(rows, resultRegionMap.getRows());
+        RandomIter expectedIter = CoverageUtilities.getRandomIterator(expected);
+        RandomIter resultIter = CoverageUtilities.getRandomIterator(result);
+        int valid = 0;
+        for( int r = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++ ) {
+                double expectedValue = expectedIter.getSampleDouble(c, r, 0);
+                double value = resultIter.getSampleDouble(c, r, 0);
+                if (HMConstants.isNovalue(expectedValue)) {
+                    assertTrue(HMConstants.isNovalue(value));
+                } else {
+                    assertEquals(expectedValue, value, DELTA);
+                    valid++;
+                }
+            }
+        }
+        assertTrue(valid > 0);
+        expectedIter.done();
+        resultIter.done();
+    }
+
+    /**
+     * The interpolation as it was done before the point batches, from the records.
+     */
+    private GridCoverage2D interpolateRecords( File indexFile, GridCoverage2D dtm, double xRes, double yRes ) throws Exception {
+        CoordinateReferenceSystem crs = dtm.getCoordinateReferenceSystem();
+        DefaultFeatureCollection newCollection = new DefaultFeatureCollection();
+        try (ALasDataManager lasData = ALasDataManager.getDataManager(indexFile, dtm, THRESHOLD, crs)) {
+            lasData.open();
+            lasData.setImpulsesConstraint(new double[]{1});
+            List<LasRecord> lasPoints = lasData.getPointsInGeometry(CoverageUtilities.getRegionPolygon(dtm), false);
+            assertTrue(lasPoints.size() > 0);
+
+            SimpleFeatureTypeBuilder b = new SimpleFeatureTypeBuilder();
+            b.setName("lasdata");
+            b.setCRS(crs);
+            b.add("the_geom", Point.class);
+            b.add("elev", Double.class);
+            SimpleFeatureType featureType = b.buildFeatureType();
+            SimpleFeatureBuilder builder = new SimpleFeatureBuilder(featureType);
+            for( LasRecord r : lasPoints ) {
+                Point point = GeometryUtilities.gf().createPoint(new Coordinate(r.x, r.y));
+                builder.addAll(new Object[]{point, r.z});
+                newCollection.add(builder.buildFeature(null));
+            }
+        }
+
+        RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(dtm);
+        double north = regionMap.getNorth();
+        double south = regionMap.getSouth();
+        double east = regionMap.getEast();
+        double west = regionMap.getWest();
+        int newRows = (int) Math.round((north - south) / yRes);
+        int newCols = (int) Math.round((east - west) / xRes);
+
+        OmsRasterGenerator omsRasterGenerator = new OmsRasterGenerator();
+        omsRasterGenerator.pNorth = north;
+        omsRasterGenerator.pSouth = south;
+        omsRasterGenerator.pWest = west;
+        omsRasterGenerator.pEast = east;
+        omsRasterGenerator.pXres = (east - west) / newCols;
+        omsRasterGenerator.pYres = (north - south) / newRows;
+        omsRasterGenerator.inCrs = crs;
+        omsRasterGenerator.doRandom = false;
+        omsRasterGenerator.process();
+
+        OmsSurfaceInterpolator idwInterpolator = new OmsSurfaceInterpolator();
+        idwInterpolator.inVector = newCollection;
+        idwInterpolator.inGrid = omsRasterGenerator.outRaster;
+        idwInterpolator.fCat = "elev";
+        idwInterpolator.pMode = Variables.IDW;
+        idwInterpolator.pBuffer = 10.0;
+        idwInterpolator.pm = pm;
+        idwInterpolator.process();
+        return idwInterpolator.outRaster;
+    }
+
+    /**
+     * Writes a dtm of 5 meters resolution on part of the las file.
+     */
+    private void writeDtm( File dtmFile, CoordinateReferenceSystem crs ) throws Exception {
+        double[][] dtmData = new double[6][10];
+        for( int r = 0; r < dtmData.length; r++ ) {
+            for( int c = 0; c < dtmData[0].length; c++ ) {
+                dtmData[r][c] = 100.0 + c * 0.5 + r * 0.3;
+            }
+        }
+        RegionMap regionMap = CoverageUtilities.makeRegionParamsMap(SOUTH + 35.0, SOUTH + 5.0, WEST + 5.0, WEST + 55.0, 5.0,
+                5.0, 10, 6);
+        GridCoverage2D dtm = CoverageUtilities.buildCoverage("dtm", dtmData, regionMap, crs, true);
+        OmsRasterWriter.writeRaster(dtmFile.getAbsolutePath(), dtm);
+    }
+
+    /**
+     * Writes a 60x40 meters las file with a point every meter, with three returns.
+     */
+    private void writeLas( File lasFile, CoordinateReferenceSystem crs ) throws Exception {
+        try (LasWriterBuffered writer = new LasWriterBuffered(lasFile, crs)) {
+            writer.setPointFormat(1);
+            writer.setBounds(WEST, WEST + 60.0, SOUTH, SOUTH + 40.0, 100.0, 110.0);
+            writer.open();
+            int index = 0;
+            for( int i = 0; i <= 60; i++ ) {
+                for( int j = 0; j <= 40; j++ ) {
+                    LasRecord record = new LasRecord();
+                    record.x = WEST + i;
+                    record.y = SOUTH + j;
+                    record.z = 100.0 + (index * 37 % 1000) * 0.01;
+                    record.intensity = (short) (index * 13 % 1000);
+                    record.returnNumber = (short) (1 + index % 3);
+                    record.numberOfReturns = 3;
+                    record.classification = 2;
+                    record.gpsTime = 1000.0 + index * 0.5;
+                    writer.addPoint(record);
+                    index++;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,206 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.modules;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import javax.media.jai.iterator.RandomIter;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.hortonmachine.gears.io.las.ALasDataManager;
+import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.PointBatch;
+import org.hortonmachine.gears.io.las.core.v_1_0.LasWriterBuffered;
+import org.hortonmachine.gears.io.las.index.LasIndexer;
+import org.hortonmachine.gears.io.rasterreader.OmsRasterReader;
+import org.hortonmachine.gears.io.rasterwriter.OmsRasterWriter;
+import org.hortonmachine.gears.io.vectorwriter.OmsVectorWriter;
+import org.hortonmachine.gears.utils.CrsUtilities;
+import org.hortonmachine.gears.utils.RegionMap;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.gears.utils.files.FileUtilities;
+import org.hortonmachine.gears.utils.geometry.GeometryUtilities;
+import org.hortonmachine.lesto.modules.filter.LasHeightDistribution;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Test {@link LasHeightDistribution} against the categorization of the points read as records.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestLasHeightDistribution extends HMTestCase {
+
+    private static final double WEST = 660000.0;
+    private static final double SOUTH = 5100000.0;
+    private static final double DEM_ELEVATION = 100.0;
+
+    public void testCategories() throws Exception {
+        File folder = Files.createTempDirectory("hm_test_lasheightdistribution").toFile();
+        try {
+            CoordinateReferenceSystem crs = CrsUtilities.getCrsFromEpsg("EPSG:32632");
+            File lasFolder = new File(folder, "las");
+            lasFolder.mkdirs();
+            writeLas(new File(lasFolder, "points.las"), crs);
+            LasIndexer indexer = new LasIndexer();
+            indexer.pm = pm;
+            indexer.inFolder = lasFolder.getAbsolutePath();
+            indexer.pCode = "EPSG:32632";
+            indexer.pCellsize = 5;
+            indexer.process();
+            File indexFile = new File(lasFolder, LasIndexer.INDEX_LASFOLDER);
+
+            File demFile = new File(folder, "dem.tif");
+            writeDem(demFile, crs);
+            File tilesFile = new File(folder, "tiles.shp");
+            writeTiles(tilesFile, crs);
+
+            File outFile = new File(folder, "cats.tif");
+            LasHeightDistribution distribution = new LasHeightDistribution();
+            runDistribution(distribution, indexFile, demFile, tilesFile, outFile);
+
+            File recordsOutFile = new File(folder, "cats_records.tif");
+            LasHeightDistribution recordsDistribution = new LasHeightDistribution(){
+                @Override
+                protected PointBatch getPointsInTile( ALasDataManager dataManager, Geometry tileGeom ) throws Exception {
+                    List<LasRecord> records = dataManager.getPointsInGeometry(tileGeom, true);
+                    PointBatch batch = new PointBatch(records.size());
+                    for( LasRecord record : records ) {
+                        batch.add(record);
+                    }
+                    return batch;
+                }
+            };
+            runDistribution(recordsDistribution, indexFile, demFile, tilesFile, recordsOutFile);
+
+            GridCoverage2D cats = OmsRasterReader.readRaster(outFile.getAbsolutePath());
+            GridCoverage2D expectedCats = OmsRasterReader.readRaster(recordsOutFile.getAbsolutePath());
+            RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(expectedCats);
+            int cols = regionMap.getCols();
+            int rows = regionMap.getRows();
+            RandomIter expectedIter = CoverageUtilities.getRandomIterator(expectedCats);
+            RandomIter catsIter = CoverageUtilities.getRandomIterator(cats);
+            int categorized = 0;
+            for( int r = 0; r < rows; r++ ) {
+                for( int c = 0; c < cols; c++ ) {
+                    double expected = expectedIter.getSampleDouble(c, r, 0);
+                    assertEquals(expected, catsIter.getSampleDouble(c, r, 0), DELTA);
+                    if (expected > 0) {
+                        categorized++;
+                    }
+                }
+            }
+            expectedIter.done();
+            catsIter.done();
+            assertTrue(categorized > 0);
+        } finally {
+            FileUtilities.deleteFileOrDir(folder);
+        }
+    }
+
+    private void runDistribution( LasHeightDistribution distribution, File indexFile, File demFile, File tilesFile,
+            File outFile ) throws Exception {
+        distribution.pm = pm;
+        distribution.inIndexFile = indexFile.getAbsolutePath();
+        distribution.inDem = demFile.getAbsolutePath();
+        distribution.inVector = tilesFile.getAbsolutePath();
+        distribution.pThres = 2.0;
+        distribution.outCats = outFile.getAbsolutePath();
+        distribution.process();
+    }
+
+    /**
+     * Writes a flat dem of 2 meters resolution on the 40x20 meters of the las file.
+     */
+    private void writeDem( File demFile, CoordinateReferenceSystem crs ) throws Exception {
+        double[][] demData = new double[10][20];
+        for( int r = 0; r < demData.length; r++ ) {
+            for( int c = 0; c < demData[0].length; c++ ) {
+                demData[r][c] = DEM_ELEVATION;
+            }
+        }
+        RegionMap regionMap = CoverageUtilities.makeRegionParamsMap(SOUTH + 20.0, SOUTH, WEST, WEST + 40.0, 2.0, 2.0, 20, 10);
+        GridCoverage2D dem = CoverageUtilities.buildCoverage("dem", demData, regionMap, crs, true);
+        OmsRasterWriter.writeRaster(demFile.getAbsolutePath(), dem);
+    }
+
+    /**
+     * Writes two tiles of 20x20 meters.
+     */
+    private void writeTiles( File tilesFile, CoordinateReferenceSystem crs ) throws Exception {
+        SimpleFeatureTypeBuilder b = new SimpleFeatureTypeBuilder();
+        b.setName("tiles");
+        b.setCRS(crs);
+        b.add("the_geom", Polygon.class);
+        b.add("id", String.class);
+        SimpleFeatureType featureType = b.buildFeatureType();
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(featureType);
+        DefaultFeatureCollection tiles = new DefaultFeatureCollection();
+        for( int i = 0; i < 2; i++ ) {
+            double west = WEST + i * 20.0;
+            Envelope envelope = new Envelope(west, west + 20.0, SOUTH, SOUTH + 20.0);
+            Polygon polygon = GeometryUtilities.createPolygonFromEnvelope(envelope);
+            builder.addAll(new Object[]{polygon, "tile" + i});
+            tiles.add(builder.buildFeature(null));
+        }
+        OmsVectorWriter.writeVector(tilesFile.getAbsolutePath(), tiles);
+    }
+
+    /**
+     * Writes a 40x20 meters las file with two vegetation layers, a low one at about 
+     * 3 meters and a high one at about 15 meters over the flat dem.
+     */
+    private void writeLas( File lasFile, CoordinateReferenceSystem crs ) throws Exception {
+        try (LasWriterBuffered writer = new LasWriterBuffered(lasFile, crs)) {
+            writer.setPointFormat(1);
+            writer.setBounds(WEST, WEST + 40.0, SOUTH, SOUTH + 20.0, DEM_ELEVATION, DEM_ELEVATION + 16.0);
+            writer.open();
+            int index = 0;
+            for( int i = 0; i < 80; i++ ) {
+                for( int j = 0; j < 40; j++ ) {
+                    LasRecord record = new LasRecord();
+                    record.x = WEST + 0.25 + i * 0.5;
+                    record.y = SOUTH + 0.25 + j * 0.5;
+                    if ((i + j) % 2 == 0) {
+                        record.z = DEM_ELEVATION + 2.5 + (index * 37 % 100) * 0.012;
+                    } else {
+                        record.z = DEM_ELEVATION + 14.0 + (index * 53 % 100) * 0.015;
+                    }
+                    record.intensity = (short) (index * 13 % 1000);
+                    record.returnNumber = 1;
+                    record.numberOfReturns = 1;
+                    record.classification = 1;
+                    record.gpsTime = 1000.0 + index * 0.5;
+                    writer.addPoint(record);
+                    index++;
+                }
+            }
+        }
+    }
+
+}
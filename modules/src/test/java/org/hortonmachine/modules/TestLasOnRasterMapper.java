@@ -0,0 +1,186 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.modules;
+
+import static java.lang.Math.round;
+
+import java.awt.Point;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import javax.media.jai.iterator.RandomIter;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.hortonmachine.gears.io.las.ALasDataManager;
+import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.core.v_1_0.LasWriterBuffered;
+import org.hortonmachine.gears.io.rasterreader.OmsRasterReader;
+import org.hortonmachine.gears.io.rasterwriter.OmsRasterWriter;
+import org.hortonmachine.gears.libs.modules.HMConstants;
+import org.hortonmachine.gears.utils.CrsUtilities;
+import org.hortonmachine.gears.utils.RegionMap;
+import org.hortonmachine.gears.utils.coverage.CoverageUtilities;
+import org.hortonmachine.gears.utils.files.FileUtilities;
+import org.hortonmachine.lesto.modules.raster.LasOnRasterMapper;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Test {@link LasOnRasterMapper} against the mapping of the points read as records.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestLasOnRasterMapper extends HMTestCase {
+
+    private static final double WEST = 660000.0;
+    private static final double SOUTH = 5100000.0;
+
+    public void testMaxAndMin() throws Exception {
+        File folder = Files.createTempDirectory("hm_test_lasonrastermapper").toFile();
+        try {
+            CoordinateReferenceSystem crs = CrsUtilities.getCrsFromEpsg("EPSG:32632");
+            File lasFile = new File(folder, "points.las");
+            writeLas(lasFile, crs);
+            File dtmFile = new File(folder, "dtm.tif");
+            writeDtm(dtmFile, crs);
+
+            for( boolean doMax : new boolean[]{true, false} ) {
+                File outFile = new File(folder, "out_" + doMax + ".tif");
+                LasOnRasterMapper mapper = new LasOnRasterMapper();
+                mapper.pm = pm;
+                mapper.inLas = lasFile.getAbsolutePath();
+                mapper.inDtm = dtmFile.getAbsolutePath();
+                mapper.pXres = 2.5;
+                mapper.pYres = 2.5;
+                mapper.doMax = doMax;
+                mapper.outRaster = outFile.getAbsolutePath();
+                mapper.process();
+
+                GridCoverage2D dtm = OmsRasterReader.readRaster(dtmFile.getAbsolutePath());
+                double[][] expected = mapRecords(lasFile, dtm, 2.5, 2.5, doMax);
+                GridCoverage2D out = OmsRasterReader.readRaster(outFile.getAbsolutePath());
+                checkMatrixEqual(out.getRenderedImage(), expected, DELTA);
+            }
+        } finally {
+            FileUtilities.deleteFileOrDir(folder);
+        }
+    }
+
+    /**
+     * The mapping as it was done before the point batches, one record at a time.
+     */
+    private double[][] mapRecords( File lasFile, GridCoverage2D dtm, double xRes, double yRes, boolean doMax )
+            throws Exception {
+        RegionMap regionMap = CoverageUtilities.getRegionParamsFromGridCoverage(dtm);
+        double north = regionMap.getNorth();
+        double south = regionMap.getSouth();
+        double east = regionMap.getEast();
+        double west = regionMap.getWest();
+        CoordinateReferenceSystem crs = dtm.getCoordinateReferenceSystem();
+        GridGeometry2D dtmGridGeometry = dtm.getGridGeometry();
+
+        int newRows = (int) round((north - south) / yRes);
+        int newCols = (int) round((east - west) / xRes);
+        GridGeometry2D newGridGeometry2D = CoverageUtilities.gridGeometryFromRegionValues(north, south, east, west, newCols,
+                newRows, crs);
+        WritableRaster newWR = CoverageUtilities.createWritableRaster(newCols, newRows, null, null,
+                HMConstants.doubleNovalue);
+        RandomIter dtmIter = CoverageUtilities.getRandomIterator(dtm);
+
+        try (ALasDataManager lasData = ALasDataManager.getDataManager(lasFile, null, 0.0, crs)) {
+            lasData.open();
+            List<LasRecord> lasPoints = lasData.getPointsInGeometry(CoverageUtilities.getRegionPolygon(dtm), false);
+            assertTrue(lasPoints.size() > 0);
+            Point gridPoint = new Point();
+            Point dtmPoint = new Point();
+            for( LasRecord lasRecord : lasPoints ) {
+                double dotZ = lasRecord.z;
+                Coordinate coordinate = new Coordinate(lasRecord.x, lasRecord.y, dotZ);
+                CoverageUtilities.colRowFromCoordinate(coordinate, newGridGeometry2D, gridPoint);
+                double newRasterValue = newWR.getSampleDouble(gridPoint.x, gridPoint.y, 0);
+                CoverageUtilities.colRowFromCoordinate(coordinate, dtmGridGeometry, dtmPoint);
+                double dtmValue = dtmIter.getSampleDouble(dtmPoint.x, dtmPoint.y, 0);
+                boolean replace = HMConstants.isNovalue(newRasterValue)
+                        || (doMax ? newRasterValue < dotZ : newRasterValue > dotZ);
+                if (replace) {
+                    if (!HMConstants.isNovalue(dtmValue) && dtmValue > dotZ) {
+                        dotZ = dtmValue;
+                    }
+                    newWR.setSample(gridPoint.x, gridPoint.y, 0, dotZ);
+                }
+            }
+        }
+
+        double[][] result = new double[newRows][newCols];
+        for( int r = 0; r < newRows; r++ ) {
+            for( int c = 0; c < newCols; c++ ) {
+                result[r][c] = newWR.getSampleDouble(c, r, 0);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes a dtm of 5 meters resolution on part of the las file, partly above the points.
+     */
+    private void writeDtm( File dtmFile, CoordinateReferenceSystem crs ) throws Exception {
+        double[][] dtmData = new double[6][10];
+        for( int r = 0; r < dtmData.length; r++ ) {
+            for( int c = 0; c < dtmData[0].length; c++ ) {
+                dtmData[r][c] = (r * 3 + c) % 11 == 0 ? HMConstants.doubleNovalue : 100.0 + c * 0.5 + r * 0.3;
+            }
+        }
+        RegionMap regionMap = CoverageUtilities.makeRegionParamsMap(SOUTH + 35.0, SOUTH + 5.0, WEST + 5.0, WEST + 55.0, 5.0,
+                5.0, 10, 6);
+        GridCoverage2D dtm = CoverageUtilities.buildCoverage("dtm", dtmData, regionMap, crs, true);
+        OmsRasterWriter.writeRaster(dtmFile.getAbsolutePath(), dtm);
+    }
+
+    /**
+     * Writes a 60x40 meters las file with a point every 0.3 meters.
+     */
+    private void writeLas( File lasFile, CoordinateReferenceSystem crs ) throws Exception {
+        try (LasWriterBuffered writer = new LasWriterBuffered(lasFile, crs)) {
+            writer.setPointFormat(1);
+            writer.setBounds(WEST, WEST + 60.0, SOUTH, SOUTH + 40.0, 100.0, 110.0);
+            writer.open();
+            int index = 0;
+            for( int i = 0; i <= 200; i++ ) {
+                for( int j = 0; j <= 133; j++ ) {
+                    LasRecord record = new LasRecord();
+                    record.x = WEST + i * 0.3;
+                    record.y = SOUTH + j * 0.3;
+                    record.z = 100.0 + (index * 37 % 1000) * 0.01;
+                    record.intensity = (short) (index * 13 % 1000);
+                    record.returnNumber = 1;
+                    record.numberOfReturns = 1;
+                    record.classification = 2;
+                    record.gpsTime = 1000.0 + index * 0.5;
+                    writer.addPoint(record);
+                    index++;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * This file is part of HortonMachine (http://www.hortonmachine.org)
+ * (C) HydroloGIS - www.hydrologis.com 
+ * 
+ * The HortonMachine is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.hortonmachine.modules;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hortonmachine.gears.io.las.core.ALasReader;
+import org.hortonmachine.gears.io.las.core.ALasWriter;
+import org.hortonmachine.gears.io.las.core.ILasHeader;
+import org.hortonmachine.gears.io.las.core.LasRecord;
+import org.hortonmachine.gears.io.las.utils.LasUtils;
+import org.hortonmachine.gears.utils.files.FileUtilities;
+import org.hortonmachine.lesto.modules.filter.LasThresholder;
+
+/**
+ * Test {@link LasThresholder}.
+ * 
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestLasThresholder extends HMTestCase {
+
+    /**
+     * More points than a batch of the thresholder, so that the last batch is partial.
+     */
+    private static final int POINTS = 150000;
+
+    public void testThresholds() throws Exception {
+        File folder = Files.createTempDirectory("hm_test_lasthresholder").toFile();
+        try {
+            File inFile = new File(folder, "in.las");
+            writeLas(inFile);
+
+            // the thresholds are values of the points, to check that they are inclusive
+            check(inFile, new File(folder, "intensity.las"), LasUtils.INTENSITY, 200.0, 600.0);
+            check(inFile, new File(folder, "intensity_lower.las"), LasUtils.INTENSITY, 900.0, null);
+            check(inFile, new File(folder, "elev.las"), LasUtils.ELEVATION, 102.0, 107.5);
+            check(inFile, new File(folder, "elev_upper.las"), LasUtils.ELEVATION, null, 100.5);
+            check(inFile, new File(folder, "intensity_upper.las"), LasUtils.INTENSITY, null, 0.0);
+        } finally {
+            FileUtilities.deleteFileOrDir(folder);
+        }
+    }
+
+    private void check( File inFile, File outFile, String type, Double lower, Double upper ) throws Exception {
+        LasThresholder thresholder = new LasThresholder();
+        thresholder.pm = pm;
+        thresholder.inLas = inFile.getAbsolutePath();
+        thresholder.pType = type;
+        thresholder.pLower = lower;
+        thresholder.pUpper = upper;
+        thresholder.outLas = outFile.getAbsolutePath();
+        thresholder.process();
+
+        File expectedFile = new File(outFile.getParentFile(), "expected_" + outFile.getName());
+        thresholdByRecord(inFile, expectedFile, type.equals(LasUtils.INTENSITY), lower, upper);
+
+        List<LasRecord> expected = readRecords(expectedFile);
+        List<LasRecord> result = readRecords(outFile);
+        assertTrue(expected.size() > 0);
+        assertEquals(expected.size(), result.size());
+        for( int i = 0; i < expected.size(); i++ ) {
+            LasRecord expectedRecord = expected.get(i);
+            LasRecord record = result.get(i);
+            assertEquals(expectedRecord.x, record.x, DELTA);
+            assertEquals(expectedRecord.y, record.y, DELTA);
+            assertEquals(expectedRecord.z, record.z, DELTA);
+            assertEquals(expectedRecord.intensity, record.intensity);
+            assertEquals(expectedRecord.returnNumber, record.returnNumber);
+            assertEquals(expectedRecord.numberOfReturns, record.numberOfReturns);
+            assertEquals(expectedRecord.classification, record.classification);
+            assertEquals(expectedRecord.gpsTime, record.gpsTime, DELTA);
+            assertEquals(expectedRecord.color[0], record.color[0]);
+            assertEquals(expectedRecord.color[1], record.color[1]);
+            assertEquals(expectedRecord.color[2], record.color[2]);
+        }
+    }
+
+    /**
+     * The filter as it was done before the batches, one record at a time.
+     */
+    private void thresholdByRecord( File inFile, File outFile, boolean doIntensity, Double lower, Double upper )
+            throws Exception {
+        try (ALasReader reader = ALasReader.getReader(inFile, null);//
+                ALasWriter writer = ALasWriter.getWriter(outFile, null);) {
+            reader.open();
+            ILasHeader header = reader.getHeader();
+            writer.setBounds(header);
+            writer.open();
+
+            double min = Double.NEGATIVE_INFINITY;
+            if (lower != null) {
+                min = lower;
+            }
+            double max = Double.POSITIVE_INFINITY;
+            if (upper != null) {
+                max = upper;
+            }
+            while( reader.hasNextPoint() ) {
+                LasRecord readNextLasDot = reader.getNextPoint();
+                double value = readNextLasDot.z;
+                if (doIntensity) {
+                    value = readNextLasDot.intensity;
+                }
+                if (value < min) {
+                    continue;
+                }
+                if (value > max) {
+                    continue;
+                }
+                writer.addPoint(readNextLasDot);
+            }
+        }
+    }
+
+    private List<LasRecord> readRecords( File lasFile ) throws Exception {
+        List<LasRecord> records = new ArrayList<LasRecord>();
+        try (ALasReader reader = ALasReader.getReader(lasFile, null)) {
+            reader.open();
+            long recordsCount = reader.getHeader().getRecordsCount();
+            while( reader.hasNextPoint() ) {
+                records.add(reader.getNextPoint());
+            }
+            assertEquals(recordsCount, records.size());
+        }
+        return records;
+    }
+
+    private void writeLas( File lasFile ) throws Exception {
+        try (ALasWriter writer = ALasWriter.getWriter(lasFile, null)) {
+            writer.setPointFormat(3);
+            writer.setBounds(660000.0, 660100.0, 5100000.0, 5100375.0, 100.0, 110.0);
+            writer.open();
+            for( int i = 0; i < POINTS; i++ ) {
+                LasRecord record = new LasRecord();
+                record.x = 660000.0 + (i % 400) * 0.25;
+                record.y = 5100000.0 + (i / 400) * 1.0;
+                record.z = 100.0 + (i * 37 % 1000) * 0.01;
+                record.intensity = (short) (i * 13 % 1000);
+                record.returnNumber = (short) (1 + i % 3);
+                record.numberOfReturns = 3;
+                record.classification = (byte) (1 + i % 5);
+                record.gpsTime = 1000.0 + i * 0.5;
+                record.color = new short[]{(short) (i % 256), (short) (i * 3 % 256), (short) (i * 7 % 256)};
+                writer.addPoint(record);
+            }
+        }
+    }
+
+}